@@ -65,7 +65,9 @@ import org.apache.hadoop.hbase.client.MetaScanner.MetaScannerVisitorBase;
 import org.apache.hadoop.hbase.client.coprocessor.Batch;
 import org.apache.hadoop.hbase.exceptions.RegionMovedException;
 import org.apache.hadoop.hbase.exceptions.RegionOpeningException;
+import org.apache.hadoop.hbase.ipc.CallDroppedException;
 import org.apache.hadoop.hbase.ipc.RpcClient;
+import org.apache.hadoop.hbase.ipc.RpcClientFactory;
 import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
 import org.apache.hadoop.hbase.protobuf.RequestConverter;
 import org.apache.hadoop.hbase.protobuf.generated.AdminProtos.AdminService;
@@ -667,7 +669,7 @@ public class HConnectionManager {
       this.registry = setupRegistry();
       retrieveClusterId();
 
-      this.rpcClient = new RpcClient(this.conf, this.clusterId);
+      this.rpcClient = RpcClientFactory.createClient(this.conf, this.clusterId);
 
       // Do we publish the status?
       Class<? extends ClusterStatusListener.Listener> listenerClass =
@@ -2385,6 +2387,11 @@ public class HConnectionManager {
           LOG.trace("Region " + regionInfo.getRegionNameAsString() + " is being opened on "
               + source.getHostnamePort() + "; not deleting the cache entry");
         }
+      } else if (exception instanceof CallDroppedException) {
+        if (LOG.isTraceEnabled()) {
+          LOG.trace("Call for region " + regionInfo.getRegionNameAsString() + " dropped by "
+              + source.getHostnamePort() + "; not deleting the cache entry");
+        }
       } else {
         deleteCachedLocation(regionInfo, source);
       }
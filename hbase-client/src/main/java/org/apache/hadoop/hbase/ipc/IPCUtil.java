@@ -33,6 +33,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.CellScanner;
 import org.apache.hadoop.hbase.HBaseIOException;
 import org.apache.hadoop.hbase.codec.Codec;
+import org.apache.hadoop.hbase.io.BoundedByteBufferPool;
 import org.apache.hadoop.hbase.io.ByteBufferOutputStream;
 import org.apache.hadoop.hbase.io.HeapSize;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -87,9 +88,28 @@ class IPCUtil {
    * flipped and is ready for reading.  Use limit to find total size.
    * @throws IOException
    */
-  @SuppressWarnings("resource")
   ByteBuffer buildCellBlock(final Codec codec, final CompressionCodec compressor,
     final CellScanner cellScanner)
+  throws IOException {
+    return buildCellBlock(codec, compressor, cellScanner, null);
+  }
+
+  /**
+   * Puts CellScanner Cells into a cell block using passed in <code>codec</code> and/or
+   * <code>compressor</code>, encoding into a buffer taken from <code>pool</code>.
+   * @param codec
+   * @param compressor
+   * @param cellScanner
+   * @param pool Pool of buffers to encode into, or null to allocate a new heap buffer
+   * @return Null or byte buffer filled with a cellblock filled with passed-in Cells encoded using
+   * passed in <code>codec</code> and/or <code>compressor</code>; the returned buffer has been
+   * flipped and is ready for reading.  Use limit to find total size.  If a <code>pool</code> was
+   * passed, the caller owns the returned buffer and should give it back to the pool when done.
+   * @throws IOException
+   */
+  @SuppressWarnings("resource")
+  ByteBuffer buildCellBlock(final Codec codec, final CompressionCodec compressor,
+    final CellScanner cellScanner, final BoundedByteBufferPool pool)
   throws IOException {
     if (cellScanner == null) return null;
     if (codec == null) throw new CellScannerButNoCodecException();
@@ -107,9 +127,17 @@ class IPCUtil {
     // within the estimated buffer size, then the cost is not worth it.  If we are often well
     // outside the guesstimated buffer size, the processing can be done in half the time if we
     // go w/ the estimated size rather than let the buffer resize.
-    ByteBufferOutputStream baos = new ByteBufferOutputStream(bufferSize);
+    ByteBuffer pooled = null;
+    ByteBufferOutputStream baos;
+    if (pool != null) {
+      pooled = pool.getBuffer();
+      baos = new ByteBufferOutputStream(pooled);
+    } else {
+      baos = new ByteBufferOutputStream(bufferSize);
+    }
     OutputStream os = baos;
     Compressor poolCompressor = null;
+    boolean done = false;
     try {
       if (compressor != null) {
         if (compressor instanceof Configurable) ((Configurable)compressor).setConf(this.conf);
@@ -121,17 +149,22 @@ class IPCUtil {
         encoder.write(cellScanner.current());
       }
       encoder.flush();
+      done = true;
     } finally {
       os.close();
       if (poolCompressor != null) CodecPool.returnCompressor(poolCompressor);
+      if (!done && pooled != null) pool.putBuffer(pooled);
     }
     if (LOG.isTraceEnabled()) {
-      if (bufferSize < baos.size()) {
+      if (pooled == null && bufferSize < baos.size()) {
         LOG.trace("Buffer grew from initial bufferSize=" + bufferSize + " to " + baos.size() +
           "; up hbase.ipc.cellblock.building.initial.buffersize?");
       }
     }
-    return baos.getByteBuffer();
+    ByteBuffer cellBlock = baos.getByteBuffer();
+    // Outgrew the pooled buffer; it is free again. The bigger one goes back once sent.
+    if (pooled != null && cellBlock != pooled) pool.putBuffer(pooled);
+    return cellBlock;
   }
 
   /**
@@ -207,6 +240,28 @@ class IPCUtil {
     return bbos;
   }
 
+  /**
+   * Write out the total size, header and param, but not the cell block, to a heap buffer sized
+   * to hold them. The caller sends the cell block right after the returned buffer, from wherever
+   * it lives, without copying it in.
+   * @param header
+   * @param param
+   * @param cellBlockLength Length of the cell block that follows, or 0 if none
+   * @return Flipped buffer, ready for reading
+   * @throws IOException
+   */
+  static ByteBuffer writeHeaderAndParam(final Message header, final Message param,
+      final int cellBlockLength)
+  throws IOException {
+    int size = getTotalSizeWhenWrittenDelimited(header, param);
+    ByteBufferOutputStream bbos = new ByteBufferOutputStream(Bytes.SIZEOF_INT + size);
+    bbos.write(Bytes.toBytes(size + cellBlockLength));
+    header.writeDelimitedTo(bbos);
+    if (param != null) param.writeDelimitedTo(bbos);
+    bbos.close();
+    return bbos.getByteBuffer();
+  }
+
   /**
    * Write out header, param, and cell block if there is one.
    * @param dos
@@ -234,7 +289,16 @@ class IPCUtil {
     dos.write(Bytes.toBytes(totalSize));
     header.writeDelimitedTo(dos);
     if (param != null) param.writeDelimitedTo(dos);
-    if (cellBlock != null) dos.write(cellBlock.array(), 0, cellBlock.remaining());
+    if (cellBlock != null) {
+      if (cellBlock.hasArray()) {
+        dos.write(cellBlock.array(), cellBlock.arrayOffset() + cellBlock.position(),
+          cellBlock.remaining());
+      } else {
+        byte [] bytes = new byte[cellBlock.remaining()];
+        cellBlock.duplicate().get(bytes);
+        dos.write(bytes);
+      }
+    }
     dos.flush();
     return totalSize;
   }
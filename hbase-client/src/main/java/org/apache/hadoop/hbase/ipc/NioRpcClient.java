@@ -0,0 +1,666 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.CellScanner;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.io.ByteBufferOutputStream;
+import org.apache.hadoop.hbase.protobuf.generated.RPCProtos.ConnectionHeader;
+import org.apache.hadoop.hbase.protobuf.generated.RPCProtos.ExceptionResponse;
+import org.apache.hadoop.hbase.protobuf.generated.RPCProtos.RequestHeader;
+import org.apache.hadoop.hbase.protobuf.generated.RPCProtos.ResponseHeader;
+import org.apache.hadoop.hbase.protobuf.generated.RPCProtos.UserInformation;
+import org.apache.hadoop.hbase.security.AuthMethod;
+import org.apache.hadoop.hbase.security.User;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+import org.apache.hadoop.hbase.util.Threads;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.security.UserGroupInformation;
+
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.Message;
+import com.google.protobuf.Message.Builder;
+
+/**
+ * An {@link RpcClient} that does its network i/o on a few selector threads instead of running a
+ * reader thread per server connection.
+ *
+ * <p>Callers serialize their requests and queue them on the connection; a selector thread writes
+ * the queue out whenever the socket takes more. The selector threads read whole responses off
+ * the sockets and hand them to a small pool of decoder threads that parse the
+ * <code>ResponseHeader</code>, the response and the cell block, and complete the waiting call.
+ * A client talking to many servers so runs a fixed
+ * <code>{@value #SELECTOR_THREADS_KEY}</code> + <code>{@value #DECODER_THREADS_KEY}</code>
+ * threads however many connections it has open.
+ *
+ * <p>Select it with {@link RpcClientFactory#CUSTOM_RPC_CLIENT_IMPL_CONF_KEY}. Connections that
+ * need SASL still go through the blocking {@link RpcClient} code, as does everything when HBase
+ * security is enabled.
+ */
+@InterfaceAudience.Private
+public class NioRpcClient extends RpcClient {
+  /** Number of selector threads shared by all connections */
+  public static final String SELECTOR_THREADS_KEY = "hbase.ipc.client.nio.selector.threads";
+  public static final int DEFAULT_SELECTOR_THREADS = 2;
+  /** Number of threads decoding responses; 0 to decode on the selector threads */
+  public static final String DECODER_THREADS_KEY = "hbase.ipc.client.nio.decoder.threads";
+  public static final int DEFAULT_DECODER_THREADS = 4;
+
+  // Most bytes passed to a single socket read or write; see RpcServer#NIO_BUFFER_LIMIT.
+  private static final int NIO_BUFFER_LIMIT = 64 * 1024;
+
+  private final boolean secure;
+  private final EventLoop[] eventLoops;
+  private final AtomicInteger nextEventLoop = new AtomicInteger(0);
+  private final ExecutorService decoders;
+  private final ConcurrentMap<ConnectionId, NioConnection> nioConnections =
+    new ConcurrentHashMap<ConnectionId, NioConnection>();
+
+  /**
+   * @param conf configuration
+   * @param clusterId
+   */
+  public NioRpcClient(Configuration conf, String clusterId) {
+    this(conf, clusterId, null);
+  }
+
+  /**
+   * @param conf configuration
+   * @param clusterId
+   * @param localAddr client socket bind address, or null
+   */
+  public NioRpcClient(Configuration conf, String clusterId, SocketAddress localAddr) {
+    super(conf, clusterId, localAddr);
+    this.secure = User.isHBaseSecurityEnabled(conf);
+    if (this.secure) {
+      LOG.info("HBase security is enabled; calls use blocking connections");
+      this.eventLoops = new EventLoop[0];
+      this.decoders = null;
+      return;
+    }
+    int decoderThreads = conf.getInt(DECODER_THREADS_KEY, DEFAULT_DECODER_THREADS);
+    this.decoders = decoderThreads <= 0 ? null : Executors.newFixedThreadPool(decoderThreads,
+      Threads.newDaemonThreadFactory("IPC Client decoder"));
+    this.eventLoops =
+      new EventLoop[Math.max(1, conf.getInt(SELECTOR_THREADS_KEY, DEFAULT_SELECTOR_THREADS))];
+    try {
+      for (int i = 0; i < this.eventLoops.length; i++) {
+        this.eventLoops[i] = new EventLoop("IPC Client selector " + i);
+        this.eventLoops[i].start();
+      }
+    } catch (IOException e) {
+      stop();
+      throw new RuntimeException("Failed opening selector", e);
+    }
+  }
+
+  @Override
+  Pair<Message, CellScanner> call(MethodDescriptor md, Message param, CellScanner cells,
+      Message returnType, User ticket, InetSocketAddress addr, int rpcTimeout)
+  throws InterruptedException, IOException {
+    if (this.secure) {
+      return super.call(md, param, cells, returnType, ticket, addr, rpcTimeout);
+    }
+    Call call = new Call(md, param, cells, returnType);
+    NioConnection connection = getConnection(ticket, call, addr, rpcTimeout);
+    connection.writeRequest(call);
+    long deadline = rpcTimeout > 0 ? call.getStartTime() + rpcTimeout : 0;
+    boolean interrupted = false;
+    //noinspection SynchronizationOnLocalVariableOrMethodParameter
+    synchronized (call) {
+      while (!call.done) {
+        long wait = 1000;
+        if (deadline > 0) {
+          long now = System.currentTimeMillis();
+          // Whoever takes the call out of the connection completes it; if the decoder has
+          // it already, the response is about to be set.
+          if (now >= deadline && connection.calls.remove(call.id) != null) {
+            call.setException(new CallTimeoutException("Call id=" + call.id +
+              ", waitTime=" + (now - call.getStartTime()) + ", rpcTimeout=" + rpcTimeout));
+            break;
+          }
+          wait = Math.max(1, Math.min(wait, deadline - now));
+        }
+        try {
+          call.wait(wait);                       // wait for the result
+        } catch (InterruptedException ignored) {
+          // save the fact that we were interrupted
+          interrupted = true;
+        }
+      }
+
+      if (interrupted) {
+        // set the interrupt flag now that we are done waiting
+        Thread.currentThread().interrupt();
+      }
+
+      if (call.error != null) {
+        if (call.error instanceof RemoteException) {
+          call.error.fillInStackTrace();
+          throw call.error;
+        }
+        // local exception
+        throw wrapException(addr, call.error);
+      }
+      return new Pair<Message, CellScanner>(call.response, call.cells);
+    }
+  }
+
+  /* Get the connection for this remote id, creating it if needed, add the call to it and make
+   * sure it is connected. */
+  private NioConnection getConnection(User ticket, Call call, InetSocketAddress addr,
+      int rpcTimeout) throws IOException {
+    if (!running.get()) throw new StoppedRpcClientException();
+    ConnectionId remoteId =
+      new ConnectionId(ticket, call.md.getService().getName(), addr, rpcTimeout);
+    NioConnection connection = this.nioConnections.get(remoteId);
+    if (connection == null) {
+      NioConnection created = new NioConnection(remoteId, nextEventLoop());
+      connection = this.nioConnections.putIfAbsent(remoteId, created);
+      if (connection == null) connection = created;
+    }
+    connection.addCall(call);
+    // Outside of any map lock: a slow server only holds up the callers that need it.
+    connection.connect();
+    return connection;
+  }
+
+  private EventLoop nextEventLoop() {
+    int i = this.nextEventLoop.getAndIncrement();
+    return this.eventLoops[(i & Integer.MAX_VALUE) % this.eventLoops.length];
+  }
+
+  @Override
+  public void cancelConnections(String hostname, int port, IOException ioe) {
+    super.cancelConnections(hostname, port, ioe);
+    for (NioConnection connection : this.nioConnections.values()) {
+      InetSocketAddress address = connection.remoteId.getAddress();
+      if (address.getPort() == port && address.getHostName().equals(hostname)) {
+        LOG.info("The server on " + hostname + ":" + port +
+          " is dead - stopping the connection " + connection.remoteId);
+        connection.markClosed(ioe);
+      }
+    }
+  }
+
+  @Override
+  public void stop() {
+    if (!running.get()) return;
+    super.stop();
+    IOException stopped = new IOException("Rpc client stopped");
+    for (NioConnection connection : this.nioConnections.values()) {
+      connection.markClosed(stopped);
+    }
+    for (EventLoop loop : this.eventLoops) {
+      if (loop != null) loop.shutdown();
+    }
+    if (this.decoders != null) this.decoders.shutdown();
+  }
+
+  /**
+   * @return number of open connections not going through the blocking client
+   */
+  int getNumNioConnections() {
+    return this.nioConnections.size();
+  }
+
+  /**
+   * A selector thread. It owns the sockets of the connections assigned to it: it registers
+   * them, writes their queued requests, reads their responses and closes them when idle.
+   */
+  private class EventLoop extends Thread {
+    private final Selector selector;
+    private final Queue<NioConnection> pendingRegistrations =
+      new ConcurrentLinkedQueue<NioConnection>();
+    private final Queue<NioConnection> pendingWrites = new ConcurrentLinkedQueue<NioConnection>();
+    private volatile boolean stopped = false;
+    private long lastIdleCheck = System.currentTimeMillis();
+
+    EventLoop(String name) throws IOException {
+      super(name);
+      setDaemon(true);
+      this.selector = Selector.open();
+    }
+
+    void register(NioConnection connection) {
+      this.pendingRegistrations.add(connection);
+      this.selector.wakeup();
+    }
+
+    void wantWrite(NioConnection connection) {
+      this.pendingWrites.add(connection);
+      this.selector.wakeup();
+    }
+
+    void shutdown() {
+      this.stopped = true;
+      this.selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!this.stopped) {
+          this.selector.select(1000);
+          NioConnection connection;
+          while ((connection = this.pendingRegistrations.poll()) != null) {
+            try {
+              connection.key = connection.channel.register(this.selector, SelectionKey.OP_READ,
+                connection);
+            } catch (ClosedChannelException e) {
+              connection.markClosed(e);
+            }
+          }
+          while ((connection = this.pendingWrites.poll()) != null) {
+            if (connection.key == null || !connection.key.isValid()) continue;
+            try {
+              connection.doWrite();
+            } catch (IOException e) {
+              connection.markClosed(e);
+            }
+          }
+          Iterator<SelectionKey> it = this.selector.selectedKeys().iterator();
+          while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+            connection = (NioConnection)key.attachment();
+            try {
+              if (key.isValid() && key.isReadable()) connection.doRead();
+              if (key.isValid() && key.isWritable()) connection.doWrite();
+            } catch (IOException e) {
+              connection.markClosed(e);
+            }
+          }
+          closeIdleConnections();
+        }
+      } catch (Throwable t) {
+        LOG.error(getName() + ": unexpected exception, closing its connections", t);
+      } finally {
+        IOException e = new IOException(getName() + " stopped");
+        for (SelectionKey key : this.selector.keys()) {
+          ((NioConnection)key.attachment()).markClosed(e);
+        }
+        try {
+          this.selector.close();
+        } catch (IOException ignored) {
+        }
+      }
+    }
+
+    private void closeIdleConnections() {
+      long now = System.currentTimeMillis();
+      if (now - this.lastIdleCheck < 1000) return;
+      this.lastIdleCheck = now;
+      for (SelectionKey key : this.selector.keys()) {
+        NioConnection connection = (NioConnection)key.attachment();
+        if (connection.calls.isEmpty() &&
+            now - connection.lastActivity > maxIdleTime) {
+          if (LOG.isDebugEnabled()) {
+            LOG.debug(getName() + ": closing idle connection to " + connection.remoteId);
+          }
+          connection.markClosed(null);
+        }
+      }
+    }
+  }
+
+  /**
+   * A connection to one server. Calls are multiplexed over the socket and responses may come
+   * back in any order.
+   */
+  private class NioConnection {
+    private final ConnectionId remoteId;
+    private final EventLoop eventLoop;
+    final Map<Integer, Call> calls = new ConcurrentHashMap<Integer, Call>();
+    // Serialized requests, written out in order by the selector thread.
+    private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+    // Whether the selector thread has been asked to flush the write queue.
+    private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+    private volatile SocketChannel channel;
+    private volatile SelectionKey key;
+    private volatile boolean closed = false;
+    private IOException closeException;
+    private volatile long lastActivity = System.currentTimeMillis();
+    // Read state, touched by the selector thread only.
+    private final ByteBuffer lengthBuffer = ByteBuffer.allocate(Bytes.SIZEOF_INT);
+    private ByteBuffer frame;
+
+    NioConnection(ConnectionId remoteId, EventLoop eventLoop) {
+      this.remoteId = remoteId;
+      this.eventLoop = eventLoop;
+    }
+
+    /**
+     * Add a call. If the connection is closed already the call fails right away.
+     */
+    void addCall(Call call) {
+      this.lastActivity = System.currentTimeMillis();
+      this.calls.put(call.id, call);
+      if (this.closed && this.calls.remove(call.id) != null) {
+        IOException e;
+        synchronized (this) {
+          e = this.closeException;
+        }
+        call.setException(e != null ? e : new IOException("Call " + call.id +
+          " not added as the connection " + this.remoteId + " is closing"));
+      }
+    }
+
+    /**
+     * Connect if not connected yet. Blocks the calling thread, and any others wanting this
+     * connection meanwhile, until the socket is up.
+     */
+    synchronized void connect() throws IOException {
+      if (this.channel != null || this.closed) return;
+      InetSocketAddress server = this.remoteId.getAddress();
+      if (server.isUnresolved()) {
+        IOException e = new UnknownHostException("unknown host: " + server.getHostName());
+        markClosed(e);
+        throw e;
+      }
+      if (failedServers.isFailedServer(server)) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Not trying to connect to " + server +
+            " this server is in the failed servers list");
+        }
+        IOException e = new FailedServerException(
+          "This server is in the failed servers list: " + server);
+        markClosed(e);
+        throw e;
+      }
+      SocketChannel ch = null;
+      try {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Connecting to " + server);
+        }
+        ch = SocketChannel.open();
+        ch.socket().setTcpNoDelay(tcpNoDelay);
+        ch.socket().setKeepAlive(tcpKeepAlive);
+        if (localAddr != null) ch.socket().bind(localAddr);
+        ch.socket().connect(server, getSocketTimeout(conf));
+        ch.configureBlocking(false);
+      } catch (IOException e) {
+        if (ch != null) {
+          try {
+            ch.close();
+          } catch (IOException ignored) {
+          }
+        }
+        failedServers.addToFailedServers(server);
+        markClosed(e);
+        throw e;
+      }
+      // Preamble and connection header go out ahead of any request.
+      this.writeQueue.add(getConnectionHeaderPreamble());
+      this.writeQueue.add(getConnectionHeader());
+      this.writeScheduled.set(true);
+      this.channel = ch;
+      this.eventLoop.register(this);
+      this.eventLoop.wantWrite(this);
+    }
+
+    private ByteBuffer getConnectionHeaderPreamble() {
+      // Preamble is six bytes -- 'HBas' + VERSION + AUTH_CODE
+      int rpcHeaderLen = HConstants.RPC_HEADER.array().length;
+      ByteBuffer preamble = ByteBuffer.allocate(rpcHeaderLen + 2);
+      preamble.put(HConstants.RPC_HEADER.array());
+      preamble.put(HConstants.RPC_CURRENT_VERSION);
+      preamble.put(AuthMethod.SIMPLE.code);
+      preamble.flip();
+      return preamble;
+    }
+
+    private ByteBuffer getConnectionHeader() {
+      ConnectionHeader.Builder builder = ConnectionHeader.newBuilder();
+      builder.setServiceName(this.remoteId.getServiceName());
+      UserGroupInformation ugi =
+        this.remoteId.getTicket() == null ? null : this.remoteId.getTicket().getUGI();
+      if (ugi != null) {
+        // Send both effective user and real user for simple auth
+        UserInformation.Builder userInfoPB = UserInformation.newBuilder();
+        userInfoPB.setEffectiveUser(ugi.getUserName());
+        if (ugi.getRealUser() != null) {
+          userInfoPB.setRealUser(ugi.getRealUser().getUserName());
+        }
+        builder.setUserInfo(userInfoPB.build());
+      }
+      if (codec != null) {
+        builder.setCellBlockCodecClass(codec.getClass().getCanonicalName());
+      }
+      if (compressor != null) {
+        builder.setCellBlockCompressorClass(compressor.getClass().getCanonicalName());
+      }
+      ConnectionHeader header = builder.build();
+      ByteBuffer bb = ByteBuffer.allocate(Bytes.SIZEOF_INT + header.getSerializedSize());
+      bb.putInt(header.getSerializedSize());
+      bb.put(header.toByteArray());
+      bb.flip();
+      return bb;
+    }
+
+    /**
+     * Serialize the call and queue it for the selector thread. Does not block.
+     */
+    void writeRequest(Call call) {
+      if (this.closed) return;
+      ByteBuffer request;
+      try {
+        ByteBuffer cellBlock = ipcUtil.buildCellBlock(codec, compressor, call.cells);
+        RequestHeader header = buildRequestHeader(call, this.remoteId.rpcTimeout, cellBlock);
+        ByteBufferOutputStream bbos = IPCUtil.write(header, call.param, cellBlock);
+        request = bbos.getByteBuffer();
+        if (LOG.isTraceEnabled()) {
+          LOG.trace("Queued request of " + request.remaining() + " bytes to " + this.remoteId);
+        }
+      } catch (IOException e) {
+        // Nothing was sent; only this call is affected.
+        if (this.calls.remove(call.id) != null) call.setException(e);
+        return;
+      }
+      this.writeQueue.add(request);
+      if (this.writeScheduled.compareAndSet(false, true)) {
+        this.eventLoop.wantWrite(this);
+      }
+    }
+
+    /**
+     * Write out as much of the queue as the socket takes. Selector thread only.
+     */
+    void doWrite() throws IOException {
+      while (true) {
+        ByteBuffer bb;
+        while ((bb = this.writeQueue.peek()) != null) {
+          while (bb.hasRemaining()) {
+            int limit = bb.limit();
+            bb.limit(Math.min(limit, bb.position() + NIO_BUFFER_LIMIT));
+            int n;
+            try {
+              n = this.channel.write(bb);
+            } finally {
+              bb.limit(limit);
+            }
+            if (n == 0) break;
+          }
+          if (bb.hasRemaining()) {
+            // Socket is full; carry on when it is writable again.
+            this.key.interestOps(this.key.interestOps() | SelectionKey.OP_WRITE);
+            return;
+          }
+          this.writeQueue.poll();
+          this.lastActivity = System.currentTimeMillis();
+        }
+        this.writeScheduled.set(false);
+        // A request queued after the queue looked empty but before the flag was cleared would
+        // otherwise sit there until the next one.
+        if (this.writeQueue.isEmpty() || !this.writeScheduled.compareAndSet(false, true)) break;
+      }
+      this.key.interestOps(this.key.interestOps() & ~SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Read what is available. Every complete response goes to a decoder. Selector thread only.
+     */
+    void doRead() throws IOException {
+      while (true) {
+        if (this.frame == null) {
+          if (this.channel.read(this.lengthBuffer) < 0) throw new EOFException();
+          if (this.lengthBuffer.hasRemaining()) return;
+          this.lengthBuffer.flip();
+          int totalSize = this.lengthBuffer.getInt();
+          this.lengthBuffer.clear();
+          if (totalSize < 0) throw new IOException("Bad response size " + totalSize);
+          this.frame = ByteBuffer.allocate(totalSize);
+        }
+        if (this.frame.hasRemaining()) {
+          int limit = this.frame.limit();
+          this.frame.limit(Math.min(limit, this.frame.position() + NIO_BUFFER_LIMIT));
+          int n;
+          try {
+            n = this.channel.read(this.frame);
+          } finally {
+            this.frame.limit(limit);
+          }
+          if (n < 0) throw new EOFException();
+          if (this.frame.hasRemaining()) {
+            if (n == 0) return;
+            continue;
+          }
+        }
+        final byte [] response = this.frame.array();
+        this.frame = null;
+        this.lastActivity = System.currentTimeMillis();
+        if (decoders == null) {
+          decode(response);
+        } else {
+          try {
+            decoders.execute(new Runnable() {
+              @Override
+              public void run() {
+                decode(response);
+              }
+            });
+          } catch (RejectedExecutionException e) {
+            throw new IOException("Rpc client stopped", e);
+          }
+        }
+      }
+    }
+
+    /**
+     * Parse a response and complete its call.
+     * @param response a whole response, less the leading total size
+     */
+    void decode(byte [] response) {
+      try {
+        ByteArrayInputStream in = new ByteArrayInputStream(response);
+        ResponseHeader responseHeader = ResponseHeader.parseDelimitedFrom(in);
+        int id = responseHeader.getCallId();
+        // Null if the call timed out and was cleaned up already.
+        Call call = this.calls.remove(id);
+        if (responseHeader.hasException()) {
+          ExceptionResponse exceptionResponse = responseHeader.getException();
+          RemoteException re = createRemoteException(exceptionResponse);
+          if (isFatalConnectionException(exceptionResponse)) markClosed(re);
+          if (call != null) call.setException(re);
+          return;
+        }
+        if (call == null) {
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("Unknown callId: " + id + ", skipping response of " + response.length +
+              " bytes");
+          }
+          return;
+        }
+        Message value = null;
+        if (call.responseDefaultType != null) {
+          Builder builder = call.responseDefaultType.newBuilderForType();
+          builder.mergeDelimitedFrom(in);
+          value = builder.build();
+        }
+        CellScanner cellBlockScanner = null;
+        if (responseHeader.hasCellBlockMeta()) {
+          // The cell block is what ends the response.
+          int size = responseHeader.getCellBlockMeta().getLength();
+          cellBlockScanner = ipcUtil.createCellScanner(codec, compressor, response,
+            response.length - size, size);
+        }
+        call.setResponse(value, cellBlockScanner);
+      } catch (IOException e) {
+        markClosed(e);
+      } catch (RuntimeException e) {
+        LOG.warn("Failed decoding response from " + this.remoteId, e);
+        markClosed(new IOException("Failed decoding response", e));
+      }
+    }
+
+    /**
+     * Close the connection and fail every call on it. May be called from any thread, any number
+     * of times.
+     * @param e reason, or null if closed for being idle
+     */
+    void markClosed(IOException e) {
+      synchronized (this) {
+        if (this.closed) return;
+        this.closed = true;
+        this.closeException = e;
+      }
+      nioConnections.remove(this.remoteId, this);
+      if (this.key != null) this.key.cancel();
+      if (this.channel != null) {
+        try {
+          this.channel.close();
+        } catch (IOException ignored) {
+        }
+      }
+      if (e != null && LOG.isDebugEnabled()) {
+        LOG.debug("Closing connection to " + this.remoteId + ": " + e.getMessage());
+      }
+      IOException callException = e != null ? e : new IOException("Unexpected closed connection");
+      for (Integer id : this.calls.keySet()) {
+        Call call = this.calls.remove(id);
+        if (call != null) call.setException(callException);
+      }
+    }
+  }
+}
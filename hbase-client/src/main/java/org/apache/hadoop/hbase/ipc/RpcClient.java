@@ -121,9 +121,9 @@ public class RpcClient {
   protected final boolean tcpKeepAlive; // if T then use keepalives
   protected int pingInterval; // how often sends ping to the server in msecs
   protected FailedServers failedServers;
-  private final Codec codec;
-  private final CompressionCodec compressor;
-  private final IPCUtil ipcUtil;
+  final Codec codec;
+  final CompressionCodec compressor;
+  final IPCUtil ipcUtil;
 
   protected final SocketFactory socketFactory;           // how to create sockets
   protected String clusterId;
@@ -1004,23 +1004,9 @@ public class RpcClient {
     protected void writeRequest(Call call) {
       if (shouldCloseConnection.get()) return;
       try {
-        RequestHeader.Builder builder = RequestHeader.newBuilder();
-        builder.setCallId(call.id);
-        if (Trace.isTracing()) {
-          Span s = Trace.currentSpan();
-          builder.setTraceInfo(RPCTInfo.newBuilder().
-            setParentId(s.getSpanId()).setTraceId(s.getTraceId()));
-        }
-        builder.setMethodName(call.md.getName());
-        builder.setRequestParam(call.param != null);
         ByteBuffer cellBlock = ipcUtil.buildCellBlock(this.codec, this.compressor, call.cells);
-        if (cellBlock != null) {
-          CellBlockMeta.Builder cellBlockBuilder = CellBlockMeta.newBuilder();
-          cellBlockBuilder.setLength(cellBlock.limit());
-          builder.setCellBlockMeta(cellBlockBuilder.build());
-        }
+        RequestHeader header = buildRequestHeader(call, remoteId.rpcTimeout, cellBlock);
         //noinspection SynchronizeOnNonFinalField
-        RequestHeader header = builder.build();
         synchronized (this.out) { // FindBugs IS2_INCONSISTENT_SYNC
           IPCUtil.write(this.out, header, call.param, cellBlock);
         }
@@ -1109,30 +1095,6 @@ public class RpcClient {
       }
     }
 
-    /**
-     * @param e
-     * @return True if the exception is a fatal connection exception.
-     */
-    private boolean isFatalConnectionException(final ExceptionResponse e) {
-      return e.getExceptionClassName().
-        equals(FatalConnectionException.class.getName());
-    }
-
-    /**
-     * @param e
-     * @return RemoteException made from passed <code>e</code>
-     */
-    private RemoteException createRemoteException(final ExceptionResponse e) {
-      String innerExceptionClassName = e.getExceptionClassName();
-      boolean doNotRetry = e.getDoNotRetry();
-      return e.hasHostname()?
-        // If a hostname then add it to the RemoteWithExtrasException
-        new RemoteWithExtrasException(innerExceptionClassName,
-          e.getStackTrace(), e.getHostname(), e.getPort(), doNotRetry):
-        new RemoteWithExtrasException(innerExceptionClassName,
-          e.getStackTrace(), doNotRetry);
-    }
-
     protected synchronized void markClosed(IOException e) {
       if (shouldCloseConnection.compareAndSet(false, true)) {
         closeException = e;
@@ -1190,6 +1152,59 @@ public class RpcClient {
     }
   }
 
+  /**
+   * @param call
+   * @param rpcTimeout timeout of the connection the call goes out on, 0 if none
+   * @param cellBlock the call's cell block, or null
+   * @return Header to send ahead of the call's param and cell block
+   */
+  static RequestHeader buildRequestHeader(final Call call, final int rpcTimeout,
+      final ByteBuffer cellBlock) {
+    RequestHeader.Builder builder = RequestHeader.newBuilder();
+    builder.setCallId(call.id);
+    if (Trace.isTracing()) {
+      Span s = Trace.currentSpan();
+      builder.setTraceInfo(RPCTInfo.newBuilder().
+        setParentId(s.getSpanId()).setTraceId(s.getTraceId()));
+    }
+    builder.setMethodName(call.md.getName());
+    builder.setRequestParam(call.param != null);
+    if (rpcTimeout > 0) {
+      // Lets the server skip the call if it gets to it only after we have stopped waiting
+      builder.setTimeout(rpcTimeout);
+    }
+    if (cellBlock != null) {
+      CellBlockMeta.Builder cellBlockBuilder = CellBlockMeta.newBuilder();
+      cellBlockBuilder.setLength(cellBlock.limit());
+      builder.setCellBlockMeta(cellBlockBuilder.build());
+    }
+    return builder.build();
+  }
+
+  /**
+   * @param e
+   * @return True if the exception is a fatal connection exception.
+   */
+  static boolean isFatalConnectionException(final ExceptionResponse e) {
+    return e.getExceptionClassName().
+      equals(FatalConnectionException.class.getName());
+  }
+
+  /**
+   * @param e
+   * @return RemoteException made from passed <code>e</code>
+   */
+  static RemoteException createRemoteException(final ExceptionResponse e) {
+    String innerExceptionClassName = e.getExceptionClassName();
+    boolean doNotRetry = e.getDoNotRetry();
+    return e.hasHostname()?
+      // If a hostname then add it to the RemoteWithExtrasException
+      new RemoteWithExtrasException(innerExceptionClassName,
+        e.getStackTrace(), e.getHostname(), e.getPort(), doNotRetry):
+      new RemoteWithExtrasException(innerExceptionClassName,
+        e.getStackTrace(), doNotRetry);
+  }
+
   @edu.umd.cs.findbugs.annotations.SuppressWarnings(value="IS2_INCONSISTENT_SYNC",
     justification="Presume sync not needed setting socket timeout")
   private static void setSocketTimeout(final Socket socket, final int rpcTimeout)
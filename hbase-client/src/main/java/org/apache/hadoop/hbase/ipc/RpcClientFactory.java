@@ -0,0 +1,68 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.net.SocketAddress;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Creates the {@link RpcClient} implementation named by {@link #CUSTOM_RPC_CLIENT_IMPL_CONF_KEY}:
+ * the blocking, thread per connection {@link RpcClient} by default, or {@link NioRpcClient}.
+ */
+@InterfaceAudience.Private
+public final class RpcClientFactory {
+  public static final String CUSTOM_RPC_CLIENT_IMPL_CONF_KEY = "hbase.rpc.client.impl";
+
+  private RpcClientFactory() {
+  }
+
+  /**
+   * @param conf configuration
+   * @param clusterId
+   * @return the configured client
+   */
+  public static RpcClient createClient(Configuration conf, String clusterId) {
+    return createClient(conf, clusterId, null);
+  }
+
+  /**
+   * @param conf configuration
+   * @param clusterId
+   * @param localAddr client socket bind address, or null
+   * @return the configured client
+   */
+  public static RpcClient createClient(Configuration conf, String clusterId,
+      SocketAddress localAddr) {
+    Class<? extends RpcClient> clazz = conf.getClass(CUSTOM_RPC_CLIENT_IMPL_CONF_KEY,
+      RpcClient.class, RpcClient.class);
+    if (clazz == RpcClient.class) return new RpcClient(conf, clusterId, localAddr);
+    try {
+      Constructor<? extends RpcClient> ctor =
+        clazz.getConstructor(Configuration.class, String.class, SocketAddress.class);
+      return ctor.newInstance(conf, clusterId, localAddr);
+    } catch (InvocationTargetException e) {
+      throw new RuntimeException("Failed creating " + clazz.getName(), e.getCause());
+    } catch (Exception e) {
+      throw new RuntimeException("Failed creating " + clazz.getName(), e);
+    }
+  }
+}
@@ -95,11 +95,11 @@ public class PoolMap<K, V> implements Map<K, V> {
     return null;
   }
 
-  public boolean remove(K key, V value) {
+  public boolean remove(Object key, Object value) {
     Pool<V> pool = pools.get(key);
     boolean res = false;
     if (pool != null) {
-      res = pool.remove(value);
+      res = pool.remove((V) value);
       if (res && pool.size() == 0) {
         pools.remove(key);
       }
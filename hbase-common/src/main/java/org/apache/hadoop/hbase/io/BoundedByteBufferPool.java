@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * A reservoir of reusable ByteBuffers, usually direct ones, for when allocating a new buffer per
+ * use costs more than keeping a few around.
+ *
+ * <p>{@link #getBuffer()} hands out a pooled buffer if there is one, else it allocates a new one
+ * of the initial size. Buffers come back through {@link #putBuffer(ByteBuffer)}; the pool keeps
+ * at most <code>maxToCache</code> of them and drops any larger than
+ * <code>maxByteBufferSizeToCache</code>, so a single huge response does not pin its buffer
+ * forever. Buffers that had to grow while in use are welcome back, which lets the pool settle
+ * on the sizes its users actually need.
+ *
+ * <p>Thread safe.
+ */
+@InterfaceAudience.Private
+public class BoundedByteBufferPool {
+  private static final Log LOG = LogFactory.getLog(BoundedByteBufferPool.class);
+
+  private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+
+  private final int maxByteBufferSizeToCache;
+  private final int maxToCache;
+  private final int initialByteBufferSize;
+  private final boolean createDirectByteBuffer;
+
+  // Buffers and bytes currently held by the pool.
+  private final AtomicInteger count = new AtomicInteger(0);
+  private final AtomicLong totalSize = new AtomicLong(0);
+  // Buffers handed out of the pool, and buffers that had to be allocated because it was empty.
+  private final AtomicLong hits = new AtomicLong(0);
+  private final AtomicLong allocations = new AtomicLong(0);
+
+  /**
+   * @param maxByteBufferSizeToCache largest buffer the pool takes back
+   * @param initialByteBufferSize size of the buffers allocated when the pool is empty
+   * @param maxToCache most buffers the pool holds at once
+   * @param createDirectByteBuffer whether to allocate direct buffers
+   */
+  public BoundedByteBufferPool(final int maxByteBufferSizeToCache,
+      final int initialByteBufferSize, final int maxToCache,
+      final boolean createDirectByteBuffer) {
+    this.maxByteBufferSizeToCache = maxByteBufferSizeToCache;
+    this.initialByteBufferSize = initialByteBufferSize;
+    this.maxToCache = maxToCache;
+    this.createDirectByteBuffer = createDirectByteBuffer;
+  }
+
+  /**
+   * @return a cleared buffer, from the pool if it has one, else newly allocated
+   */
+  public ByteBuffer getBuffer() {
+    ByteBuffer bb = this.buffers.poll();
+    if (bb != null) {
+      this.count.decrementAndGet();
+      this.totalSize.addAndGet(-bb.capacity());
+      this.hits.incrementAndGet();
+      bb.clear();
+      return bb;
+    }
+    this.allocations.incrementAndGet();
+    return this.createDirectByteBuffer ? ByteBuffer.allocateDirect(this.initialByteBufferSize)
+      : ByteBuffer.allocate(this.initialByteBufferSize);
+  }
+
+  /**
+   * Give a buffer back to the pool. It is dropped if too big or if the pool is full.
+   * The caller must not touch <code>bb</code> afterwards.
+   * @param bb buffer to return
+   */
+  public void putBuffer(final ByteBuffer bb) {
+    if (bb.capacity() > this.maxByteBufferSizeToCache
+        || bb.isDirect() != this.createDirectByteBuffer) {
+      return;
+    }
+    if (this.count.incrementAndGet() > this.maxToCache) {
+      this.count.decrementAndGet();
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("Pool full, dropping buffer of " + bb.capacity() + " bytes");
+      }
+      return;
+    }
+    this.totalSize.addAndGet(bb.capacity());
+    this.buffers.offer(bb);
+  }
+
+  /**
+   * @return number of buffers in the pool
+   */
+  public int getBufferCount() {
+    return this.count.get();
+  }
+
+  /**
+   * @return total capacity of the buffers in the pool
+   */
+  public long getTotalSize() {
+    return this.totalSize.get();
+  }
+
+  /**
+   * @return how many times {@link #getBuffer()} was served from the pool
+   */
+  public long getHitCount() {
+    return this.hits.get();
+  }
+
+  /**
+   * @return how many times {@link #getBuffer()} found the pool empty and allocated
+   */
+  public long getAllocationCount() {
+    return this.allocations.get();
+  }
+
+  @Override
+  public String toString() {
+    return "buffers=" + getBufferCount() + ", totalSize=" + getTotalSize() +
+      ", hits=" + getHitCount() + ", allocations=" + getAllocationCount();
+  }
+}
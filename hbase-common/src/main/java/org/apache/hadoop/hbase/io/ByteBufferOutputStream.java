@@ -50,6 +50,17 @@ public class ByteBufferOutputStream extends OutputStream {
     }
   }
 
+  /**
+   * Writes into the passed buffer, from its start, for as long as it has room. After that the
+   * stream moves to a new buffer, direct if <code>bb</code> is; check {@link #getByteBuffer()}
+   * to see which one holds the data.
+   * @param bb buffer to write into; it is cleared first
+   */
+  public ByteBufferOutputStream(final ByteBuffer bb) {
+    this.buf = bb;
+    this.buf.clear();
+  }
+
   public int size() {
     return buf.position();
   }
@@ -71,7 +82,8 @@ public class ByteBufferOutputStream extends OutputStream {
           (long)(Integer.MAX_VALUE));
       newSize = Math.max(newSize, buf.position() + extra);
 
-      ByteBuffer newBuf = ByteBuffer.allocate(newSize);
+      ByteBuffer newBuf = buf.isDirect() ?
+        ByteBuffer.allocateDirect(newSize) : ByteBuffer.allocate(newSize);
       buf.flip();
       newBuf.put(buf);
       buf = newBuf;
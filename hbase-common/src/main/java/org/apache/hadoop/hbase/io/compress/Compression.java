@@ -18,6 +18,7 @@ package org.apache.hadoop.hbase.io.compress;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -28,6 +29,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.compress.CodecPool;
 import org.apache.hadoop.io.compress.CompressionCodec;
@@ -214,6 +216,11 @@ public final class Compression {
           throw new RuntimeException(e);
         }
       }
+
+      @Override
+      boolean isBlockFramed() {
+        return true;
+      }
     },
     LZ4("lz4") {
       // Use base type to avoid compile-time dependencies.
@@ -243,6 +250,11 @@ public final class Compression {
           throw new RuntimeException(e);
         }
       }
+
+      @Override
+      boolean isBlockFramed() {
+        return true;
+      }
   };
 
     private final Configuration conf;
@@ -260,6 +272,16 @@ public final class Compression {
 
     abstract CompressionCodec getCodec(Configuration conf);
 
+    /**
+     * Whether the streams of this algorithm's codec frame the data the way
+     * {@link org.apache.hadoop.io.compress.BlockCompressorStream} does, so
+     * that it can be decompressed without a stream by
+     * {@link Compression#decompress(byte[], int, byte[], int, int, int, Algorithm)}.
+     */
+    boolean isBlockFramed() {
+      return false;
+    }
+
     public InputStream createDecompressionStream(
         InputStream downStream, Decompressor decompressor,
         int downStreamBufferSize) throws IOException {
@@ -444,4 +466,107 @@ public final class Compression {
     }
   }
 
+  /**
+   * Decompresses data from the given array using the configured compression
+   * algorithm. The data of algorithms whose streams are block framed is
+   * decompressed straight from src into dest by the decompressor, without
+   * going through a decompression stream and its buffers; that of the others
+   * is read from their decompression stream. It will throw an exception if
+   * the dest buffer does not have enough space to hold the decompressed data.
+   *
+   * @param dest
+   *          the output bytes buffer
+   * @param destOffset
+   *          start writing position of the output buffer
+   * @param src
+   *          the input bytes buffer
+   * @param srcOffset
+   *          start position of the compressed data in the input buffer
+   * @param compressedSize
+   *          compressed data size, header not included
+   * @param uncompressedSize
+   *          uncompressed data size, header not included
+   * @param compressAlgo
+   *          compression algorithm used
+   * @throws IOException
+   */
+  public static void decompress(byte[] dest, int destOffset, byte[] src,
+      int srcOffset, int compressedSize, int uncompressedSize,
+      Compression.Algorithm compressAlgo) throws IOException {
+    if (!compressAlgo.isBlockFramed()) {
+      decompress(dest, destOffset,
+          new ByteArrayInputStream(src, srcOffset, compressedSize),
+          compressedSize, uncompressedSize, compressAlgo);
+      return;
+    }
+
+    if (dest.length - destOffset < uncompressedSize) {
+      throw new IllegalArgumentException(
+          "Output buffer does not have enough space to hold "
+              + uncompressedSize + " decompressed bytes, available: "
+              + (dest.length - destOffset));
+    }
+
+    Decompressor decompressor = null;
+    try {
+      decompressor = compressAlgo.getDecompressor();
+      decompressBlocks(decompressor, dest, destOffset, src, srcOffset,
+          compressedSize, uncompressedSize);
+    } finally {
+      if (decompressor != null) {
+        compressAlgo.returnDecompressor(decompressor);
+      }
+    }
+  }
+
+  /**
+   * Decompresses block framed data as
+   * {@link org.apache.hadoop.io.compress.BlockDecompressorStream} does, but
+   * from and into arrays. The data is a sequence of blocks, each made of its
+   * uncompressed size followed by one or more compressed chunks, each
+   * preceded by its compressed size.
+   */
+  static void decompressBlocks(Decompressor decompressor, byte[] dest,
+      int destOffset, byte[] src, int srcOffset, int compressedSize,
+      int uncompressedSize) throws IOException {
+    int srcEnd = srcOffset + compressedSize;
+    int destEnd = destOffset + uncompressedSize;
+    while (destOffset < destEnd) {
+      int blockSize = readBlockFramingInt(src, srcOffset, srcEnd);
+      srcOffset += Bytes.SIZEOF_INT;
+      if (blockSize < 0 || blockSize > destEnd - destOffset) {
+        throw new IOException("Corrupt compressed data: block of " + blockSize
+            + " bytes with " + (destEnd - destOffset) + " bytes left to decompress");
+      }
+      int blockEnd = destOffset + blockSize;
+      decompressor.reset();
+      while (destOffset < blockEnd) {
+        int n = decompressor.decompress(dest, destOffset, blockEnd - destOffset);
+        if (n == 0) {
+          if (decompressor.needsInput()) {
+            int chunkSize = readBlockFramingInt(src, srcOffset, srcEnd);
+            srcOffset += Bytes.SIZEOF_INT;
+            if (chunkSize < 0 || chunkSize > srcEnd - srcOffset) {
+              throw new IOException("Corrupt compressed data: chunk of " + chunkSize
+                  + " bytes with " + (srcEnd - srcOffset) + " bytes left to read");
+            }
+            decompressor.setInput(src, srcOffset, chunkSize);
+            srcOffset += chunkSize;
+          } else if (decompressor.finished()) {
+            throw new IOException("Corrupt compressed data: block ended "
+                + (blockEnd - destOffset) + " bytes early");
+          }
+        }
+        destOffset += n;
+      }
+    }
+  }
+
+  private static int readBlockFramingInt(byte[] src, int srcOffset, int srcEnd)
+      throws IOException {
+    if (srcEnd - srcOffset < Bytes.SIZEOF_INT) {
+      throw new IOException("Corrupt compressed data: unexpected end of data");
+    }
+    return Bytes.toInt(src, srcOffset);
+  }
 }
@@ -145,6 +145,9 @@ abstract class BufferedDataBlockEncoder implements DataBlockEncoder {
 
     @Override
     public ByteBuffer getValueShallowCopy() {
+      if (!currentBuffer.hasArray()) {
+        return slice(currentBuffer, current.valueOffset, current.valueLength);
+      }
       return ByteBuffer.wrap(currentBuffer.array(),
           currentBuffer.arrayOffset() + current.valueOffset,
           current.valueLength);
@@ -157,9 +160,10 @@ abstract class BufferedDataBlockEncoder implements DataBlockEncoder {
       kvBuffer.putInt(current.keyLength);
       kvBuffer.putInt(current.valueLength);
       kvBuffer.put(current.keyBuffer, 0, current.keyLength);
-      kvBuffer.put(currentBuffer.array(),
-          currentBuffer.arrayOffset() + current.valueOffset,
+      ByteBufferUtils.copyFromBufferToArray(kvBuffer.array(), currentBuffer,
+          current.valueOffset, kvBuffer.arrayOffset() + kvBuffer.position(),
           current.valueLength);
+      kvBuffer.position(kvBuffer.position() + current.valueLength);
       return kvBuffer;
     }
 
@@ -372,4 +376,18 @@ abstract class BufferedDataBlockEncoder implements DataBlockEncoder {
     }
   }
 
+  /**
+   * Returns a view of a part of the given buffer, sharing its content. Unlike
+   * wrapping the backing array, works for direct buffers too.
+   * @param buffer the buffer, whose position and limit are left alone
+   * @param offset offset of the part in the buffer
+   * @param length length of the part
+   * @return a buffer with position 0 and limit length
+   */
+  protected static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+    ByteBuffer dup = buffer.duplicate();
+    dup.limit(offset + length);
+    dup.position(offset);
+    return dup.slice();
+  }
 }
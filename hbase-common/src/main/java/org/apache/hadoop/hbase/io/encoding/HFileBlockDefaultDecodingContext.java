@@ -16,10 +16,7 @@
  */
 package org.apache.hadoop.hbase.io.encoding;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.ByteBuffer;
 
 import org.apache.hadoop.hbase.io.compress.Compression;
@@ -27,7 +24,8 @@ import org.apache.hadoop.hbase.io.compress.Compression.Algorithm;
 
 /**
  * A default implementation of {@link HFileBlockDecodingContext}. It assumes the
- * block data section is compressed as a whole.
+ * block data section is compressed as a whole. It holds no state of its own, so
+ * one instance can decode blocks for any number of threads.
  *
  * @see HFileBlockDefaultEncodingContext for the default compression context
  *
@@ -45,11 +43,8 @@ public class HFileBlockDefaultDecodingContext implements
   @Override
   public void prepareDecoding(int onDiskSizeWithoutHeader, int uncompressedSizeWithoutHeader,
       ByteBuffer blockBufferWithoutHeader, byte[] onDiskBlock, int offset) throws IOException {
-    DataInputStream dis = new DataInputStream(new ByteArrayInputStream(onDiskBlock, offset,
-        onDiskSizeWithoutHeader));
-
     Compression.decompress(blockBufferWithoutHeader.array(),
-      blockBufferWithoutHeader.arrayOffset(), (InputStream) dis, onDiskSizeWithoutHeader,
+      blockBufferWithoutHeader.arrayOffset(), onDiskBlock, offset, onDiskSizeWithoutHeader,
       uncompressedSizeWithoutHeader, compressAlgo);
   }
 
@@ -0,0 +1,224 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.encoding;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValue.KVComparator;
+import org.apache.hadoop.hbase.util.ByteBufferUtils;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Store the KeyValues as they are, followed by the offset of the first
+ * KeyValue of each row, so that a seek binary searches the rows of the block
+ * and only walks the KeyValues of one row, rather than walking the block from
+ * its start. Costs 4 bytes a row; does not make the block any smaller.
+ *
+ * Format:
+ * 4 bytes: length of the KeyValues
+ * ... bytes: KeyValues, as in an unencoded block
+ * 4 bytes: number of rows
+ * 4 bytes a row: offset of the first KeyValue of the row, from the start of
+ *                the KeyValues
+ */
+@InterfaceAudience.Private
+public class RowIndexDataBlockEncoder extends BufferedDataBlockEncoder {
+
+  private static final int INITIAL_ROW_COUNT = 64;
+
+  @Override
+  public void internalEncodeKeyValues(DataOutputStream out,
+      ByteBuffer in, boolean includesMemstoreTS) throws IOException {
+    in.rewind();
+    int[] rowOffsets = new int[INITIAL_ROW_COUNT];
+    int rowCount = 0;
+    int prevRowOffset = -1;
+    int prevRowLength = 0;
+    while (in.hasRemaining()) {
+      int kvOffset = in.position();
+      int keyLength = in.getInt();
+      int valueLength = in.getInt();
+      int rowOffset = kvOffset + KeyValue.ROW_OFFSET + Bytes.SIZEOF_SHORT;
+      int rowLength = in.getShort(kvOffset + KeyValue.ROW_OFFSET);
+      if (prevRowOffset == -1 || !ByteBufferUtils.arePartsEqual(in,
+          prevRowOffset, prevRowLength, rowOffset, rowLength)) {
+        if (rowCount == rowOffsets.length) {
+          int[] newRowOffsets = new int[rowOffsets.length * 2];
+          System.arraycopy(rowOffsets, 0, newRowOffsets, 0, rowCount);
+          rowOffsets = newRowOffsets;
+        }
+        rowOffsets[rowCount++] = kvOffset;
+        prevRowOffset = rowOffset;
+        prevRowLength = rowLength;
+      }
+      ByteBufferUtils.skip(in, keyLength + valueLength);
+      if (includesMemstoreTS) {
+        ByteBufferUtils.readVLong(in);
+      }
+    }
+
+    ByteBufferUtils.putInt(out, in.limit());
+    in.rewind();
+    ByteBufferUtils.moveBufferToStream(out, in, in.limit());
+    ByteBufferUtils.putInt(out, rowCount);
+    for (int i = 0; i < rowCount; i++) {
+      ByteBufferUtils.putInt(out, rowOffsets[i]);
+    }
+  }
+
+  @Override
+  public ByteBuffer decodeKeyValues(DataInputStream source,
+      int preserveHeaderLength, int skipLastBytes, boolean includesMemstoreTS)
+      throws IOException {
+    int decompressedSize = source.readInt();
+    ByteBuffer buffer = ByteBuffer.allocate(decompressedSize +
+        preserveHeaderLength);
+    buffer.position(preserveHeaderLength);
+    ByteBufferUtils.copyFromStreamToBuffer(buffer, source, decompressedSize);
+    // The row index is of no use once decoded
+    int rowCount = source.readInt();
+    source.skipBytes(rowCount * Bytes.SIZEOF_INT);
+
+    return buffer;
+  }
+
+  @Override
+  public ByteBuffer getFirstKeyInBlock(ByteBuffer block) {
+    int keyLength = block.getInt(Bytes.SIZEOF_INT);
+    return slice(block, 3 * Bytes.SIZEOF_INT, keyLength);
+  }
+
+  @Override
+  public String toString() {
+    return RowIndexDataBlockEncoder.class.getSimpleName();
+  }
+
+  @Override
+  public EncodedSeeker createSeeker(KVComparator comparator,
+      boolean includesMemstoreTS) {
+    return new RowIndexSeeker(comparator, includesMemstoreTS);
+  }
+
+  private static class RowIndexSeeker
+      extends BufferedEncodedSeeker<SeekerState> {
+    private final boolean includesMemstoreTS;
+    /** The whole block, row index included */
+    private ByteBuffer block;
+    private int rowIndexOffset;
+    private int rowCount;
+    /** Scratch space for the keys of blocks without a backing array */
+    private byte[] keyCopy = new byte[0];
+
+    RowIndexSeeker(KVComparator comparator, boolean includesMemstoreTS) {
+      super(comparator);
+      this.includesMemstoreTS = includesMemstoreTS;
+    }
+
+    @Override
+    public void setCurrentBuffer(ByteBuffer buffer) {
+      block = buffer.slice();
+      rowIndexOffset = Bytes.SIZEOF_INT + block.getInt(0);
+      rowCount = block.getInt(rowIndexOffset);
+      // The seeker walks the KeyValues only
+      ByteBuffer keyValues = block.duplicate();
+      keyValues.limit(rowIndexOffset);
+      super.setCurrentBuffer(keyValues);
+    }
+
+    @Override
+    public int seekToKeyInBlock(byte[] key, int offset, int length,
+        boolean seekBefore) {
+      // Find the last row starting before the key, or at the key unless
+      // seeking before it, then walk that row
+      int low = 0;
+      int high = rowCount - 1;
+      int row = -1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int comp = compareFirstKeyOfRow(mid, key, offset, length);
+        if (comp < 0 || (comp == 0 && !seekBefore)) {
+          row = mid;
+          low = mid + 1;
+        } else {
+          high = mid - 1;
+        }
+      }
+      if (row > 0) {
+        currentBuffer.position(getRowOffset(row));
+        decodeNext();
+      } else {
+        rewind();
+      }
+      return super.seekToKeyInBlock(key, offset, length, seekBefore);
+    }
+
+    /**
+     * @return the position of the first KeyValue of the given row in the
+     *         block
+     */
+    private int getRowOffset(int row) {
+      return Bytes.SIZEOF_INT
+          + block.getInt(rowIndexOffset + Bytes.SIZEOF_INT * (row + 1));
+    }
+
+    private int compareFirstKeyOfRow(int row, byte[] key, int offset,
+        int length) {
+      int kvOffset = getRowOffset(row);
+      int keyLength = block.getInt(kvOffset);
+      int keyOffset = kvOffset + KeyValue.ROW_OFFSET;
+      if (block.hasArray()) {
+        return comparator.compareFlatKey(block.array(),
+            block.arrayOffset() + keyOffset, keyLength, key, offset, length);
+      }
+      if (keyCopy.length < keyLength) {
+        keyCopy = new byte[keyLength];
+      }
+      ByteBufferUtils.copyFromBufferToArray(keyCopy, block, keyOffset, 0,
+          keyLength);
+      return comparator.compareFlatKey(keyCopy, 0, keyLength, key, offset,
+          length);
+    }
+
+    @Override
+    protected void decodeNext() {
+      current.keyLength = currentBuffer.getInt();
+      current.valueLength = currentBuffer.getInt();
+      current.ensureSpaceForKey();
+      currentBuffer.get(current.keyBuffer, 0, current.keyLength);
+      current.valueOffset = currentBuffer.position();
+      ByteBufferUtils.skip(currentBuffer, current.valueLength);
+      if (includesMemstoreTS) {
+        current.memstoreTS = ByteBufferUtils.readVLong(currentBuffer);
+      } else {
+        current.memstoreTS = 0;
+      }
+      current.nextKvOffset = currentBuffer.position();
+    }
+
+    @Override
+    protected void decodeFirst() {
+      ByteBufferUtils.skip(currentBuffer, Bytes.SIZEOF_INT);
+      current.lastCommonPrefix = 0;
+      decodeNext();
+    }
+  }
+}
@@ -127,6 +127,31 @@ public final class ByteBufferArray {
     });
   }
 
+  /**
+   * Returns a view of a range of this buffer array, sharing its content, if
+   * the range lies within one of the buffers
+   * @param start start offset of this buffer array
+   * @param len length of the range
+   * @return a buffer with position 0 and limit len whose content is that of
+   *         the range, or null if the range spans more than one buffer
+   */
+  public ByteBuffer asSubByteBuffer(long start, int len) {
+    int startBuffer = (int) (start / bufferSize), startOffset = (int) (start % bufferSize);
+    if (startOffset + len > bufferSize || startBuffer < 0 || startBuffer >= bufferCount) {
+      return null;
+    }
+    ByteBuffer view;
+    Lock lock = locks[startBuffer];
+    lock.lock();
+    try {
+      view = buffers[startBuffer].duplicate();
+    } finally {
+      lock.unlock();
+    }
+    view.limit(startOffset + len).position(startOffset);
+    return view.slice();
+  }
+
   private interface Visitor {
     /**
      * Visit the given byte buffer, if it is a read action, we will transfer the
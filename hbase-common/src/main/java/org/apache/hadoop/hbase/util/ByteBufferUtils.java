@@ -97,6 +97,26 @@ public final class ByteBufferUtils {
     return (WritableUtils.isNegativeVInt(firstByte) ? (i ^ -1L) : i);
   }
 
+  /**
+   * Reads a vlong written as by {@link #writeVLong(ByteBuffer, long)} at the
+   * given offset of the buffer, without touching its position.
+   * @param in the buffer
+   * @param offset offset of the first byte of the vlong in the buffer
+   * @return the value
+   */
+  public static long readVLong(ByteBuffer in, int offset) {
+    byte firstByte = in.get(offset);
+    int len = WritableUtils.decodeVIntSize(firstByte);
+    if (len == 1) {
+      return firstByte;
+    }
+    long i = 0;
+    for (int idx = 1; idx < len; idx++) {
+      i = i << 8;
+      i = i | (in.get(offset + idx) & 0xFF);
+    }
+    return (WritableUtils.isNegativeVInt(firstByte) ? (i ^ -1L) : i);
+  }
 
   /**
    * Put in buffer integer using 7 bit encoding. For each written byte:
@@ -351,6 +371,48 @@ public final class ByteBufferUtils {
     }
   }
 
+  /**
+   * Copy from a buffer to an array, without touching the position of the
+   * buffer. Safe for concurrent readers of the same buffer.
+   * @param out destination array
+   * @param in source buffer
+   * @param sourceOffset offset in the source buffer
+   * @param destinationOffset offset in the destination array
+   * @param length how many bytes to copy
+   */
+  public static void copyFromBufferToArray(byte[] out, ByteBuffer in,
+      int sourceOffset, int destinationOffset, int length) {
+    if (in.hasArray()) {
+      System.arraycopy(in.array(), sourceOffset + in.arrayOffset(), out,
+          destinationOffset, length);
+    } else {
+      ByteBuffer dup = in.duplicate();
+      dup.position(sourceOffset);
+      dup.get(out, destinationOffset, length);
+    }
+  }
+
+  /**
+   * Copy from an array to a buffer, without touching the position of the
+   * buffer.
+   * @param out destination buffer
+   * @param destinationOffset offset in the destination buffer
+   * @param in source array
+   * @param sourceOffset offset in the source array
+   * @param length how many bytes to copy
+   */
+  public static void copyFromArrayToBuffer(ByteBuffer out,
+      int destinationOffset, byte[] in, int sourceOffset, int length) {
+    if (out.hasArray()) {
+      System.arraycopy(in, sourceOffset, out.array(),
+          out.arrayOffset() + destinationOffset, length);
+    } else {
+      ByteBuffer dup = out.duplicate();
+      dup.position(destinationOffset);
+      dup.put(in, sourceOffset, length);
+    }
+  }
+
   /**
    * Find length of common prefix of two parts in the buffer
    * @param buffer Where parts are located.
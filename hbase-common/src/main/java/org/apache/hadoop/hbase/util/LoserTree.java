@@ -0,0 +1,205 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.util;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * A tournament tree of losers over a fixed set of mutable elements, as used to merge sorted
+ * inputs. Every inner node keeps the loser of the match played there and the root the overall
+ * winner, the head. Only the head may change: after it moves, {@link #updateHead()} replays its
+ * matches from leaf to root against the stored losers, log(n) comparisons, and
+ * {@link #poll()} removes it the same way. Unlike a binary heap, there is no second comparison
+ * per level and no element is moved.
+ * <p>
+ * If the head still orders before {@link #peekRunnerUp()} after it changed, it is still the head
+ * and the tree is still valid, so callers can skip {@link #updateHead()}.
+ * <p>
+ * Nothing is allocated after construction. Not thread safe.
+ * @param <E> the type of elements held
+ */
+@InterfaceAudience.Private
+public class LoserTree<E> implements Iterable<E> {
+  private final Comparator<? super E> comparator;
+  /** The elements in their slots; null once removed, and loses to any element */
+  private final Object[] leaves;
+  /** tree[0] is the slot of the winner, tree[1..] the slot of the loser at each inner node */
+  private final int[] tree;
+  private int size;
+  /** Slot of the cached runner-up, or -1 if not known */
+  private int runnerUp = -1;
+
+  /**
+   * Builds the tree with n - 1 comparisons.
+   * @param elements the elements; the tree holds on to them but not to the list
+   * @param comparator orders the elements, least first
+   */
+  public LoserTree(List<? extends E> elements, Comparator<? super E> comparator) {
+    int k = Math.max(1, elements.size());
+    this.comparator = comparator;
+    this.leaves = new Object[k];
+    this.tree = new int[k];
+    for (E e : elements) {
+      if (e == null) throw new NullPointerException();
+      this.leaves[this.size++] = e;
+    }
+    // Nodes k to 2k - 1 are the leaves, the children of node n are 2n and 2n + 1
+    int[] winners = new int[2 * k];
+    for (int i = 0; i < k; i++) {
+      winners[k + i] = i;
+    }
+    for (int node = k - 1; node > 0; node--) {
+      int left = winners[2 * node];
+      int right = winners[2 * node + 1];
+      if (beats(left, right)) {
+        winners[node] = left;
+        this.tree[node] = right;
+      } else {
+        winners[node] = right;
+        this.tree[node] = left;
+      }
+    }
+    this.tree[0] = winners[1];
+  }
+
+  /** @return whether the element in slot a wins against the one in slot b */
+  @SuppressWarnings("unchecked")
+  private boolean beats(int a, int b) {
+    Object left = this.leaves[a];
+    Object right = this.leaves[b];
+    if (left == null) return false;
+    if (right == null) return true;
+    return this.comparator.compare((E)left, (E)right) <= 0;
+  }
+
+  @SuppressWarnings("unchecked")
+  private E elementAt(int slot) {
+    return (E)this.leaves[slot];
+  }
+
+  /** Plays the matches of the head's slot up to the root. */
+  private void replay() {
+    int winner = this.tree[0];
+    for (int node = (winner + this.leaves.length) >>> 1; node > 0; node >>>= 1) {
+      if (beats(this.tree[node], winner)) {
+        int loser = winner;
+        winner = this.tree[node];
+        this.tree[node] = loser;
+      }
+    }
+    this.tree[0] = winner;
+    this.runnerUp = -1;
+  }
+
+  /**
+   * @return the least element, or null if the tree is empty
+   */
+  public E peek() {
+    return elementAt(this.tree[0]);
+  }
+
+  /**
+   * @return the element that would be the head if the head were removed, or null if there is
+   *   none. The runner-up lost only to the head, so it is the least of the losers on the head's
+   *   path; finding it takes log(n) comparisons the first time after the tree changed.
+   */
+  public E peekRunnerUp() {
+    if (this.runnerUp < 0) {
+      int best = this.tree[0];
+      for (int node = (this.tree[0] + this.leaves.length) >>> 1; node > 0; node >>>= 1) {
+        int slot = this.tree[node];
+        if (best == this.tree[0] ? this.leaves[slot] != null : beats(slot, best)) {
+          best = slot;
+        }
+      }
+      // The head itself means there is no other element
+      this.runnerUp = best;
+    }
+    return this.runnerUp == this.tree[0] ? null : elementAt(this.runnerUp);
+  }
+
+  /**
+   * Restores the order after the head changed.
+   * @return the new head
+   */
+  public E updateHead() {
+    if (isEmpty()) throw new NoSuchElementException();
+    replay();
+    return peek();
+  }
+
+  /**
+   * Removes the head.
+   * @return the removed head, or null if the tree is empty
+   */
+  public E poll() {
+    if (isEmpty()) return null;
+    int slot = this.tree[0];
+    E head = elementAt(slot);
+    this.leaves[slot] = null;
+    this.size--;
+    replay();
+    return head;
+  }
+
+  public int size() {
+    return this.size;
+  }
+
+  public boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  /** @return an iterator over the elements in no particular order, not supporting removal */
+  @Override
+  public Iterator<E> iterator() {
+    return new Iterator<E>() {
+      private int next = advance(0);
+
+      private int advance(int slot) {
+        while (slot < leaves.length && leaves[slot] == null) {
+          slot++;
+        }
+        return slot;
+      }
+
+      @Override
+      public boolean hasNext() {
+        return this.next < leaves.length;
+      }
+
+      @Override
+      public E next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        E e = elementAt(this.next);
+        this.next = advance(this.next + 1);
+        return e;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+}
@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.hbase.SmallTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestBoundedByteBufferPool {
+  private static final int MAX_BUFFER_SIZE = 1024;
+  private static final int INITIAL_BUFFER_SIZE = 16;
+  private static final int MAX_TO_CACHE = 2;
+
+  private final BoundedByteBufferPool pool =
+    new BoundedByteBufferPool(MAX_BUFFER_SIZE, INITIAL_BUFFER_SIZE, MAX_TO_CACHE, true);
+
+  @Test
+  public void testReuse() {
+    ByteBuffer bb = pool.getBuffer();
+    assertTrue(bb.isDirect());
+    assertEquals(INITIAL_BUFFER_SIZE, bb.capacity());
+    assertEquals(1, pool.getAllocationCount());
+    bb.putInt(1);
+    pool.putBuffer(bb);
+    assertEquals(1, pool.getBufferCount());
+    assertEquals(INITIAL_BUFFER_SIZE, pool.getTotalSize());
+    ByteBuffer again = pool.getBuffer();
+    assertSame(bb, again);
+    assertEquals(0, again.position());
+    assertEquals(again.capacity(), again.limit());
+    assertEquals(1, pool.getHitCount());
+    assertEquals(0, pool.getBufferCount());
+    assertEquals(0, pool.getTotalSize());
+  }
+
+  @Test
+  public void testBounds() {
+    pool.putBuffer(ByteBuffer.allocateDirect(MAX_BUFFER_SIZE + 1));
+    pool.putBuffer(ByteBuffer.allocate(INITIAL_BUFFER_SIZE));
+    assertEquals(0, pool.getBufferCount());
+    for (int i = 0; i < MAX_TO_CACHE + 1; i++) {
+      pool.putBuffer(ByteBuffer.allocateDirect(MAX_BUFFER_SIZE));
+    }
+    assertEquals(MAX_TO_CACHE, pool.getBufferCount());
+    assertEquals(MAX_TO_CACHE * MAX_BUFFER_SIZE, pool.getTotalSize());
+  }
+
+  @Test
+  public void testStreamGrowsDirect() throws IOException {
+    ByteBuffer bb = pool.getBuffer();
+    ByteBufferOutputStream bbos = new ByteBufferOutputStream(bb);
+    byte [] bytes = new byte[INITIAL_BUFFER_SIZE * 3];
+    for (int i = 0; i < bytes.length; i++) bytes[i] = (byte)i;
+    bbos.write(bytes);
+    ByteBuffer grown = bbos.getByteBuffer();
+    assertNotSame(bb, grown);
+    assertTrue(grown.isDirect());
+    assertEquals(bytes.length, grown.remaining());
+    for (int i = 0; i < bytes.length; i++) assertEquals(bytes[i], grown.get(i));
+  }
+}
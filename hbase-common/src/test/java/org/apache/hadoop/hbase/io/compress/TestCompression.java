@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.compress;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.io.compress.zlib.BuiltInZlibInflater;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestCompression {
+  private static final int OFFSET = 7;
+
+  /**
+   * Block framed data, as written by the Snappy and LZ4 codecs, but compressed
+   * with zlib as those need the native libraries.
+   */
+  @Test
+  public void testDecompressBlocks() throws IOException {
+    Random rand = new Random(12345);
+    for (int size : new int[] { 0, 1, 1000, 5000, 64 * 1024 }) {
+      for (boolean compressible : new boolean[] { true, false }) {
+        byte[] data = new byte[size];
+        if (compressible) {
+          for (int i = 0; i < size; i++) {
+            data[i] = (byte) ('a' + i % 7);
+          }
+        } else {
+          rand.nextBytes(data);
+        }
+        byte[] compressed = compressBlocks(data, OFFSET);
+        int compressedSize = compressed.length - OFFSET;
+
+        byte[] dest = new byte[size + OFFSET];
+        Compression.decompressBlocks(new BuiltInZlibInflater(true), dest, OFFSET, compressed,
+            OFFSET, compressedSize, size);
+        assertArrayEquals(data, Arrays.copyOfRange(dest, OFFSET, dest.length));
+
+        if (size > 0) {
+          try {
+            Compression.decompressBlocks(new BuiltInZlibInflater(true), dest, OFFSET, compressed,
+                OFFSET, compressedSize - 1, size);
+            fail("Truncated data decompressed");
+          } catch (IOException expected) {
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testDecompressFromArray() throws IOException {
+    byte[] data = new byte[10000];
+    new Random(12345).nextBytes(data);
+    Compression.Algorithm algo = Compression.Algorithm.GZ;
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    baos.write(new byte[OFFSET]);
+    OutputStream os = algo.createCompressionStream(baos, algo.getCompressor(), 0);
+    os.write(data);
+    os.flush();
+    byte[] compressed = baos.toByteArray();
+
+    byte[] dest = new byte[data.length + OFFSET];
+    Compression.decompress(dest, OFFSET, compressed, OFFSET, compressed.length - OFFSET,
+        data.length, algo);
+    assertArrayEquals(data, Arrays.copyOfRange(dest, OFFSET, dest.length));
+  }
+
+  /**
+   * Frames data as {@link org.apache.hadoop.io.compress.BlockCompressorStream}
+   * does, in blocks of up to 4000 bytes, splitting the compressed data of each
+   * block into chunks of up to 1000 bytes.
+   */
+  private static byte[] compressBlocks(byte[] data, int offset) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    baos.write(new byte[offset]);
+    DataOutputStream out = new DataOutputStream(baos);
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    byte[] buf = new byte[data.length * 2 + 64];
+    for (int blockStart = 0; blockStart < data.length; blockStart += 4000) {
+      int blockSize = Math.min(4000, data.length - blockStart);
+      deflater.reset();
+      deflater.setInput(data, blockStart, blockSize);
+      deflater.finish();
+      int compressedSize = 0;
+      while (!deflater.finished()) {
+        compressedSize += deflater.deflate(buf, compressedSize, buf.length - compressedSize);
+      }
+      out.writeInt(blockSize);
+      for (int chunkStart = 0; chunkStart < compressedSize; chunkStart += 1000) {
+        int chunkSize = Math.min(1000, compressedSize - chunkStart);
+        out.writeInt(chunkSize);
+        out.write(buf, chunkStart, chunkSize);
+      }
+    }
+    deflater.end();
+    out.flush();
+    return baos.toByteArray();
+  }
+}
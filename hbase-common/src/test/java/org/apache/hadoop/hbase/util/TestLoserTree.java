@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.hadoop.hbase.SmallTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestLoserTree {
+
+  /** A sorted input being merged; ordered by its current value */
+  private static class Input {
+    private final int[] values;
+    private int index = 0;
+
+    Input(int[] values) {
+      this.values = values;
+    }
+
+    int current() {
+      return values[index];
+    }
+
+    boolean advance() {
+      return ++index < values.length;
+    }
+  }
+
+  private static final Comparator<Input> COMPARATOR = new Comparator<Input>() {
+    @Override
+    public int compare(Input left, Input right) {
+      int l = left.current();
+      int r = right.current();
+      return l < r ? -1 : (l == r ? 0 : 1);
+    }
+  };
+
+  private static List<Input> createInputs(int numInputs, int numValues, Random rand,
+      List<Integer> all) {
+    List<Input> inputs = new ArrayList<Input>();
+    for (int i = 0; i < numInputs; i++) {
+      int[] values = new int[1 + rand.nextInt(numValues)];
+      for (int j = 0; j < values.length; j++) {
+        values[j] = rand.nextInt(1000);
+        all.add(values[j]);
+      }
+      java.util.Arrays.sort(values);
+      inputs.add(new Input(values));
+    }
+    return inputs;
+  }
+
+  @Test
+  public void testMerge() {
+    Random rand = new Random(12345);
+    for (int numInputs = 1; numInputs <= 33; numInputs++) {
+      List<Integer> all = new ArrayList<Integer>();
+      LoserTree<Input> tree = new LoserTree<Input>(createInputs(numInputs, 20, rand, all),
+        COMPARATOR);
+      assertEquals(numInputs, tree.size());
+      Collections.sort(all);
+      List<Integer> merged = new ArrayList<Integer>();
+      Input head;
+      while ((head = tree.peek()) != null) {
+        merged.add(head.current());
+        Input runnerUp = tree.peekRunnerUp();
+        if (!head.advance()) {
+          assertSame(head, tree.poll());
+          assertSame(runnerUp, tree.peek());
+        } else if (runnerUp == null || head.current() < runnerUp.current()) {
+          // Still the head without a replay
+          assertSame(head, tree.peek());
+        } else {
+          assertTrue(tree.updateHead().current() <= head.current());
+        }
+      }
+      assertEquals(all, merged);
+      assertTrue(tree.isEmpty());
+      assertNull(tree.poll());
+      assertNull(tree.peekRunnerUp());
+    }
+  }
+
+  @Test
+  public void testPollInOrder() {
+    Random rand = new Random(54321);
+    List<Integer> all = new ArrayList<Integer>();
+    List<Input> inputs = createInputs(17, 1, rand, all);
+    LoserTree<Input> tree = new LoserTree<Input>(inputs, COMPARATOR);
+    PriorityQueue<Input> queue = new PriorityQueue<Input>(inputs.size(), COMPARATOR);
+    queue.addAll(inputs);
+    Set<Input> iterated = new HashSet<Input>();
+    for (Input input : tree) {
+      iterated.add(input);
+    }
+    assertEquals(new HashSet<Input>(inputs), iterated);
+    while (!queue.isEmpty()) {
+      assertEquals(queue.poll().current(), tree.poll().current());
+      assertEquals(queue.size(), tree.size());
+    }
+    assertTrue(tree.isEmpty());
+    assertTrue(!tree.iterator().hasNext());
+  }
+
+  @Test
+  public void testEmpty() {
+    LoserTree<Input> tree = new LoserTree<Input>(new ArrayList<Input>(), COMPARATOR);
+    assertTrue(tree.isEmpty());
+    assertNull(tree.peek());
+    assertNull(tree.peekRunnerUp());
+    assertNull(tree.poll());
+  }
+}
@@ -40,12 +40,18 @@ public interface MetricsHBaseServerSource extends BaseSource {
   String RECEIVED_BYTES_DESC = "Number of bytes received.";
   String QUEUE_CALL_TIME_NAME = "queueCallTime";
   String QUEUE_CALL_TIME_DESC = "Queue Call Time.";
+  String GENERAL_QUEUE_CALL_TIME_PREFIX = "generalQueueCallTime_";
   String PROCESS_CALL_TIME_NAME = "processCallTime";
   String PROCESS_CALL_TIME_DESC = "Processing call time.";
+  String DROPPED_CALLS_NAME = "droppedCalls";
+  String DROPPED_CALLS_DESC =
+      "Number of calls dropped unrun because the client had given up or the queue was overloaded.";
   String QUEUE_SIZE_NAME = "queueSize";
   String QUEUE_SIZE_DESC = "Number of bytes in the call queues.";
   String GENERAL_QUEUE_NAME = "numCallsInGeneralQueue";
   String GENERAL_QUEUE_DESC = "Number of calls in the general call queue.";
+  String GENERAL_QUEUE_PREFIX = "numCallsInGeneralQueue_";
+  String GENERAL_QUEUE_SHARD_DESC = "Number of calls in one of the general call queues.";
   String PRIORITY_QUEUE_NAME = "numCallsInPriorityQueue";
   String REPLICATION_QUEUE_NAME = "numCallsInReplicationQueue";
   String REPLICATION_QUEUE_DESC =
@@ -53,6 +59,18 @@ public interface MetricsHBaseServerSource extends BaseSource {
   String PRIORITY_QUEUE_DESC = "Number of calls in the priority call queue.";
   String NUM_OPEN_CONNECTIONS_NAME = "numOpenConnections";
   String NUM_OPEN_CONNECTIONS_DESC = "Number of open connections.";
+  String RESERVOIR_BUFFER_COUNT_NAME = "reservoirBufferCount";
+  String RESERVOIR_BUFFER_COUNT_DESC = "Number of response buffers waiting in the reservoir.";
+  String RESERVOIR_SIZE_NAME = "reservoirSize";
+  String RESERVOIR_SIZE_DESC = "Number of bytes held by the response buffer reservoir.";
+  String RESERVOIR_HITS_NAME = "reservoirHits";
+  String RESERVOIR_HITS_DESC = "Number of response buffers taken from the reservoir.";
+  String RESERVOIR_ALLOCATIONS_NAME = "reservoirAllocations";
+  String RESERVOIR_ALLOCATIONS_DESC =
+      "Number of response buffers allocated because the reservoir was empty.";
+  String RESERVOIR_HIT_PERCENT_NAME = "reservoirHitPercent";
+  String RESERVOIR_HIT_PERCENT_DESC =
+      "Percent of response buffers that came from the reservoir.";
 
   void authorizationSuccess();
 
@@ -68,5 +86,15 @@ public interface MetricsHBaseServerSource extends BaseSource {
 
   void dequeuedCall(int qTime);
 
+  /**
+   * A call was taken off one of several general queues.
+   * @param queue index of the queue the call was waiting in
+   * @param qTime how long it waited
+   */
+  void dequeuedGeneralCall(int queue, int qTime);
+
+  /** A call was answered with an error instead of being run. */
+  void droppedCall();
+
   void processedCall(int processingTime);
 }
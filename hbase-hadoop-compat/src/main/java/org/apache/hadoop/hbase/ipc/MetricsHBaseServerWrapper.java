@@ -22,7 +22,14 @@ package org.apache.hadoop.hbase.ipc;
 public interface MetricsHBaseServerWrapper {
   long getTotalQueueSize();
   int getGeneralQueueLength();
+  int getNumGeneralQueues();
+  int getGeneralQueueLength(int queue);
   int getReplicationQueueLength();
   int getPriorityQueueLength();
   int getNumOpenConnections();
+  int getReservoirBufferCount();
+  long getReservoirSize();
+  long getReservoirHitCount();
+  long getReservoirAllocationCount();
+  int getReservoirHitPercent();
 }
@@ -87,6 +87,22 @@ public interface MetricsRegionServerSource extends BaseSource {
    */
   void updateReplay(long t);
 
+  /**
+   * Update the histogram of the time it took to write the memstores of a region to new store
+   * files.
+   *
+   * @param t time it took
+   */
+  void updateFlushTime(long t);
+
+  /**
+   * Update the histogram of the time it took to write the memstore of one store, i.e. of one
+   * column family, to a new store file.
+   *
+   * @param t time it took
+   */
+  void updateStoreFlushTime(long t);
+
   /**
    * Increment the number of slow Puts that have happened.
    */
@@ -140,6 +156,9 @@ public interface MetricsRegionServerSource extends BaseSource {
       "Number of Check and Mutate calls that passed the checks.";
   String STOREFILE_INDEX_SIZE = "storeFileIndexSize";
   String STOREFILE_INDEX_SIZE_DESC = "Size of indexes in storefiles on disk.";
+  String BLOCK_INDEX_HEAP_SIZE = "blockIndexHeapSize";
+  String BLOCK_INDEX_HEAP_SIZE_DESC =
+      "Heap size of the root block indexes of all store files, including Bloom filter indexes.";
   String STATIC_INDEX_SIZE = "staticIndexSize";
   String STATIC_INDEX_SIZE_DESC = "Uncompressed size of the static indexes.";
   String STATIC_BLOOM_SIZE = "staticBloomSize";
@@ -158,6 +177,12 @@ public interface MetricsRegionServerSource extends BaseSource {
   String COMPACTION_QUEUE_LENGTH_DESC = "Length of the queue for compactions.";
   String FLUSH_QUEUE_LENGTH = "flushQueueLength";
   String FLUSH_QUEUE_LENGTH_DESC = "Length of the queue for region flushes";
+  String COMPACTION_THROUGHPUT_LIMIT = "compactionThroughputLimit";
+  String COMPACTION_THROUGHPUT_LIMIT_DESC =
+      "Current limit on the bytes per second written by all compactions; 0 if unlimited.";
+  String COMPACTION_THROTTLED_TIME = "compactionThrottledTime";
+  String COMPACTION_THROTTLED_TIME_DESC =
+      "Total time in milliseconds that compactions have been slowed down for.";
   String BLOCK_CACHE_FREE_SIZE = "blockCacheFreeSize";
   String BLOCK_CACHE_FREE_DESC =
       "Size of the block cache that is not occupied.";
@@ -179,6 +204,15 @@ public interface MetricsRegionServerSource extends BaseSource {
   String BLOCK_CACHE_EXPRESS_HIT_PERCENT = "blockCacheExpressHitPercent";
   String BLOCK_CACHE_EXPRESS_HIT_PERCENT_DESC =
       "The percent of the time that requests with the cache turned on hit the cache.";
+  String PREFETCH_BYTES_READ = "prefetchBytesRead";
+  String PREFETCH_BYTES_READ_DESC =
+      "Number of bytes read from the filesystem to prefetch blocks into the block cache.";
+  String PREFETCH_FILES_COMPLETED = "prefetchFilesCompleted";
+  String PREFETCH_FILES_COMPLETED_DESC =
+      "Number of store files whose blocks have all been prefetched into the block cache.";
+  String PREFETCH_FILES_PENDING = "prefetchFilesPending";
+  String PREFETCH_FILES_PENDING_DESC =
+      "Number of store files waiting for or in the middle of a block prefetch.";
   String RS_START_TIME_NAME = "regionServerStartTime";
   String ZOOKEEPER_QUORUM_NAME = "zookeeperQuorum";
   String SERVER_NAME_NAME = "serverName";
@@ -196,7 +230,11 @@ public interface MetricsRegionServerSource extends BaseSource {
   String MUTATE_KEY = "mutate";
   String APPEND_KEY = "append";
   String REPLAY_KEY = "replay";
+  String FLUSH_TIME_KEY = "flushTime";
+  String STORE_FLUSH_TIME_KEY = "storeFlushTime";
   String SCAN_NEXT_KEY = "scanNext";
+  String ROW_LOCK_WAIT_KEY = "rowLockWait";
+  String ROW_LOCK_TIMEOUT_KEY = "rowLockTimeoutCount";
   String SLOW_MUTATE_KEY = "slowPutCount";
   String SLOW_GET_KEY = "slowGetCount";
   String SLOW_DELETE_KEY = "slowDeleteCount";
@@ -117,6 +117,12 @@ public interface MetricsRegionServerWrapper {
    */
   long getStoreFileIndexSize();
 
+  /**
+   * Get the heap size of the root block indexes of all store files, including
+   * Bloom filter chunk indexes.
+   */
+  long getBlockIndexHeapSize();
+
   /**
    * Get the size of of the static indexes including the roots.
    */
@@ -148,6 +154,16 @@ public interface MetricsRegionServerWrapper {
    */
   int getCompactionQueueSize();
 
+  /**
+   * Get the current limit on the bytes per second written by compactions, or 0 if unlimited.
+   */
+  long getCompactionThroughputLimit();
+
+  /**
+   * Get the total time in milliseconds that compactions have been slowed down for.
+   */
+  long getCompactionThrottledTime();
+
   /**
    * Get the size of the flush queue.
    */
@@ -193,6 +209,21 @@ public interface MetricsRegionServerWrapper {
    */
   int getBlockCacheHitCachingPercent();
 
+  /**
+   * Get the number of bytes read from the filesystem by block prefetches.
+   */
+  long getPrefetchBytesRead();
+
+  /**
+   * Get the number of store files whose blocks have all been prefetched.
+   */
+  long getPrefetchFilesCompleted();
+
+  /**
+   * Get the number of store files whose block prefetch is pending or running.
+   */
+  int getPrefetchFilesPending();
+
   /**
    * Force a re-computation of the metrics.
    */
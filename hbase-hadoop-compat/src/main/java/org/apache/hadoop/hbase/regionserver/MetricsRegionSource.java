@@ -27,6 +27,7 @@ public interface MetricsRegionSource extends Comparable<MetricsRegionSource> {
 
   String OPS_SAMPLE_NAME = "ops";
   String SIZE_VALUE_NAME = "size";
+  String TIME_VALUE_NAME = "time";
 
   /**
    * Close the region's metrics as this region is closing.
@@ -64,6 +65,17 @@ public interface MetricsRegionSource extends Comparable<MetricsRegionSource> {
    */
   void updateAppend();
 
+  /**
+   * Update the count and time of waits for a row lock held by someone else.
+   * @param waitTime time in milliseconds spent waiting for the lock
+   */
+  void updateRowLockWait(long waitTime);
+
+  /**
+   * Update related counts of waits for a row lock that timed out.
+   */
+  void updateRowLockTimeout();
+
   /**
    * Get the aggregate source to which this reports.
    */
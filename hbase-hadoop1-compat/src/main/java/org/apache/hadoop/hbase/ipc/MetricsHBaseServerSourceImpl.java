@@ -35,6 +35,7 @@ public class MetricsHBaseServerSourceImpl extends BaseSourceImpl
   private final MetricMutableCounterLong authenticationFailures;
   private final MetricMutableCounterLong sentBytes;
   private final MetricMutableCounterLong receivedBytes;
+  private final MetricMutableCounterLong droppedCalls;
   private MetricMutableHistogram queueCallTime;
   private MetricMutableHistogram processCallTime;
 
@@ -59,6 +60,8 @@ public class MetricsHBaseServerSourceImpl extends BaseSourceImpl
         SENT_BYTES_DESC, 0l);
     this.receivedBytes = this.getMetricsRegistry().newCounter(RECEIVED_BYTES_NAME,
         RECEIVED_BYTES_DESC, 0l);
+    this.droppedCalls = this.getMetricsRegistry().newCounter(DROPPED_CALLS_NAME,
+        DROPPED_CALLS_DESC, 0l);
     this.queueCallTime = this.getMetricsRegistry().newHistogram(QUEUE_CALL_TIME_NAME,
         QUEUE_CALL_TIME_DESC);
     this.processCallTime = this.getMetricsRegistry().newHistogram(PROCESS_CALL_TIME_NAME,
@@ -100,6 +103,16 @@ public class MetricsHBaseServerSourceImpl extends BaseSourceImpl
     queueCallTime.add(qTime);
   }
 
+  @Override
+  public void dequeuedGeneralCall(int queue, int qTime) {
+    updateHistogram(GENERAL_QUEUE_CALL_TIME_PREFIX + queue, qTime);
+  }
+
+  @Override
+  public void droppedCall() {
+    droppedCalls.incr();
+  }
+
   @Override
   public void processedCall(int processingTime) {
     processCallTime.add(processingTime);
@@ -117,6 +130,21 @@ public class MetricsHBaseServerSourceImpl extends BaseSourceImpl
           .addGauge(PRIORITY_QUEUE_NAME, PRIORITY_QUEUE_DESC, wrapper.getPriorityQueueLength())
           .addGauge(NUM_OPEN_CONNECTIONS_NAME,
               NUM_OPEN_CONNECTIONS_DESC, wrapper.getNumOpenConnections());
+      mrb.addGauge(RESERVOIR_BUFFER_COUNT_NAME, RESERVOIR_BUFFER_COUNT_DESC,
+              wrapper.getReservoirBufferCount())
+          .addGauge(RESERVOIR_SIZE_NAME, RESERVOIR_SIZE_DESC, wrapper.getReservoirSize())
+          .addCounter(RESERVOIR_HITS_NAME, RESERVOIR_HITS_DESC, wrapper.getReservoirHitCount())
+          .addCounter(RESERVOIR_ALLOCATIONS_NAME,
+              RESERVOIR_ALLOCATIONS_DESC, wrapper.getReservoirAllocationCount())
+          .addGauge(RESERVOIR_HIT_PERCENT_NAME,
+              RESERVOIR_HIT_PERCENT_DESC, wrapper.getReservoirHitPercent());
+      int numGeneralQueues = wrapper.getNumGeneralQueues();
+      if (numGeneralQueues > 1) {
+        for (int i = 0; i < numGeneralQueues; i++) {
+          mrb.addGauge(GENERAL_QUEUE_PREFIX + i, GENERAL_QUEUE_SHARD_DESC,
+              wrapper.getGeneralQueueLength(i));
+        }
+      }
     }
 
     metricsRegistry.snapshot(mrb, all);
@@ -39,6 +39,8 @@ public class MetricsRegionServerSourceImpl
   private final MetricHistogram incrementHisto;
   private final MetricHistogram appendHisto;
   private final MetricHistogram replayHisto;
+  private final MetricHistogram flushTimeHisto;
+  private final MetricHistogram storeFlushTimeHisto;
   private final MetricMutableCounterLong slowPut;
   private final MetricMutableCounterLong slowDelete;
   private final MetricMutableCounterLong slowGet;
@@ -73,6 +75,9 @@ public class MetricsRegionServerSourceImpl
     slowAppend = getMetricsRegistry().newCounter(SLOW_APPEND_KEY, SLOW_APPEND_DESC, 0l);
 
     replayHisto = getMetricsRegistry().newHistogram(REPLAY_KEY);
+
+    flushTimeHisto = getMetricsRegistry().newHistogram(FLUSH_TIME_KEY);
+    storeFlushTimeHisto = getMetricsRegistry().newHistogram(STORE_FLUSH_TIME_KEY);
   }
 
   @Override
@@ -105,6 +110,16 @@ public class MetricsRegionServerSourceImpl
     replayHisto.add(t);
   }
 
+  @Override
+  public void updateFlushTime(long t) {
+    flushTimeHisto.add(t);
+  }
+
+  @Override
+  public void updateStoreFlushTime(long t) {
+    storeFlushTimeHisto.add(t);
+  }
+
   @Override
   public void incrSlowPut() {
     slowPut.incr();
@@ -162,6 +177,8 @@ public class MetricsRegionServerSourceImpl
               CHECK_MUTATE_PASSED_COUNT_DESC,
               rsWrap.getCheckAndMutateChecksPassed())
           .addGauge(STOREFILE_INDEX_SIZE, STOREFILE_INDEX_SIZE_DESC, rsWrap.getStoreFileIndexSize())
+          .addGauge(BLOCK_INDEX_HEAP_SIZE, BLOCK_INDEX_HEAP_SIZE_DESC,
+              rsWrap.getBlockIndexHeapSize())
           .addGauge(STATIC_INDEX_SIZE, STATIC_INDEX_SIZE_DESC, rsWrap.getTotalStaticIndexSize())
           .addGauge(STATIC_BLOOM_SIZE, STATIC_BLOOM_SIZE_DESC, rsWrap.getTotalStaticBloomSize())
           .addGauge(NUMBER_OF_MUTATIONS_WITHOUT_WAL,
@@ -175,6 +192,10 @@ public class MetricsRegionServerSourceImpl
               COMPACTION_QUEUE_LENGTH_DESC,
               rsWrap.getCompactionQueueSize())
           .addGauge(FLUSH_QUEUE_LENGTH, FLUSH_QUEUE_LENGTH_DESC, rsWrap.getFlushQueueSize())
+          .addGauge(COMPACTION_THROUGHPUT_LIMIT, COMPACTION_THROUGHPUT_LIMIT_DESC,
+              rsWrap.getCompactionThroughputLimit())
+          .addCounter(COMPACTION_THROTTLED_TIME, COMPACTION_THROTTLED_TIME_DESC,
+              rsWrap.getCompactionThrottledTime())
           .addGauge(BLOCK_CACHE_FREE_SIZE, BLOCK_CACHE_FREE_DESC, rsWrap.getBlockCacheFreeSize())
           .addGauge(BLOCK_CACHE_COUNT, BLOCK_CACHE_COUNT_DESC, rsWrap.getBlockCacheCount())
           .addGauge(BLOCK_CACHE_SIZE, BLOCK_CACHE_SIZE_DESC, rsWrap.getBlockCacheSize())
@@ -193,6 +214,13 @@ public class MetricsRegionServerSourceImpl
           .addGauge(BLOCK_CACHE_EXPRESS_HIT_PERCENT,
               BLOCK_CACHE_EXPRESS_HIT_PERCENT_DESC,
               rsWrap.getBlockCacheHitCachingPercent())
+          .addCounter(PREFETCH_BYTES_READ, PREFETCH_BYTES_READ_DESC, rsWrap.getPrefetchBytesRead())
+          .addCounter(PREFETCH_FILES_COMPLETED,
+              PREFETCH_FILES_COMPLETED_DESC,
+              rsWrap.getPrefetchFilesCompleted())
+          .addGauge(PREFETCH_FILES_PENDING,
+              PREFETCH_FILES_PENDING_DESC,
+              rsWrap.getPrefetchFilesPending())
           .addCounter(UPDATES_BLOCKED_TIME, UPDATES_BLOCKED_DESC, rsWrap.getUpdatesBlockedTime())
           .tag(ZOOKEEPER_QUORUM_NAME, ZOOKEEPER_QUORUM_DESC, rsWrap.getZookeeperQuorum())
           .tag(SERVER_NAME_NAME, SERVER_NAME_DESC, rsWrap.getServerName())
@@ -42,6 +42,8 @@ public class MetricsRegionServerSourceImpl
   private final MetricHistogram incrementHisto;
   private final MetricHistogram appendHisto;
   private final MetricHistogram replayHisto;
+  private final MetricHistogram flushTimeHisto;
+  private final MetricHistogram storeFlushTimeHisto;
 
   private final MutableCounterLong slowPut;
   private final MutableCounterLong slowDelete;
@@ -78,6 +80,9 @@ public class MetricsRegionServerSourceImpl
     slowAppend = getMetricsRegistry().newCounter(SLOW_APPEND_KEY, SLOW_APPEND_DESC, 0l);
     
     replayHisto = getMetricsRegistry().newHistogram(REPLAY_KEY);
+
+    flushTimeHisto = getMetricsRegistry().newHistogram(FLUSH_TIME_KEY);
+    storeFlushTimeHisto = getMetricsRegistry().newHistogram(STORE_FLUSH_TIME_KEY);
   }
 
   @Override
@@ -110,6 +115,16 @@ public class MetricsRegionServerSourceImpl
     replayHisto.add(t);
   }
 
+  @Override
+  public void updateFlushTime(long t) {
+    flushTimeHisto.add(t);
+  }
+
+  @Override
+  public void updateStoreFlushTime(long t) {
+    storeFlushTimeHisto.add(t);
+  }
+
   @Override
   public void incrSlowPut() {
    slowPut.incr();
@@ -170,6 +185,8 @@ public class MetricsRegionServerSourceImpl
               rsWrap.getCheckAndMutateChecksPassed())
           .addGauge(Interns.info(STOREFILE_INDEX_SIZE, STOREFILE_INDEX_SIZE_DESC),
               rsWrap.getStoreFileIndexSize())
+          .addGauge(Interns.info(BLOCK_INDEX_HEAP_SIZE, BLOCK_INDEX_HEAP_SIZE_DESC),
+              rsWrap.getBlockIndexHeapSize())
           .addGauge(Interns.info(STATIC_INDEX_SIZE, STATIC_INDEX_SIZE_DESC),
               rsWrap.getTotalStaticIndexSize())
           .addGauge(Interns.info(STATIC_BLOOM_SIZE, STATIC_BLOOM_SIZE_DESC),
@@ -185,6 +202,10 @@ public class MetricsRegionServerSourceImpl
               rsWrap.getCompactionQueueSize())
           .addGauge(Interns.info(FLUSH_QUEUE_LENGTH, FLUSH_QUEUE_LENGTH_DESC),
               rsWrap.getFlushQueueSize())
+          .addGauge(Interns.info(COMPACTION_THROUGHPUT_LIMIT, COMPACTION_THROUGHPUT_LIMIT_DESC),
+              rsWrap.getCompactionThroughputLimit())
+          .addCounter(Interns.info(COMPACTION_THROTTLED_TIME, COMPACTION_THROTTLED_TIME_DESC),
+              rsWrap.getCompactionThrottledTime())
           .addGauge(Interns.info(BLOCK_CACHE_FREE_SIZE, BLOCK_CACHE_FREE_DESC),
               rsWrap.getBlockCacheFreeSize())
           .addGauge(Interns.info(BLOCK_CACHE_COUNT, BLOCK_CACHE_COUNT_DESC),
@@ -201,6 +222,12 @@ public class MetricsRegionServerSourceImpl
               rsWrap.getBlockCacheHitPercent())
           .addGauge(Interns.info(BLOCK_CACHE_EXPRESS_HIT_PERCENT,
               BLOCK_CACHE_EXPRESS_HIT_PERCENT_DESC), rsWrap.getBlockCacheHitCachingPercent())
+          .addCounter(Interns.info(PREFETCH_BYTES_READ, PREFETCH_BYTES_READ_DESC),
+              rsWrap.getPrefetchBytesRead())
+          .addCounter(Interns.info(PREFETCH_FILES_COMPLETED, PREFETCH_FILES_COMPLETED_DESC),
+              rsWrap.getPrefetchFilesCompleted())
+          .addGauge(Interns.info(PREFETCH_FILES_PENDING, PREFETCH_FILES_PENDING_DESC),
+              rsWrap.getPrefetchFilesPending())
           .addCounter(Interns.info(UPDATES_BLOCKED_TIME, UPDATES_BLOCKED_DESC),
               rsWrap.getUpdatesBlockedTime())
           .tag(Interns.info(ZOOKEEPER_QUORUM_NAME, ZOOKEEPER_QUORUM_DESC),
@@ -44,6 +44,8 @@ public class MetricsRegionSourceImpl implements MetricsRegionSource {
   private String regionIncrementKey;
   private String regionAppendKey;
   private String regionScanNextKey;
+  private String regionRowLockWaitKey;
+  private String regionRowLockTimeoutKey;
   private MutableCounterLong regionPut;
   private MutableCounterLong regionDelete;
 
@@ -52,6 +54,8 @@ public class MetricsRegionSourceImpl implements MetricsRegionSource {
 
   private MutableStat regionGet;
   private MutableStat regionScanNext;
+  private MutableStat regionRowLockWait;
+  private MutableCounterLong regionRowLockTimeout;
 
   public MetricsRegionSourceImpl(MetricsRegionWrapper regionWrapper,
                                  MetricsRegionAggregateSourceImpl aggregate) {
@@ -88,6 +92,13 @@ public class MetricsRegionSourceImpl implements MetricsRegionSource {
 
     regionScanNextKey = regionNamePrefix + MetricsRegionServerSource.SCAN_NEXT_KEY;
     regionScanNext = registry.newStat(regionScanNextKey, "", OPS_SAMPLE_NAME, SIZE_VALUE_NAME);
+
+    regionRowLockWaitKey = regionNamePrefix + MetricsRegionServerSource.ROW_LOCK_WAIT_KEY;
+    regionRowLockWait = registry.newStat(regionRowLockWaitKey, "", OPS_SAMPLE_NAME,
+        TIME_VALUE_NAME);
+
+    regionRowLockTimeoutKey = regionNamePrefix + MetricsRegionServerSource.ROW_LOCK_TIMEOUT_KEY;
+    regionRowLockTimeout = registry.getLongCounter(regionRowLockTimeoutKey, 0l);
   }
 
   @Override
@@ -105,6 +116,8 @@ public class MetricsRegionSourceImpl implements MetricsRegionSource {
 
     registry.removeMetric(regionGetKey);
     registry.removeMetric(regionScanNextKey);
+    registry.removeMetric(regionRowLockWaitKey);
+    registry.removeMetric(regionRowLockTimeoutKey);
 
     JmxCacheBuster.clearJmxCache();
   }
@@ -139,6 +152,16 @@ public class MetricsRegionSourceImpl implements MetricsRegionSource {
     regionAppend.incr();
   }
 
+  @Override
+  public void updateRowLockWait(long waitTime) {
+    regionRowLockWait.add(waitTime);
+  }
+
+  @Override
+  public void updateRowLockTimeout() {
+    regionRowLockTimeout.incr();
+  }
+
   @Override
   public MetricsRegionAggregateSource getAggregateSource() {
     return agg;
@@ -35,12 +35,16 @@ public class DecoderFactory {
   //TODO will need a PrefixTreeSearcher on top of CellSearcher
   public static PrefixTreeArraySearcher checkOut(final ByteBuffer buffer, 
       boolean includeMvccVersion) {
-    if (buffer.isDirect()) {
-      throw new IllegalArgumentException("DirectByteBuffers not supported yet");
+    ByteBuffer arrayBuffer = buffer;
+    if (!buffer.hasArray()) {
+      // The searchers decode arrays, copy a block served off heap from the block cache
       // TODO implement PtByteBufferBlockScanner
+      arrayBuffer = ByteBuffer.allocate(buffer.remaining());
+      arrayBuffer.put(buffer.duplicate());
+      arrayBuffer.flip();
     }
 
-    PrefixTreeArraySearcher searcher = POOL.checkOut(buffer,
+    PrefixTreeArraySearcher searcher = POOL.checkOut(arrayBuffer,
       includeMvccVersion);
     return searcher;
   }
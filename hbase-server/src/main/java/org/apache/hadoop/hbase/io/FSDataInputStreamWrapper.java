@@ -176,6 +176,27 @@ public class FSDataInputStreamWrapper {
     return this.stream;
   }
 
+  /**
+   * @return Whether HBase checksum is configured to be used, even if it is not presently
+   *  used because of a checksum failure.
+   */
+  public boolean isHBaseChecksumConfigured() {
+    return this.useHBaseChecksumConfigured;
+  }
+
+  /**
+   * Opens another stream on the file, for the exclusive use of the caller, who closes it.
+   * Like the stream {@link #getStream(boolean)} returns when passed
+   * {@link #isHBaseChecksumConfigured()}, it does FS-level checksum verification unless
+   * HBase checksum is configured. Thread-safe.
+   * @return the new stream, or null if this wrapper was given its streams
+   */
+  public FSDataInputStream openPrivateStream() throws IOException {
+    if (hfs == null) return null;
+    FileSystem fs = this.useHBaseChecksumConfigured ? hfs.getNoChecksumFs() : hfs;
+    return (link != null) ? link.open(fs) : fs.open(path);
+  }
+
   /** Report that checksum was ok, so we may ponder going back to HBase checksum. */
   public void checksumOk() {
     if (this.useHBaseChecksumConfigured && !this.useHBaseChecksum
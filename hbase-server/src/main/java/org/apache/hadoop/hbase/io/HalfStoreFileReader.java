@@ -287,6 +287,10 @@ public class HalfStoreFileReader extends StoreFile.Reader {
       public boolean isSeeked() {
         return this.delegate.isSeeked();
       }
+
+      public void close() {
+        this.delegate.close();
+      }
     };
   }
   
@@ -308,6 +312,8 @@ public class HalfStoreFileReader extends StoreFile.Reader {
       }
     } catch (IOException e) {
       LOG.warn("Failed seekBefore " + Bytes.toStringBinary(this.splitkey), e);
+    } finally {
+      scanner.close();
     }
     return null;
   }
@@ -329,6 +335,8 @@ public class HalfStoreFileReader extends StoreFile.Reader {
         firstKeySeeked = true;
       } catch (IOException e) {
         LOG.warn("Failed seekTo first KV in the file", e);
+      } finally {
+        scanner.close();
       }
     }
     return this.firstKey;
@@ -56,6 +56,16 @@ public interface BlockCache {
    */
   Cacheable getBlock(BlockCacheKey cacheKey, boolean caching, boolean repeat);
 
+  /**
+   * Gives back a block got from {@link #getBlock(BlockCacheKey, boolean, boolean)}
+   * once the caller is done with it. Only needed for blocks of
+   * {@link Cacheable.MemoryType#SHARED} memory, which the cache keeps from
+   * being freed until then; a no-op for other blocks.
+   * @param cacheKey the key the block was got with
+   * @param block the block
+   */
+  void returnBlock(BlockCacheKey cacheKey, Cacheable block);
+
   /**
    * Evict block from cache.
    * @param cacheKey Block to evict
@@ -74,6 +74,22 @@ public class CacheConfig {
   public static final String EVICT_BLOCKS_ON_CLOSE_KEY =
       "hbase.rs.evictblocksonclose";
 
+  /**
+   * Configuration key to prefetch all data blocks of a file into the block cache
+   * when the file is opened.
+   */
+  public static final String PREFETCH_BLOCKS_ON_OPEN_KEY =
+      "hbase.rs.prefetchblocksonopen";
+
+  /**
+   * Configuration key for the policy of the on-heap block cache: LRU for {@link LruBlockCache},
+   * or TinyLFU for {@link TinyLfuBlockCache}. TinyLFU is only used when there is no bucket or
+   * off-heap cache, whose setups are built around LruBlockCache.
+   */
+  public static final String BLOCKCACHE_POLICY_KEY = "hbase.blockcache.policy";
+  public static final String BLOCKCACHE_POLICY_LRU = "LRU";
+  public static final String BLOCKCACHE_POLICY_TINYLFU = "TinyLFU";
+
   /**
    * Configuration keys for Bucket cache
    */
@@ -105,6 +121,8 @@ public class CacheConfig {
   public static final boolean DEFAULT_CACHE_BLOOMS_ON_WRITE = false;
   public static final boolean DEFAULT_EVICT_ON_CLOSE = false;
   public static final boolean DEFAULT_COMPRESSED_CACHE = false;
+  public static final boolean DEFAULT_PREFETCH_ON_OPEN = false;
+  public static final String DEFAULT_BLOCKCACHE_POLICY = BLOCKCACHE_POLICY_LRU;
 
   /** Local reference to the block cache, null if completely disabled */
   private final BlockCache blockCache;
@@ -133,6 +151,9 @@ public class CacheConfig {
   /** Whether data blocks should be stored in compressed form in the cache */
   private final boolean cacheCompressed;
 
+  /** Whether data blocks should be prefetched into the cache when a file is opened */
+  private final boolean prefetchOnOpen;
+
   /**
    * Create a cache configuration using the specified configuration object and
    * family descriptor.
@@ -153,7 +174,9 @@ public class CacheConfig {
             DEFAULT_CACHE_BLOOMS_ON_WRITE) || family.shouldCacheBloomsOnWrite(),
         conf.getBoolean(EVICT_BLOCKS_ON_CLOSE_KEY,
             DEFAULT_EVICT_ON_CLOSE) || family.shouldEvictBlocksOnClose(),
-        conf.getBoolean(CACHE_DATA_BLOCKS_COMPRESSED_KEY, DEFAULT_COMPRESSED_CACHE)
+        conf.getBoolean(CACHE_DATA_BLOCKS_COMPRESSED_KEY, DEFAULT_COMPRESSED_CACHE),
+        conf.getBoolean(PREFETCH_BLOCKS_ON_OPEN_KEY,
+            DEFAULT_PREFETCH_ON_OPEN) || family.shouldPrefetchBlocksOnOpen()
      );
   }
 
@@ -174,7 +197,8 @@ public class CacheConfig {
                 DEFAULT_CACHE_BLOOMS_ON_WRITE),
         conf.getBoolean(EVICT_BLOCKS_ON_CLOSE_KEY, DEFAULT_EVICT_ON_CLOSE),
         conf.getBoolean(CACHE_DATA_BLOCKS_COMPRESSED_KEY,
-            DEFAULT_COMPRESSED_CACHE)
+            DEFAULT_COMPRESSED_CACHE),
+        conf.getBoolean(PREFETCH_BLOCKS_ON_OPEN_KEY, DEFAULT_PREFETCH_ON_OPEN)
      );
   }
 
@@ -189,12 +213,13 @@ public class CacheConfig {
    * @param cacheBloomsOnWrite whether blooms should be cached on write
    * @param evictOnClose whether blocks should be evicted when HFile is closed
    * @param cacheCompressed whether to store blocks as compressed in the cache
+   * @param prefetchOnOpen whether to prefetch data blocks into the cache when a file is opened
    */
   CacheConfig(final BlockCache blockCache,
       final boolean cacheDataOnRead, final boolean inMemory,
       final boolean cacheDataOnWrite, final boolean cacheIndexesOnWrite,
       final boolean cacheBloomsOnWrite, final boolean evictOnClose,
-      final boolean cacheCompressed) {
+      final boolean cacheCompressed, final boolean prefetchOnOpen) {
     this.blockCache = blockCache;
     this.cacheDataOnRead = cacheDataOnRead;
     this.inMemory = inMemory;
@@ -203,6 +228,7 @@ public class CacheConfig {
     this.cacheBloomsOnWrite = cacheBloomsOnWrite;
     this.evictOnClose = evictOnClose;
     this.cacheCompressed = cacheCompressed;
+    this.prefetchOnOpen = prefetchOnOpen;
   }
 
   /**
@@ -213,7 +239,7 @@ public class CacheConfig {
     this(cacheConf.blockCache, cacheConf.cacheDataOnRead, cacheConf.inMemory,
         cacheConf.cacheDataOnWrite, cacheConf.cacheIndexesOnWrite,
         cacheConf.cacheBloomsOnWrite, cacheConf.evictOnClose,
-        cacheConf.cacheCompressed);
+        cacheConf.cacheCompressed, cacheConf.prefetchOnOpen);
   }
 
   /**
@@ -248,7 +274,8 @@ public class CacheConfig {
     boolean shouldCache = isBlockCacheEnabled()
         && (cacheDataOnRead ||
             category == BlockCategory.INDEX ||
-            category == BlockCategory.BLOOM);
+            category == BlockCategory.BLOOM ||
+            (prefetchOnOpen && category == BlockCategory.DATA));
     return shouldCache;
   }
 
@@ -316,6 +343,14 @@ public class CacheConfig {
     return isBlockCacheEnabled() && this.cacheCompressed;
   }
 
+  /**
+   * @return true if data blocks should be prefetched into the cache when an
+   *         HFile is opened for reading, false if not
+   */
+  public boolean shouldPrefetchOnOpen() {
+    return isBlockCacheEnabled() && this.prefetchOnOpen;
+  }
+
   @Override
   public String toString() {
     if (!isBlockCacheEnabled()) {
@@ -327,7 +362,8 @@ public class CacheConfig {
       "[cacheIndexesOnWrite=" + shouldCacheIndexesOnWrite() + "] " +
       "[cacheBloomsOnWrite=" + shouldCacheBloomsOnWrite() + "] " +
       "[cacheEvictOnClose=" + shouldEvictOnClose() + "] " +
-      "[cacheCompressed=" + shouldCacheCompressed() + "]";
+      "[cacheCompressed=" + shouldCacheCompressed() + "] " +
+      "[prefetchOnOpen=" + shouldPrefetchOnOpen() + "]";
   }
 
   // Static block cache reference and methods
@@ -369,6 +405,8 @@ public class CacheConfig {
     long offHeapCacheSize =
       (long) (conf.getFloat("hbase.offheapcache.percentage", (float) 0) *
           DirectMemoryUtils.getDirectMemorySize());
+    boolean tinyLfu = BLOCKCACHE_POLICY_TINYLFU.equalsIgnoreCase(
+      conf.get(BLOCKCACHE_POLICY_KEY, DEFAULT_BLOCKCACHE_POLICY));
     if (offHeapCacheSize <= 0) {
       String bucketCacheIOEngineName = conf.get(BUCKET_CACHE_IOENGINE_KEY, null);
       float bucketCachePercentage = conf.getFloat(BUCKET_CACHE_SIZE_KEY, 0F);
@@ -404,6 +442,17 @@ public class CacheConfig {
           throw new RuntimeException(ioex);
         }
       }
+      if (tinyLfu) {
+        if (bucketCache == null) {
+          LOG.info("Allocating TinyLfuBlockCache with maximum size " +
+            StringUtils.humanReadableInt(lruCacheSize));
+          globalBlockCache = new TinyLfuBlockCache(lruCacheSize,
+            StoreFile.DEFAULT_BLOCKSIZE_SMALL, conf);
+          return globalBlockCache;
+        }
+        LOG.warn(BLOCKCACHE_POLICY_KEY + " " + BLOCKCACHE_POLICY_TINYLFU +
+          " is not supported with a bucket cache, using LRU");
+      }
       LOG.info("Allocating LruBlockCache with maximum size " +
         StringUtils.humanReadableInt(lruCacheSize));
       LruBlockCache lruCache = new LruBlockCache(lruCacheSize, StoreFile.DEFAULT_BLOCKSIZE_SMALL);
@@ -414,6 +463,10 @@ public class CacheConfig {
         globalBlockCache = lruCache;
       }
     } else {
+      if (tinyLfu) {
+        LOG.warn(BLOCKCACHE_POLICY_KEY + " " + BLOCKCACHE_POLICY_TINYLFU +
+          " is not supported with an off-heap cache, using LRU");
+      }
       globalBlockCache = new DoubleBlockCache(lruCacheSize, offHeapCacheSize,
           StoreFile.DEFAULT_BLOCKSIZE_SMALL, blockSize, conf);
     }
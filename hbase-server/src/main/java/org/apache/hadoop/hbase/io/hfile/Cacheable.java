@@ -61,4 +61,24 @@ public interface Cacheable extends HeapSize {
    */
   BlockType getBlockType();
 
+  /**
+   * @return {@link MemoryType#SHARED} if this object reads memory of the cache
+   *         it was got from
+   */
+  MemoryType getMemoryType();
+
+  /**
+   * Where the memory of a deserialized object comes from.
+   */
+  enum MemoryType {
+    /**
+     * The object reads memory that the cache still owns, such as a bucket of an off heap
+     * BucketCache. Whoever got it from the cache must give it back with
+     * {@link BlockCache#returnBlock(BlockCacheKey, Cacheable)} once done with it, and must not
+     * keep references into its memory after that.
+     */
+    SHARED,
+    /** The object owns its memory; nothing is to be returned to the cache */
+    EXCLUSIVE
+  }
 }
@@ -45,6 +45,19 @@ public interface CacheableDeserializer<T extends Cacheable> {
    */
   T deserialize(ByteBuffer b, boolean reuse) throws IOException;
 
+  /**
+   * @param b
+   * @param reuse true if Cacheable object can use the given buffer as its
+   *          content
+   * @param memType {@link Cacheable.MemoryType#SHARED} if the given buffer is
+   *          memory the cache still owns. A deserializer that does not support
+   *          sharing it must copy the buffer, whatever reuse says.
+   * @return T the deserialized object.
+   * @throws IOException
+   */
+  T deserialize(ByteBuffer b, boolean reuse, Cacheable.MemoryType memType)
+      throws IOException;
+
   /**
    * Get the identifier of this deserialiser. Identifier is unique for each
    * deserializer and generated by {@link CacheableDeserializerIdManager}
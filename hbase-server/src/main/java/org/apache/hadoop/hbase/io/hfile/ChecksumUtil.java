@@ -120,7 +120,6 @@ public class ChecksumUtil {
       return true; // No checkums validations needed for this block.
     }
     Checksum checksumObject = cktype.getChecksumObject();
-    checksumObject.reset();
 
     // read in the stored value of the checksum size from the header.
     int bytesPerChecksum = block.getBytesPerChecksum();
@@ -133,45 +132,89 @@ public class ChecksumUtil {
       HFile.LOG.warn(msg);
       return false;   // cannot happen case, unable to verify checksum
     }
-    // Extract the header and compute checksum for the header.
-    ByteBuffer hdr = block.getBufferWithHeader();
-    checksumObject.update(hdr.array(), hdr.arrayOffset(), hdrSize);
-
-    int off = hdrSize;
-    int consumed = hdrSize;
-    int bytesLeft = block.getOnDiskDataSizeWithHeader() - off;
-    int cksumOffset = block.getOnDiskDataSizeWithHeader();
-    
-    // validate each chunk
-    while (bytesLeft > 0) {
-      int thisChunkSize = bytesPerChecksum - consumed;
-      int count = Math.min(bytesLeft, thisChunkSize);
-      checksumObject.update(data, off, count);
-
-      int storedChecksum = Bytes.toInt(data, cksumOffset);
-      if (storedChecksum != (int)checksumObject.getValue()) {
-        String msg = "File " + path +
-                     " Stored checksum value of " + storedChecksum +
-                     " at offset " + cksumOffset +
-                     " does not match computed checksum " +
-                     checksumObject.getValue() +
-                     ", total data size " + data.length +
-                     " Checksum data range offset " + off + " len " + count +
-                     HFileBlock.toStringHeader(block.getBufferReadOnly());
-        HFile.LOG.warn(msg);
-        if (generateExceptions) {
-          throw new IOException(msg); // this is only for unit tests
-        } else {
-          return false;               // checksum validation failure
-        }
+
+    // The header was read into the start of data, so the chunks are all in
+    // data, followed by their checksums.
+    int onDiskDataSize = block.getOnDiskDataSizeWithHeader();
+    int onDiskSize = block.getOnDiskSizeWithHeader();
+    int chunk = verifyChunkedChecksums(checksumObject,
+        ByteBuffer.wrap(data, 0, onDiskDataSize),
+        ByteBuffer.wrap(data, onDiskDataSize, onDiskSize - onDiskDataSize),
+        bytesPerChecksum);
+    if (chunk < 0) {
+      return true; // checksum is valid
+    }
+
+    int off = chunk * bytesPerChecksum;
+    int count = Math.min(onDiskDataSize - off, bytesPerChecksum);
+    int cksumOffset = onDiskDataSize + chunk * HFileBlock.CHECKSUM_SIZE;
+    checksumObject.reset();
+    checksumObject.update(data, off, count);
+    String msg = "File " + path +
+                 " Stored checksum value of " + Bytes.toInt(data, cksumOffset) +
+                 " at offset " + cksumOffset +
+                 " does not match computed checksum " +
+                 checksumObject.getValue() +
+                 ", total data size " + onDiskSize +
+                 " Checksum data range offset " + off + " len " + count +
+                 HFileBlock.toStringHeader(block.getBufferReadOnly());
+    HFile.LOG.warn(msg);
+    if (generateExceptions) {
+      throw new IOException(msg); // this is only for unit tests
+    } else {
+      return false;               // checksum validation failure
+    }
+  }
+
+  /**
+   * Verifies the checksums of the chunks of some data in a single pass over
+   * it: from the data's position to its limit, every bytesPerChecksum bytes
+   * against the next checksum from the position of checksums. Heap buffers
+   * are read in place, direct ones copied a chunk at a time.
+   * @param checksum the checksum object to use
+   * @param data the data the checksums are of
+   * @param checksums the stored checksums, one int per chunk
+   * @param bytesPerChecksum number of bytes per checksum value
+   * @return the index of the first chunk whose checksum does not match, or
+   *         -1 if all match
+   */
+  static int verifyChunkedChecksums(Checksum checksum, ByteBuffer data,
+      ByteBuffer checksums, int bytesPerChecksum) {
+    byte[] array;
+    int off;
+    int end;
+    byte[] chunkCopy = null;
+    ByteBuffer dataCopy = null;
+    if (data.hasArray()) {
+      array = data.array();
+      off = data.arrayOffset() + data.position();
+      end = data.arrayOffset() + data.limit();
+    } else {
+      chunkCopy = new byte[bytesPerChecksum];
+      dataCopy = data.duplicate();
+      array = chunkCopy;
+      off = data.position();
+      end = data.limit();
+    }
+    int cksumOffset = checksums.position();
+    int chunk = 0;
+    while (off < end) {
+      int count = Math.min(end - off, bytesPerChecksum);
+      checksum.reset();
+      if (chunkCopy == null) {
+        checksum.update(array, off, count);
+      } else {
+        dataCopy.get(chunkCopy, 0, count);
+        checksum.update(chunkCopy, 0, count);
+      }
+      if (checksums.getInt(cksumOffset) != (int) checksum.getValue()) {
+        return chunk;
       }
       cksumOffset += HFileBlock.CHECKSUM_SIZE;
-      bytesLeft -= count; 
       off += count;
-      consumed = 0;
-      checksumObject.reset();
+      chunk++;
     }
-    return true; // checksum is valid
+    return -1;
   }
 
   /**
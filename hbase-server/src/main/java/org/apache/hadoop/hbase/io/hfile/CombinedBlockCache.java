@@ -82,6 +82,12 @@ public class CombinedBlockCache implements BlockCache, HeapSize {
 
   }
 
+  @Override
+  public void returnBlock(BlockCacheKey cacheKey, Cacheable block) {
+    // Only the bucket cache serves shared blocks
+    bucketCache.returnBlock(cacheKey, block);
+  }
+
   @Override
   public boolean evictBlock(BlockCacheKey cacheKey) {
     return lruCache.evictBlock(cacheKey) || bucketCache.evictBlock(cacheKey);
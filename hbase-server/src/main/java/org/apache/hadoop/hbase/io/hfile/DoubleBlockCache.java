@@ -110,6 +110,12 @@ public class DoubleBlockCache implements BlockCache, HeapSize {
     return null;
   }
 
+  @Override
+  public void returnBlock(BlockCacheKey cacheKey, Cacheable block) {
+    onHeapCache.returnBlock(cacheKey, block);
+    offHeapCache.returnBlock(cacheKey, block);
+  }
+
   @Override
   public boolean evictBlock(BlockCacheKey cacheKey) {
     stats.evict();
@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * A count-min sketch of how often keys were seen recently, for cache admission. Counters are 4
+ * bits, sixteen to a long, and each key has one counter in each of four rows; its frequency is
+ * the least of them, at most 15. Once as many increments as ten times the number of counters per
+ * row have been made, all counters are halved, so the history ages and keys that stopped being
+ * used lose their weight.
+ * <p>
+ * Takes 8 bytes for every 16 keys tracked. Not thread safe.
+ */
+@InterfaceAudience.Private
+public class FrequencySketch {
+  private static final long[] SEEDS = new long[] {
+    0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+  private static final long RESET_MASK = 0x7777777777777777L;
+  static final int MAX_FREQUENCY = 15;
+
+  private final long[] table;
+  private final int tableMask;
+  private final int sampleSize;
+  private int additions = 0;
+
+  /**
+   * @param expectedEntries number of keys expected to be tracked at once, typically the number of
+   *   entries the cache holds
+   */
+  public FrequencySketch(long expectedEntries) {
+    // Four counters a key, sixteen to a long: one long per key over the four rows
+    int length = (int)Math.min(1 << 30, Math.max(expectedEntries, 16));
+    length = Integer.highestOneBit(length - 1) << 1;
+    this.table = new long[length];
+    this.tableMask = length - 1;
+    this.sampleSize = 10 * length;
+  }
+
+  /**
+   * @return the estimated number of times the key was seen recently, from 0 to 15
+   */
+  public int frequency(int hash) {
+    int frequency = MAX_FREQUENCY;
+    for (int i = 0; i < SEEDS.length; i++) {
+      long h = rehash(hash, i);
+      long counters = this.table[index(h)];
+      frequency = Math.min(frequency, (int)((counters >>> offset(h)) & 0xfL));
+    }
+    return frequency;
+  }
+
+  /**
+   * Counts a sighting of the key, and ages the sketch if it is time to.
+   */
+  public void increment(int hash) {
+    boolean added = false;
+    for (int i = 0; i < SEEDS.length; i++) {
+      long h = rehash(hash, i);
+      int index = index(h);
+      int offset = offset(h);
+      if (((this.table[index] >>> offset) & 0xfL) != MAX_FREQUENCY) {
+        this.table[index] += 1L << offset;
+        added = true;
+      }
+    }
+    if (added && ++this.additions == this.sampleSize) {
+      reset();
+    }
+  }
+
+  /** Halves every counter */
+  void reset() {
+    for (int i = 0; i < this.table.length; i++) {
+      this.table[i] = (this.table[i] >>> 1) & RESET_MASK;
+    }
+    this.additions >>>= 1;
+  }
+
+  int getSampleSize() {
+    return this.sampleSize;
+  }
+
+  private static long rehash(int hash, int i) {
+    long h = (hash + SEEDS[i]) * SEEDS[i];
+    return h ^ (h >>> 32);
+  }
+
+  private int index(long h) {
+    return (int)(h >>> 4) & this.tableMask;
+  }
+
+  private static int offset(long h) {
+    return ((int)h & 0xf) << 2;
+  }
+}
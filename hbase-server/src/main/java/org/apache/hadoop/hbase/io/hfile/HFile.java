@@ -478,6 +478,15 @@ public class HFile {
         boolean cacheBlock, final boolean pread, final boolean isCompaction,
         BlockType expectedBlockType)
         throws IOException;
+
+    /**
+     * Gives a block got from {@link #readBlock} back to the block cache once
+     * the caller no longer uses it. Only blocks of
+     * {@link Cacheable.MemoryType#SHARED} memory need it.
+     * @param block the block
+     * @param isCompaction as passed to {@link #readBlock}
+     */
+    void returnBlock(HFileBlock block, boolean isCompaction);
   }
 
   /** An interface used by clients to open and iterate an {@link HFile}. */
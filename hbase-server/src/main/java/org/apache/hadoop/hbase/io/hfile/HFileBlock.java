@@ -44,6 +44,7 @@ import org.apache.hadoop.hbase.io.encoding.HFileBlockDefaultEncodingContext;
 import org.apache.hadoop.hbase.io.encoding.HFileBlockEncodingContext;
 import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache;
 import org.apache.hadoop.hbase.io.FSDataInputStreamWrapper;
+import org.apache.hadoop.hbase.util.ByteBufferUtils;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.ChecksumType;
 import org.apache.hadoop.hbase.util.ClassSize;
@@ -127,9 +128,21 @@ public class HFileBlock implements Cacheable {
   private static final CacheableDeserializer<Cacheable> blockDeserializer =
       new CacheableDeserializer<Cacheable>() {
         public HFileBlock deserialize(ByteBuffer buf, boolean reuse) throws IOException{
+          return deserialize(buf, reuse, MemoryType.EXCLUSIVE);
+        }
+
+        @Override
+        public HFileBlock deserialize(ByteBuffer buf, boolean reuse, MemoryType memType)
+            throws IOException {
+          // Only data blocks are read in place from the cache's memory; the
+          // others are few and kept around by the readers, so they are copied
+          ByteBuffer header = buf.duplicate();
+          header.rewind();
+          boolean shared = memType == MemoryType.SHARED
+              && BlockType.read(header).isData();
           buf.limit(buf.limit() - HFileBlock.EXTRA_SERIALIZATION_SPACE).rewind();
           ByteBuffer newByteBuffer;
-          if (reuse) {
+          if (reuse && (shared || memType == MemoryType.EXCLUSIVE)) {
             newByteBuffer = buf.slice();
           } else {
            newByteBuffer = ByteBuffer.allocate(buf.limit());
@@ -141,6 +154,7 @@ public class HFileBlock implements Cacheable {
           HFileBlock ourBuffer = new HFileBlock(newByteBuffer, minorVersion);
           ourBuffer.offset = buf.getLong();
           ourBuffer.nextBlockOnDiskSizeWithHeader = buf.getInt();
+          ourBuffer.memType = shared ? MemoryType.SHARED : MemoryType.EXCLUSIVE;
           return ourBuffer;
         }
         
@@ -202,6 +216,12 @@ public class HFileBlock implements Cacheable {
    */
   private int nextBlockOnDiskSizeWithHeader = -1;
 
+  /**
+   * Whether the buffer is memory of the block cache, to be returned to it once
+   * the block is no longer used.
+   */
+  private MemoryType memType = MemoryType.EXCLUSIVE;
+
   /**
    * Creates a new {@link HFile} block from the given fields. This constructor
    * is mostly used when the block data has already been read and uncompressed,
@@ -344,8 +364,10 @@ public class HFileBlock implements Cacheable {
    * @return the buffer with header skipped
    */
   public ByteBuffer getBufferWithoutHeader() {
-    return ByteBuffer.wrap(buf.array(), buf.arrayOffset() + headerSize(),
-        buf.limit() - headerSize() - totalChecksumBytes()).slice();
+    ByteBuffer dupBuf = buf.duplicate();
+    dupBuf.limit(buf.limit() - totalChecksumBytes());
+    dupBuf.position(headerSize());
+    return dupBuf.slice();
   }
 
   /**
@@ -358,8 +380,10 @@ public class HFileBlock implements Cacheable {
    * @return the buffer of this block for read-only operations
    */
   public ByteBuffer getBufferReadOnly() {
-    return ByteBuffer.wrap(buf.array(), buf.arrayOffset(),
-        buf.limit() - totalChecksumBytes()).slice();
+    ByteBuffer dupBuf = buf.duplicate();
+    dupBuf.limit(buf.limit() - totalChecksumBytes());
+    dupBuf.position(0);
+    return dupBuf.slice();
   }
 
   /**
@@ -370,7 +394,9 @@ public class HFileBlock implements Cacheable {
    * @return the byte buffer with header included for read-only operations
    */
   public ByteBuffer getBufferReadOnlyWithHeader() {
-    return ByteBuffer.wrap(buf.array(), buf.arrayOffset(), buf.limit()).slice();
+    ByteBuffer dupBuf = buf.duplicate();
+    dupBuf.position(0);
+    return dupBuf.slice();
   }
 
   /**
@@ -454,9 +480,10 @@ public class HFileBlock implements Cacheable {
         + ", prevBlockOffset="
         + prevBlockOffset
         + ", dataBeginsWith="
-        + Bytes.toStringBinary(buf.array(), buf.arrayOffset() + headerSize(),
-            Math.min(32, buf.limit() - buf.arrayOffset() - headerSize()))
-        + ", fileOffset=" + offset;
+        + toStringBinary(buf, headerSize(),
+            Math.min(32, buf.limit() - headerSize()))
+        + ", fileOffset=" + offset
+        + ", memoryType=" + memType;
   }
 
   private void validateOnDiskSizeWithoutHeader(
@@ -464,8 +491,7 @@ public class HFileBlock implements Cacheable {
     if (onDiskSizeWithoutHeader != expectedOnDiskSizeWithoutHeader) {
       String blockInfoMsg =
         "Block offset: " + offset + ", data starts with: "
-          + Bytes.toStringBinary(buf.array(), buf.arrayOffset(),
-              buf.arrayOffset() + Math.min(32, buf.limit()));
+          + toStringBinary(buf, 0, Math.min(32, buf.limit()));
       throw new IOException("On-disk size without header provided is "
           + expectedOnDiskSizeWithoutHeader + ", but block "
           + "header contains " + onDiskSizeWithoutHeader + ". " +
@@ -473,6 +499,20 @@ public class HFileBlock implements Cacheable {
     }
   }
 
+  /**
+   * @return a printable representation of length bytes of the buffer from
+   *         offset, whether it is backed by an array or not
+   */
+  private static String toStringBinary(ByteBuffer buf, int offset, int length) {
+    if (buf.hasArray()) {
+      return Bytes.toStringBinary(buf.array(), buf.arrayOffset() + offset,
+          length);
+    }
+    byte[] bytes = new byte[length];
+    ByteBufferUtils.copyFromBufferToArray(bytes, buf, offset, 0, length);
+    return Bytes.toStringBinary(bytes);
+  }
+
   /**
    * Always allocates a new buffer of the correct size. Copies header bytes
    * from the existing buffer. Does not change header fields. 
@@ -532,6 +572,12 @@ public class HFileBlock implements Cacheable {
    * @return a byte stream reading the data section of this block
    */
   public DataInputStream getByteStream() {
+    if (!buf.hasArray()) {
+      byte[] data = new byte[buf.limit() - headerSize()];
+      ByteBufferUtils.copyFromBufferToArray(data, buf, headerSize(), 0,
+          data.length);
+      return new DataInputStream(new ByteArrayInputStream(data));
+    }
     return new DataInputStream(new ByteArrayInputStream(buf.array(),
         buf.arrayOffset() + headerSize(), buf.limit() - headerSize()));
   }
@@ -540,8 +586,8 @@ public class HFileBlock implements Cacheable {
   public long heapSize() {
     long size = ClassSize.align(
         ClassSize.OBJECT +
-        // Block type and byte buffer references
-        2 * ClassSize.REFERENCE +
+        // Block type, byte buffer and memory type references
+        3 * ClassSize.REFERENCE +
         // On-disk size, uncompressed size, and next block's on-disk size
         // bytePerChecksum,  onDiskDataSize and minorVersion
         6 * Bytes.SIZEOF_INT +
@@ -1113,6 +1159,30 @@ public class HFileBlock implements Cacheable {
     HFileBlock readBlockData(long offset, long onDiskSize,
         int uncompressedSize, boolean pread) throws IOException;
 
+    /**
+     * Reads the block at the given offset in the file with a seek and read
+     * on the given stream, which needs no locking as it belongs to the
+     * caller. Reads with a positional read on a shared stream instead while
+     * the private stream cannot be used, after a checksum failure.
+     *
+     * @param offset
+     * @param onDiskSize the on-disk size of the entire block, including all
+     *          applicable headers, or -1 if unknown
+     * @param uncompressedSize the uncompressed size of the compressed part of
+     *          the block, or -1 if unknown
+     * @param privateStream a stream opened with {@link #openPrivateStream()}
+     * @return the newly read block
+     */
+    HFileBlock readBlockData(long offset, long onDiskSize,
+        int uncompressedSize, FSDataInputStream privateStream) throws IOException;
+
+    /**
+     * Opens a stream on the file for the exclusive use of the caller, who
+     * closes it.
+     * @return the stream, or null if this reader cannot open streams
+     */
+    FSDataInputStream openPrivateStream() throws IOException;
+
     /**
      * Creates a block iterator over the given portion of the {@link HFile}.
      * The iterator returns blocks starting with offset such that offset <=
@@ -1204,6 +1274,8 @@ public class HFileBlock implements Cacheable {
      * @param peekIntoNextBlock whether to read the next block's on-disk size
      * @param fileOffset position in the stream to read at
      * @param pread whether we should do a positional read
+     * @param privateStream whether istream belongs to the caller, so that a
+     *          seek and read on it needs no lock
      * @param istream The input source of data
      * @return the on-disk size of the next block with header size included, or
      *         -1 if it could not be determined
@@ -1211,8 +1283,8 @@ public class HFileBlock implements Cacheable {
      */
     protected int readAtOffset(FSDataInputStream istream,
         byte[] dest, int destOffset, int size,
-        boolean peekIntoNextBlock, long fileOffset, boolean pread)
-        throws IOException {
+        boolean peekIntoNextBlock, long fileOffset, boolean pread,
+        boolean privateStream) throws IOException {
       if (peekIntoNextBlock &&
           destOffset + size + hdrSize > dest.length) {
         // We are asked to read the next block's header as well, but there is
@@ -1222,7 +1294,7 @@ public class HFileBlock implements Cacheable {
             "-byte array at offset " + destOffset);
       }
 
-      if (!pread && streamLock.tryLock()) {
+      if (!pread && (privateStream || streamLock.tryLock())) {
         // Seek + read. Better for scanning.
         try {
           istream.seek(fileOffset);
@@ -1243,7 +1315,9 @@ public class HFileBlock implements Cacheable {
           if (!readWithExtra(istream, dest, destOffset, size, hdrSize))
             return -1;
         } finally {
-          streamLock.unlock();
+          if (!privateStream) {
+            streamLock.unlock();
+          }
         }
       } else {
         // Positional read. Better for random reads; or when the streamLock is already locked.
@@ -1309,6 +1383,20 @@ public class HFileBlock implements Cacheable {
           }
         };
 
+    /**
+     * Largest buffer a thread keeps around to read compressed blocks into. Blocks
+     * with a larger on-disk size are read into a buffer of their own.
+     */
+    static final int MAX_REUSED_ON_DISK_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * The buffer each thread reads compressed blocks into, before decompressing
+     * them into a buffer of their own. A thread reads one block at a time, so it
+     * is shared by all the readers.
+     */
+    private static final ThreadLocal<byte[]> onDiskBufferForThread =
+        new ThreadLocal<byte[]>();
+
     public FSReaderV2(FSDataInputStreamWrapper stream, Algorithm compressAlgo, long fileSize,
         int minorVersion, HFileSystem hfs, Path path) throws IOException {
       super(compressAlgo, fileSize, minorVersion, hfs, path);
@@ -1347,6 +1435,31 @@ public class HFileBlock implements Cacheable {
     @Override
     public HFileBlock readBlockData(long offset, long onDiskSizeWithHeaderL,
         int uncompressedSize, boolean pread) throws IOException {
+      return readBlockData(offset, onDiskSizeWithHeaderL, uncompressedSize,
+          pread, null);
+    }
+
+    @Override
+    public HFileBlock readBlockData(long offset, long onDiskSizeWithHeaderL,
+        int uncompressedSize, FSDataInputStream privateStream)
+        throws IOException {
+      return readBlockData(offset, onDiskSizeWithHeaderL, uncompressedSize,
+          false, privateStream);
+    }
+
+    @Override
+    public FSDataInputStream openPrivateStream() throws IOException {
+      return streamWrapper.openPrivateStream();
+    }
+
+    /**
+     * Reads a version 2 block from the given private stream if there is one
+     * and it suits the checksum verification in use, from the shared stream
+     * otherwise.
+     */
+    private HFileBlock readBlockData(long offset, long onDiskSizeWithHeaderL,
+        int uncompressedSize, boolean pread, FSDataInputStream privateStream)
+        throws IOException {
 
       // get a copy of the current state of whether to validate
       // hbase checksums or not for this read call. This is not 
@@ -1355,10 +1468,19 @@ public class HFileBlock implements Cacheable {
       // guaranteed to use hdfs checksum verification.
       boolean doVerificationThruHBaseChecksum = streamWrapper.shouldUseHBaseChecksum();
       FSDataInputStream is = streamWrapper.getStream(doVerificationThruHBaseChecksum);
+      // A private stream does FS-level checksum verification as configured,
+      // which is not what is in use after an HBase checksum failure.
+      boolean usePrivateStream = privateStream != null
+          && doVerificationThruHBaseChecksum == streamWrapper.isHBaseChecksumConfigured();
+      if (usePrivateStream) {
+        is = privateStream;
+      } else if (privateStream != null) {
+        pread = true;
+      }
 
       HFileBlock blk = readBlockDataInternal(is, offset, 
                          onDiskSizeWithHeaderL, 
-                         uncompressedSize, pread,
+                         uncompressedSize, pread, usePrivateStream,
                          doVerificationThruHBaseChecksum);
       if (blk == null) {
         HFile.LOG.warn("HBase checksum verification failed for file " +
@@ -1386,7 +1508,7 @@ public class HFileBlock implements Cacheable {
         is = this.streamWrapper.fallbackToFsChecksum(CHECKSUM_VERIFICATION_NUM_IO_THRESHOLD);
         doVerificationThruHBaseChecksum = false;
         blk = readBlockDataInternal(is, offset, onDiskSizeWithHeaderL,
-                                    uncompressedSize, pread,
+                                    uncompressedSize, pread || usePrivateStream, false,
                                     doVerificationThruHBaseChecksum);
         if (blk != null) {
           HFile.LOG.warn("HDFS checksum verification suceeded for file " +
@@ -1422,13 +1544,14 @@ public class HFileBlock implements Cacheable {
      * @param uncompressedSize the uncompressed size of the the block. Always
      *          expected to be -1. This parameter is only used in version 1.
      * @param pread whether to use a positional read
+     * @param privateStream whether the stream belongs to the caller
      * @param verifyChecksum Whether to use HBase checksums. 
      *        If HBase checksum is switched off, then use HDFS checksum.
      * @return the HFileBlock or null if there is a HBase checksum mismatch
      */
     private HFileBlock readBlockDataInternal(FSDataInputStream is, long offset, 
         long onDiskSizeWithHeaderL, int uncompressedSize, boolean pread,
-        boolean verifyChecksum) throws IOException {
+        boolean privateStream, boolean verifyChecksum) throws IOException {
       if (offset < 0) {
         throw new IOException("Invalid offset=" + offset + " trying to read "
             + "block (onDiskSize=" + onDiskSizeWithHeaderL
@@ -1460,6 +1583,11 @@ public class HFileBlock implements Cacheable {
       int nextBlockOnDiskSize = 0;
       // Allocate enough space to fit the next block's header too.
       byte[] onDiskBlock = null;
+      // Compressed blocks are decompressed into a new buffer, so the on-disk
+      // buffer can be reused; uncompressed ones keep it as their buffer.
+      boolean isCompressed =
+        compressAlgo != null
+            && compressAlgo != Compression.Algorithm.NONE;
 
       HFileBlock b = null;
       if (onDiskSizeWithHeader > 0) {
@@ -1473,10 +1601,10 @@ public class HFileBlock implements Cacheable {
 
         // Size that we have to skip in case we have already read the header.
         int preReadHeaderSize = headerBuf == null ? 0 : hdrSize;
-        onDiskBlock = new byte[onDiskSizeWithHeader + hdrSize];
+        onDiskBlock = getOnDiskBuffer(onDiskSizeWithHeader + hdrSize, isCompressed);
         nextBlockOnDiskSize = readAtOffset(is, onDiskBlock,
             preReadHeaderSize, onDiskSizeWithHeader - preReadHeaderSize,
-            true, offset + preReadHeaderSize, pread);
+            true, offset + preReadHeaderSize, pread, privateStream);
         if (headerBuf != null) {
           // the header has been read when reading the previous block, copy
           // to this block's header
@@ -1526,22 +1654,19 @@ public class HFileBlock implements Cacheable {
           // to the block index. This is costly and should happen very rarely.
           headerBuf = ByteBuffer.allocate(hdrSize);
           readAtOffset(is, headerBuf.array(), headerBuf.arrayOffset(),
-              hdrSize, false, offset, pread);
+              hdrSize, false, offset, pread, privateStream);
         }
 
         b = new HFileBlock(headerBuf, getMinorVersion());
-        onDiskBlock = new byte[b.getOnDiskSizeWithHeader() + hdrSize];
+        onDiskBlock = getOnDiskBuffer(b.getOnDiskSizeWithHeader() + hdrSize, isCompressed);
         System.arraycopy(headerBuf.array(),
               headerBuf.arrayOffset(), onDiskBlock, 0, hdrSize);
         nextBlockOnDiskSize =
           readAtOffset(is, onDiskBlock, hdrSize, b.getOnDiskSizeWithHeader()
-              - hdrSize, true, offset + hdrSize, pread);
+              - hdrSize, true, offset + hdrSize, pread, privateStream);
         onDiskSizeWithHeader = b.onDiskSizeWithoutHeader + hdrSize;
       }
 
-      boolean isCompressed =
-        compressAlgo != null
-            && compressAlgo != Compression.Algorithm.NONE;
       if (!isCompressed) {
         b.assumeUncompressed();
       }
@@ -1593,6 +1718,23 @@ public class HFileBlock implements Cacheable {
       return b;
     }
 
+    /**
+     * Returns a buffer of at least the given size to read a block into: the
+     * calling thread's reusable one if asked and the size allows, otherwise a
+     * new one of exactly the given size.
+     */
+    private static byte[] getOnDiskBuffer(int size, boolean reusable) {
+      if (!reusable || size > MAX_REUSED_ON_DISK_BUFFER_SIZE) {
+        return new byte[size];
+      }
+      byte[] buf = onDiskBufferForThread.get();
+      if (buf == null || buf.length < size) {
+        buf = new byte[size];
+        onDiskBufferForThread.set(buf);
+      }
+      return buf;
+    }
+
     void setIncludesMemstoreTS(boolean enabled) {
       includesMemstoreTS = enabled;
     }
@@ -1696,6 +1838,16 @@ public class HFileBlock implements Cacheable {
     return true;
   }
 
+  /**
+   * @return {@link MemoryType#SHARED} if this block reads memory of the block
+   *         cache, in which case it must be returned to the cache once no
+   *         longer used, see {@link HFile.CachingBlockReader#returnBlock}
+   */
+  @Override
+  public MemoryType getMemoryType() {
+    return memType;
+  }
+
   public boolean doesIncludeMemstoreTS() {
     return includesMemstoreTS;
   }
@@ -109,7 +109,7 @@ public class HFileBlockIndex {
     private final KVComparator comparator;
 
     // Root-level data.
-    private byte[][] blockKeys;
+    private PrefixCompressedKeys blockKeys;
     private long[] blockOffsets;
     private int[] blockDataSizes;
     private int rootByteSize = 0;
@@ -148,7 +148,7 @@ public class HFileBlockIndex {
      * @return true if the block index is empty.
      */
     public boolean isEmpty() {
-      return blockKeys.length == 0;
+      return rootCount == 0;
     }
 
     /**
@@ -156,7 +156,7 @@ public class HFileBlockIndex {
      * {@link IllegalStateException} otherwise.
      */
     public void ensureNonEmpty() {
-      if (blockKeys.length == 0) {
+      if (rootCount == 0) {
         throw new IllegalStateException("Block index is empty or not loaded");
       }
     }
@@ -212,19 +212,14 @@ public class HFileBlockIndex {
         return null;
       }
 
-      // the next indexed key
+      // the next indexed key; the deepest level that has one wins, and the
+      // root level key is only decoded if no other level has one
       byte[] nextIndexedKey = null;
 
       // Read the next-level (intermediate or leaf) index block.
       long currentOffset = blockOffsets[rootLevelIndex];
       int currentOnDiskSize = blockDataSizes[rootLevelIndex];
 
-      if (rootLevelIndex < blockKeys.length - 1) {
-        nextIndexedKey = blockKeys[rootLevelIndex + 1];
-      } else {
-        nextIndexedKey = HConstants.NO_NEXT_INDEXED_KEY;
-      }
-
       int lookupLevel = 1; // How many levels deep we are in our lookup.
       int index = -1;
 
@@ -296,10 +291,21 @@ public class HFileBlockIndex {
       }
 
       if (lookupLevel != searchTreeLevel) {
+        if (block != currentBlock) {
+          cachingBlockReader.returnBlock(block, isCompaction);
+        }
         throw new IOException("Reached a data block at level " + lookupLevel +
             " but the number of levels is " + searchTreeLevel);
       }
 
+      if (nextIndexedKey == null) {
+        if (rootLevelIndex < rootCount - 1) {
+          nextIndexedKey = blockKeys.get(rootLevelIndex + 1);
+        } else {
+          nextIndexedKey = HConstants.NO_NEXT_INDEXED_KEY;
+        }
+      }
+
       // set the next indexed key for the current block.
       BlockWithScanInfo blockWithScanInfo = new BlockWithScanInfo(block, nextIndexedKey);
       return blockWithScanInfo;
@@ -343,7 +349,7 @@ public class HFileBlockIndex {
         targetMidKey = Arrays.copyOfRange(b.array(), keyOffset, keyOffset + keyLen);
       } else {
         // The middle of the root-level index.
-        targetMidKey = blockKeys[rootCount / 2];
+        targetMidKey = blockKeys.get(rootCount / 2);
       }
 
       this.midKey.set(targetMidKey);
@@ -352,9 +358,10 @@ public class HFileBlockIndex {
 
     /**
      * @param i from 0 to {@link #getRootBlockCount() - 1}
+     * @return a copy of the key, decoded from the prefix-compressed root index
      */
     public byte[] getRootBlockKey(int i) {
-      return blockKeys[i];
+      return blockKeys.get(i);
     }
 
     /**
@@ -391,37 +398,24 @@ public class HFileBlockIndex {
      */
     public int rootBlockContainingKey(final byte[] key, int offset,
         int length) {
-      int pos = Bytes.binarySearch(blockKeys, key, offset, length,
-          comparator);
-      // pos is between -(blockKeys.length + 1) to blockKeys.length - 1, see
-      // binarySearch's javadoc.
-
-      if (pos >= 0) {
-        // This means this is an exact match with an element of blockKeys.
-        assert pos < blockKeys.length;
-        return pos;
+      if (rootCount == 0) {
+        return -1;
       }
-
-      // Otherwise, pos = -(i + 1), where blockKeys[i - 1] < key < blockKeys[i],
-      // and i is in [0, blockKeys.length]. We are returning j = i - 1 such that
-      // blockKeys[j] <= key < blockKeys[j + 1]. In particular, j = -1 if
-      // key < blockKeys[0], meaning the file does not contain the given key.
-
-      int i = -pos - 1;
-      assert 0 <= i && i <= blockKeys.length;
-      return i - 1;
+      return blockKeys.search(key, offset, length, comparator);
     }
 
     /**
      * Adds a new entry in the root block index. Only used when reading.
      *
+     * @param keys the root index keys being built
      * @param key Last key in the block
      * @param offset file offset where the block is stored
      * @param dataSize the uncompressed data size
      */
-    private void add(final byte[] key, final long offset, final int dataSize) {
+    private void add(PrefixCompressedKeys.Builder keys, final byte[] key,
+        final long offset, final int dataSize) {
       blockOffsets[rootCount] = offset;
-      blockKeys[rootCount] = key;
+      keys.add(key);
       blockDataSizes[rootCount] = dataSize;
 
       rootCount++;
@@ -602,8 +596,8 @@ public class HFileBlockIndex {
     public void readRootIndex(DataInput in, final int numEntries)
         throws IOException {
       blockOffsets = new long[numEntries];
-      blockKeys = new byte[numEntries][];
       blockDataSizes = new int[numEntries];
+      PrefixCompressedKeys.Builder keys = new PrefixCompressedKeys.Builder();
 
       // If index size is zero, no index was written.
       if (numEntries > 0) {
@@ -611,9 +605,10 @@ public class HFileBlockIndex {
           long offset = in.readLong();
           int dataSize = in.readInt();
           byte[] key = Bytes.readByteArray(in);
-          add(key, offset, dataSize);
+          add(keys, key, offset, dataSize);
         }
       }
+      blockKeys = keys.build();
     }
     
     /**
@@ -662,7 +657,7 @@ public class HFileBlockIndex {
       StringBuilder sb = new StringBuilder();
       sb.append("size=" + rootCount).append("\n");
       for (int i = 0; i < rootCount; i++) {
-        sb.append("key=").append(KeyValue.keyToString(blockKeys[i]))
+        sb.append("key=").append(KeyValue.keyToString(blockKeys.get(i)))
             .append("\n  offset=").append(blockOffsets[i])
             .append(", dataSize=" + blockDataSizes[i]).append("\n");
       }
@@ -677,16 +672,8 @@ public class HFileBlockIndex {
       // Mid-key metadata.
       heapSize += MID_KEY_METADATA_SIZE;
 
-      // Calculating the size of blockKeys
       if (blockKeys != null) {
-        // Adding array + references overhead
-        heapSize += ClassSize.align(ClassSize.ARRAY + blockKeys.length
-            * ClassSize.REFERENCE);
-
-        // Adding bytes
-        for (byte[] key : blockKeys) {
-          heapSize += ClassSize.align(ClassSize.ARRAY + key.length);
-        }
+        heapSize += blockKeys.heapSize();
       }
 
       if (blockOffsets != null) {
@@ -704,6 +691,218 @@ public class HFileBlockIndex {
 
   }
 
+  /**
+   * The keys of a root-level block index, kept in one byte array in which
+   * every key is prefix-compressed against the key before it. Every
+   * {@link #RESTART_INTERVAL}-th key is a "restart" key stored in full, so a
+   * lookup binary searches the restart keys in place and then decodes at most
+   * {@link #RESTART_INTERVAL} - 1 keys following one of them. This saves the
+   * array header and reference a byte array per key costs, and the row that
+   * neighbouring index keys usually share.
+   *
+   * Each entry is the length of the prefix shared with the previous key and
+   * the length of the rest of the key, both as unsigned varints, followed by
+   * the rest of the key. A restart entry shares nothing with the previous
+   * key. Instances are immutable and safe for concurrent lookups.
+   */
+  static class PrefixCompressedKeys implements HeapSize {
+
+    /** A key is stored in full every this many keys */
+    static final int RESTART_INTERVAL = 16;
+
+    static final long FIXED_OVERHEAD = ClassSize.align(ClassSize.OBJECT +
+        2 * ClassSize.REFERENCE + 2 * Bytes.SIZEOF_INT);
+
+    /** The entries of all keys, back to back */
+    private final byte[] entries;
+
+    /** Offsets in {@link #entries} of the restart entries */
+    private final int[] restarts;
+
+    private final int count;
+
+    /** Size of the buffer needed to decode any of the keys */
+    private final int maxKeyLength;
+
+    private PrefixCompressedKeys(byte[] entries, int[] restarts, int count,
+        int maxKeyLength) {
+      this.entries = entries;
+      this.restarts = restarts;
+      this.count = count;
+      this.maxKeyLength = maxKeyLength;
+    }
+
+    /**
+     * @return the number of keys
+     */
+    int size() {
+      return count;
+    }
+
+    /**
+     * @param i from 0 to {@link #size()} - 1
+     * @return a copy of the i-th key
+     */
+    byte[] get(int i) {
+      if (i < 0 || i >= count) {
+        throw new ArrayIndexOutOfBoundsException("Key " + i + " of " + count);
+      }
+      byte[] key = new byte[maxKeyLength];
+      int keyLength = 0;
+      int pos = restarts[i / RESTART_INTERVAL];
+      for (int j = i - i % RESTART_INTERVAL; j <= i; ++j) {
+        int shared = readVarint(entries, pos);
+        pos += varintSize(shared);
+        int suffixLength = readVarint(entries, pos);
+        pos += varintSize(suffixLength);
+        System.arraycopy(entries, pos, key, shared, suffixLength);
+        pos += suffixLength;
+        keyLength = shared + suffixLength;
+      }
+      return keyLength == key.length ? key : Arrays.copyOf(key, keyLength);
+    }
+
+    /**
+     * Finds the last key that is not greater than the given key.
+     *
+     * @param key the byte array containing the key to look for
+     * @param offset the offset of the key in its byte array
+     * @param length the length of the key
+     * @param comparator the comparator the keys are sorted by
+     * @return the index i such that keys[i] <= key < keys[i + 1], or -1 if the
+     *         key is less than the first key
+     */
+    int search(byte[] key, int offset, int length, KVComparator comparator) {
+      // Binary search the restart keys, which are stored in full. We are
+      // maintaining the invariant restart[low - 1] < key < restart[high + 1].
+      int low = 0;
+      int high = restarts.length - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        // A restart entry shares no prefix, which takes a single byte.
+        int pos = restarts[mid] + 1;
+        int midLength = readVarint(entries, pos);
+        pos += varintSize(midLength);
+
+        // we have to compare in this order, because the comparator order
+        // has special logic when the 'left side' is a special key.
+        int cmp = comparator.compareFlatKey(key, offset, length,
+            entries, pos, midLength);
+        if (cmp > 0) {
+          low = mid + 1;
+        } else if (cmp < 0) {
+          high = mid - 1;
+        } else {
+          return mid * RESTART_INTERVAL;
+        }
+      }
+      if (high < 0) {
+        return -1;
+      }
+
+      // restart[high] < key < restart[high + 1]. Decode the keys following
+      // restart[high] until one is greater than the key.
+      int first = high * RESTART_INTERVAL;
+      int end = Math.min(first + RESTART_INTERVAL, count);
+      byte[] current = new byte[maxKeyLength];
+      int pos = restarts[high];
+      for (int i = first; i < end; ++i) {
+        int shared = readVarint(entries, pos);
+        pos += varintSize(shared);
+        int suffixLength = readVarint(entries, pos);
+        pos += varintSize(suffixLength);
+        System.arraycopy(entries, pos, current, shared, suffixLength);
+        pos += suffixLength;
+        if (i == first) {
+          continue;
+        }
+        int cmp = comparator.compareFlatKey(key, offset, length,
+            current, 0, shared + suffixLength);
+        if (cmp < 0) {
+          return i - 1;
+        } else if (cmp == 0) {
+          return i;
+        }
+      }
+      return end - 1;
+    }
+
+    @Override
+    public long heapSize() {
+      return FIXED_OVERHEAD
+          + ClassSize.align(ClassSize.ARRAY + entries.length)
+          + ClassSize.align(ClassSize.ARRAY
+              + restarts.length * Bytes.SIZEOF_INT);
+    }
+
+    private static int readVarint(byte[] buf, int pos) {
+      int value = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = buf[pos++];
+        value |= (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      return value;
+    }
+
+    private static int varintSize(int value) {
+      int size = 1;
+      while ((value >>>= 7) != 0) {
+        ++size;
+      }
+      return size;
+    }
+
+    /**
+     * Builds {@link PrefixCompressedKeys} from keys added in sorted order.
+     */
+    static class Builder {
+      private final ByteArrayOutputStream entries = new ByteArrayOutputStream();
+      private final List<Integer> restarts = new ArrayList<Integer>();
+      private byte[] prevKey = null;
+      private int count = 0;
+      private int maxKeyLength = 0;
+
+      void add(byte[] key) {
+        int shared = 0;
+        if (count % RESTART_INTERVAL == 0) {
+          restarts.add(entries.size());
+        } else {
+          int maxShared = Math.min(prevKey.length, key.length);
+          while (shared < maxShared && prevKey[shared] == key[shared]) {
+            ++shared;
+          }
+        }
+        writeVarint(shared);
+        writeVarint(key.length - shared);
+        entries.write(key, shared, key.length - shared);
+
+        prevKey = key;
+        maxKeyLength = Math.max(maxKeyLength, key.length);
+        ++count;
+      }
+
+      PrefixCompressedKeys build() {
+        int[] restartOffsets = new int[restarts.size()];
+        for (int i = 0; i < restartOffsets.length; ++i) {
+          restartOffsets[i] = restarts.get(i);
+        }
+        return new PrefixCompressedKeys(entries.toByteArray(), restartOffsets,
+            count, maxKeyLength);
+      }
+
+      private void writeVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+          entries.write((value & 0x7F) | 0x80);
+          value >>>= 7;
+        }
+        entries.write(value);
+      }
+    }
+  }
+
   /**
    * Writes the block index into the output stream. Generate the tree from
    * bottom up. The leaf level is written to disk as a sequence of inline
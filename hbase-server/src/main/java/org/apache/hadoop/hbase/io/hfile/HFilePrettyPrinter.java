@@ -233,6 +233,7 @@ public class HFilePrettyPrinter {
       }
       if (shouldScanKeysValues)
         scanKeysValues(file, fileStats, scanner, row);
+      scanner.close();
     }
 
     // print meta data
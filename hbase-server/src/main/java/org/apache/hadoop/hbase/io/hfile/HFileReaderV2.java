@@ -27,17 +27,22 @@ import java.util.List;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValue.KVComparator;
 import org.apache.hadoop.hbase.fs.HFileSystem;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoder;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.io.hfile.Cacheable.MemoryType;
 import org.apache.hadoop.hbase.io.hfile.HFile.FileInfo;
 import org.apache.hadoop.hbase.io.FSDataInputStreamWrapper;
+import org.apache.hadoop.hbase.util.ByteBufferUtils;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.IdLock;
+import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.WritableUtils;
 import org.cloudera.htrace.Trace;
 import org.cloudera.htrace.TraceScope;
@@ -74,6 +79,39 @@ public class HFileReaderV2 extends AbstractHFileReader {
    */
   private IdLock offsetLock = new IdLock();
 
+  /**
+   * One lock per meta block, so that only one client loads a given meta block.
+   * Root index keys are decoded on every call, so they cannot be locked on.
+   */
+  private Object[] metaBlockLocks;
+
+  /** The prefetch of the file this reader requested, which it cancels on close; may be null */
+  private Runnable prefetch;
+
+  /**
+   * Configuration key for the number of blocks a scanner reads one right after
+   * the other, with positional reads, before it switches to seek+read on a
+   * stream of its own. 0 to never switch, in which case scanners read as they
+   * are asked to when created.
+   */
+  public static final String SCANNER_STREAM_BLOCKS_KEY = "hbase.hfile.scanner.stream.blocks";
+  public static final int DEFAULT_SCANNER_STREAM_BLOCKS = 4;
+
+  /**
+   * Configuration key for the distance, in bytes, past the end of the last
+   * block read that a scanner can seek to and keep its stream. Seeking further,
+   * or backwards, switches it back to positional reads.
+   */
+  public static final String SCANNER_STREAM_SEEK_DISTANCE_KEY =
+      "hbase.hfile.scanner.stream.seek.distance";
+  public static final int DEFAULT_SCANNER_STREAM_SEEK_DISTANCE = 128 * 1024;
+
+  /** See {@link #SCANNER_STREAM_BLOCKS_KEY}; 0 if this reader cannot open streams */
+  private final int scannerStreamBlocks;
+
+  /** See {@link #SCANNER_STREAM_SEEK_DISTANCE_KEY} */
+  private final int scannerStreamSeekDistance;
+
   /**
    * Blocks read from the load-on-open section, excluding data root index, meta
    * index, and file info.
@@ -115,6 +153,15 @@ public class HFileReaderV2 extends AbstractHFileReader {
         compressAlgo, fileSize, trailer.getMinorVersion(), hfs, path);
     this.fsBlockReader = fsBlockReaderV2; // upcast
 
+    // Only a stream wrapper that opened the file itself can open more streams
+    HFileSystem streamFs = fsdis.getHfs();
+    Configuration conf = streamFs != null && streamFs.getConf() != null
+        ? streamFs.getConf() : new Configuration(false);
+    scannerStreamBlocks = streamFs == null ? 0
+        : conf.getInt(SCANNER_STREAM_BLOCKS_KEY, DEFAULT_SCANNER_STREAM_BLOCKS);
+    scannerStreamSeekDistance = conf.getInt(SCANNER_STREAM_SEEK_DISTANCE_KEY,
+        DEFAULT_SCANNER_STREAM_SEEK_DISTANCE);
+
     // Comparator class name is stored in the trailer in version 2.
     comparator = trailer.createComparator();
     dataBlockIndexReader = new HFileBlockIndex.BlockIndexReader(comparator,
@@ -138,6 +185,10 @@ public class HFileReaderV2 extends AbstractHFileReader {
     metaBlockIndexReader.readRootIndex(
         blockIter.nextBlockWithBlockType(BlockType.ROOT_INDEX),
         trailer.getMetaIndexCount());
+    metaBlockLocks = new Object[trailer.getMetaIndexCount()];
+    for (int i = 0; i < metaBlockLocks.length; ++i) {
+      metaBlockLocks[i] = new Object();
+    }
 
     // File info
     fileInfo = new FileInfo();
@@ -165,13 +216,57 @@ public class HFileReaderV2 extends AbstractHFileReader {
     while ((b = blockIter.nextBlock()) != null) {
       loadOnOpenBlocks.add(b);
     }
+
+    // Prefetch file blocks upon open if requested
+    if (cacheConf.shouldPrefetchOnOpen()) {
+      prefetch = new Runnable() {
+        @Override
+        public void run() {
+          prefetchBlocks();
+        }
+      };
+      PrefetchExecutor.request(path, prefetch);
+    }
+  }
+
+  /**
+   * Reads all blocks before the load-on-open section through the block cache, so they are
+   * cached. Run by the {@link PrefetchExecutor}; stops when interrupted.
+   */
+  private void prefetchBlocks() {
+    long offset = 0;
+    long end = trailer.getLoadOnOpenDataOffset();
+    try {
+      long onDiskSize = -1;
+      while (offset < end) {
+        if (Thread.interrupted()) {
+          break;
+        }
+        PrefetchExecutor.throttle();
+        HFileBlock block = readBlock(offset, onDiskSize, true, true, false, null);
+        onDiskSize = block.getNextBlockOnDiskSizeWithHeader();
+        offset += block.getOnDiskSizeWithHeader();
+        returnBlock(block, false);
+      }
+    } catch (InterruptedException e) {
+      // Cancelled, the reader is being closed
+    } catch (IOException e) {
+      // The reader may have been closed under us
+      if (!Thread.currentThread().isInterrupted()) {
+        LOG.warn("Prefetch of " + path + " stopped at offset=" + offset + ", end=" + end, e);
+      }
+    } finally {
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("Prefetch of " + path + " ended at offset=" + offset + ", end=" + end);
+      }
+    }
   }
 
   /**
    * Create a Scanner on this file. No seeks or reads are done on creation. Call
-   * {@link HFileScanner#seekTo(byte[])} to position an start the read. There is
-   * nothing to clean up in a Scanner. Letting go of your references to the
-   * scanner is sufficient.
+   * {@link HFileScanner#seekTo(byte[])} to position an start the read. Call
+   * {@link HFileScanner#close()} once done, so the block the scanner is on is
+   * given back to the block cache if the cache shares it.
    *
    * @param cacheBlocks True if we should cache blocks read in by this scanner.
    * @param pread Use positional read rather than seek+read if true (pread is
@@ -218,7 +313,7 @@ public class HFileReaderV2 extends AbstractHFileReader {
     // Per meta key from any given file, synchronize reads for said block. This
     // is OK to do for meta blocks because the meta block index is always
     // single-level.
-    synchronized (metaBlockIndexReader.getRootBlockKey(block)) {
+    synchronized (metaBlockLocks[block]) {
       // Check cache for block. If found return.
       long metaBlockOffset = metaBlockIndexReader.getRootBlockOffset(block);
       BlockCacheKey cacheKey = new BlockCacheKey(name, metaBlockOffset,
@@ -272,6 +367,22 @@ public class HFileReaderV2 extends AbstractHFileReader {
       final boolean cacheBlock, boolean pread, final boolean isCompaction,
       BlockType expectedBlockType)
       throws IOException {
+    return readBlock(dataBlockOffset, onDiskBlockSize, cacheBlock, pread, isCompaction,
+        expectedBlockType, null);
+  }
+
+  /**
+   * Read in a file block, with a seek and read on the given stream if it is
+   * not in the cache.
+   * @param privateStream a stream of the caller's, opened with
+   *          {@link HFileBlock.FSReader#openPrivateStream()}, or null to read
+   *          as pread says
+   * @see #readBlock(long, long, boolean, boolean, boolean, BlockType)
+   */
+  HFileBlock readBlock(long dataBlockOffset, long onDiskBlockSize,
+      final boolean cacheBlock, boolean pread, final boolean isCompaction,
+      BlockType expectedBlockType, FSDataInputStream privateStream)
+      throws IOException {
     if (dataBlockIndexReader == null) {
       throw new IOException("Block index not loaded");
     }
@@ -312,15 +423,20 @@ public class HFileReaderV2 extends AbstractHFileReader {
               HFile.dataBlockReadCnt.incrementAndGet();
             }
 
-            validateBlockType(cachedBlock, expectedBlockType);
-
-            // Validate encoding type for encoded blocks. We include encoding
-            // type in the cache key, and we expect it to match on a cache hit.
-            if (cachedBlock.getBlockType() == BlockType.ENCODED_DATA
-                && cachedBlock.getDataBlockEncoding() != dataBlockEncoder.getEncodingInCache()) {
-              throw new IOException("Cached block under key " + cacheKey + " "
-                  + "has wrong encoding: " + cachedBlock.getDataBlockEncoding() + " (expected: "
-                  + dataBlockEncoder.getEncodingInCache() + ")");
+            try {
+              validateBlockType(cachedBlock, expectedBlockType);
+
+              // Validate encoding type for encoded blocks. We include encoding
+              // type in the cache key, and we expect it to match on a cache hit.
+              if (cachedBlock.getBlockType() == BlockType.ENCODED_DATA
+                  && cachedBlock.getDataBlockEncoding() != dataBlockEncoder.getEncodingInCache()) {
+                throw new IOException("Cached block under key " + cacheKey + " "
+                    + "has wrong encoding: " + cachedBlock.getDataBlockEncoding() + " (expected: "
+                    + dataBlockEncoder.getEncodingInCache() + ")");
+              }
+            } catch (IOException e) {
+              cacheConf.getBlockCache().returnBlock(cacheKey, cachedBlock);
+              throw e;
             }
             return cachedBlock;
           }
@@ -336,13 +452,26 @@ public class HFileReaderV2 extends AbstractHFileReader {
         }
         // Load block from filesystem.
         long startTimeNs = System.nanoTime();
-        HFileBlock hfileBlock = fsBlockReader.readBlockData(dataBlockOffset, onDiskBlockSize, -1,
-            pread);
+        boolean prefetching = PrefetchExecutor.isPrefetching();
+        HFileBlock hfileBlock;
+        if (prefetching) {
+          hfileBlock = fsBlockReader.readBlockData(dataBlockOffset, onDiskBlockSize, -1, pread);
+          PrefetchExecutor.addBytesRead(hfileBlock.getOnDiskSizeWithHeader());
+        } else {
+          PrefetchExecutor.foregroundReadStarted();
+          try {
+            hfileBlock = privateStream != null
+                ? fsBlockReader.readBlockData(dataBlockOffset, onDiskBlockSize, -1, privateStream)
+                : fsBlockReader.readBlockData(dataBlockOffset, onDiskBlockSize, -1, pread);
+          } finally {
+            PrefetchExecutor.foregroundReadFinished();
+          }
+        }
         hfileBlock = dataBlockEncoder.diskToCacheFormat(hfileBlock, isCompaction);
         validateBlockType(hfileBlock, expectedBlockType);
 
         final long delta = System.nanoTime() - startTimeNs;
-        HFile.offerReadLatency(delta, pread);
+        HFile.offerReadLatency(delta, pread && privateStream == null);
 
         // Cache the block if necessary
         if (cacheBlock && cacheConf.shouldCacheBlockOnRead(hfileBlock.getBlockType().getCategory())) {
@@ -363,6 +492,16 @@ public class HFileReaderV2 extends AbstractHFileReader {
     }
   }
 
+  @Override
+  public void returnBlock(HFileBlock block, boolean isCompaction) {
+    if (block != null && block.getMemoryType() == MemoryType.SHARED) {
+      // The key readBlock got the block with; shared blocks are data blocks
+      BlockCacheKey cacheKey = new BlockCacheKey(name, block.getOffset(),
+          dataBlockEncoder.getEffectiveEncodingInCache(isCompaction), block.getBlockType());
+      cacheConf.getBlockCache().returnBlock(cacheKey, block);
+    }
+  }
+
   /**
    * Compares the actual type of a block retrieved from cache or disk with its
    * expected type and throws an exception in case of a mismatch. Expected
@@ -416,6 +555,9 @@ public class HFileReaderV2 extends AbstractHFileReader {
   }
 
   public void close(boolean evictOnClose) throws IOException {
+    if (prefetch != null) {
+      PrefetchExecutor.cancel(path, prefetch);
+    }
     if (evictOnClose && cacheConf.isBlockCacheEnabled()) {
       int numEvicted = cacheConf.getBlockCache().evictBlocksByHfileName(name);
       if (LOG.isTraceEnabled()) {
@@ -446,9 +588,145 @@ public class HFileReaderV2 extends AbstractHFileReader {
      */
     protected byte[] nextIndexedKey;
 
+    private final HFileReaderV2 readerV2;
+
+    /** Offset of the last block the scanner read or moved to, or -1 */
+    private long lastBlockOffset = -1;
+
+    /** Offset right after the last block the scanner read or moved to */
+    private long lastBlockEnd = -1;
+
+    /** Number of blocks read one right after the other, up to the last one */
+    private int sequentialBlocks = 0;
+
+    /** Whether the scanner reads the blocks that follow through its own stream */
+    private boolean streaming = false;
+
+    /** The stream of the scanner, opened on the first read while streaming */
+    private FSDataInputStream stream;
+
+    /**
+     * Scanners that can switch to a stream of their own start with positional
+     * reads, whatever they are asked to do.
+     */
     public AbstractScannerV2(HFileReaderV2 r, boolean cacheBlocks,
         final boolean pread, final boolean isCompaction) {
-      super(r, cacheBlocks, pread, isCompaction);
+      super(r, cacheBlocks, pread || r.scannerStreamBlocks > 0, isCompaction);
+      this.readerV2 = r;
+    }
+
+    /**
+     * Makes the given block the current one, giving the previous one back to
+     * the block cache.
+     * @param newBlock the block, or null when the scanner is done or closed,
+     *          which also closes its stream
+     */
+    protected void setCurrentBlock(HFileBlock newBlock) {
+      HFileBlock prevBlock = block;
+      block = newBlock;
+      if (newBlock != null) {
+        trackBlock(newBlock);
+      } else {
+        stopStreaming();
+      }
+      if (prevBlock != null && prevBlock != newBlock) {
+        reader.returnBlock(prevBlock, isCompaction);
+      }
+    }
+
+    /**
+     * Notes that the scanner read or moved to the given block, and decides how
+     * it reads the blocks that follow. Once it has read enough blocks one right
+     * after the other, it switches from positional reads to seek+read on a
+     * stream of its own, which takes no lock shared with the other scanners of
+     * the file and lets HDFS read ahead. A seek backwards or far ahead switches
+     * it back. Seeks themselves always use positional reads.
+     */
+    private void trackBlock(HFileBlock b) {
+      long offset = b.getOffset();
+      if (offset == lastBlockOffset) {
+        return;
+      }
+      if (offset == lastBlockEnd) {
+        sequentialBlocks++;
+      } else if (!streaming || offset < lastBlockEnd
+          || offset - lastBlockEnd > readerV2.scannerStreamSeekDistance) {
+        sequentialBlocks = 1;
+        stopStreaming();
+      }
+      lastBlockOffset = offset;
+      lastBlockEnd = offset + b.getOnDiskSizeWithHeader();
+      if (!streaming && readerV2.scannerStreamBlocks > 0
+          && sequentialBlocks >= readerV2.scannerStreamBlocks) {
+        streaming = true;
+      }
+    }
+
+    /**
+     * Reads the block that starts where the given one ends, through the
+     * scanner's stream while it is streaming.
+     */
+    private HFileBlock readBlockAfter(HFileBlock curBlock) throws IOException {
+      FSDataInputStream privateStream = null;
+      if (streaming && stream == null) {
+        try {
+          stream = readerV2.fsBlockReader.openPrivateStream();
+        } catch (IOException e) {
+          LOG.warn("Failed to open a stream on " + readerV2.getPath()
+              + ", reading on with positional reads", e);
+          stopStreaming();
+          sequentialBlocks = 0;
+        }
+      }
+      if (streaming) {
+        privateStream = stream;
+      }
+      HFileBlock nextBlock = readerV2.readBlock(curBlock.getOffset()
+          + curBlock.getOnDiskSizeWithHeader(),
+          curBlock.getNextBlockOnDiskSizeWithHeader(), cacheBlocks, pread,
+          isCompaction, null, privateStream);
+      trackBlock(nextBlock);
+      return nextBlock;
+    }
+
+    /** For testing */
+    boolean isStreaming() {
+      return streaming;
+    }
+
+    /** Switches the scanner back to positional reads, closing its stream */
+    private void stopStreaming() {
+      streaming = false;
+      if (stream != null) {
+        IOUtils.closeStream(stream);
+        stream = null;
+      }
+    }
+
+    /**
+     * Gives a block read by this scanner back to the block cache, unless it is
+     * the current block, which is given back once the scanner leaves it.
+     */
+    protected void returnBlockIfNotCurrent(HFileBlock b) {
+      if (b != null && b != block) {
+        reader.returnBlock(b, isCompaction);
+      }
+    }
+
+    /**
+     * Compares the given key with the key the scanner is on.
+     * @return as {@link KVComparator#compareFlatKey}
+     */
+    protected int compareKey(KVComparator comparator, byte[] key, int offset,
+        int length) {
+      ByteBuffer bb = getKey();
+      return comparator.compareFlatKey(key, offset, length, bb.array(),
+          bb.arrayOffset(), bb.limit());
+    }
+
+    @Override
+    public void close() {
+      setCurrentBlock(null);
     }
 
     /**
@@ -499,9 +777,7 @@ public class HFileReaderV2 extends AbstractHFileReader {
     public int reseekTo(byte[] key, int offset, int length) throws IOException {
       int compared;
       if (isSeeked()) {
-        ByteBuffer bb = getKey();
-        compared = reader.getComparator().compareFlatKey(key, offset,
-            length, bb.array(), bb.arrayOffset(), bb.limit());
+        compared = compareKey(reader.getComparator(), key, offset, length);
         if (compared < 1) {
           // If the required key is less than or equal to current key, then
           // don't do anything.
@@ -533,28 +809,31 @@ public class HFileReaderV2 extends AbstractHFileReader {
       if (seekToBlock == null) {
         return false;
       }
-      ByteBuffer firstKey = getFirstKeyInBlock(seekToBlock);
+      // Copied out, the block may be given back below
+      byte[] firstKeyInCurrentBlock = Bytes.getBytes(getFirstKeyInBlock(seekToBlock));
 
-      if (reader.getComparator().compareFlatKey(firstKey.array(),
-          firstKey.arrayOffset(), firstKey.limit(), key, offset, length) == 0)
+      if (reader.getComparator().compareFlatKey(firstKeyInCurrentBlock, 0,
+          firstKeyInCurrentBlock.length, key, offset, length) == 0)
       {
         long previousBlockOffset = seekToBlock.getPrevBlockOffset();
         // The key we are interested in
         if (previousBlockOffset == -1) {
           // we have a 'problem', the key we want is the first of the file.
+          returnBlockIfNotCurrent(seekToBlock);
           return false;
         }
 
         // It is important that we compute and pass onDiskSize to the block
         // reader so that it does not have to read the header separately to
         // figure out the size.
-        seekToBlock = reader.readBlock(previousBlockOffset,
+        HFileBlock previousBlock = reader.readBlock(previousBlockOffset,
             seekToBlock.getOffset() - previousBlockOffset, cacheBlocks,
             pread, isCompaction, BlockType.DATA);
+        returnBlockIfNotCurrent(seekToBlock);
+        seekToBlock = previousBlock;
         // TODO shortcut: seek forward in this block to the last key of the
         // block.
       }
-      byte[] firstKeyInCurrentBlock = Bytes.getBytes(firstKey);
       loadBlockAndSeekToKey(seekToBlock, firstKeyInCurrentBlock, true, key, offset, length, true);
       return true;
     }
@@ -575,8 +854,10 @@ public class HFileReaderV2 extends AbstractHFileReader {
       HFileBlock curBlock = block;
 
       do {
-        if (curBlock.getOffset() >= lastDataBlockOffset)
+        if (curBlock.getOffset() >= lastDataBlockOffset) {
+          returnBlockIfNotCurrent(curBlock);
           return null;
+        }
 
         if (curBlock.getOffset() < 0) {
           throw new IOException("Invalid block file offset: " + block);
@@ -584,10 +865,9 @@ public class HFileReaderV2 extends AbstractHFileReader {
 
         // We are reading the next block without block type validation, because
         // it might turn out to be a non-data block.
-        curBlock = reader.readBlock(curBlock.getOffset()
-            + curBlock.getOnDiskSizeWithHeader(),
-            curBlock.getNextBlockOnDiskSizeWithHeader(), cacheBlocks, pread,
-            isCompaction, null);
+        HFileBlock nextBlock = readBlockAfter(curBlock);
+        returnBlockIfNotCurrent(curBlock);
+        curBlock = nextBlock;
       } while (!(curBlock.getBlockType().equals(BlockType.DATA) ||
           curBlock.getBlockType().equals(BlockType.ENCODED_DATA)));
 
@@ -601,21 +881,49 @@ public class HFileReaderV2 extends AbstractHFileReader {
   protected static class ScannerV2 extends AbstractScannerV2 {
     private HFileReaderV2 reader;
 
+    /**
+     * Keys of a block not backed by an array are copied here to be compared,
+     * as the comparators work on arrays
+     */
+    private byte[] keyCopy = new byte[0];
+
     public ScannerV2(HFileReaderV2 r, boolean cacheBlocks,
         final boolean pread, final boolean isCompaction) {
       super(r, cacheBlocks, pread, isCompaction);
       this.reader = r;
     }
 
+    /**
+     * @return true if what the scanner hands out of the current block must be
+     *         copied, as the block memory belongs to the block cache or is off
+     *         heap
+     */
+    private boolean mustCopy() {
+      return block.getMemoryType() == MemoryType.SHARED || !blockBuffer.hasArray();
+    }
+
+    /**
+     * @return length bytes of the block buffer from the given position, in a
+     *         buffer of their own if they must be copied
+     */
+    private ByteBuffer getBlockBytes(int position, int length) {
+      if (mustCopy()) {
+        byte[] bytes = new byte[length];
+        ByteBufferUtils.copyFromBufferToArray(bytes, blockBuffer, position, 0, length);
+        return ByteBuffer.wrap(bytes);
+      }
+      return ByteBuffer.wrap(blockBuffer.array(),
+          blockBuffer.arrayOffset() + position, length).slice();
+    }
+
     @Override
     public KeyValue getKeyValue() {
       if (!isSeeked())
         return null;
 
-      KeyValue ret = new KeyValue(blockBuffer.array(),
-          blockBuffer.arrayOffset() + blockBuffer.position(),
-          KEY_VALUE_LEN_SIZE + currKeyLen + currValueLen,
-          currKeyLen);
+      ByteBuffer kv = getBlockBytes(blockBuffer.position(),
+          KEY_VALUE_LEN_SIZE + currKeyLen + currValueLen);
+      KeyValue ret = new KeyValue(kv.array(), kv.arrayOffset(), kv.limit(), currKeyLen);
       if (this.reader.shouldIncludeMemstoreTS()) {
         ret.setMvccVersion(currMemstoreTS);
       }
@@ -625,23 +933,47 @@ public class HFileReaderV2 extends AbstractHFileReader {
     @Override
     public ByteBuffer getKey() {
       assertSeeked();
-      return ByteBuffer.wrap(
-          blockBuffer.array(),
-          blockBuffer.arrayOffset() + blockBuffer.position()
-              + KEY_VALUE_LEN_SIZE, currKeyLen).slice();
+      return getBlockBytes(blockBuffer.position() + KEY_VALUE_LEN_SIZE, currKeyLen);
     }
 
     @Override
     public ByteBuffer getValue() {
       assertSeeked();
-      return ByteBuffer.wrap(
-          blockBuffer.array(),
-          blockBuffer.arrayOffset() + blockBuffer.position()
-              + KEY_VALUE_LEN_SIZE + currKeyLen, currValueLen).slice();
+      return getBlockBytes(blockBuffer.position() + KEY_VALUE_LEN_SIZE + currKeyLen,
+          currValueLen);
+    }
+
+    @Override
+    protected int compareKey(KVComparator comparator, byte[] key, int offset,
+        int length) {
+      return compareKeyInBlock(key, offset, length,
+          blockBuffer.position() + KEY_VALUE_LEN_SIZE, currKeyLen);
+    }
+
+    /**
+     * Compares the given key with the key at the given position of the block
+     * buffer, in place if the buffer is backed by an array.
+     */
+    private int compareKeyInBlock(byte[] key, int offset, int length,
+        int keyPosition, int keyLength) {
+      if (blockBuffer.hasArray()) {
+        return reader.getComparator().compareFlatKey(key, offset, length,
+            blockBuffer.array(), blockBuffer.arrayOffset() + keyPosition, keyLength);
+      }
+      if (keyCopy.length < keyLength) {
+        keyCopy = new byte[Math.max(keyLength, 2 * keyCopy.length)];
+      }
+      ByteBufferUtils.copyFromBufferToArray(keyCopy, blockBuffer, keyPosition, 0, keyLength);
+      return reader.getComparator().compareFlatKey(key, offset, length, keyCopy, 0, keyLength);
+    }
+
+    @Override
+    public void close() {
+      setNonSeekedState();
     }
 
     private void setNonSeekedState() {
-      block = null;
+      setCurrentBlock(null);
       blockBuffer = null;
       currKeyLen = 0;
       currValueLen = 0;
@@ -723,12 +1055,13 @@ public class HFileReaderV2 extends AbstractHFileReader {
         return true;
       }
 
-      block = reader.readBlock(firstDataBlockOffset, -1, cacheBlocks, pread,
+      HFileBlock newBlock = reader.readBlock(firstDataBlockOffset, -1, cacheBlocks, pread,
           isCompaction, BlockType.DATA);
-      if (block.getOffset() < 0) {
-        throw new IOException("Invalid block offset: " + block.getOffset());
+      if (newBlock.getOffset() < 0) {
+        reader.returnBlock(newBlock, isCompaction);
+        throw new IOException("Invalid block offset: " + newBlock.getOffset());
       }
-      updateCurrBlock(block);
+      updateCurrBlock(newBlock);
       return true;
     }
 
@@ -738,8 +1071,11 @@ public class HFileReaderV2 extends AbstractHFileReader {
         throws IOException {
       if (block == null || block.getOffset() != seekToBlock.getOffset()) {
         updateCurrBlock(seekToBlock);
-      } else if (rewind) {
-        blockBuffer.rewind();
+      } else {
+        returnBlockIfNotCurrent(seekToBlock);
+        if (rewind) {
+          blockBuffer.rewind();
+        }
       }
 
       // Update the nextIndexedKey
@@ -754,7 +1090,7 @@ public class HFileReaderV2 extends AbstractHFileReader {
      * @param newBlock the block to make current
      */
     private void updateCurrBlock(HFileBlock newBlock) {
-      block = newBlock;
+      setCurrentBlock(newBlock);
 
       // sanity check
       if (block.getBlockType() != BlockType.DATA) {
@@ -781,10 +1117,9 @@ public class HFileReaderV2 extends AbstractHFileReader {
       if (this.reader.shouldIncludeMemstoreTS()) {
         if (this.reader.decodeMemstoreTS) {
           try {
-            int memstoreTSOffset = blockBuffer.arrayOffset()
-                + blockBuffer.position() + KEY_VALUE_LEN_SIZE + currKeyLen
-                + currValueLen;
-            currMemstoreTS = Bytes.readVLong(blockBuffer.array(),
+            int memstoreTSOffset = blockBuffer.position() + KEY_VALUE_LEN_SIZE
+                + currKeyLen + currValueLen;
+            currMemstoreTS = ByteBufferUtils.readVLong(blockBuffer,
                 memstoreTSOffset);
             currMemstoreTSLen = WritableUtils.getVIntSize(currMemstoreTS);
           } catch (Exception e) {
@@ -835,9 +1170,9 @@ public class HFileReaderV2 extends AbstractHFileReader {
         if (this.reader.shouldIncludeMemstoreTS()) {
           if (this.reader.decodeMemstoreTS) {
             try {
-              int memstoreTSOffset = blockBuffer.arrayOffset()
-                  + blockBuffer.position() + KEY_VALUE_LEN_SIZE + klen + vlen;
-              memstoreTS = Bytes.readVLong(blockBuffer.array(),
+              int memstoreTSOffset = blockBuffer.position() + KEY_VALUE_LEN_SIZE
+                  + klen + vlen;
+              memstoreTS = ByteBufferUtils.readVLong(blockBuffer,
                   memstoreTSOffset);
               memstoreTSLen = WritableUtils.getVIntSize(memstoreTS);
             } catch (Exception e) {
@@ -849,10 +1184,8 @@ public class HFileReaderV2 extends AbstractHFileReader {
           }
         }
 
-        int keyOffset = blockBuffer.arrayOffset() + blockBuffer.position()
-            + KEY_VALUE_LEN_SIZE;
-        int comp = reader.getComparator().compareFlatKey(key, offset, length,
-            blockBuffer.array(), keyOffset, klen);
+        int comp = compareKeyInBlock(key, offset, length,
+            blockBuffer.position() + KEY_VALUE_LEN_SIZE, klen);
 
         if (comp == 0) {
           if (seekBefore) {
@@ -913,16 +1246,18 @@ public class HFileReaderV2 extends AbstractHFileReader {
 
     @Override
     public String getKeyString() {
-      return Bytes.toStringBinary(blockBuffer.array(),
-          blockBuffer.arrayOffset() + blockBuffer.position()
-              + KEY_VALUE_LEN_SIZE, currKeyLen);
+      ByteBuffer keyBuffer = getBlockBytes(blockBuffer.position() + KEY_VALUE_LEN_SIZE,
+          currKeyLen);
+      return Bytes.toStringBinary(keyBuffer.array(), keyBuffer.arrayOffset(),
+          keyBuffer.limit());
     }
 
     @Override
     public String getValueString() {
-      return Bytes.toString(blockBuffer.array(), blockBuffer.arrayOffset()
-          + blockBuffer.position() + KEY_VALUE_LEN_SIZE + currKeyLen,
-          currValueLen);
+      ByteBuffer valueBuffer = getBlockBytes(blockBuffer.position() + KEY_VALUE_LEN_SIZE
+          + currKeyLen, currValueLen);
+      return Bytes.toString(valueBuffer.array(), valueBuffer.arrayOffset(),
+          valueBuffer.limit());
     }
   }
 
@@ -953,7 +1288,7 @@ public class HFileReaderV2 extends AbstractHFileReader {
      * @param newBlock the block to make current
      */
     private void updateCurrentBlock(HFileBlock newBlock) {
-      block = newBlock;
+      setCurrentBlock(newBlock);
 
       // sanity checks
       if (block.getBlockType() != BlockType.ENCODED_DATA) {
@@ -975,13 +1310,12 @@ public class HFileReaderV2 extends AbstractHFileReader {
     }
 
     private ByteBuffer getEncodedBuffer(HFileBlock newBlock) {
-      ByteBuffer origBlock = newBlock.getBufferReadOnly();
-      ByteBuffer encodedBlock = ByteBuffer.wrap(origBlock.array(),
-          origBlock.arrayOffset() + newBlock.headerSize() +
-          DataBlockEncoding.ID_SIZE,
+      ByteBuffer origBlock = newBlock.getBufferReadOnlyWithHeader();
+      origBlock.position(newBlock.headerSize() + DataBlockEncoding.ID_SIZE);
+      origBlock.limit(origBlock.position() +
           newBlock.getUncompressedSizeWithoutHeader() -
-          DataBlockEncoding.ID_SIZE).slice();
-      return encodedBlock;
+          DataBlockEncoding.ID_SIZE);
+      return origBlock.slice();
     }
 
     @Override
@@ -1002,12 +1336,13 @@ public class HFileReaderV2 extends AbstractHFileReader {
         return true;
       }
 
-      block = reader.readBlock(firstDataBlockOffset, -1, cacheBlocks, pread,
+      HFileBlock newBlock = reader.readBlock(firstDataBlockOffset, -1, cacheBlocks, pread,
           isCompaction, BlockType.DATA);
-      if (block.getOffset() < 0) {
-        throw new IOException("Invalid block offset: " + block.getOffset());
+      if (newBlock.getOffset() < 0) {
+        reader.returnBlock(newBlock, isCompaction);
+        throw new IOException("Invalid block offset: " + newBlock.getOffset());
       }
-      updateCurrentBlock(block);
+      updateCurrentBlock(newBlock);
       return true;
     }
 
@@ -1015,10 +1350,12 @@ public class HFileReaderV2 extends AbstractHFileReader {
     public boolean next() throws IOException {
       boolean isValid = seeker.next();
       if (!isValid) {
-        block = readNextDataBlock();
-        isValid = block != null;
+        HFileBlock newBlock = readNextDataBlock();
+        isValid = newBlock != null;
         if (isValid) {
-          updateCurrentBlock(block);
+          updateCurrentBlock(newBlock);
+        } else {
+          setCurrentBlock(null);
         }
       }
       return isValid;
@@ -1033,7 +1370,15 @@ public class HFileReaderV2 extends AbstractHFileReader {
     @Override
     public ByteBuffer getValue() {
       assertValidSeek();
-      return seeker.getValueShallowCopy();
+      ByteBuffer value = seeker.getValueShallowCopy();
+      if (block.getMemoryType() == MemoryType.SHARED || !value.hasArray()) {
+        // The block memory belongs to the block cache or is off heap
+        ByteBuffer copy = ByteBuffer.allocate(value.remaining());
+        copy.put(value.duplicate());
+        copy.flip();
+        return copy;
+      }
+      return value;
     }
 
     @Override
@@ -1075,8 +1420,11 @@ public class HFileReaderV2 extends AbstractHFileReader {
         throws IOException  {
       if (block == null || block.getOffset() != seekToBlock.getOffset()) {
         updateCurrentBlock(seekToBlock);
-      } else if (rewind) {
-        seeker.rewind();
+      } else {
+        returnBlockIfNotCurrent(seekToBlock);
+        if (rewind) {
+          seeker.rewind();
+        }
       }
       this.nextIndexedKey = nextIndexedKey;
       return seeker.seekToKeyInBlock(key, offset, length, seekBefore);
@@ -144,4 +144,12 @@ public interface HFileScanner {
    * Otherwise returns false.
    */
   boolean isSeeked();
+  /**
+   * Closes the scanner, giving back to the block cache the block it is on.
+   * Needed when the cache serves blocks in its own memory, see
+   * {@link Cacheable.MemoryType#SHARED}, and to close the stream a scanner
+   * opens for itself while reading sequentially. The scanner is not to be
+   * used after.
+   */
+  void close();
 }
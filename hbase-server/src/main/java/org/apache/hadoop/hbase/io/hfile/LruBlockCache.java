@@ -375,6 +375,17 @@ public class LruBlockCache implements BlockCache, HeapSize {
     return cb.getBuffer();
   }
 
+  /**
+   * Blocks of this cache are on heap; only blocks of the victim cache can be
+   * shared with its memory.
+   */
+  @Override
+  public void returnBlock(BlockCacheKey cacheKey, Cacheable block) {
+    if (victimHandler != null) {
+      victimHandler.returnBlock(cacheKey, block);
+    }
+  }
+
   /**
    * Whether the cache contains block with specified cacheKey
    * @param cacheKey
@@ -832,7 +843,7 @@ public class LruBlockCache implements BlockCache, HeapSize {
       List<Runnable> runnables = this.scheduleThreadPool.shutdownNow();
       LOG.debug("Still running " + runnables);
     }
-    this.evictionThread.shutdown();
+    if (this.evictionThread != null) this.evictionThread.shutdown();
   }
 
   /** Clears the cache. Used in tests. */
@@ -0,0 +1,254 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.util.Threads;
+
+/**
+ * Runs the prefetch of HFile data blocks into the block cache, for files whose family asks for
+ * it (see {@link CacheConfig#shouldPrefetchOnOpen()}). A bounded pool of daemon threads reads
+ * the files, one task a file, starting a short while after the file is opened so region opening
+ * is not held up. Each task gives way to foreground reads: while any are reading from the
+ * filesystem it pauses between blocks. A file's task runs through one of the readers of the
+ * file and is cancelled when that reader is closed, which also covers files compacted away. If
+ * other readers of the file are still open, one of them takes the prefetch over.
+ * <p>
+ * Also keeps the counts of prefetch progress reported in the region server metrics. These are
+ * for the whole process.
+ */
+@InterfaceAudience.Private
+public class PrefetchExecutor {
+  private static final Log LOG = LogFactory.getLog(PrefetchExecutor.class);
+
+  /** Configuration key for the number of threads prefetching blocks */
+  public static final String PREFETCH_THREADS_KEY = "hbase.hfile.prefetch.threads";
+  public static final int DEFAULT_PREFETCH_THREADS = 4;
+
+  /** Configuration key for the delay, in ms, between opening a file and prefetching it */
+  public static final String PREFETCH_DELAY_KEY = "hbase.hfile.prefetch.delay";
+  public static final int DEFAULT_PREFETCH_DELAY = 1000;
+
+  /**
+   * Configuration key for the pause, in ms, a prefetch takes before reading a block while
+   * foreground reads are going to the filesystem
+   */
+  public static final String PREFETCH_THROTTLE_PAUSE_KEY = "hbase.hfile.prefetch.throttle.pause";
+  public static final int DEFAULT_PREFETCH_THROTTLE_PAUSE = 10;
+
+  /** Pending and running prefetches, by file; changed under its lock, except as tasks finish */
+  private static final ConcurrentMap<Path, PrefetchTask> prefetchTasks =
+    new ConcurrentHashMap<Path, PrefetchTask>();
+  /** Set in threads while they prefetch, so their reads are not taken for foreground reads */
+  private static final ThreadLocal<Boolean> prefetching = new ThreadLocal<Boolean>();
+  /** Number of foreground reads going to the filesystem right now */
+  private static final AtomicInteger foregroundReads = new AtomicInteger();
+
+  private static final AtomicLong bytesRead = new AtomicLong();
+  private static final AtomicLong filesCompleted = new AtomicLong();
+
+  private static final ScheduledThreadPoolExecutor prefetchPool;
+  private static final int prefetchDelayMillis;
+  private static final int throttlePauseMillis;
+
+  static {
+    Configuration conf = HBaseConfiguration.create();
+    prefetchDelayMillis = conf.getInt(PREFETCH_DELAY_KEY, DEFAULT_PREFETCH_DELAY);
+    throttlePauseMillis = conf.getInt(PREFETCH_THROTTLE_PAUSE_KEY,
+      DEFAULT_PREFETCH_THROTTLE_PAUSE);
+    prefetchPool = new ScheduledThreadPoolExecutor(
+      conf.getInt(PREFETCH_THREADS_KEY, DEFAULT_PREFETCH_THREADS),
+      Threads.newDaemonThreadFactory("hfile-prefetch"));
+  }
+
+  /** The prefetch of one file; leaves the pending set once run or cancelled */
+  private static class PrefetchTask extends FutureTask<Void> {
+    private final Path path;
+    /** Reads the blocks through the reader that requested the prefetch */
+    private final Runnable runnable;
+    /** The prefetches requested by the other open readers of the file, oldest first */
+    private final List<Runnable> standbys = new ArrayList<Runnable>();
+
+    PrefetchTask(Path path, Runnable runnable) {
+      super(runnable, null);
+      this.path = path;
+      this.runnable = runnable;
+    }
+
+    @Override
+    public void run() {
+      prefetching.set(Boolean.TRUE);
+      try {
+        super.run();
+      } finally {
+        prefetching.remove();
+      }
+    }
+
+    @Override
+    protected void done() {
+      prefetchTasks.remove(path, this);
+      if (!isCancelled()) {
+        filesCompleted.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Schedules the prefetch of a file through a reader. If a prefetch of the file is already
+   * pending, through another reader, the request is kept in case that reader is closed first.
+   * The reader must call {@link #cancel(Path, Runnable)} when closed.
+   * @param path the file
+   * @param runnable reads the blocks of the file through a reader, caching them
+   */
+  public static void request(Path path, Runnable runnable) {
+    synchronized (prefetchTasks) {
+      PrefetchTask task = prefetchTasks.get(path);
+      if (task != null) {
+        task.standbys.add(runnable);
+        return;
+      }
+      schedule(new PrefetchTask(path, runnable));
+    }
+  }
+
+  /**
+   * Cancels the prefetch of a file through a reader, interrupting it if it is running. The
+   * prefetch is scheduled again through another open reader of the file, if there is one.
+   * @param path the file
+   * @param runnable what the reader passed to {@link #request(Path, Runnable)}
+   */
+  public static void cancel(Path path, Runnable runnable) {
+    synchronized (prefetchTasks) {
+      PrefetchTask task = prefetchTasks.get(path);
+      if (task == null) {
+        return;
+      }
+      if (task.runnable != runnable) {
+        task.standbys.remove(runnable);
+        return;
+      }
+      prefetchTasks.remove(path);
+      task.cancel(true);
+      // Drop it from the pool queue rather than leave it there until its delay is over
+      prefetchPool.remove(task);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Prefetch cancelled for " + path);
+      }
+      if (!task.standbys.isEmpty()) {
+        // Blocks read so far are in the cache, so the new reader quickly catches up
+        PrefetchTask next = new PrefetchTask(path, task.standbys.remove(0));
+        next.standbys.addAll(task.standbys);
+        schedule(next);
+      }
+    }
+  }
+
+  private static void schedule(PrefetchTask task) {
+    prefetchTasks.put(task.path, task);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Prefetch requested for " + task.path + ", delay=" + prefetchDelayMillis + "ms");
+    }
+    prefetchPool.schedule(task, prefetchDelayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @param path the file
+   * @return true if no prefetch of the file is pending or running
+   */
+  public static boolean isCompleted(Path path) {
+    return !prefetchTasks.containsKey(path);
+  }
+
+  /**
+   * @return true if the current thread is prefetching blocks
+   */
+  static boolean isPrefetching() {
+    return prefetching.get() != null;
+  }
+
+  /**
+   * Called by a reader before it reads a block from the filesystem for a foreground read. Must
+   * be followed by {@link #foregroundReadFinished()}.
+   */
+  static void foregroundReadStarted() {
+    foregroundReads.incrementAndGet();
+  }
+
+  /**
+   * Called by a reader once a foreground read of a block from the filesystem is over.
+   */
+  static void foregroundReadFinished() {
+    foregroundReads.decrementAndGet();
+  }
+
+  /**
+   * Called by a prefetch before each block it reads; pauses while foreground reads are going to
+   * the filesystem. Takes one pause at most, so a busy server still warms its cache, slowly.
+   * @throws InterruptedException if the prefetch was cancelled
+   */
+  static void throttle() throws InterruptedException {
+    if (throttlePauseMillis > 0 && foregroundReads.get() > 0) {
+      Thread.sleep(throttlePauseMillis);
+    }
+  }
+
+  /**
+   * Called by a prefetch for each block it read from the filesystem.
+   * @param bytes on-disk size of the block
+   */
+  static void addBytesRead(long bytes) {
+    bytesRead.addAndGet(bytes);
+  }
+
+  /**
+   * @return bytes read from the filesystem by prefetches
+   */
+  public static long getBytesRead() {
+    return bytesRead.get();
+  }
+
+  /**
+   * @return number of files whose prefetch ran to the end
+   */
+  public static long getFilesCompleted() {
+    return filesCompleted.get();
+  }
+
+  /**
+   * @return number of files whose prefetch is pending or running
+   */
+  public static int getFilesPending() {
+    return prefetchTasks.size();
+  }
+}
@@ -86,6 +86,11 @@ public class SimpleBlockCache implements BlockCache {
     cache.put(cacheKey, new Ref(cacheKey, block, q));
   }
 
+  @Override
+  public void returnBlock(BlockCacheKey cacheKey, Cacheable block) {
+    // Blocks are not shared with the cache's memory
+  }
+
   @Override
   public boolean evictBlock(BlockCacheKey cacheKey) {
     return cache.remove(cacheKey) != null;
@@ -0,0 +1,648 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.io.HeapSize;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
+import org.apache.hadoop.hbase.util.FSUtils;
+import org.apache.hadoop.hbase.util.Threads;
+import org.apache.hadoop.util.StringUtils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * An on-heap block cache that admits blocks by how often they were asked for, TinyLFU, and
+ * evicts in constant time, without the sort of {@link LruBlockCache}'s eviction runs.<p>
+ *
+ * New blocks go to a small LRU window, by default 1% of the cache. Blocks that fall out of the
+ * window are candidates for the main cache and are admitted only if a {@link FrequencySketch} of
+ * recent accesses rates them more frequent than the main cache's next victim. A scan therefore
+ * churns through the window but cannot flush blocks that are used over and over. Inserts count
+ * as accesses, as blocks are cached after a miss, so a block that was turned away and is read
+ * again comes back with more weight.<p>
+ *
+ * The main cache is a segmented LRU: blocks start on probation and move to the protected
+ * segment, 80% of the main cache, when read again; blocks overflowing the protected segment go
+ * back to probation, whose least recently used block is the next victim. In-memory blocks skip
+ * the window and the admission check and go straight to the protected segment.<p>
+ *
+ * Reads do not take a lock. They are recorded in a small lossy ring and applied to the LRU
+ * order and the sketch in batches, under the lock that writes take to insert and evict. As every
+ * write evicts just enough to make room for itself, there is no eviction thread.<p>
+ *
+ * Selected with {@link CacheConfig#BLOCKCACHE_POLICY_KEY}.
+ */
+@InterfaceAudience.Private
+public class TinyLfuBlockCache implements BlockCache, HeapSize {
+
+  static final Log LOG = LogFactory.getLog(TinyLfuBlockCache.class);
+
+  /** Configuration key for the fraction of the cache given to the admission window */
+  public static final String WINDOW_FACTOR_CONFIG_NAME = "hbase.blockcache.tinylfu.window.factor";
+  static final float DEFAULT_WINDOW_FACTOR = 0.01f;
+  /** Share of the main cache, past the window, kept for blocks read more than once */
+  static final float PROTECTED_FACTOR = 0.80f;
+
+  /** Read ring size, and how many reads are recorded between attempts to apply them */
+  static final int READ_BUFFER_SIZE = 128;
+  static final int READ_DRAIN_INTERVAL = 32;
+
+  /** Statistics thread */
+  static final int statThreadPeriod = 60 * 5;
+
+  public final static long PER_BLOCK_OVERHEAD = ClassSize.align(
+      ClassSize.OBJECT + (4 * ClassSize.REFERENCE) + Bytes.SIZEOF_LONG +
+      Bytes.SIZEOF_INT + Bytes.SIZEOF_BYTE);
+
+  public final static long CACHE_FIXED_OVERHEAD = ClassSize.align(
+      (5 * Bytes.SIZEOF_LONG) + (12 * ClassSize.REFERENCE) + ClassSize.OBJECT);
+
+  /** The queues a node can be on, or not yet or no longer */
+  private static final byte NEW = 0;
+  private static final byte WINDOW = 1;
+  private static final byte PROBATION = 2;
+  private static final byte PROTECTED = 3;
+  private static final byte DEAD = 4;
+
+  /** A cached block, linked in the queue it is in */
+  static class Node {
+    final BlockCacheKey cacheKey;
+    final Cacheable buf;
+    final long size;
+    final int hash;
+    byte queue = NEW;
+    Node prev;
+    Node next;
+
+    /** A list head */
+    Node() {
+      this.cacheKey = null;
+      this.buf = null;
+      this.hash = 0;
+      this.size = 0;
+    }
+
+    Node(BlockCacheKey cacheKey, Cacheable buf) {
+      this.cacheKey = cacheKey;
+      this.buf = buf;
+      this.hash = cacheKey.hashCode();
+      this.size = ClassSize.align(cacheKey.heapSize()) + ClassSize.align(buf.heapSize()) +
+          PER_BLOCK_OVERHEAD;
+    }
+  }
+
+  /** A doubly linked list of nodes in access order, least recent first */
+  static class AccessOrderQueue {
+    private final Node head = new Node();
+    private long bytes = 0;
+
+    AccessOrderQueue() {
+      head.prev = head;
+      head.next = head;
+    }
+
+    Node peekFirst() {
+      return head.next == head ? null : head.next;
+    }
+
+    Node peekLast() {
+      return head.prev == head ? null : head.prev;
+    }
+
+    void add(Node node) {
+      node.prev = head.prev;
+      node.next = head;
+      head.prev.next = node;
+      head.prev = node;
+      bytes += node.size;
+    }
+
+    void remove(Node node) {
+      node.prev.next = node.next;
+      node.next.prev = node.prev;
+      node.prev = null;
+      node.next = null;
+      bytes -= node.size;
+    }
+
+    void moveToBack(Node node) {
+      remove(node);
+      add(node);
+    }
+
+    long bytes() {
+      return bytes;
+    }
+  }
+
+  /** Concurrent map (the cache) */
+  private final ConcurrentHashMap<BlockCacheKey, Node> map;
+
+  /** Guards the queues and the sketch */
+  private final ReentrantLock evictionLock = new ReentrantLock();
+
+  private final AccessOrderQueue window = new AccessOrderQueue();
+  private final AccessOrderQueue probation = new AccessOrderQueue();
+  private final AccessOrderQueue protectedQueue = new AccessOrderQueue();
+  private final FrequencySketch sketch;
+
+  /** Reads not yet applied; lossy, a slot may be overwritten before it is drained */
+  private final AtomicReferenceArray<Node> readBuffer =
+      new AtomicReferenceArray<Node>(READ_BUFFER_SIZE);
+  private final AtomicInteger readCount = new AtomicInteger(0);
+
+  /** Statistics thread schedule pool */
+  private final ScheduledExecutorService scheduleThreadPool =
+    Executors.newScheduledThreadPool(1,
+      new ThreadFactoryBuilder()
+        .setNameFormat("TinyLfuStats #%d")
+        .setDaemon(true)
+        .build());
+
+  /** Current size of cache, overhead included */
+  private final AtomicLong size;
+
+  /** Current number of cached elements */
+  private final AtomicLong elements = new AtomicLong(0);
+
+  /** Cache statistics */
+  private final CacheStats stats = new CacheStats();
+
+  /** Maximum allowable size of cache */
+  private final long maxSize;
+
+  /** Byte limits of the window and of the main and protected segments */
+  private final long windowMax;
+  private final long mainMax;
+  private final long protectedMax;
+
+  /** Overhead of the structure itself */
+  private final long overhead;
+
+  /**
+   * @param maxSize maximum size of cache, in bytes
+   * @param blockSize approximate size of each block, in bytes
+   */
+  public TinyLfuBlockCache(long maxSize, long blockSize) {
+    this(maxSize, blockSize, DEFAULT_WINDOW_FACTOR);
+  }
+
+  public TinyLfuBlockCache(long maxSize, long blockSize, Configuration conf) {
+    this(maxSize, blockSize, conf.getFloat(WINDOW_FACTOR_CONFIG_NAME, DEFAULT_WINDOW_FACTOR));
+  }
+
+  /**
+   * @param maxSize maximum size of cache, in bytes
+   * @param blockSize approximate size of each block, in bytes
+   * @param windowFactor fraction of the cache for the admission window
+   */
+  public TinyLfuBlockCache(long maxSize, long blockSize, float windowFactor) {
+    if (windowFactor < 0 || windowFactor >= 1.0f) {
+      throw new IllegalArgumentException("windowFactor must be in [0, 1)");
+    }
+    long expectedBlocks = (long)Math.ceil(1.2 * maxSize / blockSize);
+    this.maxSize = maxSize;
+    this.map = new ConcurrentHashMap<BlockCacheKey, Node>((int)Math.min(expectedBlocks,
+        Integer.MAX_VALUE));
+    this.sketch = new FrequencySketch(expectedBlocks);
+    this.overhead = calculateOverhead(maxSize, blockSize);
+    this.size = new AtomicLong(this.overhead);
+    long capacity = Math.max(0, maxSize - this.overhead);
+    this.windowMax = (long)(capacity * windowFactor);
+    this.mainMax = capacity - this.windowMax;
+    this.protectedMax = (long)(this.mainMax * PROTECTED_FACTOR);
+    this.scheduleThreadPool.scheduleAtFixedRate(new StatisticsThread(this),
+        statThreadPeriod, statThreadPeriod, TimeUnit.SECONDS);
+  }
+
+  static long calculateOverhead(long maxSize, long blockSize) {
+    long expectedBlocks = (long)Math.ceil(1.2 * maxSize / blockSize);
+    // The sketch table has a long for every tracked block, rounded up to a power of two
+    long sketchLength = Long.highestOneBit(Math.max(expectedBlocks, 16) - 1) << 1;
+    return CACHE_FIXED_OVERHEAD + ClassSize.CONCURRENT_HASHMAP +
+        expectedBlocks * ClassSize.CONCURRENT_HASHMAP_ENTRY +
+        ClassSize.align(ClassSize.ARRAY + sketchLength * Bytes.SIZEOF_LONG) +
+        ClassSize.align(ClassSize.ARRAY + READ_BUFFER_SIZE * ClassSize.REFERENCE);
+  }
+
+  // BlockCache implementation
+
+  @Override
+  public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf, boolean inMemory) {
+    Node node = new Node(cacheKey, buf);
+    Node existing = map.putIfAbsent(cacheKey, node);
+    if (existing != null) {
+      // compare the contents, if they are not equal, we are in big trouble
+      if (compare(buf, existing.buf) != 0) {
+        throw new RuntimeException("Cached block contents differ, which should not have happened."
+          + "cacheKey:" + cacheKey);
+      }
+      LOG.warn("Cached an already cached block: " + cacheKey + ". This is harmless and can " +
+        "happen in rare cases (see HBASE-8547)");
+      return;
+    }
+    size.addAndGet(node.size);
+    elements.incrementAndGet();
+    evictionLock.lock();
+    try {
+      drainReadBuffer();
+      sketch.increment(node.hash);
+      if (node.queue == DEAD) {
+        // Evicted by evictBlock before we got the lock
+        return;
+      }
+      if (inMemory) {
+        node.queue = PROTECTED;
+        protectedQueue.add(node);
+        demoteProtected();
+      } else {
+        node.queue = WINDOW;
+        window.add(node);
+      }
+      evict();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  private int compare(Cacheable left, Cacheable right) {
+    ByteBuffer l = ByteBuffer.allocate(left.getSerializedLength());
+    left.serialize(l);
+    ByteBuffer r = ByteBuffer.allocate(right.getSerializedLength());
+    right.serialize(r);
+    return Bytes.compareTo(l.array(), l.arrayOffset(), l.limit(),
+      r.array(), r.arrayOffset(), r.limit());
+  }
+
+  @Override
+  public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf) {
+    cacheBlock(cacheKey, buf, false);
+  }
+
+  @Override
+  public Cacheable getBlock(BlockCacheKey cacheKey, boolean caching, boolean repeat) {
+    Node node = map.get(cacheKey);
+    if (node == null) {
+      if (!repeat) stats.miss(caching);
+      return null;
+    }
+    stats.hit(caching);
+    recordRead(node);
+    return node.buf;
+  }
+
+  private void recordRead(Node node) {
+    int count = readCount.getAndIncrement();
+    readBuffer.lazySet(count & (READ_BUFFER_SIZE - 1), node);
+    if ((count & (READ_DRAIN_INTERVAL - 1)) == READ_DRAIN_INTERVAL - 1 &&
+        evictionLock.tryLock()) {
+      try {
+        drainReadBuffer();
+      } finally {
+        evictionLock.unlock();
+      }
+    }
+  }
+
+  /** Applies the recorded reads. Must hold the eviction lock. */
+  private void drainReadBuffer() {
+    for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+      Node node = readBuffer.getAndSet(i, null);
+      if (node != null) {
+        onAccess(node);
+      }
+    }
+  }
+
+  private void onAccess(Node node) {
+    sketch.increment(node.hash);
+    switch (node.queue) {
+      case WINDOW:
+        window.moveToBack(node);
+        break;
+      case PROBATION:
+        probation.remove(node);
+        node.queue = PROTECTED;
+        protectedQueue.add(node);
+        demoteProtected();
+        break;
+      case PROTECTED:
+        protectedQueue.moveToBack(node);
+        break;
+      default:
+        // Not linked yet, or gone
+        break;
+    }
+  }
+
+  /** Moves the least recently used protected blocks to probation until the segment fits */
+  private void demoteProtected() {
+    Node node;
+    while (protectedQueue.bytes() > protectedMax && (node = protectedQueue.peekFirst()) != null) {
+      protectedQueue.remove(node);
+      node.queue = PROBATION;
+      probation.add(node);
+    }
+  }
+
+  /**
+   * Moves the blocks overflowing the window to the main cache if they beat its victims, and
+   * evicts until the cache is within its limits. The window keeps the block cached last even
+   * if it is larger than the window, so that it can be read at least once. Must hold the
+   * eviction lock.
+   */
+  private void evict() {
+    long evicted = 0;
+    Node candidate;
+    while (window.bytes() > windowMax && (candidate = window.peekFirst()) != null &&
+        candidate != window.peekLast()) {
+      window.remove(candidate);
+      if (probation.bytes() + protectedQueue.bytes() + candidate.size > mainMax) {
+        Node victim = mainVictim();
+        if (victim != null && !admit(candidate, victim)) {
+          removeEvicted(candidate);
+          evicted++;
+          continue;
+        }
+      }
+      candidate.queue = PROBATION;
+      probation.add(candidate);
+      Node victim;
+      while (probation.bytes() + protectedQueue.bytes() > mainMax &&
+          (victim = mainVictim()) != null && victim != candidate) {
+        unlink(victim);
+        removeEvicted(victim);
+        evicted++;
+      }
+    }
+    // In-memory blocks and large candidates may still leave the cache too big. Blocks that other
+    // writers have put in the map but not linked yet make room for themselves, so only the linked
+    // blocks count here.
+    Node victim;
+    while (window.bytes() + probation.bytes() + protectedQueue.bytes() > windowMax + mainMax &&
+        ((victim = mainVictim()) != null || (victim = window.peekFirst()) != null)) {
+      unlink(victim);
+      removeEvicted(victim);
+      evicted++;
+    }
+    if (evicted > 0) {
+      stats.evict();
+    }
+  }
+
+  /** @return whether the candidate was seen more often than the victim it would displace */
+  private boolean admit(Node candidate, Node victim) {
+    return sketch.frequency(candidate.hash) > sketch.frequency(victim.hash);
+  }
+
+  private Node mainVictim() {
+    Node victim = probation.peekFirst();
+    return victim != null ? victim : protectedQueue.peekFirst();
+  }
+
+  private void unlink(Node node) {
+    switch (node.queue) {
+      case WINDOW:
+        window.remove(node);
+        break;
+      case PROBATION:
+        probation.remove(node);
+        break;
+      case PROTECTED:
+        protectedQueue.remove(node);
+        break;
+      default:
+        break;
+    }
+  }
+
+  /** Drops an unlinked node from the map. Must hold the eviction lock. */
+  private void removeEvicted(Node node) {
+    node.queue = DEAD;
+    if (map.remove(node.cacheKey, node)) {
+      size.addAndGet(-node.size);
+      elements.decrementAndGet();
+      stats.evicted();
+    }
+  }
+
+  /**
+   * Whether the cache contains block with specified cacheKey
+   * @param cacheKey
+   * @return true if contains the block
+   */
+  public boolean containsBlock(BlockCacheKey cacheKey) {
+    return map.containsKey(cacheKey);
+  }
+
+  @Override
+  public void returnBlock(BlockCacheKey cacheKey, Cacheable block) {
+    // Blocks are not shared with the cache's memory
+  }
+
+  @Override
+  public boolean evictBlock(BlockCacheKey cacheKey) {
+    Node node = map.remove(cacheKey);
+    if (node == null) return false;
+    size.addAndGet(-node.size);
+    elements.decrementAndGet();
+    stats.evicted();
+    evictionLock.lock();
+    try {
+      unlink(node);
+      node.queue = DEAD;
+    } finally {
+      evictionLock.unlock();
+    }
+    return true;
+  }
+
+  /**
+   * Evicts all blocks for a specific HFile, a linear-time search through all blocks in the
+   * cache.
+   * @return the number of blocks evicted
+   */
+  @Override
+  public int evictBlocksByHfileName(String hfileName) {
+    int numEvicted = 0;
+    for (BlockCacheKey key : map.keySet()) {
+      if (key.getHfileName().equals(hfileName)) {
+        if (evictBlock(key))
+          ++numEvicted;
+      }
+    }
+    return numEvicted;
+  }
+
+  @Override
+  public CacheStats getStats() {
+    return this.stats;
+  }
+
+  /**
+   * Get the maximum size of this cache.
+   * @return max size in bytes
+   */
+  public long getMaxSize() {
+    return this.maxSize;
+  }
+
+  @Override
+  public long getCurrentSize() {
+    return this.size.get();
+  }
+
+  @Override
+  public long getFreeSize() {
+    return getMaxSize() - getCurrentSize();
+  }
+
+  @Override
+  public long size() {
+    return this.elements.get();
+  }
+
+  @Override
+  public long getBlockCount() {
+    return this.elements.get();
+  }
+
+  @Override
+  public long getEvictedCount() {
+    return this.stats.getEvictedCount();
+  }
+
+  @Override
+  public long heapSize() {
+    return getCurrentSize();
+  }
+
+  /*
+   * Statistics thread.  Periodically prints the cache statistics to the log.
+   */
+  static class StatisticsThread extends Thread {
+    TinyLfuBlockCache cache;
+
+    public StatisticsThread(TinyLfuBlockCache cache) {
+      super("TinyLfuBlockCache.StatisticsThread");
+      setDaemon(true);
+      this.cache = cache;
+    }
+
+    @Override
+    public void run() {
+      cache.logStats();
+    }
+  }
+
+  public void logStats() {
+    if (!LOG.isDebugEnabled()) return;
+    long totalSize = heapSize();
+    LOG.debug("Total=" + StringUtils.byteDesc(totalSize) + ", " +
+        "free=" + StringUtils.byteDesc(maxSize - totalSize) + ", " +
+        "max=" + StringUtils.byteDesc(this.maxSize) + ", " +
+        "blocks=" + size() + ", " +
+        "accesses=" + stats.getRequestCount() + ", " +
+        "hits=" + stats.getHitCount() + ", " +
+        "hitRatio=" + (stats.getHitCount() == 0 ? "0" :
+          StringUtils.formatPercent(stats.getHitRatio(), 2)) + ", " +
+        "cachingAccesses=" + stats.getRequestCachingCount() + ", " +
+        "cachingHits=" + stats.getHitCachingCount() + ", " +
+        "cachingHitsRatio=" + (stats.getHitCachingCount() == 0 ? "0" :
+          StringUtils.formatPercent(stats.getHitCachingRatio(), 2)) + ", " +
+        "evicted=" + stats.getEvictedCount());
+  }
+
+  @Override
+  public List<BlockCacheColumnFamilySummary> getBlockCacheColumnFamilySummaries(
+      Configuration conf) throws IOException {
+    Map<String, Path> sfMap = FSUtils.getTableStoreFilePathMap(
+        FileSystem.get(conf),
+        FSUtils.getRootDir(conf));
+
+    // See LruBlockCache#getBlockCacheColumnFamilySummaries
+    Map<BlockCacheColumnFamilySummary, BlockCacheColumnFamilySummary> bcs =
+      new HashMap<BlockCacheColumnFamilySummary, BlockCacheColumnFamilySummary>();
+
+    for (Node node : map.values()) {
+      Path path = sfMap.get(node.cacheKey.getHfileName());
+      if (path != null) {
+        BlockCacheColumnFamilySummary lookup =
+          BlockCacheColumnFamilySummary.createFromStoreFilePath(path);
+        BlockCacheColumnFamilySummary bcse = bcs.get(lookup);
+        if (bcse == null) {
+          bcse = BlockCacheColumnFamilySummary.create(lookup);
+          bcs.put(lookup, bcse);
+        }
+        bcse.incrementBlocks();
+        bcse.incrementHeapSize(node.size);
+      }
+    }
+    List<BlockCacheColumnFamilySummary> list =
+        new ArrayList<BlockCacheColumnFamilySummary>(bcs.values());
+    Collections.sort(list);
+    return list;
+  }
+
+  @Override
+  public void shutdown() {
+    this.scheduleThreadPool.shutdown();
+    for (int i = 0; i < 10; i++) {
+      if (!this.scheduleThreadPool.isShutdown()) Threads.sleep(10);
+    }
+    if (!this.scheduleThreadPool.isShutdown()) {
+      List<Runnable> runnables = this.scheduleThreadPool.shutdownNow();
+      LOG.debug("Still running " + runnables);
+    }
+  }
+
+  /** Clears the cache. Used in tests. */
+  public void clearCache() {
+    evictionLock.lock();
+    try {
+      for (BlockCacheKey key : map.keySet()) {
+        evictBlock(key);
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+}
@@ -39,6 +39,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -53,6 +54,7 @@ import org.apache.hadoop.hbase.io.hfile.BlockCacheColumnFamilySummary;
 import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
 import org.apache.hadoop.hbase.io.hfile.CacheStats;
 import org.apache.hadoop.hbase.io.hfile.Cacheable;
+import org.apache.hadoop.hbase.io.hfile.Cacheable.MemoryType;
 import org.apache.hadoop.hbase.io.hfile.CacheableDeserializer;
 import org.apache.hadoop.hbase.io.hfile.CacheableDeserializerIdManager;
 import org.apache.hadoop.hbase.io.hfile.CombinedBlockCache;
@@ -69,8 +71,8 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  * BucketCache uses {@link BucketAllocator} to allocate/free block, and use
  * {@link BucketCache#ramCache} and {@link BucketCache#backingMap} in order to
  * determine whether a given element hit. It could uses memory
- * {@link ByteBufferIOEngine} or file {@link FileIOEngine}to store/read the
- * block data.
+ * {@link ByteBufferIOEngine}, file {@link FileIOEngine} or memory-mapped file
+ * {@link MmapIOEngine} to store/read the block data.
  * 
  * Eviction is using similar algorithm as
  * {@link org.apache.hadoop.hbase.io.hfile.LruBlockCache}
@@ -82,6 +84,13 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  * Also could be used as a secondary cache(e.g. using Fusionio to store block)
  * to enlarge cache space by
  * {@link org.apache.hadoop.hbase.io.hfile.LruBlockCache#setVictimCache}
+ *
+ * With an IOEngine whose storage is memory, data blocks are served without a
+ * copy, reading the bucket in place (see {@link Cacheable.MemoryType#SHARED}).
+ * Such a block pins its bucket until it is given back with
+ * {@link #returnBlock(BlockCacheKey, Cacheable)}: a block evicted meanwhile
+ * is no longer served, but its bucket is only freed once the last reader
+ * returns it.
  */
 @InterfaceAudience.Private
 public class BucketCache implements BlockCache, HeapSize {
@@ -251,13 +260,15 @@ public class BucketCache implements BlockCache, HeapSize {
       throws IOException {
     if (ioEngineName.startsWith("file:"))
       return new FileIOEngine(ioEngineName.substring(5), capacity);
+    else if (ioEngineName.startsWith("mmap:"))
+      return new MmapIOEngine(ioEngineName.substring(5), capacity);
     else if (ioEngineName.startsWith("offheap"))
       return new ByteBufferIOEngine(capacity, true);
     else if (ioEngineName.startsWith("heap"))
       return new ByteBufferIOEngine(capacity, false);
     else
       throw new IllegalArgumentException(
-          "Don't understand io engine name for cache - prefix with file:, heap or offheap");
+          "Don't understand io engine name for cache - prefix with file:, mmap:, heap or offheap");
   }
 
   /**
@@ -348,12 +359,26 @@ public class BucketCache implements BlockCache, HeapSize {
       IdLock.Entry lockEntry = null;
       try {
         lockEntry = offsetLock.getLockEntry(bucketEntry.offset());
-        if (bucketEntry.equals(backingMap.get(key))) {
+        if (bucketEntry.equals(backingMap.get(key))
+            && !bucketEntry.isMarkedForEvict()) {
           int len = bucketEntry.getLength();
-          ByteBuffer bb = ByteBuffer.allocate(len);
-          ioEngine.read(bb, bucketEntry.offset());
-          Cacheable cachedBlock = bucketEntry.deserializerReference(
-              deserialiserMap).deserialize(bb, true);
+          CacheableDeserializer<Cacheable> deserializer =
+              bucketEntry.deserializerReference(deserialiserMap);
+          Cacheable cachedBlock;
+          ByteBuffer sharedBuffer = ioEngine.readShared(bucketEntry.offset(), len);
+          if (sharedBuffer != null) {
+            cachedBlock = deserializer.deserialize(sharedBuffer, true,
+                MemoryType.SHARED);
+            if (cachedBlock.getMemoryType() == MemoryType.SHARED) {
+              // Under the offset lock, so an eviction waits for this and then
+              // sees the reference
+              bucketEntry.retain();
+            }
+          } else {
+            ByteBuffer bb = ByteBuffer.allocate(len);
+            ioEngine.read(bb, bucketEntry.offset());
+            cachedBlock = deserializer.deserialize(bb, true);
+          }
           long timeTaken = System.nanoTime() - start;
           cacheStats.hit(caching);
           cacheStats.ioHit(timeTaken);
@@ -389,12 +414,16 @@ public class BucketCache implements BlockCache, HeapSize {
       IdLock.Entry lockEntry = null;
       try {
         lockEntry = offsetLock.getLockEntry(bucketEntry.offset());
-        if (bucketEntry.equals(backingMap.remove(cacheKey))) {
-          bucketAllocator.freeBlock(bucketEntry.offset());
-          realCacheSize.addAndGet(-1 * bucketEntry.getLength());
+        if (bucketEntry.equals(backingMap.get(cacheKey))
+            && !bucketEntry.isMarkedForEvict()) {
+          bucketEntry.markForEvict();
           if (removedBlock == null) {
             this.blockNumber.decrementAndGet();
           }
+          // Otherwise the last reader to return the block frees the bucket
+          if (!bucketEntry.isInUse()) {
+            freeBucketEntry(cacheKey, bucketEntry);
+          }
         } else {
           return false;
         }
@@ -410,6 +439,51 @@ public class BucketCache implements BlockCache, HeapSize {
     cacheStats.evicted();
     return true;
   }
+
+  /**
+   * Removes an entry marked for eviction from the backing map and frees its
+   * bucket. Must hold the offset lock of the entry.
+   */
+  private void freeBucketEntry(BlockCacheKey cacheKey, BucketEntry bucketEntry) {
+    if (backingMap.remove(cacheKey, bucketEntry)) {
+      bucketAllocator.freeBlock(bucketEntry.offset());
+      realCacheSize.addAndGet(-1 * bucketEntry.getLength());
+    }
+  }
+
+  /**
+   * Gives back a block got from {@link #getBlock(BlockCacheKey, boolean, boolean)}.
+   * Frees the bucket of a shared block evicted while it was in use, once its
+   * last reader returns it.
+   */
+  @Override
+  public void returnBlock(BlockCacheKey cacheKey, Cacheable block) {
+    if (block.getMemoryType() != MemoryType.SHARED) {
+      return;
+    }
+    BucketEntry bucketEntry = backingMap.get(cacheKey);
+    if (bucketEntry == null) {
+      // The cache was disabled or shut down meanwhile
+      return;
+    }
+    // The eviction marks the entry then checks the references, this releases
+    // the reference then checks the mark, so one of them frees the bucket
+    if (bucketEntry.release() == 0 && bucketEntry.isMarkedForEvict()) {
+      IdLock.Entry lockEntry = null;
+      try {
+        lockEntry = offsetLock.getLockEntry(bucketEntry.offset());
+        if (!bucketEntry.isInUse()) {
+          freeBucketEntry(cacheKey, bucketEntry);
+        }
+      } catch (IOException ie) {
+        LOG.warn("Failed freeing evicted block " + cacheKey);
+      } finally {
+        if (lockEntry != null) {
+          offsetLock.releaseLockEntry(lockEntry);
+        }
+      }
+    }
+  }
   
   /*
    * Statistics thread.  Periodically prints the cache statistics to the log.
@@ -537,6 +611,10 @@ public class BucketCache implements BlockCache, HeapSize {
       // Scan entire map putting bucket entry into appropriate bucket entry
       // group
       for (Map.Entry<BlockCacheKey, BucketEntry> bucketEntryWithKey : backingMap.entrySet()) {
+        if (bucketEntryWithKey.getValue().isMarkedForEvict()) {
+          // Already evicted, waiting for its readers to free it
+          continue;
+        }
         switch (bucketEntryWithKey.getValue().getPriority()) {
           case SINGLE: {
             bucketSingle.add(bucketEntryWithKey);
@@ -973,6 +1051,13 @@ public class BucketCache implements BlockCache, HeapSize {
     byte deserialiserIndex;
     private volatile long accessTime;
     private BlockPriority priority;
+    /** Number of shared blocks read from this entry and not yet returned */
+    private transient volatile int refCount;
+    /** Set once evicted; the bucket is freed when no longer referenced */
+    private transient volatile boolean markedForEvict;
+
+    private static final AtomicIntegerFieldUpdater<BucketEntry> REF_COUNT_UPDATER =
+        AtomicIntegerFieldUpdater.newUpdater(BucketEntry.class, "refCount");
 
     BucketEntry(long offset, int length, long accessTime, boolean inMemory) {
       setOffset(offset);
@@ -1029,6 +1114,29 @@ public class BucketCache implements BlockCache, HeapSize {
       return this.priority;
     }
 
+    void retain() {
+      REF_COUNT_UPDATER.incrementAndGet(this);
+    }
+
+    /**
+     * @return the number of references left
+     */
+    int release() {
+      return REF_COUNT_UPDATER.decrementAndGet(this);
+    }
+
+    boolean isInUse() {
+      return refCount > 0;
+    }
+
+    void markForEvict() {
+      this.markedForEvict = true;
+    }
+
+    boolean isMarkedForEvict() {
+      return markedForEvict;
+    }
+
     @Override
     public int compareTo(BucketEntry that) {
       if(this.accessTime == that.accessTime) return 0;
@@ -68,6 +68,19 @@ public class ByteBufferIOEngine implements IOEngine {
         dstBuffer.arrayOffset());
   }
 
+  /**
+   * Returns a view of the buffer array, unless the bytes span two of its
+   * buffers
+   * @param offset The offset in the ByteBufferArray of the first byte to be
+   *          read
+   * @param length The number of bytes to be read
+   * @return a view of the bytes, or null
+   */
+  @Override
+  public ByteBuffer readShared(long offset, int length) {
+    return bufferArray.asSubByteBuffer(offset, length);
+  }
+
   /**
    * Transfers data from the given byte buffer to the buffer array
    * @param srcBuffer the given byte buffer from which bytes are to be read
@@ -77,7 +90,13 @@ public class ByteBufferIOEngine implements IOEngine {
    */
   @Override
   public void write(ByteBuffer srcBuffer, long offset) throws IOException {
-    assert srcBuffer.hasArray();
+    if (!srcBuffer.hasArray()) {
+      // A block served in place from a cache, cached again
+      byte[] src = new byte[srcBuffer.remaining()];
+      srcBuffer.duplicate().get(src);
+      bufferArray.putMultiple(offset, src.length, src);
+      return;
+    }
     bufferArray.putMultiple(offset, srcBuffer.remaining(), srcBuffer.array(),
         srcBuffer.arrayOffset());
   }
@@ -76,6 +76,15 @@ public class FileIOEngine implements IOEngine {
     fileChannel.read(dstBuffer, offset);
   }
 
+  /**
+   * File IO engine cannot serve bytes in place, they are on disk
+   * @return null
+   */
+  @Override
+  public ByteBuffer readShared(long offset, int length) {
+    return null;
+  }
+
   /**
    * Transfers data from the given byte buffer to file
    * @param srcBuffer the given byte buffer from which bytes are to be read
@@ -43,6 +43,19 @@ public interface IOEngine {
    */
   void read(ByteBuffer dstBuffer, long offset) throws IOException;
 
+  /**
+   * Returns the given bytes of the IOEngine in place, without copying them,
+   * for engines whose storage is memory. The bytes stay valid as long as the
+   * caller keeps them from being freed and overwritten.
+   * @param offset The offset in the IO engine where the first byte to be read
+   * @param length The number of bytes to be read
+   * @return a buffer with position 0 and limit length sharing the storage of
+   *         the IOEngine, or null if the engine cannot serve the bytes in
+   *         place
+   * @throws IOException
+   */
+  ByteBuffer readShared(long offset, int length) throws IOException;
+
   /**
    * Transfers data from the given byte buffer to IOEngine
    * @param srcBuffer the given byte buffer from which bytes are to be read
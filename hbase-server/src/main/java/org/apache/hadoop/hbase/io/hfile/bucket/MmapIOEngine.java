@@ -0,0 +1,226 @@
+/**
+ * Copyright The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * IO engine that stores data in a file on the local file system, mapped into
+ * memory. The file is mapped as a number of regions of at most
+ * {@link #DEFAULT_REGION_SIZE} bytes, as a single mapping cannot exceed 2GB.
+ * Reads and writes are memory copies from and to the mapped regions, with no
+ * system call; the operating system pages the file in and out of its page
+ * cache. As the file and the page cache outlive the process, a restarted
+ * server that retrieves the cache from its persistence path finds the blocks
+ * still in memory.
+ * <p>
+ * The mappings are only released once they are garbage collected, after
+ * {@link #shutdown()}.
+ */
+@InterfaceAudience.Private
+public class MmapIOEngine implements IOEngine {
+  static final Log LOG = LogFactory.getLog(MmapIOEngine.class);
+
+  /** Size of each mapped region, 1GB */
+  static final int DEFAULT_REGION_SIZE = 1 << 30;
+
+  private final String filePath;
+  private final RandomAccessFile raf;
+  private final FileChannel fileChannel;
+  private final MappedByteBuffer[] regions;
+  private final int regionShift;
+  private final int regionMask;
+  private final long capacity;
+
+  public MmapIOEngine(String filePath, long fileSize) throws IOException {
+    this(filePath, fileSize, DEFAULT_REGION_SIZE);
+  }
+
+  /**
+   * @param filePath path of the file to map, created if missing
+   * @param fileSize size of the file; an existing file keeps its contents up
+   *          to this size
+   * @param regionSize size of each mapped region, a power of 2
+   * @throws IOException
+   */
+  MmapIOEngine(String filePath, long fileSize, int regionSize)
+      throws IOException {
+    if (regionSize <= 0 || Integer.bitCount(regionSize) != 1) {
+      throw new IllegalArgumentException("Region size must be a power of 2: "
+          + regionSize);
+    }
+    this.filePath = filePath;
+    this.capacity = fileSize;
+    this.regionShift = Integer.numberOfTrailingZeros(regionSize);
+    this.regionMask = regionSize - 1;
+    RandomAccessFile file = null;
+    try {
+      file = new RandomAccessFile(filePath, "rw");
+      file.setLength(fileSize);
+    } catch (java.io.FileNotFoundException fex) {
+      LOG.error("Can't create bucket cache file " + filePath, fex);
+      throw fex;
+    } catch (IOException ioex) {
+      LOG.error("Can't extend bucket cache file; insufficient space for "
+          + StringUtils.byteDesc(fileSize), ioex);
+      file.close();
+      throw ioex;
+    }
+    this.raf = file;
+    this.fileChannel = file.getChannel();
+    int regionCount = (int) ((fileSize + regionSize - 1) >>> regionShift);
+    this.regions = new MappedByteBuffer[regionCount];
+    try {
+      for (int i = 0; i < regionCount; i++) {
+        long position = (long) i << regionShift;
+        long size = Math.min(regionSize, fileSize - position);
+        regions[i] = fileChannel.map(FileChannel.MapMode.READ_WRITE, position,
+            size);
+      }
+    } catch (IOException ioex) {
+      LOG.error("Can't map bucket cache file " + filePath, ioex);
+      fileChannel.close();
+      throw ioex;
+    }
+    LOG.info("Mapped " + StringUtils.byteDesc(fileSize) + " in " + regionCount
+        + " region(s) of " + StringUtils.byteDesc(regionSize)
+        + ", on the path:" + filePath);
+  }
+
+  /**
+   * Mapped file IO engine is always able to support persistent storage for
+   * the cache
+   * @return true
+   */
+  @Override
+  public boolean isPersistent() {
+    return true;
+  }
+
+  /**
+   * Transfers data from the mapped file to the given byte buffer
+   * @param dstBuffer the given byte buffer into which bytes are to be written
+   * @param offset The offset in the file where the first byte to be read
+   * @throws IOException
+   */
+  @Override
+  public void read(ByteBuffer dstBuffer, long offset) throws IOException {
+    checkRange(offset, dstBuffer.remaining());
+    while (dstBuffer.hasRemaining()) {
+      // Duplicates so concurrent users do not share a position and limit
+      ByteBuffer region = regionAt(offset, dstBuffer.remaining());
+      int len = region.remaining();
+      dstBuffer.put(region);
+      offset += len;
+    }
+  }
+
+  /**
+   * Returns a view of the mapped file, unless the bytes span two regions
+   * @param offset The offset in the file where the first byte to be read
+   * @param length The number of bytes to be read
+   * @return a view of the bytes, or null
+   * @throws IOException
+   */
+  @Override
+  public ByteBuffer readShared(long offset, int length) throws IOException {
+    checkRange(offset, length);
+    ByteBuffer region = regionAt(offset, length);
+    if (region.remaining() < length) {
+      return null;
+    }
+    return region.slice();
+  }
+
+  /**
+   * Transfers data from the given byte buffer to the mapped file
+   * @param srcBuffer the given byte buffer from which bytes are to be read
+   * @param offset The offset in the file where the first byte to be written
+   * @throws IOException
+   */
+  @Override
+  public void write(ByteBuffer srcBuffer, long offset) throws IOException {
+    checkRange(offset, srcBuffer.remaining());
+    while (srcBuffer.hasRemaining()) {
+      ByteBuffer region = regionAt(offset, srcBuffer.remaining());
+      int len = region.remaining();
+      ByteBuffer src = srcBuffer.duplicate();
+      src.limit(src.position() + len);
+      region.put(src);
+      srcBuffer.position(srcBuffer.position() + len);
+      offset += len;
+    }
+  }
+
+  /**
+   * @return a view of the region holding offset, from offset to the end of
+   *         the region or up to len bytes, whichever is less
+   */
+  private ByteBuffer regionAt(long offset, int len) {
+    ByteBuffer region = regions[(int) (offset >>> regionShift)].duplicate();
+    int position = (int) (offset & regionMask);
+    region.position(position);
+    region.limit((int) Math.min(region.capacity(), (long) position + len));
+    return region;
+  }
+
+  private void checkRange(long offset, int len) throws IOException {
+    if (offset < 0 || offset + len > capacity) {
+      throw new IOException("Access out of range of " + filePath + ", offset="
+          + offset + ", len=" + len + ", capacity=" + capacity);
+    }
+  }
+
+  /**
+   * Writes the dirty pages of the mapped file out to the file
+   * @throws IOException
+   */
+  @Override
+  public void sync() throws IOException {
+    for (MappedByteBuffer region : regions) {
+      region.force();
+    }
+  }
+
+  /**
+   * Syncs and closes the file
+   */
+  @Override
+  public void shutdown() {
+    try {
+      sync();
+    } catch (IOException ex) {
+      LOG.error("Can't sync on shutdown", ex);
+    }
+    try {
+      raf.close();
+    } catch (IOException ex) {
+      LOG.error("Can't shutdown cleanly", ex);
+    }
+  }
+}
@@ -179,6 +179,11 @@ public class SingleSizeCache implements BlockCache, HeapSize {
     }
   }
 
+  @Override
+  public void returnBlock(BlockCacheKey cacheKey, Cacheable block) {
+    // Blocks are copied out of the slabs
+  }
+
   /**
    * Evicts the block
    *
@@ -251,6 +251,11 @@ public class SlabCache implements SlabItemActionWatcher, BlockCache, HeapSize {
     return contentBlock;
   }
 
+  @Override
+  public void returnBlock(BlockCacheKey cacheKey, Cacheable block) {
+    // Blocks are copied out of the slabs
+  }
+
   /**
    * Evicts a block from the cache. This is public, and thus contributes to the
    * the evict counter.
@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * A response made of several ByteBuffers, sent with gathering writes so the parts never have to
+ * be copied into one buffer. Not thread safe.
+ */
+@InterfaceAudience.Private
+class BufferChain {
+  private final ByteBuffer[] buffers;
+  private int remaining = 0;
+  private int bufferOffset = 0;
+
+  BufferChain(ByteBuffer ... buffers) {
+    for (ByteBuffer b : buffers) {
+      this.remaining += b.remaining();
+    }
+    this.buffers = buffers;
+  }
+
+  boolean hasRemaining() {
+    return remaining > 0;
+  }
+
+  int remaining() {
+    return remaining;
+  }
+
+  /**
+   * Write as much of the chain as the channel takes. Heap buffers go out at most
+   * <code>chunkSize</code> bytes per write, since the JDK copies them into a temporary direct
+   * buffer of that size; direct buffers are written whole.
+   * @param channel channel to write to
+   * @param chunkSize most heap bytes to pass in one write
+   * @return number of bytes written
+   * @throws IOException
+   */
+  long write(GatheringByteChannel channel, int chunkSize) throws IOException {
+    long written = 0;
+    while (hasRemaining()) {
+      // Cut the chain short where heap bytes would exceed the chunk size.
+      int heapBudget = chunkSize;
+      int end = bufferOffset;
+      int truncated = -1;
+      int truncatedLimit = 0;
+      long attempt = 0;
+      while (end < buffers.length) {
+        ByteBuffer b = buffers[end++];
+        if (!b.isDirect()) {
+          if (b.remaining() > heapBudget) {
+            truncated = end - 1;
+            truncatedLimit = b.limit();
+            b.limit(b.position() + heapBudget);
+            attempt += heapBudget;
+            break;
+          }
+          heapBudget -= b.remaining();
+        }
+        attempt += b.remaining();
+      }
+      long n;
+      try {
+        n = channel.write(buffers, bufferOffset, end - bufferOffset);
+      } finally {
+        if (truncated >= 0) buffers[truncated].limit(truncatedLimit);
+      }
+      if (n > 0) {
+        written += n;
+        remaining -= n;
+        while (bufferOffset < buffers.length && !buffers[bufferOffset].hasRemaining()) {
+          bufferOffset++;
+        }
+      }
+      if (n < attempt) break;
+    }
+    return written;
+  }
+}
@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * Controlled delay (CoDel) for a call queue. A queue that briefly backs up is fine; one whose
+ * calls never wait less than the target delay has a standing backlog that only grows the
+ * latency of every call. The controller watches the smallest wait seen over each interval. If
+ * even that exceeds the target, the queue is overloaded for the next interval, and calls that
+ * have waited more than twice the target are shed so the handlers catch up on fresher ones.
+ *
+ * <p>Shared by the handlers of a queue without locking. The minimum is updated racily, which
+ * at worst costs one interval of reaction time.
+ */
+@InterfaceAudience.Private
+class CoDelController {
+  private final long targetDelay;
+  private final long interval;
+
+  private volatile long intervalEnd;
+  private volatile long minDelay = 0;
+  private volatile boolean overloaded = false;
+  private final AtomicBoolean rolling = new AtomicBoolean(false);
+
+  /**
+   * @param targetDelay how long calls may keep waiting, in milliseconds
+   * @param interval how long the wait must stay above the target, in milliseconds
+   */
+  CoDelController(long targetDelay, long interval) {
+    this.targetDelay = targetDelay;
+    this.interval = interval;
+  }
+
+  /**
+   * Called as a call comes off the queue.
+   * @param delay how long the call waited
+   * @param now current time
+   * @return true if the call should be dropped
+   */
+  boolean shouldDrop(long delay, long now) {
+    if (now >= intervalEnd && rolling.compareAndSet(false, true)) {
+      // A queue nobody took from for a whole interval was idle, not overloaded
+      overloaded = minDelay > targetDelay && now < intervalEnd + interval;
+      minDelay = delay;
+      intervalEnd = now + interval;
+      rolling.set(false);
+    } else if (delay < minDelay) {
+      minDelay = delay;
+    }
+    return overloaded && delay > 2 * targetDelay;
+  }
+
+  boolean isOverloaded() {
+    return overloaded;
+  }
+}
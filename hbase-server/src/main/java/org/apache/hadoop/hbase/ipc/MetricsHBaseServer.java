@@ -59,6 +59,14 @@ public class MetricsHBaseServer {
     source.dequeuedCall(qTime);
   }
 
+  void dequeuedGeneralCall(int queue, int qTime) {
+    source.dequeuedGeneralCall(queue, qTime);
+  }
+
+  void droppedCall() {
+    source.droppedCall();
+  }
+
   void processedCall(int processingTime) {
     source.processedCall(processingTime);
   }
@@ -44,6 +44,24 @@ public class MetricsHBaseServerWrapperImpl implements MetricsHBaseServerWrapper
     return server.getScheduler().getGeneralQueueLength();
   }
 
+  @Override
+  public int getNumGeneralQueues() {
+    if (this.server == null
+        || this.server.getScheduler() == null) {
+      return 0;
+    }
+    return server.getScheduler().getNumGeneralQueues();
+  }
+
+  @Override
+  public int getGeneralQueueLength(int queue) {
+    if (this.server == null
+        || this.server.getScheduler() == null) {
+      return 0;
+    }
+    return server.getScheduler().getGeneralQueueLength(queue);
+  }
+
   @Override
   public int getReplicationQueueLength() {
     if (this.server == null
@@ -69,4 +87,46 @@ public class MetricsHBaseServerWrapperImpl implements MetricsHBaseServerWrapper
     }
     return server.connectionList.size();
   }
+
+  @Override
+  public int getReservoirBufferCount() {
+    if (this.server == null || this.server.reservoir == null) {
+      return 0;
+    }
+    return server.reservoir.getBufferCount();
+  }
+
+  @Override
+  public long getReservoirSize() {
+    if (this.server == null || this.server.reservoir == null) {
+      return 0;
+    }
+    return server.reservoir.getTotalSize();
+  }
+
+  @Override
+  public long getReservoirHitCount() {
+    if (this.server == null || this.server.reservoir == null) {
+      return 0;
+    }
+    return server.reservoir.getHitCount();
+  }
+
+  @Override
+  public long getReservoirAllocationCount() {
+    if (this.server == null || this.server.reservoir == null) {
+      return 0;
+    }
+    return server.reservoir.getAllocationCount();
+  }
+
+  @Override
+  public int getReservoirHitPercent() {
+    if (this.server == null || this.server.reservoir == null) {
+      return 0;
+    }
+    long hits = server.reservoir.getHitCount();
+    long total = hits + server.reservoir.getAllocationCount();
+    return total == 0 ? 0 : (int) (hits * 100 / total);
+  }
 }
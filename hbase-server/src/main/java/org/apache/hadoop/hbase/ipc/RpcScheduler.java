@@ -33,6 +33,8 @@ interface RpcScheduler {
   /** Exposes runtime information of a {@code RpcServer} that a {@code RpcScheduler} may need. */
   interface Context {
     InetSocketAddress getListenerAddress();
+
+    MetricsHBaseServer getMetrics();
   }
 
   /**
@@ -62,6 +64,12 @@ interface RpcScheduler {
   /** Retrieves length of the general queue for metrics. */
   int getGeneralQueueLength();
 
+  /** Retrieves the number of queues the general requests are spread over. */
+  int getNumGeneralQueues();
+
+  /** Retrieves length of one of the general queues for metrics. */
+  int getGeneralQueueLength(int queue);
+
   /** Retrieves length of the priority queue for metrics. */
   int getPriorityQueueLength();
 
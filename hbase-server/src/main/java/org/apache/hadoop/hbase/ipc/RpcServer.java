@@ -36,6 +36,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.Channels;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
@@ -72,6 +73,7 @@ import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.Operation;
 import org.apache.hadoop.hbase.codec.Codec;
 import org.apache.hadoop.hbase.exceptions.RegionMovedException;
+import org.apache.hadoop.hbase.io.BoundedByteBufferPool;
 import org.apache.hadoop.hbase.io.ByteBufferOutputStream;
 import org.apache.hadoop.hbase.monitoring.MonitoredRPCHandler;
 import org.apache.hadoop.hbase.monitoring.TaskMonitor;
@@ -159,6 +161,9 @@ public class RpcServer implements RpcServerInterface {
 
   private static final int DEFAULT_WARN_DELAYED_CALLS = 1000;
 
+  /** Sent back for calls dropped unrun; the class name and reason are all the client sees. */
+  private static final CallDroppedException CALL_DROPPED_EXCEPTION = new CallDroppedException();
+
   private final int warnDelayedCalls;
 
   private AtomicInteger delayedCalls;
@@ -229,6 +234,20 @@ public class RpcServer implements RpcServerInterface {
 
   private static final ObjectMapper MAPPER = new ObjectMapper();
 
+  /** Whether response cell blocks are encoded into pooled direct buffers */
+  static final String RESERVOIR_ENABLED_KEY = "hbase.ipc.server.reservoir.enabled";
+  static final boolean DEFAULT_RESERVOIR_ENABLED = true;
+  /** Largest buffer the reservoir takes back; bigger cell blocks are left to the GC */
+  static final String RESERVOIR_MAX_BUFFER_SIZE_KEY =
+    "hbase.ipc.server.reservoir.max.buffer.size";
+  static final int DEFAULT_RESERVOIR_MAX_BUFFER_SIZE = 1024 * 1024;
+  /** Size of the buffers allocated when the reservoir is empty; they grow as needed */
+  static final String RESERVOIR_INITIAL_BUFFER_SIZE_KEY =
+    "hbase.ipc.server.reservoir.initial.buffer.size";
+  static final int DEFAULT_RESERVOIR_INITIAL_BUFFER_SIZE = 16 * 1024;
+  /** Most buffers the reservoir holds; defaults to twice the handler count */
+  static final String RESERVOIR_MAX_BUFFERS_KEY = "hbase.ipc.server.reservoir.max.buffers";
+
   private final int warnResponseTime;
   private final int warnResponseSize;
   private final Object serverInstance;
@@ -236,6 +255,9 @@ public class RpcServer implements RpcServerInterface {
 
   private final RpcScheduler scheduler;
 
+  /** Pool of direct buffers that response cell blocks are encoded into; null if disabled. */
+  final BoundedByteBufferPool reservoir;
+
   /**
    * Datastructure that holds all necessary to a method invocation and then afterward, carries
    * the result.
@@ -251,7 +273,10 @@ public class RpcServer implements RpcServerInterface {
     protected Connection connection;              // connection to client
     protected long timestamp;      // the time received when response is null
                                    // the time served when response is not null
-    protected ByteBuffer response;                // the response for this call
+    protected long deadline;       // when the client gives up on the call, 0 if never
+    protected BufferChain response;               // the response for this call
+    // The cell block within the response if it came from the reservoir; goes back once sent.
+    protected ByteBuffer cellBlock;
     protected boolean delayResponse;
     protected Responder responder;
     protected boolean delayReturnValue;           // if the return value should be
@@ -271,6 +296,8 @@ public class RpcServer implements RpcServerInterface {
       this.cellScanner = cellScanner;
       this.connection = connection;
       this.timestamp = System.currentTimeMillis();
+      this.deadline = header != null && header.getTimeout() > 0
+          ? this.timestamp + header.getTimeout() : 0;
       this.response = null;
       this.delayResponse = false;
       this.responder = responder;
@@ -316,14 +343,28 @@ public class RpcServer implements RpcServerInterface {
     }
 
     protected synchronized void setSaslTokenResponse(ByteBuffer response) {
-      this.response = response;
+      this.response = new BufferChain(response);
+    }
+
+    /**
+     * Called once the response has been written out, or will never be. Gives the cell block back
+     * to the reservoir. Not synchronized: callers hold the connection's response queue, or have
+     * taken the call off it.
+     */
+    protected void done() {
+      if (this.cellBlock != null) {
+        if (reservoir != null) reservoir.putBuffer(this.cellBlock);
+        this.cellBlock = null;
+      }
     }
 
     protected synchronized void setResponse(Object m, final CellScanner cells,
         Throwable t, String errorMsg) {
       if (this.isError) return;
       if (t != null) this.isError = true;
-      ByteBufferOutputStream bbos = null;
+      // Replacing a response that was never sent.
+      done();
+      BufferChain bc = null;
       try {
         ResponseHeader.Builder headerBuilder = ResponseHeader.newBuilder();
         // Presume it a pb Message.  Could be null.
@@ -346,8 +387,8 @@ public class RpcServer implements RpcServerInterface {
           // Set the exception as the result of the method invocation.
           headerBuilder.setException(exceptionBuilder.build());
         }
-        ByteBuffer cellBlock =
-          ipcUtil.buildCellBlock(this.connection.codec, this.connection.compressionCodec, cells);
+        ByteBuffer cellBlock = ipcUtil.buildCellBlock(this.connection.codec,
+          this.connection.compressionCodec, cells, reservoir);
         if (cellBlock != null) {
           CellBlockMeta.Builder cellBlockBuilder = CellBlockMeta.newBuilder();
           // Presumes the cellBlock bytebuffer has been flipped so limit has total size in it.
@@ -355,20 +396,35 @@ public class RpcServer implements RpcServerInterface {
           headerBuilder.setCellBlockMeta(cellBlockBuilder.build());
         }
         Message header = headerBuilder.build();
-        bbos = IPCUtil.write(header, result, cellBlock);
         if (connection.useWrap) {
+          // SASL wraps the response whole, so the cell block gets copied in and is free after.
+          ByteBufferOutputStream bbos = null;
+          try {
+            bbos = IPCUtil.write(header, result, cellBlock);
+          } finally {
+            if (cellBlock != null && reservoir != null) reservoir.putBuffer(cellBlock);
+          }
           wrapWithSasl(bbos);
+          // TODO: If SASL, maybe buffer already been flipped and written?
+          ByteBuffer bb = bbos.getByteBuffer();
+          bb.position(0);
+          bc = new BufferChain(bb);
+        } else {
+          // Header and param go in a small heap buffer; the cell block is sent from where it
+          // was encoded by the same gathering write.
+          ByteBuffer headerAndParam = IPCUtil.writeHeaderAndParam(header, result,
+            cellBlock == null ? 0 : cellBlock.remaining());
+          if (cellBlock == null) {
+            bc = new BufferChain(headerAndParam);
+          } else {
+            bc = new BufferChain(headerAndParam, cellBlock);
+            if (reservoir != null) this.cellBlock = cellBlock;
+          }
         }
       } catch (IOException e) {
         LOG.warn("Exception while creating response " + e);
       }
-      ByteBuffer bb = null;
-      if (bbos != null) {
-        // TODO: If SASL, maybe buffer already been flipped and written?
-        bb = bbos.getByteBuffer();
-        bb.position(0);
-      }
-      this.response = bb;
+      this.response = bc;
     }
 
     private void wrapWithSasl(ByteBufferOutputStream response)
@@ -972,11 +1028,13 @@ public class RpcServer implements RpcServerInterface {
           //
           // Send as much data as we can in the non-blocking fashion
           //
-          int numBytes = channelWrite(channel, call.response);
+          long numBytes = channelWrite(channel, call.response);
           if (numBytes < 0) {
+            call.done();
             return true;
           }
           if (!call.response.hasRemaining()) {
+            call.done();
             call.connection.decRpcCount();
             //noinspection RedundantIfStatement
             if (numElements == 1) {    // last call fully processes.
@@ -1011,6 +1069,7 @@ public class RpcServer implements RpcServerInterface {
         if (error && call != null) {
           LOG.warn(getName() + call.toShortString() + ": output error");
           done = true;               // error. no more data for this channel.
+          call.done();
           closeConnection(call.connection);
         }
       }
@@ -1714,6 +1773,20 @@ public class RpcServer implements RpcServerInterface {
       return true;
     }
 
+    /**
+     * Drops the responses still queued for a closed connection, giving their cell blocks back to
+     * the reservoir. Must not be called holding the connection's lock; the Responder takes the
+     * queue's lock first.
+     */
+    private void discardResponses() {
+      synchronized (responseQueue) {
+        for (Call call : responseQueue) {
+          call.done();
+        }
+        responseQueue.clear();
+      }
+    }
+
     protected synchronized void close() {
       disposeSasl();
       data = null;
@@ -1844,6 +1917,22 @@ public class RpcServer implements RpcServerInterface {
       }
     }
 
+    /**
+     * Answers the call with a {@link CallDroppedException} instead of running it.
+     * @param reason why the call was dropped, passed on to the client
+     */
+    public void drop(String reason) {
+      callQueueSize.add(call.getSize() * -1);
+      metrics.droppedCall();
+      call.setResponse(null, null, CALL_DROPPED_EXCEPTION, reason);
+      try {
+        call.sendResponseIfReady();
+      } catch (IOException e) {
+        LOG.warn(Thread.currentThread().getName() + ": failed to send dropped call response: " +
+            e.getMessage());
+      }
+    }
+
     public MonitoredRPCHandler getStatus() {
       MonitoredRPCHandler status = MONITORED_RPC.get();
       if (status != null) {
@@ -1884,6 +1973,11 @@ public class RpcServer implements RpcServerInterface {
     public InetSocketAddress getListenerAddress() {
       return RpcServer.this.getListenerAddress();
     }
+
+    @Override
+    public MetricsHBaseServer getMetrics() {
+      return RpcServer.this.metrics;
+    }
   }
 
   /**
@@ -1928,6 +2022,17 @@ public class RpcServer implements RpcServerInterface {
     this.warnDelayedCalls = conf.getInt(WARN_DELAYED_CALLS, DEFAULT_WARN_DELAYED_CALLS);
     this.delayedCalls = new AtomicInteger(0);
     this.ipcUtil = new IPCUtil(conf);
+    if (conf.getBoolean(RESERVOIR_ENABLED_KEY, DEFAULT_RESERVOIR_ENABLED)) {
+      this.reservoir = new BoundedByteBufferPool(
+        conf.getInt(RESERVOIR_MAX_BUFFER_SIZE_KEY, DEFAULT_RESERVOIR_MAX_BUFFER_SIZE),
+        conf.getInt(RESERVOIR_INITIAL_BUFFER_SIZE_KEY, DEFAULT_RESERVOIR_INITIAL_BUFFER_SIZE),
+        conf.getInt(RESERVOIR_MAX_BUFFERS_KEY,
+          conf.getInt(HConstants.REGION_SERVER_HANDLER_COUNT,
+            HConstants.DEFAULT_REGION_SERVER_HANDLER_COUNT) * 2),
+        true);
+    } else {
+      this.reservoir = null;
+    }
 
 
     // Create the responder here
@@ -1971,6 +2076,7 @@ public class RpcServer implements RpcServerInterface {
       }
     }
     connection.close();
+    connection.discardResponses();
   }
 
   Configuration getConf() {
@@ -2254,6 +2360,23 @@ public class RpcServer implements RpcServerInterface {
     return count;
   }
 
+  /**
+   * Write as much of <code>bufferChain</code> as the channel takes with gathering writes, passing
+   * heap buffers in chunks of at most {@link #NIO_BUFFER_LIMIT} bytes.
+   * @param channel channel to write to
+   * @param bufferChain buffers to write
+   * @return number of bytes written
+   * @throws java.io.IOException e
+   */
+  protected long channelWrite(GatheringByteChannel channel, BufferChain bufferChain)
+  throws IOException {
+    long count = bufferChain.write(channel, NIO_BUFFER_LIMIT);
+    if (count > 0) {
+      metrics.sentBytes((int) count);
+    }
+    return count;
+  }
+
   /**
    * This is a wrapper around {@link java.nio.channels.ReadableByteChannel#read(java.nio.ByteBuffer)}.
    * If the amount of data is large, it writes to channel in smaller chunks.
@@ -21,36 +21,106 @@ import com.google.common.base.Function;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.protobuf.Message;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.BulkLoadHFileRequest;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.CoprocessorServiceRequest;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.GetRequest;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.MultiGetRequest;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.MultiRequest;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.MutateRequest;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.ScanRequest;
+import org.apache.hadoop.hbase.protobuf.generated.HBaseProtos.RegionSpecifier;
 import org.apache.hadoop.hbase.protobuf.generated.RPCProtos;
 import org.apache.hadoop.hbase.util.Pair;
 
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A scheduler that maintains isolated handler pools for general, high-priority and replication
  * requests.
+ *
+ * <p>General requests may be sharded over several queues, set with {@link #CALL_QUEUE_COUNT_KEY},
+ * each served by its own group of handlers so that the handlers do not all contend on one queue.
+ * A call goes to a random queue, or with {@link #CALL_QUEUE_DISPATCH_KEY} set to
+ * <code>region</code> to the queue its region hashes to, so the calls on a region are run by one
+ * handler group rather than interleaved over all of them. With {@link #CALL_QUEUE_STEAL_KEY} set,
+ * a handler whose own queue is empty takes calls from the other general queues; it is off by
+ * default as idle handlers then poll the queues rather than block.
+ *
+ * <p>Handlers answer a call with a {@link CallDroppedException} rather than run it if its client
+ * has already timed out, see {@link #DROP_EXPIRED_CALLS_KEY}, or if {@link #CODEL_ENABLED_KEY} is
+ * set and its general queue is overloaded, see {@link CoDelController}.
  */
 @InterfaceAudience.Private
 @InterfaceStability.Evolving
 public class SimpleRpcScheduler implements RpcScheduler {
+  private static final Log LOG = LogFactory.getLog(SimpleRpcScheduler.class);
+
+  /** Number of queues the general requests are sharded over */
+  public static final String CALL_QUEUE_COUNT_KEY = "ipc.server.callqueue.count";
+  public static final int DEFAULT_CALL_QUEUE_COUNT = 1;
+
+  /** How a general request picks its queue: <code>random</code> or <code>region</code> */
+  public static final String CALL_QUEUE_DISPATCH_KEY = "ipc.server.callqueue.dispatch";
+  public static final String DEFAULT_CALL_QUEUE_DISPATCH = "random";
+
+  /** Whether idle handlers take calls from the other general queues */
+  public static final String CALL_QUEUE_STEAL_KEY = "ipc.server.callqueue.steal";
+  public static final boolean DEFAULT_CALL_QUEUE_STEAL = false;
+
+  /** Whether to drop calls the client has given up on before they are run */
+  public static final String DROP_EXPIRED_CALLS_KEY = "ipc.server.callqueue.drop.expired";
+  public static final boolean DEFAULT_DROP_EXPIRED_CALLS = true;
+
+  /** Whether to shed calls from general queues that stay backed up */
+  public static final String CODEL_ENABLED_KEY = "ipc.server.callqueue.codel.enabled";
+  public static final boolean DEFAULT_CODEL_ENABLED = false;
+
+  /** Wait, in milliseconds, that calls in a general queue should not stay above */
+  public static final String CODEL_TARGET_DELAY_KEY = "ipc.server.callqueue.codel.target.delay";
+  public static final long DEFAULT_CODEL_TARGET_DELAY = 100;
+
+  /** Interval, in milliseconds, over which the wait must stay above the target */
+  public static final String CODEL_INTERVAL_KEY = "ipc.server.callqueue.codel.interval";
+  public static final long DEFAULT_CODEL_INTERVAL = 100;
+
+  /** How long an idle handler waits on its own queue before it looks at the others again. */
+  private static final long STEAL_INTERVAL_MS = 10;
 
   private int port;
   private final int handlerCount;
   private final int priorityHandlerCount;
   private final int replicationHandlerCount;
-  final BlockingQueue<RpcServer.CallRunner> callQueue;
+  final BlockingQueue<RpcServer.CallRunner>[] callQueues;
   final BlockingQueue<RpcServer.CallRunner> priorityCallQueue;
   final BlockingQueue<RpcServer.CallRunner> replicationQueue;
+  private final boolean dispatchByRegion;
+  private final boolean steal;
+  private final boolean dropExpired;
+  /** One per general queue, or null if controlled delay is off */
+  private final CoDelController[] codels;
+  private MetricsHBaseServer metrics;
   private volatile boolean running = false;
   private final List<Thread> handlers = Lists.newArrayList();
   private final Function<Pair<RPCProtos.RequestHeader, Message>, Integer> qosFunction;
 
+  /** Picks the queue of calls that have no region; the readers dispatch concurrently. */
+  private final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+    @Override
+    protected Random initialValue() {
+      return new Random();
+    }
+  };
+
   /** What level a high priority call is at. */
   private final int highPriorityLevel;
 
@@ -62,6 +132,7 @@ public class SimpleRpcScheduler implements RpcScheduler {
    * @param qosFunction a function that maps requests to priorities
    * @param highPriorityLevel
    */
+  @SuppressWarnings("unchecked")
   public SimpleRpcScheduler(
       Configuration conf,
       int handlerCount,
@@ -76,7 +147,36 @@ public class SimpleRpcScheduler implements RpcScheduler {
     this.replicationHandlerCount = replicationHandlerCount;
     this.qosFunction = qosFunction;
     this.highPriorityLevel = highPriorityLevel;
-    this.callQueue = new LinkedBlockingQueue<RpcServer.CallRunner>(maxQueueLength);
+    // Every queue needs at least one handler of its own
+    int numQueues = Math.max(1, Math.min(handlerCount,
+        conf.getInt(CALL_QUEUE_COUNT_KEY, DEFAULT_CALL_QUEUE_COUNT)));
+    this.callQueues = new BlockingQueue[numQueues];
+    for (int i = 0; i < numQueues; i++) {
+      this.callQueues[i] =
+          new LinkedBlockingQueue<RpcServer.CallRunner>(Math.max(1, maxQueueLength / numQueues));
+    }
+    String dispatch = conf.get(CALL_QUEUE_DISPATCH_KEY, DEFAULT_CALL_QUEUE_DISPATCH);
+    this.dispatchByRegion = dispatch.equalsIgnoreCase("region");
+    if (!this.dispatchByRegion && !dispatch.equalsIgnoreCase("random")) {
+      LOG.warn("Unknown " + CALL_QUEUE_DISPATCH_KEY + " " + dispatch + ", using random");
+    }
+    this.steal = numQueues > 1 && conf.getBoolean(CALL_QUEUE_STEAL_KEY, DEFAULT_CALL_QUEUE_STEAL);
+    if (numQueues > 1) {
+      LOG.info("Sharding general calls over " + numQueues + " queues, dispatch by " +
+          (dispatchByRegion ? "region" : "random") + (steal ? ", with" : ", without") +
+          " work stealing");
+    }
+    this.dropExpired = conf.getBoolean(DROP_EXPIRED_CALLS_KEY, DEFAULT_DROP_EXPIRED_CALLS);
+    if (conf.getBoolean(CODEL_ENABLED_KEY, DEFAULT_CODEL_ENABLED)) {
+      long targetDelay = conf.getLong(CODEL_TARGET_DELAY_KEY, DEFAULT_CODEL_TARGET_DELAY);
+      long interval = conf.getLong(CODEL_INTERVAL_KEY, DEFAULT_CODEL_INTERVAL);
+      this.codels = new CoDelController[numQueues];
+      for (int i = 0; i < numQueues; i++) {
+        this.codels[i] = new CoDelController(targetDelay, interval);
+      }
+    } else {
+      this.codels = null;
+    }
     this.priorityCallQueue = priorityHandlerCount > 0
         ? new LinkedBlockingQueue<RpcServer.CallRunner>(maxQueueLength)
         : null;
@@ -88,38 +188,62 @@ public class SimpleRpcScheduler implements RpcScheduler {
   @Override
   public void init(Context context) {
     this.port = context.getListenerAddress().getPort();
+    this.metrics = context.getMetrics();
   }
 
   @Override
   public void start() {
     running = true;
-    startHandlers(handlerCount, callQueue, null);
+    if (callQueues.length == 1) {
+      startHandlers(handlerCount, callQueues[0], codels == null ? null : codels[0], null);
+    } else {
+      startGeneralHandlers();
+    }
     if (priorityCallQueue != null) {
-      startHandlers(priorityHandlerCount, priorityCallQueue, "Priority.");
+      startHandlers(priorityHandlerCount, priorityCallQueue, null, "Priority.");
     }
     if (replicationQueue != null) {
-      startHandlers(replicationHandlerCount, replicationQueue, "Replication.");
+      startHandlers(replicationHandlerCount, replicationQueue, null, "Replication.");
     }
   }
 
   private void startHandlers(
       int handlerCount,
       final BlockingQueue<RpcServer.CallRunner> callQueue,
+      final CoDelController codel,
       String threadNamePrefix) {
     for (int i = 0; i < handlerCount; i++) {
       Thread t = new Thread(new Runnable() {
         @Override
         public void run() {
-          consumerLoop(callQueue);
+          consumerLoop(callQueue, codel);
+        }
+      });
+      startHandler(t, Strings.nullToEmpty(threadNamePrefix), i);
+    }
+  }
+
+  /** Spreads the general handlers evenly over the general queues. */
+  private void startGeneralHandlers() {
+    for (int i = 0; i < handlerCount; i++) {
+      final int queue = i % callQueues.length;
+      Thread t = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          shardedConsumerLoop(queue);
         }
       });
-      t.setDaemon(true);
-      t.setName(Strings.nullToEmpty(threadNamePrefix) + "RpcServer.handler=" + i + ",port=" + port);
-      t.start();
-      handlers.add(t);
+      startHandler(t, "Queue" + queue + ".", i);
     }
   }
 
+  private void startHandler(Thread t, String threadNamePrefix, int i) {
+    t.setDaemon(true);
+    t.setName(threadNamePrefix + "RpcServer.handler=" + i + ",port=" + port);
+    t.start();
+    handlers.add(t);
+  }
+
   @Override
   public void stop() {
     running = false;
@@ -139,13 +263,82 @@ public class SimpleRpcScheduler implements RpcScheduler {
     } else if (replicationQueue != null && level == HConstants.REPLICATION_QOS) {
       replicationQueue.put(callTask);
     } else {
-      callQueue.put(callTask); // queue the call; maybe blocked here
+      callQueues[getGeneralQueue(call.param)].put(callTask); // queue the call; maybe blocked here
+    }
+  }
+
+  /**
+   * @return index of the general queue the call with the given parameter goes to
+   */
+  int getGeneralQueue(Message param) {
+    if (callQueues.length == 1) return 0;
+    int hash;
+    if (dispatchByRegion && param != null && hasAffinity(param)) {
+      hash = getAffinity(param);
+    } else {
+      hash = random.get().nextInt();
     }
+    return (hash & Integer.MAX_VALUE) % callQueues.length;
+  }
+
+  private static boolean hasAffinity(Message param) {
+    return param instanceof GetRequest || param instanceof MultiGetRequest
+        || param instanceof MutateRequest || param instanceof MultiRequest
+        || param instanceof BulkLoadHFileRequest || param instanceof CoprocessorServiceRequest
+        || (param instanceof ScanRequest
+            && (((ScanRequest) param).hasRegion() || ((ScanRequest) param).hasScannerId()));
+  }
+
+  /**
+   * Hashes the region a request is for. Scans carry their region on open only, so later calls
+   * of a scanner hash its id instead; they all land on one queue, if not the region's.
+   */
+  private static int getAffinity(Message param) {
+    if (param instanceof ScanRequest) {
+      ScanRequest scan = (ScanRequest) param;
+      if (scan.hasRegion()) return hashRegion(scan.getRegion());
+      long id = scan.getScannerId();
+      return (int) (id ^ (id >>> 32));
+    }
+    RegionSpecifier region;
+    if (param instanceof GetRequest) {
+      region = ((GetRequest) param).getRegion();
+    } else if (param instanceof MultiGetRequest) {
+      region = ((MultiGetRequest) param).getRegion();
+    } else if (param instanceof MutateRequest) {
+      region = ((MutateRequest) param).getRegion();
+    } else if (param instanceof MultiRequest) {
+      region = ((MultiRequest) param).getRegion();
+    } else if (param instanceof BulkLoadHFileRequest) {
+      region = ((BulkLoadHFileRequest) param).getRegion();
+    } else {
+      region = ((CoprocessorServiceRequest) param).getRegion();
+    }
+    return hashRegion(region);
+  }
+
+  private static int hashRegion(RegionSpecifier region) {
+    // ByteString caches its hash
+    return region.getValue().hashCode();
   }
 
   @Override
   public int getGeneralQueueLength() {
-    return callQueue.size();
+    int length = 0;
+    for (BlockingQueue<RpcServer.CallRunner> queue : callQueues) {
+      length += queue.size();
+    }
+    return length;
+  }
+
+  @Override
+  public int getNumGeneralQueues() {
+    return callQueues.length;
+  }
+
+  @Override
+  public int getGeneralQueueLength(int queue) {
+    return callQueues[queue].size();
   }
 
   @Override
@@ -158,21 +351,74 @@ public class SimpleRpcScheduler implements RpcScheduler {
     return replicationQueue == null ? 0 : replicationQueue.size();
   }
 
-  private void consumerLoop(BlockingQueue<RpcServer.CallRunner> myQueue) {
+  private void consumerLoop(BlockingQueue<RpcServer.CallRunner> myQueue,
+      CoDelController codel) {
     while (running) {
       try {
         RpcServer.CallRunner task = myQueue.take();
-        task.run();
+        runOrDrop(task, System.currentTimeMillis(), codel);
       } catch (InterruptedException e) {
         Thread.interrupted();
       }
     }
   }
 
+  /**
+   * Serves one of several general queues. Without stealing the handler blocks on its own queue;
+   * with it an idle handler polls its own queue and then the others in turn, waiting a little on
+   * its own between rounds, so an idle server wakes each handler every STEAL_INTERVAL_MS.
+   */
+  private void shardedConsumerLoop(int index) {
+    BlockingQueue<RpcServer.CallRunner> myQueue = callQueues[index];
+    while (running) {
+      try {
+        int from = index;
+        RpcServer.CallRunner task;
+        if (!steal) {
+          task = myQueue.take();
+        } else {
+          task = myQueue.poll();
+          for (int i = 1; task == null && i < callQueues.length; i++) {
+            from = (index + i) % callQueues.length;
+            task = callQueues[from].poll();
+          }
+          if (task == null) {
+            from = index;
+            task = myQueue.poll(STEAL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            if (task == null) continue;
+          }
+        }
+        long now = System.currentTimeMillis();
+        if (metrics != null) {
+          metrics.dequeuedGeneralCall(from, (int) (now - task.getCall().timestamp));
+        }
+        runOrDrop(task, now, codels == null ? null : codels[from]);
+      } catch (InterruptedException e) {
+        Thread.interrupted();
+      }
+    }
+  }
+
+  /**
+   * Runs a call just taken off a queue, unless its client has timed out or the queue is
+   * overloaded.
+   * @param codel controller of the queue the call came from, or null to never shed it
+   */
+  private void runOrDrop(RpcServer.CallRunner task, long now, CoDelController codel) {
+    RpcServer.Call call = task.getCall();
+    if (dropExpired && call.deadline > 0 && now > call.deadline) {
+      task.drop("Call queued for " + (now - call.timestamp) + " ms, client gave up after " +
+          (call.deadline - call.timestamp) + " ms");
+    } else if (codel != null && codel.shouldDrop(now - call.timestamp, now)) {
+      task.drop("Call queue is overloaded, call queued for " + (now - call.timestamp) + " ms");
+    } else {
+      task.run();
+    }
+  }
+
   private int getQosLevel(Pair<RPCProtos.RequestHeader, Message> headerAndParam) {
     if (qosFunction == null) return 0;
     Integer res = qosFunction.apply(headerAndParam);
     return res == null? 0: res;
   }
 }
-
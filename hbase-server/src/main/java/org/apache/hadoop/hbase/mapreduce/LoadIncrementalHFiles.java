@@ -664,6 +664,7 @@ public class LoadIncrementalHFiles extends Configured implements Tool {
         KeyValue kv = scanner.getKeyValue();
         halfWriter.append(kv);
       } while (scanner.next());
+      scanner.close();
 
       for (Map.Entry<byte[],byte[]> entry : fileInfo.entrySet()) {
         if (shouldCopyHFileMetaKey(entry.getKey())) {
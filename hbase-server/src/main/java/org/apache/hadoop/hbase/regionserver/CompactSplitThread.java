@@ -40,6 +40,8 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.RemoteExceptionHandler;
 import org.apache.hadoop.hbase.regionserver.compactions.CompactionContext;
 import org.apache.hadoop.hbase.regionserver.compactions.CompactionRequest;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionThroughputController;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionThroughputControllerFactory;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.hbase.util.Pair;
 import org.apache.hadoop.util.StringUtils;
@@ -61,6 +63,9 @@ public class CompactSplitThread implements CompactionRequestor {
   private final ThreadPoolExecutor splits;
   private final ThreadPoolExecutor mergePool;
 
+  /** Limits the rate at which all the compactions of the server write, together */
+  private final CompactionThroughputController compactionThroughputController;
+
   /**
    * Splitting should not take place if the total number of regions exceed this.
    * This is not a hard limit to the number of regions but it is a guideline to
@@ -131,6 +136,9 @@ public class CompactSplitThread implements CompactionRequestor {
             return t;
           }
         });
+
+    this.compactionThroughputController =
+        CompactionThroughputControllerFactory.create(server, conf);
   }
 
   @Override
@@ -347,6 +355,8 @@ public class CompactSplitThread implements CompactionRequestor {
     mergePool.shutdown();
     largeCompactions.shutdown();
     smallCompactions.shutdown();
+    // Let throttled compactions finish at full speed.
+    compactionThroughputController.stop("Region server is stopping");
   }
 
   private void waitFor(ThreadPoolExecutor t, String name) {
@@ -381,6 +391,13 @@ public class CompactSplitThread implements CompactionRequestor {
     return largeCompactions.getQueue().size() + smallCompactions.getQueue().size();
   }
 
+  /**
+   * @return the controller that limits the rate at which compactions write
+   */
+  public CompactionThroughputController getCompactionThroughputController() {
+    return compactionThroughputController;
+  }
+
   private boolean shouldSplitRegion() {
     return (regionSplitLimit > server.getNumberOfOnlineRegions());
   }
@@ -462,7 +479,7 @@ public class CompactSplitThread implements CompactionRequestor {
         // Note: please don't put single-compaction logic here;
         //       put it into region/store/etc. This is CST logic.
         long start = EnvironmentEdgeManager.currentTimeMillis();
-        boolean completed = region.compact(compaction, store);
+        boolean completed = region.compact(compaction, store, compactionThroughputController);
         long now = EnvironmentEdgeManager.currentTimeMillis();
         LOG.info(((completed) ? "Completed" : "Aborted") + " compaction: " +
               this + "; duration=" + StringUtils.formatTimeDiff(now, start));
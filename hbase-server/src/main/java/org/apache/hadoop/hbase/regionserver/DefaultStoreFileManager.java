@@ -135,6 +135,11 @@ class DefaultStoreFileManager implements StoreFileManager {
     return (priority == HStore.PRIORITY_USER) ? priority + 1 : priority;
   }
 
+  @Override
+  public double getCompactionPressure() {
+    return StoreUtils.getCompactionPressure(conf, storefiles.size());
+  }
+
   private void sortAndSetStoreFiles(List<StoreFile> storeFiles) {
     Collections.sort(storeFiles, StoreFile.Comparators.SEQ_ID);
     storefiles = ImmutableList.copyOf(storeFiles);
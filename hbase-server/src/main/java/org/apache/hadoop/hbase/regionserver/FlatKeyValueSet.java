@@ -0,0 +1,509 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.HeapSize;
+import org.apache.hadoop.hbase.regionserver.MemStoreLAB.Allocation;
+import org.apache.hadoop.hbase.util.ByteBufferUtils;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
+
+/**
+ * An immutable, sorted {@link NavigableSet} of {@link KeyValue}s kept in flat arrays: one
+ * buffer reference, offset, length and memstore timestamp per KeyValue, searched by binary
+ * search. A KeyValue costs 24 bytes here on top of its data, where a
+ * {@link KeyValueSkipListSet} pays for a skip list node, its share of the index and the
+ * KeyValue object itself. KeyValues are materialized as they are read.
+ * <p>
+ * The data may also live off-heap: built with an off-heap {@link MemStoreLAB}, the set copies
+ * KeyValues into direct ByteBuffers and copies them back into short-lived KeyValues as they
+ * are read. The heap then only holds the arrays.
+ * <p>
+ * The only changes allowed are removals, which just mark the entry. The MemStore needs them
+ * to roll back failed edits and to drop expired cells; both are rare.
+ * <p>
+ * Views returned by headSet, tailSet and subSet share the arrays of the set they come from.
+ */
+@InterfaceAudience.Private
+class FlatKeyValueSet implements NavigableSet<KeyValue>, HeapSize {
+  static final long FIXED_OVERHEAD = ClassSize.align(ClassSize.OBJECT +
+    ClassSize.REFERENCE + (2 * Bytes.SIZEOF_INT)) + ClassSize.align(ClassSize.OBJECT +
+    (6 * ClassSize.REFERENCE) + Bytes.SIZEOF_LONG);
+
+  private final Cells cells;
+  // This view covers entries [start, end) of the cells
+  private final int start;
+  private final int end;
+
+  /**
+   * The arrays a set and its views share.
+   */
+  private static class Cells {
+    final KeyValue.KVComparator comparator;
+    // byte[] or, for data kept off-heap, ByteBuffer
+    final Object[] buffers;
+    final int[] offsets;
+    final int[] lengths;
+    final long[] mvccs;
+    final long heapSize;
+    // One bit per removed entry, allocated on the first removal
+    volatile AtomicLongArray removed;
+
+    Cells(KeyValue.KVComparator comparator, Object[] buffers, int[] offsets, int[] lengths,
+        long[] mvccs, long heapSize) {
+      this.comparator = comparator;
+      this.buffers = buffers;
+      this.offsets = offsets;
+      this.lengths = lengths;
+      this.mvccs = mvccs;
+      this.heapSize = heapSize;
+    }
+
+    KeyValue get(int i) {
+      KeyValue kv;
+      if (buffers[i] instanceof ByteBuffer) {
+        byte[] copy = new byte[lengths[i]];
+        ByteBufferUtils.copyFromBufferToArray(copy, (ByteBuffer)buffers[i], offsets[i], 0,
+          lengths[i]);
+        kv = new KeyValue(copy, 0, lengths[i]);
+      } else {
+        kv = new KeyValue((byte[])buffers[i], offsets[i], lengths[i]);
+      }
+      kv.setMvccVersion(mvccs[i]);
+      return kv;
+    }
+
+    boolean isRemoved(int i) {
+      AtomicLongArray r = removed;
+      return r != null && (r.get(i >>> 6) & (1L << i)) != 0;
+    }
+
+    void remove(int i) {
+      AtomicLongArray r = removed;
+      if (r == null) {
+        synchronized (this) {
+          r = removed;
+          if (r == null) {
+            r = new AtomicLongArray((buffers.length + 63) >>> 6);
+            removed = r;
+          }
+        }
+      }
+      long bit = 1L << i;
+      while (true) {
+        long word = r.get(i >>> 6);
+        if ((word & bit) != 0 || r.compareAndSet(i >>> 6, word, word | bit)) return;
+      }
+    }
+  }
+
+  private FlatKeyValueSet(Cells cells, int start, int end) {
+    this.cells = cells;
+    this.start = start;
+    this.end = end;
+  }
+
+  /**
+   * Builds a flat set holding the KeyValues of all the passed sets. Where several sets hold the
+   * same key, the first of them wins, the way a later add overwrites an earlier one in a
+   * {@link KeyValueSkipListSet}.
+   * @param comparator comparator the sets are sorted by
+   * @param sets sets to merge, newest first
+   * @return a new flat set
+   */
+  static FlatKeyValueSet create(final KeyValue.KVComparator comparator,
+      final List<? extends SortedSet<KeyValue>> sets) {
+    return create(comparator, sets, null);
+  }
+
+  /**
+   * Builds a flat set holding the KeyValues of all the passed sets, like
+   * {@link #create(KeyValue.KVComparator, List)}, copying the data of on-heap KeyValues into
+   * off-heap chunks of the passed allocator. KeyValues too big for it stay where they are, and
+   * so does the data of flat sets that is off-heap already.
+   * @param comparator comparator the sets are sorted by
+   * @param sets sets to merge, newest first
+   * @param offheapAllocator allocator over an off-heap chunk pool, or null to leave the data of
+   * all KeyValues where it is
+   * @return a new flat set
+   */
+  static FlatKeyValueSet create(final KeyValue.KVComparator comparator,
+      final List<? extends SortedSet<KeyValue>> sets, final MemStoreLAB offheapAllocator) {
+    int capacity = 0;
+    for (SortedSet<KeyValue> set : sets) {
+      capacity += set.size();
+    }
+    Object[] buffers = new Object[capacity];
+    int[] offsets = new int[capacity];
+    int[] lengths = new int[capacity];
+    long[] mvccs = new long[capacity];
+    long dataSize = 0;
+
+    Source[] heads = new Source[sets.size()];
+    for (int i = 0; i < heads.length; i++) {
+      heads[i] = new Source(sets.get(i));
+    }
+    int count = 0;
+    while (true) {
+      int lowest = -1;
+      for (int i = 0; i < heads.length; i++) {
+        if (heads[i].current != null && (lowest < 0 ||
+            comparator.compare(heads[i].current, heads[lowest].current) < 0)) {
+          lowest = i;
+        }
+      }
+      if (lowest < 0) break;
+      Source source = heads[lowest];
+      KeyValue kv = source.current;
+      // Older copies of the same key are dropped
+      for (int i = lowest + 1; i < heads.length; i++) {
+        if (heads[i].current != null && comparator.compare(heads[i].current, kv) == 0) {
+          heads[i].advance();
+        }
+      }
+      // A set may have had entries added since we sized the arrays
+      if (count == buffers.length) {
+        int newCapacity = Math.max(16, count + (count >> 1));
+        buffers = Arrays.copyOf(buffers, newCapacity);
+        offsets = Arrays.copyOf(offsets, newCapacity);
+        lengths = Arrays.copyOf(lengths, newCapacity);
+        mvccs = Arrays.copyOf(mvccs, newCapacity);
+      }
+      Allocation allocation = null;
+      if (source.isOffheap()) {
+        buffers[count] = source.flat.cells.buffers[source.index];
+        offsets[count] = source.flat.cells.offsets[source.index];
+      } else {
+        if (offheapAllocator != null) {
+          allocation = offheapAllocator.allocateOffheapBytes(kv.getLength());
+        }
+        if (allocation != null) {
+          ByteBufferUtils.copyFromArrayToBuffer(allocation.getBuffer(), allocation.getOffset(),
+            kv.getBuffer(), kv.getOffset(), kv.getLength());
+          buffers[count] = allocation.getBuffer();
+          offsets[count] = allocation.getOffset();
+        } else {
+          buffers[count] = kv.getBuffer();
+          offsets[count] = kv.getOffset();
+          dataSize += ClassSize.align(ClassSize.ARRAY) + ClassSize.align(kv.getLength());
+        }
+      }
+      lengths[count] = kv.getLength();
+      mvccs[count] = kv.getMvccVersion();
+      source.advance();
+      count++;
+    }
+    if (count < buffers.length) {
+      buffers = Arrays.copyOf(buffers, count);
+      offsets = Arrays.copyOf(offsets, count);
+      lengths = Arrays.copyOf(lengths, count);
+      mvccs = Arrays.copyOf(mvccs, count);
+    }
+    long heapSize = FIXED_OVERHEAD + dataSize +
+      ClassSize.align(ClassSize.ARRAY + (long)count * ClassSize.REFERENCE) +
+      2 * ClassSize.align(ClassSize.ARRAY + (long)count * Bytes.SIZEOF_INT) +
+      ClassSize.align(ClassSize.ARRAY + (long)count * Bytes.SIZEOF_LONG);
+    return new FlatKeyValueSet(new Cells(comparator, buffers, offsets, lengths, mvccs, heapSize),
+      0, count);
+  }
+
+  /**
+   * One of the sets merged by create, positioned on its next KeyValue. Flat sets are walked by
+   * index so their off-heap data can be referred to rather than copied.
+   */
+  private static class Source {
+    private final Iterator<KeyValue> it;
+    private final FlatKeyValueSet flat;
+    private int index;
+    KeyValue current;
+
+    Source(SortedSet<KeyValue> set) {
+      if (set instanceof FlatKeyValueSet) {
+        this.it = null;
+        this.flat = (FlatKeyValueSet)set;
+        this.index = this.flat.start - 1;
+      } else {
+        this.it = set.iterator();
+        this.flat = null;
+      }
+      advance();
+    }
+
+    void advance() {
+      if (this.flat == null) {
+        this.current = this.it.hasNext() ? this.it.next() : null;
+        return;
+      }
+      do {
+        this.index++;
+      } while (this.index < this.flat.end && this.flat.cells.isRemoved(this.index));
+      this.current = this.index < this.flat.end ? this.flat.cells.get(this.index) : null;
+    }
+
+    boolean isOffheap() {
+      return this.flat != null && this.flat.cells.buffers[this.index] instanceof ByteBuffer;
+    }
+  }
+
+  /**
+   * @return heap used by the whole set this view belongs to, KeyValue data included unless it
+   * is off-heap
+   */
+  @Override
+  public long heapSize() {
+    return this.cells.heapSize;
+  }
+
+  /**
+   * @return index of the first entry in this view that is greater than (or equal to, when
+   * <code>inclusive</code>) the passed key; <code>end</code> if there is none.
+   * Removed entries are not skipped.
+   */
+  private int ceilingIndex(final KeyValue key, final boolean inclusive) {
+    int low = this.start;
+    int high = this.end;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      int cmp = this.cells.comparator.compare(this.cells.get(mid), key);
+      if (cmp < 0 || (cmp == 0 && !inclusive)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /** @return first entry at or after i that is not removed; <code>end</code> if none */
+  private int liveIndexFrom(int i) {
+    while (i < this.end && this.cells.isRemoved(i)) i++;
+    return i;
+  }
+
+  /** @return last entry at or before i that is not removed; <code>start - 1</code> if none */
+  private int liveIndexBefore(int i) {
+    while (i >= this.start && this.cells.isRemoved(i)) i--;
+    return i;
+  }
+
+  private KeyValue getOrNull(int i) {
+    return i >= this.start && i < this.end ? this.cells.get(i) : null;
+  }
+
+  private int indexOf(final KeyValue kv) {
+    int i = ceilingIndex(kv, true);
+    if (i < this.end && !this.cells.isRemoved(i) &&
+        this.cells.comparator.compare(this.cells.get(i), kv) == 0) {
+      return i;
+    }
+    return -1;
+  }
+
+  /**
+   * @return the entry equal to the passed key, or null if none.
+   */
+  public KeyValue get(KeyValue kv) {
+    int i = indexOf(kv);
+    return i < 0 ? null : this.cells.get(i);
+  }
+
+  public KeyValue ceiling(KeyValue e) {
+    return getOrNull(liveIndexFrom(ceilingIndex(e, true)));
+  }
+
+  public KeyValue higher(KeyValue e) {
+    return getOrNull(liveIndexFrom(ceilingIndex(e, false)));
+  }
+
+  public KeyValue floor(KeyValue e) {
+    return getOrNull(liveIndexBefore(ceilingIndex(e, false) - 1));
+  }
+
+  public KeyValue lower(KeyValue e) {
+    return getOrNull(liveIndexBefore(ceilingIndex(e, true) - 1));
+  }
+
+  public Iterator<KeyValue> iterator() {
+    return new Itr(false);
+  }
+
+  public Iterator<KeyValue> descendingIterator() {
+    return new Itr(true);
+  }
+
+  public NavigableSet<KeyValue> descendingSet() {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public SortedSet<KeyValue> headSet(final KeyValue toElement) {
+    return headSet(toElement, false);
+  }
+
+  public NavigableSet<KeyValue> headSet(final KeyValue toElement, boolean inclusive) {
+    return new FlatKeyValueSet(this.cells, this.start, ceilingIndex(toElement, !inclusive));
+  }
+
+  public SortedSet<KeyValue> tailSet(KeyValue fromElement) {
+    return tailSet(fromElement, true);
+  }
+
+  public NavigableSet<KeyValue> tailSet(KeyValue fromElement, boolean inclusive) {
+    return new FlatKeyValueSet(this.cells, ceilingIndex(fromElement, inclusive), this.end);
+  }
+
+  public SortedSet<KeyValue> subSet(KeyValue fromElement, KeyValue toElement) {
+    return subSet(fromElement, true, toElement, false);
+  }
+
+  public NavigableSet<KeyValue> subSet(KeyValue fromElement, boolean fromInclusive,
+      KeyValue toElement, boolean toInclusive) {
+    int from = ceilingIndex(fromElement, fromInclusive);
+    return new FlatKeyValueSet(this.cells, from,
+      Math.max(from, ceilingIndex(toElement, !toInclusive)));
+  }
+
+  public Comparator<? super KeyValue> comparator() {
+    return this.cells.comparator;
+  }
+
+  public KeyValue first() {
+    int i = liveIndexFrom(this.start);
+    if (i == this.end) throw new NoSuchElementException();
+    return this.cells.get(i);
+  }
+
+  public KeyValue last() {
+    int i = liveIndexBefore(this.end - 1);
+    if (i < this.start) throw new NoSuchElementException();
+    return this.cells.get(i);
+  }
+
+  public KeyValue pollFirst() {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public KeyValue pollLast() {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public boolean add(KeyValue e) {
+    throw new UnsupportedOperationException("Immutable");
+  }
+
+  public boolean addAll(Collection<? extends KeyValue> c) {
+    throw new UnsupportedOperationException("Immutable");
+  }
+
+  public void clear() {
+    throw new UnsupportedOperationException("Immutable");
+  }
+
+  public boolean contains(Object o) {
+    return indexOf((KeyValue)o) >= 0;
+  }
+
+  public boolean containsAll(Collection<?> c) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public boolean isEmpty() {
+    return liveIndexFrom(this.start) == this.end;
+  }
+
+  /**
+   * Marks the entry equal to the passed KeyValue removed, in this view and all views sharing
+   * its arrays.
+   */
+  public boolean remove(Object o) {
+    int i = indexOf((KeyValue)o);
+    if (i < 0) return false;
+    this.cells.remove(i);
+    return true;
+  }
+
+  public boolean removeAll(Collection<?> c) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public boolean retainAll(Collection<?> c) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public int size() {
+    int size = this.end - this.start;
+    if (this.cells.removed != null) {
+      for (int i = this.start; i < this.end; i++) {
+        if (this.cells.isRemoved(i)) size--;
+      }
+    }
+    return size;
+  }
+
+  public Object[] toArray() {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public <T> T[] toArray(T[] a) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  private class Itr implements Iterator<KeyValue> {
+    private final boolean descending;
+    private int next;
+    private int last = -1;
+
+    Itr(boolean descending) {
+      this.descending = descending;
+      this.next = descending ? liveIndexBefore(end - 1) : liveIndexFrom(start);
+    }
+
+    @Override
+    public boolean hasNext() {
+      return descending ? next >= start : next < end;
+    }
+
+    @Override
+    public KeyValue next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      last = next;
+      next = descending ? liveIndexBefore(next - 1) : liveIndexFrom(next + 1);
+      return cells.get(last);
+    }
+
+    @Override
+    public void remove() {
+      if (last < 0) throw new IllegalStateException();
+      cells.remove(last);
+      last = -1;
+    }
+  }
+}
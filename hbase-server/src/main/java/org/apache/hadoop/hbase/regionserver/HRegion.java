@@ -41,7 +41,6 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
@@ -117,6 +116,8 @@ import org.apache.hadoop.hbase.protobuf.generated.HBaseProtos.SnapshotDescriptio
 import org.apache.hadoop.hbase.protobuf.generated.WALProtos.CompactionDescriptor;
 import org.apache.hadoop.hbase.regionserver.MultiVersionConsistencyControl.WriteEntry;
 import org.apache.hadoop.hbase.regionserver.compactions.CompactionContext;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionThroughputController;
+import org.apache.hadoop.hbase.regionserver.compactions.NoLimitCompactionThroughputController;
 import org.apache.hadoop.hbase.regionserver.wal.HLog;
 import org.apache.hadoop.hbase.regionserver.wal.HLogFactory;
 import org.apache.hadoop.hbase.regionserver.wal.HLogKey;
@@ -129,14 +130,12 @@ import org.apache.hadoop.hbase.util.ClassSize;
 import org.apache.hadoop.hbase.util.CompressionTest;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.hbase.util.FSUtils;
-import org.apache.hadoop.hbase.util.HashedBytes;
 import org.apache.hadoop.hbase.util.Pair;
 import org.apache.hadoop.hbase.util.Threads;
 import org.apache.hadoop.io.MultipleIOException;
 import org.apache.hadoop.util.StringUtils;
 import org.cliffc.high_scale_lib.Counter;
 
-import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -190,6 +189,13 @@ public class HRegion implements HeapSize { // , Writable{
   public static final String LOAD_CFS_ON_DEMAND_CONFIG_KEY =
       "hbase.hregion.scan.loadColumnFamiliesOnDemand";
 
+  /**
+   * If true, puts take shared row locks, so puts to a row do not wait for each other; only
+   * increments, appends, deletes and checkAndMutate hold a row to themselves. Has no effect
+   * unless the {@link RowLockManager} supports shared locks.
+   */
+  public static final String SHARED_PUT_ROW_LOCKS_KEY = "hbase.rowlock.shared.puts";
+
   /**
    * This is the global default value for durability. All tables/mutations not
    * defining a durability or using USE_DEFAULT will default to this value.
@@ -221,13 +227,8 @@ public class HRegion implements HeapSize { // , Writable{
   // Members
   //////////////////////////////////////////////////////////////////////////////
 
-  // map from a locked row to the context for that lock including:
-  // - CountDownLatch for threads waiting on that row
-  // - the thread that owns the lock (allow reentrancy)
-  // - reference count of (reentrant) locks held by the thread
-  // - the row itself
-  private final ConcurrentHashMap<HashedBytes, RowLockContext> lockedRows =
-      new ConcurrentHashMap<HashedBytes, RowLockContext>();
+  // hands out the locks of rows in this region
+  private final RowLockManager rowLockManager;
 
   protected final Map<byte[], Store> stores = new ConcurrentSkipListMap<byte[], Store>(
       Bytes.BYTES_RAWCOMPARATOR);
@@ -236,6 +237,8 @@ public class HRegion implements HeapSize { // , Writable{
   private Map<String, Service> coprocessorServiceHandlers = Maps.newHashMap();
 
   public final AtomicLong memstoreSize = new AtomicLong(0);
+  // Bytes the memstores keep off-heap; not part of memstoreSize
+  public final AtomicLong offheapMemstoreSize = new AtomicLong(0);
 
   // Debug possible data loss due to WAL off
   final Counter numMutationsWithoutWAL = new Counter();
@@ -257,8 +260,8 @@ public class HRegion implements HeapSize { // , Writable{
   protected final Configuration conf;
   private final Configuration baseConf;
   private final KeyValue.KVComparator comparator;
-  private final int rowLockWaitDuration;
-  static final int DEFAULT_ROWLOCK_WAIT_DURATION = 30000;
+  // whether puts take shared row locks, see SHARED_PUT_ROW_LOCKS_KEY
+  private final boolean sharedPutRowLocks;
 
   // The internal wait duration to acquire a lock before read/update
   // from the region. It is not per row. The purpose of this wait time
@@ -477,8 +480,8 @@ public class HRegion implements HeapSize { // , Writable{
       .addWritableMap(htd.getValues());
     this.flushCheckInterval = conf.getInt(MEMSTORE_PERIODIC_FLUSH_INTERVAL,
         DEFAULT_CACHE_FLUSH_INTERVAL);
-    this.rowLockWaitDuration = conf.getInt("hbase.rowlock.wait.duration",
-                    DEFAULT_ROWLOCK_WAIT_DURATION);
+    this.rowLockManager = RowLockManager.create(conf);
+    this.sharedPutRowLocks = conf.getBoolean(SHARED_PUT_ROW_LOCKS_KEY, false);
 
     this.isLoadingCfsOnDemandDefault = conf.getBoolean(LOAD_CFS_ON_DEMAND_CONFIG_KEY, true);
     this.htableDescriptor = htd;
@@ -777,6 +780,52 @@ public class HRegion implements HeapSize { // , Writable{
     return this.memstoreSize.getAndAdd(memStoreSize);
   }
 
+  /**
+   * Increase the off-heap size of mem store in this region and the global
+   * off-heap size of mem store
+   * @param offheapSize
+   * @return the off-heap size of memstore in this region
+   */
+  public long addAndGetGlobalOffheapMemstoreSize(long offheapSize) {
+    if (this.rsAccounting != null) {
+      rsAccounting.addAndGetGlobalOffheapMemstoreSize(offheapSize);
+    }
+    return this.offheapMemstoreSize.addAndGet(offheapSize);
+  }
+
+  /**
+   * Folds the active set of the passed memstore into a flat segment on the shared in-memory
+   * compaction pool. The heap this saves comes off the region's memstore size under the
+   * updates lock, so a flush cannot read the memstore size in between and count it twice.
+   * Data the fold moved off-heap is added to the off-heap memstore size the same way.
+   * @param memstore memstore of one of our stores whose
+   * {@link MemStore#shouldCompactInMemory()} just returned true
+   */
+  void requestInMemoryCompaction(final MemStore memstore) {
+    MemStore.getInMemoryCompactionPool(this.conf).execute(new Runnable() {
+      @Override
+      public void run() {
+        MemStore.InMemoryCompaction compaction = memstore.compactInMemory();
+        if (compaction == null) return;
+        long delta;
+        updatesLock.readLock().lock();
+        try {
+          delta = memstore.finishInMemoryCompaction(compaction);
+          addAndGetGlobalMemstoreSize(delta);
+          if (compaction.offheapDelta != 0) {
+            addAndGetGlobalOffheapMemstoreSize(compaction.offheapDelta);
+          }
+        } finally {
+          updatesLock.readLock().unlock();
+        }
+        if (LOG.isTraceEnabled()) {
+          LOG.trace("In-memory compaction in " + HRegion.this + " freed " +
+            StringUtils.humanReadableInt(-delta));
+        }
+      }
+    });
+  }
+
   /** @return a HRegionInfo object for this region */
   public HRegionInfo getRegionInfo() {
     return this.fs.getRegionInfo();
@@ -1238,6 +1287,15 @@ public class HRegion implements HeapSize { // , Writable{
    * @throws IOException e
    */
   public boolean compact(CompactionContext compaction, Store store) throws IOException {
+    return compact(compaction, store, NoLimitCompactionThroughputController.INSTANCE);
+  }
+
+  /**
+   * Like {@link #compact(CompactionContext, Store)}, with the rate at which the compaction
+   * writes limited by the given controller.
+   */
+  public boolean compact(CompactionContext compaction, Store store,
+      CompactionThroughputController throughputController) throws IOException {
     assert compaction != null && compaction.hasSelection();
     assert !compaction.getRequest().getFiles().isEmpty();
     if (this.closing.get() || this.closed.get()) {
@@ -1276,7 +1334,7 @@ public class HRegion implements HeapSize { // , Writable{
         try {
           status.setStatus("Compacting store " + store);
           didPerformCompaction = true;
-          store.compact(compaction);
+          store.compact(compaction, throughputController);
         } catch (InterruptedIOException iioe) {
           String msg = "compaction interrupted";
           LOG.info(msg, iioe);
@@ -1469,13 +1527,15 @@ public class HRegion implements HeapSize { // , Writable{
     final long startTime = EnvironmentEdgeManager.currentTimeMillis();
     // Clear flush flag.
     // If nothing to flush, return and avoid logging start/stop flush.
-    if (this.memstoreSize.get() <= 0) {
+    if (this.memstoreSize.get() <= 0 && this.offheapMemstoreSize.get() <= 0) {
       return false;
     }
     if (LOG.isDebugEnabled()) {
       LOG.debug("Started memstore flush for " + this +
         ", current region memstore size " +
         StringUtils.humanReadableInt(this.memstoreSize.get()) +
+        (this.offheapMemstoreSize.get() > 0 ? " and " +
+          StringUtils.humanReadableInt(this.offheapMemstoreSize.get()) + " off-heap" : "") +
         ((wal != null)? "": "; wal is null, using passed sequenceid=" + myseqid));
     }
 
@@ -1495,8 +1555,10 @@ public class HRegion implements HeapSize { // , Writable{
     // block waiting for the lock for internal flush
     this.updatesLock.writeLock().lock();
     long flushsize = this.memstoreSize.get();
+    long offheapFlushsize = this.offheapMemstoreSize.get();
     status.setStatus("Preparing to flush by snapshotting stores");
     List<StoreFlushContext> storeFlushCtxs = new ArrayList<StoreFlushContext>(stores.size());
+    List<String> flushedFamilies = new ArrayList<String>(stores.size());
     long flushSeqId = -1L;
     try {
       // Record the mvcc for all transactions in progress.
@@ -1517,6 +1579,7 @@ public class HRegion implements HeapSize { // , Writable{
 
       for (Store s : stores.values()) {
         storeFlushCtxs.add(s.createFlushContext(flushSeqId));
+        flushedFamilies.add(s.getColumnFamilyName());
       }
 
       // prepare flush (take a snapshot)
@@ -1553,14 +1616,20 @@ public class HRegion implements HeapSize { // , Writable{
     // Otherwise, the snapshot content while backed up in the hlog, it will not
     // be part of the current running servers state.
     boolean compactionRequested = false;
+    long[] storeFlushTimes;
     try {
       // A.  Flush memstore to all the HStores.
       // Keep running vector of all store files that includes both old and the
       // just-made new flush store file. The new flushed file is still in the
       // tmp directory.
 
-      for (StoreFlushContext flush : storeFlushCtxs) {
-        flush.flushCache(status);
+      // The stores are written concurrently if the server allows, then committed together.
+      StoreFlushExecutor flushExecutor =
+          (this.rsServices == null) ? null : this.rsServices.getStoreFlushExecutor();
+      if (flushExecutor != null) {
+        storeFlushTimes = flushExecutor.flushStores(storeFlushCtxs, status);
+      } else {
+        storeFlushTimes = StoreFlushExecutor.flushStoresSequentially(storeFlushCtxs, status);
       }
 
       // Switch snapshot (in memstore) -> new hfile (thus causing
@@ -1575,6 +1644,9 @@ public class HRegion implements HeapSize { // , Writable{
 
       // Set down the memstore size by amount of flush.
       this.addAndGetGlobalMemstoreSize(-flushsize);
+      if (offheapFlushsize != 0) {
+        this.addAndGetGlobalOffheapMemstoreSize(-offheapFlushsize);
+      }
     } catch (Throwable t) {
       // An exception here means that the snapshot was not persisted.
       // The hlog needs to be replayed so its content is restored to memstore.
@@ -1619,6 +1691,7 @@ public class HRegion implements HeapSize { // , Writable{
       StringUtils.humanReadableInt(memstoresize) + "/" + memstoresize +
       " for region " + this + " in " + time + "ms, sequenceid=" + flushSeqId +
       ", compaction requested=" + compactionRequested +
+      ", store flush times=" + describeStoreFlushTimes(flushedFamilies, storeFlushTimes) +
       ((wal == null)? "; wal=null": "");
     LOG.info(msg);
     status.setStatus(msg);
@@ -1627,6 +1700,17 @@ public class HRegion implements HeapSize { // , Writable{
     return compactionRequested;
   }
 
+  private static String describeStoreFlushTimes(List<String> families, long[] flushTimes) {
+    StringBuilder sb = new StringBuilder("[");
+    for (int i = 0; i < families.size(); ++i) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(families.get(i)).append("=").append(flushTimes[i]).append("ms");
+    }
+    return sb.append("]").toString();
+  }
+
   //////////////////////////////////////////////////////////////////////////////
   // get() methods for client use.
   //////////////////////////////////////////////////////////////////////////////
@@ -2068,7 +2152,8 @@ public class HRegion implements HeapSize { // , Writable{
         boolean shouldBlock = numReadyToWrite == 0;
         RowLock rowLock = null;
         try {
-          rowLock = getRowLock(mutation.getRow(), shouldBlock);
+          rowLock = getRowLock(mutation.getRow(), shouldBlock,
+            isPutMutation && this.sharedPutRowLocks);
         } catch (IOException ioe) {
           LOG.warn("Failed getting lock in batch put, row="
             + Bytes.toStringBinary(mutation.getRow()), ioe);
@@ -2769,7 +2854,8 @@ public class HRegion implements HeapSize { // , Writable{
    * @return True if size is over the flush threshold
    */
   private boolean isFlushSize(final long size) {
-    return size > this.memstoreFlushSize;
+    // Data moved off-heap still has to be flushed
+    return size + this.offheapMemstoreSize.get() > this.memstoreFlushSize;
   }
 
   /**
@@ -3166,42 +3252,46 @@ public class HRegion implements HeapSize { // , Writable{
    * @throws IOException if waitForLock was true and the lock could not be acquired after waiting
    */
   public RowLock getRowLock(byte[] row, boolean waitForLock) throws IOException {
+    return getRowLock(row, waitForLock, false);
+  }
+
+  /**
+   * Tries to acquire a lock on the given row.
+   * @param waitForLock if true, will block until the lock is available.
+   *        Otherwise, just tries to obtain the lock and returns
+   *        false if unavailable.
+   * @param shared if true, others taking shared locks on the row may hold it at the same time.
+   *        The {@link RowLockManager} may not support shared locks and make it exclusive.
+   * @return the row lock if acquired,
+   *   null if waitForLock was false and the lock was not acquired
+   * @throws IOException if waitForLock was true and the lock could not be acquired after waiting
+   */
+  public RowLock getRowLock(byte[] row, boolean waitForLock, boolean shared)
+      throws IOException {
     checkRow(row, "row lock");
     startRegionOperation();
     try {
-      HashedBytes rowKey = new HashedBytes(row);
-      RowLockContext rowLockContext = new RowLockContext(rowKey);
-
-      // loop until we acquire the row lock (unless !waitForLock)
-      while (true) {
-        RowLockContext existingContext = lockedRows.putIfAbsent(rowKey, rowLockContext);
-        if (existingContext == null) {
-          // Row is not already locked by any thread, use newly created context.
-          break;
-        } else if (existingContext.ownedByCurrentThread()) {
-          // Row is already locked by current thread, reuse existing context instead.
-          rowLockContext = existingContext;
-          break;
-        } else {
-          // Row is already locked by some other thread, give up or wait for it
-          if (!waitForLock) {
-            return null;
-          }
-          try {
-            if (!existingContext.latch.await(this.rowLockWaitDuration, TimeUnit.MILLISECONDS)) {
-              throw new IOException("Timed out waiting for lock for row: " + rowKey);
-            }
-          } catch (InterruptedException ie) {
-            LOG.warn("Thread interrupted waiting for lock on row: " + rowKey);
-            InterruptedIOException iie = new InterruptedIOException();
-            iie.initCause(ie);
-            throw iie;
-          }
+      RowLock rowLock = rowLockManager.getRowLock(row, shared, false);
+      if (rowLock != null || !waitForLock) {
+        return rowLock;
+      }
+      // Contended, wait for it
+      long start = System.nanoTime();
+      try {
+        rowLock = rowLockManager.getRowLock(row, shared, true);
+      } catch (InterruptedIOException iie) {
+        throw iie;
+      } catch (IOException ioe) {
+        if (this.metricsRegion != null) {
+          this.metricsRegion.updateRowLockTimeout();
         }
+        throw ioe;
       }
-      
-      // allocate new lock for this thread
-      return rowLockContext.newLock();
+      if (this.metricsRegion != null) {
+        this.metricsRegion.updateRowLockWait(
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      }
+      return rowLock;
     } finally {
       closeRegionOperation();
     }
@@ -4503,7 +4593,7 @@ public class HRegion implements HeapSize { // , Writable{
     try {
       // 2. Acquire the row lock(s)
       acquiredRowLocks = new ArrayList<RowLock>(rowsToLock.size());
-      for (byte[] row : rowsToLock) {
+      for (byte[] row : rowLockManager.orderForLocking(rowsToLock)) {
         // Attempt to lock all involved rows, throw if any lock times out
         acquiredRowLocks.add(getRowLock(row));
       }
@@ -4974,9 +5064,9 @@ public class HRegion implements HeapSize { // , Writable{
   public static final long FIXED_OVERHEAD = ClassSize.align(
       ClassSize.OBJECT +
       ClassSize.ARRAY +
-      38 * ClassSize.REFERENCE + 2 * Bytes.SIZEOF_INT +
+      39 * ClassSize.REFERENCE + Bytes.SIZEOF_INT +
       (11 * Bytes.SIZEOF_LONG) +
-      4 * Bytes.SIZEOF_BOOLEAN);
+      5 * Bytes.SIZEOF_BOOLEAN);
 
   // woefully out of date - currently missing:
   // 1 x HashMap - coprocessorServiceHandlers
@@ -4988,11 +5078,13 @@ public class HRegion implements HeapSize { // , Writable{
   // 1 x RegionSplitPolicy - splitPolicy
   // 1 x MetricsRegion - metricsRegion
   // 1 x MetricsRegionWrapperImpl - metricsRegionWrapper
+  // 1 x RowLockManager - rowLockManager
   public static final long DEEP_OVERHEAD = FIXED_OVERHEAD +
       ClassSize.OBJECT + // closeLock
       (2 * ClassSize.ATOMIC_BOOLEAN) + // closed, closing
-      (3 * ClassSize.ATOMIC_LONG) + // memStoreSize, numPutsWithoutWAL, dataInMemoryWithoutWAL
-      (2 * ClassSize.CONCURRENT_HASHMAP) +  // lockedRows, scannerReadPoints
+      // memStoreSize, offheapMemstoreSize, numPutsWithoutWAL, dataInMemoryWithoutWAL
+      (4 * ClassSize.ATOMIC_LONG) +
+      ClassSize.CONCURRENT_HASHMAP +  // scannerReadPoints
       WriteState.HEAP_SIZE + // writestate
       ClassSize.CONCURRENT_SKIPLISTMAP + ClassSize.CONCURRENT_SKIPLISTMAP_ENTRY + // stores
       (2 * ClassSize.REENTRANT_LOCK) + // lock, updatesLock
@@ -5581,67 +5673,17 @@ public class HRegion implements HeapSize { // , Writable{
     void failedBulkLoad(byte[] family, String srcPath) throws IOException;
   }
   
-  @VisibleForTesting class RowLockContext {
-    private final HashedBytes row;
-    private final CountDownLatch latch = new CountDownLatch(1);
-    private final Thread thread;
-    private int lockCount = 0;
-
-    RowLockContext(HashedBytes row) {
-      this.row = row;
-      this.thread = Thread.currentThread();
-    }
-    
-    boolean ownedByCurrentThread() {
-      return thread == Thread.currentThread();
-    }
-    
-    RowLock newLock() {
-      lockCount++;
-      return new RowLock(this);
-    }
-    
-    void releaseLock() {
-      if (!ownedByCurrentThread()) {
-        throw new IllegalArgumentException("Lock held by thread: " + thread
-          + " cannot be released by different thread: " + Thread.currentThread());
-      }
-      lockCount--;
-      if (lockCount == 0) {
-        // no remaining locks by the thread, unlock and allow other threads to access
-        RowLockContext existingContext = lockedRows.remove(row);
-        if (existingContext != this) {
-          throw new RuntimeException(
-              "Internal row lock state inconsistent, should not happen, row: " + row);
-        }
-        latch.countDown();
-      }
-    }
-  }
-  
   /**
-   * Row lock held by a given thread.
+   * Row lock held by a given thread, see {@link RowLockManager}.
    * One thread may acquire multiple locks on the same row simultaneously.
    * The locks must be released by calling release() from the same thread.
    */
-  public class RowLock {
-    @VisibleForTesting final RowLockContext context;
-    private boolean released = false;
-    
-    @VisibleForTesting RowLock(RowLockContext context) {
-      this.context = context;
-    }
-    
+  public interface RowLock {
     /**
      * Release the given lock.  If there are no remaining locks held by the current thread
      * then unlock the row and allow other threads to acquire the lock.
-     * @throws IllegalArgumentException if called by a different thread than the lock owning thread
+     * Must be called once for every lock acquired, from the thread that acquired it.
      */
-    public void release() {
-      if (!released) {
-        context.releaseLock();
-        released = true;
-      }
-    }
+    void release();
   }
 }
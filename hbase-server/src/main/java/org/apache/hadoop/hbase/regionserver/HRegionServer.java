@@ -191,6 +191,7 @@ import org.apache.hadoop.hbase.regionserver.snapshot.RegionServerSnapshotManager
 import org.apache.hadoop.hbase.regionserver.wal.HLog;
 import org.apache.hadoop.hbase.regionserver.wal.HLogFactory;
 import org.apache.hadoop.hbase.regionserver.wal.HLogUtil;
+import org.apache.hadoop.hbase.regionserver.wal.RegionGroupingHLogProvider;
 import org.apache.hadoop.hbase.regionserver.wal.WALActionsListener;
 import org.apache.hadoop.hbase.security.User;
 import org.apache.hadoop.hbase.trace.SpanReceiverHost;
@@ -394,6 +395,8 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
   // HLog and HLog roller. log is protected rather than private to avoid
   // eclipse warning when accessed by inner classes
   protected volatile HLog hlog;
+  // Provides the WALs user regions write to; hlog above is its default WAL.
+  protected volatile RegionGroupingHLogProvider hlogProvider;
   // The meta updates are written to a different hlog. If this
   // regionserver holds meta regions, then this field will be non-null.
   protected volatile HLog hlogForMeta;
@@ -1117,12 +1120,12 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
         LOG.error("Metalog close and delete failed", RemoteExceptionHandler.checkThrowable(e));
       }
     }
-    if (this.hlog != null) {
+    if (this.hlogProvider != null) {
       try {
         if (delete) {
-          hlog.closeAndDelete();
+          hlogProvider.closeAndDelete();
         } else {
-          hlog.close();
+          hlogProvider.close();
         }
       } catch (Throwable e) {
         LOG.error("Close and delete failed", RemoteExceptionHandler.checkThrowable(e));
@@ -1438,34 +1441,46 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     final String logName = HLogUtil.getHLogDirectoryName(this.serverNameFromMasterPOV.toString());
     Path logdir = new Path(rootDir, logName);
     if (LOG.isDebugEnabled()) LOG.debug("logdir=" + logdir);
-    this.hlogForMeta = HLogFactory.createMetaHLog(this.fs.getBackingFs(), rootDir, logName,
-      this.conf, getMetaWALActionListeners(), this.serverNameFromMasterPOV.toString());
+    HLog metaWAL = HLogFactory.createMetaHLog(this.fs.getBackingFs(), rootDir, logName,
+      this.conf, null, this.serverNameFromMasterPOV.toString());
+    // Using a tmp log roller to ensure metaLogRoller is alive once it is not
+    // null
+    LogRoller tmpLogRoller = new LogRoller(this, this);
+    tmpLogRoller.addWAL(metaWAL);
+    String n = Thread.currentThread().getName();
+    Threads.setDaemonThreadRunning(tmpLogRoller.getThread(),
+        n + "-MetaLogRoller", uncaughtExceptionHandler);
+    this.metaHLogRoller = tmpLogRoller;
+    this.hlogForMeta = metaWAL;
     return this.hlogForMeta;
   }
 
   /**
-   * Called by {@link #setupWALAndReplication()} creating WAL instance.
+   * Called by {@link #setupWALAndReplication()} creating the WAL instances.
    * @param rootdir
    * @param logName
-   * @return WAL instance.
+   * @return the default WAL instance.
    * @throws IOException
    */
   protected HLog instantiateHLog(Path rootdir, String logName) throws IOException {
-    return HLogFactory.createHLog(this.fs.getBackingFs(), rootdir, logName, this.conf,
-      getWALActionListeners(), this.serverNameFromMasterPOV.toString());
+    this.hlogProvider = new RegionGroupingHLogProvider(this.fs.getBackingFs(), rootdir, logName,
+      this.conf, getWALActionListeners(), this.serverNameFromMasterPOV.toString());
+    // Log roller.
+    this.hlogRoller = new LogRoller(this, this);
+    for (HLog wal : this.hlogProvider.getWALs()) {
+      this.hlogRoller.addWAL(wal);
+    }
+    return this.hlogProvider.getDefaultWAL();
   }
 
   /**
-   * Called by {@link #instantiateHLog(Path, String)} setting up WAL instance.
+   * Called by {@link #instantiateHLog(Path, String)} setting up WAL instances.
    * Add any {@link WALActionsListener}s you want inserted before WAL startup.
    * @return List of WALActionsListener that will be passed in to
    * {@link org.apache.hadoop.hbase.regionserver.wal.FSHLog} on construction.
    */
   protected List<WALActionsListener> getWALActionListeners() {
     List<WALActionsListener> listeners = new ArrayList<WALActionsListener>();
-    // Log roller.
-    this.hlogRoller = new LogRoller(this, this);
-    listeners.add(this.hlogRoller);
     if (this.replicationSourceHandler != null &&
         this.replicationSourceHandler.getWALActionsListener() != null) {
       // Replication handler is an implementation of WALActionsListener.
@@ -1474,20 +1489,6 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     return listeners;
   }
 
-  protected List<WALActionsListener> getMetaWALActionListeners() {
-    List<WALActionsListener> listeners = new ArrayList<WALActionsListener>();
-    // Using a tmp log roller to ensure metaLogRoller is alive once it is not
-    // null
-    MetaLogRoller tmpLogRoller = new MetaLogRoller(this, this);
-    String n = Thread.currentThread().getName();
-    Threads.setDaemonThreadRunning(tmpLogRoller.getThread(),
-        n + "-MetaLogRoller", uncaughtExceptionHandler);
-    this.metaHLogRoller = tmpLogRoller;
-    tmpLogRoller = null;
-    listeners.add(this.metaHLogRoller);
-    return listeners;
-  }
-
   protected LogRoller getLogRoller() {
     return hlogRoller;
   }
@@ -1658,7 +1659,8 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     if (regionInfo != null && regionInfo.isMetaTable()) {
       return getMetaWAL();
     }
-    return this.hlog;
+    RegionGroupingHLogProvider provider = this.hlogProvider;
+    return provider == null ? this.hlog : provider.getWAL(regionInfo);
   }
 
   @Override
@@ -2080,6 +2082,19 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
    * may NOT return all regions.
    */
   SortedMap<Long, HRegion> getCopyOfOnlineRegionsSortedBySize() {
+    return getCopyOfOnlineRegionsSortedBySize(false);
+  }
+
+  /**
+   * @return A new Map of online regions sorted by the size of the memstore data they keep
+   * off-heap, with the first entry being the biggest. Like
+   * {@link #getCopyOfOnlineRegionsSortedBySize()}, may NOT return all regions.
+   */
+  SortedMap<Long, HRegion> getCopyOfOnlineRegionsSortedByOffheapSize() {
+    return getCopyOfOnlineRegionsSortedBySize(true);
+  }
+
+  private SortedMap<Long, HRegion> getCopyOfOnlineRegionsSortedBySize(boolean offheap) {
     // we'll sort the regions in reverse
     SortedMap<Long, HRegion> sortedRegions = new TreeMap<Long, HRegion>(
         new Comparator<Long>() {
@@ -2090,7 +2105,8 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
         });
     // Copy over all regions. Regions are sorted by size with biggest first.
     for (HRegion region : this.onlineRegions.values()) {
-      sortedRegions.put(region.memstoreSize.get(), region);
+      sortedRegions.put(offheap ? region.offheapMemstoreSize.get() : region.memstoreSize.get(),
+        region);
     }
     return sortedRegions;
   }
@@ -2108,6 +2124,11 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     return this.cacheFlusher;
   }
 
+  @Override
+  public StoreFlushExecutor getStoreFlushExecutor() {
+    return (this.cacheFlusher == null) ? null : this.cacheFlusher.getStoreFlushExecutor();
+  }
+
   /**
    * Get the top N most loaded regions this server is serving so we can tell the
    * master which regions it can reallocate if we're overloaded. TODO: actually
@@ -2533,7 +2554,7 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     HRegion toReturn = this.onlineRegions.remove(r.getRegionInfo().getEncodedName());
 
     if (destination != null) {
-      HLog wal = getWAL();
+      HLog wal = r.getLog() == null ? getWAL() : r.getLog();
       long closeSeqNum = wal.getEarliestMemstoreSeqNum(r.getRegionInfo().getEncodedNameAsBytes());
       if (closeSeqNum == HConstants.NO_SEQNUM) {
         // No edits in WAL for this region; get the sequence number when the region was opened.
@@ -3891,12 +3912,13 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
       final RollWALWriterRequest request) throws ServiceException {
     try {
       requestCount.increment();
-      HLog wal = this.getWAL();
-      byte[][] regionsToFlush = wal.rollWriter(true);
       RollWALWriterResponse.Builder builder = RollWALWriterResponse.newBuilder();
-      if (regionsToFlush != null) {
-        for (byte[] region: regionsToFlush) {
-          builder.addRegionToFlush(ByteString.copyFrom(region));
+      for (HLog wal : this.hlogProvider.getWALs()) {
+        byte[][] regionsToFlush = wal.rollWriter(true);
+        if (regionsToFlush != null) {
+          for (byte[] region: regionsToFlush) {
+            builder.addRegionToFlush(ByteString.copyFrom(region));
+          }
         }
       }
       return builder.build();
@@ -4281,6 +4303,20 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     return this.compactSplitThread;
   }
 
+  /**
+   * @return the highest compaction pressure of the stores on this server
+   * @see Store#getCompactionPressure()
+   */
+  public double getCompactionPressure() {
+    double max = 0;
+    for (HRegion region : getOnlineRegionsLocalContext()) {
+      for (Store store : region.getStores().values()) {
+        max = Math.max(max, store.getCompactionPressure());
+      }
+    }
+    return max;
+  }
+
   /**
    * A helper function to store the last flushed sequence Id with the previous failed RS for a
    * recovering region. The Id is used to skip wal edits which are flushed. Since the flushed
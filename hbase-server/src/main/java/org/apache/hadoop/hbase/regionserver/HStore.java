@@ -69,6 +69,8 @@ import org.apache.hadoop.hbase.protobuf.generated.WALProtos.CompactionDescriptor
 import org.apache.hadoop.hbase.regionserver.compactions.CompactionContext;
 import org.apache.hadoop.hbase.regionserver.compactions.CompactionProgress;
 import org.apache.hadoop.hbase.regionserver.compactions.CompactionRequest;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionThroughputController;
+import org.apache.hadoop.hbase.regionserver.compactions.NoLimitCompactionThroughputController;
 import org.apache.hadoop.hbase.regionserver.compactions.OffPeakHours;
 import org.apache.hadoop.hbase.regionserver.wal.HLogUtil;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -141,6 +143,8 @@ public class HStore implements Store {
    */
   final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
   private final boolean verifyBulkLoads;
+  // whether scanners of this store merge their files with a LoserTreeKeyValueHeap
+  private final boolean loserTreeHeap;
 
   private ScanInfo scanInfo;
 
@@ -222,6 +226,7 @@ public class HStore implements Store {
     this.cacheConf = new CacheConfig(conf, family);
 
     this.verifyBulkLoads = conf.getBoolean("hbase.hstore.bulkload.verify", false);
+    this.loserTreeHeap = conf.getBoolean(StoreScanner.STORESCANNER_LOSER_TREE_ENABLE, false);
 
     this.blockingFileCount =
         conf.getInt(BLOCKING_STOREFILES_KEY, DEFAULT_BLOCKING_STOREFILE_COUNT);
@@ -482,12 +487,25 @@ public class HStore implements Store {
 
   @Override
   public long add(final KeyValue kv) {
+    long size;
     lock.readLock().lock();
     try {
-      return this.memstore.add(kv);
+      size = this.memstore.add(kv);
     } finally {
       lock.readLock().unlock();
     }
+    requestInMemoryCompactionIfNeeded();
+    return size;
+  }
+
+  /**
+   * Has the region fold the memstore's active set into a flat segment if it has grown past the
+   * in-memory compaction threshold.
+   */
+  private void requestInMemoryCompactionIfNeeded() {
+    if (this.memstore.shouldCompactInMemory()) {
+      this.region.requestInMemoryCompaction(this.memstore);
+    }
   }
 
   @Override
@@ -502,12 +520,15 @@ public class HStore implements Store {
    * @return memstore size delta
    */
   protected long delete(final KeyValue kv) {
+    long size;
     lock.readLock().lock();
     try {
-      return this.memstore.delete(kv);
+      size = this.memstore.delete(kv);
     } finally {
       lock.readLock().unlock();
     }
+    requestInMemoryCompactionIfNeeded();
+    return size;
   }
 
   @Override
@@ -582,6 +603,7 @@ public class HStore implements Store {
           }
           prevKV = kv;
         } while (scanner.next());
+        scanner.close();
       }
     } finally {
       if (reader != null) reader.close();
@@ -944,6 +966,12 @@ public class HStore implements Store {
    */
   @Override
   public List<StoreFile> compact(CompactionContext compaction) throws IOException {
+    return compact(compaction, NoLimitCompactionThroughputController.INSTANCE);
+  }
+
+  @Override
+  public List<StoreFile> compact(CompactionContext compaction,
+      CompactionThroughputController throughputController) throws IOException {
     assert compaction != null && compaction.hasSelection();
     CompactionRequest cr = compaction.getRequest();
     Collection<StoreFile> filesToCompact = cr.getFiles();
@@ -964,7 +992,7 @@ public class HStore implements Store {
     List<StoreFile> sfs = null;
     try {
       // Commence the compaction.
-      List<Path> newFiles = compaction.compact();
+      List<Path> newFiles = compaction.compact(throughputController);
       // TODO: get rid of this!
       if (!this.conf.getBoolean("hbase.hstore.compaction.complete", true)) {
         LOG.warn("hbase.hstore.compaction.complete is set to false");
@@ -991,10 +1019,16 @@ public class HStore implements Store {
 
   private List<StoreFile> moveCompatedFilesIntoPlace(
       CompactionRequest cr, List<Path> newFiles) throws IOException {
-    List<StoreFile> sfs = new ArrayList<StoreFile>();
+    // A compaction may write several files, e.g. one per row range; check them all before
+    // moving any, so that a bad file leaves the store as it was.
     for (Path newFile : newFiles) {
       assert newFile != null;
-      StoreFile sf = moveFileIntoPlace(newFile);
+      validateStoreFile(newFile);
+    }
+    List<StoreFile> sfs = new ArrayList<StoreFile>();
+    for (Path newFile : newFiles) {
+      Path destPath = fs.commitStoreFile(getColumnFamilyName(), newFile);
+      StoreFile sf = createStoreFileAndReader(destPath);
       if (this.getCoprocessorHost() != null) {
         this.getCoprocessorHost().postCompact(this, sf, cr);
       }
@@ -1489,25 +1523,29 @@ public class HStore implements Store {
     }
     // Get a scanner that caches blocks and that uses pread.
     HFileScanner scanner = r.getScanner(true, true, false);
-    // Seek scanner.  If can't seek it, return.
-    if (!seekToScanner(scanner, firstOnRow, firstKV)) return false;
-    // If we found candidate on firstOnRow, just return. THIS WILL NEVER HAPPEN!
-    // Unlikely that there'll be an instance of actual first row in table.
-    if (walkForwardInSingleRow(scanner, firstOnRow, state)) return true;
-    // If here, need to start backing up.
-    while (scanner.seekBefore(firstOnRow.getBuffer(), firstOnRow.getKeyOffset(),
-       firstOnRow.getKeyLength())) {
-      KeyValue kv = scanner.getKeyValue();
-      if (!state.isTargetTable(kv)) break;
-      if (!state.isBetterCandidate(kv)) break;
-      // Make new first on row.
-      firstOnRow = new KeyValue(kv.getRow(), HConstants.LATEST_TIMESTAMP);
-      // Seek scanner.  If can't seek it, break.
+    try {
+      // Seek scanner.  If can't seek it, return.
       if (!seekToScanner(scanner, firstOnRow, firstKV)) return false;
-      // If we find something, break;
+      // If we found candidate on firstOnRow, just return. THIS WILL NEVER HAPPEN!
+      // Unlikely that there'll be an instance of actual first row in table.
       if (walkForwardInSingleRow(scanner, firstOnRow, state)) return true;
+      // If here, need to start backing up.
+      while (scanner.seekBefore(firstOnRow.getBuffer(), firstOnRow.getKeyOffset(),
+         firstOnRow.getKeyLength())) {
+        KeyValue kv = scanner.getKeyValue();
+        if (!state.isTargetTable(kv)) break;
+        if (!state.isBetterCandidate(kv)) break;
+        // Make new first on row.
+        firstOnRow = new KeyValue(kv.getRow(), HConstants.LATEST_TIMESTAMP);
+        // Seek scanner.  If can't seek it, break.
+        if (!seekToScanner(scanner, firstOnRow, firstKV)) return false;
+        // If we find something, break;
+        if (walkForwardInSingleRow(scanner, firstOnRow, state)) return true;
+      }
+      return false;
+    } finally {
+      scanner.close();
     }
-    return false;
   }
 
   /*
@@ -1682,6 +1720,19 @@ public class HStore implements Store {
     return size;
   }
 
+  @Override
+  public long getStorefilesIndexHeapSize() {
+    long size = 0;
+    for (StoreFile s: this.storeEngine.getStoreFileManager().getStorefiles()) {
+      StoreFile.Reader r = s.getReader();
+      if (r == null) {
+        continue;
+      }
+      size += r.indexHeapSize();
+    }
+    return size;
+  }
+
   @Override
   public long getTotalStaticIndexSize() {
     long size = 0;
@@ -1720,6 +1771,13 @@ public class HStore implements Store {
     return storeEngine.getCompactionPolicy().throttleCompaction(compactionSize);
   }
 
+  /**
+   * @return whether scanners of this store should merge with a {@link LoserTreeKeyValueHeap}
+   */
+  boolean isLoserTreeHeap() {
+    return this.loserTreeHeap;
+  }
+
   public HRegion getHRegion() {
     return this.region;
   }
@@ -1778,12 +1836,15 @@ public class HStore implements Store {
 
   @Override
   public long upsert(Iterable<Cell> cells, long readpoint) throws IOException {
+    long size;
     this.lock.readLock().lock();
     try {
-      return this.memstore.upsert(cells, readpoint);
+      size = this.memstore.upsert(cells, readpoint);
     } finally {
       this.lock.readLock().unlock();
     }
+    requestInMemoryCompactionIfNeeded();
+    return size;
   }
 
   @Override
@@ -1806,12 +1867,13 @@ public class HStore implements Store {
     @Override
     public void prepare() {
       memstore.snapshot();
-      this.snapshot = memstore.getSnapshot();
       this.snapshotTimeRangeTracker = memstore.getSnapshotTimeRangeTracker();
     }
 
     @Override
     public void flushCache(MonitoredTask status) throws IOException {
+      // Outside the region's updates lock, as this may merge the snapshot's flat segments
+      this.snapshot = memstore.getSnapshot();
       tempFiles = HStore.this.flushCache(
         cacheFlushSeqNum, snapshot, snapshotTimeRangeTracker, flushedSize, status);
     }
@@ -1865,7 +1927,7 @@ public class HStore implements Store {
 
   public static final long FIXED_OVERHEAD =
       ClassSize.align(ClassSize.OBJECT + (15 * ClassSize.REFERENCE) + (4 * Bytes.SIZEOF_LONG)
-              + (5 * Bytes.SIZEOF_INT) + (2 * Bytes.SIZEOF_BOOLEAN));
+              + (5 * Bytes.SIZEOF_INT) + (3 * Bytes.SIZEOF_BOOLEAN));
 
   public static final long DEEP_OVERHEAD = ClassSize.align(FIXED_OVERHEAD
       + ClassSize.OBJECT + ClassSize.REENTRANT_LOCK
@@ -1896,8 +1958,14 @@ public class HStore implements Store {
     this.scanInfo = scanInfo;
   }
 
+  @Override
+  public double getCompactionPressure() {
+    return this.storeEngine.getStoreFileManager().getCompactionPressure();
+  }
+
   @Override
   public boolean hasTooManyStoreFiles() {
-    return getStorefilesCount() > this.blockingFileCount;
+    // The store file manager knows how many of the files a read has to go through.
+    return this.storeEngine.getStoreFileManager().getStoreCompactionPriority() < 0;
   }
 }
@@ -20,6 +20,7 @@
 package org.apache.hadoop.hbase.regionserver;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
 import java.util.PriorityQueue;
@@ -58,7 +59,7 @@ public class KeyValueHeap extends NonLazyKeyValueScanner
    */
   private KeyValueScanner current = null;
 
-  private KVScannerComparator comparator;
+  protected final KVScannerComparator comparator;
 
   /**
    * Constructor.  This KeyValueHeap will handle closing of passed in
@@ -68,7 +69,7 @@ public class KeyValueHeap extends NonLazyKeyValueScanner
    */
   public KeyValueHeap(List<? extends KeyValueScanner> scanners,
       KVComparator comparator) throws IOException {
-    this.comparator = new KVScannerComparator(comparator);
+    this(comparator);
     if (!scanners.isEmpty()) {
       this.heap = new PriorityQueue<KeyValueScanner>(scanners.size(),
           this.comparator);
@@ -83,6 +84,24 @@ public class KeyValueHeap extends NonLazyKeyValueScanner
     }
   }
 
+  /**
+   * For subclasses that merge the scanners their own way.
+   */
+  protected KeyValueHeap(KVComparator comparator) {
+    this.comparator = new KVScannerComparator(comparator);
+  }
+
+  /**
+   * Creates a KeyValueHeap, or a {@link LoserTreeKeyValueHeap} if asked for. This KeyValueHeap
+   * will handle closing of passed in KeyValueScanners.
+   * @param loserTree whether to merge with a tournament tree rather than a priority queue
+   */
+  public static KeyValueHeap create(List<? extends KeyValueScanner> scanners,
+      KVComparator comparator, boolean loserTree) throws IOException {
+    return loserTree ? new LoserTreeKeyValueHeap(scanners, comparator)
+        : new KeyValueHeap(scanners, comparator);
+  }
+
   public KeyValue peek() {
     if (this.current == null) {
       return null;
@@ -158,7 +177,7 @@ public class KeyValueHeap extends NonLazyKeyValueScanner
     return next(result, -1);
   }
 
-  private static class KVScannerComparator implements Comparator<KeyValueScanner> {
+  static class KVScannerComparator implements Comparator<KeyValueScanner> {
     private KVComparator kvComparator;
     /**
      * Constructor
@@ -371,9 +390,9 @@ public class KeyValueHeap extends NonLazyKeyValueScanner
   }
 
   /**
-   * @return the current Heap
+   * @return the scanners other than the current one
    */
-  public PriorityQueue<KeyValueScanner> getHeap() {
+  public Collection<KeyValueScanner> getHeap() {
     return this.heap;
   }
 
@@ -24,6 +24,7 @@ import org.apache.hadoop.hbase.KeyValue;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.NavigableSet;
 import java.util.SortedSet;
 import java.util.concurrent.ConcurrentNavigableMap;
@@ -56,7 +57,8 @@ class KeyValueSkipListSet implements NavigableSet<KeyValue> {
   }
 
   public KeyValue ceiling(KeyValue e) {
-    throw new UnsupportedOperationException("Not implemented");
+    Map.Entry<KeyValue, KeyValue> entry = this.delegatee.ceilingEntry(e);
+    return entry == null ? null : entry.getValue();
   }
 
   public Iterator<KeyValue> descendingIterator() {
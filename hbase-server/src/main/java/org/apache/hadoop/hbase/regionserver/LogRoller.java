@@ -21,32 +21,37 @@ package org.apache.hadoop.hbase.regionserver;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
-import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.*;
 import org.apache.hadoop.hbase.regionserver.wal.FailedLogCloseException;
 import org.apache.hadoop.hbase.regionserver.wal.HLog;
-import org.apache.hadoop.hbase.regionserver.wal.HLogKey;
-import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
 import org.apache.hadoop.hbase.regionserver.wal.WALActionsListener;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.HasThread;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Runs periodically to determine if the HLog should be rolled.
+ * Runs periodically to determine if the HLogs should be rolled.
+ *
+ * A roller looks after every WAL given to it with {@link #addWAL(HLog)}. A roll requested by
+ * a WAL rolls that WAL only; the periodic roll rolls them all.
  *
  * NOTE: This class extends Thread rather than Chore because the sleep time
  * can be interrupted when there is something to do, rather than the Chore
  * sleep time which is invariant.
  */
 @InterfaceAudience.Private
-class LogRoller extends HasThread implements WALActionsListener {
+class LogRoller extends HasThread {
   static final Log LOG = LogFactory.getLog(LogRoller.class);
   private final ReentrantLock rollLock = new ReentrantLock();
   private final AtomicBoolean rollLog = new AtomicBoolean(false);
+  // The WALs we look after, and whether each has asked to be rolled
+  private final ConcurrentHashMap<HLog, Boolean> walNeedsRoll =
+    new ConcurrentHashMap<HLog, Boolean>();
   private final Server server;
   protected final RegionServerServices services;
   private volatile long lastrolltime = System.currentTimeMillis();
@@ -65,6 +70,22 @@ class LogRoller extends HasThread implements WALActionsListener {
       getInt(HConstants.THREAD_WAKE_FREQUENCY, 10 * 1000);
   }
 
+  /**
+   * Start looking after <code>wal</code>.
+   * @param wal the WAL to roll
+   */
+  public void addWAL(final HLog wal) {
+    if (null == walNeedsRoll.putIfAbsent(wal, Boolean.FALSE)) {
+      wal.registerWALActionsListener(new WALActionsListener.Base() {
+        @Override
+        public void logRollRequested() {
+          walNeedsRoll.put(wal, Boolean.TRUE);
+          LogRoller.this.logRollRequested();
+        }
+      });
+    }
+  }
+
   @Override
   public void run() {
     while (!server.isStopped()) {
@@ -92,10 +113,19 @@ class LogRoller extends HasThread implements WALActionsListener {
       rollLock.lock(); // FindBugs UL_UNRELEASED_LOCK_EXCEPTION_PATH
       try {
         this.lastrolltime = now;
-        // This is array of actual region names.
-        byte [][] regionsToFlush = getWAL().rollWriter(rollLog.get());
-        if (regionsToFlush != null) {
-          for (byte [] r: regionsToFlush) scheduleFlush(r);
+        // Clear the flag before rolling so a request made during the roll is not lost
+        rollLog.set(false);
+        for (Map.Entry<HLog, Boolean> entry : walNeedsRoll.entrySet()) {
+          HLog wal = entry.getKey();
+          // Like rollLog, cleared before the roll, and only if still set so that a request
+          // made since we read it is not lost.
+          boolean requested = walNeedsRoll.replace(wal, Boolean.TRUE, Boolean.FALSE);
+          if (!periodic && !requested) continue;
+          // This is array of actual region names.
+          byte [][] regionsToFlush = wal.rollWriter(requested);
+          if (regionsToFlush != null) {
+            for (byte [] r: regionsToFlush) scheduleFlush(r);
+          }
         }
       } catch (FailedLogCloseException e) {
         server.abort("Failed log close in log roller", e);
@@ -109,11 +139,7 @@ class LogRoller extends HasThread implements WALActionsListener {
         LOG.error("Log rolling failed", ex);
         server.abort("Log rolling failed", ex);
       } finally {
-        try {
-          rollLog.set(false);
-        } finally {
-          rollLock.unlock();
-        }
+        rollLock.unlock();
       }
     }
     LOG.info("LogRoller exiting.");
@@ -159,45 +185,4 @@ class LogRoller extends HasThread implements WALActionsListener {
       rollLock.unlock();
     }
   }
-
-  protected HLog getWAL() throws IOException {
-    return this.services.getWAL(null);
-  }
-
-  @Override
-  public void preLogRoll(Path oldPath, Path newPath) throws IOException {
-    // Not interested
-  }
-
-  @Override
-  public void postLogRoll(Path oldPath, Path newPath) throws IOException {
-    // Not interested
-  }
-
-  @Override
-  public void preLogArchive(Path oldPath, Path newPath) throws IOException {
-    // Not interested
-  }
-
-  @Override
-  public void postLogArchive(Path oldPath, Path newPath) throws IOException {
-    // Not interested
-  }
-
-  @Override
-  public void visitLogEntryBeforeWrite(HRegionInfo info, HLogKey logKey,
-      WALEdit logEdit) {
-    // Not interested.
-  }
-
-  @Override
-  public void visitLogEntryBeforeWrite(HTableDescriptor htd, HLogKey logKey,
-                                       WALEdit logEdit) {
-    //Not interested
-  }
-
-  @Override
-  public void logCloseRequested() {
-    // not interested
-  }
 }
@@ -0,0 +1,241 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValue.KVComparator;
+import org.apache.hadoop.hbase.util.LoserTree;
+
+/**
+ * A {@link KeyValueHeap} that merges its scanners with a {@link LoserTree} instead of a
+ * priority queue. The scanners keep their place in the tree; the current one is the head.
+ * When it moves on, it is replayed against the losers above it, log(n) comparisons, where a
+ * priority queue pays for a poll and an add. While the same scanner keeps winning, as when the
+ * files hold runs of adjacent cells, it is compared with the runner-up instead and nothing else
+ * is done while it is still ahead, which is one comparison.
+ * <p>
+ * Keeps the same invariants as KeyValueHeap: the current scanner has done a real seek.
+ */
+@InterfaceAudience.Private
+public class LoserTreeKeyValueHeap extends KeyValueHeap {
+  private final LoserTree<KeyValueScanner> tree;
+  /** Whether the last replay of the current scanner left it the head */
+  private boolean headStayed = false;
+
+  /**
+   * Constructor.  This KeyValueHeap will handle closing of passed in
+   * KeyValueScanners.
+   */
+  public LoserTreeKeyValueHeap(List<? extends KeyValueScanner> scanners,
+      KVComparator comparator) throws IOException {
+    super(comparator);
+    List<KeyValueScanner> live = new ArrayList<KeyValueScanner>(scanners.size());
+    for (KeyValueScanner scanner : scanners) {
+      if (scanner.peek() != null) {
+        live.add(scanner);
+      } else {
+        scanner.close();
+      }
+    }
+    this.tree = new LoserTree<KeyValueScanner>(live, this.comparator);
+    realSeekHead();
+  }
+
+  @Override
+  public KeyValue peek() {
+    KeyValueScanner current = this.tree.peek();
+    return current == null ? null : current.peek();
+  }
+
+  @Override
+  public KeyValue next() throws IOException {
+    KeyValueScanner current = this.tree.peek();
+    if (current == null) {
+      return null;
+    }
+    KeyValue kvReturn = current.next();
+    KeyValue kvNext = current.peek();
+    if (kvNext == null) {
+      current.close();
+      this.tree.poll();
+      realSeekHead();
+    } else if (this.headStayed) {
+      // Likely a run of cells from the same scanner; one comparison if it goes on
+      KeyValueScanner runnerUp = this.tree.peekRunnerUp();
+      if (runnerUp != null && this.comparator.compare(kvNext, runnerUp.peek()) >= 0) {
+        replayHead(current);
+      }
+    } else {
+      replayHead(current);
+    }
+    return kvReturn;
+  }
+
+  /**
+   * Replays the current scanner, which has moved on. Finding the runner-up costs as much as the
+   * replay, so it is only looked at while the same scanner stays the head.
+   */
+  private void replayHead(KeyValueScanner current) throws IOException {
+    this.headStayed = this.tree.updateHead() == current;
+    realSeekHead();
+  }
+
+  @Override
+  public boolean next(List<Cell> result, int limit) throws IOException {
+    KeyValueScanner current = this.tree.peek();
+    if (current == null) {
+      return false;
+    }
+    InternalScanner currentAsInternal = (InternalScanner)current;
+    boolean mayContainMoreRows = currentAsInternal.next(result, limit);
+    KeyValue pee = current.peek();
+    // See KeyValueHeap#next(List, int) for why a scanner that returned false is closed
+    if (pee == null || !mayContainMoreRows) {
+      current.close();
+      this.tree.poll();
+    } else {
+      this.tree.updateHead();
+    }
+    realSeekHead();
+    return this.tree.peek() != null;
+  }
+
+  @Override
+  public void close() {
+    KeyValueScanner scanner;
+    while ((scanner = this.tree.poll()) != null) {
+      scanner.close();
+    }
+  }
+
+  @Override
+  public boolean seek(KeyValue seekKey) throws IOException {
+    return generalizedSeek(false, seekKey, false, false);
+  }
+
+  @Override
+  public boolean reseek(KeyValue seekKey) throws IOException {
+    return generalizedSeek(false, seekKey, true, false);
+  }
+
+  @Override
+  public boolean requestSeek(KeyValue key, boolean forward,
+      boolean useBloom) throws IOException {
+    return generalizedSeek(true, key, forward, useBloom);
+  }
+
+  /**
+   * Seeks the scanners in the order of their keys, the least first, until the least is at or
+   * after the seek key. See KeyValueHeap#generalizedSeek.
+   */
+  private boolean generalizedSeek(boolean isLazy, KeyValue seekKey,
+      boolean forward, boolean useBloom) throws IOException {
+    if (!isLazy && useBloom) {
+      throw new IllegalArgumentException("Multi-column Bloom filter " +
+          "optimization requires a lazy seek");
+    }
+
+    KeyValueScanner scanner;
+    while ((scanner = this.tree.peek()) != null) {
+      KeyValue topKey = scanner.peek();
+      if (this.comparator.getComparator().compare(seekKey, topKey) <= 0) {
+        // As in KeyValueHeap, the head may have done a lazy seek only
+        realSeekHead();
+        return this.tree.peek() != null;
+      }
+
+      boolean seekResult;
+      if (isLazy && this.tree.size() > 1) {
+        // If there is only one scanner left, we don't do lazy seek.
+        seekResult = scanner.requestSeek(seekKey, forward, useBloom);
+      } else {
+        seekResult = NonLazyKeyValueScanner.doRealSeek(
+            scanner, seekKey, forward);
+      }
+
+      if (!seekResult) {
+        scanner.close();
+        this.tree.poll();
+      } else {
+        this.tree.updateHead();
+      }
+    }
+
+    // Tree is empty, scanner is done
+    return false;
+  }
+
+  /**
+   * Makes the head of the tree a scanner that has done a real seek, the equivalent of
+   * KeyValueHeap#pollRealKV. A scanner that only did a lazy seek is at a key no greater than
+   * its real next one, so once a scanner that has done a real seek is the head, its key is the
+   * least of all.
+   */
+  private void realSeekHead() throws IOException {
+    KeyValueScanner kvScanner;
+    while ((kvScanner = this.tree.peek()) != null && !kvScanner.realSeekDone()) {
+      if (kvScanner.peek() != null) {
+        kvScanner.enforceSeek();
+        KeyValue curKV = kvScanner.peek();
+        if (curKV != null) {
+          KeyValueScanner nextEarliestScanner = this.tree.peekRunnerUp();
+          if (nextEarliestScanner == null) {
+            // The only scanner left.
+            return;
+          }
+          // Still the least, no need to replay it.
+          KeyValue nextKV = nextEarliestScanner.peek();
+          if (nextKV == null || this.comparator.compare(curKV, nextKV) < 0) {
+            return;
+          }
+          // Otherwise let it compete against all other scanners again.
+          this.tree.updateHead();
+          continue;
+        }
+      }
+      // Close the scanner because it has run out of KVs, before or after the real seek.
+      kvScanner.close();
+      this.tree.poll();
+    }
+  }
+
+  /**
+   * @return the scanners other than the current one
+   */
+  @Override
+  public Collection<KeyValueScanner> getHeap() {
+    List<KeyValueScanner> scanners = new ArrayList<KeyValueScanner>(this.tree.size());
+    KeyValueScanner current = this.tree.peek();
+    for (KeyValueScanner scanner : this.tree) {
+      if (scanner != current) scanners.add(scanner);
+    }
+    return scanners;
+  }
+
+  @Override
+  KeyValueScanner getCurrentForTesting() {
+    return this.tree.peek();
+  }
+}
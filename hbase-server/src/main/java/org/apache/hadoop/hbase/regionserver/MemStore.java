@@ -28,6 +28,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.NavigableSet;
 import java.util.SortedSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -46,6 +50,7 @@ import org.apache.hadoop.hbase.regionserver.MemStoreLAB.Allocation;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.ClassSize;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.Threads;
 
 /**
  * The MemStore holds in-memory modifications to the Store.  Modifications
@@ -53,6 +58,16 @@ import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
  * to snapshot and is cleared.  We continue to serve edits out of new memstore
  * and backing snapshot until flusher reports in that the flush succeeded. At
  * this point we let the snapshot go.
+ * <p>
+ * With in-memory compaction enabled, the active set is folded into an immutable
+ * {@link FlatKeyValueSet} whenever it grows past a threshold. The flat segments hold the
+ * same KeyValues in a fraction of the heap, so the memstore takes far more edits before it
+ * has to flush. Once there are too many segments they are merged into one. Reads merge the
+ * active set, the segments and the snapshot.
+ * <p>
+ * If an off-heap memstore limit is configured as well, folding copies the data into off-heap
+ * chunks and hands the on-heap chunks of the folded set back to the pool, so the segments
+ * take almost no heap at all. Off-heap use is tracked apart from the heap size.
  * TODO: Adjust size of the memstore when we remove items because they have
  * been deleted.
  * TODO: With new KVSLS, need to make sure we update HeapSize with difference
@@ -66,6 +81,24 @@ public class MemStore implements HeapSize {
     "hbase.hregion.memstore.mslab.enabled";
   private static final boolean USEMSLAB_DEFAULT = true;
 
+  static final String INMEMORY_COMPACTION_KEY =
+    "hbase.hregion.memstore.inmemory.compaction.enabled";
+  private static final boolean INMEMORY_COMPACTION_DEFAULT = false;
+  /** Heap size the active set grows to before it is folded into a flat segment */
+  static final String INMEMORY_COMPACTION_THRESHOLD_KEY =
+    "hbase.hregion.memstore.inmemory.compaction.threshold";
+  private static final long INMEMORY_COMPACTION_THRESHOLD_DEFAULT = 8 * 1024 * 1024;
+  /** Number of flat segments beyond which a fold merges all of them into one */
+  static final String INMEMORY_COMPACTION_MAX_SEGMENTS_KEY =
+    "hbase.hregion.memstore.inmemory.compaction.max.segments";
+  private static final int INMEMORY_COMPACTION_MAX_SEGMENTS_DEFAULT = 4;
+  /** Threads folding memstores, shared by all regions of the server */
+  static final String INMEMORY_COMPACTION_THREADS_KEY =
+    "hbase.hregion.memstore.inmemory.compaction.threads";
+  private static final int INMEMORY_COMPACTION_THREADS_DEFAULT = 2;
+
+  private static ThreadPoolExecutor inMemoryCompactionPool;
+
   private Configuration conf;
 
   // MemStore.  Use a KeyValueSkipListSet rather than SkipListSet because of the
@@ -75,8 +108,27 @@ public class MemStore implements HeapSize {
   // reference passed.
   volatile KeyValueSkipListSet kvset;
 
-  // Snapshot of memstore.  Made for flusher.
-  volatile KeyValueSkipListSet snapshot;
+  // Flat segments folded from the active set, newest first.  Never modified, only replaced.
+  volatile List<FlatKeyValueSet> segments = Collections.emptyList();
+
+  // Fold of the active set in progress, if any
+  volatile InMemoryCompaction inMemoryCompaction;
+  private volatile boolean inMemoryCompactionRequested;
+
+  // Heap used by the segments and by a set being folded; size less this is the active set
+  private volatile long immutableSize;
+
+  // Active set heap size that triggers a fold, -1 if in-memory compaction is disabled
+  private final long inMemoryCompactionThreshold;
+  private final int inMemoryCompactionMaxSegments;
+
+  // Snapshot of memstore.  Made for flusher.  A KeyValueSkipListSet unless there were flat
+  // segments to snapshot, in which case getSnapshot() makes it a FlatKeyValueSet.
+  volatile NavigableSet<KeyValue> snapshot;
+
+  // Sets the snapshot took along with the active set, newest first: a fold in progress and
+  // the flat segments.  getSnapshot() merges them into the snapshot outside the lock.
+  volatile List<NavigableSet<KeyValue>> snapshotSegments = Collections.emptyList();
 
   final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 
@@ -95,6 +147,16 @@ public class MemStore implements HeapSize {
   volatile MemStoreLAB allocator;
   volatile MemStoreLAB snapshotAllocator;
 
+  // Off-heap chunks the flat segments and the snapshot copied from them keep their data in,
+  // if any.  Null unless both MSLAB and in-memory compaction are enabled and an off-heap
+  // chunk pool is configured.
+  MemStoreChunkPool offheapChunkPool;
+  volatile MemStoreLAB offheapAllocator;
+  volatile MemStoreLAB snapshotOffheapAllocator;
+
+  // Off-heap bytes taken by the segments
+  private volatile long offheapSize;
+
   /**
    * Default constructor. Used for tests.
    */
@@ -122,14 +184,35 @@ public class MemStore implements HeapSize {
       this.allocator = null;
       this.chunkPool = null;
     }
+    if (conf.getBoolean(INMEMORY_COMPACTION_KEY, INMEMORY_COMPACTION_DEFAULT)) {
+      this.inMemoryCompactionThreshold = conf.getLong(INMEMORY_COMPACTION_THRESHOLD_KEY,
+        INMEMORY_COMPACTION_THRESHOLD_DEFAULT);
+    } else {
+      this.inMemoryCompactionThreshold = -1;
+    }
+    this.inMemoryCompactionMaxSegments = Math.max(1, conf.getInt(
+      INMEMORY_COMPACTION_MAX_SEGMENTS_KEY, INMEMORY_COMPACTION_MAX_SEGMENTS_DEFAULT));
+    if (this.allocator != null && this.inMemoryCompactionThreshold >= 0) {
+      this.offheapChunkPool = MemStoreChunkPool.getOffheapPool(conf);
+    }
+    if (this.offheapChunkPool != null) {
+      this.offheapAllocator = new MemStoreLAB(conf, offheapChunkPool);
+    }
   }
 
   void dump() {
     for (KeyValue kv: this.kvset) {
       LOG.info(kv);
     }
-    for (KeyValue kv: this.snapshot) {
-      LOG.info(kv);
+    for (NavigableSet<KeyValue> set: getImmutableSets()) {
+      for (KeyValue kv: set) {
+        LOG.info(kv);
+      }
+    }
+    for (NavigableSet<KeyValue> set: getSnapshotSets()) {
+      for (KeyValue kv: set) {
+        LOG.info(kv);
+      }
     }
   }
 
@@ -143,12 +226,25 @@ public class MemStore implements HeapSize {
     try {
       // If snapshot currently has entries, then flusher failed or didn't call
       // cleanup.  Log a warning.
-      if (!this.snapshot.isEmpty()) {
+      if (!this.snapshot.isEmpty() || !this.snapshotSegments.isEmpty()) {
         LOG.warn("Snapshot called again without clearing previous. " +
           "Doing nothing. Another ongoing flush or did we fail last attempt?");
       } else {
-        if (!this.kvset.isEmpty()) {
+        List<NavigableSet<KeyValue>> immutableSets = getImmutableSets();
+        if (!this.kvset.isEmpty() || !immutableSets.isEmpty()) {
           this.snapshot = this.kvset;
+          if (!immutableSets.isEmpty()) {
+            // The flusher merges these with the active set through getSnapshot(), once we no
+            // longer hold up writes.  A fold in progress is dropped; its sets are in the
+            // snapshot now.
+            this.snapshotSegments = Collections.unmodifiableList(immutableSets);
+            if (this.inMemoryCompaction != null) {
+              this.inMemoryCompaction.cancelled = true;
+              this.inMemoryCompaction = null;
+            }
+            this.segments = Collections.emptyList();
+            this.immutableSize = 0;
+          }
           this.kvset = new KeyValueSkipListSet(this.comparator);
           this.snapshotTimeRangeTracker = this.timeRangeTracker;
           this.timeRangeTracker = new TimeRangeTracker();
@@ -159,6 +255,11 @@ public class MemStore implements HeapSize {
           if (allocator != null) {
             this.allocator = new MemStoreLAB(conf, chunkPool);
           }
+          this.snapshotOffheapAllocator = this.offheapAllocator;
+          if (offheapAllocator != null) {
+            this.offheapAllocator = new MemStoreLAB(conf, offheapChunkPool);
+          }
+          this.offheapSize = 0;
           timeOfOldestEdit = Long.MAX_VALUE;
         }
       }
@@ -170,13 +271,36 @@ public class MemStore implements HeapSize {
   /**
    * Return the current snapshot.
    * Called by flusher to get current snapshot made by a previous
-   * call to {@link #snapshot()}
+   * call to {@link #snapshot()}.  If the snapshot took flat segments, they are merged with
+   * the rest of it into one flat set here, without holding up writes, so the flusher should
+   * call this outside the region's updates lock.
    * @return Return snapshot.
    * @see {@link #snapshot()}
    * @see {@link #clearSnapshot(SortedSet<KeyValue>)}
    */
-  KeyValueSkipListSet getSnapshot() {
-    return this.snapshot;
+  NavigableSet<KeyValue> getSnapshot() {
+    NavigableSet<KeyValue> active = this.snapshot;
+    List<NavigableSet<KeyValue>> segments = this.snapshotSegments;
+    if (segments.isEmpty()) {
+      return active;
+    }
+    // None of these sets takes edits any more, so they can be read without the lock
+    List<NavigableSet<KeyValue>> sets =
+      new ArrayList<NavigableSet<KeyValue>>(segments.size() + 1);
+    sets.add(active);
+    sets.addAll(segments);
+    FlatKeyValueSet merged = FlatKeyValueSet.create(this.comparator, sets);
+    this.lock.writeLock().lock();
+    try {
+      // Another caller may have merged them already
+      if (this.snapshot == active && this.snapshotSegments == segments) {
+        this.snapshot = merged;
+        this.snapshotSegments = Collections.emptyList();
+      }
+      return this.snapshot;
+    } finally {
+      this.lock.writeLock().unlock();
+    }
   }
 
   /**
@@ -188,6 +312,7 @@ public class MemStore implements HeapSize {
   void clearSnapshot(final SortedSet<KeyValue> ss)
   throws UnexpectedException {
     MemStoreLAB tmpAllocator = null;
+    MemStoreLAB tmpOffheapAllocator = null;
     this.lock.writeLock().lock();
     try {
       if (this.snapshot != ss) {
@@ -196,6 +321,7 @@ public class MemStore implements HeapSize {
       }
       // OK. Passed in snapshot is same as current snapshot.  If not-empty,
       // create a new snapshot and let the old one go.
+      this.snapshotSegments = Collections.emptyList();
       if (!ss.isEmpty()) {
         this.snapshot = new KeyValueSkipListSet(this.comparator);
         this.snapshotTimeRangeTracker = new TimeRangeTracker();
@@ -204,12 +330,230 @@ public class MemStore implements HeapSize {
         tmpAllocator = this.snapshotAllocator;
         this.snapshotAllocator = null;
       }
+      tmpOffheapAllocator = this.snapshotOffheapAllocator;
+      this.snapshotOffheapAllocator = null;
     } finally {
       this.lock.writeLock().unlock();
     }
     if (tmpAllocator != null) {
       tmpAllocator.close();
     }
+    if (tmpOffheapAllocator != null) {
+      tmpOffheapAllocator.close();
+    }
+  }
+
+  /**
+   * A fold of the active set into a flat segment, from {@link MemStore#compactInMemory()} to
+   * {@link MemStore#finishInMemoryCompaction(InMemoryCompaction)}.
+   */
+  static class InMemoryCompaction {
+    // The former active set
+    final KeyValueSkipListSet compacting;
+    // Heap accounted to it while it was the active set
+    final long compactingSize;
+    // Segments merged into the result along with it
+    final List<FlatKeyValueSet> merging;
+    // Allocator the former active set was written through, and the one the result copies
+    // its data into if it goes off-heap.  Both are pinned while the result is built.
+    final MemStoreLAB allocator;
+    final MemStoreLAB offheapAllocator;
+    // Edits rolled back out of the sets being folded; the result must not have them
+    final List<KeyValue> rolledBack = Collections.synchronizedList(new ArrayList<KeyValue>());
+    FlatKeyValueSet result;
+    // Off-heap bytes the result took
+    long offheapDelta;
+    // Set when a snapshot took the sets being folded
+    volatile boolean cancelled = false;
+
+    InMemoryCompaction(KeyValueSkipListSet compacting, long compactingSize,
+        List<FlatKeyValueSet> merging, MemStoreLAB allocator, MemStoreLAB offheapAllocator) {
+      this.compacting = compacting;
+      this.compactingSize = compactingSize;
+      this.merging = merging;
+      this.allocator = allocator;
+      this.offheapAllocator = offheapAllocator;
+    }
+  }
+
+  /*
+   * @return the sets between the active set and the snapshot, newest first: the set being
+   * folded, if any, then the flat segments.
+   */
+  private List<NavigableSet<KeyValue>> getImmutableSets() {
+    InMemoryCompaction compaction = this.inMemoryCompaction;
+    List<FlatKeyValueSet> segments = this.segments;
+    if (compaction == null && segments.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<NavigableSet<KeyValue>> sets =
+      new ArrayList<NavigableSet<KeyValue>>(segments.size() + 1);
+    if (compaction != null) {
+      sets.add(compaction.compacting);
+    }
+    sets.addAll(segments);
+    return sets;
+  }
+
+  /*
+   * @return the sets of the snapshot, newest first: the set it took from the active set, then
+   * those getSnapshot() has not merged into it yet.
+   */
+  private List<NavigableSet<KeyValue>> getSnapshotSets() {
+    NavigableSet<KeyValue> snapshot = this.snapshot;
+    List<NavigableSet<KeyValue>> segments = this.snapshotSegments;
+    if (segments.isEmpty()) {
+      return Collections.singletonList(snapshot);
+    }
+    List<NavigableSet<KeyValue>> sets =
+      new ArrayList<NavigableSet<KeyValue>>(segments.size() + 1);
+    sets.add(snapshot);
+    sets.addAll(segments);
+    return sets;
+  }
+
+  /**
+   * Checks whether the active set has grown enough to be folded into a flat segment. If so,
+   * and no other fold is running, the caller gets to run one: it must call
+   * {@link #compactInMemory()} next, then {@link #finishInMemoryCompaction(InMemoryCompaction)}
+   * if that returned a fold.
+   * @return true if the caller should run an in-memory compaction
+   */
+  boolean shouldCompactInMemory() {
+    if (this.inMemoryCompactionThreshold < 0 || this.inMemoryCompactionRequested ||
+        this.size.get() - DEEP_OVERHEAD - this.immutableSize < this.inMemoryCompactionThreshold) {
+      return false;
+    }
+    synchronized (this) {
+      if (this.inMemoryCompactionRequested) return false;
+      this.inMemoryCompactionRequested = true;
+      return true;
+    }
+  }
+
+  /**
+   * Moves the active set aside and builds a flat segment out of it, merging in the existing
+   * segments too if there are as many as the configured maximum. Edits go to a new active set
+   * meanwhile, and reads still see the set being folded.
+   * @return the fold to finish, or null if there was nothing to fold
+   */
+  InMemoryCompaction compactInMemory() {
+    InMemoryCompaction compaction = null;
+    this.lock.writeLock().lock();
+    try {
+      if (!this.kvset.isEmpty()) {
+        List<FlatKeyValueSet> merging = this.segments.size() >= this.inMemoryCompactionMaxSegments?
+          this.segments: Collections.<FlatKeyValueSet>emptyList();
+        long activeSize = this.size.get() - DEEP_OVERHEAD - this.immutableSize;
+        compaction = new InMemoryCompaction(this.kvset, activeSize, merging, this.allocator,
+          this.offheapAllocator);
+        this.inMemoryCompaction = compaction;
+        this.kvset = new KeyValueSkipListSet(this.comparator);
+        this.immutableSize += activeSize;
+        if (this.offheapAllocator != null) {
+          // The folded data goes off-heap, so the chunks it is in now can go back to the pool
+          // once the fold is in.  New edits need chunks of their own for that.
+          this.allocator = new MemStoreLAB(conf, chunkPool);
+        }
+        if (compaction.allocator != null) compaction.allocator.incScannerCount();
+        if (compaction.offheapAllocator != null) compaction.offheapAllocator.incScannerCount();
+      }
+    } finally {
+      if (compaction == null) {
+        this.inMemoryCompactionRequested = false;
+      }
+      this.lock.writeLock().unlock();
+    }
+    if (compaction == null) {
+      return null;
+    }
+    List<NavigableSet<KeyValue>> sets =
+      new ArrayList<NavigableSet<KeyValue>>(compaction.merging.size() + 1);
+    sets.add(compaction.compacting);
+    sets.addAll(compaction.merging);
+    MemStoreLAB offheap = compaction.offheapAllocator;
+    long offheapBefore = offheap == null ? 0 : offheap.getChunkBytes();
+    try {
+      compaction.result = FlatKeyValueSet.create(this.comparator, sets, offheap);
+    } catch (RuntimeException e) {
+      LOG.warn("Failed to fold the memstore active set", e);
+    } finally {
+      if (offheap != null) {
+        compaction.offheapDelta = offheap.getChunkBytes() - offheapBefore;
+        offheap.decScannerCount();
+      }
+      if (compaction.allocator != null) compaction.allocator.decScannerCount();
+    }
+    return compaction;
+  }
+
+  /**
+   * Replaces the set folded by {@link #compactInMemory()}, and the segments merged with it, by
+   * the flat segment built out of them. Does nothing if a snapshot took them meanwhile.
+   * The caller must make sure no flush reads the memstore size while this runs; HRegion holds
+   * its updates lock.
+   * @return change in heap size of this memstore, zero or less. The off-heap bytes the fold
+   * took are left in the offheapDelta of the passed fold.
+   */
+  long finishInMemoryCompaction(final InMemoryCompaction compaction) {
+    this.lock.writeLock().lock();
+    try {
+      if (compaction.cancelled) {
+        // Whatever it took off-heap is freed along with the snapshot
+        compaction.offheapDelta = 0;
+        return 0;
+      }
+      this.inMemoryCompaction = null;
+      this.offheapSize += compaction.offheapDelta;
+      FlatKeyValueSet result = compaction.result;
+      if (result == null) {
+        // The fold failed.  Put what it held back into the active set.
+        for (KeyValue kv : compaction.compacting) {
+          if (!this.kvset.contains(kv)) this.kvset.add(kv);
+        }
+        this.immutableSize -= compaction.compactingSize;
+        return 0;
+      }
+      for (KeyValue kv : compaction.rolledBack) {
+        result.remove(kv);
+      }
+      long delta = result.heapSize() - compaction.compactingSize;
+      List<FlatKeyValueSet> segments = new ArrayList<FlatKeyValueSet>(this.segments.size() + 1);
+      segments.add(result);
+      if (compaction.merging.isEmpty()) {
+        segments.addAll(this.segments);
+      } else {
+        for (FlatKeyValueSet segment : compaction.merging) {
+          delta -= segment.heapSize();
+        }
+      }
+      this.segments = Collections.unmodifiableList(segments);
+      this.immutableSize += delta;
+      this.size.addAndGet(delta);
+      if (compaction.offheapAllocator != null && compaction.allocator != null) {
+        // Nothing refers to the on-heap chunks of the folded set any more, but for scanners
+        // opened before now, which hold on to them
+        compaction.allocator.close();
+      }
+      return delta;
+    } finally {
+      this.inMemoryCompactionRequested = false;
+      this.lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @return the pool folding the memstores of all regions in this process
+   */
+  static synchronized Executor getInMemoryCompactionPool(final Configuration conf) {
+    if (inMemoryCompactionPool == null) {
+      int threads = conf.getInt(INMEMORY_COMPACTION_THREADS_KEY,
+        INMEMORY_COMPACTION_THREADS_DEFAULT);
+      inMemoryCompactionPool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), Threads.newDaemonThreadFactory("MemStoreCompactor"));
+      inMemoryCompactionPool.allowCoreThreadTimeOut(true);
+    }
+    return inMemoryCompactionPool;
   }
 
   /**
@@ -297,22 +641,42 @@ public class MemStore implements HeapSize {
       // not the snapshot. The flush of this snapshot to disk has not
       // yet started because Store.flush() waits for all rwcc transactions to
       // commit before starting the flush to disk.
-      KeyValue found = this.snapshot.get(kv);
-      if (found != null && found.getMvccVersion() == kv.getMvccVersion()) {
-        this.snapshot.remove(kv);
+      for (NavigableSet<KeyValue> set : getSnapshotSets()) {
+        removeIfSameVersion(set, kv);
       }
       // If the key is in the memstore, delete it. Update this.size.
-      found = this.kvset.get(kv);
+      KeyValue found = this.kvset.get(kv);
       if (found != null && found.getMvccVersion() == kv.getMvccVersion()) {
         removeFromKVSet(kv);
         long s = heapSizeChange(kv, true);
         this.size.addAndGet(-s);
       }
+      // An in-memory compaction may have moved it out of the active set already.  It stays
+      // in this.size until the next flush.  A fold in progress removes it from its result.
+      InMemoryCompaction compaction = this.inMemoryCompaction;
+      for (NavigableSet<KeyValue> set : getImmutableSets()) {
+        if (removeIfSameVersion(set, kv) && compaction != null) {
+          compaction.rolledBack.add(kv);
+        }
+      }
     } finally {
       this.lock.readLock().unlock();
     }
   }
 
+  /*
+   * Removes the entry with the same key and memstoreTS as the passed KeyValue.
+   * @return true if there was one
+   */
+  private boolean removeIfSameVersion(final NavigableSet<KeyValue> set, final KeyValue kv) {
+    KeyValue found = set.ceiling(kv);
+    if (found != null && this.comparator.compare(found, kv) == 0 &&
+        found.getMvccVersion() == kv.getMvccVersion()) {
+      return set.remove(kv);
+    }
+    return false;
+  }
+
   /**
    * Write a delete
    * @param delete
@@ -340,7 +704,14 @@ public class MemStore implements HeapSize {
   KeyValue getNextRow(final KeyValue kv) {
     this.lock.readLock().lock();
     try {
-      return getLowest(getNextRow(kv, this.kvset), getNextRow(kv, this.snapshot));
+      KeyValue lowest = getNextRow(kv, this.kvset);
+      for (NavigableSet<KeyValue> set : getImmutableSets()) {
+        lowest = getLowest(lowest, getNextRow(kv, set));
+      }
+      for (NavigableSet<KeyValue> set : getSnapshotSets()) {
+        lowest = getLowest(lowest, getNextRow(kv, set));
+      }
+      return lowest;
     } finally {
       this.lock.readLock().unlock();
     }
@@ -390,7 +761,12 @@ public class MemStore implements HeapSize {
     this.lock.readLock().lock();
     try {
       getRowKeyAtOrBefore(kvset, state);
-      getRowKeyAtOrBefore(snapshot, state);
+      for (NavigableSet<KeyValue> set : getImmutableSets()) {
+        getRowKeyAtOrBefore(set, state);
+      }
+      for (NavigableSet<KeyValue> set : getSnapshotSets()) {
+        getRowKeyAtOrBefore(set, state);
+      }
     } finally {
       this.lock.readLock().unlock();
     }
@@ -492,14 +868,16 @@ public class MemStore implements HeapSize {
       KeyValue firstKv = KeyValue.createFirstOnRow(
           row, family, qualifier);
       // Is there a KeyValue in 'snapshot' with the same TS? If so, upgrade the timestamp a bit.
-      SortedSet<KeyValue> snSs = snapshot.tailSet(firstKv);
-      if (!snSs.isEmpty()) {
-        KeyValue snKv = snSs.first();
-        // is there a matching KV in the snapshot?
-        if (snKv.matchingRow(firstKv) && snKv.matchingQualifier(firstKv)) {
-          if (snKv.getTimestamp() == now) {
-            // poop,
-            now += 1;
+      for (NavigableSet<KeyValue> set : getSnapshotSets()) {
+        SortedSet<KeyValue> snSs = set.tailSet(firstKv);
+        if (!snSs.isEmpty()) {
+          KeyValue snKv = snSs.first();
+          // is there a matching KV in the snapshot?
+          if (snKv.matchingRow(firstKv) && snKv.matchingQualifier(firstKv)) {
+            if (snKv.getTimestamp() == now) {
+              // poop,
+              now += 1;
+            }
           }
         }
       }
@@ -703,33 +1081,30 @@ public class MemStore implements HeapSize {
 
   /*
    * MemStoreScanner implements the KeyValueScanner.
-   * It lets the caller scan the contents of a memstore -- both current
-   * map and snapshot.
+   * It lets the caller scan the contents of a memstore -- the current
+   * map, any flat segments and the snapshot.
    * This behaves as if it were a real scanner but does not maintain position.
    */
   protected class MemStoreScanner extends NonLazyKeyValueScanner {
-    // Next row information for either kvset or snapshot
-    private KeyValue kvsetNextRow = null;
-    private KeyValue snapshotNextRow = null;
-
-    // last iterated KVs for kvset and snapshot (to restore iterator state after reseek)
-    private KeyValue kvsetItRow = null;
-    private KeyValue snapshotItRow = null;
-    
-    // iterator based scanning.
-    private Iterator<KeyValue> kvsetIt;
-    private Iterator<KeyValue> snapshotIt;
+    // The kvset, flat segments and snapshot at the time of creating this scanner,
+    // newest first
+    private final List<NavigableSet<KeyValue>> setsAtCreation;
+
+    // Next row information for each set
+    private final KeyValue[] nextRows;
 
-    // The kvset and snapshot at the time of creating this scanner
-    private KeyValueSkipListSet kvsetAtCreation;
-    private KeyValueSkipListSet snapshotAtCreation;
+    // last iterated KVs for each set (to restore iterator state after reseek)
+    private final KeyValue[] itRows;
 
-    // the pre-calculated KeyValue to be returned by peek() or next()
+    // iterator based scanning.
+    private final Iterator<KeyValue>[] its;
+
+    // the pre-calculated KeyValue to be returned by peek() or next(), and the set it is from
     private KeyValue theNext;
+    private int theNextSet = -1;
 
-    // The allocator and snapshot allocator at the time of creating this scanner
-    volatile MemStoreLAB allocatorAtCreation;
-    volatile MemStoreLAB snapshotAllocatorAtCreation;
+    // The allocators holding the data of the sets above, pinned until we are closed
+    private List<MemStoreLAB> allocatorsAtCreation;
 
     /*
     Some notes...
@@ -750,25 +1125,45 @@ public class MemStore implements HeapSize {
       Currently, this problem is only partly managed: during the small amount of time
       when the StoreScanner has not yet created a new MemStoreScanner, we will miss
       the adds to kvset in the MemStoreScanner.
+
+      An in-memory compaction moves the kvset aside much like a snapshot does, but any
+      edit visible at our read point was added before we were created, so it is in a set
+      we hold.
     */
 
+    @SuppressWarnings("unchecked")
     MemStoreScanner() {
       super();
 
-      kvsetAtCreation = kvset;
-      snapshotAtCreation = snapshot;
-      if (allocator != null) {
-        this.allocatorAtCreation = allocator;
-        this.allocatorAtCreation.incScannerCount();
-      }
-      if (snapshotAllocator != null) {
-        this.snapshotAllocatorAtCreation = snapshotAllocator;
-        this.snapshotAllocatorAtCreation.incScannerCount();
+      List<NavigableSet<KeyValue>> immutableSets = getImmutableSets();
+      List<NavigableSet<KeyValue>> snapshotSets = getSnapshotSets();
+      setsAtCreation = new ArrayList<NavigableSet<KeyValue>>(
+        immutableSets.size() + snapshotSets.size() + 1);
+      setsAtCreation.add(kvset);
+      setsAtCreation.addAll(immutableSets);
+      setsAtCreation.addAll(snapshotSets);
+      nextRows = new KeyValue[setsAtCreation.size()];
+      itRows = new KeyValue[setsAtCreation.size()];
+      its = new Iterator[setsAtCreation.size()];
+      InMemoryCompaction compaction = inMemoryCompaction;
+      allocatorsAtCreation = new ArrayList<MemStoreLAB>(5);
+      pin(allocator);
+      pin(compaction == null ? null : compaction.allocator);
+      pin(offheapAllocator);
+      pin(snapshotAllocator);
+      pin(snapshotOffheapAllocator);
+    }
+
+    private void pin(MemStoreLAB lab) {
+      if (lab != null && !allocatorsAtCreation.contains(lab)) {
+        lab.incScannerCount();
+        allocatorsAtCreation.add(lab);
       }
     }
 
-    private KeyValue getNext(Iterator<KeyValue> it) {
+    private KeyValue getNext(int set) {
       long readPoint = MultiVersionConsistencyControl.getThreadReadPoint();
+      Iterator<KeyValue> it = its[set];
 
       KeyValue v = null;
       try {
@@ -783,11 +1178,7 @@ public class MemStore implements HeapSize {
       } finally {
         if (v != null) {
           // in all cases, remember the last KV iterated to
-          if (it == snapshotIt) {
-            snapshotItRow = v;
-          } else {
-            kvsetItRow = v;
-          }
+          itRows[set] = v;
         }
       }
     }
@@ -806,12 +1197,12 @@ public class MemStore implements HeapSize {
         return false;
       }
 
-      // kvset and snapshot will never be null.
+      // kvset, segments and snapshot will never be null.
       // if tailSet can't find anything, SortedSet is empty (not null).
-      kvsetIt = kvsetAtCreation.tailSet(key).iterator();
-      snapshotIt = snapshotAtCreation.tailSet(key).iterator();
-      kvsetItRow = null;
-      snapshotItRow = null;
+      for (int i = 0; i < its.length; i++) {
+        its[i] = setsAtCreation.get(i).tailSet(key).iterator();
+        itRows[i] = null;
+      }
 
       return seekInSubLists(key);
     }
@@ -821,11 +1212,12 @@ public class MemStore implements HeapSize {
      * (Re)initialize the iterators after a seek or a reseek.
      */
     private synchronized boolean seekInSubLists(KeyValue key){
-      kvsetNextRow = getNext(kvsetIt);
-      snapshotNextRow = getNext(snapshotIt);
+      for (int i = 0; i < its.length; i++) {
+        nextRows[i] = getNext(i);
+      }
 
       // Calculate the next value
-      theNext = getLowest(kvsetNextRow, snapshotNextRow);
+      setTheNext();
 
       // has data
       return (theNext != null);
@@ -852,8 +1244,9 @@ public class MemStore implements HeapSize {
        the reseeked set to at least that point.
        */
 
-      kvsetIt = kvsetAtCreation.tailSet(getHighest(key, kvsetItRow)).iterator();
-      snapshotIt = snapshotAtCreation.tailSet(getHighest(key, snapshotItRow)).iterator();
+      for (int i = 0; i < its.length; i++) {
+        its[i] = setsAtCreation.get(i).tailSet(getHighest(key, itRows[i])).iterator();
+      }
 
       return seekInSubLists(key);
     }
@@ -873,15 +1266,11 @@ public class MemStore implements HeapSize {
 
       final KeyValue ret = theNext;
 
-      // Advance one of the iterators
-      if (theNext == kvsetNextRow) {
-        kvsetNextRow = getNext(kvsetIt);
-      } else {
-        snapshotNextRow = getNext(snapshotIt);
-      }
+      // Advance the iterator theNext came from
+      nextRows[theNextSet] = getNext(theNextSet);
 
       // Calculate the next value
-      theNext = getLowest(kvsetNextRow, snapshotNextRow);
+      setTheNext();
 
       //long readpoint = ReadWriteConsistencyControl.getThreadReadPoint();
       //DebugPrint.println(" MS@" + hashCode() + " next: " + theNext + " next_next: " +
@@ -890,19 +1279,20 @@ public class MemStore implements HeapSize {
     }
 
     /*
-     * Returns the lower of the two key values, or null if they are both null.
-     * This uses comparator.compare() to compare the KeyValue using the memstore
-     * comparator.
+     * Sets theNext to the lowest of the next KeyValues of the sets, or null if they are all
+     * null.  On a tie the newest set wins.  This uses comparator.compare() to compare the
+     * KeyValue using the memstore comparator.
      */
-    private KeyValue getLowest(KeyValue first, KeyValue second) {
-      if (first == null && second == null) {
-        return null;
-      }
-      if (first != null && second != null) {
-        int compare = comparator.compare(first, second);
-        return (compare <= 0 ? first : second);
+    private void setTheNext() {
+      theNext = null;
+      theNextSet = -1;
+      for (int i = 0; i < nextRows.length; i++) {
+        if (nextRows[i] != null &&
+            (theNext == null || comparator.compare(nextRows[i], theNext) < 0)) {
+          theNext = nextRows[i];
+          theNextSet = i;
+        }
       }
-      return (first != null ? first : second);
     }
 
     /*
@@ -922,23 +1312,18 @@ public class MemStore implements HeapSize {
     }
 
     public synchronized void close() {
-      this.kvsetNextRow = null;
-      this.snapshotNextRow = null;
-
-      this.kvsetIt = null;
-      this.snapshotIt = null;
-      
-      if (allocatorAtCreation != null) {
-        this.allocatorAtCreation.decScannerCount();
-        this.allocatorAtCreation = null;
-      }
-      if (snapshotAllocatorAtCreation != null) {
-        this.snapshotAllocatorAtCreation.decScannerCount();
-        this.snapshotAllocatorAtCreation = null;
+      for (int i = 0; i < its.length; i++) {
+        this.nextRows[i] = null;
+        this.its[i] = null;
+        this.itRows[i] = null;
       }
+      this.theNext = null;
+      this.theNextSet = -1;
 
-      this.kvsetItRow = null;
-      this.snapshotItRow = null;
+      for (MemStoreLAB lab : this.allocatorsAtCreation) {
+        lab.decScannerCount();
+      }
+      this.allocatorsAtCreation = Collections.emptyList();
     }
 
     /**
@@ -958,7 +1343,8 @@ public class MemStore implements HeapSize {
   }
 
   public final static long FIXED_OVERHEAD = ClassSize.align(
-      ClassSize.OBJECT + (11 * ClassSize.REFERENCE) + Bytes.SIZEOF_LONG);
+      ClassSize.OBJECT + (17 * ClassSize.REFERENCE) + (4 * Bytes.SIZEOF_LONG) +
+      Bytes.SIZEOF_INT + Bytes.SIZEOF_BOOLEAN);
 
   public final static long DEEP_OVERHEAD = ClassSize.align(FIXED_OVERHEAD +
       ClassSize.REENTRANT_LOCK + ClassSize.ATOMIC_LONG +
@@ -990,6 +1376,13 @@ public class MemStore implements HeapSize {
     return size.get();
   }
 
+  /**
+   * @return off-heap bytes taken by the flat segments, not counting the snapshot
+   */
+  long getOffheapSize() {
+    return this.offheapSize;
+  }
+
   /**
    * Get the heap usage of KVs in this MemStore.
    */
@@ -48,6 +48,12 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  * {@link MemStoreChunkPool#getChunk()} is called when MemStoreLAB allocating
  * bytes, and {@link MemStoreChunkPool#putbackChunks(BlockingQueue)} is called
  * when MemStore clearing snapshot for flush
+ *
+ * A second, off-heap pool of chunks backed by direct ByteBuffers is obtained
+ * through {@link MemStoreChunkPool#getOffheapPool(Configuration)}. It exists
+ * if an off-heap memstore limit is configured, and is sized to that limit.
+ * Direct memory is only given back by the garbage collector, so its chunks
+ * are always pooled.
  */
 @InterfaceAudience.Private
 public class MemStoreChunkPool {
@@ -61,8 +67,13 @@ public class MemStoreChunkPool {
   private static MemStoreChunkPool globalInstance;
   /** Boolean whether we have disabled the memstore chunk pool entirely. */
   static boolean chunkPoolDisabled = false;
+  // Static reference to the off-heap MemStoreChunkPool
+  private static MemStoreChunkPool offheapInstance;
+  /** Boolean whether there is no off-heap memstore chunk pool. */
+  static boolean offheapPoolDisabled = false;
 
   private final int maxCount;
+  private final boolean offheap;
 
   // A queue of reclaimed chunks
   private final BlockingQueue<Chunk> reclaimedChunks;
@@ -77,11 +88,17 @@ public class MemStoreChunkPool {
 
   MemStoreChunkPool(Configuration conf, int chunkSize, int maxCount,
       int initialCount) {
+    this(conf, chunkSize, maxCount, initialCount, false);
+  }
+
+  MemStoreChunkPool(Configuration conf, int chunkSize, int maxCount,
+      int initialCount, boolean offheap) {
     this.maxCount = maxCount;
     this.chunkSize = chunkSize;
+    this.offheap = offheap;
     this.reclaimedChunks = new LinkedBlockingQueue<Chunk>();
     for (int i = 0; i < initialCount; i++) {
-      Chunk chunk = new Chunk(chunkSize);
+      Chunk chunk = new Chunk(chunkSize, offheap);
       chunk.init();
       reclaimedChunks.add(chunk);
     }
@@ -101,7 +118,7 @@ public class MemStoreChunkPool {
   Chunk getChunk() {
     Chunk chunk = reclaimedChunks.poll();
     if (chunk == null) {
-      chunk = new Chunk(chunkSize);
+      chunk = new Chunk(chunkSize, offheap);
       createdChunkCount.incrementAndGet();
     } else {
       chunk.reset();
@@ -139,6 +156,13 @@ public class MemStoreChunkPool {
     return this.reclaimedChunks.size();
   }
 
+  /**
+   * @return true if the chunks of this pool are backed by direct ByteBuffers
+   */
+  boolean isOffheap() {
+    return this.offheap;
+  }
+
   /*
    * Only used in testing
    */
@@ -166,7 +190,8 @@ public class MemStoreChunkPool {
     long created = createdChunkCount.get();
     long reused = reusedChunkCount.get();
     long total = created + reused;
-    LOG.debug("Stats: current pool size=" + reclaimedChunks.size()
+    LOG.debug("Stats: " + (offheap ? "off-heap, " : "") +
+        "current pool size=" + reclaimedChunks.size()
         + ",created chunk count=" + created
         + ",reused chunk count=" + reused
         + ",reuseRatio=" + (total == 0 ? "0" : StringUtils.formatPercent(
@@ -216,4 +241,27 @@ public class MemStoreChunkPool {
     return globalInstance;
   }
 
+  /**
+   * @param conf
+   * @return the global off-heap MemStoreChunkPool instance, or null if no
+   * off-heap memstore limit is configured
+   */
+  static synchronized MemStoreChunkPool getOffheapPool(Configuration conf) {
+    if (offheapInstance != null) return offheapInstance;
+    if (offheapPoolDisabled) return null;
+
+    long offheapLimit = conf.getLong(MemStoreFlusher.OFFHEAP_UPPER_KEY, 0);
+    if (offheapLimit <= 0) {
+      offheapPoolDisabled = true;
+      return null;
+    }
+    int chunkSize = conf.getInt(MemStoreLAB.CHUNK_SIZE_KEY,
+        MemStoreLAB.CHUNK_SIZE_DEFAULT);
+    int maxCount = (int) (offheapLimit / chunkSize);
+    LOG.info("Allocating off-heap MemStoreChunkPool with chunk size "
+        + StringUtils.byteDesc(chunkSize) + ", max count " + maxCount);
+    offheapInstance = new MemStoreChunkPool(conf, chunkSize, maxCount, 0, true);
+    return offheapInstance;
+  }
+
 }
\ No newline at end of file
@@ -80,6 +80,9 @@ class MemStoreFlusher implements FlushRequester {
 
   protected final long globalMemStoreLimit;
   protected final long globalMemStoreLimitLowMark;
+  // Limits on memstore data kept off-heap, in bytes; 0 if there is none
+  protected final long globalOffheapMemStoreLimit;
+  protected final long globalOffheapMemStoreLimitLowMark;
 
   static final float DEFAULT_UPPER = 0.4f;
   private static final float DEFAULT_LOWER = 0.35f;
@@ -87,10 +90,16 @@ class MemStoreFlusher implements FlushRequester {
     "hbase.regionserver.global.memstore.upperLimit";
   private static final String LOWER_KEY =
     "hbase.regionserver.global.memstore.lowerLimit";
+  static final String OFFHEAP_UPPER_KEY =
+    "hbase.regionserver.global.memstore.offheap.upperLimit";
+  private static final String OFFHEAP_LOWER_KEY =
+    "hbase.regionserver.global.memstore.offheap.lowerLimit";
   private long blockingWaitTime;
   private final Counter updatesBlockedMsHighWater = new Counter();
 
   private final FlushHandler[] flushHandlers;
+  private final int storeFlushThreads;
+  private volatile StoreFlushExecutor storeFlushExecutor;
 
   /**
    * @param conf
@@ -112,15 +121,29 @@ class MemStoreFlusher implements FlushRequester {
         "because supplied " + LOWER_KEY + " was > " + UPPER_KEY);
     }
     this.globalMemStoreLimitLowMark = lower;
+    this.globalOffheapMemStoreLimit = Math.max(0, conf.getLong(OFFHEAP_UPPER_KEY, 0));
+    long offheapLower = conf.getLong(OFFHEAP_LOWER_KEY,
+      (long)(this.globalOffheapMemStoreLimit * (DEFAULT_LOWER / DEFAULT_UPPER)));
+    if (offheapLower > this.globalOffheapMemStoreLimit) {
+      offheapLower = this.globalOffheapMemStoreLimit;
+      LOG.info("Setting globalOffheapMemStoreLimitLowMark == globalOffheapMemStoreLimit " +
+        "because supplied " + OFFHEAP_LOWER_KEY + " was > " + OFFHEAP_UPPER_KEY);
+    }
+    this.globalOffheapMemStoreLimitLowMark = offheapLower;
     this.blockingWaitTime = conf.getInt("hbase.hstore.blockingWaitTime",
       90000);
     int handlerCount = conf.getInt("hbase.hstore.flusher.count", 1);
     this.flushHandlers = new FlushHandler[handlerCount];
+    this.storeFlushThreads = StoreFlushExecutor.getStoreFlushThreads(conf);
     LOG.info("globalMemStoreLimit=" +
       StringUtils.humanReadableInt(this.globalMemStoreLimit) +
       ", globalMemStoreLimitLowMark=" +
       StringUtils.humanReadableInt(this.globalMemStoreLimitLowMark) +
-      ", maxHeap=" + StringUtils.humanReadableInt(max));
+      ", maxHeap=" + StringUtils.humanReadableInt(max) +
+      (this.globalOffheapMemStoreLimit > 0 ? ", globalOffheapMemStoreLimit=" +
+        StringUtils.humanReadableInt(this.globalOffheapMemStoreLimit) +
+        ", globalOffheapMemStoreLimitLowMark=" +
+        StringUtils.humanReadableInt(this.globalOffheapMemStoreLimitLowMark) : ""));
   }
 
   /**
@@ -156,11 +179,14 @@ class MemStoreFlusher implements FlushRequester {
   /**
    * The memstore across all regions has exceeded the low water mark. Pick
    * one region to flush and flush it synchronously (this is called from the
-   * flush thread)
+   * flush thread). If it is only the off-heap memstore data that is above its
+   * low water mark, the region keeping the most of it off-heap is picked.
    * @return true if successful
    */
   private boolean flushOneForGlobalPressure() {
-    SortedMap<Long, HRegion> regionsBySize =
+    final boolean offheap = !isAboveHeapLowWaterMark();
+    SortedMap<Long, HRegion> regionsBySize = offheap ?
+        server.getCopyOfOnlineRegionsSortedByOffheapSize() :
         server.getCopyOfOnlineRegionsSortedBySize();
 
     Set<HRegion> excludedRegions = new HashSet<HRegion>();
@@ -181,8 +207,8 @@ class MemStoreFlusher implements FlushRequester {
       }
 
       HRegion regionToFlush;
-      if (bestFlushableRegion != null &&
-          bestAnyRegion.memstoreSize.get() > 2 * bestFlushableRegion.memstoreSize.get()) {
+      if (bestFlushableRegion != null && getMemstoreSize(bestAnyRegion, offheap) >
+          2 * getMemstoreSize(bestFlushableRegion, offheap)) {
         // Even if it's not supposed to be flushed, pick a region if it's more than twice
         // as big as the best flushable one - otherwise when we're under pressure we make
         // lots of little flushes and cause lots of compactions, etc, which just makes
@@ -191,9 +217,9 @@ class MemStoreFlusher implements FlushRequester {
           LOG.debug("Under global heap pressure: " +
             "Region " + bestAnyRegion.getRegionNameAsString() + " has too many " +
             "store files, but is " +
-            StringUtils.humanReadableInt(bestAnyRegion.memstoreSize.get()) +
+            StringUtils.humanReadableInt(getMemstoreSize(bestAnyRegion, offheap)) +
             " vs best flushable region's " +
-            StringUtils.humanReadableInt(bestFlushableRegion.memstoreSize.get()) +
+            StringUtils.humanReadableInt(getMemstoreSize(bestFlushableRegion, offheap)) +
             ". Choosing the bigger.");
         }
         regionToFlush = bestAnyRegion;
@@ -205,9 +231,10 @@ class MemStoreFlusher implements FlushRequester {
         }
       }
 
-      Preconditions.checkState(regionToFlush.memstoreSize.get() > 0);
+      Preconditions.checkState(getMemstoreSize(regionToFlush, offheap) > 0);
 
-      LOG.info("Flush of region " + regionToFlush + " due to global heap pressure");
+      LOG.info("Flush of region " + regionToFlush + " due to global " +
+        (offheap ? "off-heap memstore" : "heap") + " pressure");
       flushedOne = flushRegion(regionToFlush, true);
       if (!flushedOne) {
         LOG.info("Excluding unflushable region " + regionToFlush +
@@ -218,6 +245,10 @@ class MemStoreFlusher implements FlushRequester {
     return true;
   }
 
+  private static long getMemstoreSize(HRegion region, boolean offheap) {
+    return offheap ? region.offheapMemstoreSize.get() : region.memstoreSize.get();
+  }
+
   private class FlushHandler extends HasThread {
     @Override
     public void run() {
@@ -301,17 +332,26 @@ class MemStoreFlusher implements FlushRequester {
   }
 
   /**
-   * Return true if global memory usage is above the high watermark
+   * Return true if global memory usage is above the high watermark, on-heap
+   * or off-heap
    */
   private boolean isAboveHighWaterMark() {
     return server.getRegionServerAccounting().
-      getGlobalMemstoreSize() >= globalMemStoreLimit;
+      getGlobalMemstoreSize() >= globalMemStoreLimit || (globalOffheapMemStoreLimit > 0 &&
+        server.getRegionServerAccounting().getGlobalOffheapMemstoreSize() >=
+          globalOffheapMemStoreLimit);
   }
 
   /**
-   * Return true if we're above the high watermark
+   * Return true if we're above the low watermark, on-heap or off-heap
    */
   private boolean isAboveLowWaterMark() {
+    return isAboveHeapLowWaterMark() || (globalOffheapMemStoreLimit > 0 &&
+      server.getRegionServerAccounting().getGlobalOffheapMemstoreSize() >=
+        globalOffheapMemStoreLimitLowMark);
+  }
+
+  private boolean isAboveHeapLowWaterMark() {
     return server.getRegionServerAccounting().
       getGlobalMemstoreSize() >= globalMemStoreLimitLowMark;
   }
@@ -366,6 +406,18 @@ class MemStoreFlusher implements FlushRequester {
       flusherThreadFactory.newThread(flushHandlers[i]);
       flushHandlers[i].start();
     }
+    this.storeFlushExecutor = new StoreFlushExecutor(storeFlushThreads,
+        Threads.newDaemonThreadFactory(
+            server.getServerName().toShortString() + "-StoreFlusher", eh),
+        server.getMetrics());
+  }
+
+  /**
+   * @return the executor that writes the stores of a flushed region concurrently, or null if
+   *         the flusher is not started
+   */
+  StoreFlushExecutor getStoreFlushExecutor() {
+    return this.storeFlushExecutor;
   }
 
   boolean isAlive() {
@@ -383,6 +435,9 @@ class MemStoreFlusher implements FlushRequester {
         Threads.shutdown(flushHander.getThread());
       }
     }
+    if (storeFlushExecutor != null) {
+      storeFlushExecutor.shutdown();
+    }
   }
 
   /*
@@ -519,11 +574,17 @@ class MemStoreFlusher implements FlushRequester {
         while (isAboveHighWaterMark() && !server.isStopped()) {
           if (!blocked) {
             startTime = EnvironmentEdgeManager.currentTimeMillis();
+            RegionServerAccounting accounting = server.getRegionServerAccounting();
             LOG.info("Blocking updates on " + server.toString() +
             ": the global memstore size " +
-            StringUtils.humanReadableInt(server.getRegionServerAccounting().getGlobalMemstoreSize()) +
+            StringUtils.humanReadableInt(accounting.getGlobalMemstoreSize()) +
+            (globalOffheapMemStoreLimit > 0 ? " (" +
+              StringUtils.humanReadableInt(accounting.getGlobalOffheapMemstoreSize()) +
+              " off-heap)" : "") +
             " is >= than blocking " +
-            StringUtils.humanReadableInt(globalMemStoreLimit) + " size");
+            StringUtils.humanReadableInt(globalMemStoreLimit) + " size" +
+            (globalOffheapMemStoreLimit > 0 ? " (" +
+              StringUtils.humanReadableInt(globalOffheapMemStoreLimit) + " off-heap)" : ""));
           }
           blocked = true;
           wakeupFlushThread();
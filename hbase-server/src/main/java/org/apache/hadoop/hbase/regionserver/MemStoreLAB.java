@@ -18,6 +18,7 @@
  */
 package org.apache.hadoop.hbase.regionserver;
 
+import java.nio.ByteBuffer;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -49,6 +50,10 @@ import com.google.common.base.Preconditions;
  * would provide a performance improvement - probably would speed up the
  * Bytes.toLong/Bytes.toInt calls in KeyValue, but some of those are cached
  * anyway
+ * <p>
+ * A MemStoreLAB over a pool of off-heap chunks hands out slices of direct
+ * ByteBuffers instead, through {@link #allocateOffheapBytes(int)}. MemStore
+ * copies cells there when it folds them into a flat segment.
  */
 @InterfaceAudience.Private
 public class MemStoreLAB {
@@ -103,6 +108,8 @@ public class MemStoreLAB {
    */
   public Allocation allocateBytes(int size) {
     Preconditions.checkArgument(size >= 0, "negative size");
+    Preconditions.checkState(chunkPool == null || !chunkPool.isOffheap(),
+      "Allocator is off-heap");
 
     // Callers should satisfy large allocations directly from JVM since they
     // don't cause fragmentation as badly.
@@ -127,6 +134,37 @@ public class MemStoreLAB {
     }
   }
 
+  /**
+   * Allocate a slice of the given length out of an off-heap chunk. Only
+   * allowed if this allocator was created over an off-heap chunk pool.
+   *
+   * If the size is larger than the maximum size specified for this
+   * allocator, returns null.
+   */
+  public Allocation allocateOffheapBytes(int size) {
+    Preconditions.checkArgument(size >= 0, "negative size");
+    Preconditions.checkState(chunkPool != null && chunkPool.isOffheap(),
+      "Allocator is not off-heap");
+    if (size > maxAlloc) {
+      return null;
+    }
+    while (true) {
+      Chunk c = getOrMakeChunk();
+      int allocOffset = c.alloc(size);
+      if (allocOffset != -1) {
+        return new Allocation(c.buffer, allocOffset);
+      }
+      tryRetireChunk(c);
+    }
+  }
+
+  /**
+   * @return bytes in the chunks this allocator has taken so far, used or not
+   */
+  long getChunkBytes() {
+    return (long)this.chunkQueue.size() * this.chunkSize;
+  }
+
   /**
    * Close this instance since it won't be used any more, try to put the chunks
    * back to pool
@@ -210,6 +248,9 @@ public class MemStoreLAB {
   static class Chunk {
     /** Actual underlying data */
     private byte[] data;
+    /** Actual underlying data of an off-heap chunk */
+    private ByteBuffer buffer;
+    private final boolean offheap;
 
     private static final int UNINITIALIZED = -1;
     private static final int OOM = -2;
@@ -231,7 +272,17 @@ public class MemStoreLAB {
      * @param size in bytes
      */
     Chunk(int size) {
+      this(size, false);
+    }
+
+    /**
+     * Create an uninitialized chunk.
+     * @param size in bytes
+     * @param offheap whether to back the chunk with a direct ByteBuffer
+     */
+    Chunk(int size, boolean offheap) {
       this.size = size;
+      this.offheap = offheap;
     }
 
     /**
@@ -242,7 +293,11 @@ public class MemStoreLAB {
     public void init() {
       assert nextFreeOffset.get() == UNINITIALIZED;
       try {
-        if (data == null) {
+        if (offheap) {
+          if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(size);
+          }
+        } else if (data == null) {
           data = new byte[size];
         }
       } catch (OutOfMemoryError e) {
@@ -289,7 +344,7 @@ public class MemStoreLAB {
           return -1;
         }
 
-        if (oldOffset + size > data.length) {
+        if (oldOffset + size > this.size) {
           return -1; // alloc doesn't fit
         }
 
@@ -307,27 +362,36 @@ public class MemStoreLAB {
     public String toString() {
       return "Chunk@" + System.identityHashCode(this) +
         " allocs=" + allocCount.get() + "waste=" +
-        (data.length - nextFreeOffset.get());
+        (size - nextFreeOffset.get());
     }
   }
 
   /**
    * The result of a single allocation. Contains the chunk that the
-   * allocation points into, and the offset in this array where the
-   * slice begins.
+   * allocation points into, and the offset in this array (or in this
+   * buffer, for an off-heap allocation) where the slice begins.
    */
   public static class Allocation {
     private final byte[] data;
+    private final ByteBuffer buffer;
     private final int offset;
 
     private Allocation(byte[] data, int off) {
       this.data = data;
+      this.buffer = null;
+      this.offset = off;
+    }
+
+    private Allocation(ByteBuffer buffer, int off) {
+      this.data = null;
+      this.buffer = buffer;
       this.offset = off;
     }
 
     @Override
     public String toString() {
-      return "Allocation(" + "capacity=" + data.length + ", off=" + offset
+      return "Allocation(" + "capacity=" +
+          (data != null ? data.length : buffer.capacity()) + ", off=" + offset
           + ")";
     }
 
@@ -335,6 +399,10 @@ public class MemStoreLAB {
       return data;
     }
 
+    ByteBuffer getBuffer() {
+      return buffer;
+    }
+
     int getOffset() {
       return offset;
     }
@@ -65,6 +65,14 @@ public class MetricsRegion {
     source.updateIncrement();
   }
 
+  public void updateRowLockWait(final long waitTime) {
+    source.updateRowLockWait(waitTime);
+  }
+
+  public void updateRowLockTimeout() {
+    source.updateRowLockTimeout();
+  }
+
   MetricsRegionSource getSource() {
     return source;
   }
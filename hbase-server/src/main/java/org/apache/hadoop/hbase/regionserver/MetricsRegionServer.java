@@ -94,4 +94,12 @@ public class MetricsRegionServer {
   public void updateReplay(long t){
     serverSource.updateReplay(t);
   }
+
+  public void updateFlushTime(long t) {
+    serverSource.updateFlushTime(t);
+  }
+
+  public void updateStoreFlushTime(long t) {
+    serverSource.updateStoreFlushTime(t);
+  }
 }
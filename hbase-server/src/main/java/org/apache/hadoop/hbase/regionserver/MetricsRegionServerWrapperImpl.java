@@ -27,6 +27,7 @@ import org.apache.hadoop.hbase.ServerName;
 import org.apache.hadoop.hbase.io.hfile.BlockCache;
 import org.apache.hadoop.hbase.io.hfile.CacheConfig;
 import org.apache.hadoop.hbase.io.hfile.CacheStats;
+import org.apache.hadoop.hbase.io.hfile.PrefetchExecutor;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
 import org.apache.hadoop.metrics2.MetricsExecutor;
@@ -60,6 +61,7 @@ class MetricsRegionServerWrapperImpl
   private volatile long checkAndMutateChecksFailed = 0;
   private volatile long checkAndMutateChecksPassed = 0;
   private volatile long storefileIndexSize = 0;
+  private volatile long blockIndexHeapSize = 0;
   private volatile long totalStaticIndexSize = 0;
   private volatile long totalStaticBloomSize = 0;
   private volatile long numMutationsWithoutWAL = 0;
@@ -155,6 +157,25 @@ class MetricsRegionServerWrapperImpl
     return this.regionServer.compactSplitThread.getCompactionQueueSize();
   }
 
+  @Override
+  public long getCompactionThroughputLimit() {
+    if (this.regionServer.compactSplitThread == null) {
+      return 0;
+    }
+    double limit =
+        this.regionServer.compactSplitThread.getCompactionThroughputController().getMaxThroughput();
+    return limit == Double.MAX_VALUE ? 0 : (long) limit;
+  }
+
+  @Override
+  public long getCompactionThrottledTime() {
+    if (this.regionServer.compactSplitThread == null) {
+      return 0;
+    }
+    return this.regionServer.compactSplitThread.getCompactionThroughputController()
+        .getThrottledTime();
+  }
+
   @Override
   public int getFlushQueueSize() {
     //If there is no flusher there should be no queue.
@@ -228,6 +249,21 @@ class MetricsRegionServerWrapperImpl
     return (int) (this.cacheStats.getHitCachingRatio() * 100);
   }
 
+  @Override
+  public long getPrefetchBytesRead() {
+    return PrefetchExecutor.getBytesRead();
+  }
+
+  @Override
+  public long getPrefetchFilesCompleted() {
+    return PrefetchExecutor.getFilesCompleted();
+  }
+
+  @Override
+  public int getPrefetchFilesPending() {
+    return PrefetchExecutor.getFilesPending();
+  }
+
   @Override public void forceRecompute() {
     this.runnable.run();
   }
@@ -281,6 +317,11 @@ class MetricsRegionServerWrapperImpl
     return storefileIndexSize;
   }
 
+  @Override
+  public long getBlockIndexHeapSize() {
+    return blockIndexHeapSize;
+  }
+
   @Override
   public long getTotalStaticIndexSize() {
     return totalStaticIndexSize;
@@ -342,6 +383,7 @@ class MetricsRegionServerWrapperImpl
       long tempCheckAndMutateChecksFailed = 0;
       long tempCheckAndMutateChecksPassed = 0;
       long tempStorefileIndexSize = 0;
+      long tempBlockIndexHeapSize = 0;
       long tempTotalStaticIndexSize = 0;
       long tempTotalStaticBloomSize = 0;
       long tempNumMutationsWithoutWAL = 0;
@@ -362,6 +404,7 @@ class MetricsRegionServerWrapperImpl
           tempMemstoreSize += store.getMemStoreSize();
           tempStoreFileSize += store.getStorefilesSize();
           tempStorefileIndexSize += store.getStorefilesIndexSize();
+          tempBlockIndexHeapSize += store.getStorefilesIndexHeapSize();
           tempTotalStaticBloomSize += store.getTotalStaticBloomSize();
           tempTotalStaticIndexSize += store.getTotalStaticIndexSize();
         }
@@ -402,6 +445,7 @@ class MetricsRegionServerWrapperImpl
       checkAndMutateChecksFailed = tempCheckAndMutateChecksFailed;
       checkAndMutateChecksPassed = tempCheckAndMutateChecksPassed;
       storefileIndexSize = tempStorefileIndexSize;
+      blockIndexHeapSize = tempBlockIndexHeapSize;
       totalStaticIndexSize = tempTotalStaticIndexSize;
       totalStaticBloomSize = tempTotalStaticBloomSize;
       numMutationsWithoutWAL = tempNumMutationsWithoutWAL;
@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.regionserver.HRegion.RowLock;
+import org.apache.hadoop.hbase.util.HashedBytes;
+
+/**
+ * The default {@link RowLockManager}: keeps a lock per locked row in a map, so rows never
+ * contend with each other. Every lock taken allocates. Shared locks are exclusive.
+ */
+@InterfaceAudience.Private
+public class PerRowLockManager extends RowLockManager {
+  static final Log LOG = LogFactory.getLog(PerRowLockManager.class);
+
+  private final ConcurrentHashMap<HashedBytes, RowLockContext> lockedRows =
+      new ConcurrentHashMap<HashedBytes, RowLockContext>();
+
+  @Override
+  public RowLock getRowLock(byte[] row, boolean shared, boolean waitForLock)
+      throws IOException {
+    HashedBytes rowKey = new HashedBytes(row);
+    RowLockContext rowLockContext = new RowLockContext(rowKey);
+
+    // loop until we acquire the row lock (unless !waitForLock)
+    while (true) {
+      RowLockContext existingContext = lockedRows.putIfAbsent(rowKey, rowLockContext);
+      if (existingContext == null) {
+        // Row is not already locked by any thread, use newly created context.
+        break;
+      } else if (existingContext.ownedByCurrentThread()) {
+        // Row is already locked by current thread, reuse existing context instead.
+        rowLockContext = existingContext;
+        break;
+      } else {
+        // Row is already locked by some other thread, give up or wait for it
+        if (!waitForLock) {
+          return null;
+        }
+        try {
+          if (!existingContext.latch.await(this.rowLockWaitDuration, TimeUnit.MILLISECONDS)) {
+            throw new IOException("Timed out waiting for lock for row: " + rowKey);
+          }
+        } catch (InterruptedException ie) {
+          LOG.warn("Thread interrupted waiting for lock on row: " + rowKey);
+          InterruptedIOException iie = new InterruptedIOException();
+          iie.initCause(ie);
+          throw iie;
+        }
+      }
+    }
+
+    // allocate new lock for this thread
+    return rowLockContext.newLock();
+  }
+
+  class RowLockContext {
+    private final HashedBytes row;
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private final Thread thread;
+    private int lockCount = 0;
+
+    RowLockContext(HashedBytes row) {
+      this.row = row;
+      this.thread = Thread.currentThread();
+    }
+
+    boolean ownedByCurrentThread() {
+      return thread == Thread.currentThread();
+    }
+
+    RowLock newLock() {
+      lockCount++;
+      return new RowLockImpl(this);
+    }
+
+    void releaseLock() {
+      if (!ownedByCurrentThread()) {
+        throw new IllegalArgumentException("Lock held by thread: " + thread
+          + " cannot be released by different thread: " + Thread.currentThread());
+      }
+      lockCount--;
+      if (lockCount == 0) {
+        // no remaining locks by the thread, unlock and allow other threads to access
+        RowLockContext existingContext = lockedRows.remove(row);
+        if (existingContext != this) {
+          throw new RuntimeException(
+              "Internal row lock state inconsistent, should not happen, row: " + row);
+        }
+        latch.countDown();
+      }
+    }
+  }
+
+  /**
+   * Row lock held by a given thread. Releasing it more than once has no effect.
+   */
+  static class RowLockImpl implements RowLock {
+    private final RowLockContext context;
+    private boolean released = false;
+
+    RowLockImpl(RowLockContext context) {
+      this.context = context;
+    }
+
+    @Override
+    public void release() {
+      if (!released) {
+        context.releaseLock();
+        released = true;
+      }
+    }
+  }
+}
@@ -348,6 +348,19 @@ public class RegionCoprocessorHost
     }
   }
 
+  /**
+   * @return true if a loaded coprocessor is a {@link RegionObserver}, so may hook into
+   * compactions
+   */
+  public boolean hasRegionObservers() {
+    for (RegionEnvironment env: coprocessors) {
+      if (env.getInstance() instanceof RegionObserver) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * See
    * {@link RegionObserver#preCompactScannerOpen(ObserverContext, Store, List, ScanType, long, InternalScanner, CompactionRequest)}
@@ -27,12 +27,17 @@ import org.apache.hadoop.hbase.util.Bytes;
 
 /**
  * RegionServerAccounting keeps record of some basic real time information about
- * the Region Server. Currently, it only keeps record the global memstore size. 
+ * the Region Server. Currently, it only keeps record the global memstore size,
+ * on-heap and off-heap.
  */
 @InterfaceAudience.Private
 public class RegionServerAccounting {
 
   private final AtomicLong atomicGlobalMemstoreSize = new AtomicLong(0);
+
+  // Memstore data kept off-heap. Not part of the global memstore size, which
+  // is what the memstores take of the heap.
+  private final AtomicLong atomicGlobalOffheapMemstoreSize = new AtomicLong(0);
   
   // Store the edits size during replaying HLog. Use this to roll back the  
   // global memstore size once a region opening failed.
@@ -54,6 +59,22 @@ public class RegionServerAccounting {
   public long addAndGetGlobalMemstoreSize(long memStoreSize) {
     return atomicGlobalMemstoreSize.addAndGet(memStoreSize);
   }
+
+  /**
+   * @return the global off-heap Memstore size in the RegionServer
+   */
+  public long getGlobalOffheapMemstoreSize() {
+    return atomicGlobalOffheapMemstoreSize.get();
+  }
+
+  /**
+   * @param offheapSize the size will be added to the global off-heap Memstore
+   *        size
+   * @return the global off-heap Memstore size in the RegionServer
+   */
+  public long addAndGetGlobalOffheapMemstoreSize(long offheapSize) {
+    return atomicGlobalOffheapMemstoreSize.addAndGet(offheapSize);
+  }
   
   /***
    * Add memStoreSize to replayEditsPerRegion.
@@ -56,6 +56,12 @@ public interface RegionServerServices extends OnlineRegions, FavoredNodesForRegi
    */
   FlushRequester getFlushRequester();
 
+  /**
+   * @return the executor that writes the stores of a flushed region concurrently, or null to
+   *         write them one after the other.
+   */
+  StoreFlushExecutor getStoreFlushExecutor();
+
   /**
    * @return the RegionServerAccounting for this Region Server
    */
@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.hbase.regionserver.HRegion.RowLock;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Hands out the row locks of a region. One instance is created per region, see
+ * {@link #create(Configuration)}; the implementation is picked with
+ * {@value #ROW_LOCK_MANAGER_CLASS_KEY}.
+ * <p>
+ * A thread may take the lock of a row it already holds. Every lock returned must be released
+ * once, by the thread that took it. Implementations may treat shared locks as exclusive.
+ */
+@InterfaceAudience.Private
+public abstract class RowLockManager extends Configured {
+  /** Configuration key for the class of the row lock manager */
+  public static final String ROW_LOCK_MANAGER_CLASS_KEY = "hbase.rowlock.manager.class";
+
+  /** Configuration key for how long to wait for a row lock, in milliseconds */
+  public static final String ROW_LOCK_WAIT_DURATION_KEY = "hbase.rowlock.wait.duration";
+  static final int DEFAULT_ROWLOCK_WAIT_DURATION = 30000;
+
+  protected int rowLockWaitDuration = DEFAULT_ROWLOCK_WAIT_DURATION;
+
+  @Override
+  public void setConf(Configuration conf) {
+    super.setConf(conf);
+    if (conf != null) {
+      this.rowLockWaitDuration = conf.getInt(ROW_LOCK_WAIT_DURATION_KEY,
+        DEFAULT_ROWLOCK_WAIT_DURATION);
+    }
+  }
+
+  /**
+   * Tries to acquire a lock on the given row.
+   * @param row the row, already checked to be in the region
+   * @param shared if true, other shared holders of the row may run alongside this one
+   * @param waitForLock if true, will block until the lock is available.
+   *        Otherwise, just tries to obtain the lock.
+   * @return the row lock if acquired,
+   *   null if waitForLock was false and the lock was not acquired
+   * @throws IOException if waitForLock was true and the lock could not be acquired after
+   *   waiting {@value #ROW_LOCK_WAIT_DURATION_KEY}, or an InterruptedIOException if interrupted
+   */
+  public abstract RowLock getRowLock(byte[] row, boolean shared, boolean waitForLock)
+      throws IOException;
+
+  /**
+   * Rows that are locked together, all blocking, must be locked in the order this returns so
+   * that two threads cannot each wait on a lock the other holds.
+   * @return the given rows in the order they should be locked. The default keeps the order of
+   *   the collection, which callers sort by row.
+   */
+  public List<byte[]> orderForLocking(Collection<byte[]> rows) {
+    return new ArrayList<byte[]>(rows);
+  }
+
+  /**
+   * Create the RowLockManager configured for a region.
+   * @param conf the configuration of the region
+   * @return a RowLockManager
+   */
+  public static RowLockManager create(Configuration conf) {
+    Class<? extends RowLockManager> clazz = conf.getClass(ROW_LOCK_MANAGER_CLASS_KEY,
+      PerRowLockManager.class, RowLockManager.class);
+    return ReflectionUtils.newInstance(clazz, conf);
+  }
+}
@@ -40,6 +40,7 @@ import org.apache.hadoop.hbase.protobuf.generated.WALProtos.CompactionDescriptor
 import org.apache.hadoop.hbase.regionserver.compactions.CompactionContext;
 import org.apache.hadoop.hbase.regionserver.compactions.CompactionProgress;
 import org.apache.hadoop.hbase.regionserver.compactions.CompactionRequest;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionThroughputController;
 
 /**
  * Interface for objects that hold a column family in a Region. Its a memstore and a set of zero or
@@ -183,6 +184,15 @@ public interface Store extends HeapSize, StoreConfigInformation {
 
   List<StoreFile> compact(CompactionContext compaction) throws IOException;
 
+  /**
+   * Runs the compaction, at a rate limited by the given controller.
+   * @param compaction compaction details obtained from requestCompaction()
+   * @param throughputController limits the rate at which the compaction writes
+   * @return Storefiles we compacted into
+   */
+  List<StoreFile> compact(CompactionContext compaction,
+      CompactionThroughputController throughputController) throws IOException;
+
   /**
    * @return true if we should run a major compaction.
    */
@@ -198,6 +208,12 @@ public interface Store extends HeapSize, StoreConfigInformation {
 
   int getCompactPriority();
 
+  /**
+   * @return How close this store is to blocking updates because of too many files;
+   *         0 while there is nothing to compact, 1 at the blocking file count.
+   */
+  double getCompactionPressure();
+
   StoreFlushContext createFlushContext(long cacheFlushId);
 
   /**
@@ -287,6 +303,12 @@ public interface Store extends HeapSize, StoreConfigInformation {
    */
   long getStorefilesIndexSize();
 
+  /**
+   * @return The heap size of the root-level block indexes of the store files,
+   *         including Bloom filter chunk indexes, in bytes.
+   */
+  long getStorefilesIndexHeapSize();
+
   /**
    * Returns the total size of all index blocks in the data block indexes, including the root level,
    * intermediate levels, and the leaf level for multi-level indexes, or just the root level for
@@ -58,6 +58,7 @@ import org.apache.hadoop.hbase.util.BloomFilterFactory;
 import org.apache.hadoop.hbase.util.BloomFilterWriter;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.ChecksumType;
+import org.apache.hadoop.hbase.util.CompoundBloomFilter;
 import org.apache.hadoop.hbase.util.Writables;
 import org.apache.hadoop.io.RawComparator;
 import org.apache.hadoop.io.WritableUtils;
@@ -329,10 +330,19 @@ public class StoreFile {
    * @return true if this storefile was created by HFileOutputFormat
    * for a bulk load.
    */
-  boolean isBulkLoadResult() {
+  public boolean isBulkLoadResult() {
     return metadataMap.containsKey(BULKLOAD_TIME_KEY);
   }
 
+  /**
+   * @param key a file info key
+   * @return the value stored under the key in this file's metadata, or null.
+   *         Call after {@link #createReader()}.
+   */
+  public byte[] getMetadataValue(byte[] key) {
+    return metadataMap.get(key);
+  }
+
   /**
    * Return the timestamp at which this bulk load file was generated.
    */
@@ -1525,6 +1535,22 @@ public class StoreFile {
       return reader.indexSize();
     }
 
+    /**
+     * @return the heap size of the root-level block indexes held in memory for
+     *         this file: the data and meta block indexes, plus the chunk
+     *         indexes of compound Bloom filters
+     */
+    public long indexHeapSize() {
+      long size = reader.indexSize();
+      if (generalBloomFilter instanceof CompoundBloomFilter) {
+        size += ((CompoundBloomFilter) generalBloomFilter).getIndexHeapSize();
+      }
+      if (deleteFamilyBloomFilter instanceof CompoundBloomFilter) {
+        size += ((CompoundBloomFilter) deleteFamilyBloomFilter).getIndexHeapSize();
+      }
+      return size;
+    }
+
     public BloomType getBloomFilterType() {
       return this.bloomFilterType;
     }
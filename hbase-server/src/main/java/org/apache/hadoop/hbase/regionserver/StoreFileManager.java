@@ -128,4 +128,10 @@ public interface StoreFileManager {
    * @return The store compaction priority.
    */
   int getStoreCompactionPriority();
+
+  /**
+   * @return How close the store is to blocking updates, for the compaction throughput
+   *         controller: 0 while there is nothing to compact, 1 at the blocking file count.
+   */
+  double getCompactionPressure();
 }
@@ -206,8 +206,9 @@ public class StoreFileScanner implements KeyValueScanner {
   }
 
   public void close() {
-    // Nothing to close on HFileScanner?
     cur = null;
+    // Gives back the block the scanner is on, if it is shared with the cache
+    hfs.close();
   }
 
   /**
@@ -0,0 +1,189 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.monitoring.MonitoredTask;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.Threads;
+
+/**
+ * Writes the memstore snapshots of the stores of a region concurrently, so that a region with
+ * many column families flushes about as fast as its largest family. One instance serves all the
+ * regions of a server; it belongs to the {@link MemStoreFlusher}.
+ * <p>
+ * The thread flushing the region writes the first store itself. Every other store is handed to
+ * one of the {@link #STORE_FLUSH_THREADS_KEY} threads of the executor, shared by all the flush
+ * handlers, if one is free at once, and is otherwise written by the flushing thread too. The
+ * caller commits the stores once all are written.
+ */
+@InterfaceAudience.Private
+public class StoreFlushExecutor {
+  /**
+   * Threads writing stores on top of the flush handlers; 0 writes them one after the other, and
+   * a negative value, the default, runs one per processor
+   */
+  public static final String STORE_FLUSH_THREADS_KEY = "hbase.hstore.flusher.store.threads";
+
+  private final Semaphore permits;
+  private final ThreadPoolExecutor pool;
+  private final MetricsRegionServer metrics;
+
+  /**
+   * @param storeFlushThreads the most stores written at once by the executor's threads
+   * @param threadFactory creates the threads of the executor
+   * @param metrics where to report flush times; may be null
+   */
+  StoreFlushExecutor(int storeFlushThreads, ThreadFactory threadFactory,
+      MetricsRegionServer metrics) {
+    int threadCount = Math.max(0, storeFlushThreads);
+    this.permits = new Semaphore(threadCount);
+    this.pool = Threads.getBoundedCachedThreadPool(Math.max(1, threadCount), 60L,
+        TimeUnit.SECONDS, threadFactory);
+    this.metrics = metrics;
+  }
+
+  /**
+   * @return the number of threads to write stores with, by default one per processor
+   */
+  static int getStoreFlushThreads(Configuration conf) {
+    int threads = conf.getInt(STORE_FLUSH_THREADS_KEY, -1);
+    return threads < 0 ? Runtime.getRuntime().availableProcessors() : threads;
+  }
+
+  /**
+   * Writes the snapshots of the stores, concurrently when threads of the executor are free.
+   * @param flushes the prepared flushes of the stores of one region
+   * @param status the status of the region flush
+   * @return the time it took to write each store, in milliseconds
+   * @throws IOException if any store failed; returns only once all the stores are done
+   */
+  long[] flushStores(List<StoreFlushContext> flushes, final MonitoredTask status)
+      throws IOException {
+    final long startTime = EnvironmentEdgeManager.currentTimeMillis();
+    final long[] flushTimes = new long[flushes.size()];
+    List<Future<Void>> futures = new ArrayList<Future<Void>>(flushes.size());
+    List<Integer> inThisThread = new ArrayList<Integer>(flushes.size());
+    if (!flushes.isEmpty()) {
+      inThisThread.add(0);
+    }
+    for (int i = 1; i < flushes.size(); ++i) {
+      if (!permits.tryAcquire()) {
+        inThisThread.add(i);
+        continue;
+      }
+      final StoreFlushContext flush = flushes.get(i);
+      final int index = i;
+      try {
+        futures.add(pool.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            try {
+              flushTimes[index] = flushStore(flush, status);
+            } finally {
+              permits.release();
+            }
+            return null;
+          }
+        }));
+      } catch (RejectedExecutionException e) {
+        // The executor is shutting down.
+        permits.release();
+        inThisThread.add(i);
+      }
+    }
+
+    Throwable error = null;
+    try {
+      for (int i : inThisThread) {
+        flushTimes[i] = flushStore(flushes.get(i), status);
+      }
+    } catch (Throwable t) {
+      error = t;
+    }
+    // Wait for all the stores even after a failure; the caller cleans up the snapshots.
+    for (Future<Void> future : futures) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        if (error == null) error = e;
+      } catch (ExecutionException e) {
+        if (error == null) error = e.getCause();
+      }
+    }
+    if (error instanceof IOException) {
+      throw (IOException) error;
+    } else if (error instanceof InterruptedException) {
+      throw (InterruptedIOException) new InterruptedIOException(
+          "Interrupted while flushing stores").initCause(error);
+    } else if (error != null) {
+      throw new IOException(error);
+    }
+
+    if (metrics != null) {
+      metrics.updateFlushTime(EnvironmentEdgeManager.currentTimeMillis() - startTime);
+      for (long flushTime : flushTimes) {
+        metrics.updateStoreFlushTime(flushTime);
+      }
+    }
+    return flushTimes;
+  }
+
+  /**
+   * Writes the snapshots of the stores one after the other, in the calling thread.
+   * @return the time it took to write each store, in milliseconds
+   */
+  static long[] flushStoresSequentially(List<StoreFlushContext> flushes, MonitoredTask status)
+      throws IOException {
+    long[] flushTimes = new long[flushes.size()];
+    for (int i = 0; i < flushes.size(); ++i) {
+      flushTimes[i] = flushStore(flushes.get(i), status);
+    }
+    return flushTimes;
+  }
+
+  private static long flushStore(StoreFlushContext flush, MonitoredTask status)
+      throws IOException {
+    long startTime = EnvironmentEdgeManager.currentTimeMillis();
+    flush.flushCache(status);
+    return EnvironmentEdgeManager.currentTimeMillis() - startTime;
+  }
+
+  /**
+   * Stops the threads of the executor once they are idle. Stores of later flushes are written
+   * by the flushing threads.
+   */
+  void shutdown() {
+    pool.shutdown();
+  }
+}
@@ -69,6 +69,10 @@ public class StoreScanner extends NonLazyKeyValueScanner
    * A flag that enables StoreFileScanner parallel-seeking
    */
   protected boolean isParallelSeekEnabled = false;
+  /**
+   * A flag that merges the scanners with a {@link LoserTreeKeyValueHeap}
+   */
+  protected boolean isLoserTreeEnabled = false;
   protected ExecutorService executor;
   protected final Scan scan;
   protected final NavigableSet<byte[]> columns;
@@ -85,6 +89,9 @@ public class StoreScanner extends NonLazyKeyValueScanner
   static final boolean LAZY_SEEK_ENABLED_BY_DEFAULT = true;
   public static final String STORESCANNER_PARALLEL_SEEK_ENABLE =
       "hbase.storescanner.parallel.seek.enable";
+  /** If true, the store scanners merge the store files with a {@link LoserTreeKeyValueHeap} */
+  public static final String STORESCANNER_LOSER_TREE_ENABLE =
+      "hbase.storescanner.losertree.enable";
 
   /** Used during unit testing to ensure that lazy seek does save seek ops */
   protected static boolean lazySeekEnabledGlobally =
@@ -111,6 +118,9 @@ public class StoreScanner extends NonLazyKeyValueScanner
     // for multi-row (non-"get") scans because this is not done in
     // StoreFile.passesBloomFilter(Scan, SortedSet<byte[]>).
     useRowColBloom = numCol > 1 || (!isGet && numCol == 1);
+    if (store != null) {
+      isLoserTreeEnabled = ((HStore)store).isLoserTreeHeap();
+    }
     // The parallel-seeking is on :
     // 1) the config value is *true*
     // 2) store has more than one store file
@@ -173,7 +183,7 @@ public class StoreScanner extends NonLazyKeyValueScanner
     this.storeOffset = scan.getRowOffsetPerColumnFamily();
 
     // Combine all seeked scanners with a heap
-    heap = new KeyValueHeap(scanners, store.getComparator());
+    heap = KeyValueHeap.create(scanners, store.getComparator(), isLoserTreeEnabled);
 
     this.store.addChangedReaderObserver(this);
   }
@@ -238,7 +248,7 @@ public class StoreScanner extends NonLazyKeyValueScanner
     }
 
     // Combine all seeked scanners with a heap
-    heap = new KeyValueHeap(scanners, store.getComparator());
+    heap = KeyValueHeap.create(scanners, store.getComparator(), isLoserTreeEnabled);
   }
 
   /** Constructor for testing. */
@@ -267,7 +277,7 @@ public class StoreScanner extends NonLazyKeyValueScanner
     } else {
       parallelSeek(scanners, matcher.getStartKey());
     }
-    heap = new KeyValueHeap(scanners, scanInfo.getComparator());
+    heap = KeyValueHeap.create(scanners, scanInfo.getComparator(), isLoserTreeEnabled);
   }
 
   /**
@@ -568,7 +578,7 @@ public class StoreScanner extends NonLazyKeyValueScanner
     }
 
     // Combine all seeked scanners with a heap
-    heap = new KeyValueHeap(scanners, store.getComparator());
+    heap = KeyValueHeap.create(scanners, store.getComparator(), isLoserTreeEnabled);
 
     // Reset the state of the Query Matcher and set to top row.
     // Only reset and call setRow if the row changes; avoids confusing the
@@ -22,6 +22,8 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
 
+import org.apache.hadoop.conf.Configuration;
+
 /**
  * Utility functions for region server storage layer.
  */
@@ -63,6 +65,26 @@ public class StoreUtils {
     return minTs;
   }
 
+  /**
+   * @param conf Store configuration.
+   * @param fileCount The number of files a read has to go through.
+   * @return 0 while a compaction would not yet pick the files, growing to 1 at the
+   *         blocking file count, and beyond when updates are blocked.
+   */
+  static double getCompactionPressure(Configuration conf, int fileCount) {
+    int minFilesToCompact = Math.max(2, conf.getInt("hbase.hstore.compaction.min",
+        conf.getInt("hbase.hstore.compactionThreshold", 3)));
+    int blockingFileCount = conf.getInt(
+        HStore.BLOCKING_STOREFILES_KEY, HStore.DEFAULT_BLOCKING_STOREFILE_COUNT);
+    if (fileCount <= minFilesToCompact) {
+      return 0.0;
+    }
+    if (blockingFileCount <= minFilesToCompact) {
+      return 1.0 + fileCount - blockingFileCount;
+    }
+    return (double) (fileCount - minFilesToCompact) / (blockingFileCount - minFilesToCompact);
+  }
+
   /**
    * Gets the largest file (with reader) out of the list of files.
    * @param candidates The files to choose from.
@@ -0,0 +1,238 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValue.KVComparator;
+import org.apache.hadoop.hbase.regionserver.compactions.Compactor;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Writes the output of a flush or compaction into one file per stripe, and records the row range
+ * of every file under {@link StripeStoreFileManager#STRIPE_START_KEY} and
+ * {@link StripeStoreFileManager#STRIPE_END_KEY}. Cells must be appended in order.
+ */
+@InterfaceAudience.Private
+public abstract class StripeMultiFileWriter implements Compactor.CellSink {
+  private static final Log LOG = LogFactory.getLog(StripeMultiFileWriter.class);
+
+  /** Creates the writers for the output files */
+  public interface WriterFactory {
+    StoreFile.Writer createWriter() throws IOException;
+  }
+
+  protected WriterFactory writerFactory;
+  protected KVComparator comparator;
+
+  /** All the writers created, including the current one */
+  private final List<StoreFile.Writer> createdWriters = new ArrayList<StoreFile.Writer>();
+
+  /** The finished writers, and the row ranges they were written for */
+  private final List<StoreFile.Writer> writers = new ArrayList<StoreFile.Writer>();
+  private final List<byte[]> startRows = new ArrayList<byte[]>();
+  private final List<byte[]> endRows = new ArrayList<byte[]>();
+
+  public void init(WriterFactory writerFactory, KVComparator comparator) {
+    this.writerFactory = writerFactory;
+    this.comparator = comparator;
+  }
+
+  /**
+   * Finishes the output, appends the metadata to all the files and closes them.
+   * @param maxSeqId the maximum sequence id of the input
+   * @param majorCompaction whether the files are the result of a major compaction
+   * @return the paths of the files written
+   */
+  public List<Path> commitWriters(long maxSeqId, boolean majorCompaction) throws IOException {
+    finish();
+    List<Path> paths = new ArrayList<Path>(writers.size());
+    for (int i = 0; i < writers.size(); ++i) {
+      StoreFile.Writer writer = writers.get(i);
+      writer.appendMetadata(maxSeqId, majorCompaction);
+      writer.appendFileInfo(StripeStoreFileManager.STRIPE_START_KEY, startRows.get(i));
+      writer.appendFileInfo(StripeStoreFileManager.STRIPE_END_KEY, endRows.get(i));
+      writer.close();
+      paths.add(writer.getPath());
+    }
+    return paths;
+  }
+
+  /**
+   * Closes and deletes all the files written so far.
+   * @param fs the file system the files are written to
+   */
+  public void abortWriters(FileSystem fs) {
+    for (StoreFile.Writer writer : createdWriters) {
+      try {
+        writer.close();
+        fs.delete(writer.getPath(), false);
+      } catch (IOException e) {
+        LOG.warn("Failed to clean up " + writer.getPath(), e);
+      }
+    }
+  }
+
+  /** Called before the writers are committed, to finish the last writer */
+  protected abstract void finish() throws IOException;
+
+  protected StoreFile.Writer createWriter() throws IOException {
+    StoreFile.Writer writer = writerFactory.createWriter();
+    createdWriters.add(writer);
+    return writer;
+  }
+
+  /** Adds a writer that is done with, along with the range of rows it was written for */
+  protected void addWriter(StoreFile.Writer writer, byte[] startRow, byte[] endRow) {
+    writers.add(writer);
+    startRows.add(startRow);
+    endRows.add(endRow);
+  }
+
+  protected int compareRows(KeyValue kv, byte[] row) {
+    return comparator.compareRows(kv.getBuffer(), kv.getRowOffset(), kv.getRowLength(),
+        row, 0, row.length);
+  }
+
+  protected void checkRange(KeyValue kv, byte[] startRow, byte[] endRow) throws IOException {
+    if ((startRow.length != 0 && compareRows(kv, startRow) < 0)
+        || (endRow.length != 0 && compareRows(kv, endRow) >= 0)) {
+      throw new IOException("Row " + Bytes.toStringBinary(kv.getRow()) + " is outside ["
+          + Bytes.toStringBinary(startRow) + ", " + Bytes.toStringBinary(endRow) + ")");
+    }
+  }
+
+  /**
+   * Writes into one file per stripe of known boundaries.
+   */
+  public static class BoundaryMultiWriter extends StripeMultiFileWriter {
+    private final List<byte[]> boundaries;
+    private final boolean writeEmptyFiles;
+    private int currentStripe = 0;
+    private StoreFile.Writer currentWriter = null;
+
+    /**
+     * @param boundaries the start row of each stripe, followed by the end row of the last one
+     * @param writeEmptyFiles whether to write a file for stripes that get no cells, so that
+     *          the stripes survive
+     */
+    public BoundaryMultiWriter(List<byte[]> boundaries, boolean writeEmptyFiles) {
+      assert boundaries.size() >= 2;
+      this.boundaries = boundaries;
+      this.writeEmptyFiles = writeEmptyFiles;
+    }
+
+    @Override
+    public void append(KeyValue kv) throws IOException {
+      while (currentStripe < boundaries.size() - 2
+          && compareRows(kv, boundaries.get(currentStripe + 1)) >= 0) {
+        finishStripe();
+        ++currentStripe;
+      }
+      if (currentWriter == null) {
+        checkRange(kv, boundaries.get(currentStripe), boundaries.get(currentStripe + 1));
+        currentWriter = createWriter();
+      }
+      currentWriter.append(kv);
+    }
+
+    private void finishStripe() throws IOException {
+      if (currentWriter == null && writeEmptyFiles) {
+        currentWriter = createWriter();
+      }
+      if (currentWriter != null) {
+        addWriter(currentWriter, boundaries.get(currentStripe),
+            boundaries.get(currentStripe + 1));
+        currentWriter = null;
+      }
+    }
+
+    @Override
+    protected void finish() throws IOException {
+      finishStripe();
+      while (currentStripe < boundaries.size() - 2) {
+        ++currentStripe;
+        finishStripe();
+      }
+    }
+  }
+
+  /**
+   * Writes one row range into files of about the given size, starting a new file at the first
+   * row boundary after a file has reached the size. Writes one empty file if there are no
+   * cells, so that the range survives.
+   */
+  public static class SizeMultiWriter extends StripeMultiFileWriter {
+    private final byte[] startRow;
+    private final byte[] endRow;
+    private final long targetFileSize;
+    private byte[] currentStartRow;
+    private StoreFile.Writer currentWriter = null;
+    private long currentSize = 0;
+    private KeyValue lastKv = null;
+
+    /**
+     * @param startRow the first row of the range
+     * @param endRow the row after the range
+     * @param targetFileSize the size of cells after which to start a new file
+     */
+    public SizeMultiWriter(byte[] startRow, byte[] endRow, long targetFileSize) {
+      this.startRow = startRow;
+      this.endRow = endRow;
+      this.targetFileSize = targetFileSize;
+      this.currentStartRow = startRow;
+    }
+
+    @Override
+    public void append(KeyValue kv) throws IOException {
+      if (currentWriter == null) {
+        checkRange(kv, startRow, endRow);
+        currentWriter = createWriter();
+      } else if (currentSize >= targetFileSize && !lastKv.matchingRow(kv)) {
+        // Row boundary past the target size; cut here.
+        checkRange(kv, startRow, endRow);
+        byte[] row = kv.getRow();
+        addWriter(currentWriter, currentStartRow, row);
+        currentStartRow = row;
+        currentWriter = createWriter();
+        currentSize = 0;
+      }
+      currentWriter.append(kv);
+      currentSize += kv.getLength();
+      lastKv = kv;
+    }
+
+    @Override
+    protected void finish() throws IOException {
+      if (currentWriter == null) {
+        currentWriter = createWriter();
+      }
+      addWriter(currentWriter, currentStartRow, endRow);
+      currentWriter = null;
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.KeyValue.KVComparator;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionContext;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionThroughputController;
+import org.apache.hadoop.hbase.regionserver.compactions.StripeCompactionPolicy;
+import org.apache.hadoop.hbase.regionserver.compactions.StripeCompactor;
+
+/**
+ * Store engine that splits the key space of a store into stripes that are compacted
+ * independently; see {@link StripeStoreFileManager} and {@link StripeCompactionPolicy}.
+ * Enable it by setting {@link StoreEngine#STORE_ENGINE_CLASS_KEY} to this class, for the whole
+ * cluster or for a table or column family.
+ */
+@InterfaceAudience.Private
+public class StripeStoreEngine extends StoreEngine<
+  StripeStoreFlusher, StripeCompactionPolicy, StripeCompactor, StripeStoreFileManager> {
+
+  @Override
+  protected void createComponents(
+      Configuration conf, Store store, KVComparator kvComparator) throws IOException {
+    storeFileManager = new StripeStoreFileManager(kvComparator, conf);
+    compactionPolicy = new StripeCompactionPolicy(conf, store, storeFileManager);
+    storeFlusher = new StripeStoreFlusher(conf, store, storeFileManager);
+    compactor = new StripeCompactor(conf, store);
+  }
+
+  @Override
+  public CompactionContext createCompaction() {
+    return new StripeCompaction();
+  }
+
+  private class StripeCompaction extends CompactionContext {
+    @Override
+    public List<StoreFile> preSelect(List<StoreFile> filesCompacting) {
+      return compactionPolicy.preSelectFilesForCoprocessor(filesCompacting);
+    }
+
+    @Override
+    public boolean select(List<StoreFile> filesCompacting, boolean isUserCompaction,
+        boolean mayUseOffPeak, boolean forceMajor) throws IOException {
+      request = compactionPolicy.selectCompaction(filesCompacting, isUserCompaction, forceMajor);
+      return request != null;
+    }
+
+    @Override
+    public List<Path> compact() throws IOException {
+      return compactor.compact(request);
+    }
+
+    @Override
+    public List<Path> compact(CompactionThroughputController throughputController)
+        throws IOException {
+      return compactor.compact(request, throughputController);
+    }
+  }
+}
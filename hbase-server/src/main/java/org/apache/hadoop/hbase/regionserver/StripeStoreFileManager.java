@@ -0,0 +1,556 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValue.KVComparator;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Store file manager that partitions the files of a store into stripes: contiguous row ranges
+ * that together cover all rows. Files that may contain any row are kept apart in level 0 (L0).
+ * Gets and scans read L0 and only the stripes they overlap.
+ * <p>
+ * The flusher and the compactor record the row range a file was written for in its file info,
+ * under {@link #STRIPE_START_KEY} and {@link #STRIPE_END_KEY}. A file goes into the stripe that
+ * contains its range. Files without a range, such as bulk loaded files and references, and files
+ * whose range overlaps a different stripe, go into L0.
+ * <p>
+ * Stripes are derived from the ranges of their files. Each stripe ends where its files end, and
+ * starts where the previous stripe ends. Not thread-safe; readers see an immutable
+ * {@link Stripes} snapshot that is replaced whenever the files change.
+ */
+@InterfaceAudience.Private
+public class StripeStoreFileManager implements StoreFileManager {
+  static final Log LOG = LogFactory.getLog(StripeStoreFileManager.class);
+
+  /** File info key of the first row of the stripe the file was written for */
+  public static final byte[] STRIPE_START_KEY = Bytes.toBytes("STRIPE_START_KEY");
+
+  /** File info key of the row following the stripe the file was written for */
+  public static final byte[] STRIPE_END_KEY = Bytes.toBytes("STRIPE_END_KEY");
+
+  /** Start row of the first stripe and end row of the last one */
+  public static final byte[] OPEN_KEY = HConstants.EMPTY_BYTE_ARRAY;
+
+  private final KVComparator kvComparator;
+  private final Configuration conf;
+
+  private volatile Stripes stripes;
+
+  public StripeStoreFileManager(KVComparator kvComparator, Configuration conf) {
+    this.kvComparator = kvComparator;
+    this.conf = conf;
+    this.stripes = new Stripes(Collections.<byte[]>emptyList(),
+        Collections.<List<StoreFile>>emptyList(), Collections.<StoreFile>emptyList());
+  }
+
+  /**
+   * @return the current stripes and L0 files; an immutable snapshot
+   */
+  public Stripes getStripes() {
+    return stripes;
+  }
+
+  @Override
+  public void loadFiles(List<StoreFile> storeFiles) {
+    List<StripeRange> ranges = new ArrayList<StripeRange>();
+    List<StoreFile> level0 = new ArrayList<StoreFile>();
+    addFileRanges(storeFiles, ranges, level0);
+    this.stripes = buildStripes(ranges, level0);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Loaded " + this.stripes);
+    }
+  }
+
+  @Override
+  public void insertNewFile(StoreFile sf) {
+    Stripes s = this.stripes;
+    int stripe = s.findStripeForRange(getStartRow(sf), getEndRow(sf));
+    List<List<StoreFile>> stripeFiles = new ArrayList<List<StoreFile>>(s.stripeFiles);
+    List<StoreFile> level0 = s.level0Files;
+    if (stripe >= 0) {
+      List<StoreFile> files = new ArrayList<StoreFile>(stripeFiles.get(stripe));
+      files.add(sf);
+      stripeFiles.set(stripe, files);
+    } else {
+      level0 = new ArrayList<StoreFile>(level0);
+      level0.add(sf);
+    }
+    this.stripes = new Stripes(s.boundaries, stripeFiles, level0);
+  }
+
+  @Override
+  public ImmutableCollection<StoreFile> clearFiles() {
+    ImmutableList<StoreFile> result = this.stripes.allFiles;
+    this.stripes = new Stripes(Collections.<byte[]>emptyList(),
+        Collections.<List<StoreFile>>emptyList(), Collections.<StoreFile>emptyList());
+    return result;
+  }
+
+  @Override
+  public void addCompactionResults(
+      Collection<StoreFile> compactedFiles, Collection<StoreFile> results) {
+    Stripes s = this.stripes;
+    // The ranges of the results go first, so the results take the place of the stripes they
+    // were compacted from. What is left of an old stripe that overlaps them moves to L0.
+    List<StripeRange> ranges = new ArrayList<StripeRange>();
+    List<StoreFile> level0 = Lists.newArrayList(s.level0Files);
+    level0.removeAll(compactedFiles);
+    addFileRanges(results, ranges, level0);
+    for (int i = 0; i < s.getStripeCount(); ++i) {
+      List<StoreFile> files = Lists.newArrayList(s.getStripeFiles(i));
+      files.removeAll(compactedFiles);
+      if (!files.isEmpty()) {
+        addRange(ranges, level0, s.getStartRow(i), s.getEndRow(i), files);
+      }
+    }
+    this.stripes = buildStripes(ranges, level0);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("After compaction: " + this.stripes);
+    }
+  }
+
+  @Override
+  public final Collection<StoreFile> getStorefiles() {
+    return this.stripes.allFiles;
+  }
+
+  @Override
+  public final int getStorefileCount() {
+    return this.stripes.allFiles.size();
+  }
+
+  @Override
+  public Collection<StoreFile> getFilesForScanOrGet(boolean isGet,
+      byte[] startRow, byte[] stopRow) {
+    Stripes s = this.stripes;
+    if (s.getStripeCount() == 0) {
+      return s.allFiles;
+    }
+    int firstStripe = s.findStripe(startRow);
+    int lastStripe = isGet || Bytes.equals(startRow, stopRow)
+        ? firstStripe
+        : (stopRow.length == 0 ? s.getStripeCount() - 1 : s.findStripe(stopRow));
+    List<StoreFile> files = new ArrayList<StoreFile>(s.level0Files);
+    for (int i = firstStripe; i <= lastStripe; ++i) {
+      files.addAll(s.getStripeFiles(i));
+    }
+    Collections.sort(files, StoreFile.Comparators.SEQ_ID);
+    return files;
+  }
+
+  @Override
+  public Iterator<StoreFile> getCandidateFilesForRowKeyBefore(final KeyValue targetKey) {
+    Stripes s = this.stripes;
+    // L0 first, then the stripe of the target row and the ones before it, newest files first.
+    List<StoreFile> files = new ArrayList<StoreFile>(Lists.reverse(s.level0Files));
+    if (s.getStripeCount() > 0) {
+      for (int i = s.findStripe(targetKey.getRow()); i >= 0; --i) {
+        files.addAll(Lists.reverse(s.getStripeFiles(i)));
+      }
+    }
+    return files.iterator();
+  }
+
+  @Override
+  public Iterator<StoreFile> updateCandidateFilesForRowKeyBefore(
+      Iterator<StoreFile> candidateFiles, final KeyValue targetKey, final KeyValue candidate) {
+    Stripes s = this.stripes;
+    if (s.getStripeCount() == 0) {
+      return candidateFiles;
+    }
+    // Stripes before the stripe of the candidate only have rows before the candidate's row.
+    int candidateStripe = s.findStripe(candidate.getRow());
+    List<StoreFile> remaining = new ArrayList<StoreFile>();
+    while (candidateFiles.hasNext()) {
+      StoreFile sf = candidateFiles.next();
+      Integer stripe = s.fileStripes.get(sf);
+      if (stripe == null || stripe >= candidateStripe) {
+        remaining.add(sf);
+      }
+    }
+    return remaining.iterator();
+  }
+
+  /**
+   * Splits at the stripe boundary closest to the middle of the store, so both daughters start
+   * out with whole stripes. Falls back to the middle of the largest file.
+   */
+  @Override
+  public final byte[] getSplitPoint() throws IOException {
+    Stripes s = this.stripes;
+    if (s.allFiles.isEmpty()) {
+      return null;
+    }
+    if (s.getStripeCount() > 1) {
+      long[] sizes = new long[s.getStripeCount()];
+      long total = 0;
+      for (int i = 0; i < sizes.length; ++i) {
+        for (StoreFile sf : s.getStripeFiles(i)) {
+          StoreFile.Reader r = sf.getReader();
+          sizes[i] += r == null ? 0 : r.length();
+        }
+        total += sizes[i];
+      }
+      int bestBoundary = -1;
+      long bestDistance = Long.MAX_VALUE;
+      long left = 0;
+      for (int i = 1; i < sizes.length; ++i) {
+        left += sizes[i - 1];
+        if (left == 0 || left == total) {
+          continue;
+        }
+        long distance = Math.abs(total - 2 * left);
+        if (distance < bestDistance) {
+          bestDistance = distance;
+          bestBoundary = i;
+        }
+      }
+      if (bestBoundary > 0) {
+        return s.getStartRow(bestBoundary);
+      }
+    }
+    return StoreUtils.getLargestFile(s.allFiles).getFileSplitPoint(this.kvComparator);
+  }
+
+  /**
+   * @param files the files of a stripe
+   * @param startRow the first row of the stripe
+   * @param endRow the row after the stripe
+   * @return the middle row of the largest of the files, to split the stripe at; null if there
+   *         is none strictly inside the stripe
+   */
+  public byte[] getStripeSplitPoint(Collection<StoreFile> files, byte[] startRow, byte[] endRow)
+      throws IOException {
+    StoreFile largest = StoreUtils.getLargestFile(files);
+    byte[] splitRow = largest == null ? null : largest.getFileSplitPoint(this.kvComparator);
+    if (splitRow == null
+        || (startRow.length != 0 && compareRows(splitRow, startRow) <= 0)
+        || (endRow.length != 0 && compareRows(splitRow, endRow) >= 0)) {
+      return null;
+    }
+    return splitRow;
+  }
+
+  /**
+   * A get reads L0 and one stripe, so the priority is based on the files in L0 and in the
+   * largest stripe rather than on all the files of the store.
+   */
+  @Override
+  public int getStoreCompactionPriority() {
+    int blockingFileCount = conf.getInt(
+        HStore.BLOCKING_STOREFILES_KEY, HStore.DEFAULT_BLOCKING_STOREFILE_COUNT);
+    int priority = blockingFileCount - getFilesPerRead();
+    return (priority == HStore.PRIORITY_USER) ? priority + 1 : priority;
+  }
+
+  @Override
+  public double getCompactionPressure() {
+    return StoreUtils.getCompactionPressure(conf, getFilesPerRead());
+  }
+
+  /**
+   * @return the number of files in L0 and in the largest stripe
+   */
+  private int getFilesPerRead() {
+    Stripes s = this.stripes;
+    int maxStripeFiles = 0;
+    for (int i = 0; i < s.getStripeCount(); ++i) {
+      maxStripeFiles = Math.max(maxStripeFiles, s.getStripeFiles(i).size());
+    }
+    return s.level0Files.size() + maxStripeFiles;
+  }
+
+  /**
+   * @param sf a store file
+   * @return the first row of the stripe the file was written for, {@link #OPEN_KEY} for the first
+   *         stripe, or null if the file belongs in L0
+   */
+  static byte[] getStartRow(StoreFile sf) {
+    return sf.isReference() ? null : sf.getMetadataValue(STRIPE_START_KEY);
+  }
+
+  /**
+   * @param sf a store file
+   * @return the row after the stripe the file was written for, {@link #OPEN_KEY} for the last
+   *         stripe, or null if the file belongs in L0
+   */
+  static byte[] getEndRow(StoreFile sf) {
+    return sf.isReference() ? null : sf.getMetadataValue(STRIPE_END_KEY);
+  }
+
+  private void addFileRanges(Collection<StoreFile> files, List<StripeRange> ranges,
+      List<StoreFile> level0) {
+    for (StoreFile sf : files) {
+      byte[] startRow = getStartRow(sf);
+      byte[] endRow = getEndRow(sf);
+      if (startRow == null || endRow == null) {
+        level0.add(sf);
+      } else {
+        addRange(ranges, level0, startRow, endRow, Collections.singletonList(sf));
+      }
+    }
+  }
+
+  /**
+   * Adds the files to the range with the given rows. The files go to L0 instead if the range is
+   * empty or overlaps one of the ranges added before.
+   */
+  private void addRange(List<StripeRange> ranges, List<StoreFile> level0, byte[] startRow,
+      byte[] endRow, List<StoreFile> files) {
+    if (startRow.length > 0 && endRow.length > 0 && compareRows(startRow, endRow) >= 0) {
+      LOG.warn("Empty stripe range in " + files + ", moving to L0");
+      level0.addAll(files);
+      return;
+    }
+    for (StripeRange range : ranges) {
+      if (Bytes.equals(range.startRow, startRow) && Bytes.equals(range.endRow, endRow)) {
+        range.files.addAll(files);
+        return;
+      }
+      if (!endsBefore(range.endRow, startRow) && !endsBefore(endRow, range.startRow)) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug(files + " overlap the stripe [" + Bytes.toStringBinary(range.startRow)
+              + ", " + Bytes.toStringBinary(range.endRow) + "), moving to L0");
+        }
+        level0.addAll(files);
+        return;
+      }
+    }
+    ranges.add(new StripeRange(startRow, endRow, files));
+  }
+
+  /**
+   * Turns non-overlapping ranges into stripes. The first stripe starts at {@link #OPEN_KEY};
+   * every other stripe starts where the previous one ends, and the last one ends at
+   * {@link #OPEN_KEY}.
+   */
+  private Stripes buildStripes(List<StripeRange> ranges, List<StoreFile> level0) {
+    if (ranges.isEmpty()) {
+      return new Stripes(Collections.<byte[]>emptyList(),
+          Collections.<List<StoreFile>>emptyList(), level0);
+    }
+    Collections.sort(ranges, new Comparator<StripeRange>() {
+      @Override
+      public int compare(StripeRange a, StripeRange b) {
+        if (a.startRow.length == 0) {
+          return b.startRow.length == 0 ? 0 : -1;
+        } else if (b.startRow.length == 0) {
+          return 1;
+        }
+        return compareRows(a.startRow, b.startRow);
+      }
+    });
+    List<byte[]> boundaries = new ArrayList<byte[]>(ranges.size() + 2);
+    List<List<StoreFile>> stripeFiles = new ArrayList<List<StoreFile>>(ranges.size() + 1);
+    boundaries.add(OPEN_KEY);
+    for (StripeRange range : ranges) {
+      boundaries.add(range.endRow);
+      stripeFiles.add(range.files);
+    }
+    if (boundaries.get(boundaries.size() - 1).length != 0) {
+      boundaries.add(OPEN_KEY);
+      stripeFiles.add(Collections.<StoreFile>emptyList());
+    }
+    return new Stripes(boundaries, stripeFiles, level0);
+  }
+
+  /**
+   * @return true if a range ending at endRow is entirely before a range starting at startRow
+   */
+  private boolean endsBefore(byte[] endRow, byte[] startRow) {
+    return endRow.length != 0 && startRow.length != 0 && compareRows(endRow, startRow) <= 0;
+  }
+
+  private int compareRows(byte[] left, byte[] right) {
+    return kvComparator.compareRows(left, 0, left.length, right, 0, right.length);
+  }
+
+  /** The files written for one row range, while stripes are being built */
+  private static class StripeRange {
+    final byte[] startRow;
+    final byte[] endRow;
+    final List<StoreFile> files;
+
+    StripeRange(byte[] startRow, byte[] endRow, List<StoreFile> files) {
+      this.startRow = startRow;
+      this.endRow = endRow;
+      this.files = new ArrayList<StoreFile>(files);
+    }
+  }
+
+  /**
+   * An immutable snapshot of the stripes and L0 files of a store.
+   */
+  public final class Stripes {
+    /** The start row of each stripe, then the end row of the last one; empty if no stripes */
+    private final ImmutableList<byte[]> boundaries;
+    private final ImmutableList<ImmutableList<StoreFile>> stripeFiles;
+    private final ImmutableList<StoreFile> level0Files;
+    /** All files, sorted by sequence id */
+    private final ImmutableList<StoreFile> allFiles;
+    private final Map<StoreFile, Integer> fileStripes = new HashMap<StoreFile, Integer>();
+
+    private Stripes(List<byte[]> boundaries, List<? extends List<StoreFile>> stripeFiles,
+        List<StoreFile> level0Files) {
+      this.boundaries = ImmutableList.copyOf(boundaries);
+      ImmutableList.Builder<ImmutableList<StoreFile>> stripesBuilder = ImmutableList.builder();
+      List<StoreFile> all = new ArrayList<StoreFile>(level0Files);
+      for (int i = 0; i < stripeFiles.size(); ++i) {
+        List<StoreFile> files = new ArrayList<StoreFile>(stripeFiles.get(i));
+        Collections.sort(files, StoreFile.Comparators.SEQ_ID);
+        stripesBuilder.add(ImmutableList.copyOf(files));
+        all.addAll(files);
+        for (StoreFile sf : files) {
+          fileStripes.put(sf, i);
+        }
+      }
+      this.stripeFiles = stripesBuilder.build();
+      List<StoreFile> level0 = new ArrayList<StoreFile>(level0Files);
+      Collections.sort(level0, StoreFile.Comparators.SEQ_ID);
+      this.level0Files = ImmutableList.copyOf(level0);
+      Collections.sort(all, StoreFile.Comparators.SEQ_ID);
+      this.allFiles = ImmutableList.copyOf(all);
+    }
+
+    /**
+     * @return the number of stripes; 0 if all the files are in L0
+     */
+    public int getStripeCount() {
+      return stripeFiles.size();
+    }
+
+    /**
+     * @return the files of the i-th stripe, sorted by sequence id
+     */
+    public List<StoreFile> getStripeFiles(int i) {
+      return stripeFiles.get(i);
+    }
+
+    /**
+     * @return the first row of the i-th stripe; {@link #OPEN_KEY} for the first stripe
+     */
+    public byte[] getStartRow(int i) {
+      return boundaries.get(i);
+    }
+
+    /**
+     * @return the row after the i-th stripe; {@link #OPEN_KEY} for the last stripe
+     */
+    public byte[] getEndRow(int i) {
+      return boundaries.get(i + 1);
+    }
+
+    /**
+     * @return the start row of every stripe followed by the end row of the last stripe
+     */
+    public List<byte[]> getBoundaries() {
+      return boundaries;
+    }
+
+    /**
+     * @return the L0 files, sorted by sequence id
+     */
+    public List<StoreFile> getLevel0Files() {
+      return level0Files;
+    }
+
+    /**
+     * @param sf a store file
+     * @return the stripe of the file, or -1 if it is in L0 or not in the store
+     */
+    public int getStripeOfFile(StoreFile sf) {
+      Integer stripe = fileStripes.get(sf);
+      return stripe == null ? -1 : stripe;
+    }
+
+    /**
+     * @param row a row; {@link #OPEN_KEY} for the first stripe
+     * @return the stripe that contains the row. There must be at least one stripe.
+     */
+    public int findStripe(byte[] row) {
+      // Find the first stripe that ends after the row.
+      int low = 0;
+      int high = getStripeCount() - 1;
+      if (row.length == 0) {
+        return low;
+      }
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        byte[] endRow = getEndRow(mid);
+        if (endRow.length != 0 && compareRows(row, endRow) >= 0) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+
+    /**
+     * @return the stripe that contains the whole range, or -1 if the range is null or spans
+     *         several stripes
+     */
+    int findStripeForRange(byte[] startRow, byte[] endRow) {
+      if (startRow == null || endRow == null || getStripeCount() == 0) {
+        return -1;
+      }
+      int stripe = findStripe(startRow);
+      byte[] stripeEnd = getEndRow(stripe);
+      if (stripeEnd.length == 0
+          || (endRow.length != 0 && compareRows(endRow, stripeEnd) <= 0)) {
+        return stripe;
+      }
+      return -1;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(level0Files.size()).append(" files in L0, ");
+      sb.append(getStripeCount()).append(" stripes:");
+      for (int i = 0; i < getStripeCount(); ++i) {
+        sb.append(" [").append(Bytes.toStringBinary(getStartRow(i))).append(", ")
+            .append(Bytes.toStringBinary(getEndRow(i))).append(")=")
+            .append(getStripeFiles(i).size());
+      }
+      return sb.toString();
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.monitoring.MonitoredTask;
+import org.apache.hadoop.hbase.util.CollectionBackedScanner;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * Flushes the memstore of a store managed by {@link StripeStoreFileManager}. Once the store has
+ * stripes, the snapshot is written into one file per stripe that gets any cells, so the flushed
+ * data skips L0; until then, it is written into a single L0 file.
+ */
+@InterfaceAudience.Private
+public class StripeStoreFlusher extends StoreFlusher {
+  private static final Log LOG = LogFactory.getLog(StripeStoreFlusher.class);
+  private final Object flushLock = new Object();
+  private final StripeStoreFileManager stripeManager;
+
+  public StripeStoreFlusher(Configuration conf, Store store,
+      StripeStoreFileManager stripeManager) {
+    super(conf, store);
+    this.stripeManager = stripeManager;
+  }
+
+  @Override
+  public List<Path> flushSnapshot(SortedSet<KeyValue> snapshot, long cacheFlushSeqNum,
+      final TimeRangeTracker snapshotTimeRangeTracker, AtomicLong flushedSize,
+      MonitoredTask status) throws IOException {
+    List<Path> result = new ArrayList<Path>();
+    final int kvCount = snapshot.size();
+    if (kvCount == 0) return result; // don't flush if there are no entries
+
+    long smallestReadPoint = store.getSmallestReadPoint();
+    KeyValueScanner memstoreScanner =
+        new CollectionBackedScanner(snapshot, store.getComparator());
+    InternalScanner scanner = preCreateCoprocScanner(memstoreScanner);
+    if (scanner == null) {
+      scanner = createStoreScanner(smallestReadPoint, memstoreScanner);
+    }
+    scanner = postCreateCoprocScanner(scanner);
+    if (scanner == null) {
+      return result; // NULL scanner returned from coprocessor hooks means skip normal processing
+    }
+
+    List<byte[]> boundaries = stripeManager.getStripes().getBoundaries();
+    long flushed = 0;
+    try {
+      synchronized (flushLock) {
+        if (boundaries.isEmpty()) {
+          status.setStatus("Flushing " + store + ": creating writer");
+          StoreFile.Writer writer = store.createWriterInTmp(
+              kvCount, store.getFamily().getCompression(), false, true);
+          writer.setTimeRangeTracker(snapshotTimeRangeTracker);
+          try {
+            flushed = performFlush(scanner, writer, smallestReadPoint);
+          } finally {
+            finalizeWriter(writer, cacheFlushSeqNum, status);
+          }
+          result.add(writer.getPath());
+        } else {
+          status.setStatus("Flushing " + store + ": writing " + (boundaries.size() - 1)
+              + " stripes");
+          StripeMultiFileWriter mw = new StripeMultiFileWriter.BoundaryMultiWriter(
+              boundaries, false);
+          mw.init(new StripeMultiFileWriter.WriterFactory() {
+            @Override
+            public StoreFile.Writer createWriter() throws IOException {
+              StoreFile.Writer writer = store.createWriterInTmp(
+                  kvCount, store.getFamily().getCompression(), false, true);
+              writer.setTimeRangeTracker(snapshotTimeRangeTracker);
+              return writer;
+            }
+          }, store.getComparator());
+          boolean success = false;
+          try {
+            flushed = performFlush(scanner, mw, smallestReadPoint);
+            status.setStatus("Flushing " + store + ": closing flushed files");
+            result = mw.commitWriters(cacheFlushSeqNum, false);
+            success = true;
+          } finally {
+            if (!success) {
+              mw.abortWriters(store.getFileSystem());
+            }
+          }
+        }
+      }
+    } finally {
+      flushedSize.set(flushed);
+      scanner.close();
+    }
+    LOG.info("Flushed, sequenceid=" + cacheFlushSeqNum + ", memsize="
+        + StringUtils.humanReadableInt(flushed) + ", into tmp files " + result);
+    return result;
+  }
+}
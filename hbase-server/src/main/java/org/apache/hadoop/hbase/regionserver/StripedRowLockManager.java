@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.regionserver.HRegion.RowLock;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * A {@link RowLockManager} over a fixed table of read/write locks. A row is locked by locking
+ * the stripe its hash falls in, so taking and releasing a lock allocates nothing when it is not
+ * contended, but rows sharing a stripe contend with each other. Shared locks are read locks: they
+ * run alongside each other and wait for exclusive ones.
+ * <p>
+ * A thread holding a shared lock must not ask for an exclusive lock of the same stripe and wait
+ * for it; it would wait on itself until the lock times out.
+ */
+@InterfaceAudience.Private
+public class StripedRowLockManager extends RowLockManager {
+  /** Configuration key for the number of stripes. Rounded up to a power of two */
+  public static final String STRIPES_KEY = "hbase.rowlock.striped.stripes";
+  static final int DEFAULT_STRIPES = 128;
+
+  private Stripe[] stripes;
+  private int mask;
+
+  /** A lock of the table, and the locks handed out for it in either mode */
+  private static class Stripe {
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final RowLock exclusive = new RowLock() {
+      @Override
+      public void release() {
+        lock.writeLock().unlock();
+      }
+    };
+    private final RowLock shared = new RowLock() {
+      @Override
+      public void release() {
+        lock.readLock().unlock();
+      }
+    };
+  }
+
+  @Override
+  public void setConf(Configuration conf) {
+    super.setConf(conf);
+    int numStripes = conf == null ? DEFAULT_STRIPES : conf.getInt(STRIPES_KEY, DEFAULT_STRIPES);
+    numStripes = numStripes <= 1 ? 1 : Integer.highestOneBit(numStripes - 1) << 1;
+    this.stripes = new Stripe[numStripes];
+    for (int i = 0; i < numStripes; i++) {
+      this.stripes[i] = new Stripe();
+    }
+    this.mask = numStripes - 1;
+  }
+
+  int getNumStripes() {
+    return this.stripes.length;
+  }
+
+  int getStripe(byte[] row) {
+    int h = Bytes.hashCode(row);
+    return (h ^ (h >>> 16)) & this.mask;
+  }
+
+  @Override
+  public RowLock getRowLock(byte[] row, boolean shared, boolean waitForLock)
+      throws IOException {
+    Stripe stripe = this.stripes[getStripe(row)];
+    Lock lock = shared ? stripe.lock.readLock() : stripe.lock.writeLock();
+    if (!waitForLock) {
+      if (!lock.tryLock()) {
+        return null;
+      }
+    } else {
+      try {
+        if (!lock.tryLock(this.rowLockWaitDuration, TimeUnit.MILLISECONDS)) {
+          throw new IOException("Timed out waiting for lock for row: " +
+            Bytes.toStringBinary(row));
+        }
+      } catch (InterruptedException ie) {
+        InterruptedIOException iie = new InterruptedIOException();
+        iie.initCause(ie);
+        throw iie;
+      }
+    }
+    return shared ? stripe.shared : stripe.exclusive;
+  }
+
+  /**
+   * @return the rows ordered by stripe, so that threads locking several rows take the stripes
+   *   in the same order
+   */
+  @Override
+  public List<byte[]> orderForLocking(Collection<byte[]> rows) {
+    List<byte[]> ordered = super.orderForLocking(rows);
+    Collections.sort(ordered, new Comparator<byte[]>() {
+      @Override
+      public int compare(byte[] left, byte[] right) {
+        int l = getStripe(left);
+        int r = getStripe(right);
+        return l < r ? -1 : (l == r ? 0 : 1);
+      }
+    });
+    return ordered;
+  }
+}
@@ -70,6 +70,17 @@ public abstract class CompactionContext {
    */
   public abstract List<Path> compact() throws IOException;
 
+  /**
+   * Runs the compaction based on current selection, at a rate limited by the controller.
+   * Compactions that cannot be throttled run as fast as {@link #compact()}.
+   * @param throughputController limits the rate at which the compaction writes
+   * @return The new file paths resulting from compaction.
+   */
+  public List<Path> compact(CompactionThroughputController throughputController)
+      throws IOException {
+    return compact();
+  }
+
   public CompactionRequest getRequest() {
     assert hasSelection();
     return this.request;
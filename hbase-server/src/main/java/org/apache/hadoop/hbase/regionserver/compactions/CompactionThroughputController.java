@@ -0,0 +1,66 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.Stoppable;
+import org.apache.hadoop.hbase.regionserver.HRegionServer;
+
+/**
+ * Limits the rate at which the compactions of a region server write. One instance is shared by
+ * all the compactions of a server; {@link Compactor} calls {@link #control(String, long)} for
+ * every block worth of cells it writes.
+ */
+@InterfaceAudience.Private
+public interface CompactionThroughputController extends Stoppable {
+
+  /**
+   * Sets up the controller for the given server. Called once, before any compaction runs.
+   */
+  void setup(HRegionServer server);
+
+  /**
+   * Called before a compaction starts writing.
+   * @param compactionName a name unique among the running compactions
+   */
+  void start(String compactionName);
+
+  /**
+   * Called after the compaction wrote another size bytes; sleeps if the compaction is going
+   * faster than allowed.
+   * @return the time slept, in milliseconds
+   */
+  long control(String compactionName, long size) throws InterruptedException;
+
+  /**
+   * Called after a compaction is done writing, whether it succeeded or not.
+   */
+  void finish(String compactionName);
+
+  /**
+   * @return the current limit on the bytes per second written by all compactions together;
+   *         {@link Double#MAX_VALUE} if unlimited
+   */
+  double getMaxThroughput();
+
+  /**
+   * @return the total time compactions slept for, in milliseconds
+   */
+  long getThrottledTime();
+}
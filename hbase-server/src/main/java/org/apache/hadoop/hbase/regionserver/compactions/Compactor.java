@@ -18,10 +18,12 @@
 package org.apache.hadoop.hbase.regionserver.compactions;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -54,6 +56,7 @@ import org.apache.hadoop.util.StringUtils;
 @InterfaceAudience.Private
 public abstract class Compactor {
   private static final Log LOG = LogFactory.getLog(Compactor.class);
+  private static final AtomicInteger NAME_COUNTER = new AtomicInteger(0);
   protected CompactionProgress progress;
   protected Configuration conf;
   protected Store store;
@@ -81,11 +84,22 @@ public abstract class Compactor {
   /**
    * Do a minor/major compaction on an explicit set of storefiles from a Store.
    * @param request the requested compaction
+   * @param throughputController limits the rate at which the compaction writes
    * @return Product of compaction or an empty list if all cells expired or deleted and nothing made
    *         it through the compaction.
    * @throws IOException
    */
-  public abstract List<Path> compact(final CompactionRequest request) throws IOException;
+  public abstract List<Path> compact(final CompactionRequest request,
+      CompactionThroughputController throughputController) throws IOException;
+
+  /**
+   * Do a minor/major compaction on an explicit set of storefiles from a Store, as fast as
+   * possible.
+   * @see #compact(CompactionRequest, CompactionThroughputController)
+   */
+  public List<Path> compact(final CompactionRequest request) throws IOException {
+    return compact(request, NoLimitCompactionThroughputController.INSTANCE);
+  }
 
   /**
    * Compact a list of files for testing. Creates a fake {@link CompactionRequest} to pass to
@@ -194,41 +208,86 @@ public abstract class Compactor {
     return store.getCoprocessorHost().preCompact(store, scanner, scanType, request);
   }
 
+  /**
+   * @return a name for a compaction of the store, unique within this server
+   */
+  protected String generateCompactionName() {
+    return store.getRegionInfo().getRegionNameAsString() + "#" + store.getColumnFamilyName()
+        + "#" + NAME_COUNTER.getAndIncrement();
+  }
+
+  /**
+   * Writes all the cells of the scanner to the writer. Every block size worth of written cells
+   * is reported to the throughput controller, which may sleep to slow the compaction down.
+   * @return false if the store was closed before the compaction completed
+   */
+  protected boolean performCompaction(InternalScanner scanner, CellSink writer,
+      long smallestReadPoint, CompactionThroughputController throughputController)
+      throws IOException {
+    return performCompaction(scanner, writer, smallestReadPoint, throughputController,
+        this.progress);
+  }
+
+  /**
+   * Like {@link #performCompaction(InternalScanner, CellSink, long,
+   * CompactionThroughputController)}, counting the written cells in the given progress; used
+   * when several threads write parts of one compaction.
+   */
   @SuppressWarnings("deprecation")
-  protected boolean performCompaction(InternalScanner scanner,
-      CellSink writer, long smallestReadPoint) throws IOException {
+  protected boolean performCompaction(InternalScanner scanner, CellSink writer,
+      long smallestReadPoint, CompactionThroughputController throughputController,
+      CompactionProgress progress) throws IOException {
     int bytesWritten = 0;
+    long bytesWrittenSinceControl = 0;
+    long controlPerSize = (store.getFamily() == null)
+        ? HConstants.DEFAULT_BLOCKSIZE : store.getFamily().getBlocksize();
+    String compactionName = generateCompactionName();
     // Since scanner.next() can return 'false' but still be delivering data,
     // we have to use a do/while loop.
     List<Cell> kvs = new ArrayList<Cell>();
     // Limit to "hbase.hstore.compaction.kv.max" (default 10) to avoid OOME
     int closeCheckInterval = HStore.getCloseCheckInterval();
     boolean hasMore;
-    do {
-      hasMore = scanner.next(kvs, compactionKVMax);
-      // output to writer:
-      for (Cell c : kvs) {
-        KeyValue kv = KeyValueUtil.ensureKeyValue(c);
-        if (kv.getMvccVersion() <= smallestReadPoint) {
-          kv.setMvccVersion(0);
-        }
-        writer.append(kv);
-        ++progress.currentCompactedKVs;
-
-        // check periodically to see if a system stop is requested
-        if (closeCheckInterval > 0) {
-          bytesWritten += kv.getLength();
-          if (bytesWritten > closeCheckInterval) {
-            bytesWritten = 0;
-            if (!store.areWritesEnabled()) {
-              progress.cancel();
-              return false;
+    throughputController.start(compactionName);
+    try {
+      do {
+        hasMore = scanner.next(kvs, compactionKVMax);
+        // output to writer:
+        for (Cell c : kvs) {
+          KeyValue kv = KeyValueUtil.ensureKeyValue(c);
+          if (kv.getMvccVersion() <= smallestReadPoint) {
+            kv.setMvccVersion(0);
+          }
+          writer.append(kv);
+          ++progress.currentCompactedKVs;
+
+          bytesWrittenSinceControl += kv.getLength();
+          if (bytesWrittenSinceControl >= controlPerSize) {
+            throughputController.control(compactionName, bytesWrittenSinceControl);
+            bytesWrittenSinceControl = 0;
+          }
+
+          // check periodically to see if a system stop is requested
+          if (closeCheckInterval > 0) {
+            bytesWritten += kv.getLength();
+            if (bytesWritten > closeCheckInterval) {
+              bytesWritten = 0;
+              if (!store.areWritesEnabled()) {
+                progress.cancel();
+                return false;
+              }
             }
           }
         }
-      }
-      kvs.clear();
-    } while (hasMore);
+        kvs.clear();
+      } while (hasMore);
+    } catch (InterruptedException e) {
+      progress.cancel();
+      throw new InterruptedIOException("Interrupted while controlling the throughput of "
+          + compactionName);
+    } finally {
+      throughputController.finish(compactionName);
+    }
     progress.complete();
     return true;
   }
@@ -0,0 +1,189 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.regionserver.StoreConfigInformation;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+
+/**
+ * Compaction policy for time series data, where cells are mostly written in timestamp order.
+ * Files are grouped into time windows by their maximum timestamp, and only files of the same
+ * window are compacted together, so every file keeps a narrow time range and a scan with a time
+ * range can skip most of them.
+ * <p>
+ * The newest window starts at the current time rounded down to the base window size. Going back
+ * in time, every run of {@link #WINDOWS_PER_TIER_KEY} windows is followed by windows that many
+ * times larger, so old data is compacted less and less often. Files older than
+ * {@link #MAX_STOREFILE_AGE_KEY} are not compacted at all. The newest window is compacted once it
+ * has the minimum number of files; an older window as soon as it has two, e.g. after late data.
+ * <p>
+ * As compactions must take contiguous files in sequence id order, a file is placed by the
+ * largest maximum timestamp of itself and the files before it. There are no scheduled major
+ * compactions, since they would merge all the windows; a user may still request one.
+ * Enable it by setting hbase.hstore.defaultengine.compactionpolicy.class to this class.
+ */
+@InterfaceAudience.Private
+public class DateTieredCompactionPolicy extends RatioBasedCompactionPolicy {
+  private static final Log LOG = LogFactory.getLog(DateTieredCompactionPolicy.class);
+
+  private static final String CONFIG_PREFIX = "hbase.hstore.compaction.date.tiered.";
+  /** The size of the newest windows, in milliseconds */
+  public static final String BASE_WINDOW_MILLIS_KEY = CONFIG_PREFIX + "base.window.millis";
+  /** The number of windows of the same size before the size grows by the same factor */
+  public static final String WINDOWS_PER_TIER_KEY = CONFIG_PREFIX + "windows.per.tier";
+  /** The age, by maximum timestamp, after which a file is no longer compacted */
+  public static final String MAX_STOREFILE_AGE_KEY = CONFIG_PREFIX + "max.storefile.age.millis";
+
+  private final long baseWindowMillis;
+  private final int windowsPerTier;
+  private final long maxStoreFileAgeMillis;
+
+  public DateTieredCompactionPolicy(Configuration conf, StoreConfigInformation storeConfigInfo) {
+    super(conf, storeConfigInfo);
+    this.baseWindowMillis = Math.max(1, conf.getLong(BASE_WINDOW_MILLIS_KEY, 1000 * 60 * 60 * 6));
+    this.windowsPerTier = Math.max(2, conf.getInt(WINDOWS_PER_TIER_KEY, 4));
+    this.maxStoreFileAgeMillis = conf.getLong(MAX_STOREFILE_AGE_KEY, Long.MAX_VALUE);
+  }
+
+  @Override
+  ArrayList<StoreFile> applyCompactionPolicy(ArrayList<StoreFile> candidates,
+      boolean mayUseOffPeak, boolean mayBeStuck) throws IOException {
+    if (candidates.isEmpty()) {
+      return candidates;
+    }
+    long now = EnvironmentEdgeManager.currentTimeMillis();
+    long oldestToCompact = (maxStoreFileAgeMillis == Long.MAX_VALUE)
+        ? Long.MIN_VALUE : now - maxStoreFileAgeMillis;
+
+    // The effective maximum timestamps never decrease, so every window is a contiguous run.
+    final int countOfFiles = candidates.size();
+    long[] maxTimestamps = new long[countOfFiles];
+    long maxSoFar = Long.MIN_VALUE;
+    int firstToCompact = 0;
+    for (int i = 0; i < countOfFiles; ++i) {
+      maxSoFar = Math.max(maxSoFar, candidates.get(i).getReader().getMaxTimestamp());
+      maxTimestamps[i] = maxSoFar;
+      if (maxSoFar < oldestToCompact) {
+        firstToCompact = i + 1;
+      }
+    }
+
+    Window window = new Window(baseWindowMillis, now / baseWindowMillis);
+    boolean isNewestWindow = true;
+    int windowEnd = countOfFiles;
+    for (int i = countOfFiles - 1; i >= firstToCompact; --i) {
+      if (maxTimestamps[i] >= window.getStartMillis()) {
+        continue;
+      }
+      // File i is older than the window; see if the files in the window need compacting.
+      if (shouldCompactWindow(windowEnd - (i + 1), isNewestWindow)) {
+        return selectWindow(candidates, i + 1, windowEnd, window);
+      }
+      windowEnd = i + 1;
+      isNewestWindow = false;
+      do {
+        window = window.nextEarlierWindow(windowsPerTier);
+      } while (maxTimestamps[i] < window.getStartMillis());
+    }
+    if (shouldCompactWindow(windowEnd - firstToCompact, isNewestWindow)) {
+      return selectWindow(candidates, firstToCompact, windowEnd, window);
+    }
+
+    if (mayBeStuck) {
+      // Too many files and no window to compact; fall back to the default selection.
+      LOG.debug("No time window to compact and the store may be stuck; using size ratios");
+      return super.checkMinFilesCriteria(
+          super.applyCompactionPolicy(candidates, mayUseOffPeak, mayBeStuck));
+    }
+    candidates.clear();
+    return candidates;
+  }
+
+  private boolean shouldCompactWindow(int fileCount, boolean isNewestWindow) {
+    return fileCount >= (isNewestWindow ? comConf.getMinFilesToCompact() : 2);
+  }
+
+  private ArrayList<StoreFile> selectWindow(ArrayList<StoreFile> candidates, int start, int end,
+      Window window) {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Date tiered compaction has selected " + (end - start) + " files from "
+          + candidates.size() + " candidates in the " + window);
+    }
+    return new ArrayList<StoreFile>(candidates.subList(start, end));
+  }
+
+  /**
+   * The minimum number of files is checked per window in
+   * {@link #applyCompactionPolicy(ArrayList, boolean, boolean)}.
+   */
+  @Override
+  ArrayList<StoreFile> checkMinFilesCriteria(ArrayList<StoreFile> candidates) {
+    return candidates;
+  }
+
+  /**
+   * Scheduled major compactions would merge all the windows into one file.
+   */
+  @Override
+  public boolean isMajorCompaction(final Collection<StoreFile> filesToCompact)
+      throws IOException {
+    return false;
+  }
+
+  /**
+   * A time window of the given size, starting at a multiple of the size.
+   */
+  private static class Window {
+    private final long windowMillis;
+    private final long divPosition;
+
+    Window(long windowMillis, long divPosition) {
+      this.windowMillis = windowMillis;
+      this.divPosition = divPosition;
+    }
+
+    long getStartMillis() {
+      return windowMillis * divPosition;
+    }
+
+    /**
+     * @return the window just before this one; larger if this one starts a tier
+     */
+    Window nextEarlierWindow(int windowsPerTier) {
+      if (divPosition % windowsPerTier != 0 || windowMillis > Long.MAX_VALUE / windowsPerTier) {
+        return new Window(windowMillis, divPosition - 1);
+      }
+      return new Window(windowMillis * windowsPerTier, divPosition / windowsPerTier - 1);
+    }
+
+    @Override
+    public String toString() {
+      return "window of " + windowMillis + "ms starting at " + getStartMillis();
+    }
+  }
+}
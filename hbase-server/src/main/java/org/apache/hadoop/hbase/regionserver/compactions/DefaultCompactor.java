@@ -20,30 +20,89 @@ package org.apache.hadoop.hbase.regionserver.compactions;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.hbase.regionserver.Store;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValue.KVComparator;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.io.hfile.HFileBlockIndex;
 import org.apache.hadoop.hbase.regionserver.InternalScanner;
+import org.apache.hadoop.hbase.regionserver.MultiVersionConsistencyControl;
+import org.apache.hadoop.hbase.regionserver.RegionCoprocessorHost;
 import org.apache.hadoop.hbase.regionserver.ScanType;
+import org.apache.hadoop.hbase.regionserver.Store;
 import org.apache.hadoop.hbase.regionserver.StoreFile;
 import org.apache.hadoop.hbase.regionserver.StoreFileScanner;
+import org.apache.hadoop.hbase.regionserver.StoreScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Threads;
 
 /**
  * Compact passed set of files. Create an instance and then call {@link #compact(CompactionRequest)}
+ * <p>
+ * A large major compaction may be split into disjoint row ranges that are merged in parallel,
+ * each by its own thread into its own file; see {@link #MAX_SUBCOMPACTIONS_KEY}. The ranges are
+ * chosen from the root block indexes of the input files so that they hold about the same amount
+ * of data. The output files are marked as excluded from minor compactions, so that together they
+ * stay one unit until the next major compaction. A region observer sees a compaction through
+ * the scanner of its hooks, called once per request, so the compactions of a region that has
+ * any are never split.
  */
 @InterfaceAudience.Private
 public class DefaultCompactor extends Compactor {
+  private static final Log LOG = LogFactory.getLog(DefaultCompactor.class);
+
+  /** The most row ranges a major compaction is split into; 1 disables splitting */
+  public static final String MAX_SUBCOMPACTIONS_KEY =
+      "hbase.hstore.compaction.max.subcompactions";
+  /** The least input size, in bytes, of each row range of a split major compaction */
+  public static final String MIN_SUBCOMPACTION_SIZE_KEY =
+      "hbase.hstore.compaction.min.subcompaction.size";
+  private static final long DEFAULT_MIN_SUBCOMPACTION_SIZE = 1024L * 1024 * 1024;
+
+  private final int maxSubCompactions;
+  private final long minSubCompactionSize;
+
   public DefaultCompactor(final Configuration conf, final Store store) {
     super(conf, store);
+    this.maxSubCompactions = Math.max(1, conf.getInt(MAX_SUBCOMPACTIONS_KEY, 1));
+    this.minSubCompactionSize = Math.max(1,
+        conf.getLong(MIN_SUBCOMPACTION_SIZE_KEY, DEFAULT_MIN_SUBCOMPACTION_SIZE));
   }
 
   /**
    * Do a minor/major compaction on an explicit set of storefiles from a Store.
    */
-  public List<Path> compact(final CompactionRequest request) throws IOException {
+  @Override
+  public List<Path> compact(final CompactionRequest request,
+      CompactionThroughputController throughputController) throws IOException {
+    if (request.isMajor()) {
+      int rangeCount = getRangeCount(request);
+      if (rangeCount > 1) {
+        List<byte[]> splitRows =
+            getSplitRows(request.getFiles(), rangeCount, store.getComparator());
+        if (!splitRows.isEmpty()) {
+          return compactInRanges(request, splitRows, throughputController);
+        }
+      }
+    }
     FileDetails fd = getFileDetails(request.getFiles(), request.isMajor());
     this.progress = new CompactionProgress(fd.maxKeyCount);
 
@@ -72,7 +131,8 @@ public class DefaultCompactor extends Compactor {
         // because we need record the max seq id for the store file, see HBASE-6059
         writer = store.createWriterInTmp(fd.maxKeyCount, this.compactionCompression, true,
             fd.maxMVCCReadpoint >= smallestReadPoint);
-        boolean finished = performCompaction(scanner, writer, smallestReadPoint);
+        boolean finished = performCompaction(scanner, writer, smallestReadPoint,
+            throughputController);
         if (!finished) {
           abortWriter(writer);
           writer = null;
@@ -94,4 +154,243 @@ public class DefaultCompactor extends Compactor {
     }
     return newFiles;
   }
+
+  /**
+   * @return the number of row ranges to split a major compaction into; 1 not to split it
+   */
+  int getRangeCount(CompactionRequest request) {
+    RegionCoprocessorHost host = store.getCoprocessorHost();
+    if (host != null && host.hasRegionObservers()) {
+      return 1;
+    }
+    return (int) Math.min(maxSubCompactions, request.getSize() / minSubCompactionSize);
+  }
+
+  /**
+   * Chooses rows that split the files into ranges holding about the same amount of data. Each
+   * entry of the root block index of a file stands for an equal share of the file's size.
+   * @param files the files to split
+   * @param rangeCount the number of ranges wanted
+   * @param comparator the comparator of the store
+   * @return up to rangeCount - 1 rows in ascending order, each the first row of a range but the
+   *         first; empty if the files cannot be split
+   */
+  static List<byte[]> getSplitRows(Collection<StoreFile> files, int rangeCount,
+      final KVComparator comparator) {
+    TreeMap<byte[], Double> rowWeights = new TreeMap<byte[], Double>(new Comparator<byte[]>() {
+      @Override
+      public int compare(byte[] left, byte[] right) {
+        return comparator.compareRows(left, 0, left.length, right, 0, right.length);
+      }
+    });
+    double totalWeight = 0;
+    for (StoreFile file : files) {
+      StoreFile.Reader r = file.getReader();
+      if (r == null) {
+        continue;
+      }
+      HFileBlockIndex.BlockIndexReader index = r.getHFileReader().getDataBlockIndexReader();
+      int rootCount = (index == null) ? 0 : index.getRootBlockCount();
+      if (rootCount == 0) {
+        continue;
+      }
+      double weight = (double) r.length() / rootCount;
+      for (int i = 0; i < rootCount; ++i) {
+        byte[] row = KeyValue.createKeyValueFromKey(index.getRootBlockKey(i)).getRow();
+        Double rowWeight = rowWeights.get(row);
+        rowWeights.put(row, (rowWeight == null) ? weight : rowWeight + weight);
+      }
+      totalWeight += r.length();
+    }
+
+    List<byte[]> splitRows = new ArrayList<byte[]>(rangeCount - 1);
+    double weightBefore = 0;
+    int nextRange = 1;
+    for (Map.Entry<byte[], Double> entry : rowWeights.entrySet()) {
+      if (nextRange >= rangeCount) {
+        break;
+      }
+      if (weightBefore >= totalWeight * nextRange / rangeCount) {
+        splitRows.add(entry.getKey());
+        while (nextRange < rangeCount && weightBefore >= totalWeight * nextRange / rangeCount) {
+          ++nextRange;
+        }
+      }
+      weightBefore += entry.getValue();
+    }
+    return splitRows;
+  }
+
+  /**
+   * Runs a major compaction as one sub-compaction per row range, in parallel. Either all the
+   * ranges complete and their files are returned, to be committed together by the store, or
+   * all the written files are deleted once every range has stopped.
+   */
+  private List<Path> compactInRanges(final CompactionRequest request, List<byte[]> splitRows,
+      final CompactionThroughputController throughputController) throws IOException {
+    final FileDetails fd = getFileDetails(request.getFiles(), true);
+    final CompactionProgress progress = new CompactionProgress(fd.maxKeyCount);
+    this.progress = progress;
+    final long smallestReadPoint = store.getSmallestReadPoint();
+    final int rangeCount = splitRows.size() + 1;
+    LOG.info("Splitting major compaction of " + request.getFiles().size() + " file(s) in "
+        + store + " of " + store.getRegionInfo().getRegionNameAsString() + " into "
+        + rangeCount + " row ranges");
+
+    ThreadPoolExecutor pool = Threads.getBoundedCachedThreadPool(rangeCount, 30L,
+        TimeUnit.SECONDS, Threads.getNamedThreadFactory("SubCompaction-"
+            + store.getRegionInfo().getEncodedName() + "-" + store.getColumnFamilyName()));
+    List<Future<StoreFile.Writer>> futures = new ArrayList<Future<StoreFile.Writer>>(rangeCount);
+    for (int i = 0; i < rangeCount; ++i) {
+      final byte[] startRow = (i == 0) ? HConstants.EMPTY_START_ROW : splitRows.get(i - 1);
+      final byte[] stopRow = (i == rangeCount - 1) ? HConstants.EMPTY_END_ROW : splitRows.get(i);
+      futures.add(pool.submit(new Callable<StoreFile.Writer>() {
+        @Override
+        public StoreFile.Writer call() throws IOException {
+          return compactRange(request, fd, smallestReadPoint, startRow, stopRow,
+              throughputController, progress);
+        }
+      }));
+    }
+
+    List<StoreFile.Writer> writers = new ArrayList<StoreFile.Writer>(rangeCount);
+    IOException ioe = null;
+    try {
+      for (Future<StoreFile.Writer> future : futures) {
+        try {
+          StoreFile.Writer writer = future.get();
+          if (writer != null) {
+            writers.add(writer);
+          }
+        } catch (InterruptedException e) {
+          if (ioe == null) ioe = new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+          if (ioe == null) {
+            ioe = (e.getCause() instanceof IOException)
+                ? (IOException) e.getCause() : new IOException(e.getCause());
+          }
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+
+    if (ioe != null) {
+      progress.cancel();
+      for (StoreFile.Writer writer : writers) {
+        try {
+          abortWriter(writer);
+        } catch (IOException e) {
+          LOG.warn("Failed to delete " + writer.getPath() + " of a failed compaction", e);
+        }
+      }
+      throw ioe;
+    }
+
+    List<Path> newFiles = new ArrayList<Path>(writers.size());
+    for (StoreFile.Writer writer : writers) {
+      writer.appendMetadata(fd.maxSeqId, true);
+      writer.appendFileInfo(StoreFile.EXCLUDE_FROM_MINOR_COMPACTION_KEY, Bytes.toBytes(true));
+      writer.close();
+      newFiles.add(writer.getPath());
+    }
+    progress.complete();
+    return newFiles;
+  }
+
+  /**
+   * Merges the cells of one row range of a major compaction into a new file, from its start row
+   * up to, not including, its stop row. There are no coprocessor hooks to call, see
+   * {@link #getRangeCount(CompactionRequest)}.
+   * @return the unclosed writer of the file
+   */
+  private StoreFile.Writer compactRange(CompactionRequest request, FileDetails fd,
+      long smallestReadPoint, byte[] startRow, byte[] stopRow,
+      CompactionThroughputController throughputController, CompactionProgress progress)
+      throws IOException {
+    // The store file scanners skip cells newer than the read point of their thread.
+    MultiVersionConsistencyControl.setThreadReadPoint(smallestReadPoint);
+    List<StoreFileScanner> scanners = createFileScanners(request.getFiles());
+    CompactionProgress rangeProgress = new CompactionProgress(0);
+    StoreFile.Writer writer = null;
+    boolean finished = false;
+    InternalScanner scanner = null;
+    try {
+      Scan scan = new Scan(startRow, stopRow);
+      scan.setMaxVersions(store.getFamily().getMaxVersions());
+      scanner = new StoreScanner(store, store.getScanInfo(), scan, scanners,
+          ScanType.COMPACT_DROP_DELETES, smallestReadPoint, fd.earliestPutTs);
+      if (!Bytes.equals(stopRow, HConstants.EMPTY_END_ROW)) {
+        // The scanner starts at the start row, but only user scans stop at the stop row.
+        scanner = new StopRowScanner(scanner, stopRow, store.getComparator());
+      }
+      writer = store.createWriterInTmp(fd.maxKeyCount, this.compactionCompression, true,
+          fd.maxMVCCReadpoint >= smallestReadPoint);
+      finished = performCompaction(scanner, writer, smallestReadPoint, throughputController,
+          rangeProgress);
+      if (!finished) {
+        throw new InterruptedIOException("Aborting compaction of store " + store +
+            " in region " + store.getRegionInfo().getRegionNameAsString() +
+            " because it was interrupted.");
+      }
+    } finally {
+      if (scanner != null) {
+        scanner.close();
+      }
+      if (!finished && writer != null) {
+        abortWriter(writer);
+      }
+    }
+    synchronized (progress) {
+      progress.currentCompactedKVs += rangeProgress.currentCompactedKVs;
+    }
+    return writer;
+  }
+
+  /**
+   * Returns the cells of the wrapped scanner that are before a row, and stops there.
+   */
+  private static class StopRowScanner implements InternalScanner {
+    private final InternalScanner scanner;
+    private final byte[] stopRow;
+    private final KVComparator comparator;
+
+    StopRowScanner(InternalScanner scanner, byte[] stopRow, KVComparator comparator) {
+      this.scanner = scanner;
+      this.stopRow = stopRow;
+      this.comparator = comparator;
+    }
+
+    @Override
+    public boolean next(List<Cell> results) throws IOException {
+      return next(results, -1);
+    }
+
+    @Override
+    public boolean next(List<Cell> results, int limit) throws IOException {
+      int start = results.size();
+      boolean hasMore = scanner.next(results, limit);
+      if (results.size() == start || compareRow(results.get(results.size() - 1)) < 0) {
+        return hasMore;
+      }
+      // The cells are sorted, so only the last ones may be past the range.
+      int end = results.size();
+      while (end > start && compareRow(results.get(end - 1)) >= 0) {
+        --end;
+      }
+      results.subList(end, results.size()).clear();
+      return false;
+    }
+
+    private int compareRow(Cell cell) {
+      KeyValue kv = KeyValueUtil.ensureKeyValue(cell);
+      return comparator.compareRows(kv.getBuffer(), kv.getRowOffset(), kv.getRowLength(),
+          stopRow, 0, stopRow.length);
+    }
+
+    @Override
+    public void close() throws IOException {
+      scanner.close();
+    }
+  }
 }
@@ -0,0 +1,261 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.regionserver.HRegionServer;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+
+/**
+ * Limits the bytes per second written by all the compactions of a region server together,
+ * shared equally among the running compactions. The limit moves between a lower and a higher
+ * bound with the compaction pressure of the server, i.e. how close its fullest store is to
+ * blocking updates: at the lower bound when no store needs compacting, at the higher bound when
+ * a store is about to block. While a store blocks updates, or during off-peak hours (see
+ * {@link OffPeakHours}), compactions run unlimited unless an off-peak limit is set.
+ * <p>
+ * The limit is recomputed at most once per tune period, by the first compaction to write after
+ * the period has passed.
+ */
+@InterfaceAudience.Private
+public class PressureAwareCompactionThroughputController
+    implements CompactionThroughputController {
+  private static final Log LOG =
+      LogFactory.getLog(PressureAwareCompactionThroughputController.class);
+
+  public static final String HBASE_HSTORE_COMPACTION_MAX_THROUGHPUT_HIGHER_BOUND =
+      "hbase.hstore.compaction.throughput.higher.bound";
+  private static final long DEFAULT_HBASE_HSTORE_COMPACTION_MAX_THROUGHPUT_HIGHER_BOUND =
+      20L * 1024 * 1024;
+
+  public static final String HBASE_HSTORE_COMPACTION_MAX_THROUGHPUT_LOWER_BOUND =
+      "hbase.hstore.compaction.throughput.lower.bound";
+  private static final long DEFAULT_HBASE_HSTORE_COMPACTION_MAX_THROUGHPUT_LOWER_BOUND =
+      10L * 1024 * 1024;
+
+  public static final String HBASE_HSTORE_COMPACTION_MAX_THROUGHPUT_OFFPEAK =
+      "hbase.hstore.compaction.throughput.offpeak";
+  private static final long DEFAULT_HBASE_HSTORE_COMPACTION_MAX_THROUGHPUT_OFFPEAK =
+      Long.MAX_VALUE;
+
+  public static final String HBASE_HSTORE_COMPACTION_THROUGHPUT_TUNE_PERIOD =
+      "hbase.hstore.compaction.throughput.tune.period";
+  private static final int DEFAULT_HBASE_HSTORE_COMPACTION_THROUGHPUT_TUNE_PERIOD = 60 * 1000;
+
+  /** The bytes written by a compaction between two checks of its rate */
+  public static final String HBASE_HSTORE_COMPACTION_THROUGHPUT_CONTROL_CHECK_INTERVAL =
+      "hbase.hstore.compaction.throughput.control.check.interval";
+
+  /** The progress of one running compaction */
+  private static final class ActiveCompaction {
+    private final long startTime;
+    private long lastControlTime;
+    private long lastControlSize = 0;
+    private long totalSize = 0;
+    private long numberOfSleeps = 0;
+    private long totalSleepTime = 0;
+
+    ActiveCompaction(long startTime) {
+      this.startTime = startTime;
+      this.lastControlTime = startTime;
+    }
+  }
+
+  private HRegionServer server;
+  private OffPeakHours offPeakHours;
+
+  private double maxThroughputHigherBound;
+  private double maxThroughputLowerBound;
+  private double maxThroughputOffPeak;
+  private long tunePeriod;
+  private long controlPerSize;
+
+  private volatile double maxThroughput;
+  private volatile long lastTuneTime = 0;
+  private final AtomicLong throttledTime = new AtomicLong(0);
+  private final ConcurrentMap<String, ActiveCompaction> activeCompactions =
+      new ConcurrentHashMap<String, ActiveCompaction>();
+
+  private volatile boolean stopped = false;
+
+  @Override
+  public void setup(HRegionServer server) {
+    this.server = server;
+    Configuration conf = server.getConfiguration();
+    this.maxThroughputHigherBound =
+        conf.getLong(HBASE_HSTORE_COMPACTION_MAX_THROUGHPUT_HIGHER_BOUND,
+          DEFAULT_HBASE_HSTORE_COMPACTION_MAX_THROUGHPUT_HIGHER_BOUND);
+    this.maxThroughputLowerBound =
+        conf.getLong(HBASE_HSTORE_COMPACTION_MAX_THROUGHPUT_LOWER_BOUND,
+          DEFAULT_HBASE_HSTORE_COMPACTION_MAX_THROUGHPUT_LOWER_BOUND);
+    this.maxThroughputOffPeak = conf.getLong(HBASE_HSTORE_COMPACTION_MAX_THROUGHPUT_OFFPEAK,
+        DEFAULT_HBASE_HSTORE_COMPACTION_MAX_THROUGHPUT_OFFPEAK);
+    this.tunePeriod = conf.getInt(HBASE_HSTORE_COMPACTION_THROUGHPUT_TUNE_PERIOD,
+        DEFAULT_HBASE_HSTORE_COMPACTION_THROUGHPUT_TUNE_PERIOD);
+    // Check about once a second at the lower bound.
+    this.controlPerSize = conf.getLong(HBASE_HSTORE_COMPACTION_THROUGHPUT_CONTROL_CHECK_INTERVAL,
+        (long) this.maxThroughputLowerBound);
+    this.offPeakHours = OffPeakHours.getInstance(conf);
+    this.maxThroughput = this.maxThroughputLowerBound;
+    LOG.info("Compaction throughput configurations, higher bound: "
+        + throughputDesc(maxThroughputHigherBound) + ", lower bound "
+        + throughputDesc(maxThroughputLowerBound) + ", off peak: "
+        + throughputDesc(maxThroughputOffPeak) + ", tuning period: " + tunePeriod + " ms");
+  }
+
+  /**
+   * @param compactionPressure the compaction pressure of the server
+   * @param offPeak whether it is off-peak hours
+   * @return the limit on the bytes per second written by all compactions together
+   */
+  double computeMaxThroughput(double compactionPressure, boolean offPeak) {
+    if (compactionPressure > 1.0) {
+      // Updates are blocked; compact as fast as possible.
+      return Double.MAX_VALUE;
+    }
+    if (offPeak) {
+      return maxThroughputOffPeak == Long.MAX_VALUE ? Double.MAX_VALUE : maxThroughputOffPeak;
+    }
+    return maxThroughputLowerBound
+        + (maxThroughputHigherBound - maxThroughputLowerBound) * compactionPressure;
+  }
+
+  private void tune(long now) {
+    synchronized (this) {
+      if (now - lastTuneTime < tunePeriod) {
+        return;
+      }
+      lastTuneTime = now;
+    }
+    double compactionPressure = server.getCompactionPressure();
+    double maxThroughputToSet =
+        computeMaxThroughput(compactionPressure, offPeakHours.isOffPeakHour());
+    if (LOG.isDebugEnabled() && maxThroughputToSet != maxThroughput) {
+      LOG.debug("Compaction pressure is " + compactionPressure + ", tune compaction throughput"
+          + " to " + throughputDesc(maxThroughputToSet));
+    }
+    this.maxThroughput = maxThroughputToSet;
+  }
+
+  @Override
+  public void start(String compactionName) {
+    activeCompactions.put(compactionName,
+        new ActiveCompaction(EnvironmentEdgeManager.currentTimeMillis()));
+  }
+
+  @Override
+  public long control(String compactionName, long size) throws InterruptedException {
+    ActiveCompaction compaction = activeCompactions.get(compactionName);
+    if (compaction == null) {
+      return 0;
+    }
+    compaction.totalSize += size;
+    long deltaSize = compaction.totalSize - compaction.lastControlSize;
+    if (deltaSize < controlPerSize) {
+      return 0;
+    }
+    long now = EnvironmentEdgeManager.currentTimeMillis();
+    tune(now);
+    double maxThroughputPerCompaction = maxThroughput / activeCompactions.size();
+    long minTimeAllowed = (long) (deltaSize / maxThroughputPerCompaction * 1000); // ms
+    long elapsedTime = now - compaction.lastControlTime;
+    compaction.lastControlSize = compaction.totalSize;
+    if (elapsedTime >= minTimeAllowed || stopped) {
+      compaction.lastControlTime = now;
+      return 0;
+    }
+    // too fast
+    long sleepTime = minTimeAllowed - elapsedTime;
+    if (LOG.isDebugEnabled()) {
+      // do not log too much
+      if (compaction.numberOfSleeps % 100 == 0) {
+        LOG.debug(compactionName + " sleep " + sleepTime + " ms because current throughput is "
+            + throughputDesc(deltaSize, elapsedTime) + ", max allowed is "
+            + throughputDesc(maxThroughputPerCompaction) + ", already slept "
+            + compaction.numberOfSleeps + " time(s) and total slept time is "
+            + compaction.totalSleepTime + " ms till now.");
+      }
+    }
+    Thread.sleep(sleepTime);
+    compaction.numberOfSleeps++;
+    compaction.totalSleepTime += sleepTime;
+    throttledTime.addAndGet(sleepTime);
+    compaction.lastControlTime = EnvironmentEdgeManager.currentTimeMillis();
+    return sleepTime;
+  }
+
+  @Override
+  public void finish(String compactionName) {
+    ActiveCompaction compaction = activeCompactions.remove(compactionName);
+    if (compaction == null) {
+      return;
+    }
+    long elapsedTime = Math.max(1,
+        EnvironmentEdgeManager.currentTimeMillis() - compaction.startTime);
+    LOG.info(compactionName + " average throughput is "
+        + throughputDesc(compaction.totalSize, elapsedTime) + ", slept "
+        + compaction.numberOfSleeps + " time(s) and total slept time is "
+        + compaction.totalSleepTime + " ms. " + activeCompactions.size()
+        + " active compactions remaining, total limit is " + throughputDesc(maxThroughput));
+  }
+
+  @Override
+  public double getMaxThroughput() {
+    return maxThroughput;
+  }
+
+  @Override
+  public long getThrottledTime() {
+    return throttledTime.get();
+  }
+
+  @Override
+  public void stop(String why) {
+    stopped = true;
+  }
+
+  @Override
+  public boolean isStopped() {
+    return stopped;
+  }
+
+  private static String throughputDesc(long deltaSize, long elapsedTime) {
+    return throughputDesc((double) deltaSize / elapsedTime * 1000);
+  }
+
+  private static String throughputDesc(double speed) {
+    if (speed >= 1E15) { // large enough to say it is unlimited
+      return "unlimited";
+    }
+    return String.format("%.2f MB/sec", speed / 1024 / 1024);
+  }
+
+  @Override
+  public String toString() {
+    return "PressureAwareCompactionThroughputController [maxThroughput="
+        + throughputDesc(maxThroughput) + ", activeCompactions=" + activeCompactions.size() + "]";
+  }
+}
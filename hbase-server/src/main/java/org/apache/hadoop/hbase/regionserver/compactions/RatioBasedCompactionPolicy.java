@@ -221,7 +221,7 @@ public class RatioBasedCompactionPolicy extends CompactionPolicy {
    * @return filtered subset
    * forget the compactionSelection if we don't have enough files
    */
-  private ArrayList<StoreFile> checkMinFilesCriteria(ArrayList<StoreFile> candidates) {
+  ArrayList<StoreFile> checkMinFilesCriteria(ArrayList<StoreFile> candidates) {
     int minFiles = comConf.getMinFilesToCompact();
     if (candidates.size() < minFiles) {
       if(LOG.isDebugEnabled()) {
@@ -328,19 +328,30 @@ public class RatioBasedCompactionPolicy extends CompactionPolicy {
     if (lowTimestamp > 0l && lowTimestamp < (now - mcTime)) {
       // Major compaction time has elapsed.
       long cfTtl = this.storeConfigInfo.getStoreFileTtl();
-      if (filesToCompact.size() == 1) {
-        // Single file
-        StoreFile sf = filesToCompact.iterator().next();
-        Long minTimestamp = sf.getMinimumTimestamp();
+      if (filesToCompact.size() == 1 || isSplitMajorCompactionOutput(filesToCompact)) {
+        // Single file, or the row ranges of one major compaction
+        Long minTimestamp = null;
+        boolean isMajor = true;
+        for (StoreFile sf : filesToCompact) {
+          Long fileMinTimestamp = sf.getMinimumTimestamp();
+          if (fileMinTimestamp == null) {
+            minTimestamp = null;
+            break;
+          }
+          if (minTimestamp == null || fileMinTimestamp < minTimestamp) {
+            minTimestamp = fileMinTimestamp;
+          }
+          isMajor &= sf.isMajorCompaction();
+        }
         long oldest = (minTimestamp == null)
             ? Long.MIN_VALUE
             : now - minTimestamp.longValue();
-        if (sf.isMajorCompaction() &&
+        if (isMajor &&
             (cfTtl == HConstants.FOREVER || oldest < cfTtl)) {
           if (LOG.isDebugEnabled()) {
             LOG.debug("Skipping major compaction of " + this +
-                " because one (major) compacted file only and oldestTime " +
-                oldest + "ms is < ttl=" + cfTtl);
+                " because " + filesToCompact.size() + " (major) compacted file(s) only" +
+                " and oldestTime " + oldest + "ms is < ttl=" + cfTtl);
           }
         } else if (cfTtl != HConstants.FOREVER && oldest > cfTtl) {
           LOG.debug("Major compaction triggered on store " + this +
@@ -359,6 +370,22 @@ public class RatioBasedCompactionPolicy extends CompactionPolicy {
     return result;
   }
 
+  /**
+   * @return whether the files are the output of one major compaction that was split into row
+   *         ranges; see {@link DefaultCompactor#MAX_SUBCOMPACTIONS_KEY}
+   */
+  private static boolean isSplitMajorCompactionOutput(Collection<StoreFile> files) {
+    Long seqId = null;
+    for (StoreFile sf : files) {
+      if (!sf.isMajorCompaction() || !sf.excludeFromMinorCompaction() || sf.isBulkLoadResult()
+          || (seqId != null && seqId != sf.getMaxSequenceId())) {
+        return false;
+      }
+      seqId = sf.getMaxSequenceId();
+    }
+    return true;
+  }
+
   public long getNextMajorCompactTime(final Collection<StoreFile> filesToCompact) {
     // default = 24hrs
     long ret = comConf.getMajorCompactionPeriod();
@@ -0,0 +1,293 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.regionserver.StoreConfigInformation;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.regionserver.StripeMultiFileWriter;
+import org.apache.hadoop.hbase.regionserver.StripeStoreFileManager;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Compaction policy for stores managed by {@link StripeStoreFileManager}. Each compaction
+ * touches either L0 or a single stripe, so write amplification depends on the stripe size rather
+ * than on the region size:
+ * <ul>
+ * <li>Once L0 has enough files, they are rewritten into the stripes; or, while the store has no
+ * stripes yet, into new stripes of about half of {@link #SIZE_TO_SPLIT_KEY} each.</li>
+ * <li>Otherwise, the stripe with the most files is compacted, and split in two if it has grown
+ * past {@link #SIZE_TO_SPLIT_KEY}.</li>
+ * </ul>
+ * Deletes are only dropped when L0 is empty, as L0 files may hold older cells of any stripe.
+ * There are no periodic major compactions; a forced one rewrites all the files.
+ */
+@InterfaceAudience.Private
+public class StripeCompactionPolicy extends CompactionPolicy {
+  private static final Log LOG = LogFactory.getLog(StripeCompactionPolicy.class);
+
+  /** The number of L0 files that triggers their compaction into stripes */
+  public static final String MIN_FILES_L0_KEY = "hbase.store.stripe.compaction.minFilesL0";
+  /** The number of files in a stripe that triggers its compaction */
+  public static final String MIN_FILES_KEY = "hbase.store.stripe.compaction.minFiles";
+  /** The maximum number of stripe files compacted at once */
+  public static final String MAX_FILES_KEY = "hbase.store.stripe.compaction.maxFiles";
+  /** The size of a stripe after which it is split when compacted */
+  public static final String SIZE_TO_SPLIT_KEY = "hbase.store.stripe.sizeToSplit";
+
+  private final StripeStoreFileManager stripeManager;
+  private final int minFilesL0;
+  private final int minFiles;
+  private final int maxFiles;
+  private final long sizeToSplit;
+
+  public StripeCompactionPolicy(Configuration conf, StoreConfigInformation storeConfigInfo,
+      StripeStoreFileManager stripeManager) {
+    super(conf, storeConfigInfo);
+    this.stripeManager = stripeManager;
+    this.minFilesL0 = Math.max(1, conf.getInt(MIN_FILES_L0_KEY, 4));
+    this.minFiles = Math.max(2, conf.getInt(MIN_FILES_KEY, comConf.minFilesToCompact));
+    this.maxFiles = Math.max(this.minFiles, conf.getInt(MAX_FILES_KEY, comConf.maxFilesToCompact));
+    this.sizeToSplit = conf.getLong(SIZE_TO_SPLIT_KEY, 2L * 1024 * 1024 * 1024);
+  }
+
+  /**
+   * @param filesCompacting files currently compacting
+   * @return the files that are not compacting, for the coprocessor to choose from
+   */
+  public List<StoreFile> preSelectFilesForCoprocessor(List<StoreFile> filesCompacting) {
+    List<StoreFile> candidates = new ArrayList<StoreFile>(stripeManager.getStorefiles());
+    candidates.removeAll(filesCompacting);
+    return candidates;
+  }
+
+  /**
+   * @param filesCompacting files currently compacting
+   * @param isUserCompaction whether this is a user compaction
+   * @param forceMajor whether to rewrite all the files; only set if none is compacting
+   * @return the selected compaction, with no files if there is nothing to compact
+   */
+  public StripeCompactionRequest selectCompaction(List<StoreFile> filesCompacting,
+      boolean isUserCompaction, boolean forceMajor) throws IOException {
+    StripeStoreFileManager.Stripes stripes = stripeManager.getStripes();
+    StripeCompactionRequest request = forceMajor
+        ? selectAllFiles(stripes)
+        : selectLevel0(stripes, filesCompacting);
+    if (request == null) {
+      request = selectStripe(stripes, filesCompacting);
+    }
+    if (request == null) {
+      return new StripeCompactionRequest(Collections.<StoreFile>emptyList(), false);
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Selected " + request.getFiles().size() + " files of " + stripes
+          + (isUserCompaction ? " for user compaction" : "") + ": " + request.describeOutput());
+    }
+    return request;
+  }
+
+  private StripeCompactionRequest selectAllFiles(StripeStoreFileManager.Stripes stripes) {
+    Collection<StoreFile> files = stripeManager.getStorefiles();
+    if (files.isEmpty()) {
+      return null;
+    }
+    StripeCompactionRequest request = new StripeCompactionRequest(files, true);
+    if (stripes.getStripeCount() == 0) {
+      request.setSizeTarget(StripeStoreFileManager.OPEN_KEY, StripeStoreFileManager.OPEN_KEY,
+          sizeToSplit / 2);
+    } else {
+      request.setBoundaries(stripes.getBoundaries(), true);
+    }
+    return request;
+  }
+
+  private StripeCompactionRequest selectLevel0(StripeStoreFileManager.Stripes stripes,
+      List<StoreFile> filesCompacting) {
+    List<StoreFile> level0 = stripes.getLevel0Files();
+    if (level0.size() < minFilesL0 || !Collections.disjoint(level0, filesCompacting)) {
+      return null;
+    }
+    if (stripes.getStripeCount() == 0) {
+      // All the files are in L0; this compaction creates the first stripes.
+      StripeCompactionRequest request = new StripeCompactionRequest(level0, true);
+      request.setSizeTarget(StripeStoreFileManager.OPEN_KEY, StripeStoreFileManager.OPEN_KEY,
+          sizeToSplit / 2);
+      return request;
+    }
+    StripeCompactionRequest request = new StripeCompactionRequest(level0, false);
+    request.setBoundaries(stripes.getBoundaries(), false);
+    return request;
+  }
+
+  private StripeCompactionRequest selectStripe(StripeStoreFileManager.Stripes stripes,
+      List<StoreFile> filesCompacting) throws IOException {
+    int bestStripe = -1;
+    for (int i = 0; i < stripes.getStripeCount(); ++i) {
+      List<StoreFile> files = stripes.getStripeFiles(i);
+      if (files.size() >= minFiles && Collections.disjoint(files, filesCompacting)
+          && (bestStripe < 0 || files.size() > stripes.getStripeFiles(bestStripe).size())) {
+        bestStripe = i;
+      }
+    }
+    if (bestStripe < 0) {
+      return null;
+    }
+    List<StoreFile> files = stripes.getStripeFiles(bestStripe);
+    byte[] startRow = stripes.getStartRow(bestStripe);
+    byte[] endRow = stripes.getEndRow(bestStripe);
+    if (files.size() > maxFiles) {
+      // Compact the oldest files into one; the newer ones will be picked up next time.
+      StripeCompactionRequest request = new StripeCompactionRequest(
+          files.subList(0, maxFiles), false);
+      request.setBoundaries(Lists.newArrayList(startRow, endRow), true);
+      return request;
+    }
+    StripeCompactionRequest request = new StripeCompactionRequest(
+        files, stripes.getLevel0Files().isEmpty());
+    byte[] splitRow = getTotalSize(files) > sizeToSplit
+        ? stripeManager.getStripeSplitPoint(files, startRow, endRow) : null;
+    if (splitRow != null) {
+      request.setBoundaries(Lists.newArrayList(startRow, splitRow, endRow), true);
+    } else {
+      request.setBoundaries(Lists.newArrayList(startRow, endRow), true);
+    }
+    return request;
+  }
+
+  private static long getTotalSize(Collection<StoreFile> files) {
+    long size = 0;
+    for (StoreFile sf : files) {
+      StoreFile.Reader r = sf.getReader();
+      size += r == null ? 0 : r.length();
+    }
+    return size;
+  }
+
+  /**
+   * Stripes are never major compacted on a schedule; a user may still force it.
+   */
+  @Override
+  public boolean isMajorCompaction(Collection<StoreFile> filesToCompact) throws IOException {
+    return false;
+  }
+
+  @Override
+  public boolean throttleCompaction(long compactionSize) {
+    return compactionSize > comConf.throttlePoint;
+  }
+
+  @Override
+  public boolean needsCompaction(Collection<StoreFile> storeFiles,
+      List<StoreFile> filesCompacting) {
+    StripeStoreFileManager.Stripes stripes = stripeManager.getStripes();
+    if (stripes.getLevel0Files().size() >= minFilesL0
+        && Collections.disjoint(stripes.getLevel0Files(), filesCompacting)) {
+      return true;
+    }
+    for (int i = 0; i < stripes.getStripeCount(); ++i) {
+      List<StoreFile> files = stripes.getStripeFiles(i);
+      if (files.size() >= minFiles && Collections.disjoint(files, filesCompacting)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * A compaction selected by {@link StripeCompactionPolicy}, along with the stripes to write
+   * its output into.
+   */
+  public static class StripeCompactionRequest extends CompactionRequest {
+    private final boolean dropDeletes;
+    private List<byte[]> boundaries = null;
+    private boolean writeEmptyFiles = false;
+    private byte[] startRow = null;
+    private byte[] endRow = null;
+    private long targetFileSize = 0;
+
+    StripeCompactionRequest(Collection<StoreFile> files, boolean dropDeletes) {
+      super(new ArrayList<StoreFile>(files));
+      this.dropDeletes = dropDeletes;
+    }
+
+    /** Writes the output into one file per stripe of the given boundaries */
+    void setBoundaries(List<byte[]> boundaries, boolean writeEmptyFiles) {
+      this.boundaries = boundaries;
+      this.writeEmptyFiles = writeEmptyFiles;
+    }
+
+    /** Writes the output, all within the given rows, into new stripes of about the given size */
+    void setSizeTarget(byte[] startRow, byte[] endRow, long targetFileSize) {
+      this.startRow = startRow;
+      this.endRow = endRow;
+      this.targetFileSize = targetFileSize;
+    }
+
+    /**
+     * @return whether the selected files hold all the cells of their rows, so that deletes
+     *         can be dropped
+     */
+    public boolean isDropDeletes() {
+      return dropDeletes;
+    }
+
+    /** @return the stripe boundaries to write into; null when writing new stripes by size */
+    List<byte[]> getBoundaries() {
+      return boundaries;
+    }
+
+    /** @return the size of the new stripes; 0 when writing into known boundaries */
+    long getTargetFileSize() {
+      return targetFileSize;
+    }
+
+    /**
+     * @return a new writer for the output of the compaction
+     */
+    public StripeMultiFileWriter createMultiWriter() {
+      if (boundaries != null) {
+        return new StripeMultiFileWriter.BoundaryMultiWriter(boundaries, writeEmptyFiles);
+      }
+      return new StripeMultiFileWriter.SizeMultiWriter(startRow, endRow, targetFileSize);
+    }
+
+    String describeOutput() {
+      if (boundaries == null) {
+        return "new stripes of " + targetFileSize + " bytes";
+      }
+      StringBuilder sb = new StringBuilder(dropDeletes ? "dropping deletes, " : "");
+      sb.append("into stripes");
+      for (byte[] boundary : boundaries) {
+        sb.append(' ').append(Bytes.toStringBinary(boundary));
+      }
+      return sb.toString();
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.regionserver.InternalScanner;
+import org.apache.hadoop.hbase.regionserver.ScanType;
+import org.apache.hadoop.hbase.regionserver.Store;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.regionserver.StoreFileScanner;
+import org.apache.hadoop.hbase.regionserver.StripeMultiFileWriter;
+
+/**
+ * Compactor for stores managed by the stripe store engine. Writes the output of a request
+ * selected by {@link StripeCompactionPolicy} into the stripes it was selected for; the output
+ * of any other request, e.g. one selected by a coprocessor, goes into a single L0 file.
+ */
+@InterfaceAudience.Private
+public class StripeCompactor extends Compactor {
+  public StripeCompactor(final Configuration conf, final Store store) {
+    super(conf, store);
+  }
+
+  @Override
+  public List<Path> compact(final CompactionRequest request,
+      CompactionThroughputController throughputController) throws IOException {
+    if (request instanceof StripeCompactionPolicy.StripeCompactionRequest) {
+      StripeCompactionPolicy.StripeCompactionRequest stripeRequest =
+          (StripeCompactionPolicy.StripeCompactionRequest) request;
+      return compact(request, stripeRequest.createMultiWriter(), stripeRequest.isDropDeletes(),
+          throughputController);
+    }
+    return compact(request, null, request.isMajor(), throughputController);
+  }
+
+  private List<Path> compact(final CompactionRequest request, StripeMultiFileWriter multiWriter,
+      boolean dropDeletes, CompactionThroughputController throughputController)
+      throws IOException {
+    final FileDetails fd = getFileDetails(request.getFiles(), dropDeletes);
+    this.progress = new CompactionProgress(fd.maxKeyCount);
+
+    List<StoreFileScanner> scanners = createFileScanners(request.getFiles());
+
+    // Find the smallest read point across all the Scanners.
+    final long smallestReadPoint = setSmallestReadPoint();
+    StoreFile.Writer writer = null;
+    boolean finished = false;
+    InternalScanner scanner = null;
+    try {
+      ScanType scanType =
+          dropDeletes ? ScanType.COMPACT_DROP_DELETES : ScanType.COMPACT_RETAIN_DELETES;
+      scanner = preCreateCoprocScanner(request, scanType, fd.earliestPutTs, scanners);
+      if (scanner == null) {
+        scanner = createScanner(store, scanners, scanType, smallestReadPoint, fd.earliestPutTs);
+      }
+      scanner = postCreateCoprocScanner(request, scanType, scanner);
+      if (scanner == null) {
+        // NULL scanner returned from coprocessor hooks means skip normal processing.
+        return new ArrayList<Path>();
+      }
+      if (multiWriter != null) {
+        multiWriter.init(new StripeMultiFileWriter.WriterFactory() {
+          @Override
+          public StoreFile.Writer createWriter() throws IOException {
+            return store.createWriterInTmp(fd.maxKeyCount, compactionCompression, true,
+                fd.maxMVCCReadpoint >= smallestReadPoint);
+          }
+        }, store.getComparator());
+        finished = performCompaction(scanner, multiWriter, smallestReadPoint,
+            throughputController);
+      } else {
+        // Create the writer even if no kv(Empty store file is also ok),
+        // because we need record the max seq id for the store file, see HBASE-6059
+        writer = store.createWriterInTmp(fd.maxKeyCount, this.compactionCompression, true,
+            fd.maxMVCCReadpoint >= smallestReadPoint);
+        finished = performCompaction(scanner, writer, smallestReadPoint,
+            throughputController);
+      }
+      if (!finished) {
+        throw new InterruptedIOException("Aborting compaction of store " + store +
+            " in region " + store.getRegionInfo().getRegionNameAsString() +
+            " because it was interrupted.");
+      }
+    } finally {
+      if (scanner != null) {
+        scanner.close();
+      }
+      if (!finished) {
+        if (multiWriter != null) {
+          multiWriter.abortWriters(store.getFileSystem());
+        } else if (writer != null) {
+          abortWriter(writer);
+        }
+      }
+    }
+
+    if (multiWriter != null) {
+      return multiWriter.commitWriters(fd.maxSeqId, request.isMajor());
+    }
+    writer.appendMetadata(fd.maxSeqId, request.isMajor());
+    writer.close();
+    List<Path> newFiles = new ArrayList<Path>();
+    newFiles.add(writer.getPath());
+    return newFiles;
+  }
+}
@@ -496,7 +496,8 @@ class FSHLog implements HLog, Syncable {
           //computeFilename  will take care of meta hlog filename
           oldPath = computeFilename(currentFilenum);
         }
-        this.filenum = System.currentTimeMillis();
+        // Two rolls within the same millisecond must not reuse, and so overwrite, a file
+        this.filenum = Math.max(System.currentTimeMillis(), currentFilenum + 1);
         Path newPath = computeFilename();
 
         // Tell our listeners that a new log is about to be created
@@ -870,7 +871,7 @@ class FSHLog implements HLog, Syncable {
    * @throws IOException
    */
   @SuppressWarnings("deprecation")
-  private long append(HRegionInfo info, TableName tableName, WALEdit edits,
+  protected long append(HRegionInfo info, TableName tableName, WALEdit edits,
       List<UUID> clusterIds, final long now, HTableDescriptor htd, boolean doSync,
       boolean isInMemstore)
     throws IOException {
@@ -882,19 +883,7 @@ class FSHLog implements HLog, Syncable {
       try {
         long txid = 0;
         synchronized (this.updateLock) {
-          long seqNum = obtainSeqNum();
-          // The 'lastSeqWritten' map holds the sequence number of the oldest
-          // write for each region (i.e. the first edit added to the particular
-          // memstore). . When the cache is flushed, the entry for the
-          // region being flushed is removed if the sequence number of the flush
-          // is greater than or equal to the value in lastSeqWritten.
-          // Use encoded name.  Its shorter, guaranteed unique and a subset of
-          // actual  name.
-          byte [] encodedRegionName = info.getEncodedNameAsBytes();
-          if (isInMemstore) this.oldestUnflushedSeqNums.putIfAbsent(encodedRegionName, seqNum);
-          HLogKey logKey = makeKey(encodedRegionName, tableName, seqNum, now, clusterIds);
-          doWrite(info, logKey, edits, htd);
-          this.numEntries.incrementAndGet();
+          writeEdit(info, tableName, edits, clusterIds, now, htd, isInMemstore);
           txid = this.unflushedEntries.incrementAndGet();
           if (htd.isDeferredLogFlush()) {
             lastDeferredTxid = txid;
@@ -921,6 +910,36 @@ class FSHLog implements HLog, Syncable {
     return append(info, tableName, edits, clusterIds, now, htd, false, true);
   }
 
+  /**
+   * Stamps the edit with the next sequence number and hands it to {@link #doWrite}.
+   * Caller must hold the updateLock so that sequence numbers are handed out in the
+   * same order as edits reach the writer.
+   */
+  void writeEdit(HRegionInfo info, TableName tableName, WALEdit edits,
+      List<UUID> clusterIds, final long now, HTableDescriptor htd, boolean isInMemstore)
+    throws IOException {
+    long seqNum = obtainSeqNum();
+    // The 'lastSeqWritten' map holds the sequence number of the oldest
+    // write for each region (i.e. the first edit added to the particular
+    // memstore). . When the cache is flushed, the entry for the
+    // region being flushed is removed if the sequence number of the flush
+    // is greater than or equal to the value in lastSeqWritten.
+    // Use encoded name.  Its shorter, guaranteed unique and a subset of
+    // actual  name.
+    byte [] encodedRegionName = info.getEncodedNameAsBytes();
+    if (isInMemstore) this.oldestUnflushedSeqNums.putIfAbsent(encodedRegionName, seqNum);
+    HLogKey logKey = makeKey(encodedRegionName, tableName, seqNum, now, clusterIds);
+    doWrite(info, logKey, edits, htd);
+    this.numEntries.incrementAndGet();
+  }
+
+  /**
+   * Object that serializes appends against log rolls and close.
+   */
+  Object getUpdateLock() {
+    return this.updateLock;
+  }
+
   /**
    * This class is responsible to hold the HLog's appended Entry list
    * and to sync them according to a configurable interval.
@@ -1078,21 +1097,7 @@ class FSHLog implements HLog, Syncable {
         }
       }
       this.syncedTillHere = Math.max(this.syncedTillHere, doneUpto);
-
-      this.metrics.finishSync(EnvironmentEdgeManager.currentTimeMillis() - now);
-      // TODO: preserving the old behavior for now, but this check is strange. It's not
-      //       protected by any locks here, so for all we know rolling locks might start
-      //       as soon as we enter the "if". Is this best-effort optimization check?
-      if (!this.logRollRunning) {
-        checkLowReplication();
-        try {
-          if (tempWriter.getLength() > this.logrollsize) {
-            requestLogRoll();
-          }
-        } catch (IOException x) {
-          LOG.debug("Log roll failed and will be retried. (This is not an error)");
-        }
-      }
+      postSync(tempWriter, now);
     } catch (IOException e) {
       LOG.fatal("Could not sync. Requesting roll of hlog", e);
       requestLogRoll();
@@ -1100,6 +1105,29 @@ class FSHLog implements HLog, Syncable {
     }
   }
 
+  /**
+   * Updates sync metrics and asks for a log roll if the writer just synced has grown past
+   * the roll size or its pipeline lost replicas.
+   * @param syncedWriter the writer that was synced
+   * @param syncStartTime when the sync started, in ms
+   */
+  void postSync(final Writer syncedWriter, final long syncStartTime) {
+    this.metrics.finishSync(EnvironmentEdgeManager.currentTimeMillis() - syncStartTime);
+    // TODO: preserving the old behavior for now, but this check is strange. It's not
+    //       protected by any locks here, so for all we know rolling locks might start
+    //       as soon as we enter the "if". Is this best-effort optimization check?
+    if (!this.logRollRunning) {
+      checkLowReplication();
+      try {
+        if (syncedWriter != null && syncedWriter.getLength() > this.logrollsize) {
+          requestLogRoll();
+        }
+      } catch (IOException x) {
+        LOG.debug("Log roll failed and will be retried. (This is not an error)");
+      }
+    }
+  }
+
   private void checkLowReplication() {
     // if the number of replicas in HDFS has fallen below the configured
     // value, then roll logs.
@@ -1193,7 +1221,7 @@ class FSHLog implements HLog, Syncable {
     syncer(txid);
   }
 
-  private void requestLogRoll() {
+  void requestLogRoll() {
     if (!this.listeners.isEmpty()) {
       for (WALActionsListener i: this.listeners) {
         i.logRollRequested();
@@ -1222,7 +1250,7 @@ class FSHLog implements HLog, Syncable {
           logKey.setScopes(null);
         }
         // write to our buffer for the Hlog file.
-        logSyncer.append(new FSHLog.Entry(logKey, logEdit));
+        bufferEntry(new FSHLog.Entry(logKey, logEdit));
       }
       long took = EnvironmentEdgeManager.currentTimeMillis() - now;
       coprocessorHost.postWALWrite(info, logKey, logEdit);
@@ -1238,6 +1266,15 @@ class FSHLog implements HLog, Syncable {
     }
   }
 
+  /**
+   * Queues an entry for the next sync. Subclasses that own their own write pipeline can
+   * override this to hand the entry to the writer directly.
+   * @param entry the entry to write
+   * @throws IOException
+   */
+  protected void bufferEntry(final Entry entry) throws IOException {
+    logSyncer.append(entry);
+  }
 
   /** @return How many items have been added to the log */
   int getNumEntries() {
@@ -23,6 +23,8 @@ package org.apache.hadoop.hbase.regionserver.wal;
 import java.io.IOException;
 import java.util.Arrays;
 import java.io.InterruptedIOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.util.List;
 
 import org.apache.commons.logging.Log;
@@ -40,29 +42,75 @@ import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 public class HLogFactory {
     private static final Log LOG = LogFactory.getLog(HLogFactory.class);
 
+    /**
+     * Configuration key for the {@link HLog} implementation to create. It must offer the
+     * same nine argument constructor as {@link FSHLog}. Defaults to {@link FSHLog}; set to
+     * {@link RingBufferFSHLog} for the ring buffer group commit pipeline.
+     */
+    public static final String HLOG_IMPL = "hbase.regionserver.hlog.impl";
+
     public static HLog createHLog(final FileSystem fs, final Path root, final String logName,
         final Configuration conf) throws IOException {
-      return new FSHLog(fs, root, logName, conf);
+      return createHLog(fs, root, logName, HConstants.HREGION_OLDLOGDIR_NAME,
+        conf, null, true, null, false);
     }
     
     public static HLog createHLog(final FileSystem fs, final Path root, final String logName,
         final String oldLogName, final Configuration conf) throws IOException {
-      return new FSHLog(fs, root, logName, oldLogName, conf);
+      return createHLog(fs, root, logName, oldLogName, conf, null, true, null, false);
 }
     
     public static HLog createHLog(final FileSystem fs, final Path root, final String logName,
         final Configuration conf, final List<WALActionsListener> listeners,
         final String prefix) throws IOException {
-      return new FSHLog(fs, root, logName, conf, listeners, prefix);
+      return createHLog(fs, root, logName, HConstants.HREGION_OLDLOGDIR_NAME,
+        conf, listeners, true, prefix, false);
+    }
+
+    /**
+     * Create an {@link HLog} in a log directory that may be shared with other WALs, as when a
+     * region server runs several WALs; see {@link RegionGroupingHLogProvider}.
+     * @param failIfLogDirExists true for the first WAL created in the directory only
+     * @param prefix file name prefix, which must differ between the WALs sharing the directory
+     */
+    public static HLog createHLog(final FileSystem fs, final Path root, final String logName,
+        final Configuration conf, final List<WALActionsListener> listeners,
+        final boolean failIfLogDirExists, final String prefix) throws IOException {
+      return createHLog(fs, root, logName, HConstants.HREGION_OLDLOGDIR_NAME,
+        conf, listeners, failIfLogDirExists, prefix, false);
     }
 
     public static HLog createMetaHLog(final FileSystem fs, final Path root, final String logName,
         final Configuration conf, final List<WALActionsListener> listeners,
         final String prefix) throws IOException {
-      return new FSHLog(fs, root, logName, HConstants.HREGION_OLDLOGDIR_NAME, 
+      return createHLog(fs, root, logName, HConstants.HREGION_OLDLOGDIR_NAME, 
             conf, listeners, false, prefix, true);
     }
 
+    private static HLog createHLog(final FileSystem fs, final Path root, final String logName,
+        final String oldLogName, final Configuration conf,
+        final List<WALActionsListener> listeners, final boolean failIfLogDirExists,
+        final String prefix, final boolean forMeta) throws IOException {
+      Class<? extends HLog> hlogClass = conf.getClass(HLOG_IMPL, FSHLog.class, HLog.class);
+      if (hlogClass == FSHLog.class) {
+        return new FSHLog(fs, root, logName, oldLogName, conf, listeners,
+          failIfLogDirExists, prefix, forMeta);
+      }
+      try {
+        Constructor<? extends HLog> c = hlogClass.getDeclaredConstructor(FileSystem.class,
+          Path.class, String.class, String.class, Configuration.class, List.class,
+          boolean.class, String.class, boolean.class);
+        c.setAccessible(true);
+        return c.newInstance(fs, root, logName, oldLogName, conf, listeners,
+          failIfLogDirExists, prefix, forMeta);
+      } catch (InvocationTargetException e) {
+        if (e.getCause() instanceof IOException) throw (IOException)e.getCause();
+        throw new IOException("Cannot create hlog " + hlogClass.getName(), e.getCause());
+      } catch (Exception e) {
+        throw new IOException("Cannot create hlog " + hlogClass.getName(), e);
+      }
+    }
+
     /*
      * WAL Reader
      */
@@ -251,6 +251,21 @@ public class HLogUtil {
     return false;
   }
 
+  /**
+   * Get the prefix shared by all the files written by one {@link HLog}: the file name without
+   * its trailing file number and meta suffix. A region server running several WALs has one
+   * prefix per WAL; see {@link RegionGroupingHLogProvider}.
+   * @param name WAL file name, e.g. <code>host%2C60020%2C1234.regiongroup-1.1380000000</code>
+   * @return the prefix, e.g. <code>host%2C60020%2C1234.regiongroup-1</code>
+   */
+  public static String getWALPrefixFromWALName(String name) {
+    if (isMetaFile(name)) {
+      name = name.substring(0, name.length() - HLog.META_HLOG_FILE_EXTN.length());
+    }
+    int endIndex = name.lastIndexOf('.');
+    return endIndex < 0 ? name : name.substring(0, endIndex);
+  }
+
   /**
    * Write the marker that a compaction has succeeded and is about to be committed.
    * This provides info to the HMaster to allow it to recover the compaction if
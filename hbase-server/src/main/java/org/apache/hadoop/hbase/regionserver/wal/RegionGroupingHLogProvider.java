@@ -0,0 +1,218 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Creates a fixed number of {@link HLog}s for a region server and maps each region onto one of
+ * them, so that writes are spread over several HDFS pipelines and sync threads.
+ *
+ * <p>The number of WALs is set with {@link #NUM_WALS_KEY}; the default of one is the usual
+ * single WAL per server. Regions are grouped by a {@link RegionGroupingStrategy} chosen with
+ * {@link #GROUPING_STRATEGY_KEY}: <code>region</code> (the default, every region is its own
+ * group), <code>table</code>, <code>namespace</code>, or the name of a class implementing
+ * {@link RegionGroupingStrategy}. Groups are hashed onto the WALs, so a region always lands on
+ * the same WAL for as long as the server runs.
+ *
+ * <p>All the WALs write into the server's one log directory. The first WAL keeps the prefix it
+ * is given, so a server with a single WAL names its files as before; the others append
+ * {@link #GROUP_DELIMITER} and their index. Log splitting works file by file and needs nothing
+ * more; replication tells the WALs apart with {@link HLogUtil#getWALPrefixFromWALName(String)}.
+ * The meta WAL is not managed here.
+ */
+@InterfaceAudience.Private
+public class RegionGroupingHLogProvider {
+  static final Log LOG = LogFactory.getLog(RegionGroupingHLogProvider.class);
+
+  /** Number of WALs per region server */
+  public static final String NUM_WALS_KEY = "hbase.regionserver.hlog.groups";
+  public static final int DEFAULT_NUM_WALS = 1;
+
+  /** How regions are grouped onto the WALs */
+  public static final String GROUPING_STRATEGY_KEY = "hbase.regionserver.hlog.grouping.strategy";
+  public static final String DEFAULT_GROUPING_STRATEGY = "region";
+
+  /** Separates the server prefix from the WAL index in the file names of additional WALs */
+  public static final String GROUP_DELIMITER = ".regiongroup-";
+
+  /**
+   * Maps a region to the name of its group. Regions of the same group share a WAL.
+   */
+  public interface RegionGroupingStrategy {
+    String group(HRegionInfo info);
+  }
+
+  /** Every region is a group of its own; regions spread evenly over the WALs. */
+  public static class RegionStrategy implements RegionGroupingStrategy {
+    @Override
+    public String group(HRegionInfo info) {
+      return info.getEncodedName();
+    }
+  }
+
+  /** All the regions of a table share a WAL. */
+  public static class TableStrategy implements RegionGroupingStrategy {
+    @Override
+    public String group(HRegionInfo info) {
+      return info.getTableName().getNameAsString();
+    }
+  }
+
+  /** All the regions of a namespace share a WAL. */
+  public static class NamespaceStrategy implements RegionGroupingStrategy {
+    @Override
+    public String group(HRegionInfo info) {
+      return info.getTableName().getNamespaceAsString();
+    }
+  }
+
+  private final HLog[] wals;
+  private final RegionGroupingStrategy strategy;
+
+  /**
+   * Create the WALs.
+   * @param fs filesystem handle
+   * @param rootDir path to where logs and oldlogs
+   * @param logName name of the server's log directory
+   * @param conf configuration to use
+   * @param listeners listeners registered with every WAL
+   * @param prefix file name prefix of the first WAL; the others derive theirs from it
+   * @throws IOException
+   */
+  public RegionGroupingHLogProvider(final FileSystem fs, final Path rootDir, final String logName,
+      final Configuration conf, final List<WALActionsListener> listeners, final String prefix)
+      throws IOException {
+    this.strategy = getStrategy(conf);
+    this.wals = new HLog[Math.max(1, conf.getInt(NUM_WALS_KEY, DEFAULT_NUM_WALS))];
+    String basePrefix = prefix == null || prefix.isEmpty() ? "hlog" : prefix;
+    try {
+      for (int i = 0; i < this.wals.length; i++) {
+        this.wals[i] = HLogFactory.createHLog(fs, rootDir, logName, conf, listeners, i == 0,
+          i == 0 ? prefix : basePrefix + GROUP_DELIMITER + i);
+      }
+    } catch (IOException e) {
+      for (HLog wal : this.wals) {
+        if (wal == null) break;
+        try {
+          wal.close();
+        } catch (IOException ioe) {
+          LOG.warn("Failed close of partially created WAL", ioe);
+        }
+      }
+      throw e;
+    }
+    if (this.wals.length > 1) {
+      LOG.info("Created " + this.wals.length + " WALs, regions grouped by " +
+        this.strategy.getClass().getSimpleName());
+    }
+  }
+
+  static RegionGroupingStrategy getStrategy(final Configuration conf) throws IOException {
+    String name = conf.get(GROUPING_STRATEGY_KEY, DEFAULT_GROUPING_STRATEGY);
+    if (name.equalsIgnoreCase("region")) return new RegionStrategy();
+    if (name.equalsIgnoreCase("table")) return new TableStrategy();
+    if (name.equalsIgnoreCase("namespace")) return new NamespaceStrategy();
+    try {
+      Class<? extends RegionGroupingStrategy> clazz =
+        conf.getClassByName(name).asSubclass(RegionGroupingStrategy.class);
+      return ReflectionUtils.newInstance(clazz, conf);
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Unknown WAL grouping strategy " + name, e);
+    } catch (ClassCastException e) {
+      throw new IOException(name + " is not a " + RegionGroupingStrategy.class.getName(), e);
+    }
+  }
+
+  /**
+   * @param info region, or null for the default WAL
+   * @return the WAL that <code>info</code> writes to
+   */
+  public HLog getWAL(final HRegionInfo info) {
+    if (info == null || this.wals.length == 1) return this.wals[0];
+    int hash = this.strategy.group(info).hashCode();
+    return this.wals[(hash & Integer.MAX_VALUE) % this.wals.length];
+  }
+
+  /**
+   * @return the WAL used for writes that belong to no region in particular
+   */
+  public HLog getDefaultWAL() {
+    return this.wals[0];
+  }
+
+  /**
+   * @return all the WALs, the default one first
+   */
+  public List<HLog> getWALs() {
+    return Collections.unmodifiableList(Arrays.asList(this.wals));
+  }
+
+  /**
+   * Close all the WALs.
+   * @throws IOException the first failure; the other WALs are closed regardless
+   */
+  public void close() throws IOException {
+    IOException failure = null;
+    for (int i = 0; i < this.wals.length; i++) {
+      try {
+        this.wals[i].close();
+      } catch (IOException e) {
+        if (failure == null) failure = e;
+        LOG.error("Failed close of WAL " + i, e);
+      }
+    }
+    if (failure != null) throw failure;
+  }
+
+  /**
+   * Close all the WALs, archive their files and delete the log directory. The directory is
+   * shared, so the default WAL goes last and archives the files of every WAL.
+   * @throws IOException the first failure; the other WALs are closed regardless
+   */
+  public void closeAndDelete() throws IOException {
+    IOException failure = null;
+    for (int i = 1; i < this.wals.length; i++) {
+      try {
+        this.wals[i].close();
+      } catch (IOException e) {
+        if (failure == null) failure = e;
+        LOG.error("Failed close of WAL " + i, e);
+      }
+    }
+    try {
+      this.wals[0].closeAndDelete();
+    } catch (IOException e) {
+      if (failure == null) failure = e;
+    }
+    if (failure != null) throw failure;
+  }
+}
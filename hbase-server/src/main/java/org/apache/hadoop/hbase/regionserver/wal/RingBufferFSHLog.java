@@ -0,0 +1,499 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.HasThread;
+import org.apache.hadoop.hbase.util.Threads;
+import org.cloudera.htrace.Trace;
+import org.cloudera.htrace.TraceScope;
+
+/**
+ * An {@link FSHLog} that replaces the <code>updateLock</code>/<code>LogSyncer</code> append and
+ * sync path with a single-writer group commit pipeline.
+ *
+ * <p>Handlers claim a slot in a preallocated ring buffer, fill it in and publish it; they never
+ * take the updateLock. One consumer thread drains published slots in order, stamps each edit
+ * with its sequence number, writes the batch to the current writer and, if any handler is
+ * waiting, issues a single sync for the whole batch. Handlers wait on their own
+ * {@link SyncFuture} and are woken only once their txid is covered.
+ *
+ * <p>The consumer holds the updateLock while it writes and syncs a batch, so a log roll sees
+ * either all or none of a batch and never has to wait on unsynced edits in the old writer.
+ * Deferred log flush still rides on the superclass's <code>LogSyncer</code> thread, which
+ * periodically calls {@link #sync()}.
+ *
+ * <p>A failed write or sync poisons the current writer: until a roll replaces it, appends are
+ * rejected and anything already in the ring is dropped and failed rather than written behind
+ * the gap. Syncs of the unsynced txids lost that way keep failing after the roll.
+ *
+ * <p>Select it with <code>hbase.regionserver.hlog.impl</code>; see {@link HLogFactory}.
+ */
+@InterfaceAudience.Private
+class RingBufferFSHLog extends FSHLog {
+  static final Log LOG = LogFactory.getLog(RingBufferFSHLog.class);
+
+  /** Number of slots in the ring buffer; rounded up to a power of two. */
+  static final String RING_BUFFER_SLOTS_KEY = "hbase.regionserver.hlog.ringbuffer.slots";
+  static final int DEFAULT_RING_BUFFER_SLOTS = 4096;
+
+  /** How long the consumer parks when there is nothing to do; wakeups are explicit. */
+  private static final long CONSUMER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  /** How long a producer parks between checks when the ring is full. */
+  private static final long PRODUCER_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+  /** How long a handler waits on its sync future before checking the consumer is still up. */
+  private static final long SYNC_WAIT_MS = 1000;
+
+  private final Slot[] slots;
+  private final int mask;
+
+  /** Highest txid handed out to an appender. */
+  private final AtomicLong highestClaimed = new AtomicLong(0);
+  /** Highest txid the consumer has taken out of the ring; slots up to here may be reused. */
+  private volatile long highestDrained = 0;
+  /** Highest txid the consumer has written to a writer. */
+  private volatile long highestWritten = 0;
+  /** Highest txid known to be synced to the filesystem. */
+  private volatile long highestSynced = 0;
+
+  private final ConcurrentLinkedQueue<SyncFuture> syncRequests =
+    new ConcurrentLinkedQueue<SyncFuture>();
+  private final ThreadLocal<SyncFuture> syncFutures = new ThreadLocal<SyncFuture>() {
+    @Override
+    protected SyncFuture initialValue() {
+      return new SyncFuture();
+    }
+  };
+
+  /** Why the current writer failed; null unless a roll is needed before we write again. */
+  private volatile IOException writeFailure = null;
+  /** The writer that failed; the failure sticks until a roll replaces it. */
+  private Writer failedWriter = null;
+  /** Txids above this and up to {@link #lostThrough} were dropped unsynced by a failure. */
+  private volatile long lostAfter = 0;
+  private volatile long lostThrough = 0;
+
+  private final Consumer consumer;
+  private volatile boolean closing = false;
+
+  /**
+   * Constructor.
+   *
+   * @param fs filesystem handle
+   * @param root path for stored and archived hlogs
+   * @param logDir dir where hlogs are stored
+   * @param conf configuration to use
+   * @throws IOException
+   */
+  public RingBufferFSHLog(final FileSystem fs, final Path root, final String logDir,
+      final Configuration conf)
+  throws IOException {
+    this(fs, root, logDir, HConstants.HREGION_OLDLOGDIR_NAME,
+        conf, null, true, null, false);
+  }
+
+  /**
+   * Create an edit log at the given <code>dir</code> location. Takes the same arguments as
+   * the most complete {@link FSHLog} constructor so {@link HLogFactory} can build either.
+   *
+   * @see FSHLog#FSHLog(FileSystem, Path, String, String, Configuration, List, boolean, String,
+   *   boolean)
+   */
+  public RingBufferFSHLog(final FileSystem fs, final Path root, final String logDir,
+      final String oldLogDir, final Configuration conf,
+      final List<WALActionsListener> listeners,
+      final boolean failIfLogDirExists, final String prefix, boolean forMeta)
+  throws IOException {
+    super(fs, root, logDir, oldLogDir, conf, listeners, failIfLogDirExists, prefix, forMeta);
+    int requested = Math.max(2,
+      conf.getInt(RING_BUFFER_SLOTS_KEY, DEFAULT_RING_BUFFER_SLOTS));
+    int capacity = Integer.highestOneBit(requested);
+    if (capacity < requested) capacity <<= 1;
+    this.slots = new Slot[capacity];
+    for (int i = 0; i < capacity; i++) {
+      this.slots[i] = new Slot();
+    }
+    this.mask = capacity - 1;
+    this.consumer = new Consumer();
+    Threads.setDaemonThreadRunning(this.consumer.getThread(),
+      Thread.currentThread().getName() + ".walConsumer");
+    LOG.info("WAL ring buffer with " + capacity + " slots");
+  }
+
+  @Override
+  protected long append(HRegionInfo info, TableName tableName, WALEdit edits,
+      List<UUID> clusterIds, final long now, HTableDescriptor htd, boolean doSync,
+      boolean isInMemstore)
+  throws IOException {
+    if (edits.isEmpty()) return this.highestClaimed.get();
+    if (this.closing) {
+      throw new IOException("Cannot append; log is closed");
+    }
+    IOException failure = this.writeFailure;
+    if (failure != null) {
+      throw new IOException("Cannot append; WAL write failed and the log has not rolled yet",
+        failure);
+    }
+    TraceScope traceScope = Trace.startSpan("RingBufferFSHLog.append");
+    try {
+      long txid = this.highestClaimed.incrementAndGet();
+      waitForCapacity(txid);
+      // Nothing below can fail; a claimed slot must always be published or the consumer stalls.
+      Slot slot = this.slots[(int)(txid & this.mask)];
+      slot.load(info, tableName, edits, clusterIds, now, htd, isInMemstore);
+      slot.publish(txid);
+      this.consumer.wake();
+      // Sync if catalog region, and if not then check if that table supports
+      // deferred log flushing
+      if (doSync &&
+          (info.isMetaRegion() ||
+          !htd.isDeferredLogFlush())) {
+        sync(txid);
+      }
+      return txid;
+    } finally {
+      traceScope.close();
+    }
+  }
+
+  /**
+   * Block until the slot for <code>txid</code> has been drained by the consumer. Only happens
+   * if handlers get a whole ring ahead of the filesystem.
+   */
+  private void waitForCapacity(final long txid) throws IOException {
+    boolean interrupted = false;
+    try {
+      while (txid - this.slots.length > this.highestDrained) {
+        if (!this.consumer.isAlive()) {
+          throw new IOException("Cannot append; WAL consumer is not running");
+        }
+        LockSupport.parkNanos(this, PRODUCER_PARK_NANOS);
+        // The slot must be filled once claimed, so hold onto interrupts until we are done.
+        if (Thread.interrupted()) interrupted = true;
+      }
+    } finally {
+      if (interrupted) Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  protected void bufferEntry(final Entry entry) throws IOException {
+    // Only the consumer writes, and it holds the updateLock while it does so.
+    this.writer.append(entry);
+  }
+
+  @Override
+  public byte [][] rollWriter(boolean force)
+      throws FailedLogCloseException, IOException {
+    byte [][] regionsToFlush = super.rollWriter(force);
+    synchronized (getUpdateLock()) {
+      if (this.writeFailure != null && this.writer != null && this.writer != this.failedWriter) {
+        LOG.info("WAL rolled after failed write; accepting appends again");
+        this.writeFailure = null;
+        this.failedWriter = null;
+      }
+    }
+    return regionsToFlush;
+  }
+
+  /**
+   * Make the current writer unusable until it is rolled. Caller holds the updateLock.
+   * Everything drained but not synced so far is lost, as is whatever gets drained until then.
+   */
+  private void failWriter(final IOException e) {
+    if (this.writeFailure == null) {
+      LOG.error("WAL write failed after txid=" + this.highestWritten +
+        "; failing appends until the log rolls", e);
+      this.writeFailure = e;
+      this.failedWriter = this.writer;
+    }
+    // Widen rather than replace an earlier range; its txids are no more synced than before.
+    if (this.lostThrough <= this.lostAfter) {
+      this.lostAfter = this.highestSynced;
+    } else {
+      this.lostAfter = Math.min(this.lostAfter, this.highestSynced);
+    }
+    this.lostThrough = Math.max(this.lostThrough, this.highestDrained);
+  }
+
+  private void checkNotLost(final long txid) throws IOException {
+    if (txid > this.lostAfter && txid <= this.lostThrough) {
+      throw new IOException("WAL write failed before txid=" + txid + " was synced");
+    }
+  }
+
+  @Override
+  public void hsync() throws IOException {
+    sync();
+  }
+
+  @Override
+  public void hflush() throws IOException {
+    sync();
+  }
+
+  @Override
+  public void sync() throws IOException {
+    sync(this.highestClaimed.get());
+  }
+
+  @Override
+  public void sync(final long txid) throws IOException {
+    checkNotLost(txid);
+    if (txid <= this.highestSynced) return;
+    // The LogSyncer thread is started by our superclass constructor and may call in before
+    // our own fields are set.
+    if (this.consumer == null) return;
+    SyncFuture future = this.syncFutures.get().reset(txid);
+    this.syncRequests.add(future);
+    this.consumer.wake();
+    while (!future.await(SYNC_WAIT_MS)) {
+      if (!this.consumer.isAlive()) {
+        throw new IOException("WAL consumer exited before txid=" + txid + " was synced");
+      }
+    }
+    // A failure may have dropped our edit after an earlier batch covered our txid.
+    checkNotLost(txid);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (this.closing) return;
+    this.closing = true;
+    try {
+      // Get out whatever was appended before we stopped taking new edits.
+      sync();
+    } catch (IOException e) {
+      LOG.error("Failed sync of outstanding edits on close", e);
+    }
+    this.consumer.shutdown();
+    try {
+      this.consumer.join();
+    } catch (InterruptedException e) {
+      LOG.error("Exception while waiting for WAL consumer to die", e);
+      Thread.currentThread().interrupt();
+    }
+    super.close();
+  }
+
+  /**
+   * A preallocated ring buffer entry. Fields are written by the appender that claimed the
+   * slot and made visible to the consumer by the volatile write in {@link #publish(long)}.
+   */
+  private static final class Slot {
+    private volatile long publishedTxid = 0;
+    private HRegionInfo info;
+    private TableName tableName;
+    private WALEdit edits;
+    private List<UUID> clusterIds;
+    private long now;
+    private HTableDescriptor htd;
+    private boolean isInMemstore;
+
+    void load(HRegionInfo info, TableName tableName, WALEdit edits, List<UUID> clusterIds,
+        long now, HTableDescriptor htd, boolean isInMemstore) {
+      this.info = info;
+      this.tableName = tableName;
+      this.edits = edits;
+      this.clusterIds = clusterIds;
+      this.now = now;
+      this.htd = htd;
+      this.isInMemstore = isInMemstore;
+    }
+
+    void publish(long txid) {
+      this.publishedTxid = txid;
+    }
+
+    boolean isPublished(long txid) {
+      return this.publishedTxid == txid;
+    }
+
+    /** Drop references so the edits can be collected while the slot waits for reuse. */
+    void clear() {
+      this.info = null;
+      this.tableName = null;
+      this.edits = null;
+      this.clusterIds = null;
+      this.htd = null;
+    }
+  }
+
+  /**
+   * The single writer. Drains published slots in txid order, writes them, and syncs once per
+   * batch when there are handlers waiting on it.
+   */
+  private class Consumer extends HasThread {
+    private volatile boolean parked = false;
+    private volatile boolean stopped = false;
+    private final List<SyncFuture> waiting = new ArrayList<SyncFuture>();
+
+    void wake() {
+      if (this.parked) LockSupport.unpark(getThread());
+    }
+
+    void shutdown() {
+      this.stopped = true;
+      LockSupport.unpark(getThread());
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          long first = highestDrained + 1;
+          long last = highestPublished(first);
+          drainSyncRequests();
+          if (last < first && !hasCoveredWaiter(last)) {
+            if (this.stopped && highestClaimed.get() <= highestDrained) break;
+            park(first);
+            continue;
+          }
+          processBatch(first, last);
+        }
+      } catch (Throwable t) {
+        LOG.fatal("WAL consumer failed", t);
+      } finally {
+        failWaiters(new IOException("WAL is closed"));
+        LOG.info(getName() + " exiting");
+      }
+    }
+
+    /** @return the highest txid such that every slot from <code>first</code> is published */
+    private long highestPublished(final long first) {
+      long last = first - 1;
+      while (last - first + 1 < slots.length
+          && slots[(int)((last + 1) & mask)].isPublished(last + 1)) {
+        last++;
+      }
+      return last;
+    }
+
+    private void drainSyncRequests() {
+      SyncFuture f;
+      while ((f = syncRequests.poll()) != null) {
+        this.waiting.add(f);
+      }
+    }
+
+    /** @return true if some handler waits on a txid that is drained once we reach last */
+    private boolean hasCoveredWaiter(final long last) {
+      for (SyncFuture f : this.waiting) {
+        if (f.getTxid() <= Math.max(last, highestDrained)) return true;
+      }
+      return false;
+    }
+
+    private void park(final long first) {
+      this.parked = true;
+      // Recheck after advertising that we are parked so a concurrent publish is not missed.
+      if (!slots[(int)(first & mask)].isPublished(first) && syncRequests.isEmpty()
+          && !this.stopped) {
+        LockSupport.parkNanos(this, CONSUMER_PARK_NANOS);
+      }
+      this.parked = false;
+    }
+
+    private void processBatch(final long first, final long last) {
+      long end = Math.max(last, highestDrained);
+      boolean syncNeeded = hasCoveredWaiter(end);
+      IOException error = null;
+      Writer syncedWriter = null;
+      long syncStart = EnvironmentEdgeManager.currentTimeMillis();
+      synchronized (getUpdateLock()) {
+        for (long txid = first; txid <= last; txid++) {
+          Slot slot = slots[(int)(txid & mask)];
+          // Nothing goes to a failed writer; an edit written behind a lost one could be
+          // replayed without it.
+          if (writeFailure == null) {
+            try {
+              writeEdit(slot.info, slot.tableName, slot.edits, slot.clusterIds, slot.now,
+                slot.htd, slot.isInMemstore);
+              highestWritten = txid;
+            } catch (IOException e) {
+              // doWrite has already asked for a roll.
+              failWriter(e);
+            }
+          }
+          slot.clear();
+          highestDrained = txid;
+        }
+        if (writeFailure != null) {
+          failWriter(writeFailure);
+          error = writeFailure;
+        } else if (syncNeeded) {
+          syncedWriter = writer;
+          try {
+            if (syncedWriter != null) syncedWriter.sync();
+          } catch (IOException e) {
+            LOG.fatal("Could not sync. Requesting roll of hlog", e);
+            requestLogRoll();
+            failWriter(e);
+            error = e;
+          }
+        }
+      }
+      if (error != null) {
+        completeWaiters(end, error);
+      } else if (syncNeeded) {
+        highestSynced = end;
+        completeWaiters(end, null);
+        postSync(syncedWriter, syncStart);
+      }
+    }
+
+    private void completeWaiters(final long end, final IOException error) {
+      for (Iterator<SyncFuture> i = this.waiting.iterator(); i.hasNext();) {
+        SyncFuture f = i.next();
+        if (f.getTxid() <= end) {
+          f.done(error);
+          i.remove();
+        }
+      }
+    }
+
+    private void failWaiters(final IOException error) {
+      drainSyncRequests();
+      for (SyncFuture f : this.waiting) {
+        f.done(error);
+      }
+      this.waiting.clear();
+    }
+  }
+}
@@ -0,0 +1,90 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * A handler's wait for a WAL sync to cover a transaction id.
+ *
+ * <p>Each handler thread reuses a single instance, so a sync costs no allocation. The future
+ * is completed by the WAL's consumer thread once the txid has been synced (or the sync has
+ * failed), and only the handler parked on this instance is woken; there is no shared monitor
+ * that all handlers wait on.
+ */
+@InterfaceAudience.Private
+class SyncFuture {
+  private long txid;
+  private boolean done;
+  private IOException error;
+
+  /**
+   * Prepare this future for a new wait.
+   * @param txid the transaction id that must be synced before the waiter is released
+   * @return this
+   */
+  synchronized SyncFuture reset(final long txid) {
+    this.txid = txid;
+    this.done = false;
+    this.error = null;
+    return this;
+  }
+
+  synchronized long getTxid() {
+    return this.txid;
+  }
+
+  /**
+   * Release the waiter.
+   * @param error null if the sync succeeded, else the reason it failed
+   */
+  synchronized void done(final IOException error) {
+    this.error = error;
+    this.done = true;
+    notify();
+  }
+
+  /**
+   * Wait up to <code>timeoutMs</code> for the sync to complete.
+   * @return true if the future completed, false if we timed out
+   * @throws IOException if the sync failed or we were interrupted
+   */
+  synchronized boolean await(final long timeoutMs) throws IOException {
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    while (!this.done) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) return false;
+      try {
+        wait(remaining);
+      } catch (InterruptedException e) {
+        InterruptedIOException iioe =
+          new InterruptedIOException("Interrupted waiting on sync of txid=" + this.txid);
+        iioe.initCause(e);
+        throw iioe;
+      }
+    }
+    if (this.error != null) {
+      throw new IOException("Failed sync of txid=" + this.txid, this.error);
+    }
+    return true;
+  }
+}
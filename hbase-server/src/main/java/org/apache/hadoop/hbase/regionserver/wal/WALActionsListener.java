@@ -92,4 +92,34 @@ public interface WALActionsListener {
     HTableDescriptor htd, HLogKey logKey, WALEdit logEdit
   );
 
+  /**
+   * Implementation of {@link WALActionsListener} that ignores every event. Extend it and
+   * override only the events you are interested in.
+   */
+  public static class Base implements WALActionsListener {
+    @Override
+    public void preLogRoll(Path oldPath, Path newPath) throws IOException {}
+
+    @Override
+    public void postLogRoll(Path oldPath, Path newPath) throws IOException {}
+
+    @Override
+    public void preLogArchive(Path oldPath, Path newPath) throws IOException {}
+
+    @Override
+    public void postLogArchive(Path oldPath, Path newPath) throws IOException {}
+
+    @Override
+    public void logRollRequested() {}
+
+    @Override
+    public void logCloseRequested() {}
+
+    @Override
+    public void visitLogEntryBeforeWrite(HRegionInfo info, HLogKey logKey, WALEdit logEdit) {}
+
+    @Override
+    public void visitLogEntryBeforeWrite(HTableDescriptor htd, HLogKey logKey,
+        WALEdit logEdit) {}
+  }
 }
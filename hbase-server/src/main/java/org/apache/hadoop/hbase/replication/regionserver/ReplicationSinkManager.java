@@ -37,7 +37,8 @@ import com.google.common.collect.Maps;
 /**
  * Maintains a collection of peers to replicate to, and randomly selects a
  * single peer to replicate to per set of data to replicate. Also handles
- * keeping track of peer availability.
+ * keeping track of peer availability. Shared by the workers of a
+ * {@link ReplicationSource}, so it is thread safe.
  */
 public class ReplicationSinkManager {
 
@@ -106,7 +107,7 @@ public class ReplicationSinkManager {
    *
    * @return a replication sink to replicate to
    */
-  public SinkPeer getReplicationSink() throws IOException {
+  public synchronized SinkPeer getReplicationSink() throws IOException {
     if (replicationPeers.getTimestampOfLastChangeToPeer(peerClusterId)
                                                         > this.lastUpdateToPeers) {
       LOG.info("Current list of sinks is out of date, updating");
@@ -129,7 +130,7 @@ public class ReplicationSinkManager {
    * @param sinkPeer
    *          The SinkPeer that had a failed replication attempt on it
    */
-  public void reportBadSink(SinkPeer sinkPeer) {
+  public synchronized void reportBadSink(SinkPeer sinkPeer) {
     ServerName serverName = sinkPeer.getServerName();
     int badReportCount = (badReportCounts.containsKey(serverName)
                     ? badReportCounts.get(serverName) : 0) + 1;
@@ -142,7 +143,7 @@ public class ReplicationSinkManager {
     }
   }
 
-  void chooseSinks() {
+  synchronized void chooseSinks() {
     List<ServerName> slaveAddresses =
                         replicationPeers.getRegionServersOfConnectedPeer(peerClusterId);
     Collections.shuffle(slaveAddresses, random);
@@ -152,7 +153,7 @@ public class ReplicationSinkManager {
     badReportCounts.clear();
   }
 
-  List<ServerName> getSinks() {
+  synchronized List<ServerName> getSinks() {
     return sinks;
   }
 
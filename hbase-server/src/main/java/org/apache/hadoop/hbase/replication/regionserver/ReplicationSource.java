@@ -25,11 +25,15 @@ import java.net.ConnectException;
 import java.net.SocketTimeoutException;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NavigableMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -48,6 +52,7 @@ import org.apache.hadoop.hbase.protobuf.ReplicationProtbufUtil;
 import org.apache.hadoop.hbase.protobuf.generated.AdminProtos.AdminService.BlockingInterface;
 import org.apache.hadoop.hbase.regionserver.wal.HLog;
 import org.apache.hadoop.hbase.regionserver.wal.HLogKey;
+import org.apache.hadoop.hbase.regionserver.wal.HLogUtil;
 import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
 import org.apache.hadoop.hbase.replication.ReplicationException;
 import org.apache.hadoop.hbase.replication.ReplicationPeers;
@@ -67,6 +72,10 @@ import org.apache.hadoop.ipc.RemoteException;
  * A stream is considered down when we cannot contact a region server on the
  * peer cluster for more than 55 seconds by default.
  * <p/>
+ * A region server can write several WALs at once. The logs of each WAL are
+ * queued and shipped in order by a worker thread of their own, since only the
+ * arrival of a newer log of the same WAL tells us the current one is closed.
+ * <p/>
  *
  */
 @InterfaceAudience.Private
@@ -74,10 +83,14 @@ public class ReplicationSource extends Thread
     implements ReplicationSourceInterface {
 
   public static final Log LOG = LogFactory.getLog(ReplicationSource.class);
-  // Queue of logs to process
-  private PriorityBlockingQueue<Path> queue;
-  // container of entries to replicate
-  private HLog.Entry[] entriesArray;
+  // Queues of logs to process, one per WAL, keyed by WAL prefix
+  private final ConcurrentHashMap<String, PriorityBlockingQueue<Path>> queues =
+      new ConcurrentHashMap<String, PriorityBlockingQueue<Path>>();
+  // Workers shipping the logs of each WAL, keyed by WAL prefix. Guarded by itself.
+  private final Map<String, ReplicationSourceWorker> workers =
+      new HashMap<String, ReplicationSourceWorker>();
+  // Set once we are connected and workers may start. Guarded by workers.
+  private boolean workersStarted = false;
   private HConnection conn;
   private ReplicationQueues replicationQueues;
   private ReplicationPeers replicationPeers;
@@ -95,43 +108,31 @@ public class ReplicationSource extends Thread
   private long replicationQueueSizeCapacity;
   // Max number of entries in entriesArray
   private int replicationQueueNbCapacity;
-  // Our reader for the current log
-  private HLog.Reader reader;
-  // Last position in the log that we sent to ZooKeeper
-  private long lastLoggedPosition = -1;
-  // Path of the current log
-  private volatile Path currentPath;
   private FileSystem fs;
   // id of this cluster
   private UUID clusterId;
   // id of the other cluster
-  private UUID peerClusterId;
+  private volatile UUID peerClusterId;
   // total number of edits we replicated
-  private long totalReplicatedEdits = 0;
+  private final AtomicLong totalReplicatedEdits = new AtomicLong(0);
   // total number of edits we replicated
-  private long totalReplicatedOperations = 0;
+  private final AtomicLong totalReplicatedOperations = new AtomicLong(0);
   // The znode we currently play with
   private String peerClusterZnode;
   // Maximum number of retries before taking bold actions
   private int maxRetriesMultiplier;
   // Socket timeouts require even bolder actions since we don't want to DDOS
   private int socketTimeoutMultiplier;
-  // Current number of entries that we need to replicate
-  private int currentNbEntries = 0;
-  // Current number of operations (Put/Delete) that we need to replicate
-  private int currentNbOperations = 0;
-  // Current size of data we need to replicate
-  private int currentSize = 0;
   // Indicates if this particular source is running
   private volatile boolean running = true;
   // Metrics for this source
   private MetricsSource metrics;
-  // Handle on the log reader helper
-  private ReplicationHLogReaderManager repLogReader;
   // Handles connecting to peer region servers
   private ReplicationSinkManager replicationSinkMgr;
   //WARN threshold for the number of queued logs, defaults to 2
   private int logQueueWarnThreshold;
+  // Initial capacity of the queue of each WAL
+  private int initialQueueCapacity;
 
   /**
    * Instantiation method used by region servers
@@ -153,17 +154,10 @@ public class ReplicationSource extends Thread
         this.conf.getLong("replication.source.size.capacity", 1024*1024*64);
     this.replicationQueueNbCapacity =
         this.conf.getInt("replication.source.nb.capacity", 25000);
-    this.entriesArray = new HLog.Entry[this.replicationQueueNbCapacity];
-    for (int i = 0; i < this.replicationQueueNbCapacity; i++) {
-      this.entriesArray[i] = new HLog.Entry();
-    }
     this.maxRetriesMultiplier = this.conf.getInt("replication.source.maxretriesmultiplier", 10);
     this.socketTimeoutMultiplier = this.conf.getInt("replication.source.socketTimeoutMultiplier",
         maxRetriesMultiplier * maxRetriesMultiplier);
-    this.queue =
-        new PriorityBlockingQueue<Path>(
-            conf.getInt("hbase.regionserver.maxlogs", 32),
-            new LogsComparator());
+    this.initialQueueCapacity = conf.getInt("hbase.regionserver.maxlogs", 32);
     // TODO: This connection is replication specific or we should make it particular to
     // replication and make replication specific settings such as compression or codec to use
     // passing Cells.
@@ -175,7 +169,6 @@ public class ReplicationSource extends Thread
         this.conf.getLong("replication.source.sleepforretries", 1000);
     this.fs = fs;
     this.metrics = new MetricsSource(peerClusterZnode);
-    this.repLogReader = new ReplicationHLogReaderManager(this.fs, this.conf);
     this.clusterId = clusterId;
 
     this.peerClusterZnode = peerClusterZnode;
@@ -189,14 +182,33 @@ public class ReplicationSource extends Thread
 
   @Override
   public void enqueueLog(Path log) {
-    this.queue.put(log);
+    String walPrefix = HLogUtil.getWALPrefixFromWALName(log.getName());
+    PriorityBlockingQueue<Path> queue = this.queues.get(walPrefix);
+    if (queue == null) {
+      queue = new PriorityBlockingQueue<Path>(this.initialQueueCapacity, new LogsComparator());
+      PriorityBlockingQueue<Path> existing = this.queues.putIfAbsent(walPrefix, queue);
+      if (existing != null) {
+        queue = existing;
+      }
+    }
+    queue.put(log);
     int queueSize = queue.size();
-    this.metrics.setSizeOfLogQueue(queueSize);
+    refreshSizeOfLogQueue();
     // This will log a warning for each new log that gets created above the warn threshold
     if (queueSize > this.logQueueWarnThreshold) {
       LOG.warn("Queue size: " + queueSize +
         " exceeds value of replication.source.log.queue.warn: " + logQueueWarnThreshold);
     }
+    // A WAL we had not seen yet needs a worker
+    startWorker(walPrefix, queue);
+  }
+
+  private void refreshSizeOfLogQueue() {
+    int size = 0;
+    for (PriorityBlockingQueue<Path> queue : this.queues.values()) {
+      size += queue.size();
+    }
+    this.metrics.setSizeOfLogQueue(size);
   }
 
   @Override
@@ -217,145 +229,26 @@ public class ReplicationSource extends Thread
         }
       }
     }
-    // resetting to 1 to reuse later
-    sleepMultiplier = 1;
 
     LOG.info("Replicating "+clusterId + " -> " + peerClusterId);
 
-    // If this is recovered, the queue is already full and the first log
-    // normally has a position (unless the RS failed between 2 logs)
-    if (this.replicationQueueInfo.isQueueRecovered()) {
-      try {
-        this.repLogReader.setPosition(this.replicationQueues.getLogPosition(this.peerClusterZnode,
-          this.queue.peek().getName()));
-        if (LOG.isTraceEnabled()) {
-          LOG.trace("Recovered queue started with log " + this.queue.peek() +
-              " at position " + this.repLogReader.getPosition());
-        }
-      } catch (ReplicationException e) {
-        this.terminate("Couldn't get the position of this recovered queue " +
-            this.peerClusterZnode, e);
-      }
+    // Start a worker for each WAL queued so far; enqueueLog starts the others
+    synchronized (this.workers) {
+      this.workersStarted = true;
+    }
+    for (Map.Entry<String, PriorityBlockingQueue<Path>> entry : this.queues.entrySet()) {
+      startWorker(entry.getKey(), entry.getValue());
     }
-    // Loop until we close down
+    // The workers do the replicating, we wait until we close down
     while (isActive()) {
-      // Sleep until replication is enabled again
-      if (!isPeerEnabled()) {
-        if (sleepForRetries("Replication is disabled", sleepMultiplier)) {
-          sleepMultiplier++;
-        }
-        continue;
-      }
-      Path oldPath = getCurrentPath(); //note that in the current scenario,
-                                       //oldPath will be null when a log roll
-                                       //happens.
-      // Get a new path
-      boolean hasCurrentPath = getNextPath();
-      if (getCurrentPath() != null && oldPath == null) {
-        sleepMultiplier = 1; //reset the sleepMultiplier on a path change
-      }
-      if (!hasCurrentPath) {
-        if (sleepForRetries("No log to process", sleepMultiplier)) {
-          sleepMultiplier++;
-        }
-        continue;
-      }
-      boolean currentWALisBeingWrittenTo = false;
-      //For WAL files we own (rather than recovered), take a snapshot of whether the
-      //current WAL file (this.currentPath) is in use (for writing) NOW!
-      //Since the new WAL paths are enqueued only after the prev WAL file
-      //is 'closed', presence of an element in the queue means that
-      //the previous WAL file was closed, else the file is in use (currentPath)
-      //We take the snapshot now so that we are protected against races
-      //where a new file gets enqueued while the current file is being processed
-      //(and where we just finished reading the current file).
-      if (!this.replicationQueueInfo.isQueueRecovered() && queue.size() == 0) {
-        currentWALisBeingWrittenTo = true;
-      }
-      // Open a reader on it
-      if (!openReader(sleepMultiplier)) {
-        // Reset the sleep multiplier, else it'd be reused for the next file
-        sleepMultiplier = 1;
-        continue;
-      }
-
-      // If we got a null reader but didn't continue, then sleep and continue
-      if (this.reader == null) {
-        if (sleepForRetries("Unable to open a reader", sleepMultiplier)) {
-          sleepMultiplier++;
-        }
-        continue;
-      }
-
-      boolean gotIOE = false;
-      currentNbOperations = 0;
-      currentNbEntries = 0;
-      currentSize = 0;
       try {
-        if (readAllEntriesToReplicateOrNextFile(currentWALisBeingWrittenTo)) {
-          continue;
-        }
-      } catch (IOException ioe) {
-        LOG.warn(this.peerClusterZnode + " Got: ", ioe);
-        gotIOE = true;
-        if (ioe.getCause() instanceof EOFException) {
-
-          boolean considerDumping = false;
-          if (this.replicationQueueInfo.isQueueRecovered()) {
-            try {
-              FileStatus stat = this.fs.getFileStatus(this.currentPath);
-              if (stat.getLen() == 0) {
-                LOG.warn(this.peerClusterZnode + " Got EOF and the file was empty");
-              }
-              considerDumping = true;
-            } catch (IOException e) {
-              LOG.warn(this.peerClusterZnode + " Got while getting file size: ", e);
-            }
-          } else if (currentNbEntries != 0) {
-            LOG.warn(this.peerClusterZnode +
-                " Got EOF while reading, " + "looks like this file is broken? " + currentPath);
-            considerDumping = true;
-            currentNbEntries = 0;
-          }
-
-          if (considerDumping &&
-              sleepMultiplier == this.maxRetriesMultiplier &&
-              processEndOfFile()) {
-            continue;
-          }
-        }
-      } finally {
-        try {
-          this.reader = null;
-          this.repLogReader.closeReader();
-        } catch (IOException e) {
-          gotIOE = true;
-          LOG.warn("Unable to finalize the tailing of a file", e);
-        }
+        Thread.sleep(this.sleepForRetries);
+      } catch (InterruptedException e) {
+        LOG.debug("Interrupted while waiting on the workers");
       }
-
-      // If we didn't get anything to replicate, or if we hit a IOE,
-      // wait a bit and retry.
-      // But if we need to stop, don't bother sleeping
-      if (this.isActive() && (gotIOE || currentNbEntries == 0)) {
-        if (this.lastLoggedPosition != this.repLogReader.getPosition()) {
-          this.manager.logPositionAndCleanOldLogs(this.currentPath,
-              this.peerClusterZnode, this.repLogReader.getPosition(),
-              this.replicationQueueInfo.isQueueRecovered(), currentWALisBeingWrittenTo);
-          this.lastLoggedPosition = this.repLogReader.getPosition();
-        }
-        // Reset the sleep multiplier if nothing has actually gone wrong
-        if (!gotIOE) {
-          sleepMultiplier = 1;
-        }
-        if (sleepForRetries("Nothing to replicate", sleepMultiplier)) {
-          sleepMultiplier++;
-        }
-        continue;
-      }
-      sleepMultiplier = 1;
-      shipEdits(currentWALisBeingWrittenTo);
-
+    }
+    for (ReplicationSourceWorker worker : getWorkers()) {
+      Threads.shutdown(worker, this.sleepForRetries);
     }
     if (this.conn != null) {
       try {
@@ -369,63 +262,67 @@ public class ReplicationSource extends Thread
   }
 
   /**
-   * Read all the entries from the current log files and retain those
-   * that need to be replicated. Else, process the end of the current file.
-   * @param currentWALisBeingWrittenTo is the current WAL being written to
-   * @return true if we got nothing and went to the next file, false if we got
-   * entries
-   * @throws IOException
+   * Start the worker of a WAL, unless it is running already or we are not connected yet.
+   * @param walPrefix prefix of the WAL, see {@link HLogUtil#getWALPrefixFromWALName(String)}
+   * @param queue logs of the WAL
    */
-  protected boolean readAllEntriesToReplicateOrNextFile(boolean currentWALisBeingWrittenTo)
-      throws IOException{
-    long seenEntries = 0;
-    if (LOG.isTraceEnabled()) {
-      LOG.trace("Seeking in " + this.currentPath + " at position "
-          + this.repLogReader.getPosition());
-    }
-    this.repLogReader.seek();
-    HLog.Entry entry =
-        this.repLogReader.readNextAndSetPosition(this.entriesArray, this.currentNbEntries);
-    while (entry != null) {
-      WALEdit edit = entry.getEdit();
-      this.metrics.incrLogEditsRead();
-      seenEntries++;
-      // Remove all KVs that should not be replicated
-      HLogKey logKey = entry.getKey();
-      // don't replicate if the log entries have already been consumed by the cluster
-      if (!logKey.getClusterIds().contains(peerClusterId)) {
-        removeNonReplicableEdits(entry);
-        // Don't replicate catalog entries, if the WALEdit wasn't
-        // containing anything to replicate and if we're currently not set to replicate
-        if (!logKey.getTablename().equals(TableName.META_TABLE_NAME) &&
-            edit.size() != 0) {
-          //Mark that the current cluster has the change
-          logKey.addClusterId(clusterId);
-          currentNbOperations += countDistinctRowKeys(edit);
-          currentNbEntries++;
-          currentSize += entry.getEdit().heapSize();
-        } else {
-          this.metrics.incrLogEditsFiltered();
-        }
+  private void startWorker(String walPrefix, PriorityBlockingQueue<Path> queue) {
+    synchronized (this.workers) {
+      if (!this.workersStarted || this.workers.containsKey(walPrefix) || !isActive()) {
+        return;
       }
-      // Stop if too many entries or too big
-      if (currentSize >= this.replicationQueueSizeCapacity ||
-          currentNbEntries >= this.replicationQueueNbCapacity) {
-        break;
+      ReplicationSourceWorker worker = new ReplicationSourceWorker(walPrefix, queue);
+      // If this is recovered, the queue is already full and the first log
+      // normally has a position (unless the RS failed between 2 logs)
+      if (this.replicationQueueInfo.isQueueRecovered()) {
+        try {
+          worker.repLogReader.setPosition(this.replicationQueues.getLogPosition(
+            this.peerClusterZnode, queue.peek().getName()));
+          if (LOG.isTraceEnabled()) {
+            LOG.trace("Recovered queue started with log " + queue.peek() +
+                " at position " + worker.repLogReader.getPosition());
+          }
+        } catch (ReplicationException e) {
+          this.terminate("Couldn't get the position of this recovered queue " +
+              this.peerClusterZnode, e);
+          return;
+        }
       }
-      try {
-        entry = this.repLogReader.readNextAndSetPosition(this.entriesArray, this.currentNbEntries);
-      } catch (IOException ie) {
-        LOG.debug("Break on IOE: " + ie.getMessage());
-        break;
+      this.workers.put(walPrefix, worker);
+      Thread.UncaughtExceptionHandler handler =
+          new Thread.UncaughtExceptionHandler() {
+            public void uncaughtException(final Thread t, final Throwable e) {
+              LOG.error("Unexpected exception in " + t.getName(), e);
+            }
+          };
+      Threads.setDaemonThreadRunning(worker, getName() + "." + walPrefix, handler);
+    }
+  }
+
+  private ReplicationSourceWorker[] getWorkers() {
+    synchronized (this.workers) {
+      return this.workers.values().toArray(new ReplicationSourceWorker[this.workers.size()]);
+    }
+  }
+
+  /**
+   * Called by a worker of a recovered queue once it shipped all its logs.
+   * The queue is closed when the last worker is done.
+   */
+  private void workerFinished() {
+    for (ReplicationSourceWorker worker : getWorkers()) {
+      if (!worker.finished) {
+        return;
       }
     }
-    if (currentWALisBeingWrittenTo) {
-      return false;
+    synchronized (this.workers) {
+      if (!this.running) {
+        return;
+      }
+      this.manager.closeRecoveredQueue(this);
+      LOG.info("Finished recovering the queue with the following stats " + getStats());
+      this.running = false;
     }
-    // If we didn't get anything and the queue has an object, it means we
-    // hit the end of the file for sure
-    return seenEntries == 0 && processEndOfFile();
   }
 
   private void connectToPeers() {
@@ -442,123 +339,6 @@ public class ReplicationSource extends Thread
     }
   }
 
-  /**
-   * Poll for the next path
-   * @return true if a path was obtained, false if not
-   */
-  protected boolean getNextPath() {
-    try {
-      if (this.currentPath == null) {
-        this.currentPath = queue.poll(this.sleepForRetries, TimeUnit.MILLISECONDS);
-        this.metrics.setSizeOfLogQueue(queue.size());
-        if (this.currentPath != null) {
-          this.manager.cleanOldLogs(this.currentPath.getName(),
-              this.peerId,
-              this.replicationQueueInfo.isQueueRecovered());
-          if (LOG.isTraceEnabled()) {
-            LOG.trace("New log: " + this.currentPath);
-          }
-        }
-      }
-    } catch (InterruptedException e) {
-      LOG.warn("Interrupted while reading edits", e);
-    }
-    return this.currentPath != null;
-  }
-
-  /**
-   * Open a reader on the current path
-   *
-   * @param sleepMultiplier by how many times the default sleeping time is augmented
-   * @return true if we should continue with that file, false if we are over with it
-   */
-  protected boolean openReader(int sleepMultiplier) {
-    try {
-      try {
-        if (LOG.isTraceEnabled()) {
-          LOG.trace("Opening log " + this.currentPath);
-        }
-        this.reader = repLogReader.openReader(this.currentPath);
-      } catch (FileNotFoundException fnfe) {
-        if (this.replicationQueueInfo.isQueueRecovered()) {
-          // We didn't find the log in the archive directory, look if it still
-          // exists in the dead RS folder (there could be a chain of failures
-          // to look at)
-          List<String> deadRegionServers = this.replicationQueueInfo.getDeadRegionServers();
-          LOG.info("NB dead servers : " + deadRegionServers.size());
-          for (String curDeadServerName : deadRegionServers) {
-            Path deadRsDirectory =
-                new Path(manager.getLogDir().getParent(), curDeadServerName);
-            Path[] locs = new Path[] {
-                new Path(deadRsDirectory, currentPath.getName()),
-                new Path(deadRsDirectory.suffix(HLog.SPLITTING_EXT),
-                                          currentPath.getName()),
-            };
-            for (Path possibleLogLocation : locs) {
-              LOG.info("Possible location " + possibleLogLocation.toUri().toString());
-              if (this.manager.getFs().exists(possibleLogLocation)) {
-                // We found the right new location
-                LOG.info("Log " + this.currentPath + " still exists at " +
-                    possibleLogLocation);
-                // Breaking here will make us sleep since reader is null
-                return true;
-              }
-            }
-          }
-          // TODO What happens if the log was missing from every single location?
-          // Although we need to check a couple of times as the log could have
-          // been moved by the master between the checks
-          // It can also happen if a recovered queue wasn't properly cleaned,
-          // such that the znode pointing to a log exists but the log was
-          // deleted a long time ago.
-          // For the moment, we'll throw the IO and processEndOfFile
-          throw new IOException("File from recovered queue is " +
-              "nowhere to be found", fnfe);
-        } else {
-          // If the log was archived, continue reading from there
-          Path archivedLogLocation =
-              new Path(manager.getOldLogDir(), currentPath.getName());
-          if (this.manager.getFs().exists(archivedLogLocation)) {
-            currentPath = archivedLogLocation;
-            LOG.info("Log " + this.currentPath + " was moved to " +
-                archivedLogLocation);
-            // Open the log at the new location
-            this.openReader(sleepMultiplier);
-
-          }
-          // TODO What happens the log is missing in both places?
-        }
-      }
-    } catch (IOException ioe) {
-      if (ioe instanceof EOFException && isCurrentLogEmpty()) return true;
-      LOG.warn(this.peerClusterZnode + " Got: ", ioe);
-      this.reader = null;
-      if (ioe.getCause() instanceof NullPointerException) {
-        // Workaround for race condition in HDFS-4380
-        // which throws a NPE if we open a file before any data node has the most recent block
-        // Just sleep and retry. Will require re-reading compressed HLogs for compressionContext.
-        LOG.warn("Got NPE opening reader, will retry.");
-      } else if (sleepMultiplier == this.maxRetriesMultiplier) {
-        // TODO Need a better way to determine if a file is really gone but
-        // TODO without scanning all logs dir
-        LOG.warn("Waited too long for this file, considering dumping");
-        return !processEndOfFile();
-      }
-    }
-    return true;
-  }
-
-  /*
-   * Checks whether the current log file is empty, and it is not a recovered queue. This is to
-   * handle scenario when in an idle cluster, there is no entry in the current log and we keep on
-   * trying to read the log file and get EOFEception. In case of a recovered queue the last log file
-   * may be empty, and we don't want to retry that.
-   */
-  private boolean isCurrentLogEmpty() {
-    return (this.repLogReader.getPosition() == 0 &&
-        !this.replicationQueueInfo.isQueueRecovered() && queue.size() == 0);
-  }
-
   /**
    * Do the sleeping logic
    * @param msg Why we sleep
@@ -612,90 +392,6 @@ public class ReplicationSource extends Thread
     return distinctRowKeys;
   }
 
-  /**
-   * Do the shipping logic
-   * @param currentWALisBeingWrittenTo was the current WAL being (seemingly)
-   * written to when this method was called
-   */
-  protected void shipEdits(boolean currentWALisBeingWrittenTo) {
-    int sleepMultiplier = 1;
-    if (this.currentNbEntries == 0) {
-      LOG.warn("Was given 0 edits to ship");
-      return;
-    }
-    while (this.isActive()) {
-      if (!isPeerEnabled()) {
-        if (sleepForRetries("Replication is disabled", sleepMultiplier)) {
-          sleepMultiplier++;
-        }
-        continue;
-      }
-      SinkPeer sinkPeer = null;
-      try {
-        sinkPeer = replicationSinkMgr.getReplicationSink();
-        BlockingInterface rrs = sinkPeer.getRegionServer();
-        if (LOG.isTraceEnabled()) {
-          LOG.trace("Replicating " + this.currentNbEntries +
-              " entries of total size " + currentSize);
-        }
-        ReplicationProtbufUtil.replicateWALEntry(rrs,
-            Arrays.copyOf(this.entriesArray, currentNbEntries));
-        if (this.lastLoggedPosition != this.repLogReader.getPosition()) {
-          this.manager.logPositionAndCleanOldLogs(this.currentPath,
-              this.peerClusterZnode, this.repLogReader.getPosition(),
-              this.replicationQueueInfo.isQueueRecovered(), currentWALisBeingWrittenTo);
-          this.lastLoggedPosition = this.repLogReader.getPosition();
-        }
-        this.totalReplicatedEdits += currentNbEntries;
-        this.totalReplicatedOperations += currentNbOperations;
-        this.metrics.shipBatch(this.currentNbOperations);
-        this.metrics.setAgeOfLastShippedOp(
-            this.entriesArray[currentNbEntries-1].getKey().getWriteTime());
-        if (LOG.isTraceEnabled()) {
-          LOG.trace("Replicated " + this.totalReplicatedEdits + " entries in total, or "
-              + this.totalReplicatedOperations + " operations");
-        }
-        break;
-
-      } catch (IOException ioe) {
-        // Didn't ship anything, but must still age the last time we did
-        this.metrics.refreshAgeOfLastShippedOp();
-        if (ioe instanceof RemoteException) {
-          ioe = ((RemoteException) ioe).unwrapRemoteException();
-          LOG.warn("Can't replicate because of an error on the remote cluster: ", ioe);
-          if (ioe instanceof TableNotFoundException) {
-            if (sleepForRetries("A table is missing in the peer cluster. "
-                + "Replication cannot proceed without losing data.", sleepMultiplier)) {
-              sleepMultiplier++;
-            }
-          }
-        } else {
-          if (ioe instanceof SocketTimeoutException) {
-            // This exception means we waited for more than 60s and nothing
-            // happened, the cluster is alive and calling it right away
-            // even for a test just makes things worse.
-            sleepForRetries("Encountered a SocketTimeoutException. Since the " +
-              "call to the remote cluster timed out, which is usually " +
-              "caused by a machine failure or a massive slowdown",
-              this.socketTimeoutMultiplier);
-          } else if (ioe instanceof ConnectException) {
-            LOG.warn("Peer is unavailable, rechecking all sinks: ", ioe);
-            replicationSinkMgr.chooseSinks();
-          } else {
-            LOG.warn("Can't replicate because of a local or network error: ", ioe);
-          }
-        }
-
-        if (sinkPeer != null) {
-          replicationSinkMgr.reportBadSink(sinkPeer);
-        }
-        if (sleepForRetries("Since we are unable to replicate", sleepMultiplier)) {
-          sleepMultiplier++;
-        }
-      }
-    }
-  }
-
   /**
    * check whether the peer is enabled or not
    *
@@ -705,44 +401,13 @@ public class ReplicationSource extends Thread
     return this.replicationPeers.getStatusOfConnectedPeer(this.peerId);
   }
 
-  /**
-   * If the queue isn't empty, switch to the next one
-   * Else if this is a recovered queue, it means we're done!
-   * Else we'll just continue to try reading the log file
-   * @return true if we're done with the current file, false if we should
-   * continue trying to read from it
-   */
-  protected boolean processEndOfFile() {
-    if (this.queue.size() != 0) {
-      if (LOG.isTraceEnabled()) {
-        String filesize = "N/A";
-        try {
-          FileStatus stat = this.fs.getFileStatus(this.currentPath);
-          filesize = stat.getLen()+"";
-        } catch (IOException ex) {}
-        LOG.trace("Reached the end of a log, stats: " + getStats() +
-            ", and the length of the file is " + filesize);
-      }
-      this.currentPath = null;
-      this.repLogReader.finishCurrentFile();
-      this.reader = null;
-      return true;
-    } else if (this.replicationQueueInfo.isQueueRecovered()) {
-      this.manager.closeRecoveredQueue(this);
-      LOG.info("Finished recovering the queue with the following stats " + getStats());
-      this.running = false;
-      return true;
-    }
-    return false;
-  }
-
   public void startup() {
     String n = Thread.currentThread().getName();
     Thread.UncaughtExceptionHandler handler =
         new Thread.UncaughtExceptionHandler() {
           public void uncaughtException(final Thread t, final Throwable e) {
             LOG.error("Unexpected exception in ReplicationSource," +
-              " currentPath=" + currentPath, e);
+              " currentPath=" + getCurrentPath(), e);
           }
         };
     Threads.setDaemonThreadRunning(
@@ -764,7 +429,10 @@ public class ReplicationSource extends Thread
           + " because an error occurred: " + reason, cause);
     }
     this.running = false;
-    Threads.shutdown(this, this.sleepForRetries);
+    // Don't wait on ourselves when we are terminating from our own thread
+    if (Thread.currentThread() != this) {
+      Threads.shutdown(this, this.sleepForRetries);
+    }
   }
 
   public String getPeerClusterZnode() {
@@ -775,8 +443,18 @@ public class ReplicationSource extends Thread
     return this.peerId;
   }
 
+  /**
+   * @return the log being replicated. When the region server writes several
+   * WALs, this is the log of the first WAL that has one.
+   */
   public Path getCurrentPath() {
-    return this.currentPath;
+    for (ReplicationSourceWorker worker : getWorkers()) {
+      Path currentPath = worker.currentPath;
+      if (currentPath != null) {
+        return currentPath;
+      }
+    }
+    return null;
   }
 
   private boolean isActive() {
@@ -807,9 +485,471 @@ public class ReplicationSource extends Thread
 
   @Override
   public String getStats() {
-    long position = this.repLogReader.getPosition();
-    return "Total replicated edits: " + totalReplicatedEdits +
-      ", currently replicating from: " + this.currentPath +
-      " at position: " + position;
+    StringBuilder sb = new StringBuilder();
+    sb.append("Total replicated edits: ").append(totalReplicatedEdits.get());
+    for (ReplicationSourceWorker worker : getWorkers()) {
+      sb.append(", currently replicating from: ").append(worker.currentPath)
+        .append(" at position: ").append(worker.repLogReader.getPosition());
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Reads the logs of one WAL in order and ships their edits.
+   */
+  private class ReplicationSourceWorker extends Thread {
+    // Prefix of the WAL whose logs we process
+    private final String walPrefix;
+    // Queue of logs to process
+    private final PriorityBlockingQueue<Path> queue;
+    // container of entries to replicate
+    private final HLog.Entry[] entriesArray;
+    // Our reader for the current log
+    private HLog.Reader reader;
+    // Last position in the log that we sent to ZooKeeper
+    private long lastLoggedPosition = -1;
+    // Path of the current log
+    private volatile Path currentPath;
+    // Current number of entries that we need to replicate
+    private int currentNbEntries = 0;
+    // Current number of operations (Put/Delete) that we need to replicate
+    private int currentNbOperations = 0;
+    // Current size of data we need to replicate
+    private int currentSize = 0;
+    // Handle on the log reader helper
+    private final ReplicationHLogReaderManager repLogReader;
+    // Set when a recovered queue has been fully shipped
+    private volatile boolean finished = false;
+
+    ReplicationSourceWorker(String walPrefix, PriorityBlockingQueue<Path> queue) {
+      this.walPrefix = walPrefix;
+      this.queue = queue;
+      this.entriesArray = new HLog.Entry[replicationQueueNbCapacity];
+      for (int i = 0; i < replicationQueueNbCapacity; i++) {
+        this.entriesArray[i] = new HLog.Entry();
+      }
+      this.repLogReader = new ReplicationHLogReaderManager(fs, conf);
+    }
+
+    @Override
+    public void run() {
+      int sleepMultiplier = 1;
+      // Loop until we close down
+      while (isActive() && !this.finished) {
+        // Sleep until replication is enabled again
+        if (!isPeerEnabled()) {
+          if (sleepForRetries("Replication is disabled", sleepMultiplier)) {
+            sleepMultiplier++;
+          }
+          continue;
+        }
+        Path oldPath = this.currentPath; //note that in the current scenario,
+                                         //oldPath will be null when a log roll
+                                         //happens.
+        // Get a new path
+        boolean hasCurrentPath = getNextPath();
+        if (this.currentPath != null && oldPath == null) {
+          sleepMultiplier = 1; //reset the sleepMultiplier on a path change
+        }
+        if (!hasCurrentPath) {
+          if (sleepForRetries("No log to process", sleepMultiplier)) {
+            sleepMultiplier++;
+          }
+          continue;
+        }
+        boolean currentWALisBeingWrittenTo = false;
+        //For WAL files we own (rather than recovered), take a snapshot of whether the
+        //current WAL file (this.currentPath) is in use (for writing) NOW!
+        //Since the new WAL paths are enqueued only after the prev WAL file
+        //is 'closed', presence of an element in the queue means that
+        //the previous WAL file was closed, else the file is in use (currentPath)
+        //We take the snapshot now so that we are protected against races
+        //where a new file gets enqueued while the current file is being processed
+        //(and where we just finished reading the current file).
+        //The queue only holds the logs of our WAL, so logs of the other WALs
+        //of the region server don't count.
+        if (!replicationQueueInfo.isQueueRecovered() && queue.size() == 0) {
+          currentWALisBeingWrittenTo = true;
+        }
+        // Open a reader on it
+        if (!openReader(sleepMultiplier)) {
+          // Reset the sleep multiplier, else it'd be reused for the next file
+          sleepMultiplier = 1;
+          continue;
+        }
+
+        // If we got a null reader but didn't continue, then sleep and continue
+        if (this.reader == null) {
+          if (sleepForRetries("Unable to open a reader", sleepMultiplier)) {
+            sleepMultiplier++;
+          }
+          continue;
+        }
+
+        boolean gotIOE = false;
+        currentNbOperations = 0;
+        currentNbEntries = 0;
+        currentSize = 0;
+        try {
+          if (readAllEntriesToReplicateOrNextFile(currentWALisBeingWrittenTo)) {
+            continue;
+          }
+        } catch (IOException ioe) {
+          LOG.warn(peerClusterZnode + " Got: ", ioe);
+          gotIOE = true;
+          if (ioe.getCause() instanceof EOFException) {
+
+            boolean considerDumping = false;
+            if (replicationQueueInfo.isQueueRecovered()) {
+              try {
+                FileStatus stat = fs.getFileStatus(this.currentPath);
+                if (stat.getLen() == 0) {
+                  LOG.warn(peerClusterZnode + " Got EOF and the file was empty");
+                }
+                considerDumping = true;
+              } catch (IOException e) {
+                LOG.warn(peerClusterZnode + " Got while getting file size: ", e);
+              }
+            } else if (currentNbEntries != 0) {
+              LOG.warn(peerClusterZnode +
+                  " Got EOF while reading, " + "looks like this file is broken? " + currentPath);
+              considerDumping = true;
+              currentNbEntries = 0;
+            }
+
+            if (considerDumping &&
+                sleepMultiplier == maxRetriesMultiplier &&
+                processEndOfFile()) {
+              continue;
+            }
+          }
+        } finally {
+          try {
+            this.reader = null;
+            this.repLogReader.closeReader();
+          } catch (IOException e) {
+            gotIOE = true;
+            LOG.warn("Unable to finalize the tailing of a file", e);
+          }
+        }
+
+        // If we didn't get anything to replicate, or if we hit a IOE,
+        // wait a bit and retry.
+        // But if we need to stop, don't bother sleeping
+        if (isActive() && (gotIOE || currentNbEntries == 0)) {
+          if (this.lastLoggedPosition != this.repLogReader.getPosition()) {
+            manager.logPositionAndCleanOldLogs(this.currentPath,
+                peerClusterZnode, this.repLogReader.getPosition(),
+                replicationQueueInfo.isQueueRecovered(), currentWALisBeingWrittenTo);
+            this.lastLoggedPosition = this.repLogReader.getPosition();
+          }
+          // Reset the sleep multiplier if nothing has actually gone wrong
+          if (!gotIOE) {
+            sleepMultiplier = 1;
+          }
+          if (sleepForRetries("Nothing to replicate", sleepMultiplier)) {
+            sleepMultiplier++;
+          }
+          continue;
+        }
+        sleepMultiplier = 1;
+        shipEdits(currentWALisBeingWrittenTo);
+      }
+      LOG.debug("Worker exiting " + peerId + ", wal " + this.walPrefix);
+    }
+
+    /**
+     * Read all the entries from the current log files and retain those
+     * that need to be replicated. Else, process the end of the current file.
+     * @param currentWALisBeingWrittenTo is the current WAL being written to
+     * @return true if we got nothing and went to the next file, false if we got
+     * entries
+     * @throws IOException
+     */
+    protected boolean readAllEntriesToReplicateOrNextFile(boolean currentWALisBeingWrittenTo)
+        throws IOException{
+      long seenEntries = 0;
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("Seeking in " + this.currentPath + " at position "
+            + this.repLogReader.getPosition());
+      }
+      this.repLogReader.seek();
+      HLog.Entry entry =
+          this.repLogReader.readNextAndSetPosition(this.entriesArray, this.currentNbEntries);
+      while (entry != null) {
+        WALEdit edit = entry.getEdit();
+        metrics.incrLogEditsRead();
+        seenEntries++;
+        // Remove all KVs that should not be replicated
+        HLogKey logKey = entry.getKey();
+        // don't replicate if the log entries have already been consumed by the cluster
+        if (!logKey.getClusterIds().contains(peerClusterId)) {
+          removeNonReplicableEdits(entry);
+          // Don't replicate catalog entries, if the WALEdit wasn't
+          // containing anything to replicate and if we're currently not set to replicate
+          if (!logKey.getTablename().equals(TableName.META_TABLE_NAME) &&
+              edit.size() != 0) {
+            //Mark that the current cluster has the change
+            logKey.addClusterId(clusterId);
+            currentNbOperations += countDistinctRowKeys(edit);
+            currentNbEntries++;
+            currentSize += entry.getEdit().heapSize();
+          } else {
+            metrics.incrLogEditsFiltered();
+          }
+        }
+        // Stop if too many entries or too big
+        if (currentSize >= replicationQueueSizeCapacity ||
+            currentNbEntries >= replicationQueueNbCapacity) {
+          break;
+        }
+        try {
+          entry = this.repLogReader.readNextAndSetPosition(this.entriesArray,
+            this.currentNbEntries);
+        } catch (IOException ie) {
+          LOG.debug("Break on IOE: " + ie.getMessage());
+          break;
+        }
+      }
+      if (currentWALisBeingWrittenTo) {
+        return false;
+      }
+      // If we didn't get anything and the queue has an object, it means we
+      // hit the end of the file for sure
+      return seenEntries == 0 && processEndOfFile();
+    }
+
+    /**
+     * Poll for the next path
+     * @return true if a path was obtained, false if not
+     */
+    protected boolean getNextPath() {
+      try {
+        if (this.currentPath == null) {
+          this.currentPath = queue.poll(sleepForRetries, TimeUnit.MILLISECONDS);
+          refreshSizeOfLogQueue();
+          if (this.currentPath != null) {
+            manager.cleanOldLogs(this.currentPath.getName(),
+                peerId,
+                replicationQueueInfo.isQueueRecovered());
+            if (LOG.isTraceEnabled()) {
+              LOG.trace("New log: " + this.currentPath);
+            }
+          }
+        }
+      } catch (InterruptedException e) {
+        LOG.warn("Interrupted while reading edits", e);
+      }
+      return this.currentPath != null;
+    }
+
+    /**
+     * Open a reader on the current path
+     *
+     * @param sleepMultiplier by how many times the default sleeping time is augmented
+     * @return true if we should continue with that file, false if we are over with it
+     */
+    protected boolean openReader(int sleepMultiplier) {
+      try {
+        try {
+          if (LOG.isTraceEnabled()) {
+            LOG.trace("Opening log " + this.currentPath);
+          }
+          this.reader = repLogReader.openReader(this.currentPath);
+        } catch (FileNotFoundException fnfe) {
+          if (replicationQueueInfo.isQueueRecovered()) {
+            // We didn't find the log in the archive directory, look if it still
+            // exists in the dead RS folder (there could be a chain of failures
+            // to look at)
+            List<String> deadRegionServers = replicationQueueInfo.getDeadRegionServers();
+            LOG.info("NB dead servers : " + deadRegionServers.size());
+            for (String curDeadServerName : deadRegionServers) {
+              Path deadRsDirectory =
+                  new Path(manager.getLogDir().getParent(), curDeadServerName);
+              Path[] locs = new Path[] {
+                  new Path(deadRsDirectory, currentPath.getName()),
+                  new Path(deadRsDirectory.suffix(HLog.SPLITTING_EXT),
+                                            currentPath.getName()),
+              };
+              for (Path possibleLogLocation : locs) {
+                LOG.info("Possible location " + possibleLogLocation.toUri().toString());
+                if (manager.getFs().exists(possibleLogLocation)) {
+                  // We found the right new location
+                  LOG.info("Log " + this.currentPath + " still exists at " +
+                      possibleLogLocation);
+                  // Breaking here will make us sleep since reader is null
+                  return true;
+                }
+              }
+            }
+            // TODO What happens if the log was missing from every single location?
+            // Although we need to check a couple of times as the log could have
+            // been moved by the master between the checks
+            // It can also happen if a recovered queue wasn't properly cleaned,
+            // such that the znode pointing to a log exists but the log was
+            // deleted a long time ago.
+            // For the moment, we'll throw the IO and processEndOfFile
+            throw new IOException("File from recovered queue is " +
+                "nowhere to be found", fnfe);
+          } else {
+            // If the log was archived, continue reading from there
+            Path archivedLogLocation =
+                new Path(manager.getOldLogDir(), currentPath.getName());
+            if (manager.getFs().exists(archivedLogLocation)) {
+              currentPath = archivedLogLocation;
+              LOG.info("Log " + this.currentPath + " was moved to " +
+                  archivedLogLocation);
+              // Open the log at the new location
+              this.openReader(sleepMultiplier);
+
+            }
+            // TODO What happens the log is missing in both places?
+          }
+        }
+      } catch (IOException ioe) {
+        if (ioe instanceof EOFException && isCurrentLogEmpty()) return true;
+        LOG.warn(peerClusterZnode + " Got: ", ioe);
+        this.reader = null;
+        if (ioe.getCause() instanceof NullPointerException) {
+          // Workaround for race condition in HDFS-4380
+          // which throws a NPE if we open a file before any data node has the most recent block
+          // Just sleep and retry. Will require re-reading compressed HLogs for compressionContext.
+          LOG.warn("Got NPE opening reader, will retry.");
+        } else if (sleepMultiplier == maxRetriesMultiplier) {
+          // TODO Need a better way to determine if a file is really gone but
+          // TODO without scanning all logs dir
+          LOG.warn("Waited too long for this file, considering dumping");
+          return !processEndOfFile();
+        }
+      }
+      return true;
+    }
+
+    /*
+     * Checks whether the current log file is empty, and it is not a recovered queue. This is to
+     * handle scenario when in an idle cluster, there is no entry in the current log and we keep
+     * on trying to read the log file and get EOFEception. In case of a recovered queue the last
+     * log file may be empty, and we don't want to retry that.
+     */
+    private boolean isCurrentLogEmpty() {
+      return (this.repLogReader.getPosition() == 0 &&
+          !replicationQueueInfo.isQueueRecovered() && queue.size() == 0);
+    }
+
+    /**
+     * Do the shipping logic
+     * @param currentWALisBeingWrittenTo was the current WAL being (seemingly)
+     * written to when this method was called
+     */
+    protected void shipEdits(boolean currentWALisBeingWrittenTo) {
+      int sleepMultiplier = 1;
+      if (this.currentNbEntries == 0) {
+        LOG.warn("Was given 0 edits to ship");
+        return;
+      }
+      while (isActive()) {
+        if (!isPeerEnabled()) {
+          if (sleepForRetries("Replication is disabled", sleepMultiplier)) {
+            sleepMultiplier++;
+          }
+          continue;
+        }
+        SinkPeer sinkPeer = null;
+        try {
+          sinkPeer = replicationSinkMgr.getReplicationSink();
+          BlockingInterface rrs = sinkPeer.getRegionServer();
+          if (LOG.isTraceEnabled()) {
+            LOG.trace("Replicating " + this.currentNbEntries +
+                " entries of total size " + currentSize);
+          }
+          ReplicationProtbufUtil.replicateWALEntry(rrs,
+              Arrays.copyOf(this.entriesArray, currentNbEntries));
+          if (this.lastLoggedPosition != this.repLogReader.getPosition()) {
+            manager.logPositionAndCleanOldLogs(this.currentPath,
+                peerClusterZnode, this.repLogReader.getPosition(),
+                replicationQueueInfo.isQueueRecovered(), currentWALisBeingWrittenTo);
+            this.lastLoggedPosition = this.repLogReader.getPosition();
+          }
+          long edits = totalReplicatedEdits.addAndGet(currentNbEntries);
+          long operations = totalReplicatedOperations.addAndGet(currentNbOperations);
+          metrics.shipBatch(this.currentNbOperations);
+          metrics.setAgeOfLastShippedOp(
+              this.entriesArray[currentNbEntries-1].getKey().getWriteTime());
+          if (LOG.isTraceEnabled()) {
+            LOG.trace("Replicated " + edits + " entries in total, or "
+                + operations + " operations");
+          }
+          break;
+
+        } catch (IOException ioe) {
+          // Didn't ship anything, but must still age the last time we did
+          metrics.refreshAgeOfLastShippedOp();
+          if (ioe instanceof RemoteException) {
+            ioe = ((RemoteException) ioe).unwrapRemoteException();
+            LOG.warn("Can't replicate because of an error on the remote cluster: ", ioe);
+            if (ioe instanceof TableNotFoundException) {
+              if (sleepForRetries("A table is missing in the peer cluster. "
+                  + "Replication cannot proceed without losing data.", sleepMultiplier)) {
+                sleepMultiplier++;
+              }
+            }
+          } else {
+            if (ioe instanceof SocketTimeoutException) {
+              // This exception means we waited for more than 60s and nothing
+              // happened, the cluster is alive and calling it right away
+              // even for a test just makes things worse.
+              sleepForRetries("Encountered a SocketTimeoutException. Since the " +
+                "call to the remote cluster timed out, which is usually " +
+                "caused by a machine failure or a massive slowdown",
+                socketTimeoutMultiplier);
+            } else if (ioe instanceof ConnectException) {
+              LOG.warn("Peer is unavailable, rechecking all sinks: ", ioe);
+              replicationSinkMgr.chooseSinks();
+            } else {
+              LOG.warn("Can't replicate because of a local or network error: ", ioe);
+            }
+          }
+
+          if (sinkPeer != null) {
+            replicationSinkMgr.reportBadSink(sinkPeer);
+          }
+          if (sleepForRetries("Since we are unable to replicate", sleepMultiplier)) {
+            sleepMultiplier++;
+          }
+        }
+      }
+    }
+
+    /**
+     * If the queue isn't empty, switch to the next one
+     * Else if this is a recovered queue, it means we're done!
+     * Else we'll just continue to try reading the log file
+     * @return true if we're done with the current file, false if we should
+     * continue trying to read from it
+     */
+    protected boolean processEndOfFile() {
+      if (this.queue.size() != 0) {
+        if (LOG.isTraceEnabled()) {
+          String filesize = "N/A";
+          try {
+            FileStatus stat = fs.getFileStatus(this.currentPath);
+            filesize = stat.getLen()+"";
+          } catch (IOException ex) {}
+          LOG.trace("Reached the end of a log, stats: " + getStats() +
+              ", and the length of the file is " + filesize);
+        }
+        this.currentPath = null;
+        this.repLogReader.finishCurrentFile();
+        this.reader = null;
+        return true;
+      } else if (replicationQueueInfo.isQueueRecovered()) {
+        LOG.info("Finished recovering the logs of wal " + this.walPrefix + " in queue " +
+            peerClusterZnode);
+        this.finished = true;
+        workerFinished();
+        return true;
+      }
+      return false;
+    }
   }
-}
\ No newline at end of file
+}
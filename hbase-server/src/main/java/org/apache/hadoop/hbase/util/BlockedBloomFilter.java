@@ -0,0 +1,307 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hbase.util;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * A Bloom filter whose bit array is split into blocks of the size of a cache
+ * line, {@link #BLOCK_BYTES} bytes. A key is hashed once, with a 64-bit hash,
+ * which picks one block and the positions of all the bits of the key inside
+ * it. A lookup thus reads one cache line, or two where the bit array is not
+ * aligned on cache lines, instead of up to one per hash function. The price
+ * is a higher false positive rate for the same size, as keys fall unevenly
+ * into blocks; the filter is sized with that taken into account, so it is a
+ * few percent larger than a {@link ByteBloomFilter} of the same error rate.
+ * <p>
+ * Written as the chunks of a compound Bloom filter, see
+ * {@link CompoundBloomFilterBase#BLOCKED_VERSION}. The hash type given is
+ * recorded but not used.
+ */
+@InterfaceAudience.Private
+public class BlockedBloomFilter extends ByteBloomFilter {
+
+  /** Size of a block, a cache line */
+  public static final int BLOCK_BYTES = 64;
+
+  private static final int BLOCK_BITS = BLOCK_BYTES * 8;
+
+  private static final int BLOCK_SHIFT = 6;
+
+  /** Derives the positions of the bits of a key in a block from its hash */
+  private static final long BIT_HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+  protected BlockedBloomFilter(int hashType) {
+    super(hashType);
+  }
+
+  /**
+   * Creates a blocked Bloom filter of the given size.
+   *
+   * @param byteSizeHint the desired number of bytes for the Bloom filter bit
+   *          array. Will be increased so that folding is possible.
+   * @param errorRate target false positive rate of the Bloom filter
+   * @param hashType Bloom filter hash function type, recorded only
+   * @param foldFactor
+   * @return the new Bloom filter of the desired size
+   */
+  public static BlockedBloomFilter createBySize(int byteSizeHint,
+      double errorRate, int hashType, int foldFactor) {
+    BlockedBloomFilter bbf = new BlockedBloomFilter(hashType);
+
+    // Whole blocks, a number of them that can be halved foldFactor times,
+    // but folding fewer times rather than growing a small filter by more than
+    // an eighth
+    long blockCount = (byteSizeHint + BLOCK_BYTES - 1) / BLOCK_BYTES;
+    int maxFold = Math.max(0, 60 - Long.numberOfLeadingZeros(blockCount));
+    bbf.byteSize = computeFoldableByteSize(byteSizeHint * 8L,
+        Math.min(foldFactor, maxFold) + BLOCK_SHIFT);
+    long bitSize = bbf.byteSize * 8;
+    bbf.hashCount = optimalFunctionCount(
+        (int) idealMaxKeys(bitSize, errorRate), bitSize);
+    bbf.maxKeys = (int) computeMaxKeys(bitSize, errorRate, bbf.hashCount);
+    return bbf;
+  }
+
+  /**
+   * The maximum number of keys we can put into a blocked Bloom filter of a
+   * certain size to get the given error rate, with the given number of hash
+   * functions.
+   *
+   * @param bitSize
+   * @param errorRate
+   * @param hashCount
+   * @return the maximum number of keys that can be inserted in a blocked
+   *         Bloom filter to maintain the target error rate
+   */
+  public static long computeMaxKeys(long bitSize, double errorRate,
+      int hashCount) {
+    // The error rate grows with the number of keys; a standard Bloom filter
+    // holds more keys than a blocked one, so bounds the search
+    long low = 0;
+    long high = ByteBloomFilter.computeMaxKeys(bitSize, errorRate, hashCount);
+    while (low < high) {
+      long mid = (low + high + 1) >>> 1;
+      if (actualErrorRate(mid, bitSize, hashCount) <= errorRate) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Computes the error rate of a blocked Bloom filter. The number of keys in
+   * a block follows a Poisson distribution; the error rate is the average,
+   * over that distribution, of the error rate of a block as a small Bloom
+   * filter.
+   *
+   * @param keys number of keys in the Bloom filter
+   * @param bitSize
+   * @param functionCount
+   * @return the error rate
+   */
+  public static double actualErrorRate(long keys, long bitSize,
+      int functionCount) {
+    double keysPerBlock = keys * (double) BLOCK_BITS / bitSize;
+    double bitUnsetByKey = Math.pow(1 - 1.0 / BLOCK_BITS, functionCount);
+    // Sum the terms around the mean, where almost all the weight is
+    int from = (int) Math.max(0,
+        keysPerBlock - 10 * Math.sqrt(keysPerBlock) - 10);
+    int to = (int) (keysPerBlock + 10 * Math.sqrt(keysPerBlock) + 10);
+    double errorRate = 0;
+    for (int j = from; j <= to; j++) {
+      double logProbability =
+          j * Math.log(keysPerBlock) - keysPerBlock - logFactorial(j);
+      double blockErrorRate =
+          Math.pow(1 - Math.pow(bitUnsetByKey, j), functionCount);
+      errorRate += Math.exp(logProbability) * blockErrorRate;
+    }
+    return errorRate;
+  }
+
+  private static double logFactorial(int n) {
+    double result = 0;
+    for (int i = 2; i <= n; i++) {
+      result += Math.log(i);
+    }
+    return result;
+  }
+
+  @Override
+  public double actualErrorRate() {
+    return actualErrorRate(keyCount, byteSize * 8, hashCount);
+  }
+
+  @Override
+  public BlockedBloomFilter createAnother() {
+    BlockedBloomFilter bbf = new BlockedBloomFilter(hashType);
+    bbf.byteSize = byteSize;
+    bbf.hashCount = hashCount;
+    bbf.maxKeys = maxKeys;
+    return bbf;
+  }
+
+  @Override
+  public void add(byte[] buf, int offset, int len) {
+    long hash = hash64(buf, offset, len);
+    int blockBitOffset = blockOf(hash, (int) (byteSize >> BLOCK_SHIFT)) * BLOCK_BITS;
+    long bitHash = bitHash(hash);
+    for (int i = 0; i < hashCount; i++) {
+      set(blockBitOffset + bitOf(bitHash));
+      bitHash *= BIT_HASH_MULTIPLIER;
+    }
+
+    ++this.keyCount;
+  }
+
+  @Override
+  public boolean contains(byte[] buf, int offset, int length,
+      ByteBuffer theBloom) {
+    if (theBloom == null) {
+      theBloom = bloom;
+    }
+
+    if (theBloom.limit() != byteSize) {
+      throw new IllegalArgumentException("Bloom does not match expected size:"
+          + " theBloom.limit()=" + theBloom.limit() + ", byteSize=" + byteSize);
+    }
+
+    return contains(buf, offset, length, theBloom.array(),
+        theBloom.arrayOffset(), (int) byteSize, hashCount);
+  }
+
+  public static boolean contains(byte[] buf, int offset, int length,
+      byte[] bloomArray, int bloomOffset, int bloomSize, int hashCount) {
+    int blockCount = bloomSize >> BLOCK_SHIFT;
+    Random randomGenerator = randomGeneratorForTest;
+    if (randomGenerator != null) {
+      // Test mode with "fake lookups" to estimate the "ideal false positive
+      // rate": random bits of a random block.
+      int blockOffset = bloomOffset
+          + (randomGenerator.nextInt(blockCount) << BLOCK_SHIFT);
+      for (int i = 0; i < hashCount; i++) {
+        if (!get(randomGenerator.nextInt(BLOCK_BITS), bloomArray,
+            blockOffset)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    long hash = hash64(buf, offset, length);
+    int blockOffset = bloomOffset + (blockOf(hash, blockCount) << BLOCK_SHIFT);
+    long bitHash = bitHash(hash);
+    for (int i = 0; i < hashCount; i++) {
+      if (!get(bitOf(bitHash), bloomArray, blockOffset)) {
+        return false;
+      }
+      bitHash *= BIT_HASH_MULTIPLIER;
+    }
+    return true;
+  }
+
+  /**
+   * @return the block of a key. A modulo, so that folding the filter in two,
+   *         which merges block i with block i + blockCount / 2, keeps keys in
+   *         their block
+   */
+  private static int blockOf(long hash, int blockCount) {
+    return (int) ((hash >>> 1) % blockCount);
+  }
+
+  /**
+   * @return the hash the positions of the bits of a key are taken from. Each
+   *         position is the top bits of the hash, which is then multiplied by
+   *         {@link #BIT_HASH_MULTIPLIER} for the next one: positions derived
+   *         from one another by addition, as in {@link ByteBloomFilter}, are
+   *         too correlated over as few bits as a block has.
+   */
+  private static long bitHash(long hash) {
+    return hash * BIT_HASH_MULTIPLIER;
+  }
+
+  /** @return the position of a bit in its block, from the bit hash */
+  private static int bitOf(long bitHash) {
+    return (int) (bitHash >>> (Long.SIZE - BLOCK_SHIFT - 3));
+  }
+
+  @Override
+  protected boolean isFoldable(int byteSize) {
+    return byteSize % (2 * BLOCK_BYTES) == 0;
+  }
+
+  /**
+   * MurmurHash64A by Austin Appleby, over the bytes read little-endian.
+   *
+   * @return the 64-bit hash of the given bytes
+   */
+  static long hash64(byte[] data, int offset, int length) {
+    final long m = 0xc6a4a7935bd1e995L;
+    final int r = 47;
+
+    long h = length * m;
+
+    int end = offset + (length & ~7);
+    for (int i = offset; i < end; i += 8) {
+      long k = (data[i] & 0xffL)
+          | ((data[i + 1] & 0xffL) << 8)
+          | ((data[i + 2] & 0xffL) << 16)
+          | ((data[i + 3] & 0xffL) << 24)
+          | ((data[i + 4] & 0xffL) << 32)
+          | ((data[i + 5] & 0xffL) << 40)
+          | ((data[i + 6] & 0xffL) << 48)
+          | ((data[i + 7] & 0xffL) << 56);
+
+      k *= m;
+      k ^= k >>> r;
+      k *= m;
+
+      h ^= k;
+      h *= m;
+    }
+
+    switch (length & 7) {
+    case 7:
+      h ^= (data[end + 6] & 0xffL) << 48;
+    case 6:
+      h ^= (data[end + 5] & 0xffL) << 40;
+    case 5:
+      h ^= (data[end + 4] & 0xffL) << 32;
+    case 4:
+      h ^= (data[end + 3] & 0xffL) << 24;
+    case 3:
+      h ^= (data[end + 2] & 0xffL) << 16;
+    case 2:
+      h ^= (data[end + 1] & 0xffL) << 8;
+    case 1:
+      h ^= data[end] & 0xffL;
+      h *= m;
+    }
+
+    h ^= h >>> r;
+    h *= m;
+    h ^= h >>> r;
+    return h;
+  }
+}
@@ -112,7 +112,7 @@ public class ByteBloomFilter implements BloomFilter, BloomFilterWriter {
    * A random number generator to use for "fake lookups" when testing to
    * estimate the ideal false positive rate.
    */
-  private static Random randomGeneratorForTest;
+  static Random randomGeneratorForTest;
 
   /** Bit-value lookup array to prevent doing the same work over and over */
   private static final byte [] bitvals = {
@@ -246,7 +246,7 @@ public class ByteBloomFilter implements BloomFilter, BloomFilterWriter {
     return (int) byteSizeLong;
   }
 
-  private static int optimalFunctionCount(int maxKeys, long bitSize) {
+  static int optimalFunctionCount(int maxKeys, long bitSize) {
     long i = bitSize / maxKeys;
     double result = Math.ceil(Math.log(2) * i);
     if (result > Integer.MAX_VALUE){
@@ -255,8 +255,8 @@ public class ByteBloomFilter implements BloomFilter, BloomFilterWriter {
     return (int)result;
   }
 
-  /** Private constructor used by other constructors. */
-  private ByteBloomFilter(int hashType) {
+  /** Constructor used by other constructors and subclasses. */
+  protected ByteBloomFilter(int hashType) {
     this.hashType = hashType;
     this.hash = Hash.getInstance(hashType);
   }
@@ -508,7 +508,7 @@ public class ByteBloomFilter implements BloomFilter, BloomFilterWriter {
       int newMaxKeys = this.maxKeys;
 
       // while exponentially smaller & folding is lossless
-      while ( (newByteSize & 1) == 0 && newMaxKeys > (this.keyCount<<1) ) {
+      while (isFoldable(newByteSize) && newMaxKeys > (this.keyCount<<1) ) {
         pieces <<= 1;
         newByteSize >>= 1;
         newMaxKeys >>= 1;
@@ -535,6 +535,14 @@ public class ByteBloomFilter implements BloomFilter, BloomFilterWriter {
     }
   }
 
+  /**
+   * @param byteSize a size of the bit array
+   * @return whether a bit array of that size can be folded in two
+   */
+  protected boolean isFoldable(int byteSize) {
+    return (byteSize & 1) == 0;
+  }
+
 
   //---------------------------------------------------------------------------
 
@@ -62,22 +62,22 @@ public enum ChecksumType {
       final String JDKCRC = "java.util.zip.CRC32";
       LOG = LogFactory.getLog(ChecksumType.class);
 
-      // check if hadoop library is available
+      // The JDK's CRC32 is available on all JVMs. Since Java 8 the JIT
+      // compiles it to carry-less multiplications, several times faster than
+      // the table driven hadoop one over checksum chunks.
       try {
-        ctor = ChecksumFactory.newConstructor(PURECRC32);
-        LOG.info("Checksum using " + PURECRC32);
+        ctor = ChecksumFactory.newConstructor(JDKCRC);
+        LOG.info("Checksum using " + JDKCRC);
       } catch (Exception e) {
-        LOG.trace(PURECRC32 + " not available.");
+        LOG.trace(JDKCRC + " not available.");
       }
       try {
-        // The default checksum class name is java.util.zip.CRC32. 
-        // This is available on all JVMs.
         if (ctor == null) {
-          ctor = ChecksumFactory.newConstructor(JDKCRC);
-          LOG.info("Checksum can use " + JDKCRC);
+          ctor = ChecksumFactory.newConstructor(PURECRC32);
+          LOG.info("Checksum can use " + PURECRC32);
         }
       } catch (Exception e) {
-        LOG.trace(JDKCRC + " not available.");
+        LOG.trace(PURECRC32 + " not available.");
       }
     }
 
@@ -104,11 +104,22 @@ public enum ChecksumType {
 
     @Override
     public void initialize() {
+      final String JDKCRC32C = "java.util.zip.CRC32C";
       final String PURECRC32C = "org.apache.hadoop.util.PureJavaCrc32C";
       LOG = LogFactory.getLog(ChecksumType.class);
+      // Java 9 and later have a CRC32C the JIT compiles to the CPU's CRC32C
+      // instructions, much faster than a table driven implementation.
       try {
-        ctor = ChecksumFactory.newConstructor(PURECRC32C);
-        LOG.info("Checksum can use " + PURECRC32C);
+        ctor = ChecksumFactory.newConstructor(JDKCRC32C);
+        LOG.info("Checksum using " + JDKCRC32C);
+      } catch (Exception e) {
+        LOG.trace(JDKCRC32C + " not available.");
+      }
+      try {
+        if (ctor == null) {
+          ctor = ChecksumFactory.newConstructor(PURECRC32C);
+          LOG.info("Checksum can use " + PURECRC32C);
+        }
       } catch (Exception e) {
         LOG.trace(PURECRC32C + " not available.");
       }
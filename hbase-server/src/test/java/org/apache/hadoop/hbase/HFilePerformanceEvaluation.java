@@ -31,14 +31,17 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
 import org.apache.hadoop.hbase.io.hfile.CacheConfig;
 import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.io.hfile.HFileDataBlockEncoderImpl;
 import org.apache.hadoop.hbase.io.hfile.HFileScanner;
 import org.apache.hadoop.hbase.util.Bytes;
 
 /**
  * <p>
- * This class runs performance benchmarks for {@link HFile}.
+ * This class runs performance benchmarks for {@link HFile}. The file is
+ * written with the data block encoding given as argument, NONE by default.
  * </p>
  */
 public class HFilePerformanceEvaluation {
@@ -46,6 +49,8 @@ public class HFilePerformanceEvaluation {
   private static final int ROW_LENGTH = 10;
   private static final int ROW_COUNT = 1000000;
   private static final int RFILE_BLOCKSIZE = 8 * 1024;
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
 
   static final Log LOG =
     LogFactory.getLog(HFilePerformanceEvaluation.class.getName());
@@ -60,7 +65,22 @@ public class HFilePerformanceEvaluation {
     return w;
   }
 
-  private void runBenchmarks() throws Exception {
+  /**
+   * @return the KeyValue of the given row, with the given value
+   */
+  static KeyValue createKeyValue(final int i, final byte[] value) {
+    return new KeyValue(format(i), FAMILY, QUALIFIER, value);
+  }
+
+  /**
+   * @return the key of the KeyValue of the given row
+   */
+  static byte[] formatKey(final int i) {
+    return createKeyValue(i, HConstants.EMPTY_BYTE_ARRAY).getKey();
+  }
+
+  private void runBenchmarks(final DataBlockEncoding encoding)
+      throws Exception {
     final Configuration conf = new Configuration();
     final FileSystem fs = FileSystem.get(conf);
     final Path mf = fs.makeQualified(new Path("performanceevaluation.mapfile"));
@@ -68,8 +88,8 @@ public class HFilePerformanceEvaluation {
       fs.delete(mf, true);
     }
 
-    runBenchmark(new SequentialWriteBenchmark(conf, fs, mf, ROW_COUNT),
-        ROW_COUNT);
+    runBenchmark(new SequentialWriteBenchmark(conf, fs, mf, ROW_COUNT,
+        encoding), ROW_COUNT);
     PerformanceEvaluationCommons.concurrentReads(new Runnable() {
       public void run() {
         try {
@@ -178,12 +198,14 @@ public class HFilePerformanceEvaluation {
 
   static class SequentialWriteBenchmark extends RowOrientedBenchmark {
     protected HFile.Writer writer;
+    private final DataBlockEncoding encoding;
     private Random random = new Random();
     private byte[] bytes = new byte[ROW_LENGTH];
 
     public SequentialWriteBenchmark(Configuration conf, FileSystem fs, Path mf,
-        int totalRows) {
+        int totalRows, DataBlockEncoding encoding) {
       super(conf, fs, mf, totalRows);
+      this.encoding = encoding;
     }
 
     @Override
@@ -192,12 +214,13 @@ public class HFilePerformanceEvaluation {
         HFile.getWriterFactoryNoCache(conf)
             .withPath(fs, mf)
             .withBlockSize(RFILE_BLOCKSIZE)
+            .withDataBlockEncoder(new HFileDataBlockEncoderImpl(encoding))
             .create();
     }
 
     @Override
     void doRow(int i) throws Exception {
-      writer.append(format(i), generateValue());
+      writer.append(createKeyValue(i, generateValue()));
     }
 
     private byte[] generateValue() {
@@ -258,9 +281,9 @@ public class HFilePerformanceEvaluation {
     void doRow(int i) throws Exception {
       if (this.scanner.next()) {
         ByteBuffer k = this.scanner.getKey();
-        PerformanceEvaluationCommons.assertKey(format(i + 1), k);
+        PerformanceEvaluationCommons.assertKey(formatKey(i + 1), k);
         ByteBuffer v = scanner.getValue();
-        PerformanceEvaluationCommons.assertValueSize(v.limit(), ROW_LENGTH);
+        PerformanceEvaluationCommons.assertValueSize(v.remaining(), ROW_LENGTH);
       }
     }
 
@@ -285,17 +308,17 @@ public class HFilePerformanceEvaluation {
       HFileScanner scanner = this.reader.getScanner(false, true);
       byte [] b = getRandomRow();
       if (scanner.seekTo(b) < 0) {
-        LOG.info("Not able to seekTo " + new String(b));
+        LOG.info("Not able to seekTo " + Bytes.toStringBinary(b));
         return;
       }
       ByteBuffer k = scanner.getKey();
       PerformanceEvaluationCommons.assertKey(b, k);
       ByteBuffer v = scanner.getValue();
-      PerformanceEvaluationCommons.assertValueSize(v.limit(), ROW_LENGTH);
+      PerformanceEvaluationCommons.assertValueSize(v.remaining(), ROW_LENGTH);
     }
 
     private byte [] getRandomRow() {
-      return format(random.nextInt(totalRows));
+      return formatKey(random.nextInt(totalRows));
     }
   }
 
@@ -312,7 +335,7 @@ public class HFilePerformanceEvaluation {
       HFileScanner scanner = this.reader.getScanner(false, false);
       byte [] b = getRandomRow();
       if (scanner.seekTo(b) != 0) {
-        LOG.info("Nonexistent row: " + new String(b));
+        LOG.info("Nonexistent row: " + Bytes.toStringBinary(b));
         return;
       }
       ByteBuffer k = scanner.getKey();
@@ -324,12 +347,12 @@ public class HFilePerformanceEvaluation {
           return;
         }
         ByteBuffer v = scanner.getValue();
-        PerformanceEvaluationCommons.assertValueSize(v.limit(), ROW_LENGTH);
+        PerformanceEvaluationCommons.assertValueSize(v.remaining(), ROW_LENGTH);
       }
     }
 
     private byte [] getRandomRow() {
-      return format(random.nextInt(totalRows));
+      return formatKey(random.nextInt(totalRows));
     }
   }
 
@@ -347,7 +370,8 @@ public class HFilePerformanceEvaluation {
       HFileScanner scanner = this.reader.getScanner(false, true);
       byte[] gaussianRandomRowBytes = getGaussianRandomRowBytes();
       if (scanner.seekTo(gaussianRandomRowBytes) < 0) {
-        LOG.info("Not able to seekTo " + new String(gaussianRandomRowBytes));
+        LOG.info("Not able to seekTo " +
+            Bytes.toStringBinary(gaussianRandomRowBytes));
         return;
       }
       for (int ii = 0; ii < 30; ii++) {
@@ -363,16 +387,20 @@ public class HFilePerformanceEvaluation {
     private byte [] getGaussianRandomRowBytes() {
       int r = (int) randomData.nextGaussian((double)totalRows / 2.0,
           (double)totalRows / 10.0);
-      return format(r);
+      return formatKey(r);
     }
   }
 
   /**
-   * @param args
+   * @param args optionally, the data block encoding of the file
    * @throws Exception
    * @throws IOException
    */
   public static void main(String[] args) throws Exception {
-    new HFilePerformanceEvaluation().runBenchmarks();
+    DataBlockEncoding encoding = DataBlockEncoding.NONE;
+    if (args.length > 0) {
+      encoding = DataBlockEncoding.valueOf(args[0]);
+    }
+    new HFilePerformanceEvaluation().runBenchmarks(encoding);
   }
 }
@@ -38,6 +38,7 @@ import org.apache.hadoop.hbase.regionserver.HRegion;
 import org.apache.hadoop.hbase.regionserver.Leases;
 import org.apache.hadoop.hbase.regionserver.RegionServerAccounting;
 import org.apache.hadoop.hbase.regionserver.RegionServerServices;
+import org.apache.hadoop.hbase.regionserver.StoreFlushExecutor;
 import org.apache.hadoop.hbase.regionserver.wal.HLog;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
@@ -118,6 +119,11 @@ class MockRegionServerServices implements RegionServerServices {
     return null;
   }
 
+  @Override
+  public StoreFlushExecutor getStoreFlushExecutor() {
+    return null;
+  }
+
   @Override
   public CompactionRequestor getCompactionRequester() {
     return null;
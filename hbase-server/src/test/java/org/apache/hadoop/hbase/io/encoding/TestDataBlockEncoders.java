@@ -217,6 +217,63 @@ public class TestDataBlockEncoders {
     }
   }
 
+  /**
+   * Test that seeks land on the right key, in heap and direct buffers.
+   */
+  @Test
+  public void testSeekingToSampleKeys() throws IOException {
+    List<KeyValue> sampleKv = generator.generateTestKeyValues(NUMBER_OF_KV);
+    ByteBuffer originalBuffer =
+        RedundantKVGenerator.convertKvToByteBuffer(sampleKv,
+            includesMemstoreTS);
+
+    for (DataBlockEncoding encoding : DataBlockEncoding.values()) {
+      if (encoding.getEncoder() == null) {
+        continue;
+      }
+      byte[] encodedBytes = encodeBytes(encoding, originalBuffer);
+      ByteBuffer directBuffer = ByteBuffer.allocateDirect(encodedBytes.length);
+      directBuffer.put(encodedBytes);
+      directBuffer.flip();
+      for (ByteBuffer encodedBuffer :
+          new ByteBuffer[] { ByteBuffer.wrap(encodedBytes), directBuffer }) {
+        DataBlockEncoder.EncodedSeeker seeker = encoding.getEncoder()
+            .createSeeker(KeyValue.COMPARATOR, includesMemstoreTS);
+        seeker.setCurrentBuffer(encodedBuffer);
+        for (int i = 0; i < NUM_RANDOM_SEEKS / 10; ++i) {
+          boolean seekBefore = randomizer.nextBoolean();
+          KeyValue keyValue = sampleKv.get(randomizer.nextInt(sampleKv.size()));
+          // The last key at or before the sought one, strictly before if
+          // seeking before it
+          KeyValue expected = null;
+          for (KeyValue kv : sampleKv) {
+            int comp = KeyValue.COMPARATOR.compareFlatKey(
+                kv.getBuffer(), kv.getKeyOffset(), kv.getKeyLength(),
+                keyValue.getBuffer(), keyValue.getKeyOffset(),
+                keyValue.getKeyLength());
+            if (comp > 0 || (comp == 0 && seekBefore)) {
+              break;
+            }
+            expected = kv;
+          }
+          if (expected == null) {
+            // Seeking before the first key is up to the caller
+            continue;
+          }
+          // Seeks go forward from the current position
+          seeker.rewind();
+          seeker.seekToKeyInBlock(keyValue.getBuffer(),
+              keyValue.getKeyOffset(), keyValue.getKeyLength(), seekBefore);
+          assertEquals("Seek " + (seekBefore ? "before " : "to ") + keyValue
+              + " with " + encoding,
+              Bytes.toStringBinary(expected.getBuffer(),
+                  expected.getKeyOffset(), expected.getKeyLength()),
+              Bytes.toStringBinary(seeker.getKeyDeepCopy()));
+        }
+      }
+    }
+  }
+
   /**
    * Test iterating on encoded buffers.
    */
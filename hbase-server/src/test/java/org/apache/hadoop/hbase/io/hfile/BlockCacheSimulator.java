@@ -0,0 +1,253 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.util.ClassSize;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Replays a trace of block accesses against an {@link LruBlockCache} and a
+ * {@link TinyLfuBlockCache} of the same size and reports their {@link CacheStats} hit ratios.
+ * Each access is a getBlock that caches the block on a miss, as HFile readers do.<p>
+ *
+ * A trace file has one access a line: the hfile name, the block offset and optionally the block
+ * size, separated by white space; empty lines and lines starting with # are skipped. Without a
+ * trace, a synthetic one is used: blocks picked from a working set with a Zipf distribution, and
+ * every so often a scan that reads a run of blocks once. See usage for this tool by running:
+ * <code>$ hbase org.apache.hadoop.hbase.io.hfile.BlockCacheSimulator -h</code>
+ */
+@InterfaceAudience.Private
+public final class BlockCacheSimulator extends Configured implements Tool {
+  static final Log LOG = LogFactory.getLog(BlockCacheSimulator.class.getName());
+
+  private String traceFile = null;
+  private int cacheBlocks = 2000;
+  private int blockSize = 64 * 1024;
+  private int workingSetBlocks = 20000;
+  private int accesses = 1000000;
+  private double skew = 1.1;
+  private int scanInterval = 200000;
+  private int scanBlocks = 20000;
+
+  /** One block access of a trace */
+  static class Access {
+    final BlockCacheKey cacheKey;
+    final int size;
+
+    Access(String hfileName, long offset, int size) {
+      this.cacheKey = new BlockCacheKey(hfileName, offset);
+      this.size = size;
+    }
+  }
+
+  /** A block of the given size, with no content */
+  static class SimulatedBlock implements Cacheable {
+    private final int size;
+
+    SimulatedBlock(int size) {
+      this.size = size;
+    }
+
+    @Override
+    public long heapSize() {
+      return ClassSize.align(size);
+    }
+
+    @Override
+    public int getSerializedLength() {
+      return 0;
+    }
+
+    @Override
+    public void serialize(ByteBuffer destination) {
+    }
+
+    @Override
+    public CacheableDeserializer<Cacheable> getDeserializer() {
+      return null;
+    }
+
+    @Override
+    public BlockType getBlockType() {
+      return BlockType.DATA;
+    }
+
+    @Override
+    public MemoryType getMemoryType() {
+      return MemoryType.EXCLUSIVE;
+    }
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    // Process command line args
+    for (int i = 0; i < args.length; i++) {
+      String cmd = args[i];
+      try {
+        if (cmd.equals("-trace")) {
+          traceFile = args[++i];
+        } else if (cmd.equals("-cacheBlocks")) {
+          cacheBlocks = Integer.parseInt(args[++i]);
+        } else if (cmd.equals("-blockSize")) {
+          blockSize = Integer.parseInt(args[++i]);
+        } else if (cmd.equals("-workingSet")) {
+          workingSetBlocks = Integer.parseInt(args[++i]);
+        } else if (cmd.equals("-accesses")) {
+          accesses = Integer.parseInt(args[++i]);
+        } else if (cmd.equals("-skew")) {
+          skew = Double.parseDouble(args[++i]);
+        } else if (cmd.equals("-scanInterval")) {
+          scanInterval = Integer.parseInt(args[++i]);
+        } else if (cmd.equals("-scanBlocks")) {
+          scanBlocks = Integer.parseInt(args[++i]);
+        } else if (cmd.equals("-h") || cmd.equals("-help") || cmd.equals("--help")) {
+          printUsageAndExit();
+        } else {
+          System.err.println("UNEXPECTED: " + cmd);
+          printUsageAndExit();
+        }
+      } catch (Exception e) {
+        printUsageAndExit();
+      }
+    }
+
+    List<Access> trace = traceFile != null ? readTrace(traceFile) : createTrace();
+    long maxSize = (long)cacheBlocks * blockSize;
+    List<String> results = new ArrayList<String>();
+    // No eviction thread, so evictions happen as blocks are cached and the run is repeatable
+    results.add(replay("lru", new LruBlockCache(maxSize, blockSize, false), trace));
+    results.add(replay("tinylfu", new TinyLfuBlockCache(maxSize, blockSize, getConf()), trace));
+    System.out.println("Summary: " + trace.size() + " accesses" +
+      (traceFile != null ? " from " + traceFile : " to a working set of " + workingSetBlocks +
+        " blocks with skew " + skew + (scanInterval > 0 ? ", a scan of " + scanBlocks +
+          " blocks every " + scanInterval + " accesses" : "")) + ", cache of " + cacheBlocks +
+      " blocks of " + blockSize + " bytes");
+    for (String r : results) {
+      System.out.println(r);
+    }
+    return 0;
+  }
+
+  private List<Access> readTrace(String file) throws IOException {
+    List<Access> trace = new ArrayList<Access>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+      "UTF-8"));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) continue;
+        String[] fields = line.split("\\s+");
+        if (fields.length < 2) {
+          throw new IOException("Expected hfile name and offset: " + line);
+        }
+        int size = fields.length > 2 ? Integer.parseInt(fields[2]) : blockSize;
+        trace.add(new Access(fields[0], Long.parseLong(fields[1]), size));
+      }
+    } finally {
+      reader.close();
+    }
+    return trace;
+  }
+
+  private List<Access> createTrace() {
+    Random rand = new Random(accesses);
+    RandomDistribution.Zipf zipf =
+      new RandomDistribution.Zipf(rand, 0, workingSetBlocks, skew);
+    List<Access> trace = new ArrayList<Access>(accesses);
+    int scans = 0;
+    for (int i = 0; i < accesses; i++) {
+      if (scanInterval > 0 && i > 0 && i % scanInterval == 0) {
+        for (int j = 0; j < scanBlocks; j++) {
+          trace.add(new Access("scan" + scans, (long)j * blockSize, blockSize));
+        }
+        scans++;
+      }
+      // Spread the popular blocks over files rather than have them all in the first one
+      int block = zipf.nextInt();
+      trace.add(new Access("file" + (block % 10), (long)block * blockSize, blockSize));
+    }
+    return trace;
+  }
+
+  private String replay(String name, BlockCache cache, List<Access> trace) {
+    try {
+      long start = System.currentTimeMillis();
+      for (Access access : trace) {
+        if (cache.getBlock(access.cacheKey, true, false) == null) {
+          cache.cacheBlock(access.cacheKey, new SimulatedBlock(access.size));
+        }
+      }
+      long elapsed = System.currentTimeMillis() - start;
+      CacheStats stats = cache.getStats();
+      String result = String.format("%-8s hitRatio=%.2f%% hits=%d misses=%d evicted=%d in %dms",
+        name, stats.getHitRatio() * 100, stats.getHitCount(), stats.getMissCount(),
+        stats.getEvictedCount(), elapsed);
+      LOG.info(result);
+      return result;
+    } finally {
+      cache.shutdown();
+    }
+  }
+
+  private void printUsageAndExit() {
+    System.err.printf("Usage: bin/hbase %s [options]\n", getClass().getName());
+    System.err.println(" where [options] are:");
+    System.err.println("  -h|-help            Show this help and exit.");
+    System.err.println("  -trace <file>       Trace to replay. Default is a synthetic trace.");
+    System.err.println("  -cacheBlocks <N>    Cache size, in blocks. Default 2000.");
+    System.err.println("  -blockSize <N>      Block size in bytes. Default 65536.");
+    System.err.println(" synthetic trace options:");
+    System.err.println("  -workingSet <N>     Number of blocks read at random. Default 20000.");
+    System.err.println("  -accesses <N>       Number of random reads. Default 1000000.");
+    System.err.println("  -skew <N>           Zipf exponent of the reads, > 1. Default 1.1.");
+    System.err.println("  -scanInterval <N>   Random reads between scans, 0 for none. " +
+      "Default 200000.");
+    System.err.println("  -scanBlocks <N>     Number of blocks each scan reads. Default 20000.");
+    System.err.println("");
+    System.err.println("Examples:");
+    System.err.println("");
+    System.err.println(" To replay a trace against caches of 10000 blocks:");
+    System.err.println(" $ ./bin/hbase " + getClass().getName() +
+      " -trace blocks.trace -cacheBlocks 10000");
+    System.exit(1);
+  }
+
+  static int innerMain(final String [] args) throws Exception {
+    return ToolRunner.run(HBaseConfiguration.create(), new BlockCacheSimulator(), args);
+  }
+
+  public static void main(String[] args) throws Exception {
+     System.exit(innerMain(args));
+  }
+}
@@ -0,0 +1,169 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Checksum;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ChecksumFactory;
+import org.apache.hadoop.hbase.util.ChecksumType;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Compares the checksum implementations HFile blocks can be verified with:
+ * verifies the chunked checksums of blocks the way HFile block reads do, with
+ * each implementation found on the class path, and reports the throughput.
+ * The implementation {@link ChecksumType} picks for each type is marked.
+ * See usage for this tool by running:
+ * <code>$ hbase org.apache.hadoop.hbase.io.hfile.ChecksumBenchmark -h</code>
+ */
+@InterfaceAudience.Private
+public final class ChecksumBenchmark extends Configured implements Tool {
+  static final Log LOG = LogFactory.getLog(ChecksumBenchmark.class.getName());
+
+  private static final String[][] IMPLEMENTATIONS = {
+    { "CRC32", "org.apache.hadoop.util.PureJavaCrc32" },
+    { "CRC32", "java.util.zip.CRC32" },
+    { "CRC32C", "org.apache.hadoop.util.PureJavaCrc32C" },
+    { "CRC32C", "java.util.zip.CRC32C" }
+  };
+
+  private int blockSize = 64 * 1024;
+  private int bytesPerChecksum = HFile.DEFAULT_BYTES_PER_CHECKSUM;
+  private int blocks = 1024;
+  private int rounds = 20;
+
+  @Override
+  public int run(String[] args) throws Exception {
+    // Process command line args
+    for (int i = 0; i < args.length; i++) {
+      String cmd = args[i];
+      try {
+        if (cmd.equals("-blockSize")) {
+          blockSize = Integer.parseInt(args[++i]);
+        } else if (cmd.equals("-bytesPerChecksum")) {
+          bytesPerChecksum = Integer.parseInt(args[++i]);
+        } else if (cmd.equals("-blocks")) {
+          blocks = Integer.parseInt(args[++i]);
+        } else if (cmd.equals("-rounds")) {
+          rounds = Integer.parseInt(args[++i]);
+        } else if (cmd.equals("-h") || cmd.equals("-help") || cmd.equals("--help")) {
+          printUsageAndExit();
+        } else {
+          System.err.println("UNEXPECTED: " + cmd);
+          printUsageAndExit();
+        }
+      } catch (Exception e) {
+        printUsageAndExit();
+      }
+    }
+
+    byte[][] data = new byte[blocks][blockSize];
+    Random rand = new Random(blocks);
+    for (byte[] block : data) {
+      rand.nextBytes(block);
+    }
+    List<String> results = new ArrayList<String>();
+    for (String[] impl : IMPLEMENTATIONS) {
+      Checksum checksum;
+      try {
+        checksum = ChecksumFactory.newInstance(impl[1]);
+      } catch (Exception e) {
+        results.add(String.format("%-6s %-38s not available", impl[0], impl[1]));
+        continue;
+      }
+      results.add(benchmark(impl[0], checksum, data));
+    }
+    System.out.println("Summary: verifying " + blocks + " blocks of " + blockSize +
+      " bytes " + rounds + " times, " + bytesPerChecksum + " bytes per checksum");
+    for (String r : results) {
+      System.out.println(r);
+    }
+    return 0;
+  }
+
+  private String benchmark(String type, Checksum checksum, byte[][] data) throws Exception {
+    int numChunks = (int) ChecksumUtil.numChunks(blockSize, bytesPerChecksum);
+    ByteBuffer[] checksums = new ByteBuffer[data.length];
+    for (int i = 0; i < data.length; i++) {
+      byte[] sums = new byte[numChunks * HFileBlock.CHECKSUM_SIZE];
+      int off = 0;
+      for (int chunk = 0; chunk < numChunks; chunk++) {
+        int start = chunk * bytesPerChecksum;
+        checksum.reset();
+        checksum.update(data[i], start, Math.min(bytesPerChecksum, blockSize - start));
+        off = Bytes.putInt(sums, off, (int) checksum.getValue());
+      }
+      checksums[i] = ByteBuffer.wrap(sums);
+    }
+
+    // The first round warms up the JIT
+    long nanos = 0;
+    for (int round = 0; round <= rounds; round++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < data.length; i++) {
+        if (ChecksumUtil.verifyChunkedChecksums(checksum, ByteBuffer.wrap(data[i]),
+            checksums[i], bytesPerChecksum) >= 0) {
+          throw new IllegalStateException("Checksum mismatch in block " + i);
+        }
+      }
+      if (round > 0) {
+        nanos += System.nanoTime() - start;
+      }
+    }
+    String implName = checksum.getClass().getName();
+    boolean chosen = ChecksumType.nameToType(type).getChecksumObject().getClass()
+        .getName().equals(implName);
+    long bytes = (long) blockSize * data.length * rounds;
+    String result = String.format("%-6s %-38s %8.1f MB/s %6.1f us/block%s", type, implName,
+      bytes * 1e9 / nanos / 1024 / 1024, nanos / 1000.0 / data.length / rounds,
+      chosen ? " (used)" : "");
+    LOG.info(result);
+    return result;
+  }
+
+  private void printUsageAndExit() {
+    System.err.printf("Usage: bin/hbase %s [options]\n", getClass().getName());
+    System.err.println(" where [options] are:");
+    System.err.println("  -h|-help                Show this help and exit.");
+    System.err.println("  -blockSize <N>          Block size in bytes. Default 65536.");
+    System.err.println("  -bytesPerChecksum <N>   Bytes per checksum chunk. Default " +
+      HFile.DEFAULT_BYTES_PER_CHECKSUM + ".");
+    System.err.println("  -blocks <N>             Number of distinct blocks. Default 1024.");
+    System.err.println("  -rounds <N>             Times each block is verified. Default 20.");
+    System.exit(1);
+  }
+
+  static int innerMain(final String [] args) throws Exception {
+    return ToolRunner.run(HBaseConfiguration.create(), new ChecksumBenchmark(), args);
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.exit(innerMain(args));
+  }
+}
@@ -26,6 +26,8 @@ import java.io.DataOutputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.Checksum;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -40,6 +42,7 @@ import org.apache.hadoop.hbase.fs.HFileSystem;
 import org.apache.hadoop.hbase.io.compress.Compression;
 import org.apache.hadoop.hbase.io.compress.Compression.Algorithm;
 import org.apache.hadoop.hbase.io.FSDataInputStreamWrapper;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.ChecksumType;
 
 import static org.apache.hadoop.hbase.io.compress.Compression.Algorithm.*;
@@ -228,6 +231,66 @@ public class TestChecksum {
     }
   }
 
+  /**
+   * Test verifying the checksums of all the chunks of a block in one pass
+   */
+  @Test
+  public void testVerifyChunkedChecksums() throws IOException {
+    int bytesPerChecksum = 16 * 1024;
+    byte[] data = new byte[64 * 1024 + 1234];
+    new Random(1234).nextBytes(data);
+    int numChunks = (int) ChecksumUtil.numChunks(data.length, bytesPerChecksum);
+    for (ChecksumType type : ChecksumType.values()) {
+      if (type == ChecksumType.NULL) {
+        continue;
+      }
+      Checksum checksum;
+      try {
+        checksum = type.getChecksumObject();
+      } catch (IOException e) {
+        LOG.info("Skipping " + type + ", not available");
+        continue;
+      }
+      byte[] checksums = new byte[numChunks * HFileBlock.CHECKSUM_SIZE];
+      ChecksumUtil.generateChecksums(data, 0, data.length, checksums, 0, type,
+          bytesPerChecksum);
+      ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+      direct.put(data);
+      direct.flip();
+      assertEquals(-1, ChecksumUtil.verifyChunkedChecksums(checksum,
+          ByteBuffer.wrap(data), ByteBuffer.wrap(checksums), bytesPerChecksum));
+      assertEquals(-1, ChecksumUtil.verifyChunkedChecksums(checksum, direct,
+          ByteBuffer.wrap(checksums), bytesPerChecksum));
+
+      // Corrupt the third chunk
+      int corrupt = 2 * bytesPerChecksum + 100;
+      data[corrupt]++;
+      direct.put(corrupt, data[corrupt]);
+      assertEquals(2, ChecksumUtil.verifyChunkedChecksums(checksum,
+          ByteBuffer.wrap(data), ByteBuffer.wrap(checksums), bytesPerChecksum));
+      assertEquals(2, ChecksumUtil.verifyChunkedChecksums(checksum, direct,
+          ByteBuffer.wrap(checksums), bytesPerChecksum));
+      data[corrupt]--;
+    }
+  }
+
+  /**
+   * Test the CRC32C implementation against a known value, when there is one
+   */
+  @Test
+  public void testCrc32C() throws IOException {
+    Checksum checksum;
+    try {
+      checksum = ChecksumType.CRC32C.getChecksumObject();
+    } catch (IOException e) {
+      LOG.info("No CRC32C implementation available");
+      return;
+    }
+    byte[] data = Bytes.toBytes("123456789");
+    checksum.update(data, 0, data.length);
+    assertEquals(0xE3069283L, checksum.getValue());
+  }
+
   /** 
    * Test to ensure that these is at least one valid checksum implementation
    */
@@ -142,6 +142,10 @@ public class TestHFileBlockIndex {
       this.realReader = realReader;
     }
 
+    @Override
+    public void returnBlock(HFileBlock block, boolean isCompaction) {
+    }
+
     @Override
     public HFileBlock readBlock(long offset, long onDiskSize,
         boolean cacheBlock, boolean pread, boolean isCompaction,
@@ -435,6 +439,52 @@ public class TestHFileBlockIndex {
     }
   }
 
+  @Test
+  public void testPrefixCompressedKeys() {
+    final int numRows = 100;
+    final int colsPerRow = 7;
+    byte[] family = Bytes.toBytes("f");
+    List<byte[]> rows = new ArrayList<byte[]>();
+    List<byte[]> rootKeys = new ArrayList<byte[]>();
+    HFileBlockIndex.PrefixCompressedKeys.Builder builder =
+        new HFileBlockIndex.PrefixCompressedKeys.Builder();
+    for (int i = 0; i < numRows; ++i) {
+      byte[] row = Bytes.toBytes(String.format("row-%05d", i * 2));
+      rows.add(row);
+      for (int j = 0; j < colsPerRow; ++j) {
+        byte[] k = new KeyValue(row, family, Bytes.toBytes("q" + j),
+            1L, KeyValue.Type.Put).getKey();
+        rootKeys.add(k);
+        builder.add(k);
+      }
+    }
+    HFileBlockIndex.PrefixCompressedKeys compressed = builder.build();
+    assertEquals(rootKeys.size(), compressed.size());
+
+    long uncompressedHeapSize = 0;
+    for (int i = 0; i < rootKeys.size(); ++i) {
+      byte[] k = rootKeys.get(i);
+      assertTrue(Bytes.equals(k, compressed.get(i)));
+      assertEquals(i, compressed.search(k, 0, k.length, KeyValue.COMPARATOR));
+      uncompressedHeapSize += ClassSize.align(ClassSize.ARRAY + k.length);
+    }
+    assertTrue("Prefix compression saves no heap: " + compressed.heapSize(),
+        compressed.heapSize() < uncompressedHeapSize);
+
+    for (int i = 0; i < numRows; ++i) {
+      // Sorts before every column of the row.
+      byte[] first = KeyValue.createFirstOnRow(rows.get(i)).getKey();
+      assertEquals(i * colsPerRow - 1,
+          compressed.search(first, 0, first.length, KeyValue.COMPARATOR));
+
+      // Sorts after every column of the row, before the next row.
+      byte[] between = KeyValue.createFirstOnRow(
+          Bytes.toBytes(String.format("row-%05d", i * 2 + 1))).getKey();
+      assertEquals((i + 1) * colsPerRow - 1,
+          compressed.search(between, 0, between.length, KeyValue.COMPARATOR));
+    }
+  }
+
   /** Checks if the HeapSize calculator is within reason */
   @Test
   public void testHeapSizeForBlockIndex() throws IOException {
@@ -446,10 +496,10 @@ public class TestHFileBlockIndex {
         new HFileBlockIndex.BlockIndexReader(KeyValue.RAW_COMPARATOR, 1);
     long actual = bi.heapSize();
 
-    // Since the arrays in BlockIndex(byte [][] blockKeys, long [] blockOffsets,
-    // int [] blockDataSizes) are all null they are not going to show up in the
+    // Since the arrays in BlockIndex(long [] blockOffsets,
+    // int [] blockDataSizes) are both null they are not going to show up in the
     // HeapSize calculation, so need to remove those array costs from expected.
-    expected -= ClassSize.align(3 * ClassSize.ARRAY);
+    expected -= ClassSize.align(2 * ClassSize.ARRAY);
 
     if (expected != actual) {
       ClassSize.estimateBase(cl, true);
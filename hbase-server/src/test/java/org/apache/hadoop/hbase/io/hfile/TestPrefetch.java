@@ -0,0 +1,174 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hbase.fs.HFileSystem;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests that the blocks of a file are prefetched into the block cache when the file is opened,
+ * and that closing the file cancels its prefetch unless another reader of the file is open.
+ */
+@Category(MediumTests.class)
+public class TestPrefetch {
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+
+  private static final int NUM_KV = 1000;
+  private static final int DATA_BLOCK_SIZE = 2048;
+  private static final long PREFETCH_TIMEOUT = 30000;
+
+  private Configuration conf;
+  private CacheConfig cacheConf;
+  private FileSystem fs;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = TEST_UTIL.getConfiguration();
+    conf.setInt(HFile.FORMAT_VERSION_KEY, 2);
+    conf.setBoolean(CacheConfig.PREFETCH_BLOCKS_ON_OPEN_KEY, true);
+    fs = HFileSystem.get(conf);
+    cacheConf = new CacheConfig(conf);
+  }
+
+  @Test
+  public void testPrefetchSetInFamily() {
+    Configuration c = new Configuration(conf);
+    c.setBoolean(CacheConfig.PREFETCH_BLOCKS_ON_OPEN_KEY, false);
+    HColumnDescriptor family = new HColumnDescriptor("f");
+    assertFalse(family.shouldPrefetchBlocksOnOpen());
+    assertFalse(new CacheConfig(c, family).shouldPrefetchOnOpen());
+    family.setPrefetchBlocksOnOpen(true);
+    assertTrue(new CacheConfig(c, family).shouldPrefetchOnOpen());
+  }
+
+  @Test
+  public void testPrefetch() throws Exception {
+    Path storeFile = writeStoreFile("testPrefetch");
+    long bytesRead = PrefetchExecutor.getBytesRead();
+    HFileReaderV2 reader = (HFileReaderV2) HFile.createReader(fs, storeFile, cacheConf);
+    try {
+      long deadline = System.currentTimeMillis() + PREFETCH_TIMEOUT;
+      while (!PrefetchExecutor.isCompleted(storeFile)) {
+        assertTrue("Prefetch timed out", System.currentTimeMillis() < deadline);
+        Thread.sleep(100);
+      }
+      assertTrue(PrefetchExecutor.getBytesRead() > bytesRead);
+
+      // Every data block is now in the cache
+      BlockCache blockCache = cacheConf.getBlockCache();
+      long offset = 0;
+      long onDiskSize = -1;
+      int dataBlocks = 0;
+      while (offset < reader.getTrailer().getLoadOnOpenDataOffset()) {
+        HFileBlock block = reader.getUncachedBlockReader().readBlockData(offset, onDiskSize, -1,
+          false);
+        if (block.getBlockType() == BlockType.DATA) {
+          BlockCacheKey cacheKey = new BlockCacheKey(reader.getName(), offset,
+            DataBlockEncoding.NONE, block.getBlockType());
+          assertTrue("Block at " + offset + " not cached",
+            blockCache.getBlock(cacheKey, true, false) != null);
+          dataBlocks++;
+        }
+        onDiskSize = block.getNextBlockOnDiskSizeWithHeader();
+        offset += block.getOnDiskSizeWithHeader();
+      }
+      assertTrue(dataBlocks > 1);
+    } finally {
+      reader.close(true);
+    }
+  }
+
+  @Test
+  public void testCloseCancelsPrefetch() throws Exception {
+    Path storeFile = writeStoreFile("testCloseCancelsPrefetch");
+    HFile.Reader reader = HFile.createReader(fs, storeFile, cacheConf);
+    // The prefetch waits a while before it starts, so it is still pending
+    assertFalse(PrefetchExecutor.isCompleted(storeFile));
+    reader.close(true);
+    assertTrue(PrefetchExecutor.isCompleted(storeFile));
+  }
+
+  @Test
+  public void testCloseHandsPrefetchOver() throws Exception {
+    Path storeFile = writeStoreFile("testCloseHandsPrefetchOver");
+    long bytesRead = PrefetchExecutor.getBytesRead();
+    HFile.Reader first = HFile.createReader(fs, storeFile, cacheConf);
+    HFile.Reader second = HFile.createReader(fs, storeFile, cacheConf);
+    try {
+      // The prefetch was pending through the first reader; the second one takes it over
+      first.close(false);
+      assertFalse(PrefetchExecutor.isCompleted(storeFile));
+      long deadline = System.currentTimeMillis() + PREFETCH_TIMEOUT;
+      while (!PrefetchExecutor.isCompleted(storeFile)) {
+        assertTrue("Prefetch timed out", System.currentTimeMillis() < deadline);
+        Thread.sleep(100);
+      }
+      assertTrue(PrefetchExecutor.getBytesRead() > bytesRead);
+    } finally {
+      second.close(true);
+    }
+  }
+
+  @Test
+  public void testCloseOfOtherReaderKeepsPrefetch() throws Exception {
+    Path storeFile = writeStoreFile("testCloseOfOtherReaderKeepsPrefetch");
+    HFile.Reader first = HFile.createReader(fs, storeFile, cacheConf);
+    HFile.Reader second = HFile.createReader(fs, storeFile, cacheConf);
+    second.close(false);
+    assertFalse(PrefetchExecutor.isCompleted(storeFile));
+    first.close(true);
+    // No reader is left to take it over
+    assertTrue(PrefetchExecutor.isCompleted(storeFile));
+  }
+
+  private Path writeStoreFile(String name) throws IOException {
+    Path storeFileParentDir = new Path(TEST_UTIL.getDataTestDir(), name);
+    StoreFile.Writer sfw = new StoreFile.WriterBuilder(conf, cacheConf, fs, DATA_BLOCK_SIZE)
+        .withOutputDir(storeFileParentDir)
+        .withComparator(KeyValue.COMPARATOR)
+        .withMaxKeyCount(NUM_KV)
+        .build();
+    Random rand = new Random(NUM_KV);
+    for (int i = 0; i < NUM_KV; i++) {
+      byte[] row = Bytes.toBytes(String.format("row%08d", i));
+      byte[] value = new byte[64];
+      rand.nextBytes(value);
+      sfw.append(new KeyValue(row, Bytes.toBytes("f"), Bytes.toBytes("q"), value));
+    }
+    sfw.close();
+    return sfw.getPath();
+  }
+}
@@ -0,0 +1,192 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests that scanners switch from positional reads to a stream of their own
+ * once they read blocks one after the other, and back after a seek far away.
+ */
+@Category(SmallTests.class)
+public class TestScannerStreamSwitch {
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+
+  private static final int NUM_KV = 1000;
+  private static final int DATA_BLOCK_SIZE = 2048;
+  private static final int STREAM_BLOCKS = 4;
+  private static final int SEEK_DISTANCE = 4 * DATA_BLOCK_SIZE;
+
+  private Configuration conf;
+  private CacheConfig cacheConf;
+  private FileSystem fs;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setInt(HFile.FORMAT_VERSION_KEY, 2);
+    conf.setInt(HFileReaderV2.SCANNER_STREAM_BLOCKS_KEY, STREAM_BLOCKS);
+    conf.setInt(HFileReaderV2.SCANNER_STREAM_SEEK_DISTANCE_KEY, SEEK_DISTANCE);
+    // Readers take their configuration from the file system, so it must not
+    // be a cached one created with another configuration
+    conf.setBoolean("fs.file.impl.disable.cache", true);
+    fs = FileSystem.getLocal(conf);
+    cacheConf = new CacheConfig(conf);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    fs.close();
+  }
+
+  @Test
+  public void testSwitchToStreamWhenScanning() throws Exception {
+    Path storeFile = writeStoreFile("testSwitchToStreamWhenScanning");
+    HFile.Reader reader = HFile.createReader(fs, storeFile, cacheConf);
+    try {
+      HFileReaderV2.AbstractScannerV2 scanner =
+          (HFileReaderV2.AbstractScannerV2) reader.getScanner(false, true);
+      assertTrue(scanner.seekTo());
+      assertFalse(scanner.isStreaming());
+      int count = 1;
+      while (!scanner.isStreaming()) {
+        assertTrue(scanner.next());
+        count++;
+      }
+      // Not before the scanner read enough blocks, of about 20 key/values each
+      assertTrue(count > (STREAM_BLOCKS - 1) * 10);
+      assertTrue(count < NUM_KV);
+
+      // Everything is read once, in order, through the stream
+      while (scanner.next()) {
+        assertEquals(rowKey(count), Bytes.toString(scanner.getKeyValue().getRow()));
+        count++;
+      }
+      assertEquals(NUM_KV, count);
+      // The stream is closed at the end of the file
+      assertFalse(scanner.isStreaming());
+      scanner.close();
+    } finally {
+      reader.close(true);
+    }
+  }
+
+  @Test
+  public void testSwitchBackAfterSeek() throws Exception {
+    Path storeFile = writeStoreFile("testSwitchBackAfterSeek");
+    HFile.Reader reader = HFile.createReader(fs, storeFile, cacheConf);
+    try {
+      HFileReaderV2.AbstractScannerV2 scanner =
+          (HFileReaderV2.AbstractScannerV2) reader.getScanner(false, false);
+      assertTrue(scanner.seekTo());
+      int row = 0;
+      while (!scanner.isStreaming()) {
+        assertTrue(scanner.next());
+        row++;
+      }
+
+      // A seek to a close block keeps the stream
+      row += DATA_BLOCK_SIZE / 50;
+      assertEquals(0, scanner.reseekTo(key(row)));
+      assertTrue(scanner.isStreaming());
+
+      // A seek far ahead does not
+      row += 2 * SEEK_DISTANCE / 100;
+      assertEquals(0, scanner.reseekTo(key(row)));
+      assertFalse(scanner.isStreaming());
+      assertEquals(rowKey(row), Bytes.toString(scanner.getKeyValue().getRow()));
+
+      // Nor does a seek backwards, once streaming again
+      while (!scanner.isStreaming()) {
+        assertTrue(scanner.next());
+      }
+      assertEquals(0, scanner.seekTo(key(1)));
+      assertFalse(scanner.isStreaming());
+      assertEquals(rowKey(1), Bytes.toString(scanner.getKeyValue().getRow()));
+      scanner.close();
+    } finally {
+      reader.close(true);
+    }
+  }
+
+  @Test
+  public void testNoSwitchWhenDisabled() throws Exception {
+    conf.setInt(HFileReaderV2.SCANNER_STREAM_BLOCKS_KEY, 0);
+    Path storeFile = writeStoreFile("testNoSwitchWhenDisabled");
+    HFile.Reader reader = HFile.createReader(fs, storeFile, cacheConf);
+    try {
+      HFileScanner scanner = reader.getScanner(false, false);
+      assertTrue(scanner.seekTo());
+      int count = 1;
+      while (scanner.next()) {
+        assertFalse(((HFileReaderV2.AbstractScannerV2) scanner).isStreaming());
+        count++;
+      }
+      assertEquals(NUM_KV, count);
+      scanner.close();
+    } finally {
+      reader.close(true);
+    }
+  }
+
+  private static String rowKey(int i) {
+    return String.format("row%08d", i);
+  }
+
+  private static byte[] key(int i) {
+    return new KeyValue(Bytes.toBytes(rowKey(i)), Bytes.toBytes("f"), Bytes.toBytes("q"),
+        HConstants.LATEST_TIMESTAMP, KeyValue.Type.Put).getKey();
+  }
+
+  private Path writeStoreFile(String name) throws IOException {
+    Path storeFileParentDir = new Path(TEST_UTIL.getDataTestDir(), name);
+    StoreFile.Writer sfw = new StoreFile.WriterBuilder(conf, cacheConf, fs, DATA_BLOCK_SIZE)
+        .withOutputDir(storeFileParentDir)
+        .withComparator(KeyValue.COMPARATOR)
+        .withMaxKeyCount(NUM_KV)
+        .build();
+    Random rand = new Random(NUM_KV);
+    for (int i = 0; i < NUM_KV; i++) {
+      byte[] value = new byte[64];
+      rand.nextBytes(value);
+      sfw.append(new KeyValue(Bytes.toBytes(rowKey(i)), Bytes.toBytes("f"),
+          Bytes.toBytes("q"), value));
+    }
+    sfw.close();
+    return sfw.getPath();
+  }
+}
@@ -0,0 +1,222 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hbase.util.ClassSize;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the TinyLfuBlockCache: it keeps to its size, keeps blocks that are used often through
+ * a scan, and works under concurrent use.
+ */
+// Starts 100 threads, high variability of execution time => Medium
+@Category(MediumTests.class)
+public class TestTinyLfuBlockCache {
+  static final int BLOCK_SIZE = 1000;
+  static final int NUM_BLOCKS = 100;
+  static final int NUM_THREADS = 100;
+  static final int NUM_QUERIES = 10000;
+
+  private TinyLfuBlockCache cache;
+  private long maxSize;
+
+  @Before
+  public void setup() {
+    long blockHeapSize = new CachedItem("file", 0, BLOCK_SIZE).cacheBlockHeapSize();
+    maxSize = TinyLfuBlockCache.calculateOverhead(NUM_BLOCKS * blockHeapSize, BLOCK_SIZE) +
+        NUM_BLOCKS * blockHeapSize;
+    cache = new TinyLfuBlockCache(maxSize, BLOCK_SIZE);
+  }
+
+  @After
+  public void tearDown() {
+    cache.shutdown();
+  }
+
+  @Test
+  public void testCacheAndEvict() {
+    CachedItem item = new CachedItem("file", 0, BLOCK_SIZE);
+    long emptySize = cache.heapSize();
+    assertNull(cache.getBlock(item.cacheKey, true, false));
+    cache.cacheBlock(item.cacheKey, item);
+    assertSame(item, cache.getBlock(item.cacheKey, true, false));
+    assertEquals(emptySize + item.cacheBlockHeapSize(), cache.heapSize());
+    assertEquals(1, cache.getBlockCount());
+    // Caching the same block again is harmless
+    cache.cacheBlock(item.cacheKey, item);
+    assertEquals(1, cache.getBlockCount());
+    assertTrue(cache.evictBlock(item.cacheKey));
+    assertFalse(cache.evictBlock(item.cacheKey));
+    assertNull(cache.getBlock(item.cacheKey, true, false));
+    assertEquals(emptySize, cache.heapSize());
+    assertEquals(1, cache.getStats().getHitCount());
+    assertEquals(2, cache.getStats().getMissCount());
+  }
+
+  @Test
+  public void testStaysWithinMaxSize() {
+    for (int i = 0; i < 10 * NUM_BLOCKS; i++) {
+      CachedItem item = new CachedItem("file", i, BLOCK_SIZE);
+      cache.cacheBlock(item.cacheKey, item);
+      assertTrue(cache.getCurrentSize() <= maxSize);
+    }
+    assertTrue(cache.getBlockCount() <= NUM_BLOCKS);
+    assertTrue(cache.getBlockCount() >= NUM_BLOCKS - 2);
+    assertEquals(10 * NUM_BLOCKS - cache.getBlockCount(), cache.getEvictedCount());
+    assertEquals(cache.getBlockCount(), cache.evictBlocksByHfileName("file"));
+    assertEquals(0, cache.getBlockCount());
+  }
+
+  @Test
+  public void testScanResistance() {
+    // Half the cache is read over and over
+    int hotBlocks = NUM_BLOCKS / 2;
+    for (int round = 0; round < 5; round++) {
+      for (int i = 0; i < hotBlocks; i++) {
+        getOrCache(new CachedItem("hot", i, BLOCK_SIZE), false);
+      }
+    }
+    // A scan reads ten times the cache size once
+    for (int i = 0; i < 10 * NUM_BLOCKS; i++) {
+      getOrCache(new CachedItem("scan", i, BLOCK_SIZE), false);
+    }
+    int stillCached = 0;
+    for (int i = 0; i < hotBlocks; i++) {
+      if (cache.containsBlock(new BlockCacheKey("hot", i))) stillCached++;
+    }
+    assertEquals(hotBlocks, stillCached);
+  }
+
+  @Test
+  public void testInMemoryBlocksAdmitted() {
+    for (int i = 0; i < 5 * NUM_BLOCKS; i++) {
+      getOrCache(new CachedItem("scan", i, BLOCK_SIZE), false);
+    }
+    CachedItem inMemory = new CachedItem("inmemory", 0, BLOCK_SIZE);
+    cache.cacheBlock(inMemory.cacheKey, inMemory, true);
+    for (int i = 0; i < 5 * NUM_BLOCKS; i++) {
+      getOrCache(new CachedItem("scan2", i, BLOCK_SIZE), false);
+    }
+    assertTrue(cache.containsBlock(inMemory.cacheKey));
+  }
+
+  @Test
+  public void testFrequencySketch() {
+    FrequencySketch sketch = new FrequencySketch(NUM_BLOCKS);
+    int hash = new BlockCacheKey("file", 0).hashCode();
+    assertEquals(0, sketch.frequency(hash));
+    for (int i = 1; i <= 20; i++) {
+      sketch.increment(hash);
+      assertEquals(Math.min(i, FrequencySketch.MAX_FREQUENCY), sketch.frequency(hash));
+    }
+    sketch.reset();
+    assertEquals(FrequencySketch.MAX_FREQUENCY / 2, sketch.frequency(hash));
+    // Ages on its own after enough increments
+    for (int i = 0; i < sketch.getSampleSize(); i++) {
+      sketch.increment(new BlockCacheKey("other", i).hashCode());
+    }
+    assertTrue(sketch.frequency(hash) < FrequencySketch.MAX_FREQUENCY / 2);
+  }
+
+  @Test
+  public void testHeapSizeChanges() {
+    CacheTestUtils.testHeapSizeChanges(cache, BLOCK_SIZE);
+  }
+
+  @Test
+  public void testCacheMultiThreaded() throws Exception {
+    CacheTestUtils.testCacheMultiThreaded(cache, BLOCK_SIZE, NUM_THREADS, NUM_QUERIES, 0.80);
+  }
+
+  @Test
+  public void testCacheMultiThreadedSingleKey() throws Exception {
+    CacheTestUtils.hammerSingleKey(cache, BLOCK_SIZE, NUM_THREADS, NUM_QUERIES);
+  }
+
+  @Test
+  public void testCacheMultiThreadedEviction() throws Exception {
+    CacheTestUtils.hammerEviction(cache, BLOCK_SIZE, NUM_THREADS, NUM_QUERIES);
+    assertTrue(cache.getCurrentSize() <= maxSize);
+  }
+
+  /** Reads a block the way a reader does, caching it on a miss */
+  private void getOrCache(CachedItem item, boolean inMemory) {
+    if (cache.getBlock(item.cacheKey, true, false) == null) {
+      cache.cacheBlock(item.cacheKey, item, inMemory);
+    }
+  }
+
+  private static class CachedItem implements Cacheable {
+    BlockCacheKey cacheKey;
+    int size;
+
+    CachedItem(String hfileName, long offset, int size) {
+      this.cacheKey = new BlockCacheKey(hfileName, offset);
+      this.size = size;
+    }
+
+    /** The size of this item reported to the block cache layer */
+    @Override
+    public long heapSize() {
+      return ClassSize.align(size);
+    }
+
+    /** Size of the cache block holding this item. Used for verification. */
+    public long cacheBlockHeapSize() {
+      return TinyLfuBlockCache.PER_BLOCK_OVERHEAD
+          + ClassSize.align(cacheKey.heapSize())
+          + ClassSize.align(size);
+    }
+
+    @Override
+    public int getSerializedLength() {
+      return 0;
+    }
+
+    @Override
+    public CacheableDeserializer<Cacheable> getDeserializer() {
+      return null;
+    }
+
+    @Override
+    public void serialize(ByteBuffer destination) {
+    }
+
+    @Override
+    public BlockType getBlockType() {
+      return BlockType.DATA;
+    }
+
+    @Override
+    public MemoryType getMemoryType() {
+      return MemoryType.EXCLUSIVE;
+    }
+  }
+}
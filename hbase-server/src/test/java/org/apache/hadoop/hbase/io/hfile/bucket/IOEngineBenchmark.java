@@ -0,0 +1,197 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Compares the bucket cache {@link IOEngine}s: fills each with blocks, then reads blocks at random
+ * offsets from a number of threads, as BucketCache does on cache hits, and reports the read
+ * throughput. The file based engines use a file in the given directory; put it on the device the
+ * cache would be on, an SSD say. Note the file engines are read through the page cache, so with
+ * a capacity below free memory this compares the cost of reaching the page cache.
+ * See usage for this tool by running:
+ * <code>$ hbase org.apache.hadoop.hbase.io.hfile.bucket.IOEngineBenchmark -h</code>
+ */
+@InterfaceAudience.Private
+public final class IOEngineBenchmark extends Configured implements Tool {
+  static final Log LOG = LogFactory.getLog(IOEngineBenchmark.class.getName());
+
+  private String engines = "offheap,file,mmap";
+  private String dir = System.getProperty("java.io.tmpdir");
+  private long capacity = 256L * 1024 * 1024;
+  private int blockSize = 64 * 1024;
+  private int reads = 100000;
+  private int threads = 4;
+
+  @Override
+  public int run(String[] args) throws Exception {
+    // Process command line args
+    for (int i = 0; i < args.length; i++) {
+      String cmd = args[i];
+      try {
+        if (cmd.equals("-engines")) {
+          engines = args[++i];
+        } else if (cmd.equals("-dir")) {
+          dir = args[++i];
+        } else if (cmd.equals("-capacity")) {
+          capacity = Long.parseLong(args[++i]) * 1024 * 1024;
+        } else if (cmd.equals("-blockSize")) {
+          blockSize = Integer.parseInt(args[++i]);
+        } else if (cmd.equals("-reads")) {
+          reads = Integer.parseInt(args[++i]);
+        } else if (cmd.equals("-threads")) {
+          threads = Integer.parseInt(args[++i]);
+        } else if (cmd.equals("-h") || cmd.equals("-help") || cmd.equals("--help")) {
+          printUsageAndExit();
+        } else {
+          System.err.println("UNEXPECTED: " + cmd);
+          printUsageAndExit();
+        }
+      } catch (Exception e) {
+        printUsageAndExit();
+      }
+    }
+
+    List<String> results = new ArrayList<String>();
+    for (String engine : engines.split(",")) {
+      results.add(benchmark(engine.trim()));
+    }
+    System.out.println("Summary: " + reads + " reads of " + blockSize + " bytes by " + threads +
+      " thread(s) from " + (capacity / 1024 / 1024) + "MB");
+    for (String r : results) {
+      System.out.println(r);
+    }
+    return 0;
+  }
+
+  private String benchmark(String engineName) throws Exception {
+    File file = new File(dir, "bucketcache-benchmark-" + engineName);
+    final IOEngine engine;
+    if (engineName.equals("file")) {
+      engine = new FileIOEngine(file.getPath(), capacity);
+    } else if (engineName.equals("mmap")) {
+      engine = new MmapIOEngine(file.getPath(), capacity);
+    } else if (engineName.equals("offheap")) {
+      engine = new ByteBufferIOEngine(capacity, true);
+    } else if (engineName.equals("heap")) {
+      engine = new ByteBufferIOEngine(capacity, false);
+    } else {
+      throw new IllegalArgumentException("Unknown engine " + engineName);
+    }
+    try {
+      final long blocks = capacity / blockSize;
+      long start = System.currentTimeMillis();
+      byte[] block = new byte[blockSize];
+      Random rand = new Random(blocks);
+      for (long i = 0; i < blocks; i++) {
+        rand.nextBytes(block);
+        engine.write(ByteBuffer.wrap(block), i * blockSize);
+      }
+      engine.sync();
+      long writeTime = System.currentTimeMillis() - start;
+
+      final AtomicReference<Exception> error = new AtomicReference<Exception>();
+      Thread[] readers = new Thread[threads];
+      for (int t = 0; t < threads; t++) {
+        final int readsPerThread = reads / threads;
+        final long seed = t;
+        readers[t] = new Thread("reader-" + t) {
+          @Override
+          public void run() {
+            Random rand = new Random(seed);
+            try {
+              for (int i = 0; i < readsPerThread; i++) {
+                // BucketCache reads each hit into a new heap buffer
+                ByteBuffer bb = ByteBuffer.allocate(blockSize);
+                engine.read(bb, (long) (rand.nextDouble() * blocks) * blockSize);
+              }
+            } catch (IOException e) {
+              error.compareAndSet(null, e);
+            }
+          }
+        };
+      }
+      start = System.nanoTime();
+      for (Thread reader : readers) {
+        reader.start();
+      }
+      for (Thread reader : readers) {
+        reader.join();
+      }
+      long readNanos = System.nanoTime() - start;
+      if (error.get() != null) {
+        throw error.get();
+      }
+      long totalReads = (long) (reads / threads) * threads;
+      String result = String.format("%-8s write=%dms read=%dms %.0f reads/s %.1f MB/s",
+        engineName, writeTime, readNanos / 1000000, totalReads * 1e9 / readNanos,
+        totalReads * (double) blockSize * 1e9 / readNanos / 1024 / 1024);
+      LOG.info(result);
+      return result;
+    } finally {
+      engine.shutdown();
+      if (file.exists()) {
+        file.delete();
+      }
+    }
+  }
+
+  private void printUsageAndExit() {
+    System.err.printf("Usage: bin/hbase %s [options]\n", getClass().getName());
+    System.err.println(" where [options] are:");
+    System.err.println("  -h|-help            Show this help and exit.");
+    System.err.println("  -engines <list>     Comma separated engines among heap, offheap, file");
+    System.err.println("                      and mmap. Default offheap,file,mmap.");
+    System.err.println("  -dir <path>         Directory of the file engines' files. Default is");
+    System.err.println("                      java.io.tmpdir.");
+    System.err.println("  -capacity <N>       Size of each engine in MB. Default 256.");
+    System.err.println("  -blockSize <N>      Block size in bytes. Default 65536.");
+    System.err.println("  -reads <N>          Number of blocks read. Default 100000.");
+    System.err.println("  -threads <N>        Number of reading threads. Default 4.");
+    System.err.println("");
+    System.err.println("Examples:");
+    System.err.println("");
+    System.err.println(" To compare the file engines on an SSD:");
+    System.err.println(" $ ./bin/hbase " + getClass().getName() +
+      " -engines file,mmap -dir /mnt/ssd -capacity 4096");
+    System.exit(1);
+  }
+
+  static int innerMain(final String [] args) throws Exception {
+    return ToolRunner.run(HBaseConfiguration.create(), new IOEngineBenchmark(), args);
+  }
+
+  public static void main(String[] args) throws Exception {
+     System.exit(innerMain(args));
+  }
+}
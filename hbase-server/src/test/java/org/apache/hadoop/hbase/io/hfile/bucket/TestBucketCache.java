@@ -18,6 +18,8 @@
  */
 package org.apache.hadoop.hbase.io.hfile.bucket;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.FileNotFoundException;
@@ -29,7 +31,9 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hbase.SmallTests;
 import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
 import org.apache.hadoop.hbase.io.hfile.CacheTestUtils;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils.HFileBlockPair;
 import org.apache.hadoop.hbase.io.hfile.Cacheable;
+import org.apache.hadoop.hbase.io.hfile.Cacheable.MemoryType;
 import org.apache.hadoop.hbase.io.hfile.bucket.BucketAllocator.BucketSizeInfo;
 import org.apache.hadoop.hbase.io.hfile.bucket.BucketAllocator.IndexStatistics;
 import org.junit.After;
@@ -151,4 +155,29 @@ public class TestBucketCache {
     CacheTestUtils.testHeapSizeChanges(cache, BLOCK_SIZE);
   }
 
+  @Test
+  public void testSharedBlockFreedOnReturn() throws Exception {
+    HFileBlockPair pair = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, 1)[0];
+    cache.cacheBlock(pair.getBlockName(), pair.getBlock());
+    // Until the writer has moved it to the IO engine, the block is served from
+    // the RAM cache
+    Cacheable block = cache.getBlock(pair.getBlockName(), true, false);
+    while (block.getMemoryType() != MemoryType.SHARED) {
+      Thread.sleep(10);
+      block = cache.getBlock(pair.getBlockName(), true, false);
+    }
+    assertEquals(pair.getBlock(), block);
+    long usedSize = cache.getAllocator().getUsedSize();
+    assertTrue(usedSize > 0);
+
+    // The evicted block is no longer served, but its bucket stays allocated
+    // while the block is in use
+    assertTrue(cache.evictBlock(pair.getBlockName()));
+    assertNull(cache.getBlock(pair.getBlockName(), true, false));
+    assertEquals(usedSize, cache.getAllocator().getUsedSize());
+    assertEquals(pair.getBlock(), block);
+
+    cache.returnBlock(pair.getBlockName(), block);
+    assertEquals(0, cache.getAllocator().getUsedSize());
+  }
 }
@@ -0,0 +1,110 @@
+/**
+ * Copyright The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.SmallTests;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Basic test for {@link MmapIOEngine}
+ */
+@Category(SmallTests.class)
+public class TestMmapIOEngine {
+  private static final int SIZE = 2 * 1024 * 1024; // 2 MB
+  // Small regions so that accesses cross from one to the next
+  private static final int REGION_SIZE = 64 * 1024;
+  private final String filePath = "testMmapIOEngine";
+  private final Random rand = new Random(SIZE);
+
+  @After
+  public void tearDown() {
+    File file = new File(filePath);
+    if (file.exists()) {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testMmapIOEngine() throws IOException {
+    MmapIOEngine engine = new MmapIOEngine(filePath, SIZE, REGION_SIZE);
+    try {
+      for (int i = 0; i < 50; i++) {
+        int len = rand.nextInt(2 * REGION_SIZE);
+        long offset = rand.nextInt(SIZE - len);
+        byte[] data1 = new byte[len];
+        rand.nextBytes(data1);
+        byte[] data2 = new byte[len];
+        engine.write(ByteBuffer.wrap(data1), offset);
+        engine.read(ByteBuffer.wrap(data2), offset);
+        assertArrayEquals(data1, data2);
+        // Into a direct buffer too
+        ByteBuffer direct = ByteBuffer.allocateDirect(len);
+        engine.read(direct, offset);
+        direct.flip();
+        byte[] data3 = new byte[len];
+        direct.get(data3);
+        assertArrayEquals(data1, data3);
+      }
+    } finally {
+      engine.shutdown();
+    }
+  }
+
+  @Test
+  public void testOutOfRange() throws IOException {
+    MmapIOEngine engine = new MmapIOEngine(filePath, SIZE, REGION_SIZE);
+    try {
+      engine.read(ByteBuffer.allocate(10), SIZE - 5);
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      // expected
+    } finally {
+      engine.shutdown();
+    }
+  }
+
+  @Test
+  public void testContentsKeptOnReopen() throws IOException {
+    byte[] data = new byte[REGION_SIZE + 100];
+    rand.nextBytes(data);
+    long offset = REGION_SIZE - 50;
+    MmapIOEngine engine = new MmapIOEngine(filePath, SIZE, REGION_SIZE);
+    engine.write(ByteBuffer.wrap(data), offset);
+    engine.shutdown();
+
+    engine = new MmapIOEngine(filePath, SIZE, REGION_SIZE);
+    try {
+      byte[] read = new byte[data.length];
+      engine.read(ByteBuffer.wrap(read), offset);
+      assertArrayEquals(data, read);
+    } finally {
+      engine.shutdown();
+    }
+  }
+}
@@ -29,6 +29,16 @@ public class MetricsHBaseServerWrapperStub implements MetricsHBaseServerWrapper{
     return 102;
   }
 
+  @Override
+  public int getNumGeneralQueues() {
+    return 2;
+  }
+
+  @Override
+  public int getGeneralQueueLength(int queue) {
+    return 106 + queue;
+  }
+
   @Override
   public int getReplicationQueueLength() {
     return 103;
@@ -43,4 +53,29 @@ public class MetricsHBaseServerWrapperStub implements MetricsHBaseServerWrapper{
   public int getNumOpenConnections() {
     return 105;
   }
+
+  @Override
+  public int getReservoirBufferCount() {
+    return 108;
+  }
+
+  @Override
+  public long getReservoirSize() {
+    return 109;
+  }
+
+  @Override
+  public long getReservoirHitCount() {
+    return 110;
+  }
+
+  @Override
+  public long getReservoirAllocationCount() {
+    return 111;
+  }
+
+  @Override
+  public int getReservoirHitPercent() {
+    return 50;
+  }
 }
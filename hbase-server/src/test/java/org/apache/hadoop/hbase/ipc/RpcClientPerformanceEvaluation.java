@@ -0,0 +1,280 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellScanner;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.ipc.RpcServer.BlockingServiceAndInterface;
+import org.apache.hadoop.hbase.ipc.protobuf.generated.TestProtos.EchoRequestProto;
+import org.apache.hadoop.hbase.ipc.protobuf.generated.TestProtos.EchoResponseProto;
+import org.apache.hadoop.hbase.security.User;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+import com.google.common.collect.Lists;
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.Message;
+
+/**
+ * Compares the blocking {@link RpcClient} with {@link NioRpcClient}: many threads make echo
+ * calls with a few cells each against a number of in-process servers, standing in for an
+ * application server talking to a cluster. Reports the client's thread count and call latency
+ * percentiles. See usage for this tool by running:
+ * <code>$ hbase org.apache.hadoop.hbase.ipc.RpcClientPerformanceEvaluation -h</code>
+ */
+@InterfaceAudience.Private
+public final class RpcClientPerformanceEvaluation extends Configured implements Tool {
+  static final Log LOG = LogFactory.getLog(RpcClientPerformanceEvaluation.class.getName());
+
+  private static final MethodDescriptor ECHO =
+    TestIPC.SERVICE.getDescriptorForType().findMethodByName("echo");
+
+  private int numServers = 50;
+  private int numThreads = 50;
+  private int numCalls = 1000;
+  private int numCells = 10;
+  private int valueSize = 100;
+
+  /** Results of one run */
+  static class Result {
+    final String client;
+    final int threads;
+    final long elapsedMs;
+    final long[] latenciesNs;
+
+    Result(String client, int threads, long elapsedMs, long[] latenciesNs) {
+      this.client = client;
+      this.threads = threads;
+      this.elapsedMs = elapsedMs;
+      this.latenciesNs = latenciesNs;
+    }
+
+    long percentileUs(double p) {
+      int index = (int)Math.ceil(p * this.latenciesNs.length) - 1;
+      return this.latenciesNs[Math.max(0, index)] / 1000;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%-8s client threads=%d calls=%d in %dms (%d calls/s) " +
+          "latency us p50=%d p99=%d p99.9=%d max=%d", this.client, this.threads,
+        this.latenciesNs.length, this.elapsedMs,
+        this.elapsedMs == 0 ? 0 : this.latenciesNs.length * 1000L / this.elapsedMs,
+        percentileUs(0.5), percentileUs(0.99), percentileUs(0.999),
+        percentileUs(1.0));
+    }
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    boolean nio = false;
+    boolean compare = false;
+    // Process command line args
+    for (int i = 0; i < args.length; i++) {
+      String cmd = args[i];
+      try {
+        if (cmd.equals("-servers")) {
+          numServers = Integer.parseInt(args[++i]);
+        } else if (cmd.equals("-threads")) {
+          numThreads = Integer.parseInt(args[++i]);
+        } else if (cmd.equals("-calls")) {
+          numCalls = Integer.parseInt(args[++i]);
+        } else if (cmd.equals("-cells")) {
+          numCells = Integer.parseInt(args[++i]);
+        } else if (cmd.equals("-valueSize")) {
+          valueSize = Integer.parseInt(args[++i]);
+        } else if (cmd.equals("-nio")) {
+          nio = true;
+        } else if (cmd.equals("-compare")) {
+          compare = true;
+        } else if (cmd.equals("-h") || cmd.equals("-help") || cmd.equals("--help")) {
+          printUsageAndExit();
+        } else {
+          System.err.println("UNEXPECTED: " + cmd);
+          printUsageAndExit();
+        }
+      } catch (Exception e) {
+        printUsageAndExit();
+      }
+    }
+
+    Configuration conf = getConf();
+    List<RpcServer> servers = new ArrayList<RpcServer>();
+    try {
+      for (int i = 0; i < numServers; i++) {
+        RpcServer server = new RpcServer(null, "server" + i,
+          Lists.newArrayList(new BlockingServiceAndInterface(TestIPC.SERVICE, null)),
+          new InetSocketAddress("0.0.0.0", 0), conf,
+          new SimpleRpcScheduler(conf, 3, 0, 0, null, 0));
+        server.start();
+        servers.add(server);
+      }
+      List<Result> results = new ArrayList<Result>();
+      if (compare || !nio) {
+        results.add(runClient("blocking", new RpcClient(conf, HConstants.CLUSTER_ID_DEFAULT),
+          servers));
+      }
+      if (compare || nio) {
+        results.add(runClient("nio", new NioRpcClient(conf, HConstants.CLUSTER_ID_DEFAULT),
+          servers));
+      }
+      System.out.println("Summary: " + numServers + " servers, " + numThreads +
+        " calling threads, " + numCalls + " calls per thread, " + numCells + " cells of " +
+        valueSize + " bytes per call");
+      for (Result r : results) {
+        System.out.println(r);
+      }
+    } finally {
+      for (RpcServer server : servers) {
+        server.stop();
+      }
+    }
+    return 0;
+  }
+
+  private Result runClient(String name, final RpcClient client, final List<RpcServer> servers)
+  throws Exception {
+    final User user = User.getCurrent();
+    final List<Cell> cells = new ArrayList<Cell>();
+    for (int i = 0; i < numCells; i++) {
+      byte [] row = Bytes.toBytes("row" + i);
+      cells.add(new KeyValue(row, Bytes.toBytes("f"), Bytes.toBytes("q"), new byte[valueSize]));
+    }
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    final long[][] latencies = new long[numThreads][numCalls];
+    try {
+      // Open a connection to every server first so only steady state calls are measured.
+      for (RpcServer server : servers) {
+        call(client, server.getListenerAddress(), user, cells);
+      }
+      Thread[] threads = new Thread[numThreads];
+      for (int t = 0; t < numThreads; t++) {
+        final int thread = t;
+        threads[t] = new Thread("caller-" + t) {
+          @Override
+          public void run() {
+            try {
+              for (int i = 0; i < numCalls; i++) {
+                InetSocketAddress address =
+                  servers.get((thread + i) % servers.size()).getListenerAddress();
+                long start = System.nanoTime();
+                call(client, address, user, cells);
+                latencies[thread][i] = System.nanoTime() - start;
+              }
+            } catch (Throwable e) {
+              failure.compareAndSet(null, e);
+            }
+          }
+        };
+      }
+      long start = System.currentTimeMillis();
+      for (Thread t : threads) {
+        t.start();
+      }
+      for (Thread t : threads) {
+        t.join();
+      }
+      long elapsed = System.currentTimeMillis() - start;
+      if (failure.get() != null) throw new IOException("Call failed", failure.get());
+      int clientThreads = countClientThreads();
+      long[] all = new long[numThreads * numCalls];
+      for (int t = 0; t < numThreads; t++) {
+        System.arraycopy(latencies[t], 0, all, t * numCalls, numCalls);
+      }
+      Arrays.sort(all);
+      Result result = new Result(name, clientThreads, elapsed, all);
+      LOG.info(result);
+      return result;
+    } finally {
+      client.stop();
+    }
+  }
+
+  private static void call(RpcClient client, InetSocketAddress address, User user,
+      List<Cell> cells) throws IOException, InterruptedException {
+    EchoRequestProto param = EchoRequestProto.newBuilder().setMessage("hello").build();
+    Pair<Message, CellScanner> r = client.call(ECHO, param, CellUtil.createCellScanner(cells),
+      EchoResponseProto.getDefaultInstance(), user, address, 0);
+    int count = 0;
+    while (r.getSecond().advance()) {
+      count++;
+    }
+    if (count != cells.size()) {
+      throw new IOException("Got " + count + " cells back, sent " + cells.size());
+    }
+  }
+
+  /**
+   * @return number of live threads the rpc clients run; they all have names beginning with
+   * "IPC Client".
+   */
+  private static int countClientThreads() {
+    int count = 0;
+    for (Thread t : Thread.getAllStackTraces().keySet()) {
+      if (t.isAlive() && t.getName().startsWith("IPC Client")) count++;
+    }
+    return count;
+  }
+
+  private void printUsageAndExit() {
+    System.err.printf("Usage: bin/hbase %s [options]\n", getClass().getName());
+    System.err.println(" where [options] are:");
+    System.err.println("  -h|-help         Show this help and exit.");
+    System.err.println("  -servers <N>     Number of in-process servers to call. Default 50.");
+    System.err.println("  -threads <N>     Number of calling threads. Default 50.");
+    System.err.println("  -calls <N>       Number of calls per thread. Default 1000.");
+    System.err.println("  -cells <N>       Number of cells sent and echoed per call. Default 10.");
+    System.err.println("  -valueSize <N>   Cell value size in bytes. Default 100.");
+    System.err.println("  -nio             Use the NioRpcClient instead of the blocking one.");
+    System.err.println("  -compare         Run the blocking client, then the NioRpcClient.");
+    System.err.println("");
+    System.err.println("Examples:");
+    System.err.println("");
+    System.err.println(" To compare the clients calling 500 servers from 200 threads:");
+    System.err.println(" $ ./bin/hbase " + getClass().getName() +
+      " -servers 500 -threads 200 -compare");
+    System.exit(1);
+  }
+
+  static int innerMain(final String [] args) throws Exception {
+    return ToolRunner.run(HBaseConfiguration.create(), new RpcClientPerformanceEvaluation(),
+      args);
+  }
+
+  public static void main(String[] args) throws Exception {
+     System.exit(innerMain(args));
+  }
+}
@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestBufferChain {
+  private static final byte [] HEADER = Bytes.toBytes("header");
+  private static final byte [] BODY = Bytes.toBytes("a cell block from a direct buffer");
+
+  @Test
+  public void testWriteAll() throws IOException {
+    Channel channel = new Channel(Integer.MAX_VALUE);
+    BufferChain chain = new BufferChain(ByteBuffer.wrap(HEADER), direct(BODY));
+    assertEquals(HEADER.length + BODY.length, chain.remaining());
+    assertEquals(HEADER.length + BODY.length, chain.write(channel, 2));
+    assertFalse(chain.hasRemaining());
+    assertArrayEquals(Bytes.add(HEADER, BODY), channel.out.toByteArray());
+    // Heap bytes went out two at a time, the direct buffer in one go.
+    assertEquals(HEADER.length / 2, channel.writes);
+  }
+
+  @Test
+  public void testPartialWrites() throws IOException {
+    // A channel that takes five bytes per call, like a full socket buffer would.
+    Channel channel = new Channel(5);
+    BufferChain chain = new BufferChain(ByteBuffer.wrap(HEADER), direct(BODY));
+    long total = 0;
+    while (chain.hasRemaining()) {
+      long n = chain.write(channel, 1024);
+      assertTrue(n > 0);
+      total += n;
+    }
+    assertEquals(HEADER.length + BODY.length, total);
+    assertArrayEquals(Bytes.add(HEADER, BODY), channel.out.toByteArray());
+  }
+
+  private static ByteBuffer direct(byte [] bytes) {
+    ByteBuffer bb = ByteBuffer.allocateDirect(bytes.length);
+    bb.put(bytes);
+    bb.flip();
+    return bb;
+  }
+
+  /**
+   * Collects what is written, taking at most <code>max</code> bytes per call.
+   */
+  private static class Channel implements GatheringByteChannel {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final int max;
+    private int writes = 0;
+
+    Channel(int max) {
+      this.max = max;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) {
+      writes++;
+      long n = 0;
+      for (int i = offset; i < offset + length && n < max; i++) {
+        while (srcs[i].hasRemaining() && n < max) {
+          out.write(srcs[i].get());
+          n++;
+        }
+      }
+      return n;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) {
+      return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+      return (int)write(new ByteBuffer[] {src});
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
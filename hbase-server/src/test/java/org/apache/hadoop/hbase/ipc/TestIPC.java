@@ -28,6 +28,7 @@ import static org.mockito.Mockito.spy;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -49,6 +50,7 @@ import org.apache.hadoop.hbase.SmallTests;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.RowMutations;
 import org.apache.hadoop.hbase.codec.Codec;
+import org.apache.hadoop.hbase.io.BoundedByteBufferPool;
 import org.apache.hadoop.hbase.ipc.protobuf.generated.TestProtos.EchoRequestProto;
 import org.apache.hadoop.hbase.ipc.protobuf.generated.TestProtos.EchoResponseProto;
 import org.apache.hadoop.hbase.ipc.protobuf.generated.TestProtos.EmptyRequestProto;
@@ -60,6 +62,7 @@ import org.apache.hadoop.hbase.security.User;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.Pair;
 import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.ipc.RemoteException;
 import org.apache.hadoop.net.NetUtils;
 import org.apache.hadoop.util.StringUtils;
 import org.junit.Test;
@@ -87,7 +90,7 @@ public class TestIPC {
   // available and basic with methods like 'echo', and ping.  Below we make a blocking service
   // by passing in implementation of blocking interface.  We use this service in all tests that
   // follow.
-  private static final BlockingService SERVICE =
+  static final BlockingService SERVICE =
    TestRpcServiceProtos.TestProtobufRpcProto.newReflectiveBlockingService(
      new TestRpcServiceProtos.TestProtobufRpcProto.BlockingInterface() {
 
@@ -139,9 +142,17 @@ public class TestIPC {
   private static class TestRpcServer extends RpcServer {
 
     TestRpcServer() throws IOException {
+      this(new SimpleRpcScheduler(CONF, 1, 1, 0, null, 0));
+    }
+
+    TestRpcServer(RpcScheduler scheduler) throws IOException {
+      this(CONF, scheduler);
+    }
+
+    TestRpcServer(Configuration conf, RpcScheduler scheduler) throws IOException {
       super(null, "testRpcServer",
           Lists.newArrayList(new BlockingServiceAndInterface(SERVICE, null)),
-        new InetSocketAddress("0.0.0.0", 0), CONF, new SimpleRpcScheduler(CONF, 1, 1, 0, null, 0));
+        new InetSocketAddress("0.0.0.0", 0), conf, scheduler);
     }
 
     @Override
@@ -226,6 +237,104 @@ public class TestIPC {
     }
   }
 
+  /**
+   * Cell blocks that outgrow the reservoir's buffers must arrive whole, and later calls must
+   * take their buffers from the reservoir.
+   */
+  @Test
+  public void testReservoir() throws InterruptedException, IOException {
+    Configuration conf = new Configuration(CONF);
+    conf.setInt(RpcServer.RESERVOIR_INITIAL_BUFFER_SIZE_KEY, 64);
+    RpcClient client = new RpcClient(conf, HConstants.CLUSTER_ID_DEFAULT);
+    TestRpcServer rpcServer =
+      new TestRpcServer(conf, new SimpleRpcScheduler(conf, 1, 1, 0, null, 0));
+    List<Cell> cells = new ArrayList<Cell>();
+    int count = 100;
+    for (int i = 0; i < count; i++) cells.add(CELL);
+    int calls = 10;
+    try {
+      rpcServer.start();
+      InetSocketAddress address = rpcServer.getListenerAddress();
+      MethodDescriptor md = SERVICE.getDescriptorForType().findMethodByName("echo");
+      EchoRequestProto param = EchoRequestProto.newBuilder().setMessage("hello").build();
+      for (int i = 0; i < calls; i++) {
+        Pair<Message, CellScanner> r = client.call(md, param, CellUtil.createCellScanner(cells),
+          md.getOutputType().toProto(), User.getCurrent(), address, 0);
+        int index = 0;
+        while (r.getSecond().advance()) {
+          assertTrue(CELL.equals(r.getSecond().current()));
+          index++;
+        }
+        assertEquals(count, index);
+      }
+      BoundedByteBufferPool reservoir = rpcServer.reservoir;
+      assertEquals(calls, reservoir.getHitCount() + reservoir.getAllocationCount());
+      assertTrue(reservoir.toString(), reservoir.getHitCount() > 0);
+    } finally {
+      client.stop();
+      rpcServer.stop();
+    }
+  }
+
+  /**
+   * Responses still queued when their connection is closed will never be sent; their cell
+   * blocks must go back to the reservoir all the same.
+   */
+  @Test
+  public void testReservoirGetsQueuedResponsesBackOnClose() throws IOException {
+    TestRpcServer rpcServer = new TestRpcServer();
+    SocketChannel channel = SocketChannel.open();
+    try {
+      RpcServer.Connection connection =
+        rpcServer.getConnection(channel, System.currentTimeMillis());
+      BoundedByteBufferPool reservoir = rpcServer.reservoir;
+      for (int i = 0; i < 2; i++) {
+        RpcServer.Call call =
+          rpcServer.new Call(i, null, null, null, null, null, connection, null, 0, null);
+        call.cellBlock = reservoir.getBuffer();
+        connection.responseQueue.add(call);
+      }
+      assertEquals(0, reservoir.getBufferCount());
+      rpcServer.closeConnection(connection);
+      assertTrue(connection.responseQueue.isEmpty());
+      assertEquals(2, reservoir.getBufferCount());
+    } finally {
+      channel.close();
+      rpcServer.stop();
+    }
+  }
+
+  /**
+   * A call the server drops must reach the client as a {@link CallDroppedException}.
+   */
+  @Test
+  public void testDroppedCall() throws InterruptedException, IOException {
+    RpcClient client = new RpcClient(CONF, HConstants.CLUSTER_ID_DEFAULT);
+    TestRpcServer rpcServer = new TestRpcServer(new SimpleRpcScheduler(CONF, 1, 1, 0, null, 0) {
+      @Override
+      public void dispatch(RpcServer.CallRunner callTask) {
+        callTask.drop("Dropped for testing");
+      }
+    });
+    try {
+      rpcServer.start();
+      MethodDescriptor md = SERVICE.getDescriptorForType().findMethodByName("echo");
+      EchoRequestProto param = EchoRequestProto.newBuilder().setMessage("hello").build();
+      try {
+        client.call(md, param, null, md.getOutputType().toProto(), User.getCurrent(),
+          rpcServer.getListenerAddress(), 1000);
+        fail("Expected the call to be dropped");
+      } catch (RemoteException e) {
+        IOException cause = e.unwrapRemoteException();
+        assertTrue(cause.toString(), cause instanceof CallDroppedException);
+        assertTrue(cause.getMessage().contains("Dropped for testing"));
+      }
+    } finally {
+      client.stop();
+      rpcServer.stop();
+    }
+  }
+
   @Test
   public void testRTEDuringConnectionSetup() throws Exception {
     Configuration conf = HBaseConfiguration.create();
@@ -0,0 +1,241 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.CellScanner;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.ipc.RpcServer.BlockingServiceAndInterface;
+import org.apache.hadoop.hbase.ipc.protobuf.generated.TestProtos.EchoRequestProto;
+import org.apache.hadoop.hbase.ipc.protobuf.generated.TestProtos.EchoResponseProto;
+import org.apache.hadoop.hbase.security.User;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.google.common.collect.Lists;
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.Message;
+
+/**
+ * Tests for {@link NioRpcClient}.
+ */
+@Category(SmallTests.class)
+public class TestNioRpcClient {
+  private static final Configuration CONF = HBaseConfiguration.create();
+  private static final MethodDescriptor ECHO =
+    TestIPC.SERVICE.getDescriptorForType().findMethodByName("echo");
+
+  private static RpcServer createServer(RpcScheduler scheduler) throws IOException {
+    return new RpcServer(null, "testRpcServer",
+      Lists.newArrayList(new BlockingServiceAndInterface(TestIPC.SERVICE, null)),
+      new InetSocketAddress("0.0.0.0", 0), CONF, scheduler);
+  }
+
+  private static Pair<Message, CellScanner> echo(RpcClient client, InetSocketAddress address,
+      User user, String message, List<Cell> cells, int rpcTimeout)
+  throws IOException, InterruptedException {
+    EchoRequestProto param = EchoRequestProto.newBuilder().setMessage(message).build();
+    return client.call(ECHO, param, cells == null ? null : CellUtil.createCellScanner(cells),
+      EchoResponseProto.getDefaultInstance(), user, address, rpcTimeout);
+  }
+
+  @Test
+  public void testFactory() {
+    Configuration conf = new Configuration(CONF);
+    RpcClient client = RpcClientFactory.createClient(conf, HConstants.CLUSTER_ID_DEFAULT);
+    try {
+      assertEquals(RpcClient.class, client.getClass());
+    } finally {
+      client.stop();
+    }
+    conf.setClass(RpcClientFactory.CUSTOM_RPC_CLIENT_IMPL_CONF_KEY, NioRpcClient.class,
+      RpcClient.class);
+    client = RpcClientFactory.createClient(conf, HConstants.CLUSTER_ID_DEFAULT);
+    try {
+      assertEquals(NioRpcClient.class, client.getClass());
+    } finally {
+      client.stop();
+    }
+  }
+
+  /**
+   * Many threads calling several servers over a couple of selector threads. Every call must get
+   * its own response and cells back.
+   */
+  @Test
+  public void testConcurrentCallsToSeveralServers() throws Exception {
+    final int numServers = 3;
+    final int numThreads = 10;
+    final int callsPerThread = 50;
+    Configuration conf = new Configuration(CONF);
+    conf.setInt(NioRpcClient.SELECTOR_THREADS_KEY, 2);
+    final NioRpcClient client = new NioRpcClient(conf, HConstants.CLUSTER_ID_DEFAULT);
+    final List<RpcServer> servers = new ArrayList<RpcServer>();
+    final User user = User.getCurrent();
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    try {
+      for (int i = 0; i < numServers; i++) {
+        RpcServer server = createServer(new SimpleRpcScheduler(CONF, 2, 1, 0, null, 0));
+        server.start();
+        servers.add(server);
+      }
+      Thread[] threads = new Thread[numThreads];
+      for (int t = 0; t < numThreads; t++) {
+        final int thread = t;
+        threads[t] = new Thread() {
+          @Override
+          public void run() {
+            try {
+              for (int i = 0; i < callsPerThread; i++) {
+                String message = thread + "-" + i;
+                List<Cell> cells = new ArrayList<Cell>();
+                for (int c = 0; c <= i % 4; c++) {
+                  byte [] b = Bytes.toBytes(message + "-" + c);
+                  cells.add(new KeyValue(b, b, b, b));
+                }
+                InetSocketAddress address =
+                  servers.get((thread + i) % numServers).getListenerAddress();
+                Pair<Message, CellScanner> r = echo(client, address, user, message, cells, 0);
+                assertEquals(message, ((EchoResponseProto)r.getFirst()).getMessage());
+                int index = 0;
+                while (r.getSecond().advance()) {
+                  Cell expected = cells.get(index++);
+                  assertTrue(CellComparator.equals(expected, r.getSecond().current()));
+                  assertTrue(CellUtil.matchingValue(expected, r.getSecond().current()));
+                }
+                assertEquals(cells.size(), index);
+              }
+            } catch (Throwable e) {
+              failure.compareAndSet(null, e);
+            }
+          }
+        };
+        threads[t].start();
+      }
+      for (Thread t : threads) {
+        t.join();
+      }
+      if (failure.get() != null) throw new AssertionError(failure.get());
+      // One connection per server, whatever the number of calling threads.
+      assertEquals(numServers, client.getNumNioConnections());
+    } finally {
+      client.stop();
+      for (RpcServer server : servers) {
+        server.stop();
+      }
+    }
+    assertEquals(0, client.getNumNioConnections());
+  }
+
+  /**
+   * A call the server never answers must time out on the client, and the connection must stay
+   * usable for other calls.
+   */
+  @Test
+  public void testCallTimeout() throws Exception {
+    NioRpcClient client = new NioRpcClient(CONF, HConstants.CLUSTER_ID_DEFAULT);
+    final String hang = "hang";
+    RpcServer server = createServer(new SimpleRpcScheduler(CONF, 1, 1, 0, null, 0) {
+      @Override
+      public void dispatch(RpcServer.CallRunner callTask) throws InterruptedException {
+        EchoRequestProto param = (EchoRequestProto)callTask.getCall().param;
+        if (!hang.equals(param.getMessage())) super.dispatch(callTask);
+      }
+    });
+    User user = User.getCurrent();
+    try {
+      server.start();
+      InetSocketAddress address = server.getListenerAddress();
+      long start = System.currentTimeMillis();
+      try {
+        echo(client, address, user, hang, null, 500);
+        fail("Expected a timeout");
+      } catch (IOException e) {
+        assertTrue(e.toString(), e.getCause() instanceof RpcClient.CallTimeoutException);
+      }
+      assertTrue(System.currentTimeMillis() - start < 10000);
+      Pair<Message, CellScanner> r = echo(client, address, user, "hello", null, 500);
+      assertEquals("hello", ((EchoResponseProto)r.getFirst()).getMessage());
+    } finally {
+      client.stop();
+      server.stop();
+    }
+  }
+
+  /**
+   * Calls waiting on a server that goes away must fail rather than hang.
+   */
+  @Test
+  public void testServerGoesAway() throws Exception {
+    NioRpcClient client = new NioRpcClient(CONF, HConstants.CLUSTER_ID_DEFAULT);
+    final String hang = "hang";
+    RpcServer server = createServer(new SimpleRpcScheduler(CONF, 1, 1, 0, null, 0) {
+      @Override
+      public void dispatch(RpcServer.CallRunner callTask) throws InterruptedException {
+        EchoRequestProto param = (EchoRequestProto)callTask.getCall().param;
+        if (!hang.equals(param.getMessage())) super.dispatch(callTask);
+      }
+    });
+    final InetSocketAddress address;
+    final User user = User.getCurrent();
+    try {
+      server.start();
+      address = server.getListenerAddress();
+      echo(client, address, user, "hello", null, 0);
+      final NioRpcClient c = client;
+      final AtomicReference<Throwable> result = new AtomicReference<Throwable>();
+      Thread caller = new Thread() {
+        @Override
+        public void run() {
+          try {
+            echo(c, address, user, hang, null, 0);
+          } catch (Throwable e) {
+            result.set(e);
+          }
+        }
+      };
+      caller.start();
+      Thread.sleep(500);
+      server.stop();
+      caller.join(30000);
+      assertTrue(!caller.isAlive());
+      assertTrue(String.valueOf(result.get()), result.get() instanceof IOException);
+    } finally {
+      client.stop();
+      server.stop();
+    }
+  }
+}
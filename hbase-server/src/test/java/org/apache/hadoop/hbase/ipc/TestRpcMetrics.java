@@ -64,6 +64,13 @@ public class TestRpcMetrics {
     HELPER.assertGauge("numCallsInReplicationQueue", 103, serverSource);
     HELPER.assertGauge("numCallsInPriorityQueue", 104, serverSource);
     HELPER.assertGauge("numOpenConnections", 105, serverSource);
+    HELPER.assertGauge("numCallsInGeneralQueue_0", 106, serverSource);
+    HELPER.assertGauge("numCallsInGeneralQueue_1", 107, serverSource);
+    HELPER.assertGauge("reservoirBufferCount", 108, serverSource);
+    HELPER.assertGauge("reservoirSize", 109, serverSource);
+    HELPER.assertCounter("reservoirHits", 110, serverSource);
+    HELPER.assertCounter("reservoirAllocations", 111, serverSource);
+    HELPER.assertGauge("reservoirHitPercent", 50, serverSource);
   }
 
   /**
@@ -100,6 +107,13 @@ public class TestRpcMetrics {
     HELPER.assertCounter("queueCallTime_NumOps", 1, serverSource);
     HELPER.assertCounter("processCallTime_NumOps", 1, serverSource);
 
+    mrpc.dequeuedGeneralCall(1, 100);
+    mrpc.dequeuedGeneralCall(1, 102);
+    HELPER.assertCounter("generalQueueCallTime_1_NumOps", 2, serverSource);
+
+    mrpc.droppedCall();
+    HELPER.assertCounter("droppedCalls", 1, serverSource);
+
     mrpc.sentBytes(103);
     mrpc.sentBytes(103);
     mrpc.sentBytes(103);
@@ -0,0 +1,264 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.protobuf.RequestConverter;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.Get;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.GetRequest;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.ScanRequest;
+import org.apache.hadoop.hbase.protobuf.generated.HBaseProtos.RegionSpecifier.RegionSpecifierType;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.protobuf.ByteString;
+
+@Category(SmallTests.class)
+public class TestSimpleRpcScheduler {
+
+  @Test
+  public void testSingleQueueByDefault() {
+    SimpleRpcScheduler scheduler =
+        new SimpleRpcScheduler(HBaseConfiguration.create(), 10, 0, 0, null, 0);
+    assertEquals(1, scheduler.getNumGeneralQueues());
+    assertEquals(0, scheduler.getGeneralQueue(createGet(1)));
+  }
+
+  @Test
+  public void testNoMoreQueuesThanHandlers() {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setInt(SimpleRpcScheduler.CALL_QUEUE_COUNT_KEY, 8);
+    SimpleRpcScheduler scheduler = new SimpleRpcScheduler(conf, 3, 0, 0, null, 0);
+    assertEquals(3, scheduler.getNumGeneralQueues());
+  }
+
+  @Test
+  public void testDispatchByRegion() {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setInt(SimpleRpcScheduler.CALL_QUEUE_COUNT_KEY, 4);
+    conf.set(SimpleRpcScheduler.CALL_QUEUE_DISPATCH_KEY, "region");
+    SimpleRpcScheduler scheduler = new SimpleRpcScheduler(conf, 8, 0, 0, null, 0);
+    Set<Integer> used = new HashSet<Integer>();
+    for (int i = 0; i < 64; i++) {
+      int queue = scheduler.getGeneralQueue(createGet(i));
+      for (int j = 0; j < 10; j++) {
+        assertEquals(queue, scheduler.getGeneralQueue(createGet(i)));
+      }
+      used.add(queue);
+    }
+    assertTrue("regions used " + used.size() + " queues", used.size() > 1);
+    // The later calls of a scanner stay together
+    ScanRequest next = RequestConverter.buildScanRequest(1234L, 10, false);
+    int queue = scheduler.getGeneralQueue(next);
+    for (int j = 0; j < 10; j++) {
+      assertEquals(queue, scheduler.getGeneralQueue(next));
+    }
+  }
+
+  /**
+   * Blocks the handler of one queue and checks the calls queued behind it are run by the
+   * handler of the other queue.
+   */
+  @Test(timeout = 60000)
+  public void testWorkStealing() throws Exception {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setInt(SimpleRpcScheduler.CALL_QUEUE_COUNT_KEY, 2);
+    conf.setBoolean(SimpleRpcScheduler.CALL_QUEUE_STEAL_KEY, true);
+    SimpleRpcScheduler scheduler = new SimpleRpcScheduler(conf, 2, 0, 0, null, 0);
+    RpcScheduler.Context context = mock(RpcScheduler.Context.class);
+    when(context.getListenerAddress()).thenReturn(new InetSocketAddress("127.0.0.1", 1000));
+    scheduler.init(context);
+    scheduler.start();
+    try {
+      final CountDownLatch blocking = new CountDownLatch(1);
+      final CountDownLatch unblock = new CountDownLatch(1);
+      final AtomicReference<String> blocked = new AtomicReference<String>();
+      scheduler.callQueues[0].put(createTask(new Runnable() {
+        @Override
+        public void run() {
+          blocked.set(Thread.currentThread().getName());
+          blocking.countDown();
+          try {
+            unblock.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }));
+      assertTrue(blocking.await(10, TimeUnit.SECONDS));
+      // Whichever handler took the blocking call, queue the rest behind it on its own queue
+      int busy = blocked.get().startsWith("Queue0.") ? 0 : 1;
+      final CountDownLatch done = new CountDownLatch(10);
+      for (int i = 0; i < 10; i++) {
+        scheduler.callQueues[busy].put(createTask(new Runnable() {
+          @Override
+          public void run() {
+            done.countDown();
+          }
+        }));
+      }
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+      assertEquals(0, scheduler.getGeneralQueueLength());
+      unblock.countDown();
+    } finally {
+      scheduler.stop();
+    }
+  }
+
+  /**
+   * By default a handler blocks on its own queue and leaves the calls of the other queues alone.
+   */
+  @Test(timeout = 60000)
+  public void testNoWorkStealingByDefault() throws Exception {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setInt(SimpleRpcScheduler.CALL_QUEUE_COUNT_KEY, 2);
+    SimpleRpcScheduler scheduler = new SimpleRpcScheduler(conf, 2, 0, 0, null, 0);
+    RpcScheduler.Context context = mock(RpcScheduler.Context.class);
+    when(context.getListenerAddress()).thenReturn(new InetSocketAddress("127.0.0.1", 1000));
+    scheduler.init(context);
+    scheduler.start();
+    try {
+      final CountDownLatch unblock = new CountDownLatch(1);
+      final CountDownLatch done = new CountDownLatch(2);
+      Runnable blocking = new Runnable() {
+        @Override
+        public void run() {
+          try {
+            unblock.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          done.countDown();
+        }
+      };
+      scheduler.callQueues[0].put(createTask(blocking));
+      scheduler.callQueues[0].put(createTask(blocking));
+      // Long enough for a stealing handler to have taken it; the idle one has not
+      Thread.sleep(200);
+      assertEquals(1, scheduler.getGeneralQueueLength(0));
+      unblock.countDown();
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+    } finally {
+      scheduler.stop();
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testDropExpiredCalls() throws Exception {
+    SimpleRpcScheduler scheduler =
+        new SimpleRpcScheduler(HBaseConfiguration.create(), 1, 0, 0, null, 0);
+    RpcScheduler.Context context = mock(RpcScheduler.Context.class);
+    when(context.getListenerAddress()).thenReturn(new InetSocketAddress("127.0.0.1", 1000));
+    scheduler.init(context);
+    scheduler.start();
+    try {
+      final CountDownLatch unblock = new CountDownLatch(1);
+      scheduler.callQueues[0].put(createTask(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            unblock.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }));
+      RpcServer.CallRunner expired = createTask(new Runnable() {
+        @Override
+        public void run() {
+        }
+      });
+      expired.getCall().deadline = expired.getCall().timestamp + 1;
+      scheduler.callQueues[0].put(expired);
+      Thread.sleep(10);
+      unblock.countDown();
+      verify(expired, timeout(10000)).drop(anyString());
+      verify(expired, never()).run();
+    } finally {
+      scheduler.stop();
+    }
+  }
+
+  @Test
+  public void testCoDel() {
+    CoDelController codel = new CoDelController(100, 100);
+    // Waits above the target once do not make the queue overloaded
+    assertFalse(codel.shouldDrop(150, 0));
+    assertFalse(codel.shouldDrop(300, 50));
+    // No wait of the last interval was below the target; shed the long waits
+    assertTrue(codel.shouldDrop(300, 100));
+    assertTrue(codel.isOverloaded());
+    assertFalse(codel.shouldDrop(150, 150));
+    // Still above the target
+    assertFalse(codel.shouldDrop(50, 200));
+    assertTrue(codel.isOverloaded());
+    // The queue drained in the last interval
+    assertFalse(codel.shouldDrop(250, 300));
+    assertFalse(codel.isOverloaded());
+    assertTrue(codel.shouldDrop(250, 400));
+    // An idle queue is not overloaded, however long its last calls waited
+    assertFalse(codel.shouldDrop(250, 2000));
+    assertFalse(codel.isOverloaded());
+  }
+
+  private static GetRequest createGet(int region) {
+    return GetRequest.newBuilder()
+        .setRegion(RequestConverter.buildRegionSpecifier(RegionSpecifierType.REGION_NAME,
+            Bytes.toBytes("region" + region)))
+        .setGet(Get.newBuilder().setRow(ByteString.copyFrom(Bytes.toBytes(region))))
+        .build();
+  }
+
+  private static RpcServer.CallRunner createTask(final Runnable runnable) {
+    RpcServer.CallRunner task = mock(RpcServer.CallRunner.class);
+    RpcServer.Call call = mock(RpcServer.Call.class);
+    call.timestamp = System.currentTimeMillis();
+    when(task.getCall()).thenReturn(call);
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        runnable.run();
+        return null;
+      }
+    }).when(task).run();
+    return task;
+  }
+}
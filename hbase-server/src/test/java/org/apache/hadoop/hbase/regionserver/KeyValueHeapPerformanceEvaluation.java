@@ -0,0 +1,187 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValue.KVComparator;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.CollectionBackedScanner;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Compares merging with a {@link KeyValueHeap} and with a {@link LoserTreeKeyValueHeap}: scans
+ * all cells of a number of in-memory scanners, standing in for the store files of a store, and
+ * reports time and key comparisons per cell for each number of files. See usage for this tool
+ * by running:
+ * <code>$ hbase org.apache.hadoop.hbase.regionserver.KeyValueHeapPerformanceEvaluation -h</code>
+ */
+@InterfaceAudience.Private
+public final class KeyValueHeapPerformanceEvaluation extends Configured implements Tool {
+  static final Log LOG = LogFactory.getLog(KeyValueHeapPerformanceEvaluation.class.getName());
+
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+  private int[] numFiles = new int[] { 1, 2, 5, 10, 20, 50 };
+  private int numCells = 1000000;
+  private int runLength = 1;
+  private int iterations = 5;
+
+  /** Counts the key comparisons done through it */
+  static class CountingComparator extends KVComparator {
+    long count = 0;
+
+    @Override
+    public int compare(Cell left, Cell right) {
+      count++;
+      return super.compare(left, right);
+    }
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    // Process command line args
+    for (int i = 0; i < args.length; i++) {
+      String cmd = args[i];
+      try {
+        if (cmd.equals("-storefiles")) {
+          String[] values = args[++i].split(",");
+          numFiles = new int[values.length];
+          for (int j = 0; j < values.length; j++) {
+            numFiles[j] = Integer.parseInt(values[j].trim());
+          }
+        } else if (cmd.equals("-cells")) {
+          numCells = Integer.parseInt(args[++i]);
+        } else if (cmd.equals("-runLength")) {
+          runLength = Integer.parseInt(args[++i]);
+        } else if (cmd.equals("-iterations")) {
+          iterations = Integer.parseInt(args[++i]);
+        } else if (cmd.equals("-h") || cmd.equals("-help") || cmd.equals("--help")) {
+          printUsageAndExit();
+        } else {
+          System.err.println("UNEXPECTED: " + cmd);
+          printUsageAndExit();
+        }
+      } catch (Exception e) {
+        printUsageAndExit();
+      }
+    }
+
+    List<String> results = new ArrayList<String>();
+    for (int files : numFiles) {
+      List<List<KeyValue>> data = createData(files);
+      results.add(runHeap("heap", files, data, false));
+      results.add(runHeap("losertree", files, data, true));
+    }
+    System.out.println("Summary: " + numCells + " cells in runs of " + runLength +
+      ", best of " + iterations + " scans");
+    for (String r : results) {
+      System.out.println(r);
+    }
+    return 0;
+  }
+
+  /**
+   * @return the cells of each file. Every cell goes to a random file, in runs of cells going to
+   *   the same one.
+   */
+  private List<List<KeyValue>> createData(int files) {
+    Random rand = new Random(files);
+    List<List<KeyValue>> data = new ArrayList<List<KeyValue>>(files);
+    for (int i = 0; i < files; i++) {
+      data.add(new ArrayList<KeyValue>(numCells / files + 1));
+    }
+    int file = 0;
+    for (int i = 0; i < numCells; i++) {
+      if (i % runLength == 0) {
+        file = rand.nextInt(files);
+      }
+      data.get(file).add(new KeyValue(Bytes.toBytes(i), FAMILY, QUALIFIER, 1L, QUALIFIER));
+    }
+    return data;
+  }
+
+  private String runHeap(String name, int files, List<List<KeyValue>> data, boolean loserTree)
+  throws IOException {
+    long bestNs = Long.MAX_VALUE;
+    long comparisons = 0;
+    for (int i = 0; i < iterations; i++) {
+      List<KeyValueScanner> scanners = new ArrayList<KeyValueScanner>(files);
+      for (List<KeyValue> kvs : data) {
+        scanners.add(new CollectionBackedScanner(kvs));
+      }
+      CountingComparator comparator = new CountingComparator();
+      long start = System.nanoTime();
+      KeyValueHeap heap = KeyValueHeap.create(scanners, comparator, loserTree);
+      int count = 0;
+      while (heap.next() != null) {
+        count++;
+      }
+      long elapsed = System.nanoTime() - start;
+      heap.close();
+      if (count != numCells) {
+        throw new IOException("Scanned " + count + " cells, expected " + numCells);
+      }
+      bestNs = Math.min(bestNs, elapsed);
+      comparisons = comparator.count;
+    }
+    String result = String.format("%-9s files=%-4d %.1f ns/cell %.2f comparisons/cell", name,
+      files, (double)bestNs / numCells, (double)comparisons / numCells);
+    LOG.info(result);
+    return result;
+  }
+
+  private void printUsageAndExit() {
+    System.err.printf("Usage: bin/hbase %s [options]\n", getClass().getName());
+    System.err.println(" where [options] are:");
+    System.err.println("  -h|-help            Show this help and exit.");
+    System.err.println("  -storefiles <N,..>  Numbers of files to merge. Default 1,2,5,10,20,50.");
+    System.err.println("  -cells <N>          Number of cells over all files. Default 1000000.");
+    System.err.println("  -runLength <N>      Number of consecutive cells in the same file. " +
+      "Default 1.");
+    System.err.println("  -iterations <N>     Number of scans of each heap. Default 5.");
+    System.err.println("");
+    System.err.println("Examples:");
+    System.err.println("");
+    System.err.println(" To compare the heaps over 100 files with runs of 10 cells:");
+    System.err.println(" $ ./bin/hbase " + getClass().getName() +
+      " -storefiles 100 -runLength 10");
+    System.exit(1);
+  }
+
+  static int innerMain(final String [] args) throws Exception {
+    return ToolRunner.run(HBaseConfiguration.create(), new KeyValueHeapPerformanceEvaluation(),
+      args);
+  }
+
+  public static void main(String[] args) throws Exception {
+     System.exit(innerMain(args));
+  }
+}
@@ -105,6 +105,11 @@ public class MetricsRegionServerWrapperStub implements MetricsRegionServerWrappe
     return 406;
   }
 
+  @Override
+  public long getBlockIndexHeapSize() {
+    return 424;
+  }
+
   @Override
   public long getTotalStaticIndexSize() {
     return 407;
@@ -140,6 +145,16 @@ public class MetricsRegionServerWrapperStub implements MetricsRegionServerWrappe
     return 412;
   }
 
+  @Override
+  public long getCompactionThroughputLimit() {
+    return 425;
+  }
+
+  @Override
+  public long getCompactionThrottledTime() {
+    return 426;
+  }
+
   @Override
   public long getBlockCacheFreeSize() {
     return 413;
@@ -180,6 +195,21 @@ public class MetricsRegionServerWrapperStub implements MetricsRegionServerWrappe
     return 97;
   }
 
+  @Override
+  public long getPrefetchBytesRead() {
+    return 421;
+  }
+
+  @Override
+  public long getPrefetchFilesCompleted() {
+    return 422;
+  }
+
+  @Override
+  public int getPrefetchFilesPending() {
+    return 423;
+  }
+
 
   @Override
   public long getUpdatesBlockedTime() {
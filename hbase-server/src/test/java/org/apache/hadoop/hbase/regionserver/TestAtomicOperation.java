@@ -598,30 +598,33 @@ public class TestAtomicOperation {
     }
 
     @Override
-    public RowLock getRowLock(final byte[] row, boolean waitForLock) throws IOException {
+    public RowLock getRowLock(final byte[] row, boolean waitForLock, boolean shared)
+        throws IOException {
       if (testStep == TestStep.CHECKANDPUT_STARTED) {
         latch.countDown();
       }
-      return new WrappedRowLock(super.getRowLock(row, waitForLock));
+      RowLock rowLock = super.getRowLock(row, waitForLock, shared);
+      return rowLock == null ? null : new WrappedRowLock(rowLock);
     }
     
-    public class WrappedRowLock extends RowLock {
+    public class WrappedRowLock implements RowLock {
+      private final RowLock rowLock;
 
       private WrappedRowLock(RowLock rowLock) {
-        super(rowLock.context);
+        this.rowLock = rowLock;
       }
 
       @Override
       public void release() {
         if (testStep == TestStep.INIT) {
-          super.release();
+          rowLock.release();
           return;
         }
 
         if (testStep == TestStep.PUT_STARTED) {
           try {
             testStep = TestStep.PUT_COMPLETED;
-            super.release();
+            rowLock.release();
             // put has been written to the memstore and the row lock has been released, but the
             // MVCC has not been advanced.  Prior to fixing HBASE-7051, the following order of
             // operations would cause the non-atomicity to show up:
@@ -639,7 +642,7 @@ public class TestAtomicOperation {
           }
         }
         else if (testStep == TestStep.CHECKANDPUT_STARTED) {
-          super.release();
+          rowLock.release();
         }
       }
     }
@@ -143,17 +143,31 @@ public class TestCompoundBloomFilter {
 
   @Test
   public void testCompoundBloomFilter() throws IOException {
+    testCompoundBloomFilter(false);
+  }
+
+  @Test
+  public void testCompoundBlockedBloomFilter() throws IOException {
+    testCompoundBloomFilter(true);
+  }
+
+  private void testCompoundBloomFilter(boolean blocked) throws IOException {
     conf.setBoolean(BloomFilterFactory.IO_STOREFILE_BLOOM_ENABLED, true);
-    for (int t = 0; t < NUM_TESTS; ++t) {
-      conf.setFloat(BloomFilterFactory.IO_STOREFILE_BLOOM_ERROR_RATE,
-          (float) TARGET_ERROR_RATES[t]);
-
-      testIdMsg = "in test #" + t + ":";
-      Random generationRand = new Random(GENERATION_SEED);
-      List<KeyValue> kvs = createSortedKeyValues(generationRand, NUM_KV[t]);
-      BloomType bt = BLOOM_TYPES[t];
-      Path sfPath = writeStoreFile(t, bt, kvs);
-      readStoreFile(t, bt, kvs, sfPath);
+    conf.setBoolean(BloomFilterFactory.IO_STOREFILE_BLOOM_BLOCKED, blocked);
+    try {
+      for (int t = 0; t < NUM_TESTS; ++t) {
+        conf.setFloat(BloomFilterFactory.IO_STOREFILE_BLOOM_ERROR_RATE,
+            (float) TARGET_ERROR_RATES[t]);
+
+        testIdMsg = "in test #" + t + (blocked ? " (blocked):" : ":");
+        Random generationRand = new Random(GENERATION_SEED);
+        List<KeyValue> kvs = createSortedKeyValues(generationRand, NUM_KV[t]);
+        BloomType bt = BLOOM_TYPES[t];
+        Path sfPath = writeStoreFile(t, bt, kvs);
+        readStoreFile(t, bt, kvs, sfPath);
+      }
+    } finally {
+      conf.setBoolean(BloomFilterFactory.IO_STOREFILE_BLOOM_BLOCKED, false);
     }
   }
 
@@ -0,0 +1,161 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.SortedSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.collect.Lists;
+
+import junit.framework.TestCase;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestFlatKeyValueSet extends TestCase {
+  private static final byte [] FAMILY = Bytes.toBytes("f");
+  private static final int TOTAL = 10;
+
+  private static KeyValue kv(int row, String value) {
+    return new KeyValue(Bytes.toBytes(row), FAMILY, Bytes.toBytes("q"), 1L,
+      Bytes.toBytes(value));
+  }
+
+  /** @return a set of rows 0 to TOTAL - 1, built from an older set of the even rows */
+  private FlatKeyValueSet createSet() {
+    KeyValueSkipListSet older = new KeyValueSkipListSet(KeyValue.COMPARATOR);
+    KeyValueSkipListSet newer = new KeyValueSkipListSet(KeyValue.COMPARATOR);
+    for (int i = 0; i < TOTAL; i++) {
+      if (i % 2 == 0) older.add(kv(i, "old"));
+      newer.add(kv(i, "new"));
+    }
+    return FlatKeyValueSet.create(KeyValue.COMPARATOR, Lists.newArrayList(newer, older));
+  }
+
+  public void testCreate() throws Exception {
+    FlatKeyValueSet set = createSet();
+    assertEquals(TOTAL, set.size());
+    int count = 0;
+    for (KeyValue kv: set) {
+      assertEquals(count, Bytes.toInt(kv.getRow()));
+      // The newer set wins where both have the key
+      assertEquals("new", Bytes.toString(kv.getValue()));
+      count++;
+    }
+    assertEquals(TOTAL, count);
+    assertEquals(0, Bytes.toInt(set.first().getRow()));
+    assertEquals(TOTAL - 1, Bytes.toInt(set.last().getRow()));
+    assertTrue(set.contains(kv(3, "")));
+    assertFalse(set.contains(kv(TOTAL, "")));
+
+    // Takes less heap than the skip list accounting of the memstore does
+    long skipListHeap = 0;
+    for (KeyValue kv: set) {
+      skipListHeap += MemStore.heapSizeChange(kv, true);
+    }
+    assertTrue(set.heapSize() + " >= " + skipListHeap, set.heapSize() < skipListHeap);
+  }
+
+  public void testNavigation() throws Exception {
+    FlatKeyValueSet set = createSet();
+    KeyValue five = kv(5, "");
+    assertEquals(5, Bytes.toInt(set.ceiling(five).getRow()));
+    assertEquals(6, Bytes.toInt(set.higher(five).getRow()));
+    assertEquals(5, Bytes.toInt(set.floor(five).getRow()));
+    assertEquals(4, Bytes.toInt(set.lower(five).getRow()));
+    assertNull(set.higher(kv(TOTAL - 1, "")));
+    assertNull(set.lower(kv(0, "")));
+
+    SortedSet<KeyValue> tail = set.tailSet(five);
+    assertEquals(TOTAL - 5, tail.size());
+    assertEquals(5, Bytes.toInt(tail.first().getRow()));
+    NavigableSet<KeyValue> head = set.headSet(five, false);
+    assertEquals(5, head.size());
+    assertEquals(4, Bytes.toInt(head.last().getRow()));
+    Iterator<KeyValue> it = head.descendingIterator();
+    for (int i = 4; i >= 0; i--) {
+      assertEquals(i, Bytes.toInt(it.next().getRow()));
+    }
+    assertFalse(it.hasNext());
+    assertEquals(3, set.subSet(kv(2, ""), five).size());
+    assertTrue(set.tailSet(kv(TOTAL, "")).isEmpty());
+  }
+
+  public void testRemove() throws Exception {
+    FlatKeyValueSet set = createSet();
+    NavigableSet<KeyValue> tail = set.tailSet(kv(5, ""), true);
+    assertTrue(set.remove(kv(5, "")));
+    assertFalse(set.remove(kv(5, "")));
+    // Views share removals
+    assertEquals(TOTAL - 6, tail.size());
+    assertEquals(6, Bytes.toInt(tail.first().getRow()));
+    assertEquals(6, Bytes.toInt(set.ceiling(kv(5, "")).getRow()));
+    assertNull(set.get(kv(5, "")));
+
+    // Removing through an iterator
+    for (Iterator<KeyValue> it = set.iterator(); it.hasNext();) {
+      if (Bytes.toInt(it.next().getRow()) % 2 == 1) it.remove();
+    }
+    assertEquals(TOTAL / 2, set.size());
+    for (KeyValue kv: set) {
+      assertEquals(0, Bytes.toInt(kv.getRow()) % 2);
+    }
+    // Removed entries are left out of sets built from this one
+    FlatKeyValueSet copy = FlatKeyValueSet.create(KeyValue.COMPARATOR, Lists.<SortedSet<KeyValue>>newArrayList(set));
+    assertEquals(TOTAL / 2, copy.size());
+  }
+
+  public void testOffheap() throws Exception {
+    Configuration conf = new Configuration();
+    int chunkSize = conf.getInt(MemStoreLAB.CHUNK_SIZE_KEY, MemStoreLAB.CHUNK_SIZE_DEFAULT);
+    MemStoreLAB offheap = new MemStoreLAB(conf, new MemStoreChunkPool(conf, chunkSize, 4, 0,
+      true));
+    FlatKeyValueSet onheapSet = createSet();
+    FlatKeyValueSet set = FlatKeyValueSet.create(KeyValue.COMPARATOR,
+      Lists.<SortedSet<KeyValue>>newArrayList(onheapSet), offheap);
+    assertEquals(chunkSize, offheap.getChunkBytes());
+    assertEquals(TOTAL, set.size());
+    int count = 0;
+    for (KeyValue kv: set) {
+      assertEquals(count++, Bytes.toInt(kv.getRow()));
+      assertEquals("new", Bytes.toString(kv.getValue()));
+    }
+    assertEquals(7, Bytes.toInt(set.ceiling(kv(7, "")).getRow()));
+    // Only the arrays are left on the heap
+    assertTrue(set.heapSize() < onheapSet.heapSize());
+
+    // Merging it refers to the data already off-heap
+    KeyValueSkipListSet newer = new KeyValueSkipListSet(KeyValue.COMPARATOR);
+    newer.add(kv(TOTAL, "new"));
+    FlatKeyValueSet merged = FlatKeyValueSet.create(KeyValue.COMPARATOR,
+      Lists.<SortedSet<KeyValue>>newArrayList(newer, set), offheap);
+    assertEquals(TOTAL + 1, merged.size());
+    assertEquals(TOTAL, Bytes.toInt(merged.last().getRow()));
+    assertEquals(chunkSize, offheap.getChunkBytes());
+    // and does not bring it back on-heap without an allocator either
+    FlatKeyValueSet copy = FlatKeyValueSet.create(KeyValue.COMPARATOR,
+      Lists.<SortedSet<KeyValue>>newArrayList(set));
+    assertEquals(set.heapSize(), copy.heapSize());
+  }
+}
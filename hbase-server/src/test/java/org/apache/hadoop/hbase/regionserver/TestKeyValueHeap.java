@@ -63,6 +63,13 @@ public class TestKeyValueHeap extends HBaseTestCase {
     col5 = Bytes.toBytes("col5");
   }
 
+  /**
+   * @return the heap under test over the given scanners
+   */
+  protected KeyValueHeap createHeap(List<KeyValueScanner> scanners) throws IOException {
+    return new KeyValueHeap(scanners, KeyValue.COMPARATOR);
+  }
+
   public void testSorted() throws IOException{
     //Cases that need to be checked are:
     //1. The "smallest" KeyValue is in the same scanners as current
@@ -100,8 +107,7 @@ public class TestKeyValueHeap extends HBaseTestCase {
     expected.add(new KeyValue(row2, fam1, col3, data));
 
     //Creating KeyValueHeap
-    KeyValueHeap kvh =
-      new KeyValueHeap(scanners, KeyValue.COMPARATOR);
+    KeyValueHeap kvh = createHeap(scanners);
 
     List<KeyValue> actual = new ArrayList<KeyValue>();
     while(kvh.peek() != null){
@@ -153,8 +159,7 @@ public class TestKeyValueHeap extends HBaseTestCase {
     expected.add(new KeyValue(row2, fam1, col1, data));
 
     //Creating KeyValueHeap
-    KeyValueHeap kvh =
-      new KeyValueHeap(scanners, KeyValue.COMPARATOR);
+    KeyValueHeap kvh = createHeap(scanners);
 
     KeyValue seekKv = new KeyValue(row2, fam1, null, null);
     kvh.seek(seekKv);
@@ -199,7 +204,7 @@ public class TestKeyValueHeap extends HBaseTestCase {
     scanners.add(new Scanner(l4));
 
     //Creating KeyValueHeap
-    KeyValueHeap kvh = new KeyValueHeap(scanners, KeyValue.COMPARATOR);
+    KeyValueHeap kvh = createHeap(scanners);
 
     while(kvh.next() != null);
 
@@ -0,0 +1,115 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.CollectionBackedScanner;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Runs the {@link TestKeyValueHeap} tests against a {@link LoserTreeKeyValueHeap}, and checks it
+ * merges the same as a KeyValueHeap.
+ */
+@Category(SmallTests.class)
+public class TestLoserTreeKeyValueHeap extends TestKeyValueHeap {
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final int ROWS = 300;
+
+  @Override
+  protected KeyValueHeap createHeap(List<KeyValueScanner> scanners) throws IOException {
+    return new LoserTreeKeyValueHeap(scanners, KeyValue.COMPARATOR);
+  }
+
+  public void testCreate() throws IOException {
+    assertEquals(KeyValueHeap.class,
+      KeyValueHeap.create(scanners, KeyValue.COMPARATOR, false).getClass());
+    assertEquals(LoserTreeKeyValueHeap.class,
+      KeyValueHeap.create(scanners, KeyValue.COMPARATOR, true).getClass());
+    KeyValueHeap empty = createHeap(scanners);
+    assertNull(empty.peek());
+    assertNull(empty.next());
+    assertFalse(empty.seek(KeyValue.createFirstOnRow(Bytes.toBytes(0))));
+    assertTrue(empty.getHeap().isEmpty());
+  }
+
+  /**
+   * @return scanners over every row, each cell going to a random scanner
+   */
+  private static List<KeyValueScanner> createScanners(int numScanners, long seed) {
+    Random rand = new Random(seed);
+    List<List<KeyValue>> lists = new ArrayList<List<KeyValue>>();
+    for (int i = 0; i < numScanners; i++) {
+      lists.add(new ArrayList<KeyValue>());
+    }
+    for (int row = 0; row < ROWS; row++) {
+      for (int q = 0; q < 3; q++) {
+        for (long ts = 1; ts <= 2; ts++) {
+          // Runs of cells in the same scanner, as with files written in turn
+          int scanner = (row / (1 + rand.nextInt(5)) + q) % numScanners;
+          lists.get(scanner).add(new KeyValue(Bytes.toBytes(row), FAMILY, Bytes.toBytes(q),
+            ts, Bytes.toBytes(row)));
+        }
+      }
+    }
+    List<KeyValueScanner> result = new ArrayList<KeyValueScanner>();
+    for (List<KeyValue> list : lists) {
+      result.add(new CollectionBackedScanner(list));
+    }
+    return result;
+  }
+
+  public void testSameAsKeyValueHeap() throws IOException {
+    for (int numScanners : new int[] { 1, 2, 3, 7, 20 }) {
+      long seed = numScanners;
+      KeyValueHeap expected = new KeyValueHeap(createScanners(numScanners, seed),
+        KeyValue.COMPARATOR);
+      KeyValueHeap actual = createHeap(createScanners(numScanners, seed));
+      assertEquals(expected.getHeap().size(), actual.getHeap().size());
+      Random rand = new Random(seed);
+      int seeksBack = 5;
+      while (expected.peek() != null) {
+        assertEquals(expected.peek(), actual.peek());
+        int op = rand.nextInt(50);
+        if (op == 0) {
+          // Forward to a later row
+          int row = Math.min(ROWS, Bytes.toInt(expected.peek().getRow()) + rand.nextInt(20));
+          KeyValue key = KeyValue.createFirstOnRow(Bytes.toBytes(row));
+          assertEquals(expected.reseek(key), actual.reseek(key));
+        } else if (op == 1 && seeksBack-- > 0) {
+          // Back to an earlier row
+          int row = rand.nextInt(Bytes.toInt(expected.peek().getRow()) + 1);
+          KeyValue key = KeyValue.createFirstOnRow(Bytes.toBytes(row));
+          assertEquals(expected.seek(key), actual.seek(key));
+        } else {
+          assertEquals(expected.next(), actual.next());
+        }
+      }
+      assertNull(actual.peek());
+      assertNull(actual.next());
+      expected.close();
+      actual.close();
+    }
+  }
+}
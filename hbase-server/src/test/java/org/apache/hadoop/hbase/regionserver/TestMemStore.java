@@ -26,6 +26,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.concurrent.atomic.AtomicReference;
 
 import junit.framework.TestCase;
@@ -474,7 +475,7 @@ public class TestMemStore extends TestCase {
     for (int i = 0; i < snapshotCount; i++) {
       addRows(this.memstore);
       runSnapshot(this.memstore);
-      KeyValueSkipListSet ss = this.memstore.getSnapshot();
+      NavigableSet<KeyValue> ss = this.memstore.getSnapshot();
       assertEquals("History not being cleared", 0, ss.size());
     }
   }
@@ -938,6 +939,87 @@ public class TestMemStore extends TestCase {
     }
   }
 
+  /**
+   * Folds batches of edits into flat segments and checks reads see the same data, the heap
+   * shrinks, segments get merged and a snapshot takes them all.
+   */
+  public void testInMemoryCompaction() throws Exception {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setBoolean(MemStore.INMEMORY_COMPACTION_KEY, true);
+    conf.setLong(MemStore.INMEMORY_COMPACTION_THRESHOLD_KEY, 1);
+    conf.setInt(MemStore.INMEMORY_COMPACTION_MAX_SEGMENTS_KEY, 2);
+    MemStore ms = new MemStore(conf, KeyValue.COMPARATOR);
+    MultiVersionConsistencyControl.resetThreadReadPoint(mvcc);
+    assertFalse(ms.shouldCompactInMemory());
+
+    int total = 0;
+    for (int batch = 1; batch <= 3; batch++) {
+      addRows(ms, batch);
+      total += ROW_COUNT * QUALIFIER_COUNT;
+      long heapSize = ms.heapSize();
+      assertTrue(ms.shouldCompactInMemory());
+      // Only one fold at a time
+      assertFalse(ms.shouldCompactInMemory());
+      MemStore.InMemoryCompaction compaction = ms.compactInMemory();
+      assertNotNull(compaction);
+      assertEquals(0, ms.kvset.size());
+      // Reads see the set being folded
+      assertEquals(total, countKVs(ms));
+      long delta = ms.finishInMemoryCompaction(compaction);
+      assertTrue(delta < 0);
+      assertEquals(heapSize + delta, ms.heapSize());
+      assertEquals(total, countKVs(ms));
+      // The third fold merges the two segments already there
+      assertEquals(batch < 3 ? batch : 1, ms.segments.size());
+    }
+    KeyValue lastOnRow = KeyValue.createLastOnRow(Bytes.toBytes(3));
+    assertEquals(4, Bytes.toInt(ms.getNextRow(lastOnRow).getRow()));
+
+    // Roll back an edit that was folded already
+    KeyValue kv = new KeyValue(Bytes.toBytes(ROW_COUNT), FAMILY, FAMILY, 1, FAMILY);
+    ms.add(kv);
+    assertEquals(total + 1, countKVs(ms));
+    assertTrue(ms.shouldCompactInMemory());
+    ms.finishInMemoryCompaction(ms.compactInMemory());
+    ms.rollback(kv);
+    assertEquals(total, countKVs(ms));
+
+    // A fold that a snapshot overtakes is dropped; the snapshot has everything
+    addRows(ms, 4);
+    total += ROW_COUNT * QUALIFIER_COUNT;
+    assertTrue(ms.shouldCompactInMemory());
+    MemStore.InMemoryCompaction compaction = ms.compactInMemory();
+    ms.snapshot();
+    assertEquals(0, ms.finishInMemoryCompaction(compaction));
+    assertEquals(MemStore.DEEP_OVERHEAD, ms.heapSize());
+    assertTrue(ms.segments.isEmpty());
+    // The snapshot keeps the sets it took until the flusher asks for it; reads see them all
+    assertFalse(ms.snapshot instanceof FlatKeyValueSet);
+    assertFalse(ms.snapshotSegments.isEmpty());
+    assertEquals(total, countKVs(ms));
+    assertEquals(4, Bytes.toInt(ms.getNextRow(lastOnRow).getRow()));
+    NavigableSet<KeyValue> ss = ms.getSnapshot();
+    assertTrue(ss instanceof FlatKeyValueSet);
+    assertTrue(ms.snapshotSegments.isEmpty());
+    assertSame(ss, ms.getSnapshot());
+    assertEquals(total, ss.size());
+    assertEquals(total, countKVs(ms));
+    ms.clearSnapshot(ss);
+    assertEquals(0, countKVs(ms));
+  }
+
+  private static int countKVs(MemStore ms) throws IOException {
+    KeyValueScanner s = ms.getScanners().get(0);
+    int count = 0;
+    try {
+      s.seek(KeyValue.createFirstOnRow(HConstants.EMPTY_START_ROW));
+      while (s.next() != null) count++;
+    } finally {
+      s.close();
+    }
+    return count;
+  }
+
   private class EnvironmentEdgeForMemstoreTest implements EnvironmentEdge {
     long t = 1234;
     @Override
@@ -982,7 +1064,7 @@ public class TestMemStore extends TestCase {
     // Save off old state.
     int oldHistorySize = hmc.getSnapshot().size();
     hmc.snapshot();
-    KeyValueSkipListSet ss = hmc.getSnapshot();
+    NavigableSet<KeyValue> ss = hmc.getSnapshot();
     // Make some assertions about what just happened.
     assertTrue("History size has not increased", oldHistorySize < ss.size());
     long t = memstore.timeOfOldestEdit();
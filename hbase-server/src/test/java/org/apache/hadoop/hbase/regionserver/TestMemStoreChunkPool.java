@@ -19,16 +19,20 @@
 package org.apache.hadoop.hbase.regionserver;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.rmi.UnexpectedException;
 import java.util.List;
+import java.util.NavigableSet;
 import java.util.Random;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.SmallTests;
 import org.apache.hadoop.hbase.regionserver.MemStoreLAB.Allocation;
+import org.apache.hadoop.hbase.util.ByteBufferUtils;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -116,7 +120,7 @@ public class TestMemStoreChunkPool {
 
     // Creating a snapshot
     memstore.snapshot();
-    KeyValueSkipListSet snapshot = memstore.getSnapshot();
+    NavigableSet<KeyValue> snapshot = memstore.getSnapshot();
     assertEquals(3, memstore.snapshot.size());
 
     // Adding value to "new" memstore
@@ -154,7 +158,7 @@ public class TestMemStoreChunkPool {
 
     // Creating a snapshot
     memstore.snapshot();
-    KeyValueSkipListSet snapshot = memstore.getSnapshot();
+    NavigableSet<KeyValue> snapshot = memstore.getSnapshot();
     assertEquals(3, memstore.snapshot.size());
 
     // Adding value to "new" memstore
@@ -198,4 +202,91 @@ public class TestMemStoreChunkPool {
     assertTrue(chunkPool.getPoolSize() > 0);
   }
 
-}
\ No newline at end of file
+
+  @Test
+  public void testOffheapChunks() {
+    int chunkSize = conf.getInt(MemStoreLAB.CHUNK_SIZE_KEY, MemStoreLAB.CHUNK_SIZE_DEFAULT);
+    MemStoreChunkPool offheapPool = new MemStoreChunkPool(conf, chunkSize, 10, 1, true);
+    assertEquals(1, offheapPool.getPoolSize());
+    MemStoreLAB mslab = new MemStoreLAB(conf, offheapPool);
+    try {
+      mslab.allocateBytes(10);
+      fail("On-heap allocation from an off-heap allocator");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    byte[] data = Bytes.toBytes("testdata");
+    Allocation first = mslab.allocateOffheapBytes(data.length);
+    assertNull(first.getData());
+    assertTrue(first.getBuffer().isDirect());
+    assertEquals(0, first.getOffset());
+    ByteBufferUtils.copyFromArrayToBuffer(first.getBuffer(), first.getOffset(), data, 0,
+      data.length);
+    Allocation second = mslab.allocateOffheapBytes(data.length);
+    assertTrue(first.getBuffer() == second.getBuffer());
+    assertEquals(data.length, second.getOffset());
+    byte[] read = new byte[data.length];
+    ByteBufferUtils.copyFromBufferToArray(read, first.getBuffer(), 0, 0, data.length);
+    assertTrue(Bytes.equals(data, read));
+    // The pooled chunk was taken
+    assertEquals(0, offheapPool.getPoolSize());
+    assertEquals(chunkSize, mslab.getChunkBytes());
+    // Until the allocator is closed
+    mslab.close();
+    assertEquals(1, offheapPool.getPoolSize());
+  }
+
+  /**
+   * Folding the memstore with an off-heap chunk pool moves the data off-heap and hands the
+   * on-heap chunks back; a snapshot hands back the off-heap ones once it is flushed.
+   */
+  @Test
+  public void testInMemoryCompactionOffheap() throws Exception {
+    Configuration c = new Configuration(conf);
+    c.setBoolean(MemStore.INMEMORY_COMPACTION_KEY, true);
+    c.setLong(MemStore.INMEMORY_COMPACTION_THRESHOLD_KEY, 1);
+    MemStore memstore = new MemStore(c, KeyValue.COMPARATOR);
+    int chunkSize = c.getInt(MemStoreLAB.CHUNK_SIZE_KEY, MemStoreLAB.CHUNK_SIZE_DEFAULT);
+    MemStoreChunkPool offheapPool = new MemStoreChunkPool(c, chunkSize, 10, 0, true);
+    memstore.offheapChunkPool = offheapPool;
+    memstore.offheapAllocator = new MemStoreLAB(c, offheapPool);
+
+    byte[] fam = Bytes.toBytes("testfamily");
+    byte[] val = Bytes.toBytes("testval");
+    int count = 100;
+    for (int i = 0; i < count; i++) {
+      byte[] row = Bytes.toBytes(i);
+      memstore.add(new KeyValue(row, fam, row, val));
+    }
+    long heapSize = memstore.heapSize();
+    assertTrue(memstore.shouldCompactInMemory());
+    MemStore.InMemoryCompaction compaction = memstore.compactInMemory();
+    long delta = memstore.finishInMemoryCompaction(compaction);
+    assertEquals(chunkSize, compaction.offheapDelta);
+    assertEquals(chunkSize, memstore.getOffheapSize());
+    // The segment keeps no KeyValue data on the heap
+    assertTrue(-delta > count * val.length);
+    assertEquals(heapSize + delta, memstore.heapSize());
+    // The chunk the folded set was written to is back in the pool
+    assertEquals(1, chunkPool.getPoolSize());
+
+    KeyValueScanner scanner = memstore.getScanners().get(0);
+    scanner.seek(KeyValue.createFirstOnRow(new byte[0]));
+    for (int i = 0; i < count; i++) {
+      KeyValue kv = scanner.next();
+      assertEquals(i, Bytes.toInt(kv.getRow()));
+      assertTrue(Bytes.equals(val, kv.getValue()));
+    }
+    assertNull(scanner.next());
+
+    memstore.snapshot();
+    NavigableSet<KeyValue> snapshot = memstore.getSnapshot();
+    assertEquals(0, memstore.getOffheapSize());
+    assertEquals(count, snapshot.size());
+    memstore.clearSnapshot(snapshot);
+    // Not while a scanner reads the off-heap data
+    assertEquals(0, offheapPool.getPoolSize());
+    scanner.close();
+    assertEquals(1, offheapPool.getPoolSize());
+  }
+}
@@ -38,6 +38,10 @@ public class TestMetricsRegion {
     HELPER.assertGauge("table.MetricsRegionWrapperStub.region.DEADBEEF001.storeCount", 101, agg);
     HELPER.assertGauge("table.MetricsRegionWrapperStub.region.DEADBEEF001.storeFileCount", 102, agg);
     HELPER.assertGauge("table.MetricsRegionWrapperStub.region.DEADBEEF001.memstoreSize", 103, agg);
+    mr.updateRowLockWait(10);
+    mr.updateRowLockTimeout();
+    HELPER.assertCounter(
+      "table.MetricsRegionWrapperStub.region.DEADBEEF001.rowLockTimeoutCount", 1, agg);
     mr.close();
   }
 }
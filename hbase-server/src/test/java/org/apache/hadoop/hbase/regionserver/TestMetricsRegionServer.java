@@ -68,6 +68,7 @@ public class TestMetricsRegionServer {
     HELPER.assertCounter("checkMutateFailedCount", 401, serverSource);
     HELPER.assertCounter("checkMutatePassedCount", 405, serverSource);
     HELPER.assertGauge("storeFileIndexSize", 406, serverSource);
+    HELPER.assertGauge("blockIndexHeapSize", 424, serverSource);
     HELPER.assertGauge("staticIndexSize", 407, serverSource);
     HELPER.assertGauge("staticBloomSize", 408, serverSource);
     HELPER.assertGauge("mutationsWithoutWALCount", 409, serverSource);
@@ -75,6 +76,8 @@ public class TestMetricsRegionServer {
     HELPER.assertGauge("percentFilesLocal", 99, serverSource);
     HELPER.assertGauge("compactionQueueLength", 411, serverSource);
     HELPER.assertGauge("flushQueueLength", 412, serverSource);
+    HELPER.assertGauge("compactionThroughputLimit", 425, serverSource);
+    HELPER.assertCounter("compactionThrottledTime", 426, serverSource);
     HELPER.assertGauge("blockCacheFreeSize", 413, serverSource);
     HELPER.assertGauge("blockCacheCount", 414, serverSource);
     HELPER.assertGauge("blockCacheSize", 415, serverSource);
@@ -84,6 +87,9 @@ public class TestMetricsRegionServer {
     HELPER.assertGauge("blockCountHitPercent", 98, serverSource);
     HELPER.assertGauge("blockCacheExpressHitPercent", 97, serverSource);
     HELPER.assertCounter("updatesBlockedTime", 419, serverSource);
+    HELPER.assertCounter("prefetchBytesRead", 421, serverSource);
+    HELPER.assertCounter("prefetchFilesCompleted", 422, serverSource);
+    HELPER.assertGauge("prefetchFilesPending", 423, serverSource);
   }
 
   @Test
@@ -128,5 +134,15 @@ public class TestMetricsRegionServer {
     HELPER.assertCounter("slowIncrementCount", 15, serverSource);
     HELPER.assertCounter("slowPutCount", 16, serverSource);
   }
+
+  @Test
+  public void testFlushTimes() {
+    rsm.updateFlushTime(100);
+    for (int i = 0; i < 3; i++) {
+      rsm.updateStoreFlushTime(30 + i);
+    }
+    HELPER.assertCounter("flushTimeNumOps", 1, serverSource);
+    HELPER.assertCounter("storeFlushTimeNumOps", 3, serverSource);
+  }
 }
 
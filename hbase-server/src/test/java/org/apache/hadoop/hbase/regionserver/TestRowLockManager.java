@@ -0,0 +1,179 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.regionserver.HRegion.RowLock;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestRowLockManager {
+  private static final byte[] ROW = Bytes.toBytes("row");
+
+  private ExecutorService otherThread;
+
+  @Before
+  public void setUp() {
+    otherThread = Executors.newSingleThreadExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    otherThread.shutdownNow();
+  }
+
+  private static RowLockManager createManager(Class<? extends RowLockManager> clazz) {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setClass(RowLockManager.ROW_LOCK_MANAGER_CLASS_KEY, clazz, RowLockManager.class);
+    conf.setInt(RowLockManager.ROW_LOCK_WAIT_DURATION_KEY, 100);
+    RowLockManager manager = RowLockManager.create(conf);
+    assertEquals(clazz, manager.getClass());
+    return manager;
+  }
+
+  /**
+   * @return whether another thread could take the lock of the row without waiting
+   */
+  private boolean tryLockInOtherThread(final RowLockManager manager, final byte[] row,
+      final boolean shared) throws Exception {
+    return otherThread.submit(new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws IOException {
+        RowLock lock = manager.getRowLock(row, shared, false);
+        if (lock == null) return false;
+        lock.release();
+        return true;
+      }
+    }).get();
+  }
+
+  @Test
+  public void testDefault() throws Exception {
+    assertEquals(PerRowLockManager.class,
+      RowLockManager.create(HBaseConfiguration.create()).getClass());
+    RowLockManager manager = createManager(PerRowLockManager.class);
+    RowLock lock = manager.getRowLock(ROW, true, true);
+    // Shared locks are exclusive
+    assertFalse(tryLockInOtherThread(manager, ROW, true));
+    assertTrue(tryLockInOtherThread(manager, Bytes.toBytes("other"), false));
+    lock.release();
+    lock.release();
+    assertTrue(tryLockInOtherThread(manager, ROW, false));
+  }
+
+  @Test
+  public void testExclusive() throws Exception {
+    RowLockManager manager = createManager(StripedRowLockManager.class);
+    RowLock lock = manager.getRowLock(ROW, false, true);
+    assertNotNull(lock);
+    // Reentrant, and the same lock is handed out again
+    RowLock again = manager.getRowLock(ROW, false, false);
+    assertSame(lock, again);
+    assertFalse(tryLockInOtherThread(manager, ROW, false));
+    assertFalse(tryLockInOtherThread(manager, ROW, true));
+    again.release();
+    assertFalse(tryLockInOtherThread(manager, ROW, false));
+    lock.release();
+    assertTrue(tryLockInOtherThread(manager, ROW, false));
+  }
+
+  @Test
+  public void testShared() throws Exception {
+    RowLockManager manager = createManager(StripedRowLockManager.class);
+    RowLock lock = manager.getRowLock(ROW, true, true);
+    assertTrue(tryLockInOtherThread(manager, ROW, true));
+    assertFalse(tryLockInOtherThread(manager, ROW, false));
+    lock.release();
+    assertTrue(tryLockInOtherThread(manager, ROW, false));
+
+    // The holder of an exclusive lock may also take a shared one
+    lock = manager.getRowLock(ROW, false, true);
+    RowLock shared = manager.getRowLock(ROW, true, false);
+    assertNotNull(shared);
+    shared.release();
+    lock.release();
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    final RowLockManager manager = createManager(StripedRowLockManager.class);
+    RowLock lock = manager.getRowLock(ROW, false, true);
+    try {
+      otherThread.submit(new Callable<RowLock>() {
+        @Override
+        public RowLock call() throws IOException {
+          return manager.getRowLock(ROW, true, true);
+        }
+      }).get();
+      fail("Expected a timeout");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    } finally {
+      lock.release();
+    }
+  }
+
+  @Test
+  public void testStripes() throws Exception {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setInt(StripedRowLockManager.STRIPES_KEY, 100);
+    StripedRowLockManager manager = new StripedRowLockManager();
+    manager.setConf(conf);
+    assertEquals(128, manager.getNumStripes());
+    conf.setInt(StripedRowLockManager.STRIPES_KEY, 1);
+    manager.setConf(conf);
+    assertEquals(1, manager.getNumStripes());
+    // Every row shares the one stripe
+    RowLock lock = manager.getRowLock(ROW, false, true);
+    assertFalse(tryLockInOtherThread(manager, Bytes.toBytes("other"), false));
+    lock.release();
+
+    manager.setConf(HBaseConfiguration.create());
+    assertEquals(StripedRowLockManager.DEFAULT_STRIPES, manager.getNumStripes());
+    List<byte[]> rows = new ArrayList<byte[]>();
+    for (int i = 0; i < 100; i++) {
+      rows.add(Bytes.toBytes(i));
+    }
+    List<byte[]> ordered = manager.orderForLocking(rows);
+    assertEquals(rows.size(), ordered.size());
+    for (int i = 1; i < ordered.size(); i++) {
+      assertTrue(manager.getStripe(ordered.get(i - 1)) <= manager.getStripe(ordered.get(i)));
+    }
+  }
+}
@@ -0,0 +1,158 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.monitoring.MonitoredTask;
+import org.apache.hadoop.hbase.util.Threads;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+@Category(SmallTests.class)
+public class TestStoreFlushExecutor {
+  private StoreFlushExecutor executor;
+  private MonitoredTask status;
+
+  @Before
+  public void setUp() {
+    // The default configuration, which must allow a second store to be written concurrently.
+    executor = new StoreFlushExecutor(
+        StoreFlushExecutor.getStoreFlushThreads(HBaseConfiguration.create()),
+        Threads.newDaemonThreadFactory("TestStoreFlushExecutor"), null);
+    status = Mockito.mock(MonitoredTask.class);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  @Test
+  public void testStoresAreWrittenConcurrently() throws Exception {
+    // Each store waits until both are being written.
+    final CountDownLatch allStarted = new CountDownLatch(2);
+    List<StoreFlushContext> flushes = new ArrayList<StoreFlushContext>();
+    for (int i = 0; i < 2; i++) {
+      flushes.add(createFlush(new Answer<Void>() {
+        @Override
+        public Void answer(InvocationOnMock invocation) throws Throwable {
+          allStarted.countDown();
+          if (!allStarted.await(30, TimeUnit.SECONDS)) {
+            throw new IOException("Stores were not written concurrently");
+          }
+          return null;
+        }
+      }));
+    }
+    assertEquals(2, executor.flushStores(flushes, status).length);
+    for (StoreFlushContext flush : flushes) {
+      Mockito.verify(flush).flushCache(status);
+    }
+  }
+
+  @Test
+  public void testFailureWaitsForAllStores() throws Exception {
+    List<StoreFlushContext> flushes = new ArrayList<StoreFlushContext>();
+    flushes.add(createFlush(null));
+    flushes.add(createFlush(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        throw new IOException("injected");
+      }
+    }));
+    flushes.add(createFlush(null));
+    try {
+      executor.flushStores(flushes, status);
+      fail("The failure of a store should fail the flush");
+    } catch (IOException e) {
+      assertEquals("injected", e.getMessage());
+    }
+    for (StoreFlushContext flush : flushes) {
+      Mockito.verify(flush).flushCache(status);
+    }
+  }
+
+  @Test
+  public void testNoThreadsWritesInCallingThread() throws Exception {
+    StoreFlushExecutor noThreads = new StoreFlushExecutor(0,
+        Threads.newDaemonThreadFactory("TestStoreFlushExecutor"), null);
+    final Thread caller = Thread.currentThread();
+    Answer<Void> checkThread = new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        if (Thread.currentThread() != caller) {
+          throw new IOException("Store written by " + Thread.currentThread());
+        }
+        return null;
+      }
+    };
+    List<StoreFlushContext> flushes = new ArrayList<StoreFlushContext>();
+    flushes.add(createFlush(checkThread));
+    flushes.add(createFlush(checkThread));
+    try {
+      assertEquals(2, noThreads.flushStores(flushes, status).length);
+    } finally {
+      noThreads.shutdown();
+    }
+  }
+
+  @Test
+  public void testSequentialFlush() throws Exception {
+    List<StoreFlushContext> flushes = new ArrayList<StoreFlushContext>();
+    flushes.add(createFlush(null));
+    flushes.add(createFlush(null));
+    long[] flushTimes = StoreFlushExecutor.flushStoresSequentially(flushes, status);
+    assertEquals(2, flushTimes.length);
+    assertTrue(flushTimes[0] >= 0 && flushTimes[1] >= 0);
+  }
+
+  @Test
+  public void testStoreFlushThreads() {
+    Configuration conf = HBaseConfiguration.create();
+    assertEquals(Runtime.getRuntime().availableProcessors(),
+        StoreFlushExecutor.getStoreFlushThreads(conf));
+    conf.setInt(StoreFlushExecutor.STORE_FLUSH_THREADS_KEY, 0);
+    assertEquals(0, StoreFlushExecutor.getStoreFlushThreads(conf));
+  }
+
+  private static StoreFlushContext createFlush(Answer<Void> answer) throws IOException {
+    StoreFlushContext flush = Mockito.mock(StoreFlushContext.class);
+    if (answer != null) {
+      Mockito.doAnswer(answer).when(flush).flushCache(Mockito.any(MonitoredTask.class));
+    }
+    return flush;
+  }
+}
@@ -0,0 +1,194 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+@Category(SmallTests.class)
+public class TestStripeMultiFileWriter {
+  private static final byte[] OPEN = StripeStoreFileManager.OPEN_KEY;
+  private static final byte[] B = Bytes.toBytes("b");
+  private static final byte[] D = Bytes.toBytes("d");
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+
+  private final List<FakeWriter> created = new ArrayList<FakeWriter>();
+
+  @Test
+  public void testBoundaryWriterCutsAtStripeBoundaries() throws Exception {
+    StripeMultiFileWriter mw = init(new StripeMultiFileWriter.BoundaryMultiWriter(
+        Arrays.asList(OPEN, B, D, OPEN), false));
+    for (KeyValue kv : kvs("a", "a", "b", "c", "d", "e")) {
+      mw.append(kv);
+    }
+    assertEquals(3, mw.commitWriters(10, false).size());
+    assertEquals(3, created.size());
+    created.get(0).assertFile(OPEN, B, "a", "a");
+    created.get(1).assertFile(B, D, "b", "c");
+    created.get(2).assertFile(D, OPEN, "d", "e");
+  }
+
+  @Test
+  public void testBoundaryWriterSkipsOrWritesEmptyStripes() throws Exception {
+    StripeMultiFileWriter mw = init(new StripeMultiFileWriter.BoundaryMultiWriter(
+        Arrays.asList(OPEN, B, D, OPEN), false));
+    mw.append(kvs("c").get(0));
+    assertEquals(1, mw.commitWriters(10, false).size());
+    created.get(0).assertFile(B, D, "c");
+
+    created.clear();
+    mw = init(new StripeMultiFileWriter.BoundaryMultiWriter(
+        Arrays.asList(OPEN, B, D, OPEN), true));
+    mw.append(kvs("c").get(0));
+    assertEquals(3, mw.commitWriters(10, false).size());
+    created.get(0).assertFile(OPEN, B);
+    created.get(1).assertFile(B, D, "c");
+    created.get(2).assertFile(D, OPEN);
+  }
+
+  @Test
+  public void testBoundaryWriterRejectsRowsOutsideStripes() throws Exception {
+    StripeMultiFileWriter mw = init(new StripeMultiFileWriter.BoundaryMultiWriter(
+        Arrays.asList(B, D), false));
+    try {
+      mw.append(kvs("a").get(0));
+      fail("Row before the first stripe");
+    } catch (IOException e) {
+      // expected
+    }
+    mw = init(new StripeMultiFileWriter.BoundaryMultiWriter(Arrays.asList(B, D), false));
+    try {
+      mw.append(kvs("d").get(0));
+      fail("Row after the last stripe");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testSizeWriterCutsAtRowBoundaries() throws Exception {
+    List<KeyValue> kvs = kvs("a", "a", "b", "c");
+    // Every cell fills a file, but both cells of a row go into the same one.
+    StripeMultiFileWriter mw = init(
+        new StripeMultiFileWriter.SizeMultiWriter(OPEN, OPEN, kvs.get(0).getLength()));
+    for (KeyValue kv : kvs) {
+      mw.append(kv);
+    }
+    assertEquals(3, mw.commitWriters(10, true).size());
+    created.get(0).assertFile(OPEN, B, "a", "a");
+    created.get(1).assertFile(B, Bytes.toBytes("c"), "b");
+    created.get(2).assertFile(Bytes.toBytes("c"), OPEN, "c");
+  }
+
+  @Test
+  public void testSizeWriterKeepsRangeWithoutCells() throws Exception {
+    StripeMultiFileWriter mw = init(new StripeMultiFileWriter.SizeMultiWriter(B, D, 1));
+    assertEquals(1, mw.commitWriters(10, true).size());
+    created.get(0).assertFile(B, D);
+  }
+
+  @Test
+  public void testAbortClosesAllWriters() throws Exception {
+    StripeMultiFileWriter mw = init(new StripeMultiFileWriter.BoundaryMultiWriter(
+        Arrays.asList(OPEN, B, OPEN), false));
+    for (KeyValue kv : kvs("a", "b")) {
+      mw.append(kv);
+    }
+    mw.abortWriters(Mockito.mock(FileSystem.class));
+    assertEquals(2, created.size());
+    for (FakeWriter writer : created) {
+      Mockito.verify(writer.writer).close();
+    }
+  }
+
+  private StripeMultiFileWriter init(StripeMultiFileWriter mw) {
+    mw.init(new StripeMultiFileWriter.WriterFactory() {
+      @Override
+      public StoreFile.Writer createWriter() throws IOException {
+        FakeWriter writer = new FakeWriter();
+        created.add(writer);
+        return writer.writer;
+      }
+    }, new KeyValue.KVComparator());
+    return mw;
+  }
+
+  private static List<KeyValue> kvs(String... rows) {
+    List<KeyValue> kvs = new ArrayList<KeyValue>();
+    for (int i = 0; i < rows.length; ++i) {
+      kvs.add(new KeyValue(Bytes.toBytes(rows[i]), FAMILY, Bytes.toBytes("q" + i),
+          Bytes.toBytes("value")));
+    }
+    return kvs;
+  }
+
+  /** A mocked writer that records the cells and file info appended to it */
+  private static class FakeWriter {
+    final StoreFile.Writer writer = Mockito.mock(StoreFile.Writer.class);
+    final List<KeyValue> kvs = new ArrayList<KeyValue>();
+    final Map<byte[], byte[]> fileInfo = new TreeMap<byte[], byte[]>(Bytes.BYTES_COMPARATOR);
+
+    FakeWriter() throws IOException {
+      Mockito.doAnswer(new Answer<Void>() {
+        @Override
+        public Void answer(InvocationOnMock invocation) throws Throwable {
+          kvs.add((KeyValue) invocation.getArguments()[0]);
+          return null;
+        }
+      }).when(writer).append(Mockito.any(KeyValue.class));
+      Mockito.doAnswer(new Answer<Void>() {
+        @Override
+        public Void answer(InvocationOnMock invocation) throws Throwable {
+          Object[] args = invocation.getArguments();
+          fileInfo.put((byte[]) args[0], (byte[]) args[1]);
+          return null;
+        }
+      }).when(writer).appendFileInfo(Mockito.any(byte[].class), Mockito.any(byte[].class));
+    }
+
+    void assertFile(byte[] startRow, byte[] endRow, String... rows) throws IOException {
+      assertTrue(Bytes.equals(startRow, fileInfo.get(StripeStoreFileManager.STRIPE_START_KEY)));
+      assertTrue(Bytes.equals(endRow, fileInfo.get(StripeStoreFileManager.STRIPE_END_KEY)));
+      assertEquals(rows.length, kvs.size());
+      for (int i = 0; i < rows.length; ++i) {
+        assertEquals(rows[i], Bytes.toString(kvs.get(i).getRow()));
+      }
+      Mockito.verify(writer).appendMetadata(Mockito.eq(10L), Mockito.anyBoolean());
+      Mockito.verify(writer).close();
+    }
+  }
+}
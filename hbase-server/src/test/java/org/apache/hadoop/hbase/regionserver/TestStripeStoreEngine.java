@@ -0,0 +1,178 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.regionserver.compactions.StripeCompactionPolicy;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Flushes and compacts a region whose store uses {@link StripeStoreEngine}, going through
+ * {@link StripeStoreFlusher}, {@link StripeCompactionPolicy} and the stripe compactor.
+ */
+@Category(MediumTests.class)
+public class TestStripeStoreEngine {
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+  private static final int ROWS = 100;
+  private static final int VALUE_SIZE = 100;
+
+  private HRegion region;
+  private HStore store;
+
+  @Before
+  public void setUp() throws IOException {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.set(StoreEngine.STORE_ENGINE_CLASS_KEY, StripeStoreEngine.class.getName());
+    conf.setInt(StripeCompactionPolicy.MIN_FILES_L0_KEY, 2);
+    conf.setInt(StripeCompactionPolicy.MIN_FILES_KEY, 2);
+    // The first compaction cuts the rows into stripes of a quarter of this size, several of them.
+    conf.setLong(StripeCompactionPolicy.SIZE_TO_SPLIT_KEY, ROWS * VALUE_SIZE / 2);
+    HTableDescriptor htd = new HTableDescriptor(TableName.valueOf("TestStripeStoreEngine"));
+    htd.addFamily(new HColumnDescriptor(FAMILY));
+    HRegionInfo info = new HRegionInfo(htd.getTableName(), null, null, false);
+    region = HRegion.createHRegion(info, TEST_UTIL.getDataTestDir(), conf, htd);
+    store = (HStore) region.getStore(FAMILY);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    HRegion.closeHRegion(region);
+  }
+
+  @Test
+  public void testFlushThenCompact() throws Exception {
+    // Without stripes each flush goes into a single L0 file.
+    putRows(0);
+    region.flushcache();
+    putRows(1);
+    region.flushcache();
+    StripeStoreFileManager.Stripes stripes = getStripes();
+    assertEquals(0, stripes.getStripeCount());
+    assertEquals(2, stripes.getLevel0Files().size());
+
+    // Compacting L0 cuts the store into its first stripes.
+    region.compactStores();
+    stripes = getStripes();
+    int stripeCount = stripes.getStripeCount();
+    assertTrue("Only " + stripeCount + " stripes", stripeCount > 1);
+    assertEquals(0, stripes.getLevel0Files().size());
+    assertEquals(stripeCount, store.getStorefilesCount());
+    verifyRows(1, -1);
+
+    // Once there are stripes, a flush writes one file per stripe and skips L0.
+    putRows(2);
+    region.flushcache();
+    stripes = getStripes();
+    assertEquals(stripeCount, stripes.getStripeCount());
+    assertEquals(0, stripes.getLevel0Files().size());
+    for (int i = 0; i < stripeCount; ++i) {
+      assertEquals(2, stripes.getStripeFiles(i).size());
+    }
+
+    // A stripe compaction rewrites one stripe, possibly splitting it, and drops deletes as
+    // L0 is empty. The other stripes are left alone.
+    int deleted = ROWS / 2;
+    region.delete(new Delete(row(deleted)));
+    region.flushcache();
+    stripes = getStripes();
+    assertEquals(3, stripes.getStripeFiles(stripes.findStripe(row(deleted))).size());
+    region.compactStores();
+    stripes = getStripes();
+    assertEquals(0, stripes.getLevel0Files().size());
+    int untouched = 0;
+    for (int i = 0; i < stripes.getStripeCount(); ++i) {
+      if (stripes.getStripeFiles(i).size() == 2) untouched++;
+    }
+    assertEquals(stripeCount - 1, untouched);
+    List<StoreFile> compacted = stripes.getStripeFiles(stripes.findStripe(row(deleted)));
+    assertEquals(1, compacted.size());
+    assertNoCellsOfRow(compacted.get(0), row(deleted));
+    verifyRows(2, deleted);
+  }
+
+  private StripeStoreFileManager.Stripes getStripes() {
+    return ((StripeStoreFileManager) store.storeEngine.getStoreFileManager()).getStripes();
+  }
+
+  private static byte[] row(int i) {
+    return Bytes.toBytes(String.format("row%04d", i));
+  }
+
+  private static byte[] value(int version, int i) {
+    byte[] value = new byte[VALUE_SIZE];
+    Bytes.putInt(value, 0, version);
+    Bytes.putInt(value, Bytes.SIZEOF_INT, i);
+    return value;
+  }
+
+  private void putRows(int version) throws IOException {
+    for (int i = 0; i < ROWS; ++i) {
+      Put put = new Put(row(i));
+      put.add(FAMILY, QUALIFIER, value(version, i));
+      region.put(put);
+    }
+  }
+
+  private void verifyRows(int version, int deleted) throws IOException {
+    for (int i = 0; i < ROWS; ++i) {
+      Result result = region.get(new Get(row(i)));
+      if (i == deleted) {
+        assertTrue(result.isEmpty());
+      } else {
+        assertTrue(Bytes.equals(value(version, i), result.getValue(FAMILY, QUALIFIER)));
+      }
+    }
+  }
+
+  private static void assertNoCellsOfRow(StoreFile sf, byte[] row) throws IOException {
+    StoreFileScanner scanner = sf.getReader().getStoreFileScanner(false, false);
+    try {
+      scanner.seek(KeyValue.LOWESTKEY);
+      for (KeyValue kv = scanner.next(); kv != null; kv = scanner.next()) {
+        assertFalse("Cell of deleted row in " + sf, Bytes.equals(row, kv.getRow()));
+      }
+    } finally {
+      scanner.close();
+    }
+  }
+}
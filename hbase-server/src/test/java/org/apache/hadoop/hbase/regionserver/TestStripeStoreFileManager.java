@@ -0,0 +1,183 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionRequest;
+import org.apache.hadoop.hbase.regionserver.compactions.StripeCompactionPolicy;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.Mockito;
+
+@Category(SmallTests.class)
+public class TestStripeStoreFileManager {
+  private static final byte[] OPEN = StripeStoreFileManager.OPEN_KEY;
+  private static final byte[] B = Bytes.toBytes("b");
+  private static final byte[] C = Bytes.toBytes("c");
+  private static final byte[] D = Bytes.toBytes("d");
+
+  private long nextSeqId = 1;
+
+  @Test
+  public void testLoadFiles() throws Exception {
+    StripeStoreFileManager manager = createManager();
+    StoreFile first = createFile(OPEN, B);
+    StoreFile second = createFile(B, D);
+    StoreFile last = createFile(D, OPEN);
+    StoreFile bulkLoaded = createFile(null, null);
+    manager.loadFiles(list(last, bulkLoaded, second, first));
+
+    StripeStoreFileManager.Stripes stripes = manager.getStripes();
+    assertEquals(3, stripes.getStripeCount());
+    assertEquals(list(bulkLoaded), stripes.getLevel0Files());
+    assertEquals(list(second), stripes.getStripeFiles(1));
+    assertEquals(0, stripes.findStripe(Bytes.toBytes("a")));
+    assertEquals(1, stripes.findStripe(B));
+    assertEquals(1, stripes.findStripe(C));
+    assertEquals(2, stripes.findStripe(D));
+    assertEquals(4, manager.getStorefileCount());
+
+    Collection<StoreFile> forGet = manager.getFilesForScanOrGet(true, C, C);
+    assertEquals(2, forGet.size());
+    assertTrue(forGet.contains(bulkLoaded) && forGet.contains(second));
+    Collection<StoreFile> forScan = manager.getFilesForScanOrGet(false, C, OPEN);
+    assertEquals(3, forScan.size());
+    assertFalse(forScan.contains(first));
+  }
+
+  @Test
+  public void testOverlappingRangesGoToLevel0() throws Exception {
+    StripeStoreFileManager manager = createManager();
+    StoreFile stripe = createFile(B, D);
+    StoreFile overlapping = createFile(C, OPEN);
+    StoreFile empty = createFile(D, B);
+    manager.loadFiles(list(stripe, overlapping, empty));
+
+    StripeStoreFileManager.Stripes stripes = manager.getStripes();
+    assertEquals(2, stripes.getStripeCount());
+    assertEquals(list(stripe), stripes.getStripeFiles(0));
+    assertTrue(stripes.getStripeFiles(1).isEmpty());
+    assertEquals(2, stripes.getLevel0Files().size());
+  }
+
+  @Test
+  public void testInsertAndCompact() throws Exception {
+    StripeStoreFileManager manager = createManager();
+    StoreFile first = createFile(OPEN, B);
+    StoreFile last = createFile(B, OPEN);
+    manager.loadFiles(list(first, last));
+
+    StoreFile flushed = createFile(B, OPEN);
+    StoreFile level0 = createFile(null, null);
+    manager.insertNewFile(flushed);
+    manager.insertNewFile(level0);
+    StripeStoreFileManager.Stripes stripes = manager.getStripes();
+    assertEquals(list(last, flushed), stripes.getStripeFiles(1));
+    assertEquals(list(level0), stripes.getLevel0Files());
+
+    // Split the last stripe in two.
+    StoreFile split1 = createFile(B, D);
+    StoreFile split2 = createFile(D, OPEN);
+    manager.addCompactionResults(list(last, flushed), list(split1, split2));
+    stripes = manager.getStripes();
+    assertEquals(3, stripes.getStripeCount());
+    assertEquals(list(first), stripes.getStripeFiles(0));
+    assertEquals(list(split2), stripes.getStripeFiles(2));
+    assertEquals(list(level0), stripes.getLevel0Files());
+    assertTrue(Bytes.equals(D, stripes.getStartRow(2)));
+  }
+
+  @Test
+  public void testCompactionSelection() throws Exception {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setInt(StripeCompactionPolicy.MIN_FILES_L0_KEY, 2);
+    conf.setInt(StripeCompactionPolicy.MIN_FILES_KEY, 3);
+    StripeStoreFileManager manager = new StripeStoreFileManager(new KeyValue.KVComparator(), conf);
+    StoreConfigInformation sci = Mockito.mock(StoreConfigInformation.class);
+    Mockito.when(sci.getMemstoreFlushSize()).thenReturn(128L * 1024 * 1024);
+    StripeCompactionPolicy policy = new StripeCompactionPolicy(conf, sci, manager);
+
+    StoreFile l0a = createFile(null, null);
+    StoreFile first = createFile(OPEN, B);
+    StoreFile last1 = createFile(B, OPEN);
+    StoreFile last2 = createFile(B, OPEN);
+    StoreFile last3 = createFile(B, OPEN);
+    manager.loadFiles(list(l0a, first, last1, last2, last3));
+    List<StoreFile> none = Collections.emptyList();
+
+    // One L0 file is not enough; the last stripe has enough files.
+    CompactionRequest request = policy.selectCompaction(none, false, false);
+    assertEquals(list(last1, last2, last3), new ArrayList<StoreFile>(request.getFiles()));
+    assertFalse(((StripeCompactionPolicy.StripeCompactionRequest) request).isDropDeletes());
+
+    // Enough L0 files take precedence, unless they are compacting.
+    StoreFile l0b = createFile(null, null);
+    manager.insertNewFile(l0b);
+    request = policy.selectCompaction(none, false, false);
+    assertEquals(list(l0a, l0b), new ArrayList<StoreFile>(request.getFiles()));
+    request = policy.selectCompaction(list(l0a), false, false);
+    assertEquals(3, request.getFiles().size());
+    assertTrue(policy.needsCompaction(manager.getStorefiles(), list(l0a)));
+    assertFalse(policy.needsCompaction(manager.getStorefiles(), list(l0a, last1)));
+    assertTrue(policy.selectCompaction(list(l0a, last1), false, false).getFiles().isEmpty());
+
+    // A forced major compaction rewrites everything and drops deletes.
+    request = policy.selectCompaction(none, true, true);
+    assertEquals(6, request.getFiles().size());
+    assertTrue(((StripeCompactionPolicy.StripeCompactionRequest) request).isDropDeletes());
+  }
+
+  private static StripeStoreFileManager createManager() {
+    return new StripeStoreFileManager(new KeyValue.KVComparator(),
+        HBaseConfiguration.create());
+  }
+
+  private StoreFile createFile(byte[] startRow, byte[] endRow) {
+    long seqId = nextSeqId++;
+    StoreFile sf = Mockito.mock(StoreFile.class);
+    StoreFile.Reader reader = Mockito.mock(StoreFile.Reader.class);
+    Mockito.when(reader.length()).thenReturn(1024L);
+    Mockito.when(sf.getReader()).thenReturn(reader);
+    Mockito.when(sf.getMaxSequenceId()).thenReturn(seqId);
+    Mockito.when(sf.getPath()).thenReturn(new Path("/store/file" + seqId));
+    Mockito.when(sf.getMetadataValue(StripeStoreFileManager.STRIPE_START_KEY))
+        .thenReturn(startRow);
+    Mockito.when(sf.getMetadataValue(StripeStoreFileManager.STRIPE_END_KEY)).thenReturn(endRow);
+    return sf;
+  }
+
+  private static List<StoreFile> list(StoreFile... files) {
+    return new ArrayList<StoreFile>(Arrays.asList(files));
+  }
+}
@@ -0,0 +1,247 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionProgress;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionThroughputController;
+import org.apache.hadoop.hbase.regionserver.compactions.DefaultCompactor;
+import org.apache.hadoop.hbase.regionserver.compactions.RatioBasedCompactionPolicy;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Runs major compactions that {@link DefaultCompactor} splits into row ranges through a region.
+ */
+@Category(MediumTests.class)
+public class TestSubCompactions {
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+  private static final int ROWS = 2000;
+  private static final int VALUE_SIZE = 100;
+
+  private HRegion region;
+  private HStore store;
+
+  @After
+  public void tearDown() throws IOException {
+    if (region != null) {
+      HRegion.closeHRegion(region);
+    }
+  }
+
+  @Test
+  public void testRangesAreDisjointAndComplete() throws Exception {
+    createRegion(DefaultCompactor.class, "testRangesAreDisjointAndComplete");
+    loadFiles();
+    region.compactStores(true);
+
+    List<StoreFile> files = sortByFirstKey(store.getStorefiles());
+    assertTrue("Only " + files.size() + " files", files.size() > 1);
+    long entries = 0;
+    for (int i = 0; i < files.size(); ++i) {
+      StoreFile.Reader reader = files.get(i).getReader();
+      entries += reader.getEntries();
+      if (i > 0) {
+        // Each range starts past the last row of the one before it.
+        byte[] lastRow = getRow(files.get(i - 1).getReader().getLastKey());
+        byte[] firstRow = getRow(reader.getFirstKey());
+        assertTrue(Bytes.toString(lastRow) + " not before " + Bytes.toString(firstRow),
+            Bytes.compareTo(lastRow, firstRow) < 0);
+      }
+    }
+    assertEquals(Bytes.toString(row(0)),
+        Bytes.toString(getRow(files.get(0).getReader().getFirstKey())));
+    assertEquals(Bytes.toString(row(ROWS - 1)),
+        Bytes.toString(getRow(files.get(files.size() - 1).getReader().getLastKey())));
+    // One cell per live row; the older versions and the deleted rows are gone.
+    assertEquals(ROWS - ROWS / 10, entries);
+    verifyRows();
+  }
+
+  @Test
+  public void testFailedRangeDeletesAllFiles() throws Exception {
+    createRegion(FailingCompactor.class, "testFailedRangeDeletesAllFiles");
+    loadFiles();
+    List<StoreFile> before = sortByFirstKey(store.getStorefiles());
+    FailingCompactor.ranges.set(0);
+    try {
+      region.compactStores(true);
+      fail("The failure of a range should fail the compaction");
+    } catch (IOException e) {
+      assertEquals("injected", e.getMessage());
+    }
+    assertTrue(FailingCompactor.ranges.get() > 1);
+    assertEquals(before, sortByFirstKey(store.getStorefiles()));
+    FileSystem fs = region.getRegionFileSystem().getFileSystem();
+    Path tmpDir = region.getRegionFileSystem().getTempDir();
+    assertTrue(!fs.exists(tmpDir) || fs.listStatus(tmpDir).length == 0);
+    verifyRows();
+  }
+
+  @Test
+  public void testSplitOutputIsNotMajorCompactedAgain() throws Exception {
+    createRegion(DefaultCompactor.class, "testSplitOutputIsNotMajorCompactedAgain");
+    loadFiles();
+    RatioBasedCompactionPolicy policy =
+        (RatioBasedCompactionPolicy) store.storeEngine.getCompactionPolicy();
+    // The major compaction period is over right away.
+    Thread.sleep(10);
+    assertTrue(policy.isMajorCompaction(store.getStorefiles()));
+
+    region.compactStores(true);
+    assertTrue(store.getStorefilesCount() > 1);
+    Thread.sleep(10);
+    // Several files, but all from one major compaction.
+    assertFalse(policy.isMajorCompaction(store.getStorefiles()));
+  }
+
+  /** Fails the second row range of a compaction once it has written its cells */
+  public static class FailingCompactor extends DefaultCompactor {
+    static final AtomicInteger ranges = new AtomicInteger();
+
+    public FailingCompactor(Configuration conf, Store store) {
+      super(conf, store);
+    }
+
+    @Override
+    protected boolean performCompaction(InternalScanner scanner, CellSink writer,
+        long smallestReadPoint, CompactionThroughputController throughputController,
+        CompactionProgress progress) throws IOException {
+      boolean finished = super.performCompaction(scanner, writer, smallestReadPoint,
+          throughputController, progress);
+      if (ranges.incrementAndGet() == 2) {
+        throw new IOException("injected");
+      }
+      return finished;
+    }
+  }
+
+  private void createRegion(Class<? extends DefaultCompactor> compactor, String name)
+      throws IOException {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.set(DefaultStoreEngine.DEFAULT_COMPACTOR_CLASS_KEY, compactor.getName());
+    conf.setInt(DefaultCompactor.MAX_SUBCOMPACTIONS_KEY, 4);
+    conf.setLong(DefaultCompactor.MIN_SUBCOMPACTION_SIZE_KEY, 1);
+    conf.setLong(HConstants.MAJOR_COMPACTION_PERIOD, 1);
+    conf.setFloat("hbase.hregion.majorcompaction.jitter", 0);
+    HColumnDescriptor family = new HColumnDescriptor(FAMILY);
+    family.setMaxVersions(1);
+    // Small blocks give the root block indexes enough rows to split at.
+    family.setBlocksize(1024);
+    HTableDescriptor htd = new HTableDescriptor(TableName.valueOf(name));
+    htd.addFamily(family);
+    HRegionInfo info = new HRegionInfo(htd.getTableName(), null, null, false);
+    region = HRegion.createHRegion(info, TEST_UTIL.getDataTestDir(), conf, htd);
+    store = (HStore) region.getStore(FAMILY);
+  }
+
+  /**
+   * Flushes three files: all the rows, a newer version of the even rows, and deletes of every
+   * tenth row.
+   */
+  private void loadFiles() throws IOException {
+    for (int i = 0; i < ROWS; ++i) {
+      Put put = new Put(row(i));
+      put.add(FAMILY, QUALIFIER, value(1, i));
+      region.put(put);
+    }
+    region.flushcache();
+    for (int i = 0; i < ROWS; i += 2) {
+      Put put = new Put(row(i));
+      put.add(FAMILY, QUALIFIER, value(2, i));
+      region.put(put);
+    }
+    region.flushcache();
+    for (int i = 5; i < ROWS; i += 10) {
+      region.delete(new Delete(row(i)));
+    }
+    region.flushcache();
+    assertEquals(3, store.getStorefilesCount());
+  }
+
+  private void verifyRows() throws IOException {
+    for (int i = 0; i < ROWS; ++i) {
+      Result result = region.get(new Get(row(i)));
+      if (i % 10 == 5) {
+        assertTrue(result.isEmpty());
+      } else {
+        assertTrue(Bytes.equals(value(i % 2 == 0 ? 2 : 1, i),
+            result.getValue(FAMILY, QUALIFIER)));
+      }
+    }
+  }
+
+  private static List<StoreFile> sortByFirstKey(Collection<StoreFile> files) {
+    List<StoreFile> sorted = new ArrayList<StoreFile>(files);
+    Collections.sort(sorted, new Comparator<StoreFile>() {
+      @Override
+      public int compare(StoreFile left, StoreFile right) {
+        return Bytes.compareTo(getRow(left.getReader().getFirstKey()),
+            getRow(right.getReader().getFirstKey()));
+      }
+    });
+    return sorted;
+  }
+
+  private static byte[] getRow(byte[] key) {
+    return KeyValue.createKeyValueFromKey(key).getRow();
+  }
+
+  private static byte[] row(int i) {
+    return Bytes.toBytes(String.format("row%05d", i));
+  }
+
+  private static byte[] value(int version, int i) {
+    byte[] value = new byte[VALUE_SIZE];
+    Bytes.putInt(value, 0, version);
+    Bytes.putInt(value, Bytes.SIZEOF_INT, i);
+    return value;
+  }
+}
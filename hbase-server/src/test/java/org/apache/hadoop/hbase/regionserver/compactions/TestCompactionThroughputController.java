@@ -0,0 +1,120 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.regionserver.HRegionServer;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.ManualEnvironmentEdge;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.Mockito;
+
+@Category(SmallTests.class)
+public class TestCompactionThroughputController {
+  private static final long MB = 1024 * 1024;
+
+  private Configuration conf;
+  private HRegionServer server;
+  private ManualEnvironmentEdge edge;
+
+  @Before
+  public void setUp() {
+    conf = HBaseConfiguration.create();
+    conf.setLong(PressureAwareCompactionThroughputController
+        .HBASE_HSTORE_COMPACTION_MAX_THROUGHPUT_LOWER_BOUND,
+        10 * MB);
+    conf.setLong(PressureAwareCompactionThroughputController
+        .HBASE_HSTORE_COMPACTION_MAX_THROUGHPUT_HIGHER_BOUND,
+        20 * MB);
+    conf.setInt(
+        PressureAwareCompactionThroughputController.HBASE_HSTORE_COMPACTION_THROUGHPUT_TUNE_PERIOD,
+        1000);
+    conf.setLong(PressureAwareCompactionThroughputController
+        .HBASE_HSTORE_COMPACTION_THROUGHPUT_CONTROL_CHECK_INTERVAL, MB);
+    server = Mockito.mock(HRegionServer.class);
+    Mockito.when(server.getConfiguration()).thenReturn(conf);
+    edge = new ManualEnvironmentEdge();
+    edge.setValue(100000);
+    EnvironmentEdgeManager.injectEdge(edge);
+  }
+
+  @After
+  public void tearDown() {
+    EnvironmentEdgeManager.reset();
+  }
+
+  @Test
+  public void testMaxThroughputFollowsPressure() {
+    PressureAwareCompactionThroughputController controller = createController();
+    assertEquals(10 * MB, controller.computeMaxThroughput(0.0, false), 0.01);
+    assertEquals(15 * MB, controller.computeMaxThroughput(0.5, false), 0.01);
+    assertEquals(20 * MB, controller.computeMaxThroughput(1.0, false), 0.01);
+    assertEquals(Double.MAX_VALUE, controller.computeMaxThroughput(1.5, false), 0.01);
+    // No off-peak limit is configured.
+    assertEquals(Double.MAX_VALUE, controller.computeMaxThroughput(0.0, true), 0.01);
+  }
+
+  @Test
+  public void testControlSleepsWhenTooFast() throws Exception {
+    Mockito.when(server.getCompactionPressure()).thenReturn(0.0);
+    PressureAwareCompactionThroughputController controller = createController();
+    controller.start("c1");
+    // Less than the check interval is never throttled.
+    assertEquals(0, controller.control("c1", MB / 2));
+    // 1MB instantly, at 10MB/s, takes 100ms.
+    assertEquals(100, controller.control("c1", MB / 2));
+    assertEquals(100, controller.getThrottledTime());
+    // Enough time has passed for the next 1MB.
+    edge.incValue(1000);
+    assertEquals(0, controller.control("c1", MB));
+
+    // Two compactions share the limit.
+    controller.start("c2");
+    assertEquals(200, controller.control("c2", MB));
+    controller.finish("c1");
+    controller.finish("c2");
+    assertEquals(300, controller.getThrottledTime());
+  }
+
+  @Test
+  public void testStoppedControllerDoesNotSleep() throws Exception {
+    Mockito.when(server.getCompactionPressure()).thenReturn(0.0);
+    PressureAwareCompactionThroughputController controller = createController();
+    controller.start("c1");
+    controller.stop("test");
+    assertTrue(controller.isStopped());
+    assertEquals(0, controller.control("c1", 10 * MB));
+    controller.finish("c1");
+  }
+
+  private PressureAwareCompactionThroughputController createController() {
+    PressureAwareCompactionThroughputController controller =
+        new PressureAwareCompactionThroughputController();
+    controller.setup(server);
+    return controller;
+  }
+}
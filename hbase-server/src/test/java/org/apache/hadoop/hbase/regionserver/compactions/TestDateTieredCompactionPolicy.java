@@ -0,0 +1,127 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.regionserver.StoreConfigInformation;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.ManualEnvironmentEdge;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.Mockito;
+
+@Category(SmallTests.class)
+public class TestDateTieredCompactionPolicy {
+  private Configuration conf;
+  private StoreConfigInformation storeConfigInfo;
+
+  @Before
+  public void setUp() {
+    conf = HBaseConfiguration.create();
+    conf.setLong(DateTieredCompactionPolicy.BASE_WINDOW_MILLIS_KEY, 100);
+    conf.setInt(DateTieredCompactionPolicy.WINDOWS_PER_TIER_KEY, 4);
+    conf.setInt("hbase.hstore.compaction.min", 3);
+    storeConfigInfo = Mockito.mock(StoreConfigInformation.class);
+    Mockito.when(storeConfigInfo.getMemstoreFlushSize()).thenReturn(128L * 1024 * 1024);
+    Mockito.when(storeConfigInfo.getBlockingFileCount()).thenReturn(10L);
+    Mockito.when(storeConfigInfo.getStoreFileTtl()).thenReturn(Long.MAX_VALUE);
+    ManualEnvironmentEdge edge = new ManualEnvironmentEdge();
+    edge.setValue(1000);
+    EnvironmentEdgeManager.injectEdge(edge);
+  }
+
+  @After
+  public void tearDown() {
+    EnvironmentEdgeManager.reset();
+  }
+
+  @Test
+  public void testNewestWindowNeedsMinFiles() throws IOException {
+    // Windows, newest first: [1000, ...), [900, 1000), [800, 900), [400, 800), [0, 400).
+    List<StoreFile> files = createFiles(50, 450, 1010, 1020);
+    assertTrue(select(files).isEmpty());
+    files = createFiles(50, 450, 1010, 1020, 1030);
+    assertEquals(files.subList(2, 5), select(files));
+  }
+
+  @Test
+  public void testOlderWindowIsCompactedWithTwoFiles() throws IOException {
+    List<StoreFile> files = createFiles(50, 150, 450, 700, 1010, 1020);
+    assertEquals(files.subList(2, 4), select(files));
+    // Each window has one file.
+    files = createFiles(50, 450, 850, 950, 1010);
+    assertTrue(select(files).isEmpty());
+  }
+
+  @Test
+  public void testFilesArePlacedByLargestTimestampSoFar() throws IOException {
+    // Older data flushed after newer data belongs with the newer data.
+    List<StoreFile> files = createFiles(50, 1010, 60, 70);
+    assertEquals(files.subList(1, 4), select(files));
+  }
+
+  @Test
+  public void testOldFilesAreNotCompacted() throws IOException {
+    conf.setLong(DateTieredCompactionPolicy.MAX_STOREFILE_AGE_KEY, 500);
+    List<StoreFile> files = createFiles(50, 150, 450, 1010);
+    assertTrue(select(files).isEmpty());
+    files = createFiles(50, 150, 550, 650);
+    assertEquals(files.subList(2, 4), select(files));
+  }
+
+  @Test
+  public void testNoScheduledMajorCompaction() throws IOException {
+    DateTieredCompactionPolicy policy = new DateTieredCompactionPolicy(conf, storeConfigInfo);
+    assertFalse(policy.isMajorCompaction(createFiles(50, 1010)));
+  }
+
+  private List<StoreFile> select(List<StoreFile> files) throws IOException {
+    DateTieredCompactionPolicy policy = new DateTieredCompactionPolicy(conf, storeConfigInfo);
+    CompactionRequest request = policy.selectCompaction(files,
+        Collections.<StoreFile>emptyList(), false, false, false);
+    return new ArrayList<StoreFile>(request.getFiles());
+  }
+
+  private static List<StoreFile> createFiles(long... maxTimestamps) {
+    List<StoreFile> files = new ArrayList<StoreFile>();
+    for (long maxTimestamp : maxTimestamps) {
+      StoreFile sf = Mockito.mock(StoreFile.class);
+      StoreFile.Reader reader = Mockito.mock(StoreFile.Reader.class);
+      Mockito.when(reader.getMaxTimestamp()).thenReturn(maxTimestamp);
+      Mockito.when(reader.length()).thenReturn(1024L);
+      Mockito.when(sf.getReader()).thenReturn(reader);
+      files.add(sf);
+    }
+    return files;
+  }
+}
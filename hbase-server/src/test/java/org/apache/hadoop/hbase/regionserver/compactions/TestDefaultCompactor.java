@@ -0,0 +1,114 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.io.hfile.HFileBlockIndex;
+import org.apache.hadoop.hbase.regionserver.RegionCoprocessorHost;
+import org.apache.hadoop.hbase.regionserver.Store;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.Mockito;
+
+@Category(SmallTests.class)
+public class TestDefaultCompactor {
+  private static final KeyValue.KVComparator COMPARATOR = new KeyValue.KVComparator();
+
+  @Test
+  public void testSplitRowsFollowData() throws Exception {
+    List<StoreFile> files = Arrays.asList(
+        createFile(1000, "a", "b", "c", "d"), createFile(1000, "e", "f", "g", "h"));
+    assertEquals(Arrays.asList("e"), getSplitRows(files, 2));
+    assertEquals(Arrays.asList("c", "e", "g"), getSplitRows(files, 4));
+  }
+
+  @Test
+  public void testSplitRowsOfOverlappingFiles() throws Exception {
+    // Each root index entry stands for the data of its file from its row on.
+    List<StoreFile> files = Arrays.asList(
+        createFile(3000, "b", "d", "f"), createFile(300, "a", "c", "e"));
+    // The data before "c" is 1100 of 3300, before "e" 2200.
+    assertEquals(Arrays.asList("e"), getSplitRows(files, 2));
+    assertEquals(Arrays.asList("c", "e"), getSplitRows(files, 3));
+  }
+
+  @Test
+  public void testNoSplitInsideRow() throws Exception {
+    List<StoreFile> files = Arrays.asList(createFile(1000, "a", "a", "a", "a"));
+    assertTrue(getSplitRows(files, 4).isEmpty());
+  }
+
+  @Test
+  public void testNoSplitWithRegionObservers() throws Exception {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setInt(DefaultCompactor.MAX_SUBCOMPACTIONS_KEY, 4);
+    conf.setLong(DefaultCompactor.MIN_SUBCOMPACTION_SIZE_KEY, 1000);
+    CompactionRequest request = Mockito.mock(CompactionRequest.class);
+    Mockito.when(request.getSize()).thenReturn(3000L);
+    Store store = Mockito.mock(Store.class);
+    DefaultCompactor compactor = new DefaultCompactor(conf, store);
+    assertEquals(3, compactor.getRangeCount(request));
+
+    // The hooks of an observer are called once per compaction, so it is not split.
+    RegionCoprocessorHost host = Mockito.mock(RegionCoprocessorHost.class);
+    Mockito.when(store.getCoprocessorHost()).thenReturn(host);
+    assertEquals(3, compactor.getRangeCount(request));
+    Mockito.when(host.hasRegionObservers()).thenReturn(true);
+    assertEquals(1, compactor.getRangeCount(request));
+  }
+
+  private static List<String> getSplitRows(List<StoreFile> files, int rangeCount) {
+    List<String> rows = new ArrayList<String>();
+    for (byte[] row : DefaultCompactor.getSplitRows(files, rangeCount, COMPARATOR)) {
+      rows.add(Bytes.toString(row));
+    }
+    return rows;
+  }
+
+  private static StoreFile createFile(long length, String... rootRows) {
+    HFileBlockIndex.BlockIndexReader index = Mockito.mock(HFileBlockIndex.BlockIndexReader.class);
+    Mockito.when(index.getRootBlockCount()).thenReturn(rootRows.length);
+    for (int i = 0; i < rootRows.length; ++i) {
+      KeyValue kv = new KeyValue(Bytes.toBytes(rootRows[i]), Bytes.toBytes("f"),
+          Bytes.toBytes("q" + i));
+      Mockito.when(index.getRootBlockKey(i)).thenReturn(kv.getKey());
+    }
+    HFile.Reader hfileReader = Mockito.mock(HFile.Reader.class);
+    Mockito.when(hfileReader.getDataBlockIndexReader()).thenReturn(index);
+    StoreFile.Reader reader = Mockito.mock(StoreFile.Reader.class);
+    Mockito.when(reader.length()).thenReturn(length);
+    Mockito.when(reader.getHFileReader()).thenReturn(hfileReader);
+    StoreFile sf = Mockito.mock(StoreFile.class);
+    Mockito.when(sf.getReader()).thenReturn(reader);
+    return sf;
+  }
+}
@@ -0,0 +1,234 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.regionserver.StoreConfigInformation;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.regionserver.StripeStoreFileManager;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.Mockito;
+
+@Category(SmallTests.class)
+public class TestStripeCompactionPolicy {
+  private static final byte[] OPEN = StripeStoreFileManager.OPEN_KEY;
+  private static final byte[] B = Bytes.toBytes("b");
+  private static final byte[] D = Bytes.toBytes("d");
+  private static final long FILE_SIZE = 1024;
+  private static final List<StoreFile> NONE = Collections.emptyList();
+
+  private Configuration conf;
+  private long nextSeqId = 1;
+
+  @Before
+  public void setUp() {
+    conf = HBaseConfiguration.create();
+    conf.setInt(StripeCompactionPolicy.MIN_FILES_L0_KEY, 2);
+    conf.setInt(StripeCompactionPolicy.MIN_FILES_KEY, 2);
+    conf.setInt(StripeCompactionPolicy.MAX_FILES_KEY, 3);
+    conf.setLong(StripeCompactionPolicy.SIZE_TO_SPLIT_KEY, 10 * FILE_SIZE);
+  }
+
+  @Test
+  public void testLevel0CreatesFirstStripes() throws Exception {
+    StripeStoreFileManager manager = createManager();
+    StoreFile l0a = createFile(null, null);
+    StoreFile l0b = createFile(null, null);
+    manager.loadFiles(list(l0a, l0b));
+
+    StripeCompactionPolicy.StripeCompactionRequest request = select(manager, NONE);
+    assertEquals(list(l0a, l0b), files(request));
+    // L0 holds all the files, so nothing older can be hiding under a delete.
+    assertTrue(request.isDropDeletes());
+    assertNull(request.getBoundaries());
+    assertEquals(5 * FILE_SIZE, request.getTargetFileSize());
+  }
+
+  @Test
+  public void testLevel0CompactsIntoExistingStripes() throws Exception {
+    StripeStoreFileManager manager = createManager();
+    StoreFile first = createFile(OPEN, B);
+    StoreFile last = createFile(B, OPEN);
+    StoreFile l0a = createFile(null, null);
+    manager.loadFiles(list(first, last, l0a));
+    StripeCompactionPolicy policy = createPolicy(manager);
+    // A single L0 file is not enough, and no stripe has enough files.
+    assertFalse(policy.needsCompaction(manager.getStorefiles(), NONE));
+    assertTrue(select(manager, NONE).getFiles().isEmpty());
+
+    StoreFile l0b = createFile(null, null);
+    manager.insertNewFile(l0b);
+    assertTrue(policy.needsCompaction(manager.getStorefiles(), NONE));
+    StripeCompactionPolicy.StripeCompactionRequest request = select(manager, NONE);
+    assertEquals(list(l0a, l0b), files(request));
+    // The stripes may hold older cells the deletes in L0 cover.
+    assertFalse(request.isDropDeletes());
+    assertBoundaries(request, OPEN, B, OPEN);
+    assertEquals(0, request.getTargetFileSize());
+  }
+
+  @Test
+  public void testStripeDropsDeletesOnlyWithoutLevel0() throws Exception {
+    StripeStoreFileManager manager = createManager();
+    StoreFile first = createFile(OPEN, B);
+    StoreFile last1 = createFile(B, OPEN);
+    StoreFile last2 = createFile(B, OPEN);
+    StoreFile l0 = createFile(null, null);
+    manager.loadFiles(list(first, last1, last2, l0));
+
+    StripeCompactionPolicy.StripeCompactionRequest request = select(manager, NONE);
+    assertEquals(list(last1, last2), files(request));
+    assertFalse(request.isDropDeletes());
+    assertBoundaries(request, B, OPEN);
+
+    // Once L0 is compacted away the stripe holds every cell of its rows.
+    manager.addCompactionResults(list(l0), NONE);
+    request = select(manager, NONE);
+    assertEquals(list(last1, last2), files(request));
+    assertTrue(request.isDropDeletes());
+    assertBoundaries(request, B, OPEN);
+  }
+
+  @Test
+  public void testLargeStripeIsSplit() throws Exception {
+    StripeStoreFileManager manager = Mockito.spy(createManager());
+    StoreFile first = createFile(OPEN, B);
+    StoreFile small = createFile(B, OPEN);
+    StoreFile large = createFile(B, OPEN, 10 * FILE_SIZE);
+    manager.loadFiles(list(first, small, large));
+    Mockito.doReturn(D).when(manager).getStripeSplitPoint(
+        Mockito.anyCollectionOf(StoreFile.class), Mockito.any(byte[].class),
+        Mockito.any(byte[].class));
+
+    StripeCompactionPolicy.StripeCompactionRequest request = select(manager, NONE);
+    assertEquals(list(small, large), files(request));
+    assertTrue(request.isDropDeletes());
+    assertBoundaries(request, B, D, OPEN);
+
+    // No split when the stripe has no row to split at.
+    Mockito.doReturn(null).when(manager).getStripeSplitPoint(
+        Mockito.anyCollectionOf(StoreFile.class), Mockito.any(byte[].class),
+        Mockito.any(byte[].class));
+    assertBoundaries(select(manager, NONE), B, OPEN);
+  }
+
+  @Test
+  public void testTooManyFilesInStripe() throws Exception {
+    StripeStoreFileManager manager = createManager();
+    StoreFile first = createFile(OPEN, B);
+    List<StoreFile> stripe = new ArrayList<StoreFile>();
+    for (int i = 0; i < 5; ++i) {
+      stripe.add(createFile(B, OPEN));
+    }
+    List<StoreFile> files = list(first);
+    files.addAll(stripe);
+    manager.loadFiles(files);
+
+    // The oldest files are compacted into one, keeping the deletes the newer files may need.
+    StripeCompactionPolicy.StripeCompactionRequest request = select(manager, NONE);
+    assertEquals(stripe.subList(0, 3), files(request));
+    assertFalse(request.isDropDeletes());
+    assertBoundaries(request, B, OPEN);
+  }
+
+  @Test
+  public void testForcedMajorCompaction() throws Exception {
+    StripeStoreFileManager manager = createManager();
+    StoreFile first = createFile(OPEN, B);
+    StoreFile last = createFile(B, OPEN);
+    StoreFile l0 = createFile(null, null);
+    manager.loadFiles(list(first, last, l0));
+
+    StripeCompactionPolicy.StripeCompactionRequest request =
+        createPolicy(manager).selectCompaction(NONE, true, true);
+    assertEquals(3, request.getFiles().size());
+    assertTrue(request.isDropDeletes());
+    assertBoundaries(request, OPEN, B, OPEN);
+    assertFalse(createPolicy(manager).isMajorCompaction(manager.getStorefiles()));
+  }
+
+  private StripeStoreFileManager createManager() {
+    return new StripeStoreFileManager(new KeyValue.KVComparator(), conf);
+  }
+
+  private StripeCompactionPolicy createPolicy(StripeStoreFileManager manager) {
+    StoreConfigInformation sci = Mockito.mock(StoreConfigInformation.class);
+    Mockito.when(sci.getMemstoreFlushSize()).thenReturn(128L * 1024 * 1024);
+    return new StripeCompactionPolicy(conf, sci, manager);
+  }
+
+  private StripeCompactionPolicy.StripeCompactionRequest select(
+      StripeStoreFileManager manager, List<StoreFile> filesCompacting) throws IOException {
+    return createPolicy(manager).selectCompaction(filesCompacting, false, false);
+  }
+
+  private static void assertBoundaries(StripeCompactionPolicy.StripeCompactionRequest request,
+      byte[]... expected) {
+    List<byte[]> boundaries = request.getBoundaries();
+    assertEquals(expected.length, boundaries.size());
+    for (int i = 0; i < expected.length; ++i) {
+      assertTrue(Bytes.toStringBinary(boundaries.get(i)),
+          Bytes.equals(expected[i], boundaries.get(i)));
+    }
+  }
+
+  private static List<StoreFile> files(CompactionRequest request) {
+    return new ArrayList<StoreFile>(request.getFiles());
+  }
+
+  private StoreFile createFile(byte[] startRow, byte[] endRow) {
+    return createFile(startRow, endRow, FILE_SIZE);
+  }
+
+  private StoreFile createFile(byte[] startRow, byte[] endRow, long size) {
+    long seqId = nextSeqId++;
+    StoreFile sf = Mockito.mock(StoreFile.class);
+    StoreFile.Reader reader = Mockito.mock(StoreFile.Reader.class);
+    Mockito.when(reader.length()).thenReturn(size);
+    Mockito.when(sf.getReader()).thenReturn(reader);
+    Mockito.when(sf.getMaxSequenceId()).thenReturn(seqId);
+    Mockito.when(sf.getPath()).thenReturn(new Path("/store/file" + seqId));
+    Mockito.when(sf.getMetadataValue(StripeStoreFileManager.STRIPE_START_KEY))
+        .thenReturn(startRow);
+    Mockito.when(sf.getMetadataValue(StripeStoreFileManager.STRIPE_END_KEY)).thenReturn(endRow);
+    return sf;
+  }
+
+  private static List<StoreFile> list(StoreFile... files) {
+    return new ArrayList<StoreFile>(Arrays.asList(files));
+  }
+}
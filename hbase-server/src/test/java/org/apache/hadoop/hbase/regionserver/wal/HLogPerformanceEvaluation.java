@@ -127,6 +127,8 @@ public final class HLogPerformanceEvaluation extends Configured implements Tool
     boolean verify = false;
     boolean verbose = false;
     long roll = Long.MAX_VALUE;
+    boolean ringBuffer = false;
+    boolean compare = false;
     // Process command line args
     for (int i = 0; i < args.length; i++) {
       String cmd = args[i];
@@ -153,6 +155,10 @@ public final class HLogPerformanceEvaluation extends Configured implements Tool
           verbose = true;
         } else if (cmd.equals("-roll")) {
           roll = Long.parseLong(args[++i]);
+        } else if (cmd.equals("-ringbuffer")) {
+          ringBuffer = true;
+        } else if (cmd.equals("-compare")) {
+          compare = true;
         } else if (cmd.equals("-h")) {
           printUsageAndExit();
         } else if (cmd.equals("--help")) {
@@ -174,11 +180,53 @@ public final class HLogPerformanceEvaluation extends Configured implements Tool
         rootRegionDir = TEST_UTIL.getDataTestDir("HLogPerformanceEvaluation");
       }
       rootRegionDir = rootRegionDir.makeQualified(fs);
-      cleanRegionRootDir(fs, rootRegionDir);
       // Initialize Table Descriptor
       HTableDescriptor htd = createHTableDescriptor(numFamilies);
-      final long whenToRoll = roll;
-      HLog hlog = new FSHLog(fs, rootRegionDir, "wals", getConf()) {
+      if (compare) {
+        // Same load against both implementations, one after the other.
+        long fsHLogTime = runTest(fs, rootRegionDir, htd, numThreads, numIterations, noSync,
+          roll, verify, verbose, false);
+        long ringBufferTime = runTest(fs, rootRegionDir, htd, numThreads, numIterations, noSync,
+          roll, verify, verbose, true);
+        LOG.info(String.format("Compare: threads=%d, FSHLog %dms, RingBufferFSHLog %dms (%.2fx)",
+          numThreads, fsHLogTime, ringBufferTime, (float)fsHLogTime / ringBufferTime));
+      } else {
+        runTest(fs, rootRegionDir, htd, numThreads, numIterations, noSync, roll, verify,
+          verbose, ringBuffer);
+      }
+    } finally {
+      fs.close();
+    }
+
+    return(0);
+  }
+
+  /**
+   * Run the put benchmark once against a fresh WAL.
+   * @param ringBuffer use {@link RingBufferFSHLog} rather than {@link FSHLog}
+   * @return Time the puts took, in ms
+   */
+  private long runTest(final FileSystem fs, final Path rootRegionDir, final HTableDescriptor htd,
+      final int numThreads, final long numIterations, final boolean noSync, final long roll,
+      final boolean verify, final boolean verbose, final boolean ringBuffer)
+  throws IOException, InterruptedException {
+    cleanRegionRootDir(fs, rootRegionDir);
+    final long whenToRoll = roll;
+    HLog hlog = ringBuffer?
+      new RingBufferFSHLog(fs, rootRegionDir, "wals", getConf()) {
+        int appends = 0;
+        protected void doWrite(HRegionInfo info, HLogKey logKey, WALEdit logEdit,
+            HTableDescriptor htd)
+        throws IOException {
+          this.appends++;
+          if (this.appends % whenToRoll == 0) {
+            LOG.info("Rolling after " + appends + " edits");
+            rollWriter();
+          }
+          super.doWrite(info, logKey, logEdit, htd);
+        };
+      }:
+      new FSHLog(fs, rootRegionDir, "wals", getConf()) {
         int appends = 0;
         protected void doWrite(HRegionInfo info, HLogKey logKey, WALEdit logEdit,
             HTableDescriptor htd)
@@ -191,38 +239,36 @@ public final class HLogPerformanceEvaluation extends Configured implements Tool
           super.doWrite(info, logKey, logEdit, htd);
         };
       };
-      hlog.rollWriter();
-      HRegion region = null;
-      try {
-        region = openRegion(fs, rootRegionDir, htd, hlog);
-        long putTime = runBenchmark(new HLogPutBenchmark(region, htd, numIterations, noSync), numThreads);
-        logBenchmarkResult("Summary: threads=" + numThreads + ", iterations=" + numIterations,
-          numIterations * numThreads, putTime);
-        if (region != null) {
-          closeRegion(region);
-          region = null;
+    hlog.rollWriter();
+    HRegion region = null;
+    long putTime = 0;
+    try {
+      region = openRegion(fs, rootRegionDir, htd, hlog);
+      putTime = runBenchmark(new HLogPutBenchmark(region, htd, numIterations, noSync), numThreads);
+      logBenchmarkResult("Summary: " + hlog.getClass().getSuperclass().getSimpleName() +
+        ", threads=" + numThreads + ", iterations=" + numIterations,
+        numIterations * numThreads, putTime);
+      if (region != null) {
+        closeRegion(region);
+        region = null;
+      }
+      if (verify) {
+        Path dir = ((FSHLog) hlog).getDir();
+        long editCount = 0;
+        for (FileStatus fss: fs.listStatus(dir)) {
+          editCount += verify(fss.getPath(), verbose);
         }
-        if (verify) {
-          Path dir = ((FSHLog) hlog).getDir();
-          long editCount = 0;
-          for (FileStatus fss: fs.listStatus(dir)) {
-            editCount += verify(fss.getPath(), verbose);
-          }
-          long expected = numIterations * numThreads;
-          if (editCount != expected) {
-            throw new IllegalStateException("Counted=" + editCount + ", expected=" + expected);
-          }
+        long expected = numIterations * numThreads;
+        if (editCount != expected) {
+          throw new IllegalStateException("Counted=" + editCount + ", expected=" + expected);
         }
-      } finally {
-        if (region != null) closeRegion(region);
-        // Remove the root dir for this test region
-        cleanRegionRootDir(fs, rootRegionDir);
       }
     } finally {
-      fs.close();
+      if (region != null) closeRegion(region);
+      // Remove the root dir for this test region
+      cleanRegionRootDir(fs, rootRegionDir);
     }
-
-    return(0);
+    return putTime;
   }
 
   private static HTableDescriptor createHTableDescriptor(final int numFamilies) {
@@ -286,12 +332,18 @@ public final class HLogPerformanceEvaluation extends Configured implements Tool
     System.err.println("  -verify          Verify edits written in sequence");
     System.err.println("  -verbose         Output extra info; e.g. all edit seq ids when verifying");
     System.err.println("  -roll <N>        Roll the way every N appends");
+    System.err.println("  -ringbuffer      Use the ring buffer WAL (RingBufferFSHLog)");
+    System.err.println("  -compare         Run against FSHLog then RingBufferFSHLog and compare");
     System.err.println("");
     System.err.println("Examples:");
     System.err.println("");
     System.err.println(" To run 100 threads on hdfs with log rolling every 10k edits and verification afterward do:");
     System.err.println(" $ ./bin/hbase org.apache.hadoop.hbase.regionserver.wal.HLogPerformanceEvaluation \\");
     System.err.println("    -conf ./core-site.xml -path hdfs://example.org:7000/tmp -threads 100 -roll 10000 -verify");
+    System.err.println("");
+    System.err.println(" To compare the two WAL implementations with 300 handler threads do:");
+    System.err.println(" $ ./bin/hbase org.apache.hadoop.hbase.regionserver.wal.HLogPerformanceEvaluation \\");
+    System.err.println("    -conf ./core-site.xml -path hdfs://example.org:7000/tmp -threads 300 -compare");
     System.exit(1);
   }
 
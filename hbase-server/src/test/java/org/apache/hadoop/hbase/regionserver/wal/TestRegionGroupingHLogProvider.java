@@ -0,0 +1,152 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests for {@link RegionGroupingHLogProvider}.
+ */
+@Category(SmallTests.class)
+public class TestRegionGroupingHLogProvider {
+  private final static HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final String SERVER = "host,60020,1234";
+  // What the WAL makes of the server name in its file names
+  private static final String PREFIX = "host%2C60020%2C1234";
+
+  @Test
+  public void testWALPrefixFromWALName() {
+    assertEquals(PREFIX, HLogUtil.getWALPrefixFromWALName(PREFIX + ".1380000000"));
+    assertEquals(PREFIX, HLogUtil.getWALPrefixFromWALName(
+      PREFIX + ".1380000000" + HLog.META_HLOG_FILE_EXTN));
+    String group = PREFIX + RegionGroupingHLogProvider.GROUP_DELIMITER + 3;
+    assertEquals(group, HLogUtil.getWALPrefixFromWALName(group + ".1380000000"));
+    assertTrue(HLogUtil.validateHLogFilename(group + ".1380000000"));
+  }
+
+  @Test
+  public void testSingleWALByDefault() throws IOException {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    FileSystem fs = FileSystem.get(conf);
+    Path dir = TEST_UTIL.getDataTestDir("testSingleWALByDefault");
+    RegionGroupingHLogProvider provider =
+      new RegionGroupingHLogProvider(fs, dir, "logs", conf, null, SERVER);
+    try {
+      assertEquals(1, provider.getWALs().size());
+      for (int i = 0; i < 10; i++) {
+        assertSame(provider.getDefaultWAL(), provider.getWAL(createRegion("t", i)));
+      }
+      Set<String> prefixes = getPrefixes(fs, new Path(dir, "logs"));
+      assertEquals(1, prefixes.size());
+      assertTrue(prefixes.contains(PREFIX));
+    } finally {
+      provider.closeAndDelete();
+    }
+  }
+
+  @Test
+  public void testRegionsSpreadOverWALs() throws IOException {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setInt(RegionGroupingHLogProvider.NUM_WALS_KEY, 4);
+    FileSystem fs = FileSystem.get(conf);
+    Path dir = TEST_UTIL.getDataTestDir("testRegionsSpreadOverWALs");
+    Path logDir = new Path(dir, "logs");
+    RegionGroupingHLogProvider provider =
+      new RegionGroupingHLogProvider(fs, dir, "logs", conf, null, SERVER);
+    try {
+      assertEquals(4, provider.getWALs().size());
+      Set<HLog> used = new HashSet<HLog>();
+      for (int i = 0; i < 64; i++) {
+        HRegionInfo hri = createRegion("t", i);
+        HLog wal = provider.getWAL(hri);
+        assertSame(wal, provider.getWAL(hri));
+        used.add(wal);
+      }
+      assertTrue("regions used " + used.size() + " WALs", used.size() > 1);
+      // Each WAL writes files of its own prefix, the first one the plain server prefix
+      Set<String> prefixes = getPrefixes(fs, logDir);
+      assertEquals(4, prefixes.size());
+      assertTrue(prefixes.contains(PREFIX));
+    } finally {
+      provider.closeAndDelete();
+    }
+    assertFalse(fs.exists(logDir));
+    assertEquals(4, getPrefixes(fs, new Path(dir, HConstants.HREGION_OLDLOGDIR_NAME)).size());
+  }
+
+  @Test
+  public void testTableGrouping() throws IOException {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setInt(RegionGroupingHLogProvider.NUM_WALS_KEY, 4);
+    conf.set(RegionGroupingHLogProvider.GROUPING_STRATEGY_KEY, "table");
+    FileSystem fs = FileSystem.get(conf);
+    Path dir = TEST_UTIL.getDataTestDir("testTableGrouping");
+    RegionGroupingHLogProvider provider =
+      new RegionGroupingHLogProvider(fs, dir, "logs", conf, null, SERVER);
+    try {
+      for (int t = 0; t < 8; t++) {
+        HLog wal = provider.getWAL(createRegion("t" + t, 0));
+        for (int i = 1; i < 16; i++) {
+          assertSame(wal, provider.getWAL(createRegion("t" + t, i)));
+        }
+      }
+    } finally {
+      provider.close();
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testUnknownStrategy() throws IOException {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.set(RegionGroupingHLogProvider.GROUPING_STRATEGY_KEY, "no.such.Strategy");
+    RegionGroupingHLogProvider.getStrategy(conf);
+  }
+
+  private static HRegionInfo createRegion(String table, int i) {
+    return new HRegionInfo(TableName.valueOf(table), Bytes.toBytes(i), Bytes.toBytes(i + 1));
+  }
+
+  private static Set<String> getPrefixes(FileSystem fs, Path dir) throws IOException {
+    Set<String> prefixes = new HashSet<String>();
+    for (FileStatus file : fs.listStatus(dir)) {
+      prefixes.add(HLogUtil.getWALPrefixFromWALName(file.getPath().getName()));
+    }
+    return prefixes;
+  }
+}
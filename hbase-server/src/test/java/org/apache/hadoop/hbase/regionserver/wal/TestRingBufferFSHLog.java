@@ -0,0 +1,210 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.UUID;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.Mockito;
+
+/**
+ * Tests for the ring buffer WAL, {@link RingBufferFSHLog}.
+ */
+@Category(SmallTests.class)
+public class TestRingBufferFSHLog {
+  private final static HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final int THREAD_COUNT = 50;
+  private static final int EDITS_PER_THREAD = 100;
+
+  @Test
+  public void testFactoryCreatesConfiguredImpl() throws IOException {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setClass(HLogFactory.HLOG_IMPL, RingBufferFSHLog.class, HLog.class);
+    FileSystem fs = FileSystem.get(conf);
+    HLog wal = HLogFactory.createHLog(fs, TEST_UTIL.getDataTestDir(), "testFactory", conf);
+    try {
+      assertTrue(wal instanceof RingBufferFSHLog);
+    } finally {
+      wal.closeAndDelete();
+    }
+  }
+
+  /**
+   * Many appenders, a small ring so producers wrap around it, and rolls while writing.
+   * Every edit must land in exactly one file and sequence ids must ascend within each file.
+   */
+  @Test
+  public void testConcurrentAppendsAndRolls() throws Exception {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setInt(RingBufferFSHLog.RING_BUFFER_SLOTS_KEY, 16);
+    FileSystem fs = FileSystem.get(conf);
+    Path dir = TEST_UTIL.getDataTestDir("testConcurrentAppendsAndRolls");
+    RingBufferFSHLog wal = new RingBufferFSHLog(fs, dir, "logs", conf);
+    Path logDir = wal.getDir();
+    TestLogRollingNoCluster.Appender[] appenders =
+      new TestLogRollingNoCluster.Appender[THREAD_COUNT];
+    try {
+      for (int i = 0; i < THREAD_COUNT; i++) {
+        appenders[i] = new TestLogRollingNoCluster.Appender(wal, i, EDITS_PER_THREAD);
+      }
+      for (int i = 0; i < THREAD_COUNT; i++) {
+        appenders[i].start();
+      }
+      for (int i = 0; i < THREAD_COUNT; i++) {
+        appenders[i].join();
+      }
+    } finally {
+      wal.close();
+    }
+    for (int i = 0; i < THREAD_COUNT; i++) {
+      assertFalse(appenders[i].isException());
+    }
+    long count = 0;
+    for (FileStatus file : fs.listStatus(logDir)) {
+      count += countAscendingEntries(fs, file.getPath(), conf);
+    }
+    for (FileStatus file : fs.listStatus(new Path(dir, HConstants.HREGION_OLDLOGDIR_NAME))) {
+      count += countAscendingEntries(fs, file.getPath(), conf);
+    }
+    assertEquals(THREAD_COUNT * EDITS_PER_THREAD, count);
+  }
+
+  @Test
+  public void testSyncAfterDeferredAppends() throws IOException {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    FileSystem fs = FileSystem.get(conf);
+    Path dir = TEST_UTIL.getDataTestDir("testSyncAfterDeferredAppends");
+    HTableDescriptor htd = HTableDescriptor.META_TABLEDESC;
+    RingBufferFSHLog wal = new RingBufferFSHLog(fs, dir, "logs", conf);
+    try {
+      long txid = 0;
+      for (int i = 0; i < 10; i++) {
+        WALEdit edit = new WALEdit();
+        byte[] bytes = Bytes.toBytes(i);
+        edit.add(new KeyValue(bytes, bytes, bytes));
+        txid = wal.appendNoSync(HRegionInfo.FIRST_META_REGIONINFO, htd.getTableName(), edit,
+          new ArrayList<UUID>(), System.currentTimeMillis(), htd);
+      }
+      assertEquals(10, txid);
+      wal.sync(txid);
+      assertEquals(10, wal.getNumEntries());
+      // Already covered; must return without a round trip to the consumer.
+      wal.sync(5);
+    } finally {
+      wal.close();
+    }
+  }
+
+  /**
+   * A failed write fails the edits behind it too, and new appends, until the log rolls.
+   * Edits lost that way stay unsynced afterwards.
+   */
+  @Test
+  public void testWriteFailureSticksUntilRoll() throws Exception {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    FileSystem fs = FileSystem.get(conf);
+    Path dir = TEST_UTIL.getDataTestDir("testWriteFailureSticksUntilRoll");
+    RingBufferFSHLog wal = new RingBufferFSHLog(fs, dir, "logs", conf);
+    try {
+      long synced = appendNoSync(wal, 0);
+      wal.sync(synced);
+      synchronized (wal.getUpdateLock()) {
+        wal.writer = Mockito.spy(wal.writer);
+        Mockito.doThrow(new IOException("injected")).when(wal.writer)
+          .append(Mockito.any(HLog.Entry.class));
+      }
+      long lost = appendNoSync(wal, 1);
+      try {
+        wal.sync(lost);
+        fail("Sync of an edit that could not be written");
+      } catch (IOException e) {
+        // expected
+      }
+      try {
+        appendNoSync(wal, 2);
+        fail("Append before the failed writer was rolled");
+      } catch (IOException e) {
+        // expected
+      }
+      assertEquals(1, wal.getNumEntries());
+
+      wal.rollWriter(true);
+      long txid = appendNoSync(wal, 3);
+      wal.sync(txid);
+      assertEquals(1, wal.getNumEntries());
+      try {
+        wal.sync(lost);
+        fail("Sync of an edit lost before the roll");
+      } catch (IOException e) {
+        // expected
+      }
+      wal.sync(synced);
+    } finally {
+      wal.close();
+    }
+  }
+
+  private long appendNoSync(RingBufferFSHLog wal, int i) throws IOException {
+    HTableDescriptor htd = HTableDescriptor.META_TABLEDESC;
+    WALEdit edit = new WALEdit();
+    byte[] bytes = Bytes.toBytes(i);
+    edit.add(new KeyValue(bytes, bytes, bytes));
+    return wal.appendNoSync(HRegionInfo.FIRST_META_REGIONINFO, htd.getTableName(), edit,
+      new ArrayList<UUID>(), System.currentTimeMillis(), htd);
+  }
+
+  private long countAscendingEntries(FileSystem fs, Path p, Configuration conf)
+  throws IOException {
+    if (fs.getFileStatus(p).getLen() == 0) return 0;
+    HLog.Reader reader = HLogFactory.createReader(fs, p, conf);
+    long count = 0;
+    long previous = -1;
+    try {
+      HLog.Entry entry;
+      while ((entry = reader.next()) != null) {
+        long seqid = entry.getKey().getLogSeqNum();
+        assertTrue("seqid " + seqid + " after " + previous + " in " + p, seqid > previous);
+        previous = seqid;
+        count++;
+      }
+    } finally {
+      reader.close();
+    }
+    return count;
+  }
+}
@@ -0,0 +1,177 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Compares the Bloom filter chunk formats of compound Bloom filters: the
+ * standard {@link ByteBloomFilter} and the {@link BlockedBloomFilter}. Fills a
+ * number of chunks of the configured size with random row keys up to their
+ * capacity, then looks up keys that were not added in random chunks, as
+ * {@link CompoundBloomFilter} does, and reports the false positive rate and
+ * the lookup throughput. With enough chunks not to fit in the CPU caches, the
+ * throughput reflects the cache misses of lookups.
+ * See usage for this tool by running:
+ * <code>$ hbase org.apache.hadoop.hbase.util.BloomFilterBenchmark -h</code>
+ */
+@InterfaceAudience.Private
+public final class BloomFilterBenchmark extends Configured implements Tool {
+  static final Log LOG = LogFactory.getLog(BloomFilterBenchmark.class.getName());
+
+  private static final int KEY_LENGTH = 24;
+
+  private int chunkSize = 128 * 1024;
+  private int chunks = 512;
+  private float errorRate = 0.01f;
+  private int lookups = 10 * 1000 * 1000;
+
+  @Override
+  public int run(String[] args) throws Exception {
+    // Process command line args
+    for (int i = 0; i < args.length; i++) {
+      String cmd = args[i];
+      try {
+        if (cmd.equals("-chunkSize")) {
+          chunkSize = Integer.parseInt(args[++i]);
+        } else if (cmd.equals("-chunks")) {
+          chunks = Integer.parseInt(args[++i]);
+        } else if (cmd.equals("-errorRate")) {
+          errorRate = Float.parseFloat(args[++i]);
+        } else if (cmd.equals("-lookups")) {
+          lookups = Integer.parseInt(args[++i]);
+        } else if (cmd.equals("-h") || cmd.equals("-help") || cmd.equals("--help")) {
+          printUsageAndExit();
+        } else {
+          System.err.println("UNEXPECTED: " + cmd);
+          printUsageAndExit();
+        }
+      } catch (Exception e) {
+        printUsageAndExit();
+      }
+    }
+
+    List<String> results = new ArrayList<String>();
+    // Twice, the first round warming up the JIT
+    for (int round = 0; round < 2; round++) {
+      results.clear();
+      results.add(benchmark(false));
+      results.add(benchmark(true));
+    }
+    System.out.println("Summary: " + lookups + " lookups in " + chunks + " chunk(s) of "
+      + chunkSize + " bytes, target error rate " + errorRate);
+    for (String r : results) {
+      System.out.println(r);
+    }
+    return 0;
+  }
+
+  private String benchmark(boolean blocked) {
+    int hashType = Hash.getHashType(getConf());
+    ByteBloomFilter[] filters = new ByteBloomFilter[chunks];
+    Random rand = new Random(chunks);
+    byte[] key = new byte[KEY_LENGTH];
+    long keys = 0;
+    for (int c = 0; c < chunks; c++) {
+      if (c == 0) {
+        filters[c] = blocked
+            ? BlockedBloomFilter.createBySize(chunkSize, errorRate, hashType, 0)
+            : ByteBloomFilter.createBySize(chunkSize, errorRate, hashType, 0);
+      } else {
+        filters[c] = filters[0].createAnother();
+      }
+      filters[c].allocBloom();
+      for (long k = filters[c].getMaxKeys(); k > 0; k--) {
+        rand.nextBytes(key);
+        filters[c].add(key, 0, key.length);
+        keys++;
+      }
+    }
+    ByteBloomFilter first = filters[0];
+    Hash hash = Hash.getInstance(hashType);
+    int hashCount = first.getHashCount();
+    int byteSize = (int) first.getByteSize();
+
+    // Keys not added, generated ahead so that only lookups are timed
+    int distinctKeys = Math.min(lookups, 1000 * 1000);
+    byte[][] queries = new byte[distinctKeys][];
+    int[] queryChunks = new int[distinctKeys];
+    rand = new Random(-chunks);
+    for (int i = 0; i < distinctKeys; i++) {
+      queries[i] = new byte[KEY_LENGTH];
+      rand.nextBytes(queries[i]);
+      queryChunks[i] = rand.nextInt(chunks);
+    }
+
+    long positives = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < lookups; i++) {
+      byte[] query = queries[i % distinctKeys];
+      byte[] bloom = filters[queryChunks[i % distinctKeys]].bloom.array();
+      boolean positive = blocked
+          ? BlockedBloomFilter.contains(query, 0, query.length, bloom, 0, byteSize,
+              hashCount)
+          : ByteBloomFilter.contains(query, 0, query.length, bloom, 0, byteSize,
+              hash, hashCount);
+      if (positive) {
+        positives++;
+      }
+    }
+    long nanos = System.nanoTime() - start;
+
+    String result = String.format("%-8s keys=%d hashCount=%d falsePositiveRate=%.5f "
+      + "expected=%.5f %.0f lookups/s", blocked ? "blocked" : "standard", keys, hashCount,
+      positives * 1.0 / lookups, first.actualErrorRate(), lookups * 1e9 / nanos);
+    LOG.info(result);
+    return result;
+  }
+
+  private void printUsageAndExit() {
+    System.err.printf("Usage: bin/hbase %s [options]\n", getClass().getName());
+    System.err.println(" where [options] are:");
+    System.err.println("  -h|-help            Show this help and exit.");
+    System.err.println("  -chunkSize <N>      Size of a Bloom filter chunk in bytes. Default 131072.");
+    System.err.println("  -chunks <N>         Number of chunks. Default 512.");
+    System.err.println("  -errorRate <N>      Target false positive rate. Default 0.01.");
+    System.err.println("  -lookups <N>        Number of lookups. Default 10000000.");
+    System.err.println("");
+    System.err.println("Examples:");
+    System.err.println("");
+    System.err.println(" To compare chunks that fit in the CPU caches:");
+    System.err.println(" $ ./bin/hbase " + getClass().getName() + " -chunks 4");
+    System.exit(1);
+  }
+
+  static int innerMain(final String [] args) throws Exception {
+    return ToolRunner.run(HBaseConfiguration.create(), new BloomFilterBenchmark(), args);
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.exit(innerMain(args));
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hbase.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.hbase.SmallTests;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestBlockedBloomFilter extends TestCase {
+
+  public void testBasicBloom() throws Exception {
+    BlockedBloomFilter bf = BlockedBloomFilter.createBySize(1024, 0.01f,
+        Hash.MURMUR_HASH, 0);
+    bf.allocBloom();
+    assertEquals(1024, bf.getByteSize());
+
+    byte[] key1 = {1,2,3,4,5,6,7,8,9};
+    byte[] key2 = {1,2,3,4,5,6,7,8,7};
+    bf.add(key1);
+    assertTrue(bf.contains(key1));
+    assertFalse(bf.contains(key2));
+
+    // All the bits of a key are in one block
+    byte[] array = bf.bloom.array();
+    int firstSetByte = -1;
+    int lastSetByte = -1;
+    for (int i = 0; i < array.length; i++) {
+      if (array[i] != 0) {
+        if (firstSetByte < 0) {
+          firstSetByte = i;
+        }
+        lastSetByte = i;
+      }
+    }
+    assertTrue(firstSetByte >= 0);
+    assertEquals(firstSetByte / BlockedBloomFilter.BLOCK_BYTES,
+        lastSetByte / BlockedBloomFilter.BLOCK_BYTES);
+
+    byte [] bval = "this is a much larger byte array".getBytes();
+    bf.add(bval, 1, bval.length-1);
+    assertTrue(bf.contains(bval, 1, bval.length-1));
+    assertFalse(bf.contains(bval));
+
+    // Serialization & deserialization
+    ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+    bf.writeBloom(new DataOutputStream(bOut));
+    assertEquals(bf.getByteSize(), bOut.size());
+    byte[] serialized = new byte[bOut.size() + 3];
+    System.arraycopy(bOut.toByteArray(), 0, serialized, 3, bOut.size());
+    BlockedBloomFilter newBf = bf.createAnother();
+    ByteBuffer bb = ByteBuffer.wrap(bOut.toByteArray());
+    assertTrue(newBf.contains(key1, bb));
+    assertFalse(newBf.contains(key2, bb));
+    // As read from a Bloom block, at an offset
+    assertTrue(BlockedBloomFilter.contains(key1, 0, key1.length, serialized,
+        3, bOut.size(), bf.getHashCount()));
+    assertTrue(BlockedBloomFilter.contains(bval, 1, bval.length - 1,
+        serialized, 3, bOut.size(), bf.getHashCount()));
+    assertFalse(BlockedBloomFilter.contains(key2, 0, key2.length, serialized,
+        3, bOut.size(), bf.getHashCount()));
+  }
+
+  public void testBloomFold() throws Exception {
+    BlockedBloomFilter b = BlockedBloomFilter.createBySize(64 * 1024, 0.01f,
+        Hash.MURMUR_HASH, 2);
+    b.allocBloom();
+    long origSize = b.getByteSize();
+    // Folds twice, as the key count stays below half the capacity
+    int keys = (int) (b.getMaxKeys() / 5);
+    for (int i = 0; i < keys; ++i) {
+      b.add(Bytes.toBytes(i));
+    }
+    b.compactBloom();
+    assertEquals(origSize >> 2, b.getByteSize());
+    int falsePositives = 0;
+    for (int i = 0; i < 2 * keys; ++i) {
+      if (b.contains(Bytes.toBytes(i))) {
+        if (i >= keys) falsePositives++;
+      } else {
+        assertFalse(i < keys);
+      }
+    }
+    assertTrue("falsePositives=" + falsePositives,
+        falsePositives <= keys * b.actualErrorRate() * 2);
+  }
+
+  public void testFalsePositiveRate() throws Exception {
+    float err = 0.01f;
+    BlockedBloomFilter b = BlockedBloomFilter.createBySize(128 * 1024, err,
+        Hash.MURMUR_HASH, 0);
+    b.allocBloom();
+    int keys = (int) b.getMaxKeys();
+    for (int i = 0; i < keys; ++i) {
+      b.add(Bytes.toBytes(i));
+    }
+    assertTrue(b.actualErrorRate() <= err);
+
+    int trials = 1000 * 1000;
+    int falsePositives = 0;
+    for (int i = 0; i < keys + trials; ++i) {
+      if (b.contains(Bytes.toBytes(i))) {
+        if (i >= keys) falsePositives++;
+      } else {
+        assertFalse(i < keys);
+      }
+    }
+    double falsePosRate = falsePositives * 1.0 / trials;
+    double zValue = (falsePosRate - err) / Math.sqrt(err * (1 - err) / trials);
+    assertTrue("falsePosRate=" + falsePosRate, Math.abs(zValue) < 3);
+  }
+
+  public void testSizing() {
+    long bitSize = 8 * 128 * 1024;
+    double errorRate = 0.01;
+    int hashCount = 7;
+    long maxKeys = BlockedBloomFilter.computeMaxKeys(bitSize, errorRate,
+        hashCount);
+    assertTrue(BlockedBloomFilter.actualErrorRate(maxKeys, bitSize,
+        hashCount) <= errorRate);
+    assertTrue(BlockedBloomFilter.actualErrorRate(maxKeys + 1, bitSize,
+        hashCount) > errorRate);
+
+    // Keys fall unevenly into blocks, so a blocked filter holds fewer keys
+    // than a standard one, but not many fewer
+    long standardMaxKeys = ByteBloomFilter.computeMaxKeys(bitSize, errorRate,
+        hashCount);
+    assertTrue(maxKeys < standardMaxKeys);
+    assertTrue(maxKeys > standardMaxKeys * 0.8);
+  }
+}
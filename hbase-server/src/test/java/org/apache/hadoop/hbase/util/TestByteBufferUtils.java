@@ -103,6 +103,19 @@ public class TestByteBufferUtils {
     }
   }
 
+  @Test
+  public void testReadVLongAtOffset() {
+    final int offset = 3;
+    for (long l : testNumbers) {
+      ByteBuffer b = ByteBuffer.allocateDirect(offset + MAX_VLONG_LENGTH);
+      b.position(offset);
+      ByteBufferUtils.writeVLong(b, l);
+      b.clear();
+      assertEquals(l, ByteBufferUtils.readVLong(b, offset));
+      assertEquals(0, b.position());
+    }
+  }
+
   @Test
   public void testConsistencyWithHadoopVLong() throws IOException {
     ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -322,4 +335,24 @@ public class TestByteBufferUtils {
     assertEquals(5, buffer.position());
     assertEquals(5, buffer.limit());
   }
+
+  /**
+   * Test copying between arrays and heap or direct buffers, at offsets and
+   * without moving the buffer position.
+   */
+  @Test
+  public void testCopyBetweenArrayAndBuffer() {
+    ByteBuffer[] buffers = { ByteBuffer.allocate(16), ByteBuffer.allocateDirect(16) };
+    for (ByteBuffer buffer : buffers) {
+      buffer.position(3);
+      ByteBufferUtils.copyFromArrayToBuffer(buffer, 5, array, 2, 4);
+      assertEquals(3, buffer.position());
+      assertEquals(array[2], buffer.get(5));
+      assertEquals(array[5], buffer.get(8));
+      byte[] out = new byte[6];
+      ByteBufferUtils.copyFromBufferToArray(out, buffer, 5, 1, 4);
+      assertEquals(3, buffer.position());
+      assertArrayEquals(new byte[] { 0, array[2], array[3], array[4], array[5], 0 }, out);
+    }
+  }
 }